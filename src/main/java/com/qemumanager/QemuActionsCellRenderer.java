@@ -0,0 +1,221 @@
+package com.qemumanager;
+
+import javax.swing.*;
+import javax.swing.table.TableCellRenderer;
+import java.awt.*;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.awt.geom.Path2D;
+import java.awt.image.BufferedImage;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Lightweight renderer for "Actions" columns.
+ * Paints pre-rendered icons directly instead of laying out buttons per cell,
+ * and hit-tests clicks against the icon positions.
+ */
+public class QemuActionsCellRenderer extends JComponent implements TableCellRenderer {
+    public static final int ICON_SIZE = 20;
+    public static final int ROW_HEIGHT = 26;
+    private static final int GAP = 6;
+    private static final int PADDING = 4;
+
+    // Icon images are shared by every renderer instance
+    private static final Map<String, BufferedImage> ICON_CACHE = new HashMap<>();
+
+    /**
+     * Glyphs that can be painted for an action
+     */
+    public enum Glyph {
+        START, STOP, CONNECT, INFO, DELETE, OPEN
+    }
+
+    /**
+     * Supplies enabled state and handles clicks for the actions of a model row
+     */
+    public interface ActionHandler {
+        boolean isEnabled(int modelRow, int action);
+
+        void perform(int modelRow, int action);
+    }
+
+    private final Glyph[] glyphs;
+    private final Color[] colors;
+    private final String[] tooltips;
+    private final ActionHandler handler;
+    private final boolean[] enabled;
+    // This renderer's icons by action, enabled and disabled, so painting a cell needs no lookup
+    private final BufferedImage[][] icons;
+    private Color rowBackground;
+
+    public QemuActionsCellRenderer(Glyph[] glyphs, Color[] colors, String[] tooltips, ActionHandler handler) {
+        this.glyphs = glyphs;
+        this.colors = colors;
+        this.tooltips = tooltips;
+        this.handler = handler;
+        this.enabled = new boolean[glyphs.length];
+        this.icons = new BufferedImage[glyphs.length][2];
+        setOpaque(true);
+    }
+
+    /**
+     * Installs this renderer on the given column and wires up click handling
+     */
+    public void install(JTable table, int column) {
+        table.getColumnModel().getColumn(column).setCellRenderer(this);
+        table.getColumnModel().getColumn(column).setMinWidth(getPreferredWidth());
+        table.setRowHeight(ROW_HEIGHT);
+        table.addMouseListener(new MouseAdapter() {
+            @Override
+            public void mouseClicked(MouseEvent e) {
+                if (!SwingUtilities.isLeftMouseButton(e) || e.getClickCount() != 1) {
+                    return;
+                }
+                int viewRow = table.rowAtPoint(e.getPoint());
+                int viewColumn = table.columnAtPoint(e.getPoint());
+                if (viewRow < 0 || viewColumn < 0 || table.convertColumnIndexToModel(viewColumn) != column) {
+                    return;
+                }
+                Rectangle cell = table.getCellRect(viewRow, viewColumn, false);
+                int action = actionAt(e.getX() - cell.x, e.getY() - cell.y, cell.height);
+                int modelRow = table.convertRowIndexToModel(viewRow);
+                if (action >= 0 && handler.isEnabled(modelRow, action)) {
+                    handler.perform(modelRow, action);
+                }
+            }
+        });
+    }
+
+    public int getPreferredWidth() {
+        return PADDING * 2 + glyphs.length * ICON_SIZE + (glyphs.length - 1) * GAP;
+    }
+
+    /**
+     * Returns the action under the given cell-relative point, or -1
+     */
+    public int actionAt(int x, int y, int cellHeight) {
+        int top = (cellHeight - ICON_SIZE) / 2;
+        if (y < top || y >= top + ICON_SIZE || x < PADDING) {
+            return -1;
+        }
+        int slot = (x - PADDING) / (ICON_SIZE + GAP);
+        int offset = (x - PADDING) % (ICON_SIZE + GAP);
+        if (slot >= glyphs.length || offset >= ICON_SIZE) {
+            return -1;
+        }
+        return slot;
+    }
+
+    @Override
+    public Component getTableCellRendererComponent(JTable table, Object value,
+            boolean isSelected, boolean hasFocus, int row, int column) {
+        int modelRow = table.convertRowIndexToModel(row);
+        for (int i = 0; i < glyphs.length; i++) {
+            enabled[i] = handler.isEnabled(modelRow, i);
+        }
+        rowBackground = isSelected ? table.getSelectionBackground() : table.getBackground();
+        return this;
+    }
+
+    @Override
+    public String getToolTipText(MouseEvent event) {
+        int action = actionAt(event.getX(), event.getY(), getHeight() > 0 ? getHeight() : ROW_HEIGHT);
+        return action >= 0 ? tooltips[action] : null;
+    }
+
+    @Override
+    protected void paintComponent(Graphics g) {
+        g.setColor(rowBackground);
+        g.fillRect(0, 0, getWidth(), getHeight());
+        int y = (getHeight() - ICON_SIZE) / 2;
+        int x = PADDING;
+        for (int i = 0; i < glyphs.length; i++) {
+            int state = enabled[i] ? 1 : 0;
+            if (icons[i][state] == null) {
+                icons[i][state] = getIcon(glyphs[i], colors[i], enabled[i]);
+            }
+            g.drawImage(icons[i][state], x, y, null);
+            x += ICON_SIZE + GAP;
+        }
+    }
+
+    // The default renderer overrides below skip work Swing would otherwise do per cell
+    @Override
+    public void invalidate() {
+    }
+
+    @Override
+    public void validate() {
+    }
+
+    @Override
+    public void revalidate() {
+    }
+
+    @Override
+    public void repaint(long tm, int x, int y, int width, int height) {
+    }
+
+    @Override
+    public void repaint(Rectangle r) {
+    }
+
+    private static BufferedImage getIcon(Glyph glyph, Color color, boolean enabled) {
+        String key = glyph + ":" + color.getRGB() + ":" + enabled;
+        BufferedImage icon = ICON_CACHE.get(key);
+        if (icon == null) {
+            icon = paintIcon(glyph, enabled ? color : Color.LIGHT_GRAY);
+            ICON_CACHE.put(key, icon);
+        }
+        return icon;
+    }
+
+    private static BufferedImage paintIcon(Glyph glyph, Color color) {
+        BufferedImage icon = new BufferedImage(ICON_SIZE, ICON_SIZE, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g2d = icon.createGraphics();
+        g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        g2d.setColor(color);
+        g2d.fillRoundRect(0, 0, ICON_SIZE, ICON_SIZE, 6, 6);
+        g2d.setColor(Color.WHITE);
+        g2d.setStroke(new BasicStroke(2f));
+
+        int s = ICON_SIZE;
+        switch (glyph) {
+            case START: {
+                Path2D triangle = new Path2D.Float();
+                triangle.moveTo(s * 0.35, s * 0.25);
+                triangle.lineTo(s * 0.75, s * 0.5);
+                triangle.lineTo(s * 0.35, s * 0.75);
+                triangle.closePath();
+                g2d.fill(triangle);
+                break;
+            }
+            case STOP:
+                g2d.fillRect(s * 3 / 10, s * 3 / 10, s * 2 / 5, s * 2 / 5);
+                break;
+            case CONNECT:
+                g2d.drawRect(s / 5, s / 4, s * 3 / 5, s * 2 / 5);
+                g2d.drawLine(s / 2, s * 13 / 20, s / 2, s * 3 / 4);
+                g2d.drawLine(s * 7 / 20, s * 3 / 4, s * 13 / 20, s * 3 / 4);
+                break;
+            case INFO:
+                g2d.fillOval(s / 2 - 2, s / 5, 4, 4);
+                g2d.fillRect(s / 2 - 2, s * 2 / 5, 4, s * 2 / 5);
+                break;
+            case DELETE:
+                g2d.drawLine(s * 3 / 10, s * 3 / 10, s * 7 / 10, s * 7 / 10);
+                g2d.drawLine(s * 7 / 10, s * 3 / 10, s * 3 / 10, s * 7 / 10);
+                break;
+            case OPEN:
+                g2d.fillRect(s / 5, s * 3 / 10, s / 4, s / 10);
+                g2d.drawRect(s / 5, s * 2 / 5, s * 3 / 5, s * 7 / 20);
+                break;
+            default:
+                break;
+        }
+
+        g2d.dispose();
+        return icon;
+    }
+}
@@ -0,0 +1,253 @@
+package com.qemumanager;
+
+import javax.swing.*;
+import javax.swing.table.DefaultTableModel;
+import java.awt.*;
+import java.io.File;
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Lists the backup chain of a VM and runs backups, verification and restores
+ */
+public class QemuBackupDialog extends JDialog {
+    private static final long MB = 1024L * 1024L;
+
+    private final QemuVm vm;
+    private final QemuConsolePanel consolePanel;
+    private DefaultTableModel tableModel;
+    private JTable table;
+    private List<QemuBackupManager.Entry> entries;
+    private JLabel statusLabel;
+    private JProgressBar progressBar;
+    private JButton backupButton;
+    private JButton verifyButton;
+    private JButton restoreButton;
+
+    public QemuBackupDialog(JFrame parent, QemuVm vm, QemuConsolePanel consolePanel) {
+        super(parent, "Backups - " + vm.getName(), false);
+        this.vm = vm;
+        this.consolePanel = consolePanel;
+        initializeUI();
+        refresh();
+    }
+
+    private void initializeUI() {
+        setSize(820, 420);
+        setLocationRelativeTo(getParent());
+        setDefaultCloseOperation(DISPOSE_ON_CLOSE);
+
+        tableModel = new DefaultTableModel(
+            new Object[]{"Time", "Type", "File", "File MB", "Changed", "MB/s", "Consistency"}, 0) {
+            @Override
+            public boolean isCellEditable(int row, int column) {
+                return false;
+            }
+        };
+        table = new JTable(tableModel);
+        table.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+        table.getColumnModel().getColumn(0).setPreferredWidth(140);
+        table.getColumnModel().getColumn(2).setPreferredWidth(200);
+        table.getSelectionModel().addListSelectionListener(e -> updateButtons());
+
+        JPanel mainPanel = new JPanel(new BorderLayout(5, 5));
+        mainPanel.setBorder(BorderFactory.createEmptyBorder(10, 10, 10, 10));
+        mainPanel.add(new JLabel("Directory: " + QemuBackupManager.getInstance().getBackupDirectory(vm)),
+            BorderLayout.NORTH);
+        mainPanel.add(new JScrollPane(table), BorderLayout.CENTER);
+
+        JPanel southPanel = new JPanel(new BorderLayout(5, 5));
+        statusLabel = new JLabel(" ");
+        progressBar = new JProgressBar(0, 100);
+        progressBar.setStringPainted(true);
+        progressBar.setVisible(false);
+        southPanel.add(statusLabel, BorderLayout.NORTH);
+        southPanel.add(progressBar, BorderLayout.CENTER);
+
+        JPanel buttonPanel = new JPanel(new FlowLayout(FlowLayout.RIGHT));
+        backupButton = new JButton("Back Up Now");
+        verifyButton = new JButton("Verify");
+        restoreButton = new JButton("Restore...");
+        JButton closeButton = new JButton("Close");
+        backupButton.addActionListener(e -> startBackup());
+        verifyButton.addActionListener(e -> verify());
+        restoreButton.addActionListener(e -> restore());
+        closeButton.addActionListener(e -> dispose());
+        buttonPanel.add(backupButton);
+        buttonPanel.add(verifyButton);
+        buttonPanel.add(restoreButton);
+        buttonPanel.add(closeButton);
+        southPanel.add(buttonPanel, BorderLayout.SOUTH);
+        mainPanel.add(southPanel, BorderLayout.SOUTH);
+        setContentPane(mainPanel);
+    }
+
+    private void refresh() {
+        entries = QemuBackupManager.getInstance().getEntries(vm);
+        SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+        tableModel.setRowCount(0);
+        for (QemuBackupManager.Entry entry : entries) {
+            tableModel.addRow(new Object[]{
+                dateFormat.format(new Date(entry.getTimeMs())),
+                entry.isFull() ? "Full" : "Incremental",
+                entry.getFile(),
+                entry.getFileBytes() / MB,
+                String.format("%.1f%%", entry.getChangedRatio() * 100),
+                String.format("%.1f", entry.getThroughputMBps()),
+                entry.isQuiesced() ? "Consistent" : "Crash-consistent"
+            });
+        }
+        updateButtons();
+    }
+
+    private void updateButtons() {
+        boolean busy = progressBar.isVisible();
+        backupButton.setEnabled(!busy && !QemuBackupManager.getInstance().isRunning(vm));
+        verifyButton.setEnabled(!busy && !entries.isEmpty());
+        restoreButton.setEnabled(!busy && table.getSelectedRow() >= 0);
+    }
+
+    private void setBusy(String status) {
+        statusLabel.setText(status);
+        progressBar.setValue(0);
+        progressBar.setIndeterminate(true);
+        progressBar.setVisible(true);
+        updateButtons();
+    }
+
+    private void setIdle(String status) {
+        statusLabel.setText(status);
+        progressBar.setIndeterminate(false);
+        progressBar.setVisible(false);
+        refresh();
+    }
+
+    /**
+     * Backs up the VM now, showing the job's progress in the dialog
+     */
+    public void startBackup() {
+        setBusy(vm.getStatus().isActive() ? "Starting backup job..." : "Copying the disk of the stopped VM...");
+        SwingWorker<QemuBackupManager.Entry, long[]> worker = new SwingWorker<QemuBackupManager.Entry, long[]>() {
+            @Override
+            protected QemuBackupManager.Entry doInBackground() throws Exception {
+                return QemuBackupManager.getInstance().backup(vm, (done, total) -> publish(new long[]{done, total}));
+            }
+
+            @Override
+            protected void process(List<long[]> chunks) {
+                long[] progress = chunks.get(chunks.size() - 1);
+                if (progress[1] > 0) {
+                    progressBar.setIndeterminate(false);
+                    progressBar.setValue((int) (progress[0] * 100 / progress[1]));
+                    statusLabel.setText("Copied " + progress[0] / MB + " of " + progress[1] / MB + " MB");
+                }
+            }
+
+            @Override
+            protected void done() {
+                try {
+                    QemuBackupManager.Entry entry = get();
+                    String detail = entry.describe();
+                    QemuEventJournal.getInstance().record(QemuEventJournal.Type.BACKUP_COMPLETED, vm.getName(),
+                        QemuEventJournal.ACTOR_USER, entry.getDurationMs(), detail);
+                    log("Backed up VM " + vm.getName() + ": " + detail);
+                    setIdle(detail);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } catch (ExecutionException e) {
+                    String message = e.getCause() != null ? e.getCause().getMessage() : e.getMessage();
+                    QemuEventJournal.getInstance().record(QemuEventJournal.Type.BACKUP_FAILED, vm,
+                        QemuEventJournal.ACTOR_USER, message);
+                    log("Backup of VM " + vm.getName() + " failed: " + message);
+                    setIdle("Backup failed: " + message);
+                }
+            }
+        };
+        worker.execute();
+    }
+
+    private void verify() {
+        setBusy("Verifying checksums...");
+        SwingWorker<List<String>, Void> worker = new SwingWorker<List<String>, Void>() {
+            @Override
+            protected List<String> doInBackground() throws Exception {
+                return QemuBackupManager.getInstance().verify(vm);
+            }
+
+            @Override
+            protected void done() {
+                try {
+                    List<String> problems = get();
+                    if (problems.isEmpty()) {
+                        setIdle("All " + entries.size() + " backup files match their checksums");
+                    } else {
+                        setIdle(problems.size() + " problem(s) found");
+                        JOptionPane.showMessageDialog(QemuBackupDialog.this, String.join("\n", problems),
+                            "Backup Verification", JOptionPane.WARNING_MESSAGE);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } catch (ExecutionException e) {
+                    setIdle("Verification failed: " + e.getCause().getMessage());
+                }
+            }
+        };
+        worker.execute();
+    }
+
+    private void restore() {
+        int row = table.getSelectedRow();
+        if (row < 0) {
+            return;
+        }
+        QemuBackupManager.Entry entry = entries.get(table.convertRowIndexToModel(row));
+        JFileChooser fileChooser = new JFileChooser(QemuSettings.getInstance().getQemuManagerDisksPath());
+        fileChooser.setDialogTitle("Restore To New Image");
+        fileChooser.setSelectedFile(new File(QemuSettings.getInstance().getQemuManagerDisksPath(),
+            vm.getFileSafeName() + "-restored-" + entry.getFile()));
+        if (fileChooser.showSaveDialog(this) != JFileChooser.APPROVE_OPTION) {
+            return;
+        }
+        File output = fileChooser.getSelectedFile();
+
+        setBusy("Restoring " + entry.getFile() + " to " + output + "...");
+        SwingWorker<Void, Void> worker = new SwingWorker<Void, Void>() {
+            @Override
+            protected Void doInBackground() throws IOException {
+                QemuBackupManager.getInstance().restore(vm, entry, output);
+                return null;
+            }
+
+            @Override
+            protected void done() {
+                try {
+                    get();
+                    QemuEventJournal.getInstance().record(QemuEventJournal.Type.BACKUP_RESTORED, vm,
+                        QemuEventJournal.ACTOR_USER, entry.getFile() + " to " + output);
+                    log("Restored backup " + entry.getFile() + " of VM " + vm.getName() + " to " + output);
+                    setIdle("Restored to " + output);
+                    JOptionPane.showMessageDialog(QemuBackupDialog.this,
+                        "Restored to " + output + ".\nPoint the VM's disk at this image to use it.",
+                        "Restore Complete", JOptionPane.INFORMATION_MESSAGE);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } catch (ExecutionException e) {
+                    String message = e.getCause() != null ? e.getCause().getMessage() : e.getMessage();
+                    setIdle("Restore failed: " + message);
+                    JOptionPane.showMessageDialog(QemuBackupDialog.this, "Restore failed: " + message,
+                        "Restore Error", JOptionPane.ERROR_MESSAGE);
+                }
+            }
+        };
+        worker.execute();
+    }
+
+    private void log(String message) {
+        if (consolePanel != null) {
+            consolePanel.appendMessage(message);
+        }
+    }
+}
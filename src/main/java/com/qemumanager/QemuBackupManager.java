@@ -0,0 +1,577 @@
+package com.qemumanager;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.text.SimpleDateFormat;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps a chain of incremental disk backups per VM in the backup directory.
+ * A running VM's disk carries a persistent dirty bitmap that QEMU maintains
+ * on every guest write; a backup job copies a point-in-time view of the disk
+ * (blockdev-backup, which preserves old data before the guest overwrites it)
+ * into a new qcow2 file. The first backup of a chain copies everything and
+ * starts the bitmap, later ones copy only the clusters the bitmap marks and
+ * sit on top of the previous file as their backing image, so the newest file
+ * opens as the complete disk. Every file is recorded with its SHA-256 in a
+ * JSON-lines manifest next to the chain.
+ */
+public class QemuBackupManager {
+    private static QemuBackupManager instance;
+
+    public static final String BITMAP_NAME = "qemumanager-backup";
+    private static final String TARGET_NODE = "backup-target";
+    private static final String JOB_ID = "backup-disk0";
+    private static final String MANIFEST_FILE = "manifest.jsonl";
+    private static final long POLL_INTERVAL_MS = 500;
+    private static final long MB = 1024L * 1024L;
+
+    /**
+     * One backup file in a chain
+     */
+    public static class Entry {
+        private final String file;
+        private final boolean full;
+        private final String parent;
+        private final long timeMs;
+        private final String sha256;
+        private final long fileBytes;
+        private final long virtualSize;
+        private final long changedBytes;
+        private final long durationMs;
+        private final boolean quiesced;
+        private final String diskPath;
+
+        public Entry(String file, boolean full, String parent, long timeMs, String sha256, long fileBytes,
+                     long virtualSize, long changedBytes, long durationMs, boolean quiesced, String diskPath) {
+            this.file = file;
+            this.full = full;
+            this.parent = parent;
+            this.timeMs = timeMs;
+            this.sha256 = sha256;
+            this.fileBytes = fileBytes;
+            this.virtualSize = virtualSize;
+            this.changedBytes = changedBytes;
+            this.durationMs = durationMs;
+            this.quiesced = quiesced;
+            this.diskPath = diskPath;
+        }
+
+        /**
+         * File name within the VM's backup directory
+         */
+        public String getFile() {
+            return file;
+        }
+
+        public boolean isFull() {
+            return full;
+        }
+
+        /**
+         * File this backup is based on, or null for a full backup
+         */
+        public String getParent() {
+            return parent;
+        }
+
+        public long getTimeMs() {
+            return timeMs;
+        }
+
+        public String getSha256() {
+            return sha256;
+        }
+
+        public long getFileBytes() {
+            return fileBytes;
+        }
+
+        public long getVirtualSize() {
+            return virtualSize;
+        }
+
+        /**
+         * Guest-visible bytes copied by the job: the whole disk for a full backup, the dirty clusters otherwise
+         */
+        public long getChangedBytes() {
+            return changedBytes;
+        }
+
+        public long getDurationMs() {
+            return durationMs;
+        }
+
+        /**
+         * True if the VM was stopped or the guest agent froze its file systems, false if crash-consistent
+         */
+        public boolean isQuiesced() {
+            return quiesced;
+        }
+
+        public String getDiskPath() {
+            return diskPath;
+        }
+
+        /**
+         * Share of the disk that changed since the previous backup, 0 to 1
+         */
+        public double getChangedRatio() {
+            return virtualSize > 0 ? (double) changedBytes / virtualSize : 0;
+        }
+
+        public double getThroughputMBps() {
+            return durationMs > 0 ? changedBytes / (double) MB * 1000.0 / durationMs : 0;
+        }
+
+        public String describe() {
+            return String.format("%s backup %s: %d MB copied (%.1f%% of %d MB) in %.1f s, %.1f MB/s, %s",
+                full ? "full" : "incremental", file, changedBytes / MB, getChangedRatio() * 100,
+                virtualSize / MB, durationMs / 1000.0, getThroughputMBps(),
+                quiesced ? "consistent" : "crash-consistent");
+        }
+
+        Map<String, Object> toJson() {
+            return QemuJson.object("file", file, "type", full ? "full" : "incremental", "parent", parent,
+                "time", timeMs, "sha256", sha256, "bytes", fileBytes, "virtualSize", virtualSize,
+                "changedBytes", changedBytes, "durationMs", durationMs, "quiesced", quiesced, "disk", diskPath);
+        }
+
+        static Entry fromJson(Map<String, Object> json) {
+            return new Entry(QemuJson.getString(json, "file"), !"incremental".equals(QemuJson.getString(json, "type")),
+                QemuJson.getString(json, "parent"), QemuJson.getLong(json, "time", 0),
+                QemuJson.getString(json, "sha256"), QemuJson.getLong(json, "bytes", 0),
+                QemuJson.getLong(json, "virtualSize", 0), QemuJson.getLong(json, "changedBytes", 0),
+                QemuJson.getLong(json, "durationMs", 0), QemuJson.getBoolean(json, "quiesced", false),
+                QemuJson.getString(json, "disk"));
+        }
+    }
+
+    public interface Listener {
+        void progress(long doneBytes, long totalBytes);
+    }
+
+    private final Set<String> runningBackups = ConcurrentHashMap.newKeySet();
+
+    private QemuBackupManager() {
+    }
+
+    public static synchronized QemuBackupManager getInstance() {
+        if (instance == null) {
+            instance = new QemuBackupManager();
+        }
+        return instance;
+    }
+
+    public File getBackupDirectory(QemuVm vm) {
+        return new File(QemuSettings.getInstance().getBackupPath(), vm.getFileSafeName());
+    }
+
+    public boolean isRunning(QemuVm vm) {
+        return runningBackups.contains(vm.getName());
+    }
+
+    /**
+     * Returns the backups of the VM, oldest first
+     */
+    public List<Entry> getEntries(QemuVm vm) {
+        List<Entry> entries = new ArrayList<>();
+        File manifest = new File(getBackupDirectory(vm), MANIFEST_FILE);
+        if (!manifest.exists()) {
+            return entries;
+        }
+        try (BufferedReader reader = Files.newBufferedReader(manifest.toPath(), StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.trim().isEmpty()) {
+                    continue;
+                }
+                try {
+                    entries.add(Entry.fromJson(QemuJson.parseObject(line)));
+                } catch (IllegalArgumentException e) {
+                    System.err.println("Skipping corrupt backup manifest line for " + vm.getName() + ": " + e.getMessage());
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Failed to read backup manifest of " + vm.getName() + ": " + e.getMessage());
+        }
+        return entries;
+    }
+
+    /**
+     * Backs up the VM's disk: incrementally from the dirty bitmap while it runs and the chain
+     * allows, else a full copy. Old chains beyond the retention are pruned afterwards.
+     */
+    public Entry backup(QemuVm vm, Listener listener) throws IOException {
+        if (vm.getDiskPath() == null || vm.getDiskPath().isEmpty()) {
+            throw new IOException("VM " + vm.getName() + " has no disk");
+        }
+        if (!runningBackups.add(vm.getName())) {
+            throw new IOException("A backup of " + vm.getName() + " is already running");
+        }
+        try {
+            File directory = getBackupDirectory(vm);
+            if (!directory.isDirectory() && !directory.mkdirs()) {
+                throw new IOException("Cannot create backup directory " + directory);
+            }
+            boolean running = vm.getStatus().isActive();
+            Entry entry = running ? backupRunning(vm, directory, listener) : backupStopped(vm, directory);
+            try {
+                appendEntry(vm, entry);
+            } catch (IOException e) {
+                // Unrecorded, the file cannot be part of a chain and the bitmap no longer matches the last entry
+                new File(directory, entry.getFile()).delete();
+                if (running) {
+                    QemuMonitorClient client = QemuMonitorManager.getInstance().getClient(vm);
+                    removeBitmap(client, QemuDiskNodes.find(client).getFormat());
+                }
+                throw e;
+            }
+            prune(vm);
+            return entry;
+        } finally {
+            runningBackups.remove(vm.getName());
+        }
+    }
+
+    private Entry backupRunning(QemuVm vm, File directory, Listener listener) throws IOException {
+        QemuMonitorClient client = QemuMonitorManager.getInstance().getClient(vm);
+        QemuDiskNodes nodes = QemuDiskNodes.find(client);
+        Map<String, Object> node = nodes.getFormatInfo();
+        long virtualSize = QemuJson.getLong(QemuJson.getObject(node, "image"), "virtual-size", 0);
+        Map<String, Object> bitmap = null;
+        for (Object item : QemuJson.getList(node, "dirty-bitmaps")) {
+            if (item instanceof Map && BITMAP_NAME.equals(((Map<?, ?>) item).get("name"))) {
+                @SuppressWarnings("unchecked")
+                Map<String, Object> map = (Map<String, Object>) item;
+                bitmap = map;
+            }
+        }
+
+        Entry previous = chooseParent(vm, directory, bitmap);
+        boolean full = previous == null;
+        if (full && bitmap != null) {
+            removeBitmap(client, nodes.getFormat());
+        }
+
+        long startTime = System.currentTimeMillis();
+        File target = new File(directory, newFileName(startTime, full));
+        if (full) {
+            QemuImageTool.run("create", "-f", "qcow2", target.getPath(), String.valueOf(virtualSize));
+        } else {
+            // Relative, so the chain can be moved or copied as a whole
+            QemuImageTool.run("create", "-f", "qcow2", "-b", previous.getFile(), "-F", "qcow2",
+                target.getPath(), String.valueOf(virtualSize));
+        }
+
+        boolean succeeded = false;
+        boolean jobStarted = false;
+        try {
+            // The job writes only what it copies; reads of the file fall through to the chain below
+            client.execute("blockdev-add", QemuJson.object("driver", "qcow2", "node-name", TARGET_NODE,
+                "file", QemuJson.object("driver", "file", "filename", target.getAbsolutePath()), "backing", null));
+
+            List<Object> actions = new ArrayList<>();
+            if (full) {
+                // Tracking starts at the same instant as the copy
+                actions.add(QemuJson.object("type", "block-dirty-bitmap-add", "data",
+                    QemuJson.object("node", nodes.getFormat(), "name", BITMAP_NAME, "persistent", true)));
+            }
+            Map<String, Object> backupArguments = QemuJson.object("job-id", JOB_ID, "device", nodes.getFormat(),
+                "target", TARGET_NODE, "sync", full ? "full" : "incremental", "auto-dismiss", false);
+            if (!full) {
+                // Cleared when the job succeeds, otherwise the clusters stay marked for the next attempt
+                backupArguments.put("bitmap", BITMAP_NAME);
+            }
+            actions.add(QemuJson.object("type", "blockdev-backup", "data", backupArguments));
+
+            boolean quiesced = startTransaction(vm, client, actions);
+            jobStarted = true;
+            long copied = waitForJob(client, listener);
+            succeeded = true;
+
+            long durationMs = System.currentTimeMillis() - startTime;
+            return new Entry(target.getName(), full, full ? null : previous.getFile(), startTime, sha256(target),
+                target.length(), virtualSize, copied, durationMs, quiesced, vm.getDiskPath());
+        } finally {
+            if (jobStarted) {
+                try {
+                    client.execute("job-dismiss", QemuJson.object("id", JOB_ID));
+                } catch (IOException e) {
+                    // Already gone, e.g. cancelled
+                }
+            }
+            try {
+                client.execute("blockdev-del", QemuJson.object("node-name", TARGET_NODE));
+            } catch (IOException e) {
+                System.err.println("Failed to detach backup target of " + vm.getName() + ": " + e.getMessage());
+            }
+            if (!succeeded) {
+                if (full) {
+                    // A bitmap without a matching full backup would make the next incremental miss writes
+                    removeBitmap(client, nodes.getFormat());
+                }
+                target.delete();
+            }
+        }
+    }
+
+    /**
+     * Returns the backup an incremental one can build on, or null if the next one must be full
+     */
+    private Entry chooseParent(QemuVm vm, File directory, Map<String, Object> bitmap) {
+        if (bitmap == null || QemuJson.getBoolean(bitmap, "inconsistent", false)) {
+            return null; // Never started, or QEMU was not shut down cleanly
+        }
+        List<Entry> entries = getEntries(vm);
+        if (entries.isEmpty()) {
+            return null;
+        }
+        Entry last = entries.get(entries.size() - 1);
+        if (!vm.getDiskPath().equals(last.getDiskPath()) || !new File(directory, last.getFile()).isFile()) {
+            return null;
+        }
+        if (getChain(entries, last).size() >= QemuSettings.getInstance().getBackupFullEvery()) {
+            return null;
+        }
+        return last;
+    }
+
+    /**
+     * Starts the backup with the guest's file systems frozen if it has an agent that answers.
+     * The freeze only has to cover the transaction: from then on the job copies the old data
+     * of every cluster before the guest overwrites it. Returns whether the guest was frozen.
+     */
+    private boolean startTransaction(QemuVm vm, QemuMonitorClient client, List<Object> actions) throws IOException {
+        Map<String, Object> arguments = QemuJson.object("actions", actions);
+        if (vm.getGuestAgentPort() > 0) {
+            boolean[] started = {false};
+            try {
+                QemuGuestAgentManager.getInstance().withFrozenFilesystems(vm, () -> {
+                    started[0] = true;
+                    client.execute("transaction", arguments);
+                });
+                return true;
+            } catch (IOException e) {
+                if (started[0]) {
+                    throw e;
+                }
+                System.err.println("Cannot freeze file systems of " + vm.getName() + ", backing up crash-consistent: "
+                    + e.getMessage());
+            }
+        }
+        client.execute("transaction", arguments);
+        return false;
+    }
+
+    /**
+     * Polls the job until it concludes and returns the bytes it copied
+     */
+    private long waitForJob(QemuMonitorClient client, Listener listener) throws IOException {
+        while (true) {
+            Map<String, Object> job = null;
+            Object jobs = client.execute("query-jobs");
+            if (jobs instanceof List) {
+                for (Object item : (List<?>) jobs) {
+                    if (item instanceof Map && JOB_ID.equals(((Map<?, ?>) item).get("id"))) {
+                        @SuppressWarnings("unchecked")
+                        Map<String, Object> map = (Map<String, Object>) item;
+                        job = map;
+                    }
+                }
+            }
+            if (job == null) {
+                throw new IOException("Backup job disappeared");
+            }
+            long done = QemuJson.getLong(job, "current-progress", 0);
+            long total = QemuJson.getLong(job, "total-progress", 0);
+            if ("concluded".equals(QemuJson.getString(job, "status"))) {
+                String error = QemuJson.getString(job, "error");
+                if (error != null) {
+                    throw new IOException("Backup job failed: " + error);
+                }
+                return done;
+            }
+            if (listener != null) {
+                listener.progress(done, total);
+            }
+            try {
+                Thread.sleep(POLL_INTERVAL_MS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                client.execute("job-cancel", QemuJson.object("id", JOB_ID));
+                throw new InterruptedIOException("Backup interrupted");
+            }
+        }
+    }
+
+    private void removeBitmap(QemuMonitorClient client, String node) {
+        try {
+            client.execute("block-dirty-bitmap-remove", QemuJson.object("node", node, "name", BITMAP_NAME));
+        } catch (IOException e) {
+            // Not there
+        }
+    }
+
+    /**
+     * A stopped VM's disk is copied whole; the dirty bitmap in the image only ever
+     * grows while the VM is off, so a later incremental on top of this stays complete
+     */
+    private Entry backupStopped(QemuVm vm, File directory) throws IOException {
+        long startTime = System.currentTimeMillis();
+        long virtualSize = QemuJson.getLong(QemuImageTool.info(vm.getDiskPath()), "virtual-size", 0);
+        File target = new File(directory, newFileName(startTime, true));
+        try {
+            QemuImageTool.run("convert", "-O", "qcow2", vm.getDiskPath(), target.getPath());
+            long durationMs = System.currentTimeMillis() - startTime;
+            return new Entry(target.getName(), true, null, startTime, sha256(target), target.length(),
+                virtualSize, virtualSize, durationMs, true, vm.getDiskPath());
+        } catch (IOException e) {
+            target.delete();
+            throw e;
+        }
+    }
+
+    /**
+     * Recomputes the checksum of every backup file and returns the problems found, empty if none
+     */
+    public List<String> verify(QemuVm vm) throws IOException {
+        List<String> problems = new ArrayList<>();
+        File directory = getBackupDirectory(vm);
+        for (Entry entry : getEntries(vm)) {
+            File file = new File(directory, entry.getFile());
+            if (!file.isFile()) {
+                problems.add(entry.getFile() + " is missing");
+            } else if (!sha256(file).equals(entry.getSha256())) {
+                problems.add(entry.getFile() + " does not match its checksum");
+            }
+        }
+        return problems;
+    }
+
+    /**
+     * Writes the disk as it was at the given backup to a new standalone image, flattening the
+     * chain below it. The files involved are verified first.
+     */
+    public void restore(QemuVm vm, Entry entry, File output) throws IOException {
+        if (output.exists()) {
+            throw new IOException(output + " already exists");
+        }
+        File directory = getBackupDirectory(vm);
+        List<Entry> chain = getChain(getEntries(vm), entry);
+        if (!chain.get(0).isFull()) {
+            throw new IOException("The full backup below " + entry.getFile() + " is no longer in the manifest");
+        }
+        for (Entry link : chain) {
+            File file = new File(directory, link.getFile());
+            if (!file.isFile() || !sha256(file).equals(link.getSha256())) {
+                throw new IOException(link.getFile() + " is missing or damaged, cannot restore from it");
+            }
+        }
+        try {
+            QemuImageTool.run("convert", "-O", "qcow2", new File(directory, entry.getFile()).getPath(),
+                output.getPath());
+        } catch (IOException e) {
+            output.delete();
+            throw e;
+        }
+    }
+
+    /**
+     * Deletes chains older than the configured number of chains to keep and returns the number
+     * of files removed. A chain is a full backup with the incrementals on top of it.
+     */
+    public synchronized int prune(QemuVm vm) throws IOException {
+        List<Entry> entries = getEntries(vm);
+        int keepChains = Math.max(1, QemuSettings.getInstance().getBackupRetentionChains());
+        int chains = 0;
+        int firstKept = 0;
+        for (int i = entries.size() - 1; i >= 0; i--) {
+            if (entries.get(i).isFull() && ++chains == keepChains) {
+                firstKept = i;
+                break;
+            }
+        }
+        if (chains < keepChains || firstKept == 0) {
+            return 0;
+        }
+
+        File directory = getBackupDirectory(vm);
+        List<Entry> kept = entries.subList(firstKept, entries.size());
+        writeManifest(vm, kept);
+        int removed = 0;
+        for (Entry entry : entries.subList(0, firstKept)) {
+            if (new File(directory, entry.getFile()).delete()) {
+                removed++;
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * Returns the entries from the full backup up to the given one, oldest first
+     */
+    public static List<Entry> getChain(List<Entry> entries, Entry entry) {
+        Map<String, Entry> byFile = new HashMap<>();
+        for (Entry candidate : entries) {
+            byFile.put(candidate.getFile(), candidate);
+        }
+        LinkedList<Entry> chain = new LinkedList<>();
+        Entry current = entry;
+        while (current != null && chain.size() <= entries.size()) {
+            chain.addFirst(current);
+            current = current.getParent() != null ? byFile.get(current.getParent()) : null;
+        }
+        return chain;
+    }
+
+    private static String newFileName(long timeMs, boolean full) {
+        return new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date(timeMs)) + (full ? "-full" : "-inc") + ".qcow2";
+    }
+
+    private synchronized void appendEntry(QemuVm vm, Entry entry) throws IOException {
+        File manifest = new File(getBackupDirectory(vm), MANIFEST_FILE);
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(manifest, true), StandardCharsets.UTF_8)) {
+            writer.write(QemuJson.write(entry.toJson()));
+            writer.write('\n');
+        }
+    }
+
+    private void writeManifest(QemuVm vm, List<Entry> entries) throws IOException {
+        File manifest = new File(getBackupDirectory(vm), MANIFEST_FILE);
+        File temp = new File(manifest.getPath() + ".tmp");
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(temp), StandardCharsets.UTF_8)) {
+            for (Entry entry : entries) {
+                writer.write(QemuJson.write(entry.toJson()));
+                writer.write('\n');
+            }
+        }
+        Files.move(temp.toPath(), manifest.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static String sha256(File file) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+        byte[] buffer = new byte[1 << 20];
+        try (InputStream in = new FileInputStream(file)) {
+            int read;
+            while ((read = in.read(buffer)) > 0) {
+                digest.update(buffer, 0, read);
+            }
+        }
+        StringBuilder hex = new StringBuilder();
+        for (byte b : digest.digest()) {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
+}
@@ -0,0 +1,347 @@
+package com.qemumanager;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Boots a set of VMs as a dependency graph. A VM starts as soon as every VM
+ * it depends on is ready, higher priorities first, with as many VMs booting
+ * in parallel as the CPU budget allows. Guest memory committed by the run is
+ * capped by the memory budget; VMs that do not fit, fail to start, or depend
+ * on one that did are skipped. A VM that only fits if a boot still in progress
+ * fails waits for the outcome. Dependencies of autostart VMs are started too.
+ */
+public class QemuBootScheduler {
+
+    /**
+     * Starts VMs and reports readiness; called from the scheduler's worker threads
+     */
+    public interface Launcher {
+        void start(QemuVm vm) throws IOException;
+
+        /**
+         * Blocks until the started VM is ready; false if it stopped or never became ready
+         */
+        boolean awaitReady(QemuVm vm) throws InterruptedException;
+    }
+
+    /**
+     * Outcome of a boot run
+     */
+    public static class Result {
+        private final List<String> started = new ArrayList<>();
+        private final Map<String, String> skipped = new LinkedHashMap<>();
+        private long elapsedMs;
+
+        /**
+         * VMs that were started and became ready, in order of readiness
+         */
+        public List<String> getStarted() {
+            return started;
+        }
+
+        /**
+         * VMs that were not started or did not become ready, with the reason
+         */
+        public Map<String, String> getSkipped() {
+            return skipped;
+        }
+
+        public long getElapsedMs() {
+            return elapsedMs;
+        }
+    }
+
+    private enum State { PENDING, BOOTING, READY, SKIPPED }
+
+    private final Launcher launcher;
+    private final int cpuBudget;
+    private final long memoryBudgetMB;
+
+    public QemuBootScheduler(Launcher launcher, int cpuBudget, long memoryBudgetMB) {
+        this.launcher = launcher;
+        this.cpuBudget = Math.max(1, cpuBudget);
+        this.memoryBudgetMB = memoryBudgetMB;
+    }
+
+    /**
+     * Creates a scheduler with the budgets from the settings, sized to this host where they are 0
+     */
+    public static QemuBootScheduler fromSettings(Launcher launcher) {
+        QemuSettings settings = QemuSettings.getInstance();
+        int cpus = settings.getAutostartCpuBudget();
+        long memoryMB = settings.getAutostartMemoryBudgetMB();
+        if (memoryMB <= 0) {
+            // What the host has available now; no budget where its memory cannot be read
+            memoryMB = QemuCapacityPlanner.readHost().getMemoryAvailableMB();
+            if (memoryMB <= 0) {
+                memoryMB = Long.MAX_VALUE;
+            }
+        }
+        return new QemuBootScheduler(launcher,
+            cpus > 0 ? cpus : Runtime.getRuntime().availableProcessors(), memoryMB);
+    }
+
+    /**
+     * Boots every VM marked for autostart, plus what they depend on, and blocks until done
+     */
+    public Result bootAutostartVms(Collection<QemuVm> vms) throws InterruptedException {
+        Map<String, QemuVm> byName = new HashMap<>();
+        for (QemuVm vm : vms) {
+            byName.put(vm.getName(), vm);
+        }
+        Map<QemuVm, State> states = new LinkedHashMap<>();
+        Result result = new Result();
+        Deque<QemuVm> toVisit = new ArrayDeque<>();
+        for (QemuVm vm : vms) {
+            if (vm.isAutostart()) {
+                toVisit.add(vm);
+            }
+        }
+        while (!toVisit.isEmpty()) {
+            QemuVm vm = toVisit.removeFirst();
+            if (states.containsKey(vm)) {
+                continue;
+            }
+            states.put(vm, State.PENDING);
+            for (String dependency : vm.getDependsOn()) {
+                QemuVm required = byName.get(dependency);
+                if (required == null) {
+                    skip(vm, "depends on unknown VM " + dependency, states, result);
+                } else {
+                    toVisit.add(required);
+                }
+            }
+        }
+        return boot(states, byName, result);
+    }
+
+    private Result boot(Map<QemuVm, State> states, Map<String, QemuVm> byName, Result result)
+            throws InterruptedException {
+        long startNanos = System.nanoTime();
+        skipCycles(states, byName, result);
+        for (Map.Entry<QemuVm, State> entry : states.entrySet()) {
+            // Already up from an earlier run or a manual start
+            if (entry.getValue() == State.PENDING && entry.getKey().getStatus() == QemuVm.VmStatus.RUNNING) {
+                entry.setValue(State.READY);
+            }
+        }
+
+        AtomicInteger threadCount = new AtomicInteger();
+        ExecutorService executor = Executors.newCachedThreadPool(r -> {
+            Thread thread = new Thread(r, "Autostart " + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        Set<QemuVm> launched = new HashSet<>();
+        try {
+            synchronized (states) {
+                while (true) {
+                    int bootingCpus = 0;
+                    int bootingCount = 0;
+                    long committedMemoryMB = 0;
+                    long readyMemoryMB = 0;
+                    for (QemuVm vm : launched) {
+                        State state = states.get(vm);
+                        if (state == State.BOOTING) {
+                            bootingCpus += vm.getCpuCores();
+                            bootingCount++;
+                        }
+                        if (state != State.SKIPPED) {
+                            committedMemoryMB += vm.getMemoryMB(); // Failed boots give their memory back
+                        }
+                        if (state == State.READY) {
+                            readyMemoryMB += vm.getMemoryMB();
+                        }
+                    }
+                    boolean skippedAny = false;
+                    // Lower priorities may fill CPU left over by a higher one that does not fit yet
+                    for (QemuVm vm : eligible(states, byName)) {
+                        if (committedMemoryMB + vm.getMemoryMB() > memoryBudgetMB) {
+                            if (readyMemoryMB + vm.getMemoryMB() > memoryBudgetMB) {
+                                skip(vm, "exceeds the memory budget of " + memoryBudgetMB + " MB", states, result);
+                                skippedAny = true;
+                            }
+                            continue; // Otherwise it fits if one of the boots in progress fails
+                        }
+                        // A VM larger than the whole CPU budget still boots, just on its own
+                        if (bootingCount > 0 && bootingCpus + vm.getCpuCores() > cpuBudget) {
+                            continue;
+                        }
+                        states.put(vm, State.BOOTING);
+                        launched.add(vm);
+                        bootingCpus += vm.getCpuCores();
+                        bootingCount++;
+                        committedMemoryMB += vm.getMemoryMB();
+                        executor.execute(() -> bootOne(vm, states, result));
+                    }
+                    if (skippedAny) {
+                        continue; // Dependants of skipped VMs have just become skipped too
+                    }
+                    if (bootingCount == 0) {
+                        break; // Nothing running and nothing eligible: done
+                    }
+                    states.wait();
+                }
+                for (Map.Entry<QemuVm, State> entry : states.entrySet()) {
+                    if (entry.getValue() == State.PENDING) {
+                        skip(entry.getKey(), "dependencies did not become ready", states, result);
+                    }
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        result.elapsedMs = (System.nanoTime() - startNanos) / 1000000L;
+        return result;
+    }
+
+    private void bootOne(QemuVm vm, Map<QemuVm, State> states, Result result) {
+        String failure = null;
+        try {
+            // Also covers a VM the user started by hand while it was pending
+            if (!vm.getStatus().isActive()) {
+                launcher.start(vm);
+            }
+            if (!launcher.awaitReady(vm)) {
+                failure = "did not become ready";
+            }
+        } catch (IOException e) {
+            failure = "failed to start: " + e.getMessage();
+        } catch (InterruptedException e) {
+            failure = "interrupted";
+        } catch (RuntimeException e) {
+            failure = "failed to start: " + e;
+        }
+        synchronized (states) {
+            if (failure == null) {
+                states.put(vm, State.READY);
+                result.started.add(vm.getName());
+            } else {
+                skip(vm, failure, states, result);
+            }
+            states.notifyAll();
+        }
+    }
+
+    /**
+     * Pending VMs whose dependencies are all ready, highest priority first
+     */
+    private List<QemuVm> eligible(Map<QemuVm, State> states, Map<String, QemuVm> byName) {
+        List<QemuVm> eligible = new ArrayList<>();
+        for (Map.Entry<QemuVm, State> entry : states.entrySet()) {
+            if (entry.getValue() != State.PENDING) {
+                continue;
+            }
+            boolean ready = true;
+            for (String dependency : entry.getKey().getDependsOn()) {
+                if (states.get(byName.get(dependency)) != State.READY) {
+                    ready = false;
+                    break;
+                }
+            }
+            if (ready) {
+                eligible.add(entry.getKey());
+            }
+        }
+        eligible.sort(Comparator.comparingInt(QemuVm::getAutostartPriority).reversed()
+            .thenComparing(QemuVm::getName, String.CASE_INSENSITIVE_ORDER));
+        return eligible;
+    }
+
+    /**
+     * Marks the VM and, transitively, every pending VM that depends on it as skipped
+     */
+    private void skip(QemuVm vm, String reason, Map<QemuVm, State> states, Result result) {
+        if (states.get(vm) == State.SKIPPED) {
+            return;
+        }
+        states.put(vm, State.SKIPPED);
+        result.skipped.put(vm.getName(), reason);
+        skipDependants(vm, states, result);
+    }
+
+    private void skipDependants(QemuVm vm, Map<QemuVm, State> states, Result result) {
+        for (Map.Entry<QemuVm, State> entry : new ArrayList<>(states.entrySet())) {
+            if (entry.getValue() == State.PENDING && entry.getKey().getDependsOn().contains(vm.getName())) {
+                skip(entry.getKey(), "depends on " + vm.getName() + ", which was not started", states, result);
+            }
+        }
+    }
+
+    /**
+     * Skips VMs on a dependency cycle (Kahn's algorithm leaves them unresolved) and what depends on them
+     */
+    private void skipCycles(Map<QemuVm, State> states, Map<String, QemuVm> byName, Result result) {
+        Map<QemuVm, Integer> unresolved = new HashMap<>();
+        Map<QemuVm, List<QemuVm>> dependants = new HashMap<>();
+        Deque<QemuVm> resolved = new ArrayDeque<>();
+        for (QemuVm vm : states.keySet()) {
+            int count = 0;
+            for (String dependency : vm.getDependsOn()) {
+                QemuVm required = byName.get(dependency);
+                if (required != null && states.containsKey(required)) {
+                    dependants.computeIfAbsent(required, k -> new ArrayList<>()).add(vm);
+                    count++;
+                }
+            }
+            unresolved.put(vm, count);
+            if (count == 0) {
+                resolved.add(vm);
+            }
+        }
+        while (!resolved.isEmpty()) {
+            for (QemuVm dependant : dependants.getOrDefault(resolved.removeFirst(), Collections.emptyList())) {
+                if (unresolved.merge(dependant, -1, Integer::sum) == 0) {
+                    resolved.add(dependant);
+                }
+            }
+        }
+        // Unresolved VMs that no other unresolved VM depends on only wait for a cycle; peeling
+        // them off repeatedly leaves the cycles themselves
+        Set<QemuVm> onCycle = new LinkedHashSet<>();
+        for (QemuVm vm : states.keySet()) {
+            if (unresolved.get(vm) > 0) {
+                onCycle.add(vm);
+            }
+        }
+        Map<QemuVm, Integer> waitingDependants = new HashMap<>();
+        Deque<QemuVm> downstream = new ArrayDeque<>();
+        for (QemuVm vm : onCycle) {
+            int count = 0;
+            for (QemuVm dependant : dependants.getOrDefault(vm, Collections.emptyList())) {
+                if (onCycle.contains(dependant)) {
+                    count++;
+                }
+            }
+            waitingDependants.put(vm, count);
+            if (count == 0) {
+                downstream.add(vm);
+            }
+        }
+        while (!downstream.isEmpty()) {
+            QemuVm vm = downstream.removeFirst();
+            onCycle.remove(vm);
+            for (String dependency : vm.getDependsOn()) {
+                QemuVm required = byName.get(dependency);
+                if (required != null && onCycle.contains(required)
+                        && waitingDependants.merge(required, -1, Integer::sum) == 0) {
+                    downstream.add(required);
+                }
+            }
+        }
+        // All members first, so none of them is reported as a mere dependant of another
+        for (QemuVm vm : onCycle) {
+            if (states.get(vm) == State.PENDING) {
+                states.put(vm, State.SKIPPED);
+                result.skipped.put(vm.getName(), "is part of a dependency cycle");
+            }
+        }
+        for (QemuVm vm : onCycle) {
+            skipDependants(vm, states, result);
+        }
+    }
+}
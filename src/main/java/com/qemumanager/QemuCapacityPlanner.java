@@ -0,0 +1,330 @@
+package com.qemumanager;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.Collection;
+
+/**
+ * Decides whether the host has room for another VM. Running VMs commit
+ * their vCPUs and memory; the host offers its logical CPUs and memory
+ * (minus the hugepage pool and a reserve for itself), scaled by the
+ * configured overcommit ratios. Stopped autostart VMs hold a reservation:
+ * other VMs may only start into what is left beside it, so the next manager
+ * launch can bring them all up, while an autostart VM uses its own share.
+ * Disk space is checked on the storage pool holding the VM's disk.
+ */
+public class QemuCapacityPlanner {
+
+    /**
+     * What the host has, read from procfs or made up for planning
+     */
+    public static class HostProfile {
+        private final int cpus;
+        private final long memoryTotalMB;
+        private final long memoryAvailableMB;
+        private final long hugePagesTotal;
+        private final long hugePagesFree;
+        private final long hugePageSizeKB;
+        private final long diskFreeMB;
+
+        public HostProfile(int cpus, long memoryTotalMB, long memoryAvailableMB, long hugePagesTotal,
+                           long hugePagesFree, long hugePageSizeKB, long diskFreeMB) {
+            this.cpus = cpus;
+            this.memoryTotalMB = memoryTotalMB;
+            this.memoryAvailableMB = memoryAvailableMB;
+            this.hugePagesTotal = hugePagesTotal;
+            this.hugePagesFree = hugePagesFree;
+            this.hugePageSizeKB = hugePageSizeKB;
+            this.diskFreeMB = diskFreeMB;
+        }
+
+        /**
+         * Reads this host; diskVolume is any path on the volume holding the disk images
+         */
+        public static HostProfile read(File procRoot, File diskVolume) {
+            long memTotalKB = 0;
+            long memAvailableKB = 0;
+            long hugeTotal = 0;
+            long hugeFree = 0;
+            long hugeSizeKB = 0;
+            try (BufferedReader reader = new BufferedReader(new FileReader(new File(procRoot, "meminfo")))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    int colon = line.indexOf(':');
+                    if (colon < 0) {
+                        continue;
+                    }
+                    String key = line.substring(0, colon);
+                    String digits = line.substring(colon + 1).replaceAll("[^0-9]", "");
+                    if (digits.isEmpty()) {
+                        continue;
+                    }
+                    long value = Long.parseLong(digits);
+                    switch (key) {
+                        case "MemTotal":
+                            memTotalKB = value;
+                            break;
+                        case "MemAvailable":
+                            memAvailableKB = value;
+                            break;
+                        case "HugePages_Total":
+                            hugeTotal = value;
+                            break;
+                        case "HugePages_Free":
+                            hugeFree = value;
+                            break;
+                        case "Hugepagesize":
+                            hugeSizeKB = value;
+                            break;
+                        default:
+                            break;
+                    }
+                }
+            } catch (IOException | NumberFormatException e) {
+                // Not Linux; the memory stays unknown
+            }
+            return new HostProfile(Runtime.getRuntime().availableProcessors(), memTotalKB / 1024,
+                memAvailableKB / 1024, hugeTotal, hugeFree, hugeSizeKB, getUsableSpaceMB(diskVolume));
+        }
+
+        public int getCpus() {
+            return cpus;
+        }
+
+        public long getMemoryTotalMB() {
+            return memoryTotalMB;
+        }
+
+        public long getMemoryAvailableMB() {
+            return memoryAvailableMB;
+        }
+
+        /**
+         * Whether the memory figures are real; without /proc/meminfo they are 0 and memory is not planned
+         */
+        public boolean isMemoryKnown() {
+            return memoryTotalMB > 0;
+        }
+
+        public long getHugePagesTotal() {
+            return hugePagesTotal;
+        }
+
+        public long getHugePagesFree() {
+            return hugePagesFree;
+        }
+
+        /**
+         * Memory set aside as hugepages, which ordinary guests cannot use
+         */
+        public long getHugePagePoolMB() {
+            return hugePagesTotal * hugePageSizeKB / 1024;
+        }
+
+        public long getDiskFreeMB() {
+            return diskFreeMB;
+        }
+    }
+
+    /**
+     * Resources committed by active VMs and reserved by stopped autostart VMs
+     */
+    public static class Usage {
+        private int runningVms;
+        private long committedCpus;
+        private long committedMemoryMB;
+        private long reservedCpus;
+        private long reservedMemoryMB;
+
+        public int getRunningVms() {
+            return runningVms;
+        }
+
+        public long getCommittedCpus() {
+            return committedCpus;
+        }
+
+        public long getCommittedMemoryMB() {
+            return committedMemoryMB;
+        }
+
+        public long getReservedCpus() {
+            return reservedCpus;
+        }
+
+        public long getReservedMemoryMB() {
+            return reservedMemoryMB;
+        }
+    }
+
+    private final int cpuOvercommitPercent;
+    private final int memoryOvercommitPercent;
+    private final long hostReserveMB;
+    private final long diskMinFreeMB;
+
+    public QemuCapacityPlanner(int cpuOvercommitPercent, int memoryOvercommitPercent, long hostReserveMB,
+                               long diskMinFreeMB) {
+        this.cpuOvercommitPercent = cpuOvercommitPercent;
+        this.memoryOvercommitPercent = memoryOvercommitPercent;
+        this.hostReserveMB = hostReserveMB;
+        this.diskMinFreeMB = diskMinFreeMB;
+    }
+
+    public static QemuCapacityPlanner fromSettings() {
+        QemuSettings settings = QemuSettings.getInstance();
+        return new QemuCapacityPlanner(settings.getCpuOvercommitPercent(), settings.getMemoryOvercommitPercent(),
+            settings.getHostReserveMB(), settings.getDiskMinFreeMB());
+    }
+
+    /**
+     * Free space on the volume holding the path, which need not exist yet
+     */
+    static long getUsableSpaceMB(File path) {
+        File volume = path.getAbsoluteFile();
+        while (volume != null && !volume.exists()) {
+            volume = volume.getParentFile();
+        }
+        return volume != null ? volume.getUsableSpace() / (1024 * 1024) : Long.MAX_VALUE;
+    }
+
+    public static HostProfile readHost() {
+        return HostProfile.read(new File("/proc"), new File(QemuSettings.getInstance().getQemuManagerDisksPath()));
+    }
+
+    /**
+     * vCPUs that may be committed on the host
+     */
+    public long getCpuCapacity(HostProfile host) {
+        return (long) host.getCpus() * cpuOvercommitPercent / 100;
+    }
+
+    /**
+     * Guest memory that may be committed on the host, unlimited where its memory is unknown
+     */
+    public long getMemoryCapacityMB(HostProfile host) {
+        if (!host.isMemoryKnown()) {
+            return Long.MAX_VALUE;
+        }
+        long usable = host.getMemoryTotalMB() - host.getHugePagePoolMB() - hostReserveMB;
+        return Math.max(0, usable) * memoryOvercommitPercent / 100;
+    }
+
+    public Usage getUsage(Collection<QemuVm> vms) {
+        Usage usage = new Usage();
+        for (QemuVm vm : vms) {
+            if (vm.getStatus().isActive()) {
+                usage.runningVms++;
+                usage.committedCpus += vm.getCpuCores();
+                usage.committedMemoryMB += vm.getMemoryMB();
+            } else if (vm.isAutostart()) {
+                usage.reservedCpus += vm.getCpuCores();
+                usage.reservedMemoryMB += vm.getMemoryMB();
+            }
+        }
+        return usage;
+    }
+
+    /**
+     * Returns null if the candidate fits next to the other active VMs and the reservations
+     * of stopped autostart VMs, otherwise why not
+     */
+    public String check(QemuVm candidate, Collection<QemuVm> vms, HostProfile host) {
+        long cpus = 0;
+        long memoryMB = 0;
+        long reservedCpus = 0;
+        long reservedMemoryMB = 0;
+        for (QemuVm vm : vms) {
+            if (vm == candidate) {
+                continue;
+            }
+            if (vm.getStatus().isActive()) {
+                cpus += vm.getCpuCores();
+                memoryMB += vm.getMemoryMB();
+            } else if (vm.isAutostart() && !candidate.isAutostart()) {
+                reservedCpus += vm.getCpuCores();
+                reservedMemoryMB += vm.getMemoryMB();
+            }
+        }
+        long cpuCapacity = getCpuCapacity(host);
+        if (cpus + reservedCpus + candidate.getCpuCores() > cpuCapacity) {
+            return String.format("%s needs %d vCPUs but only %d of %d are uncommitted (%d host CPUs at %d%%)%s",
+                candidate.getName(), candidate.getCpuCores(), Math.max(0, cpuCapacity - cpus - reservedCpus),
+                cpuCapacity, host.getCpus(), cpuOvercommitPercent, describeReserved(reservedCpus, "vCPUs"));
+        }
+        long memoryCapacity = getMemoryCapacityMB(host);
+        if (memoryMB + reservedMemoryMB + candidate.getMemoryMB() > memoryCapacity) {
+            return String.format("%s needs %d MB but only %d of %d MB are uncommitted%s", candidate.getName(),
+                candidate.getMemoryMB(), Math.max(0, memoryCapacity - memoryMB - reservedMemoryMB), memoryCapacity,
+                describeReserved(reservedMemoryMB, "MB"));
+        }
+        // Without overcommit, also respect what other processes on the host already use
+        if (memoryOvercommitPercent <= 100 && host.isMemoryKnown() && candidate.getMemoryMB() > host.getMemoryAvailableMB() - hostReserveMB) {
+            return String.format("%s needs %d MB but the host has only %d MB available beyond its %d MB reserve",
+                candidate.getName(), candidate.getMemoryMB(),
+                Math.max(0, host.getMemoryAvailableMB() - hostReserveMB), hostReserveMB);
+        }
+        QemuStoragePool pool = getPool(candidate);
+        long diskFreeMB = getDiskFreeMB(candidate, pool, host);
+        if (diskFreeMB < diskMinFreeMB) {
+            return String.format("only %d MB free %s, %d MB required", diskFreeMB,
+                pool != null ? "in storage pool " + pool.getName() : "on the volume of its disk", diskMinFreeMB);
+        }
+        return null;
+    }
+
+    private static String describeReserved(long reserved, String unit) {
+        return reserved > 0 ? String.format(", %d %s being reserved for stopped autostart VMs", reserved, unit) : "";
+    }
+
+    /**
+     * The storage pool holding the VM's disk, or null if it is in none
+     */
+    QemuStoragePool getPool(QemuVm vm) {
+        String disk = vm.getDiskPath();
+        return disk != null && !disk.isEmpty() ? QemuStoragePools.getInstance().getPool(disk) : null;
+    }
+
+    /**
+     * Free space where the VM's disk grows: its pool, else the volume it is on, else the disks volume
+     */
+    long getDiskFreeMB(QemuVm vm, QemuStoragePool pool, HostProfile host) {
+        long poolFree = pool != null ? pool.getFreeBytes() : -1;
+        if (poolFree >= 0) {
+            return poolFree / (1024 * 1024);
+        }
+        String disk = vm.getDiskPath();
+        return disk != null && !disk.isEmpty() ? getUsableSpaceMB(new File(disk)) : host.getDiskFreeMB();
+    }
+
+    /**
+     * One line for the status bar
+     */
+    public String describeHeadroom(Usage usage, HostProfile host) {
+        StringBuilder text = new StringBuilder();
+        text.append(String.format("%d running | vCPUs %d/%d", usage.getRunningVms(), usage.getCommittedCpus(),
+            getCpuCapacity(host)));
+        if (host.isMemoryKnown()) {
+            text.append(String.format(" | Memory %.1f/%.1f GB", usage.getCommittedMemoryMB() / 1024.0,
+                getMemoryCapacityMB(host) / 1024.0));
+        } else {
+            text.append(String.format(" | Memory %.1f GB", usage.getCommittedMemoryMB() / 1024.0));
+        }
+        if (host.getHugePagesTotal() > 0) {
+            text.append(String.format(" | Hugepages %d/%d free", host.getHugePagesFree(), host.getHugePagesTotal()));
+        }
+        if (host.getDiskFreeMB() != Long.MAX_VALUE) {
+            text.append(String.format(" | Disk %.1f GB free", host.getDiskFreeMB() / 1024.0));
+        }
+        if (usage.getReservedCpus() > 0 || usage.getReservedMemoryMB() > 0) {
+            text.append(String.format(" | Autostart reserves %d vCPUs, %.1f GB", usage.getReservedCpus(),
+                usage.getReservedMemoryMB() / 1024.0));
+            if (usage.getCommittedCpus() + usage.getReservedCpus() > getCpuCapacity(host)
+                    || usage.getCommittedMemoryMB() + usage.getReservedMemoryMB() > getMemoryCapacityMB(host)) {
+                text.append(" (overbooked)");
+            }
+        }
+        return text.toString();
+    }
+}
@@ -0,0 +1,434 @@
+package com.qemumanager;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.util.*;
+
+/**
+ * Puts each VM's QEMU process into its own cgroup v2 group so one runaway
+ * guest cannot starve the other VMs or the manager. The groups live under
+ * a "qemu-manager" group next to the manager's own cgroup (or under a
+ * configured parent), which must be writable, e.g. a systemd-delegated
+ * user slice. The process joins its group before exec'ing QEMU, so it never
+ * runs outside it. The same files give cheap per-VM usage figures.
+ */
+public class QemuCgroupManager {
+    private static QemuCgroupManager instance;
+
+    private static final String GROUP_NAME = "qemu-manager";
+    private static final String MAINTENANCE_GROUP_NAME = "maintenance";
+    private static final int MAINTENANCE_IO_WEIGHT = 1;
+    private static final long CPU_PERIOD_US = 100000;
+    private static final String[] CONTROLLERS = {"cpu", "memory", "io"};
+
+    /**
+     * Cumulative usage of a VM's group
+     */
+    public static class Stats {
+        private final long cpuUsageUs;
+        private final long cpuThrottledUs;
+        private final long memoryCurrentBytes;
+        private final long ioReadBytes;
+        private final long ioWriteBytes;
+        private final long ioReads;
+        private final long ioWrites;
+
+        public Stats(long cpuUsageUs, long cpuThrottledUs, long memoryCurrentBytes, long ioReadBytes,
+                     long ioWriteBytes, long ioReads, long ioWrites) {
+            this.cpuUsageUs = cpuUsageUs;
+            this.cpuThrottledUs = cpuThrottledUs;
+            this.memoryCurrentBytes = memoryCurrentBytes;
+            this.ioReadBytes = ioReadBytes;
+            this.ioWriteBytes = ioWriteBytes;
+            this.ioReads = ioReads;
+            this.ioWrites = ioWrites;
+        }
+
+        public long getCpuUsageUs() {
+            return cpuUsageUs;
+        }
+
+        /**
+         * Time the group was held back by its CPU limit
+         */
+        public long getCpuThrottledUs() {
+            return cpuThrottledUs;
+        }
+
+        public long getMemoryCurrentBytes() {
+            return memoryCurrentBytes;
+        }
+
+        public long getIoReadBytes() {
+            return ioReadBytes;
+        }
+
+        public long getIoWriteBytes() {
+            return ioWriteBytes;
+        }
+
+        public long getIoReads() {
+            return ioReads;
+        }
+
+        public long getIoWrites() {
+            return ioWrites;
+        }
+    }
+
+    private final File cgroupRoot;
+    private final File sysRoot;
+    private final String parentPath; // Relative to the root; null until resolved
+    private boolean controllersEnabled;
+
+    QemuCgroupManager(File cgroupRoot, File sysRoot, String parentPath) {
+        this.cgroupRoot = cgroupRoot;
+        this.sysRoot = sysRoot;
+        this.parentPath = parentPath;
+    }
+
+    public static synchronized QemuCgroupManager getInstance() {
+        if (instance == null) {
+            QemuSettings settings = QemuSettings.getInstance();
+            File root = new File(settings.getCgroupRoot());
+            String parent = settings.getCgroupParent().trim();
+            if (parent.isEmpty()) {
+                parent = getParentOfOwnCgroup(new File("/proc/self/cgroup"));
+            }
+            instance = new QemuCgroupManager(root, new File("/sys"), parent);
+        }
+        return instance;
+    }
+
+    /**
+     * The parent of the cgroup this JVM runs in, from the "0::/path" line; null without cgroup v2
+     */
+    static String getParentOfOwnCgroup(File selfCgroup) {
+        try {
+            for (String line : Files.readAllLines(selfCgroup.toPath(), StandardCharsets.UTF_8)) {
+                if (line.startsWith("0::")) {
+                    String own = line.substring(3).trim();
+                    int slash = own.lastIndexOf('/');
+                    return slash > 0 ? own.substring(0, slash) : "";
+                }
+            }
+        } catch (IOException e) {
+            // Not Linux
+        }
+        return null;
+    }
+
+    /**
+     * Whether VM groups can be created: cgroup v2 is mounted and a parent is known
+     */
+    public boolean isAvailable() {
+        return parentPath != null && new File(cgroupRoot, "cgroup.controllers").exists();
+    }
+
+    public File getGroupDirectory() {
+        return new File(new File(cgroupRoot, parentPath), GROUP_NAME);
+    }
+
+    public File getVmDirectory(QemuVm vm) {
+        return new File(getGroupDirectory(), "vm-" + vm.getFileSafeName());
+    }
+
+    /**
+     * Group of a migration target while the source still runs, so each process stays within the limits
+     */
+    public File getIncomingDirectory(QemuVm vm) {
+        return new File(getGroupDirectory(), "vm-" + vm.getFileSafeName() + ".incoming");
+    }
+
+    /**
+     * Creates the VM's group with its limits applied and returns its cgroup.procs file
+     */
+    public synchronized File prepare(QemuVm vm) throws IOException {
+        return prepare(vm, getVmDirectory(vm));
+    }
+
+    /**
+     * Creates the group of a migration target next to the VM's own and returns its cgroup.procs file
+     */
+    public synchronized File prepareIncoming(QemuVm vm) throws IOException {
+        return prepare(vm, getIncomingDirectory(vm));
+    }
+
+    /**
+     * Creates the group for background maintenance such as image checks, with the lowest
+     * CPU and I/O weight so it only gets what the VMs leave, and returns its cgroup.procs file
+     */
+    public synchronized File prepareMaintenance() throws IOException {
+        if (!isAvailable()) {
+            throw new IOException("cgroup v2 is not available");
+        }
+        File directory = new File(getGroupDirectory(), MAINTENANCE_GROUP_NAME);
+        ensureGroup();
+        createDirectory(directory);
+        writeIfPresent(directory, "cpu.weight", "1");
+        writeIfPresent(directory, "io.weight", "default " + MAINTENANCE_IO_WEIGHT);
+        return new File(directory, "cgroup.procs");
+    }
+
+    /**
+     * Moves a migration target into the VM's own group once the source has exited
+     */
+    public synchronized void adoptIncoming(QemuVm vm, long pid) throws IOException {
+        if (!isAvailable() || !getIncomingDirectory(vm).isDirectory()) {
+            return;
+        }
+        prepare(vm, getVmDirectory(vm));
+        write(new File(getVmDirectory(vm), "cgroup.procs"), String.valueOf(pid));
+        removeIncoming(vm);
+    }
+
+    /**
+     * Removes the group of a migration target that has moved on or exited
+     */
+    public synchronized void removeIncoming(QemuVm vm) {
+        if (!isAvailable()) {
+            return;
+        }
+        File directory = getIncomingDirectory(vm);
+        if (directory.exists() && !directory.delete()) {
+            System.err.println("Could not remove cgroup " + directory);
+        }
+    }
+
+    private File prepare(QemuVm vm, File vmDirectory) throws IOException {
+        if (!isAvailable()) {
+            throw new IOException("cgroup v2 is not available");
+        }
+        ensureGroup();
+        createDirectory(vmDirectory);
+        applyLimits(vm, vmDirectory);
+        return new File(vmDirectory, "cgroup.procs");
+    }
+
+    private void ensureGroup() throws IOException {
+        File group = getGroupDirectory();
+        if (!controllersEnabled) {
+            // Controllers must be enabled on every level above the VM groups
+            createDirectory(group);
+            enableControllers(group.getParentFile());
+            enableControllers(group);
+            controllersEnabled = true;
+        }
+    }
+
+    /**
+     * Writes the VM's limits to its group; also used to change them while it runs
+     */
+    public synchronized void applyLimits(QemuVm vm) throws IOException {
+        applyLimits(vm, getVmDirectory(vm));
+    }
+
+    private void applyLimits(QemuVm vm, File directory) throws IOException {
+        writeIfPresent(directory, "cpu.weight", String.valueOf(vm.getCpuWeight() > 0 ? vm.getCpuWeight() : 100));
+        writeIfPresent(directory, "cpu.max", (vm.getCpuLimitPercent() > 0
+            ? String.valueOf(vm.getCpuLimitPercent() * CPU_PERIOD_US / 100) : "max") + " " + CPU_PERIOD_US);
+        writeIfPresent(directory, "memory.max", megabytes(vm.getMemoryLimitMB()));
+        writeIfPresent(directory, "memory.high", megabytes(vm.getMemoryHighMB()));
+        if (new File(directory, "io.max").exists()) {
+            for (String device : getDiskDevices(vm)) {
+                write(new File(directory, "io.max"), device
+                    + " rbps=" + limit(vm.getIoReadMBps() * 1024L * 1024L)
+                    + " wbps=" + limit(vm.getIoWriteMBps() * 1024L * 1024L)
+                    + " riops=" + limit(vm.getIoReadIops())
+                    + " wiops=" + limit(vm.getIoWriteIops()));
+            }
+        }
+    }
+
+    /**
+     * Removes the VM's group once its process is gone; the kernel refuses while it has members
+     */
+    public synchronized void remove(QemuVm vm) {
+        if (!isAvailable()) {
+            return;
+        }
+        File directory = getVmDirectory(vm);
+        if (directory.exists() && !directory.delete()) {
+            System.err.println("Could not remove cgroup " + directory);
+        }
+    }
+
+    /**
+     * Reads the VM's usage counters, or returns null if it has no group
+     */
+    public Stats readStats(QemuVm vm) {
+        if (!isAvailable()) {
+            return null;
+        }
+        File directory = getVmDirectory(vm);
+        if (!directory.isDirectory()) {
+            return null;
+        }
+        Map<String, Long> cpu = readKeyValues(new File(directory, "cpu.stat"));
+        long ioReadBytes = 0;
+        long ioWriteBytes = 0;
+        long ioReads = 0;
+        long ioWrites = 0;
+        // io.stat: one line per device, "MAJ:MIN rbytes=.. wbytes=.. rios=.. wios=.. ..."
+        for (String line : readLines(new File(directory, "io.stat"))) {
+            for (String field : line.split(" ")) {
+                int eq = field.indexOf('=');
+                if (eq < 0) {
+                    continue;
+                }
+                long value = parseLong(field.substring(eq + 1));
+                switch (field.substring(0, eq)) {
+                    case "rbytes":
+                        ioReadBytes += value;
+                        break;
+                    case "wbytes":
+                        ioWriteBytes += value;
+                        break;
+                    case "rios":
+                        ioReads += value;
+                        break;
+                    case "wios":
+                        ioWrites += value;
+                        break;
+                    default:
+                        break;
+                }
+            }
+        }
+        List<String> memory = readLines(new File(directory, "memory.current"));
+        return new Stats(cpu.getOrDefault("usage_usec", 0L), cpu.getOrDefault("throttled_usec", 0L),
+            memory.isEmpty() ? 0 : parseLong(memory.get(0)), ioReadBytes, ioWriteBytes, ioReads, ioWrites);
+    }
+
+    /**
+     * Wraps a command so the process joins the group (by writing its own pid) and then execs it.
+     * The pid stays the same, so process handles and adoption work as before.
+     */
+    public static String[] wrapCommand(String[] command, File procsFile) {
+        String[] wrapped = new String[command.length + 4];
+        wrapped[0] = "/bin/sh";
+        wrapped[1] = "-c";
+        wrapped[2] = "echo $$ > \"$0\"; exec \"$@\"";
+        wrapped[3] = procsFile.getAbsolutePath();
+        System.arraycopy(command, 0, wrapped, 4, command.length);
+        return wrapped;
+    }
+
+    /**
+     * Block devices (MAJ:MIN of whole disks) holding the VM's disk and CD-ROM images
+     */
+    Set<String> getDiskDevices(QemuVm vm) {
+        Set<String> devices = new LinkedHashSet<>();
+        for (String path : new String[]{vm.getDiskPath(), vm.getCdromPath()}) {
+            if (path == null || path.isEmpty() || !new File(path).exists()) {
+                continue;
+            }
+            try {
+                long dev = ((Number) Files.getAttribute(new File(path).toPath(), "unix:dev")).longValue();
+                // glibc encoding of dev_t
+                long major = ((dev >>> 8) & 0xfff) | ((dev >>> 32) & ~0xfffL);
+                long minor = (dev & 0xff) | ((dev >>> 12) & ~0xffL);
+                String device = toWholeDisk(major + ":" + minor);
+                if (device != null) {
+                    devices.add(device);
+                }
+            } catch (IOException | UnsupportedOperationException e) {
+                // Not a local block device
+            }
+        }
+        return devices;
+    }
+
+    /**
+     * io.max only accepts whole disks; maps a partition to its disk. Null if not a block device.
+     */
+    String toWholeDisk(String device) throws IOException {
+        File entry = new File(sysRoot, "dev/block/" + device);
+        if (!entry.exists()) {
+            return null; // e.g. tmpfs or NFS
+        }
+        if (!new File(entry, "partition").exists()) {
+            return device;
+        }
+        File disk = entry.getCanonicalFile().getParentFile();
+        List<String> dev = readLines(new File(disk, "dev"));
+        return dev.isEmpty() ? device : dev.get(0).trim();
+    }
+
+    private void enableControllers(File directory) throws IOException {
+        List<String> available = readLines(new File(directory, "cgroup.controllers"));
+        Set<String> present = new HashSet<>(available.isEmpty() ? Collections.emptyList()
+            : Arrays.asList(available.get(0).trim().split("\\s+")));
+        StringBuilder enable = new StringBuilder();
+        for (String controller : CONTROLLERS) {
+            if (present.contains(controller)) {
+                enable.append(enable.length() > 0 ? " " : "").append('+').append(controller);
+            }
+        }
+        if (enable.length() > 0) {
+            write(new File(directory, "cgroup.subtree_control"), enable.toString());
+        }
+    }
+
+    private static void createDirectory(File directory) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdir()) {
+            throw new IOException("Cannot create cgroup " + directory + " (is the parent delegated to this user?)");
+        }
+    }
+
+    private static void writeIfPresent(File directory, String file, String value) throws IOException {
+        File target = new File(directory, file);
+        if (target.exists()) {
+            write(target, value);
+        }
+    }
+
+    private static void write(File file, String value) throws IOException {
+        // One write per value; cgroupfs parses each write on its own
+        try {
+            Files.write(file.toPath(), (value + "\n").getBytes(StandardCharsets.US_ASCII));
+        } catch (IOException e) {
+            throw new IOException("Cannot write \"" + value + "\" to " + file + ": " + e.getMessage(), e);
+        }
+    }
+
+    private static String megabytes(int megabytes) {
+        return megabytes > 0 ? String.valueOf(megabytes * 1024L * 1024L) : "max";
+    }
+
+    private static String limit(long value) {
+        return value > 0 ? String.valueOf(value) : "max";
+    }
+
+    private static Map<String, Long> readKeyValues(File file) {
+        Map<String, Long> values = new HashMap<>();
+        for (String line : readLines(file)) {
+            String[] parts = line.trim().split("\\s+");
+            if (parts.length == 2) {
+                values.put(parts[0], parseLong(parts[1]));
+            }
+        }
+        return values;
+    }
+
+    private static List<String> readLines(File file) {
+        try {
+            return Files.readAllLines(file.toPath(), StandardCharsets.US_ASCII);
+        } catch (NoSuchFileException e) {
+            return Collections.emptyList();
+        } catch (IOException e) {
+            return Collections.emptyList();
+        }
+    }
+
+    private static long parseLong(String value) {
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+}
@@ -5,8 +5,11 @@ import java.awt.*;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
 
 /**
  * Panel for displaying console output and logs
@@ -17,6 +20,9 @@ public class QemuConsolePanel extends JPanel {
     private JButton clearButton;
     private JButton saveButton;
     
+    // Older lines are dropped beyond this; full guest output is in the per-VM serial logs
+    private static final int MAX_CONSOLE_CHARS = 1024 * 1024;
+    
     public QemuConsolePanel() {
         initializeUI();
     }
@@ -62,6 +68,10 @@ public class QemuConsolePanel extends JPanel {
             String timestamp = java.time.LocalTime.now().format(
                 java.time.format.DateTimeFormatter.ofPattern("HH:mm:ss"));
             consoleTextArea.append("[" + timestamp + "] " + message + "\n");
+            int excess = consoleTextArea.getDocument().getLength() - MAX_CONSOLE_CHARS;
+            if (excess > 0) {
+                consoleTextArea.replaceRange("", 0, excess);
+            }
             
             // Auto-scroll to bottom
             consoleTextArea.setCaretPosition(consoleTextArea.getDocument().getLength());
@@ -97,6 +107,55 @@ public class QemuConsolePanel extends JPanel {
         monitorThread.start();
     }
     
+    /**
+     * Follows the log file of a process that is not a child of this JVM until it exits,
+     * starting at the given offset so output of earlier runs is not repeated
+     */
+    public void monitorLogFile(File logFile, long startOffset, ProcessHandle handle, String vmName) {
+        Thread tailThread = new Thread(() -> {
+            long position = startOffset;
+            ByteArrayOutputStream pending = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            boolean alive = true;
+            try {
+                while (true) {
+                    if (logFile.exists()) {
+                        try (RandomAccessFile file = new RandomAccessFile(logFile, "r")) {
+                            file.seek(position);
+                            int n;
+                            while ((n = file.read(buffer)) > 0) {
+                                position += n;
+                                for (int i = 0; i < n; i++) {
+                                    if (buffer[i] == '\n') {
+                                        appendMessage("[" + vmName + "] " + pending.toString("UTF-8"));
+                                        pending.reset();
+                                    } else if (buffer[i] != '\r') {
+                                        pending.write(buffer[i]);
+                                    }
+                                }
+                            }
+                        }
+                    }
+                    if (!alive) {
+                        break;
+                    }
+                    alive = handle.isAlive(); // One more pass after exit drains the file
+                    Thread.sleep(500);
+                }
+                if (pending.size() > 0) {
+                    appendMessage("[" + vmName + "] " + pending.toString("UTF-8"));
+                }
+                appendMessage("[" + vmName + "] Process terminated");
+            } catch (IOException e) {
+                appendMessage("[" + vmName + "] Error reading log " + logFile + ": " + e.getMessage());
+            } catch (InterruptedException e) {
+                appendMessage("[" + vmName + "] Process monitoring interrupted");
+            }
+        });
+        tailThread.setDaemon(true);
+        tailThread.start();
+    }
+    
     private void clearConsole() {
         consoleTextArea.setText("");
         appendMessage("Console cleared");
@@ -109,17 +168,22 @@ public class QemuConsolePanel extends JPanel {
             java.time.LocalDateTime.now().format(java.time.format.DateTimeFormatter.ofPattern("yyyy-MM-dd-HH-mm-ss")) + ".log"));
         
         if (fileChooser.showSaveDialog(this) == JFileChooser.APPROVE_OPTION) {
-            try {
-                java.io.FileWriter writer = new java.io.FileWriter(fileChooser.getSelectedFile());
-                writer.write(consoleTextArea.getText());
-                writer.close();
-                appendMessage("Log saved to: " + fileChooser.getSelectedFile().getAbsolutePath());
-            } catch (IOException e) {
-                appendMessage("Failed to save log: " + e.getMessage());
-                JOptionPane.showMessageDialog(this, 
-                    "Failed to save log: " + e.getMessage(),
-                    "Save Error", JOptionPane.ERROR_MESSAGE);
-            }
+            // Snapshot on the EDT, write in the background
+            File target = fileChooser.getSelectedFile();
+            String text = consoleTextArea.getText();
+            Thread saveThread = new Thread(() -> {
+                try (java.io.Writer writer = new java.io.BufferedWriter(new java.io.FileWriter(target))) {
+                    writer.write(text);
+                    appendMessage("Log saved to: " + target.getAbsolutePath());
+                } catch (IOException e) {
+                    appendMessage("Failed to save log: " + e.getMessage());
+                    SwingUtilities.invokeLater(() -> JOptionPane.showMessageDialog(this, 
+                        "Failed to save log: " + e.getMessage(),
+                        "Save Error", JOptionPane.ERROR_MESSAGE));
+                }
+            }, "Save console log");
+            saveThread.setDaemon(true);
+            saveThread.start();
         }
     }
     
@@ -0,0 +1,271 @@
+package com.qemumanager;
+
+import javax.swing.*;
+import javax.swing.table.DefaultTableModel;
+import java.awt.*;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Analyzes disk images for duplicate content and rebases groups of similar
+ * images onto a shared base image
+ */
+public class QemuDedupeDialog extends JDialog {
+    private static final long MB = 1024L * 1024L;
+
+    private final List<File> files;
+    private final QemuVmIndex vmIndex;
+    private final QemuConsolePanel consolePanel;
+    private QemuImageStore.Report report;
+
+    private JComboBox<QemuImageStore.Chunking> chunkingCombo;
+    private JButton analyzeButton;
+    private JButton rebaseButton;
+    private JLabel summaryLabel;
+    private JProgressBar progressBar;
+    private DefaultTableModel tableModel;
+    private JTable table;
+
+    public QemuDedupeDialog(JFrame parent, List<File> files, QemuVmIndex vmIndex, QemuConsolePanel consolePanel) {
+        super(parent, "Find Duplicate Disk Images", false);
+        this.files = files;
+        this.vmIndex = vmIndex;
+        this.consolePanel = consolePanel;
+        initializeUI();
+    }
+
+    private void initializeUI() {
+        setSize(860, 460);
+        setLocationRelativeTo(getParent());
+        setDefaultCloseOperation(DISPOSE_ON_CLOSE);
+
+        JPanel topPanel = new JPanel(new FlowLayout(FlowLayout.LEFT));
+        chunkingCombo = new JComboBox<>(QemuImageStore.Chunking.values());
+        chunkingCombo.setToolTipText("Content-defined chunks also match data that moved, but hash slower");
+        analyzeButton = new JButton("Analyze");
+        analyzeButton.addActionListener(e -> analyze());
+        topPanel.add(new JLabel(files.size() + " images, chunks: "));
+        topPanel.add(chunkingCombo);
+        topPanel.add(analyzeButton);
+
+        tableModel = new DefaultTableModel(new Object[]{"Group", "Match", "Images", "Size MB", "Savings MB"}, 0) {
+            @Override
+            public boolean isCellEditable(int row, int column) {
+                return false;
+            }
+        };
+        table = new JTable(tableModel);
+        table.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+        table.getColumnModel().getColumn(0).setPreferredWidth(50);
+        table.getColumnModel().getColumn(2).setPreferredWidth(420);
+        table.getSelectionModel().addListSelectionListener(e -> updateButtons());
+
+        JPanel southPanel = new JPanel(new BorderLayout(5, 5));
+        summaryLabel = new JLabel("Hashes every image and groups those with mostly the same content.");
+        progressBar = new JProgressBar(0, 100);
+        progressBar.setStringPainted(true);
+        progressBar.setVisible(false);
+        southPanel.add(summaryLabel, BorderLayout.NORTH);
+        southPanel.add(progressBar, BorderLayout.CENTER);
+
+        JPanel buttonPanel = new JPanel(new FlowLayout(FlowLayout.RIGHT));
+        rebaseButton = new JButton("Rebase Onto Shared Base");
+        rebaseButton.setToolTipText("Move the group's common content into one read-only base image");
+        JButton closeButton = new JButton("Close");
+        rebaseButton.addActionListener(e -> rebaseSelectedGroup());
+        closeButton.addActionListener(e -> dispose());
+        buttonPanel.add(rebaseButton);
+        buttonPanel.add(closeButton);
+        southPanel.add(buttonPanel, BorderLayout.SOUTH);
+
+        JPanel mainPanel = new JPanel(new BorderLayout(5, 5));
+        mainPanel.setBorder(BorderFactory.createEmptyBorder(10, 10, 10, 10));
+        mainPanel.add(topPanel, BorderLayout.NORTH);
+        mainPanel.add(new JScrollPane(table), BorderLayout.CENTER);
+        mainPanel.add(southPanel, BorderLayout.SOUTH);
+        setContentPane(mainPanel);
+        updateButtons();
+    }
+
+    private void updateButtons() {
+        boolean busy = progressBar.isVisible();
+        analyzeButton.setEnabled(!busy && !files.isEmpty());
+        chunkingCombo.setEnabled(!busy);
+        rebaseButton.setEnabled(!busy && report != null && table.getSelectedRow() >= 0);
+    }
+
+    private void setBusy(boolean busy) {
+        progressBar.setValue(0);
+        progressBar.setVisible(busy);
+        updateButtons();
+    }
+
+    private void analyze() {
+        QemuImageStore store = new QemuImageStore((QemuImageStore.Chunking) chunkingCombo.getSelectedItem());
+        summaryLabel.setText("Hashing " + files.size() + " images...");
+        setBusy(true);
+        SwingWorker<QemuImageStore.Report, Integer> worker = new SwingWorker<QemuImageStore.Report, Integer>() {
+            @Override
+            protected QemuImageStore.Report doInBackground() throws IOException {
+                return store.analyze(files, (done, total) -> publish((int) (done * 100 / Math.max(1, total))));
+            }
+
+            @Override
+            protected void process(List<Integer> chunks) {
+                progressBar.setValue(chunks.get(chunks.size() - 1));
+            }
+
+            @Override
+            protected void done() {
+                setBusy(false);
+                try {
+                    showReport(get());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } catch (ExecutionException e) {
+                    summaryLabel.setText("Analysis failed: " + e.getCause().getMessage());
+                }
+            }
+        };
+        worker.execute();
+    }
+
+    private void showReport(QemuImageStore.Report report) {
+        this.report = report;
+        tableModel.setRowCount(0);
+        int number = 1;
+        for (QemuImageStore.Group group : report.getGroups()) {
+            List<String> names = new ArrayList<>();
+            long size = 0;
+            for (QemuImageStore.ImageDigest image : group.getImages()) {
+                names.add(image.getFile().getName());
+                size += image.getSize();
+            }
+            tableModel.addRow(new Object[]{
+                number++,
+                group.isIdentical() ? "Identical" : String.format("%.0f%% similar", group.getSimilarity() * 100),
+                String.join(", ", names),
+                size / MB,
+                group.getSavingsBytes() / MB
+            });
+        }
+        String summary = String.format("%d MB in %d images, %d MB unique, %d MB zeros: about %d MB (%.0f%%) could be "
+                + "saved. Hashed at %.0f MB/s.",
+            report.getTotalBytes() / MB, report.getImages().size(), report.getUniqueBytes() / MB,
+            report.getZeroBytes() / MB, report.getSavingsBytes() / MB,
+            report.getTotalBytes() > 0 ? report.getSavingsBytes() * 100.0 / report.getTotalBytes() : 0,
+            report.getThroughputMBps());
+        summaryLabel.setText(report.getGroups().isEmpty() ? "No similar images. " + summary : summary);
+        if (consolePanel != null) {
+            consolePanel.appendMessage("Duplicate analysis (" + report.getChunking() + "): "
+                + report.getGroups().size() + " groups. " + summary);
+        }
+        updateButtons();
+    }
+
+    /**
+     * Copies the first image of the group into the store and rewrites every image of the
+     * group that no running VM uses as an overlay on that copy
+     */
+    private void rebaseSelectedGroup() {
+        int row = table.getSelectedRow();
+        if (row < 0) {
+            return;
+        }
+        QemuImageStore.Group group = report.getGroups().get(table.convertRowIndexToModel(row));
+        List<File> targets = new ArrayList<>();
+        List<String> skipped = new ArrayList<>();
+        for (QemuImageStore.ImageDigest image : group.getImages()) {
+            String inUseBy = null;
+            for (QemuVm vm : vmIndex.findByDiskPath(image.getFile().getAbsolutePath())) {
+                if (vm.getStatus() != QemuVm.VmStatus.STOPPED) {
+                    inUseBy = vm.getName();
+                }
+            }
+            if (inUseBy != null) {
+                skipped.add(image.getFile().getName() + " (VM " + inUseBy + " is running)");
+            } else {
+                targets.add(image.getFile());
+            }
+        }
+        if (targets.isEmpty()) {
+            JOptionPane.showMessageDialog(this, "All images of this group are in use by running VMs.",
+                "Rebase", JOptionPane.INFORMATION_MESSAGE);
+            return;
+        }
+        QemuImageStore.ImageDigest baseSource = group.getImages().get(0);
+        int result = JOptionPane.showConfirmDialog(this,
+            "Copy " + baseSource.getFile().getName() + " into the shared store at\n"
+                + QemuImageStore.getStoreDirectory() + "\nand rewrite " + targets.size()
+                + " image(s) to keep only their differences from it?\n"
+                + (skipped.isEmpty() ? "" : "Skipped: " + String.join(", ", skipped) + "\n")
+                + "\nEach image is compared with its original before it is replaced. "
+                + "The store copy must not be deleted afterwards.",
+            "Rebase Onto Shared Base", JOptionPane.YES_NO_OPTION);
+        if (result != JOptionPane.YES_OPTION) {
+            return;
+        }
+
+        summaryLabel.setText("Copying the base image into the store...");
+        setBusy(true);
+        progressBar.setMaximum(targets.size() + 1);
+        SwingWorker<List<String>, Integer> worker = new SwingWorker<List<String>, Integer>() {
+            @Override
+            protected List<String> doInBackground() throws IOException {
+                List<String> messages = new ArrayList<>();
+                File base = QemuImageStore.storeBase(baseSource);
+                publish(1);
+                for (int i = 0; i < targets.size(); i++) {
+                    File target = targets.get(i);
+                    long started = System.nanoTime();
+                    try {
+                        long freed = QemuImageStore.rebase(target, base);
+                        messages.add(target.getName() + ": " + freed / MB + " MB freed");
+                        QemuEventJournal.getInstance().record(QemuEventJournal.Type.DISK_DEDUPLICATED,
+                            target.getAbsolutePath(), QemuEventJournal.ACTOR_USER, (System.nanoTime() - started) / 1000000,
+                            "Rebased onto " + base.getName() + ", " + freed / MB + " MB freed");
+                    } catch (IOException e) {
+                        messages.add(target.getName() + ": " + e.getMessage());
+                    }
+                    publish(i + 2);
+                }
+                return messages;
+            }
+
+            @Override
+            protected void process(List<Integer> chunks) {
+                progressBar.setValue(chunks.get(chunks.size() - 1));
+                summaryLabel.setText("Rebasing images...");
+            }
+
+            @Override
+            protected void done() {
+                progressBar.setMaximum(100);
+                setBusy(false);
+                try {
+                    List<String> messages = get();
+                    // The hashes no longer describe the files
+                    report = null;
+                    tableModel.setRowCount(0);
+                    updateButtons();
+                    summaryLabel.setText("Rebase finished; analyze again to see the new state.");
+                    if (consolePanel != null) {
+                        for (String message : messages) {
+                            consolePanel.appendMessage("Rebase " + message);
+                        }
+                    }
+                    JOptionPane.showMessageDialog(QemuDedupeDialog.this, String.join("\n", messages),
+                        "Rebase Finished", JOptionPane.INFORMATION_MESSAGE);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } catch (ExecutionException e) {
+                    summaryLabel.setText("Rebase failed: " + e.getCause().getMessage());
+                }
+            }
+        };
+        worker.execute();
+    }
+}
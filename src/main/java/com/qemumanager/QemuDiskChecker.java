@@ -0,0 +1,425 @@
+package com.qemumanager;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs "qemu-img check" over the known disk images on a schedule, a few at a
+ * time and at the lowest I/O priority, so a damaged image shows up in the
+ * disk table before QEMU refuses to boot from it. Leaked clusters (space
+ * lost after a crash, harmless otherwise) are repaired when no VM uses the
+ * image. Results are kept, also across restarts, until the file's size or
+ * modification time changes, so unchanged images are not read again.
+ */
+public class QemuDiskChecker {
+    private static QemuDiskChecker instance;
+
+    private static final String CACHE_FILE = "disk-checks.jsonl";
+    private static final long TICK_MINUTES = 10;
+    // Exit codes of qemu-img check
+    private static final int EXIT_OK = 0;
+    private static final int EXIT_CORRUPT = 2;
+    private static final int EXIT_LEAKS = 3;
+    private static final int EXIT_UNSUPPORTED = 63;
+
+    public enum Health {
+        OK("OK"),
+        LEAKS("Leaked clusters"),
+        CORRUPT("Corrupt"),
+        FAILED("Check failed"),
+        UNSUPPORTED("Not checkable");
+
+        private final String displayName;
+
+        Health(String displayName) {
+            this.displayName = displayName;
+        }
+
+        @Override
+        public String toString() {
+            return displayName;
+        }
+    }
+
+    /**
+     * Outcome of checking one image, valid while the file keeps its size and modification time
+     */
+    public static class Result {
+        private final String path;
+        private final long size;
+        private final long modified;
+        private final long checkedAt;
+        private final Health health;
+        private final long corruptions;
+        private final long leaks;
+        private final long leaksFixed;
+        private final boolean inUse;
+        private final String message;
+
+        public Result(String path, long size, long modified, long checkedAt, Health health, long corruptions,
+                      long leaks, long leaksFixed, boolean inUse, String message) {
+            this.path = path;
+            this.size = size;
+            this.modified = modified;
+            this.checkedAt = checkedAt;
+            this.health = health;
+            this.corruptions = corruptions;
+            this.leaks = leaks;
+            this.leaksFixed = leaksFixed;
+            this.inUse = inUse;
+            this.message = message;
+        }
+
+        public String getPath() {
+            return path;
+        }
+
+        public long getCheckedAt() {
+            return checkedAt;
+        }
+
+        public Health getHealth() {
+            return health;
+        }
+
+        public long getCorruptions() {
+            return corruptions;
+        }
+
+        /**
+         * Leaked clusters still in the image
+         */
+        public long getLeaks() {
+            return leaks;
+        }
+
+        public long getLeaksFixed() {
+            return leaksFixed;
+        }
+
+        /**
+         * True if a running VM had the image open; such a check cannot repair and may see
+         * metadata the VM is just updating
+         */
+        public boolean isInUse() {
+            return inUse;
+        }
+
+        public String getMessage() {
+            return message;
+        }
+
+        /**
+         * Whether the file is unchanged since the check
+         */
+        public boolean isCurrent(File file) {
+            return file.length() == size && file.lastModified() == modified;
+        }
+
+        /**
+         * Short text for the disk table
+         */
+        public String getSummary() {
+            switch (health) {
+                case CORRUPT:
+                    return "Corrupt (" + corruptions + " errors)";
+                case LEAKS:
+                    return leaks + " leaked clusters";
+                case OK:
+                    return leaksFixed > 0 ? "OK, " + leaksFixed + " leaks repaired" : "OK";
+                default:
+                    return health.toString();
+            }
+        }
+
+        @Override
+        public String toString() {
+            return getSummary();
+        }
+
+        public String describe() {
+            StringBuilder text = new StringBuilder(getSummary());
+            if (inUse) {
+                text.append(" (checked while in use)");
+            }
+            if (message != null && !message.isEmpty()) {
+                text.append(": ").append(message);
+            }
+            return text.toString();
+        }
+
+        Map<String, Object> toJson() {
+            return QemuJson.object("path", path, "size", size, "modified", modified, "checkedAt", checkedAt,
+                "health", health.name(), "corruptions", corruptions, "leaks", leaks, "leaksFixed", leaksFixed,
+                "inUse", inUse, "message", message);
+        }
+
+        static Result fromJson(Map<String, Object> json) {
+            return new Result(QemuJson.getString(json, "path"), QemuJson.getLong(json, "size", -1),
+                QemuJson.getLong(json, "modified", -1), QemuJson.getLong(json, "checkedAt", 0),
+                Health.valueOf(QemuJson.getString(json, "health")), QemuJson.getLong(json, "corruptions", 0),
+                QemuJson.getLong(json, "leaks", 0), QemuJson.getLong(json, "leaksFixed", 0),
+                QemuJson.getBoolean(json, "inUse", false), QemuJson.getString(json, "message"));
+        }
+    }
+
+    /**
+     * Supplies the images to check; implemented by the disk panel
+     */
+    public interface DiskSource {
+        List<File> getDisks();
+
+        boolean isInUse(File disk);
+    }
+
+    public interface Listener {
+        void checkStarted(String path);
+
+        void checkFinished(Result result);
+    }
+
+    private final Map<String, Result> results = new ConcurrentHashMap<>();
+    private final Set<String> queued = ConcurrentHashMap.newKeySet();
+    private final ThreadPoolExecutor workers;
+    private ScheduledExecutorService scheduler;
+    private volatile DiskSource source;
+    private volatile Listener listener;
+    private long lastScheduledRun;
+    private boolean cacheLoaded = false;
+
+    private QemuDiskChecker() {
+        workers = new ThreadPoolExecutor(1, 1, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), r -> {
+            Thread thread = new Thread(r, "Disk check");
+            thread.setDaemon(true);
+            return thread;
+        });
+        workers.allowCoreThreadTimeOut(true);
+    }
+
+    public static synchronized QemuDiskChecker getInstance() {
+        if (instance == null) {
+            instance = new QemuDiskChecker();
+        }
+        return instance;
+    }
+
+    /**
+     * Starts the periodic checks of the source's images; the first run comes one tick after start
+     */
+    public synchronized void start(DiskSource source, Listener listener) {
+        this.source = source;
+        this.listener = listener;
+        loadCache();
+        if (scheduler == null) {
+            lastScheduledRun = System.currentTimeMillis();
+            scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "Disk check scheduler");
+                thread.setDaemon(true);
+                return thread;
+            });
+            scheduler.scheduleWithFixedDelay(this::runIfDue, TICK_MINUTES, TICK_MINUTES, TimeUnit.MINUTES);
+        }
+    }
+
+    /**
+     * Returns the last result for the image, or null if it was never checked or has changed since
+     */
+    public Result getResult(File disk) {
+        loadCache();
+        Result result = results.get(disk.getAbsolutePath());
+        return result != null && result.isCurrent(disk) ? result : null;
+    }
+
+    public boolean isQueued(File disk) {
+        return queued.contains(disk.getAbsolutePath());
+    }
+
+    /**
+     * Queues checks of all images whose result is missing or out of date
+     */
+    public void checkAll() {
+        DiskSource current = source;
+        if (current == null) {
+            return;
+        }
+        for (File disk : current.getDisks()) {
+            if (getResult(disk) == null) {
+                check(disk);
+            }
+        }
+    }
+
+    /**
+     * Queues a check of the image even if its result is current
+     */
+    public void check(File disk) {
+        String path = disk.getAbsolutePath();
+        if (!queued.add(path)) {
+            return;
+        }
+        int size = Math.max(1, QemuSettings.getInstance().getDiskCheckWorkers());
+        synchronized (workers) {
+            // Growing first keeps core <= max at every step
+            if (size > workers.getMaximumPoolSize()) {
+                workers.setMaximumPoolSize(size);
+                workers.setCorePoolSize(size);
+            } else if (size < workers.getMaximumPoolSize()) {
+                workers.setCorePoolSize(size);
+                workers.setMaximumPoolSize(size);
+            }
+        }
+        workers.execute(() -> {
+            try {
+                Listener current = listener;
+                if (current != null) {
+                    current.checkStarted(path);
+                }
+                Result result = runCheck(disk);
+                results.put(path, result);
+                saveCache();
+                if (current != null) {
+                    current.checkFinished(result);
+                }
+            } finally {
+                queued.remove(path);
+            }
+        });
+    }
+
+    private void runIfDue() {
+        long intervalMs = QemuSettings.getInstance().getDiskCheckIntervalHours() * 3600000L;
+        long now = System.currentTimeMillis();
+        if (intervalMs <= 0 || now - lastScheduledRun < intervalMs) {
+            return;
+        }
+        lastScheduledRun = now;
+        try {
+            checkAll();
+        } catch (RuntimeException e) {
+            System.err.println("Scheduled disk check failed: " + e.getMessage());
+        }
+    }
+
+    private Result runCheck(File disk) {
+        DiskSource current = source;
+        boolean inUse = current != null && current.isInUse(disk);
+        long size = disk.length();
+        long modified = disk.lastModified();
+        try {
+            // -U: a running VM holds the image lock; the check then only reads
+            QemuImageTool.Result check = inUse
+                ? QemuImageTool.execute(true, "check", "-U", "--output=json", disk.getPath())
+                : QemuImageTool.execute(true, "check", "--output=json", disk.getPath());
+            Result result = toResult(disk, size, modified, check, inUse, 0);
+
+            if (result.getHealth() == Health.LEAKS && !inUse && QemuSettings.getInstance().isDiskCheckRepairLeaks()
+                    && !(current != null && current.isInUse(disk))) {
+                QemuImageTool.Result repair = QemuImageTool.execute(true, "check", "-r", "leaks", "--output=json",
+                    disk.getPath());
+                long fixed = QemuJson.getLong(parseReport(repair), "leaks-fixed", 0);
+                // Repairing writes to the image, so record the file as it is afterwards
+                result = toResult(disk, disk.length(), disk.lastModified(), repair, false, fixed);
+                QemuEventJournal.getInstance().record(QemuEventJournal.Type.DISK_REPAIRED, disk.getAbsolutePath(),
+                    QemuEventJournal.ACTOR_SYSTEM, -1, result.describe());
+            }
+            if (result.getHealth() == Health.CORRUPT) {
+                QemuEventJournal.getInstance().record(QemuEventJournal.Type.DISK_CORRUPT, disk.getAbsolutePath(),
+                    QemuEventJournal.ACTOR_SYSTEM, -1, result.describe());
+            }
+            return result;
+        } catch (IOException e) {
+            return new Result(disk.getAbsolutePath(), size, modified, System.currentTimeMillis(), Health.FAILED,
+                0, 0, 0, inUse, e.getMessage());
+        }
+    }
+
+    private static Result toResult(File disk, long size, long modified, QemuImageTool.Result check, boolean inUse,
+                                   long leaksFixed) {
+        Map<String, Object> report = parseReport(check);
+        long corruptions = QemuJson.getLong(report, "corruptions", 0);
+        long leaks = QemuJson.getLong(report, "leaks", 0);
+        Health health;
+        switch (check.getExitCode()) {
+            case EXIT_OK:
+                health = Health.OK;
+                break;
+            case EXIT_CORRUPT:
+                health = Health.CORRUPT;
+                break;
+            case EXIT_LEAKS:
+                health = Health.LEAKS;
+                break;
+            case EXIT_UNSUPPORTED:
+                health = Health.UNSUPPORTED;
+                break;
+            default:
+                health = Health.FAILED;
+                break;
+        }
+        String message = health == Health.OK || health == Health.LEAKS ? null : check.getErrors();
+        return new Result(disk.getAbsolutePath(), size, modified, System.currentTimeMillis(), health, corruptions,
+            leaks, leaksFixed, inUse, message);
+    }
+
+    private static Map<String, Object> parseReport(QemuImageTool.Result check) {
+        try {
+            return QemuJson.parseObject(check.getOutput().trim());
+        } catch (IllegalArgumentException e) {
+            return null; // No report, e.g. the image could not be opened
+        }
+    }
+
+    private File getCacheFile() {
+        return new File(QemuSettings.getInstance().getQemuManagerVmsPath(), CACHE_FILE);
+    }
+
+    private synchronized void loadCache() {
+        if (cacheLoaded) {
+            return;
+        }
+        cacheLoaded = true;
+        File file = getCacheFile();
+        if (!file.exists()) {
+            return;
+        }
+        try (BufferedReader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                try {
+                    Result result = Result.fromJson(QemuJson.parseObject(line));
+                    results.put(result.getPath(), result);
+                } catch (IllegalArgumentException | NullPointerException e) {
+                    // Corrupt line, that image is simply checked again
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Failed to load disk check results: " + e.getMessage());
+        }
+    }
+
+    private synchronized void saveCache() {
+        File file = getCacheFile();
+        File temp = new File(file.getPath() + ".tmp");
+        try {
+            QemuSettings.getInstance().ensureDirectoriesExist();
+            try (Writer writer = new OutputStreamWriter(new FileOutputStream(temp), StandardCharsets.UTF_8)) {
+                for (Result result : results.values()) {
+                    writer.write(QemuJson.write(result.toJson()));
+                    writer.write('\n');
+                }
+            }
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            System.err.println("Failed to save disk check results: " + e.getMessage());
+        }
+    }
+}
@@ -17,6 +17,12 @@ public class QemuDiskCreationDialog extends JDialog {
     private JSpinner sizeSpinner;
     private JComboBox<String> unitCombo;
     private JComboBox<String> formatCombo;
+    private JComboBox<Object> poolCombo;
+    private JLabel poolInfoLabel;
+    private File lastDefaultDir;
+    
+    private static final String AUTOMATIC_POOL = "Automatic";
+    private static final long MB = 1024L * 1024L;
     
     public QemuDiskCreationDialog(JDialog parent) {
         super(parent, "Create New Disk Image", true);
@@ -30,7 +36,7 @@ public class QemuDiskCreationDialog extends JDialog {
     }
     
     private void initializeUI() {
-        setSize(450, 300);
+        setSize(480, 340);
         setLocationRelativeTo(getParent());
         setDefaultCloseOperation(DISPOSE_ON_CLOSE);
         
@@ -102,8 +108,29 @@ public class QemuDiskCreationDialog extends JDialog {
         formatCombo.addActionListener(e -> updateDefaultPathExtension());
         panel.add(formatCombo, gbc);
         
+        row++;
+        gbc.gridwidth = 1;
+        
+        // Storage pool
+        gbc.gridx = 0; gbc.gridy = row; gbc.fill = GridBagConstraints.NONE; gbc.weightx = 0;
+        panel.add(new JLabel("Pool:"), gbc);
+        gbc.gridx = 1; gbc.fill = GridBagConstraints.HORIZONTAL; gbc.weightx = 0.7;
+        poolCombo = new JComboBox<>();
+        poolCombo.addItem(AUTOMATIC_POOL);
+        for (QemuStoragePool pool : QemuStoragePools.getInstance().getPools()) {
+            poolCombo.addItem(pool);
+        }
+        poolCombo.addActionListener(e -> updatePoolPath());
+        sizeSpinner.addChangeListener(e -> updatePoolPath());
+        unitCombo.addActionListener(e -> updatePoolPath());
+        panel.add(poolCombo, gbc);
+        gbc.gridx = 2; gbc.fill = GridBagConstraints.HORIZONTAL; gbc.weightx = 0.3;
+        poolInfoLabel = new JLabel();
+        panel.add(poolInfoLabel, gbc);
+        
         // Set default path after all components are created
         setDefaultPath();
+        updatePoolPath();
         
         row++;
         gbc.gridwidth = 1;
@@ -147,7 +174,8 @@ public class QemuDiskCreationDialog extends JDialog {
         // Create default directory structure
         QemuSettings settings = QemuSettings.getInstance();
         settings.ensureDirectoriesExist(); // Make sure directories exist
-        File defaultDir = new File(settings.getQemuManagerDisksPath());
+        File defaultDir = getPoolDirectory();
+        lastDefaultDir = defaultDir;
         
         // Get the selected format for the default filename
         String format = (String) formatCombo.getSelectedItem();
@@ -172,13 +200,58 @@ public class QemuDiskCreationDialog extends JDialog {
         }
     }
     
+    /**
+     * Returns the pool picked by hand or, for automatic placement, the one chosen for the
+     * requested size; null if no pool has room
+     */
+    private QemuStoragePool getSelectedPool() {
+        Object selected = poolCombo.getSelectedItem();
+        if (selected instanceof QemuStoragePool) {
+            return (QemuStoragePool) selected;
+        }
+        return QemuStoragePools.getInstance().choosePool(getRequestedBytes());
+    }
+    
+    private File getPoolDirectory() {
+        QemuStoragePool pool = getSelectedPool();
+        return pool != null ? pool.getDirectory() : new File(QemuSettings.getInstance().getQemuManagerDisksPath());
+    }
+    
+    private long getRequestedBytes() {
+        long size = ((Number) sizeSpinner.getValue()).longValue();
+        String unit = (String) unitCombo.getSelectedItem();
+        return "TB".equals(unit) ? size * 1024 * 1024 * MB : "MB".equals(unit) ? size * MB : size * 1024 * MB;
+    }
+    
+    /**
+     * Moves a default path to the directory of the selected pool and shows the pool's free space
+     */
+    private void updatePoolPath() {
+        QemuStoragePool pool = getSelectedPool();
+        if (pool == null) {
+            poolInfoLabel.setText("No pool has room");
+        } else {
+            long free = pool.getFreeBytes();
+            poolInfoLabel.setText((poolCombo.getSelectedItem() instanceof QemuStoragePool ? "" : pool.getName() + ", ")
+                + (free >= 0 ? free / (1024 * MB) + " GB free" : "unavailable"));
+        }
+        File current = new File(pathField.getText().trim());
+        File directory = getPoolDirectory();
+        if (lastDefaultDir != null && lastDefaultDir.equals(current.getAbsoluteFile().getParentFile())) {
+            pathField.setText(new File(directory, current.getName()).getPath());
+            lastDefaultDir = directory;
+        }
+    }
+    
     private void updateDefaultPathExtension() {
         String currentPath = pathField.getText();
         if (currentPath != null && !currentPath.trim().isEmpty()) {
             // Only update if it looks like a default path (contains .QemuManager/disks)
             QemuSettings settings = QemuSettings.getInstance();
             String disksPath = settings.getQemuManagerDisksPath();
-            if (currentPath.contains(disksPath) || currentPath.contains(".QemuManager")) {
+            boolean inPool = lastDefaultDir != null
+                && lastDefaultDir.equals(new File(currentPath).getAbsoluteFile().getParentFile());
+            if (inPool || currentPath.contains(disksPath) || currentPath.contains(".QemuManager")) {
                 String newFormat = (String) formatCombo.getSelectedItem();
                 if (newFormat != null) {
                     // Replace the extension in the current path
@@ -194,10 +267,10 @@ public class QemuDiskCreationDialog extends JDialog {
         fileChooser.setDialogTitle("Save Disk Image As");
         fileChooser.setFileSelectionMode(JFileChooser.FILES_ONLY);
         
-        // Set initial directory to configured disks directory
+        // Set initial directory to the selected pool's directory
         QemuSettings settings = QemuSettings.getInstance();
         settings.ensureDirectoriesExist(); // Make sure directories exist
-        File defaultDir = new File(settings.getQemuManagerDisksPath());
+        File defaultDir = getPoolDirectory();
         if (defaultDir.exists() || defaultDir.mkdirs()) {
             fileChooser.setCurrentDirectory(defaultDir);
         }
@@ -326,6 +399,7 @@ public class QemuDiskCreationDialog extends JDialog {
                 
                 @Override
                 protected Boolean doInBackground() throws Exception {
+                    long started = System.nanoTime();
                     ProcessBuilder pb = new ProcessBuilder(command);
                     pb.redirectErrorStream(true); // Combine stdout and stderr
                     Process process = pb.start();
@@ -340,6 +414,10 @@ public class QemuDiskCreationDialog extends JDialog {
                     }
                     
                     int exitCode = process.waitFor();
+                    QemuEventJournal.getInstance().record(
+                        exitCode == 0 ? QemuEventJournal.Type.DISK_CREATED : QemuEventJournal.Type.DISK_CREATE_FAILED,
+                        filePath, QemuEventJournal.ACTOR_USER, (System.nanoTime() - started) / 1000000,
+                        format + ", " + size + (exitCode != 0 ? ", exit code " + exitCode : ""));
                     if (exitCode != 0) {
                         errorMessage = "Command: " + String.join(" ", command) + "\n\n" +
                                      "Exit code: " + exitCode + "\n\n" +
@@ -0,0 +1,306 @@
+package com.qemumanager;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Moves a VM's disk image to another file, e.g. from a disk array to an SSD.
+ * A running VM keeps running: a mirror job copies the image while forwarding
+ * the guest's new writes to both copies, and once the copy has caught up
+ * QEMU switches the VM over to it in one step. A stopped VM's image is
+ * copied with qemu-img convert. An image on top of a shared base image keeps
+ * that base; only its own clusters are copied.
+ */
+public class QemuDiskMover {
+    private static QemuDiskMover instance;
+
+    private static final String JOB_ID = "mirror-disk0";
+    private static final long POLL_INTERVAL_MS = 500;
+    private static final long CANCEL_TIMEOUT_MS = 30000;
+    private static final long MB = 1024L * 1024L;
+
+    public interface Listener {
+        /**
+         * Copy progress; total can grow while the guest keeps writing. Ready means the copy
+         * has caught up and the switch-over was requested.
+         */
+        void progress(long doneBytes, long totalBytes, boolean ready);
+    }
+
+    /**
+     * Outcome of a finished move
+     */
+    public static class Result {
+        private final String source;
+        private final String target;
+        private final boolean live;
+        private final long copiedBytes;
+        private final long durationMs;
+
+        public Result(String source, String target, boolean live, long copiedBytes, long durationMs) {
+            this.source = source;
+            this.target = target;
+            this.live = live;
+            this.copiedBytes = copiedBytes;
+            this.durationMs = durationMs;
+        }
+
+        public String getSource() {
+            return source;
+        }
+
+        public String getTarget() {
+            return target;
+        }
+
+        public boolean isLive() {
+            return live;
+        }
+
+        public String describe() {
+            double seconds = durationMs / 1000.0;
+            return String.format("%s to %s: %d MB %s in %.1f s (%.1f MB/s)", source, target, copiedBytes / MB,
+                live ? "mirrored while running" : "copied", seconds, seconds > 0 ? copiedBytes / (double) MB / seconds : 0);
+        }
+    }
+
+    private final Set<String> runningMoves = ConcurrentHashMap.newKeySet();
+
+    private QemuDiskMover() {
+    }
+
+    public static synchronized QemuDiskMover getInstance() {
+        if (instance == null) {
+            instance = new QemuDiskMover();
+        }
+        return instance;
+    }
+
+    public boolean isRunning(QemuVm vm) {
+        return runningMoves.contains(vm.getName());
+    }
+
+    /**
+     * Copies the VM's disk to the target file and points the VM at it. The caller saves the
+     * VM afterwards; the old image is left in place. The speed cap applies to live moves only,
+     * 0 means none.
+     */
+    public Result move(QemuVm vm, File target, long speedMBps, Listener listener) throws IOException {
+        String source = vm.getDiskPath();
+        if (source == null || source.isEmpty()) {
+            throw new IOException("VM " + vm.getName() + " has no disk");
+        }
+        if (target.exists()) {
+            throw new IOException(target + " already exists");
+        }
+        if (new File(source).getCanonicalFile().equals(target.getCanonicalFile())) {
+            throw new IOException("The disk is already at " + target);
+        }
+        if (QemuBackupManager.getInstance().isRunning(vm)) {
+            throw new IOException("A backup of " + vm.getName() + " is running");
+        }
+        if (!runningMoves.add(vm.getName())) {
+            throw new IOException("The disk of " + vm.getName() + " is already being moved");
+        }
+        try {
+            Map<String, Object> info = QemuImageTool.info(source);
+            checkSpace(info, target);
+            boolean live = vm.getStatus().isActive();
+            long startTime = System.currentTimeMillis();
+            long copied = live ? mirror(vm, info, target, speedMBps, listener) : convert(info, source, target);
+            vm.setDiskPath(target.getAbsolutePath());
+            return new Result(source, target.getAbsolutePath(), live, copied, System.currentTimeMillis() - startTime);
+        } finally {
+            runningMoves.remove(vm.getName());
+        }
+    }
+
+    private static void checkSpace(Map<String, Object> info, File target) throws IOException {
+        File directory = target.getAbsoluteFile().getParentFile();
+        if (directory == null || !directory.isDirectory()) {
+            throw new IOException("Directory " + directory + " does not exist");
+        }
+        long needed = QemuJson.getLong(info, "actual-size", 0);
+        long usable = Files.getFileStore(directory.toPath()).getUsableSpace();
+        if (needed > usable) {
+            throw new IOException("The image needs " + needed / MB + " MB but " + directory + " has only "
+                + usable / MB + " MB free");
+        }
+    }
+
+    private static String getBacking(Map<String, Object> info) {
+        String backing = QemuJson.getString(info, "full-backing-filename");
+        return backing != null ? backing : QemuJson.getString(info, "backing-filename");
+    }
+
+    private static String getBackingFormat(Map<String, Object> info) {
+        String format = QemuJson.getString(info, "backing-filename-format");
+        return format != null ? format : "qcow2";
+    }
+
+    /**
+     * Mirrors the running disk into the target and pivots once the job is ready
+     */
+    private long mirror(QemuVm vm, Map<String, Object> info, File target, long speedMBps, Listener listener)
+            throws IOException {
+        QemuMonitorClient client = QemuMonitorManager.getInstance().getClient(vm);
+        QemuDiskNodes nodes = QemuDiskNodes.find(client);
+        String backing = getBacking(info);
+        long virtualSize = QemuJson.getLong(info, "virtual-size", 0);
+        // Created up front so an overlay keeps its base: the job then copies only the top image
+        if (backing != null) {
+            QemuImageTool.run("create", "-f", "qcow2", "-b", backing, "-F", getBackingFormat(info),
+                target.getPath(), String.valueOf(virtualSize));
+        } else {
+            QemuImageTool.run("create", "-f", "qcow2", target.getPath(), String.valueOf(virtualSize));
+        }
+
+        boolean succeeded = false;
+        boolean jobStarted = false;
+        try {
+            Map<String, Object> arguments = QemuJson.object("job-id", JOB_ID, "device", nodes.getRoot(),
+                "target", target.getAbsolutePath(), "format", "qcow2", "mode", "existing",
+                "sync", backing != null ? "top" : "full", "auto-dismiss", false);
+            if (speedMBps > 0) {
+                arguments.put("speed", speedMBps * MB);
+            }
+            if (nodes.isFiltered()) {
+                // Swap the image under the throttle filter rather than the filter itself
+                arguments.put("replaces", nodes.getFormat());
+            }
+            client.execute("drive-mirror", arguments);
+            jobStarted = true;
+            long copied = waitForPivot(client, listener);
+            succeeded = true;
+            return copied;
+        } finally {
+            if (jobStarted) {
+                try {
+                    client.execute("job-dismiss", QemuJson.object("id", JOB_ID));
+                } catch (IOException e) {
+                    // Already gone, e.g. cancelled
+                }
+            }
+            if (!succeeded) {
+                target.delete();
+            }
+        }
+    }
+
+    /**
+     * Polls the job, requests the switch-over once it is ready and returns the bytes it copied
+     */
+    private static long waitForPivot(QemuMonitorClient client, Listener listener) throws IOException {
+        boolean completing = false;
+        boolean interrupted = false;
+        while (true) {
+            Map<String, Object> job = null;
+            Object jobs = client.execute("query-jobs");
+            if (jobs instanceof List) {
+                for (Object item : (List<?>) jobs) {
+                    if (item instanceof Map && JOB_ID.equals(((Map<?, ?>) item).get("id"))) {
+                        @SuppressWarnings("unchecked")
+                        Map<String, Object> map = (Map<String, Object>) item;
+                        job = map;
+                    }
+                }
+            }
+            if (job == null) {
+                throw new IOException("Mirror job disappeared");
+            }
+            long done = QemuJson.getLong(job, "current-progress", 0);
+            long total = QemuJson.getLong(job, "total-progress", 0);
+            String status = QemuJson.getString(job, "status");
+            if ("concluded".equals(status)) {
+                String error = QemuJson.getString(job, "error");
+                if (error != null) {
+                    throw new IOException("Mirror job failed: " + error);
+                }
+                if (!completing) {
+                    throw new IOException("Mirror job ended without switching over");
+                }
+                if (interrupted) {
+                    Thread.currentThread().interrupt();
+                }
+                return done;
+            }
+            if ("ready".equals(status) && !completing) {
+                // Writes still go to both copies, so the switch loses nothing
+                client.execute("job-complete", QemuJson.object("id", JOB_ID));
+                completing = true;
+            }
+            if (listener != null) {
+                listener.progress(done, total, completing);
+            }
+            try {
+                Thread.sleep(POLL_INTERVAL_MS);
+            } catch (InterruptedException e) {
+                if (!completing) {
+                    // The monitor calls of the cancellation must not see the interrupt
+                    try {
+                        cancel(client);
+                    } finally {
+                        Thread.currentThread().interrupt();
+                    }
+                    throw new InterruptedIOException("Disk move cancelled");
+                }
+                // Past the switch-over request the VM may already use the new image; let it finish
+                interrupted = true;
+            }
+        }
+    }
+
+    /**
+     * Cancels the job and waits until QEMU has closed the target, so it can be deleted and
+     * the job dismissed
+     */
+    private static void cancel(QemuMonitorClient client) throws IOException {
+        client.execute("job-cancel", QemuJson.object("id", JOB_ID));
+        long deadline = System.currentTimeMillis() + CANCEL_TIMEOUT_MS;
+        while (System.currentTimeMillis() < deadline) {
+            Object jobs = client.execute("query-jobs");
+            boolean concluded = true;
+            if (jobs instanceof List) {
+                for (Object item : (List<?>) jobs) {
+                    if (item instanceof Map && JOB_ID.equals(((Map<?, ?>) item).get("id"))
+                            && !"concluded".equals(((Map<?, ?>) item).get("status"))) {
+                        concluded = false;
+                    }
+                }
+            }
+            if (concluded) {
+                return;
+            }
+            try {
+                Thread.sleep(POLL_INTERVAL_MS / 5);
+            } catch (InterruptedException e) {
+                return; // Already cancelling
+            }
+        }
+    }
+
+    /**
+     * Copies a stopped VM's image; an overlay is rewritten against the same base
+     */
+    private static long convert(Map<String, Object> info, String source, File target) throws IOException {
+        String backing = getBacking(info);
+        try {
+            if (backing != null) {
+                QemuImageTool.run("convert", "-O", "qcow2", "-B", backing, "-F", getBackingFormat(info),
+                    source, target.getPath());
+            } else {
+                QemuImageTool.run("convert", "-O", "qcow2", source, target.getPath());
+            }
+        } catch (IOException e) {
+            target.delete();
+            throw e;
+        }
+        return target.length();
+    }
+}
@@ -0,0 +1,115 @@
+package com.qemumanager;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The block nodes of a running VM's disk. QEMU starts with the format node
+ * named disk0-format and, when throttled, the filter on top of it named disk0
+ * (see QemuVm), but a live move replaces the format node with one QEMU names
+ * itself. So the nodes are looked up through the device the disk is attached
+ * to: its root node, and down the image chain past any filter to the format node.
+ */
+public class QemuDiskNodes {
+    // Ids given on the command line: the -drive backend, or the -device of a throttled disk
+    static final String DRIVE_ID = "disk0";
+    static final String DEVICE_ID = "disk0-device";
+    // Node names as started, which also find the disk of VMs started before the -drive had an id
+    static final String THROTTLE_NODE = "disk0";
+    static final String FORMAT_NODE = "disk0-format";
+    private static final String THROTTLE_DRIVER = "throttle";
+
+    private final String root;
+    private final Map<String, Object> format;
+
+    private QemuDiskNodes(String root, Map<String, Object> format) {
+        this.root = root;
+        this.format = format;
+    }
+
+    /**
+     * Looks up the disk's nodes as they are now
+     */
+    public static QemuDiskNodes find(QemuMonitorClient client) throws IOException {
+        Map<String, Object> inserted = findInserted(client);
+        String root = QemuJson.getString(inserted, "node-name");
+        Map<String, Object> image = QemuJson.getObject(inserted, "image");
+        while (image != null && THROTTLE_DRIVER.equals(QemuJson.getString(image, "format"))) {
+            image = QemuJson.getObject(image, "backing-image");
+        }
+        String imageFormat = QemuJson.getString(image, "format");
+        String imageFile = QemuJson.getString(image, "filename");
+        if (root == null || imageFormat == null || imageFile == null) {
+            throw new IOException("The disk has no image in QEMU");
+        }
+        // The chain names formats and files but not nodes; the node list has both
+        boolean filtered = THROTTLE_DRIVER.equals(QemuJson.getString(inserted, "drv"));
+        Object nodes = client.execute("query-named-block-nodes", QemuJson.object("flat", true));
+        if (nodes instanceof List) {
+            for (Object item : (List<?>) nodes) {
+                if (!(item instanceof Map)) {
+                    continue;
+                }
+                @SuppressWarnings("unchecked")
+                Map<String, Object> node = (Map<String, Object>) item;
+                boolean match = filtered
+                    ? !root.equals(node.get("node-name"))
+                        && imageFormat.equals(node.get("drv")) && imageFile.equals(node.get("file"))
+                    : root.equals(node.get("node-name"));
+                if (match) {
+                    return new QemuDiskNodes(root, node);
+                }
+            }
+        }
+        throw new IOException("Format node of the disk (" + imageFile + ") not found in QEMU");
+    }
+
+    private static Map<String, Object> findInserted(QemuMonitorClient client) throws IOException {
+        Object devices = client.execute("query-block");
+        if (devices instanceof List) {
+            for (Object item : (List<?>) devices) {
+                if (!(item instanceof Map)) {
+                    continue;
+                }
+                @SuppressWarnings("unchecked")
+                Map<String, Object> device = (Map<String, Object>) item;
+                Map<String, Object> inserted = QemuJson.getObject(device, "inserted");
+                Object node = inserted != null ? inserted.get("node-name") : null;
+                if (inserted != null && (DRIVE_ID.equals(device.get("device")) || DEVICE_ID.equals(device.get("qdev"))
+                        || THROTTLE_NODE.equals(node) || FORMAT_NODE.equals(node))) {
+                    return inserted;
+                }
+            }
+        }
+        throw new IOException("QEMU has no disk " + DRIVE_ID + " attached");
+    }
+
+    /**
+     * The node the device is attached to: the throttle filter if there is one, else the format node
+     */
+    public String getRoot() {
+        return root;
+    }
+
+    /**
+     * Name of the node holding the image format, where dirty bitmaps live
+     */
+    public String getFormat() {
+        return (String) format.get("node-name");
+    }
+
+    /**
+     * The format node as query-named-block-nodes describes it
+     */
+    public Map<String, Object> getFormatInfo() {
+        return format;
+    }
+
+    /**
+     * Whether a filter sits between the device and the format node
+     */
+    public boolean isFiltered() {
+        return !root.equals(getFormat());
+    }
+}
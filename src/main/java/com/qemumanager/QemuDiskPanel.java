@@ -1,12 +1,16 @@
 package com.qemumanager;
 
 import javax.swing.*;
+import javax.swing.table.DefaultTableCellRenderer;
 import javax.swing.table.DefaultTableModel;
-import javax.swing.table.TableCellRenderer;
 import java.awt.*;
+import java.awt.event.ActionEvent;
+import java.awt.event.InputEvent;
+import java.awt.event.KeyEvent;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
 import java.io.File;
+import java.lang.reflect.InvocationTargetException;
 import java.text.SimpleDateFormat;
 import java.util.*;
 import java.util.List;
@@ -18,27 +22,34 @@ public class QemuDiskPanel extends JPanel {
     private JTable diskTable;
     private DefaultTableModel tableModel;
     private QemuConsolePanel consolePanel;
-    private List<QemuVm> virtualMachines;
+    private QemuVmIndex vmIndex;
+    
+    private static final int ACTION_INFO = 0;
+    private static final int ACTION_DELETE = 1;
+    private static final int ACTION_OPEN = 2;
+    private static final int HEALTH_COLUMN = 5;
+    private static final String NOT_CHECKED = "Not checked";
+    private static final String CHECKING = "Checking...";
     
     public QemuDiskPanel() {
-        virtualMachines = new ArrayList<>();
+        vmIndex = new QemuVmIndex();
         initializeUI();
+        startDiskChecks();
     }
     
     private void initializeUI() {
         setLayout(new BorderLayout());
         
         // Create table model
-        String[] columnNames = {"File Name", "Path", "Format", "Size", "Used By", "Actions"};
+        String[] columnNames = {"File Name", "Path", "Format", "Size", "Used By", "Health", "Actions"};
         tableModel = new DefaultTableModel(columnNames, 0) {
             @Override
             public boolean isCellEditable(int row, int column) {
-                return column == 5; // Only actions column is editable
+                return false; // Actions are handled by the renderer's hit-testing
             }
         };
         
         diskTable = new JTable(tableModel);
-        diskTable.setRowHeight(60); // Increased from 50 to 60 for much larger buttons
         diskTable.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
         
         // Configure column widths
@@ -47,26 +58,65 @@ public class QemuDiskPanel extends JPanel {
         diskTable.getColumnModel().getColumn(2).setPreferredWidth(80);  // Format
         diskTable.getColumnModel().getColumn(3).setPreferredWidth(100); // Size
         diskTable.getColumnModel().getColumn(4).setPreferredWidth(120); // Used By
-        diskTable.getColumnModel().getColumn(5).setPreferredWidth(300); // Actions - increased from 250 to 300
-        diskTable.getColumnModel().getColumn(5).setMinWidth(300); // Increased minimum width
-        
-        // Set up actions column with buttons
-        diskTable.getColumn("Actions").setCellRenderer(new DiskButtonRenderer());
-        diskTable.getColumn("Actions").setCellEditor(new DiskButtonEditor(new JCheckBox()));
+        diskTable.getColumnModel().getColumn(HEALTH_COLUMN).setPreferredWidth(140); // Health
+        diskTable.getColumnModel().getColumn(HEALTH_COLUMN).setCellRenderer(new HealthRenderer());
+        
+        // Set up actions column with painted icons (also sets the row height)
+        QemuActionsCellRenderer actionsRenderer = new QemuActionsCellRenderer(
+            new QemuActionsCellRenderer.Glyph[] {
+                QemuActionsCellRenderer.Glyph.INFO,
+                QemuActionsCellRenderer.Glyph.DELETE,
+                QemuActionsCellRenderer.Glyph.OPEN
+            },
+            new Color[] {
+                new Color(70, 130, 180),
+                new Color(220, 20, 60),
+                new Color(60, 179, 113)
+            },
+            new String[] {
+                "Show disk information",
+                "Delete disk image",
+                "Open file location"
+            },
+            new QemuActionsCellRenderer.ActionHandler() {
+                @Override
+                public boolean isEnabled(int modelRow, int action) {
+                    return isActionEnabled(modelRow, action);
+                }
+                
+                @Override
+                public void perform(int modelRow, int action) {
+                    performAction(modelRow, action);
+                }
+            });
+        actionsRenderer.install(diskTable, 6);
+        diskTable.getColumnModel().getColumn(6).setPreferredWidth(actionsRenderer.getPreferredWidth()); // Actions
         
-        // Add double-click listener to show disk info
+        // Add double-click listener to show disk info and right-click context menu
         diskTable.addMouseListener(new MouseAdapter() {
             @Override
             public void mouseClicked(MouseEvent e) {
-                if (e.getClickCount() == 2) {
+                if (e.getClickCount() == 2 && SwingUtilities.isLeftMouseButton(e)) {
                     int row = diskTable.getSelectedRow();
                     if (row >= 0) {
                         showDiskInfo(row);
                     }
                 }
             }
+            
+            @Override
+            public void mousePressed(MouseEvent e) {
+                showContextMenu(e);
+            }
+            
+            @Override
+            public void mouseReleased(MouseEvent e) {
+                showContextMenu(e);
+            }
         });
         
+        installKeyboardShortcuts();
+        
         JScrollPane scrollPane = new JScrollPane(diskTable);
         add(scrollPane, BorderLayout.CENTER);
         
@@ -77,22 +127,35 @@ public class QemuDiskPanel extends JPanel {
         JButton refreshButton = new JButton("Refresh");
         JButton scanButton = new JButton("Scan Directory");
         JButton cleanupButton = new JButton("Cleanup Unused");
+        JButton duplicatesButton = new JButton("Find Duplicates");
+        JButton checkButton = new JButton("Check Disks");
+        JButton poolsButton = new JButton("Storage Pools");
         
         createDiskButton.setToolTipText("Create a new disk image");
         refreshButton.setToolTipText("Refresh list (includes VM disks + scans disk directory)");
         scanButton.setToolTipText("Scan a different directory for disk images");
         cleanupButton.setToolTipText("Find unused disk images for cleanup");
+        duplicatesButton.setToolTipText("Find images with the same content and share it through a base image");
+        checkButton.setToolTipText("Check the images that changed since their last check for errors");
+        poolsButton.setToolTipText("Show the capacity and usage of each storage pool");
         
         createDiskButton.addActionListener(e -> createNewDisk());
         refreshButton.addActionListener(e -> refreshDiskList());
         scanButton.addActionListener(e -> scanForDisks());
         cleanupButton.addActionListener(e -> cleanupUnusedDisks());
+        duplicatesButton.addActionListener(e -> findDuplicateDisks());
+        checkButton.addActionListener(e -> checkDisks());
+        poolsButton.addActionListener(e -> showStoragePools());
         
         toolbar.add(createDiskButton);
         toolbar.add(refreshButton);
         toolbar.add(scanButton);
         toolbar.add(new JSeparator(SwingConstants.VERTICAL));
         toolbar.add(cleanupButton);
+        toolbar.add(duplicatesButton);
+        toolbar.add(checkButton);
+        toolbar.add(new JSeparator(SwingConstants.VERTICAL));
+        toolbar.add(poolsButton);
         
         add(toolbar, BorderLayout.NORTH);
         
@@ -104,12 +167,114 @@ public class QemuDiskPanel extends JPanel {
         add(statusPanel, BorderLayout.SOUTH);
     }
     
+    private boolean isActionEnabled(int row, int action) {
+        if (action == ACTION_DELETE) {
+            return "Not Used".equals(tableModel.getValueAt(row, 4));
+        }
+        return true;
+    }
+    
+    private void performAction(int row, int action) {
+        switch (action) {
+            case ACTION_INFO:
+                showDiskInfo(row);
+                break;
+            case ACTION_DELETE:
+                deleteDisk(row);
+                break;
+            case ACTION_OPEN:
+                openDiskLocation(row);
+                break;
+            default:
+                break;
+        }
+    }
+    
+    private void performActionOnSelection(int action) {
+        int row = diskTable.getSelectedRow();
+        if (row >= 0 && isActionEnabled(row, action)) {
+            performAction(row, action);
+        }
+    }
+    
+    private void showContextMenu(MouseEvent e) {
+        if (!e.isPopupTrigger()) {
+            return;
+        }
+        int row = diskTable.rowAtPoint(e.getPoint());
+        if (row < 0) {
+            return;
+        }
+        diskTable.setRowSelectionInterval(row, row);
+        
+        JPopupMenu menu = new JPopupMenu();
+        JMenuItem infoItem = new JMenuItem("Info");
+        JMenuItem deleteItem = new JMenuItem("Delete");
+        JMenuItem openItem = new JMenuItem("Open Location");
+        JMenuItem checkItem = new JMenuItem("Check Integrity");
+        
+        infoItem.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_ENTER, 0));
+        deleteItem.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_DELETE, 0));
+        openItem.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_O, InputEvent.CTRL_DOWN_MASK | InputEvent.SHIFT_DOWN_MASK));
+        
+        deleteItem.setEnabled(isActionEnabled(row, ACTION_DELETE));
+        File diskFile = new File((String) tableModel.getValueAt(row, 1));
+        checkItem.setEnabled(isCheckable(row) && !QemuDiskChecker.getInstance().isQueued(diskFile));
+        
+        infoItem.addActionListener(ev -> performAction(row, ACTION_INFO));
+        deleteItem.addActionListener(ev -> performAction(row, ACTION_DELETE));
+        openItem.addActionListener(ev -> performAction(row, ACTION_OPEN));
+        checkItem.addActionListener(ev -> QemuDiskChecker.getInstance().check(diskFile));
+        
+        menu.add(infoItem);
+        menu.add(deleteItem);
+        menu.add(openItem);
+        menu.addSeparator();
+        menu.add(checkItem);
+        menu.show(diskTable, e.getX(), e.getY());
+    }
+    
+    private void installKeyboardShortcuts() {
+        InputMap inputMap = diskTable.getInputMap(JComponent.WHEN_ANCESTOR_OF_FOCUSED_COMPONENT);
+        ActionMap actionMap = diskTable.getActionMap();
+        
+        inputMap.put(KeyStroke.getKeyStroke(KeyEvent.VK_DELETE, 0), "deleteDisk");
+        inputMap.put(KeyStroke.getKeyStroke(KeyEvent.VK_O, InputEvent.CTRL_DOWN_MASK | InputEvent.SHIFT_DOWN_MASK), "openDisk");
+        inputMap.put(KeyStroke.getKeyStroke(KeyEvent.VK_F5, 0), "refreshDisks");
+        diskTable.getInputMap(JComponent.WHEN_FOCUSED).put(KeyStroke.getKeyStroke(KeyEvent.VK_ENTER, 0), "diskInfo");
+        
+        actionMap.put("diskInfo", new AbstractAction() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                performActionOnSelection(ACTION_INFO);
+            }
+        });
+        actionMap.put("deleteDisk", new AbstractAction() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                performActionOnSelection(ACTION_DELETE);
+            }
+        });
+        actionMap.put("openDisk", new AbstractAction() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                performActionOnSelection(ACTION_OPEN);
+            }
+        });
+        actionMap.put("refreshDisks", new AbstractAction() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                refreshDiskList();
+            }
+        });
+    }
+    
     public void setConsolePanel(QemuConsolePanel consolePanel) {
         this.consolePanel = consolePanel;
     }
     
-    public void setVirtualMachines(List<QemuVm> virtualMachines) {
-        this.virtualMachines = virtualMachines;
+    public void setVmIndex(QemuVmIndex vmIndex) {
+        this.vmIndex = vmIndex;
         refreshDiskList();
     }
     
@@ -117,12 +282,7 @@ public class QemuDiskPanel extends JPanel {
         tableModel.setRowCount(0);
         
         // Get all disk paths from VMs
-        Set<String> diskPaths = new HashSet<>();
-        for (QemuVm vm : virtualMachines) {
-            if (vm.getDiskPath() != null && !vm.getDiskPath().trim().isEmpty()) {
-                diskPaths.add(vm.getDiskPath().trim());
-            }
-        }
+        Set<String> diskPaths = vmIndex.getDiskPaths();
         
         // Add disk information to table for VM-associated disks
         for (String diskPath : diskPaths) {
@@ -137,18 +297,21 @@ public class QemuDiskPanel extends JPanel {
                     "Unknown",
                     "Missing File",
                     getVmUsingDisk(diskPath),
+                    NOT_CHECKED,
                     "Actions"
                 };
                 tableModel.addRow(rowData);
             }
         }
         
-        // Also scan the default disk directory for standalone disks
+        // Also scan the storage pool directories for standalone disks
         QemuSettings settings = QemuSettings.getInstance();
         settings.ensureDirectoriesExist(); // Make sure directories exist
-        File defaultDir = new File(settings.getQemuManagerDisksPath());
-        if (defaultDir.exists() && defaultDir.isDirectory()) {
-            scanDirectoryForDisks(defaultDir, false); // false = don't show scan message
+        for (QemuStoragePool pool : QemuStoragePools.getInstance().getPools()) {
+            File poolDir = pool.getDirectory();
+            if (poolDir.exists() && poolDir.isDirectory()) {
+                scanDirectoryForDisks(poolDir, false); // false = don't show scan message
+            }
         }
         
         if (consolePanel != null) {
@@ -169,6 +332,7 @@ public class QemuDiskPanel extends JPanel {
                 format,
                 size,
                 usedBy,
+                getHealth(diskFile),
                 "Actions"
             };
             
@@ -201,10 +365,8 @@ public class QemuDiskPanel extends JPanel {
     
     private String getVmUsingDisk(String diskPath) {
         List<String> vmNames = new ArrayList<>();
-        for (QemuVm vm : virtualMachines) {
-            if (vm.getDiskPath() != null && vm.getDiskPath().equals(diskPath)) {
-                vmNames.add(vm.getName());
-            }
+        for (QemuVm vm : vmIndex.findByDiskPath(diskPath)) {
+            vmNames.add(vm.getName());
         }
         
         if (vmNames.isEmpty()) {
@@ -259,12 +421,7 @@ public class QemuDiskPanel extends JPanel {
     
     private void scanDirectoryForDisks(File directory, boolean showMessages) {
         try {
-            Set<String> knownDisks = new HashSet<>();
-            for (QemuVm vm : virtualMachines) {
-                if (vm.getDiskPath() != null) {
-                    knownDisks.add(vm.getDiskPath());
-                }
-            }
+            Set<String> knownDisks = vmIndex.getDiskPaths();
             
             // Also check disks already in the table to avoid duplicates
             for (int i = 0; i < tableModel.getRowCount(); i++) {
@@ -345,6 +502,141 @@ public class QemuDiskPanel extends JPanel {
         }
     }
     
+    /**
+     * Whether the row is an existing image, not a CD image
+     */
+    private boolean isCheckable(int row) {
+        return new File((String) tableModel.getValueAt(row, 1)).isFile() && !"ISO".equals(tableModel.getValueAt(row, 2));
+    }
+    
+    private List<File> getListedImages() {
+        List<File> images = new ArrayList<>();
+        for (int i = 0; i < tableModel.getRowCount(); i++) {
+            if (isCheckable(i)) {
+                images.add(new File((String) tableModel.getValueAt(i, 1)));
+            }
+        }
+        return images;
+    }
+    
+    /**
+     * Opens the duplicate analysis for the listed images that exist, leaving out CD images
+     */
+    private void findDuplicateDisks() {
+        new QemuDedupeDialog((JFrame) SwingUtilities.getWindowAncestor(this), getListedImages(), vmIndex, consolePanel)
+            .setVisible(true);
+    }
+    
+    /**
+     * Runs the scheduled integrity checks over the images listed in this panel
+     */
+    private void startDiskChecks() {
+        QemuDiskChecker.getInstance().start(new QemuDiskChecker.DiskSource() {
+            @Override
+            public List<File> getDisks() {
+                if (SwingUtilities.isEventDispatchThread()) {
+                    return getListedImages();
+                }
+                List<List<File>> images = new ArrayList<>();
+                try {
+                    SwingUtilities.invokeAndWait(() -> images.add(getListedImages()));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } catch (InvocationTargetException e) {
+                    System.err.println("Failed to list disks for checking: " + e.getCause());
+                }
+                return images.isEmpty() ? Collections.emptyList() : images.get(0);
+            }
+            
+            @Override
+            public boolean isInUse(File disk) {
+                for (QemuVm vm : vmIndex.findByDiskPath(disk.getAbsolutePath())) {
+                    if (vm.getStatus() != QemuVm.VmStatus.STOPPED) {
+                        return true;
+                    }
+                }
+                return false;
+            }
+        }, new QemuDiskChecker.Listener() {
+            @Override
+            public void checkStarted(String path) {
+                SwingUtilities.invokeLater(() -> setHealth(path, CHECKING));
+            }
+            
+            @Override
+            public void checkFinished(QemuDiskChecker.Result result) {
+                SwingUtilities.invokeLater(() -> {
+                    setHealth(result.getPath(), result);
+                    if (consolePanel != null && result.getHealth() != QemuDiskChecker.Health.OK
+                            && result.getHealth() != QemuDiskChecker.Health.UNSUPPORTED) {
+                        consolePanel.appendMessage("Disk check of " + result.getPath() + ": " + result.describe());
+                    } else if (consolePanel != null && result.getLeaksFixed() > 0) {
+                        consolePanel.appendMessage("Repaired " + result.getLeaksFixed() + " leaked clusters in "
+                            + result.getPath());
+                    }
+                });
+            }
+        });
+    }
+    
+    /**
+     * Shows each pool's file system capacity and how much of it the VMs' disks take up
+     */
+    private void showStoragePools() {
+        QemuStoragePools pools = QemuStoragePools.getInstance();
+        pools.refreshSizes();
+        DefaultTableModel poolModel = new DefaultTableModel(
+            new Object[]{"Pool", "Tier", "Directory", "VM Disks", "Used by VMs", "Free", "Total"}, 0) {
+            @Override
+            public boolean isCellEditable(int row, int column) {
+                return false;
+            }
+        };
+        for (QemuStoragePool pool : pools.getPools()) {
+            QemuStoragePools.Usage usage = pools.getUsage(pool);
+            long free = pool.getFreeBytes();
+            long total = pool.getTotalBytes();
+            poolModel.addRow(new Object[]{
+                pool.getName(),
+                pool.getTier(),
+                pool.getPath(),
+                usage.getDisks(),
+                formatFileSize(usage.getBytes()),
+                free >= 0 ? formatFileSize(free) : "Unavailable",
+                total >= 0 ? formatFileSize(total) : "Unavailable"
+            });
+        }
+        JTable poolTable = new JTable(poolModel);
+        poolTable.getColumnModel().getColumn(2).setPreferredWidth(260);
+        JScrollPane scrollPane = new JScrollPane(poolTable);
+        scrollPane.setPreferredSize(new Dimension(760, 200));
+        JOptionPane.showMessageDialog(this, scrollPane, "Storage Pools", JOptionPane.INFORMATION_MESSAGE);
+    }
+    
+    private void checkDisks() {
+        QemuDiskChecker.getInstance().checkAll();
+        if (consolePanel != null) {
+            consolePanel.appendMessage("Checking changed disk images in the background");
+        }
+    }
+    
+    private Object getHealth(File diskFile) {
+        QemuDiskChecker checker = QemuDiskChecker.getInstance();
+        if (checker.isQueued(diskFile)) {
+            return CHECKING;
+        }
+        QemuDiskChecker.Result result = checker.getResult(diskFile);
+        return result != null ? result : NOT_CHECKED;
+    }
+    
+    private void setHealth(String path, Object health) {
+        for (int i = 0; i < tableModel.getRowCount(); i++) {
+            if (path.equals(tableModel.getValueAt(i, 1))) {
+                tableModel.setValueAt(health, i, HEALTH_COLUMN);
+            }
+        }
+    }
+    
     private void showDiskInfo(int row) {
         String fileName = (String) tableModel.getValueAt(row, 0);
         String filePath = (String) tableModel.getValueAt(row, 1);
@@ -361,7 +653,15 @@ public class QemuDiskPanel extends JPanel {
         info.append("Full Path: ").append(filePath).append("\n");
         info.append("Format: ").append(format).append("\n");
         info.append("Size: ").append(size).append("\n");
-        info.append("Used By: ").append(usedBy).append("\n\n");
+        info.append("Used By: ").append(usedBy).append("\n");
+        Object health = tableModel.getValueAt(row, HEALTH_COLUMN);
+        if (health instanceof QemuDiskChecker.Result) {
+            QemuDiskChecker.Result result = (QemuDiskChecker.Result) health;
+            info.append("Health: ").append(result.describe()).append("\n");
+            info.append("Checked: ").append(new SimpleDateFormat("yyyy-MM-dd HH:mm:ss").format(new Date(result.getCheckedAt()))).append("\n\n");
+        } else {
+            info.append("Health: ").append(health).append("\n\n");
+        }
         
         if (diskFile.exists()) {
             info.append("File Details:\n");
@@ -383,6 +683,39 @@ public class QemuDiskPanel extends JPanel {
             "Disk Information - " + fileName, JOptionPane.INFORMATION_MESSAGE);
     }
     
+    /**
+     * Colors the last check result of the image in the row
+     */
+    private static class HealthRenderer extends DefaultTableCellRenderer {
+        @Override
+        public Component getTableCellRendererComponent(JTable table, Object value, boolean isSelected,
+                                                       boolean hasFocus, int row, int column) {
+            super.getTableCellRendererComponent(table, value, isSelected, hasFocus, row, column);
+            Color color = table.getForeground();
+            if (value instanceof QemuDiskChecker.Result) {
+                switch (((QemuDiskChecker.Result) value).getHealth()) {
+                    case OK:
+                        color = new Color(34, 139, 34);
+                        break;
+                    case LEAKS:
+                        color = new Color(205, 133, 0);
+                        break;
+                    case CORRUPT:
+                    case FAILED:
+                        color = new Color(220, 20, 60);
+                        break;
+                    default:
+                        color = Color.GRAY;
+                        break;
+                }
+            }
+            if (!isSelected) {
+                setForeground(color);
+            }
+            return this;
+        }
+    }
+    
     private void deleteDisk(int row) {
         String fileName = (String) tableModel.getValueAt(row, 0);
         String filePath = (String) tableModel.getValueAt(row, 1);
@@ -406,6 +739,8 @@ public class QemuDiskPanel extends JPanel {
             File diskFile = new File(filePath);
             if (diskFile.exists() && diskFile.delete()) {
                 tableModel.removeRow(row);
+                QemuEventJournal.getInstance().record(QemuEventJournal.Type.DISK_DELETED, filePath,
+                    QemuEventJournal.ACTOR_USER, -1, null);
                 if (consolePanel != null) {
                     consolePanel.appendMessage("Deleted disk image: " + filePath);
                 }
@@ -442,132 +777,4 @@ public class QemuDiskPanel extends JPanel {
                 "Error", JOptionPane.ERROR_MESSAGE);
         }
     }
-    
-    // Button renderer for actions column
-    class DiskButtonRenderer extends JPanel implements TableCellRenderer {
-        private JButton infoButton, deleteButton, openButton;
-        
-        public DiskButtonRenderer() {
-            setLayout(new FlowLayout(FlowLayout.CENTER, 5, 5)); // Increased spacing
-            
-            infoButton = new JButton("Info");
-            deleteButton = new JButton("Delete");
-            openButton = new JButton("Open");
-            
-            // Much larger button sizes to ensure all text is clearly visible
-            infoButton.setPreferredSize(new Dimension(90, 50)); // Was 75, 42
-            deleteButton.setPreferredSize(new Dimension(100, 50)); // Was 85, 42  
-            openButton.setPreferredSize(new Dimension(90, 50)); // Was 75, 42
-            
-            // Larger font for excellent readability
-            Font buttonFont = new Font(Font.SANS_SERIF, Font.BOLD, 14); // Increased from 13 to 14
-            infoButton.setFont(buttonFont);
-            deleteButton.setFont(buttonFont);
-            openButton.setFont(buttonFont);
-            
-            infoButton.setBackground(new Color(70, 130, 180));
-            infoButton.setForeground(Color.WHITE);
-            infoButton.setToolTipText("Show disk information");
-            
-            deleteButton.setBackground(new Color(220, 20, 60));
-            deleteButton.setForeground(Color.WHITE);
-            deleteButton.setToolTipText("Delete disk image");
-            
-            openButton.setBackground(new Color(60, 179, 113));
-            openButton.setForeground(Color.WHITE);
-            openButton.setToolTipText("Open file location");
-            
-            add(infoButton);
-            add(deleteButton);
-            add(openButton);
-        }
-        
-        @Override
-        public Component getTableCellRendererComponent(JTable table, Object value,
-                boolean isSelected, boolean hasFocus, int row, int column) {
-            
-            if (row < tableModel.getRowCount()) {
-                String usedBy = (String) tableModel.getValueAt(row, 4);
-                deleteButton.setEnabled("Not Used".equals(usedBy));
-            }
-            
-            return this;
-        }
-    }
-    
-    // Button editor for actions column
-    class DiskButtonEditor extends DefaultCellEditor {
-        private JPanel panel;
-        private JButton infoButton, deleteButton, openButton;
-        private int currentRow;
-        
-        public DiskButtonEditor(JCheckBox checkBox) {
-            super(checkBox);
-            panel = new JPanel(new FlowLayout(FlowLayout.CENTER, 5, 5)); // Increased spacing
-            
-            infoButton = new JButton("Info");
-            deleteButton = new JButton("Delete");
-            openButton = new JButton("Open");
-            
-            // Much larger button sizes to match renderer and ensure excellent visibility
-            infoButton.setPreferredSize(new Dimension(90, 50)); // Was 75, 42
-            deleteButton.setPreferredSize(new Dimension(100, 50)); // Was 85, 42
-            openButton.setPreferredSize(new Dimension(90, 50)); // Was 75, 42
-            
-            // Larger font for excellent readability to match renderer
-            Font buttonFont = new Font(Font.SANS_SERIF, Font.BOLD, 14); // Increased from 13 to 14
-            infoButton.setFont(buttonFont);
-            deleteButton.setFont(buttonFont);
-            openButton.setFont(buttonFont);
-            
-            infoButton.setBackground(new Color(70, 130, 180));
-            infoButton.setForeground(Color.WHITE);
-            infoButton.setToolTipText("Show disk information");
-            
-            deleteButton.setBackground(new Color(220, 20, 60));
-            deleteButton.setForeground(Color.WHITE);
-            deleteButton.setToolTipText("Delete disk image");
-            
-            openButton.setBackground(new Color(60, 179, 113));
-            openButton.setForeground(Color.WHITE);
-            openButton.setToolTipText("Open file location");
-            
-            infoButton.addActionListener(e -> {
-                showDiskInfo(currentRow);
-                fireEditingStopped();
-            });
-            
-            deleteButton.addActionListener(e -> {
-                deleteDisk(currentRow);
-                fireEditingStopped();
-            });
-            
-            openButton.addActionListener(e -> {
-                openDiskLocation(currentRow);
-                fireEditingStopped();
-            });
-            
-            panel.add(infoButton);
-            panel.add(deleteButton);
-            panel.add(openButton);
-        }
-        
-        @Override
-        public Component getTableCellEditorComponent(JTable table, Object value,
-                boolean isSelected, int row, int column) {
-            currentRow = row;
-            
-            if (row < tableModel.getRowCount()) {
-                String usedBy = (String) tableModel.getValueAt(row, 4);
-                deleteButton.setEnabled("Not Used".equals(usedBy));
-            }
-            
-            return panel;
-        }
-        
-        @Override
-        public Object getCellEditorValue() {
-            return "Actions";
-        }
-    }
-}
\ No newline at end of file
+}
@@ -0,0 +1,194 @@
+package com.qemumanager;
+
+import java.util.Map;
+
+/**
+ * I/O limits of a disk as enforced by QEMU's throttle filter: a sustained
+ * rate plus an optional burst rate the guest may use for a while after it
+ * stayed below the sustained rate. Zero means unlimited. Used for a VM's own
+ * disk and for the named throttle groups kept in the settings, stored as
+ * "iops=500,iops-max=2000,mbps=100,mbps-max=200,burst=10".
+ */
+public class QemuDiskThrottle {
+    public static final QemuDiskThrottle NONE = new QemuDiskThrottle(0, 0, 0, 0, 0);
+
+    private static final long MB = 1024L * 1024L;
+
+    private final int iopsTotal;
+    private final int iopsTotalMax;
+    private final int mbpsTotal;
+    private final int mbpsTotalMax;
+    private final int burstSeconds;
+
+    public QemuDiskThrottle(int iopsTotal, int iopsTotalMax, int mbpsTotal, int mbpsTotalMax, int burstSeconds) {
+        this.iopsTotal = iopsTotal;
+        this.iopsTotalMax = iopsTotalMax;
+        this.mbpsTotal = mbpsTotal;
+        this.mbpsTotalMax = mbpsTotalMax;
+        this.burstSeconds = burstSeconds;
+    }
+
+    /**
+     * Parses the stored form; unknown keys and malformed numbers are ignored
+     */
+    public static QemuDiskThrottle parse(String spec) {
+        int iops = 0;
+        int iopsMax = 0;
+        int mbps = 0;
+        int mbpsMax = 0;
+        int burst = 0;
+        if (spec != null) {
+            for (String option : spec.split(",")) {
+                int eq = option.indexOf('=');
+                if (eq < 0) {
+                    continue;
+                }
+                int value;
+                try {
+                    value = Integer.parseInt(option.substring(eq + 1).trim());
+                } catch (NumberFormatException e) {
+                    continue;
+                }
+                switch (option.substring(0, eq).trim()) {
+                    case "iops":
+                        iops = value;
+                        break;
+                    case "iops-max":
+                        iopsMax = value;
+                        break;
+                    case "mbps":
+                        mbps = value;
+                        break;
+                    case "mbps-max":
+                        mbpsMax = value;
+                        break;
+                    case "burst":
+                        burst = value;
+                        break;
+                    default:
+                        break;
+                }
+            }
+        }
+        return new QemuDiskThrottle(iops, iopsMax, mbps, mbpsMax, burst);
+    }
+
+    public String format() {
+        return "iops=" + iopsTotal + ",iops-max=" + iopsTotalMax + ",mbps=" + mbpsTotal
+            + ",mbps-max=" + mbpsTotalMax + ",burst=" + burstSeconds;
+    }
+
+    public int getIopsTotal() {
+        return iopsTotal;
+    }
+
+    public int getIopsTotalMax() {
+        return iopsTotalMax;
+    }
+
+    public int getMbpsTotal() {
+        return mbpsTotal;
+    }
+
+    public int getMbpsTotalMax() {
+        return mbpsTotalMax;
+    }
+
+    /**
+     * How long the burst rate may be sustained
+     */
+    public int getBurstSeconds() {
+        return burstSeconds;
+    }
+
+    public boolean isUnlimited() {
+        return iopsTotal <= 0 && iopsTotalMax <= 0 && mbpsTotal <= 0 && mbpsTotalMax <= 0;
+    }
+
+    /**
+     * Returns null if QEMU accepts the limits, otherwise why not
+     */
+    public String validate() {
+        if (iopsTotal < 0 || iopsTotalMax < 0 || mbpsTotal < 0 || mbpsTotalMax < 0 || burstSeconds < 0) {
+            return "limits cannot be negative";
+        }
+        if (iopsTotalMax > 0 && (iopsTotal <= 0 || iopsTotalMax < iopsTotal)) {
+            return "burst IOPS need a sustained IOPS limit no higher than the burst";
+        }
+        if (mbpsTotalMax > 0 && (mbpsTotal <= 0 || mbpsTotalMax < mbpsTotal)) {
+            return "burst MB/s need a sustained MB/s limit no higher than the burst";
+        }
+        if (burstSeconds > 1 && iopsTotalMax <= 0 && mbpsTotalMax <= 0) {
+            return "a burst length needs a burst rate";
+        }
+        return null;
+    }
+
+    /**
+     * Options of the -object throttle-group holding these limits
+     */
+    public String toObjectOptions(String id) {
+        StringBuilder options = new StringBuilder("throttle-group,id=").append(id);
+        appendOption(options, "x-iops-total", iopsTotal);
+        appendOption(options, "x-iops-total-max", iopsTotalMax);
+        appendOption(options, "x-bps-total", mbpsTotal * MB);
+        appendOption(options, "x-bps-total-max", mbpsTotalMax * MB);
+        // The length only counts for rates that have a burst; QEMU defaults it to one second
+        if (burstSeconds > 1) {
+            if (iopsTotalMax > 0) {
+                appendOption(options, "x-iops-total-max-length", burstSeconds);
+            }
+            if (mbpsTotalMax > 0) {
+                appendOption(options, "x-bps-total-max-length", burstSeconds);
+            }
+        }
+        return options.toString();
+    }
+
+    /**
+     * The "limits" property of a throttle-group object, for changing it on a running VM.
+     * Every rate is included so that removed limits are cleared.
+     */
+    public Map<String, Object> toLimits() {
+        int length = Math.max(1, burstSeconds);
+        return QemuJson.object(
+            "iops-total", (long) iopsTotal,
+            "iops-total-max", (long) iopsTotalMax,
+            "iops-total-max-length", (long) (iopsTotalMax > 0 ? length : 1),
+            "bps-total", mbpsTotal * MB,
+            "bps-total-max", mbpsTotalMax * MB,
+            "bps-total-max-length", (long) (mbpsTotalMax > 0 ? length : 1));
+    }
+
+    private static void appendOption(StringBuilder options, String name, long value) {
+        if (value > 0) {
+            options.append(',').append(name).append('=').append(value);
+        }
+    }
+
+    /**
+     * Short summary for tables and messages
+     */
+    public String describe() {
+        if (isUnlimited()) {
+            return "unlimited";
+        }
+        StringBuilder text = new StringBuilder();
+        if (iopsTotal > 0) {
+            text.append(iopsTotal).append(" IOPS");
+            if (iopsTotalMax > 0) {
+                text.append(" (burst ").append(iopsTotalMax).append(")");
+            }
+        }
+        if (mbpsTotal > 0) {
+            text.append(text.length() > 0 ? ", " : "").append(mbpsTotal).append(" MB/s");
+            if (mbpsTotalMax > 0) {
+                text.append(" (burst ").append(mbpsTotalMax).append(")");
+            }
+        }
+        if (burstSeconds > 1 && (iopsTotalMax > 0 || mbpsTotalMax > 0)) {
+            text.append(" for ").append(burstSeconds).append(" s");
+        }
+        return text.toString();
+    }
+}
@@ -0,0 +1,354 @@
+package com.qemumanager;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Predicate;
+
+/**
+ * Append-only journal of lifecycle events (VM starts and stops, crashes,
+ * disk creation, state saves) as JSON lines in the logs directory.
+ * Recording never blocks: events go through a lock-free queue to a single
+ * writer thread. Besides the wall clock, each event carries a monotonic
+ * timestamp within the session, and start, stop and run durations are filled
+ * in by pairing events of the same subject.
+ */
+public class QemuEventJournal {
+    private static QemuEventJournal instance;
+
+    public static final String ACTOR_USER = System.getProperty("user.name", "user");
+    public static final String ACTOR_SYSTEM = "system";
+    public static final String ACTOR_AUTOSTART = "autostart";
+    public static final String ACTOR_SUPERVISOR = "supervisor";
+    public static final String ACTOR_GUEST = "guest";
+
+    public enum Type {
+        VM_STARTING, VM_STARTED, VM_READY, VM_START_FAILED,
+        VM_STOPPING, VM_STOPPED, VM_CRASHED, VM_ADOPTED,
+        VM_SUPERVISION, GUEST_EVENT,
+        MIGRATION_STARTED, MIGRATION_COMPLETED, MIGRATION_FAILED,
+        BACKUP_COMPLETED, BACKUP_FAILED, BACKUP_RESTORED,
+        DISK_CREATED, DISK_CREATE_FAILED, DISK_DELETED, DISK_DEDUPLICATED, DISK_MOVED,
+        DISK_REPAIRED, DISK_CORRUPT,
+        STATE_SAVED, STATE_LOADED
+    }
+
+    /**
+     * One journal line
+     */
+    public static class Event {
+        private final long session;
+        private final long sequence;
+        private final long timeMs;
+        private final long monotonicUs;
+        private final Type type;
+        private final String subject;
+        private final String actor;
+        private final long durationMs;
+        private final String detail;
+
+        public Event(long session, long sequence, long timeMs, long monotonicUs, Type type, String subject,
+                     String actor, long durationMs, String detail) {
+            this.session = session;
+            this.sequence = sequence;
+            this.timeMs = timeMs;
+            this.monotonicUs = monotonicUs;
+            this.type = type;
+            this.subject = subject;
+            this.actor = actor;
+            this.durationMs = durationMs;
+            this.detail = detail;
+        }
+
+        /**
+         * Start time of the manager session that recorded the event
+         */
+        public long getSession() {
+            return session;
+        }
+
+        public long getSequence() {
+            return sequence;
+        }
+
+        public long getTimeMs() {
+            return timeMs;
+        }
+
+        /**
+         * Microseconds since the session started, unaffected by wall clock changes
+         */
+        public long getMonotonicUs() {
+            return monotonicUs;
+        }
+
+        public Type getType() {
+            return type;
+        }
+
+        /**
+         * VM name, disk path or state file the event is about
+         */
+        public String getSubject() {
+            return subject;
+        }
+
+        /**
+         * Who caused the event: the user name, or autostart, supervisor, guest or system
+         */
+        public String getActor() {
+            return actor;
+        }
+
+        /**
+         * Duration of the operation the event completes, or -1
+         */
+        public long getDurationMs() {
+            return durationMs;
+        }
+
+        public String getDetail() {
+            return detail;
+        }
+
+        String toJson() {
+            return QemuJson.write(QemuJson.object(
+                "session", session,
+                "seq", sequence,
+                "time", timeMs,
+                "mono", monotonicUs,
+                "type", type.name(),
+                "subject", subject,
+                "actor", actor,
+                "durationMs", durationMs,
+                "detail", detail));
+        }
+
+        /**
+         * Parses a journal line; throws IllegalArgumentException for anything that is not an event
+         */
+        static Event fromJson(String line) {
+            Map<String, Object> map = QemuJson.parseObject(line);
+            String type = QemuJson.getString(map, "type");
+            if (type == null) {
+                throw new IllegalArgumentException("Event without a type");
+            }
+            return new Event(
+                QemuJson.getLong(map, "session", 0),
+                QemuJson.getLong(map, "seq", 0),
+                QemuJson.getLong(map, "time", 0),
+                QemuJson.getLong(map, "mono", 0),
+                Type.valueOf(type),
+                QemuJson.getString(map, "subject"),
+                QemuJson.getString(map, "actor"),
+                QemuJson.getLong(map, "durationMs", -1),
+                QemuJson.getString(map, "detail"));
+        }
+    }
+
+    private static final ExecutorService WRITER = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "Event journal");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final long session = System.currentTimeMillis();
+    private final long sessionNanos = System.nanoTime();
+    private final ConcurrentLinkedQueue<Event> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean drainScheduled = new AtomicBoolean();
+    // Start of operations in progress, by subject and operation, in System.nanoTime
+    private final Map<String, Long> openOperations = new ConcurrentHashMap<>();
+
+    // Touched only on the writer thread
+    private Writer writer;
+    private long nextSequence = 1;
+
+    private QemuEventJournal() {
+    }
+
+    public static synchronized QemuEventJournal getInstance() {
+        if (instance == null) {
+            instance = new QemuEventJournal();
+        }
+        return instance;
+    }
+
+    public File getJournalFile() {
+        return new File(QemuSettings.getInstance().getQemuManagerLogsPath(), "events.jsonl");
+    }
+
+    public void record(Type type, QemuVm vm, String actor, String detail) {
+        record(type, vm.getName(), actor, -1, detail);
+    }
+
+    /**
+     * Queues an event; never blocks. Without a duration, one is derived from
+     * the matching earlier event of the subject where there is one.
+     */
+    public void record(Type type, String subject, String actor, long durationMs, String detail) {
+        long now = System.nanoTime();
+        long paired = pairOperations(type, subject, now);
+        if (durationMs < 0) {
+            durationMs = paired;
+        }
+        // Sequence is assigned by the writer so the file is strictly ordered
+        queue.add(new Event(session, 0, System.currentTimeMillis(), (now - sessionNanos) / 1000,
+            type, subject, actor, durationMs, detail));
+        if (drainScheduled.compareAndSet(false, true)) {
+            WRITER.execute(this::drain);
+        }
+    }
+
+    /**
+     * Opens and closes the subject's operations; returns the duration of the one the event ends, or -1
+     */
+    private long pairOperations(Type type, String subject, long now) {
+        switch (type) {
+            case VM_STARTING:
+                openOperations.put(subject + ":start", now);
+                return -1;
+            case VM_STARTED:
+                return elapsedMs(openOperations.get(subject + ":start"), now);
+            case VM_READY:
+                openOperations.put(subject + ":run", now);
+                return elapsedMs(openOperations.remove(subject + ":start"), now);
+            case VM_START_FAILED:
+                return elapsedMs(openOperations.remove(subject + ":start"), now);
+            case VM_ADOPTED:
+                openOperations.put(subject + ":run", now);
+                return -1;
+            case VM_STOPPING:
+                openOperations.put(subject + ":stop", now);
+                return -1;
+            case VM_STOPPED:
+            case VM_CRASHED: {
+                // Stop time if stopped through the manager, else how long it ran (or tried to boot)
+                Long stop = openOperations.remove(subject + ":stop");
+                Long run = openOperations.remove(subject + ":run");
+                Long start = openOperations.remove(subject + ":start");
+                return elapsedMs(stop != null ? stop : run != null ? run : start, now);
+            }
+            default:
+                return -1;
+        }
+    }
+
+    private static long elapsedMs(Long startNanos, long now) {
+        return startNanos != null ? (now - startNanos) / 1000000 : -1;
+    }
+
+    private void drain() {
+        drainScheduled.set(false);
+        try {
+            if (writer == null) {
+                File file = getJournalFile();
+                file.getParentFile().mkdirs();
+                writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file, true), StandardCharsets.UTF_8));
+            }
+            Event event;
+            while ((event = queue.poll()) != null) {
+                Event numbered = new Event(event.session, nextSequence++, event.timeMs, event.monotonicUs,
+                    event.type, event.subject, event.actor, event.durationMs, event.detail);
+                writer.write(numbered.toJson());
+                writer.write('\n');
+            }
+            writer.flush();
+        } catch (IOException e) {
+            System.err.println("Failed to write event journal: " + e.getMessage());
+            closeWriter(); // Reopened on the next event
+        }
+    }
+
+    private void closeWriter() {
+        if (writer != null) {
+            try {
+                writer.close();
+            } catch (IOException e) {
+                // Nothing left to do with it
+            }
+            writer = null;
+        }
+    }
+
+    /**
+     * Waits until every event recorded so far is in the file
+     */
+    public void flush() {
+        try {
+            WRITER.submit(this::drain).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            System.err.println("Failed to flush event journal: " + e.getCause().getMessage());
+        }
+    }
+
+    /**
+     * Returns the newest events matching the filter, at most limit, oldest first
+     */
+    public List<Event> query(Predicate<Event> filter, int limit) throws IOException {
+        flush();
+        ArrayDeque<Event> matches = new ArrayDeque<>();
+        File file = getJournalFile();
+        if (!file.exists()) {
+            return new ArrayList<>();
+        }
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                Event event;
+                try {
+                    event = Event.fromJson(line);
+                } catch (IllegalArgumentException e) {
+                    continue; // Torn last line after a crash, a corrupt line, or an event type from a newer version
+                }
+                if (filter.test(event)) {
+                    matches.addLast(event);
+                    if (matches.size() > limit) {
+                        matches.removeFirst();
+                    }
+                }
+            }
+        }
+        return new ArrayList<>(matches);
+    }
+
+    /**
+     * Writes events as JSON lines, or as CSV if the file name ends in .csv
+     */
+    public static void export(List<Event> events, File target) throws IOException {
+        boolean csv = target.getName().toLowerCase().endsWith(".csv");
+        try (Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(target), StandardCharsets.UTF_8))) {
+            if (csv) {
+                out.write("session,seq,time,mono_us,type,subject,actor,duration_ms,detail\n");
+            }
+            for (Event event : events) {
+                if (csv) {
+                    out.write(event.session + "," + event.sequence + "," + event.timeMs + "," + event.monotonicUs + ","
+                        + event.type + "," + csvField(event.subject) + "," + csvField(event.actor) + ","
+                        + event.durationMs + "," + csvField(event.detail) + "\n");
+                } else {
+                    out.write(event.toJson());
+                    out.write('\n');
+                }
+            }
+        }
+    }
+
+    private static String csvField(String value) {
+        if (value == null) {
+            return "";
+        }
+        if (value.contains(",") || value.contains("\"") || value.contains("\n")) {
+            return "\"" + value.replace("\"", "\"\"") + "\"";
+        }
+        return value;
+    }
+}
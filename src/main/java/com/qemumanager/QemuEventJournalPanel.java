@@ -0,0 +1,224 @@
+package com.qemumanager;
+
+import javax.swing.*;
+import javax.swing.table.AbstractTableModel;
+import java.awt.*;
+import java.io.File;
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.function.Predicate;
+
+/**
+ * Browses the {@link QemuEventJournal}: filter by subject, event type and
+ * time range, see start latency and failure rates, export what is shown.
+ */
+public class QemuEventJournalPanel extends JPanel {
+    private static final int MAX_EVENTS = 5000;
+    private static final String ALL_TYPES = "All events";
+    private static final String[] RANGES = {"Last hour", "Last 24 hours", "Last 7 days", "All time"};
+    private static final long[] RANGE_MS = {3600000L, 86400000L, 7 * 86400000L, Long.MAX_VALUE};
+
+    private JTextField subjectField;
+    private JComboBox<String> typeCombo;
+    private JComboBox<String> rangeCombo;
+    private JLabel summaryLabel;
+    private final EventTableModel tableModel = new EventTableModel();
+
+    public QemuEventJournalPanel() {
+        initializeUI();
+    }
+
+    private void initializeUI() {
+        setLayout(new BorderLayout());
+
+        JPanel filterPanel = new JPanel(new FlowLayout(FlowLayout.LEFT));
+        filterPanel.add(new JLabel("VM / subject:"));
+        subjectField = new JTextField(15);
+        subjectField.addActionListener(e -> refresh());
+        filterPanel.add(subjectField);
+
+        typeCombo = new JComboBox<>();
+        typeCombo.addItem(ALL_TYPES);
+        for (QemuEventJournal.Type type : QemuEventJournal.Type.values()) {
+            typeCombo.addItem(type.name());
+        }
+        filterPanel.add(typeCombo);
+
+        rangeCombo = new JComboBox<>(RANGES);
+        rangeCombo.setSelectedIndex(1);
+        filterPanel.add(rangeCombo);
+
+        JButton refreshButton = new JButton("Refresh");
+        refreshButton.addActionListener(e -> refresh());
+        filterPanel.add(refreshButton);
+
+        JButton exportButton = new JButton("Export...");
+        exportButton.setToolTipText("Save the shown events as JSON lines, or as CSV with a .csv name");
+        exportButton.addActionListener(e -> exportEvents());
+        filterPanel.add(exportButton);
+        add(filterPanel, BorderLayout.NORTH);
+
+        JTable table = new JTable(tableModel);
+        table.setAutoResizeMode(JTable.AUTO_RESIZE_LAST_COLUMN);
+        int[] widths = {140, 130, 140, 90, 80, 400};
+        for (int i = 0; i < widths.length; i++) {
+            table.getColumnModel().getColumn(i).setPreferredWidth(widths[i]);
+        }
+        add(new JScrollPane(table), BorderLayout.CENTER);
+
+        summaryLabel = new JLabel(" ");
+        summaryLabel.setBorder(BorderFactory.createEmptyBorder(4, 6, 4, 6));
+        add(summaryLabel, BorderLayout.SOUTH);
+    }
+
+    /**
+     * Reloads the events matching the filters in the background
+     */
+    public void refresh() {
+        String subject = subjectField.getText().trim().toLowerCase();
+        String type = (String) typeCombo.getSelectedItem();
+        long range = RANGE_MS[rangeCombo.getSelectedIndex()];
+        long from = range == Long.MAX_VALUE ? 0 : System.currentTimeMillis() - range;
+        Predicate<QemuEventJournal.Event> filter = event ->
+            event.getTimeMs() >= from
+                && (ALL_TYPES.equals(type) || event.getType().name().equals(type))
+                && (subject.isEmpty() || (event.getSubject() != null && event.getSubject().toLowerCase().contains(subject)));
+
+        summaryLabel.setText("Loading...");
+        Thread thread = new Thread(() -> {
+            try {
+                List<QemuEventJournal.Event> events = QemuEventJournal.getInstance().query(filter, MAX_EVENTS);
+                Collections.reverse(events); // Newest first
+                String summary = summarize(events);
+                SwingUtilities.invokeLater(() -> {
+                    tableModel.setEvents(events);
+                    summaryLabel.setText(summary);
+                });
+            } catch (IOException e) {
+                SwingUtilities.invokeLater(() -> summaryLabel.setText("Cannot read event journal: " + e.getMessage()));
+            }
+        }, "Event journal query");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private static String summarize(List<QemuEventJournal.Event> events) {
+        int starts = 0;
+        int failures = 0;
+        int crashes = 0;
+        List<Long> latencies = new ArrayList<>();
+        for (QemuEventJournal.Event event : events) {
+            switch (event.getType()) {
+                case VM_STARTING:
+                    starts++;
+                    break;
+                case VM_START_FAILED:
+                    failures++;
+                    break;
+                case VM_CRASHED:
+                    crashes++;
+                    break;
+                case VM_READY:
+                    if (event.getDurationMs() >= 0) {
+                        latencies.add(event.getDurationMs());
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+        StringBuilder summary = new StringBuilder();
+        summary.append(events.size()).append(events.size() >= MAX_EVENTS ? "+" : "").append(" events");
+        if (starts > 0) {
+            summary.append(String.format(" | %d starts, %d failed (%.1f%%), %d crashes",
+                starts, failures, 100.0 * failures / starts, crashes));
+        }
+        if (!latencies.isEmpty()) {
+            Collections.sort(latencies);
+            summary.append(String.format(" | start to ready: median %.1f s, p95 %.1f s",
+                latencies.get(latencies.size() / 2) / 1000.0,
+                latencies.get(Math.min(latencies.size() - 1, (int) Math.ceil(latencies.size() * 0.95) - 1)) / 1000.0));
+        }
+        return summary.toString();
+    }
+
+    private void exportEvents() {
+        List<QemuEventJournal.Event> events = tableModel.getEvents();
+        if (events.isEmpty()) {
+            JOptionPane.showMessageDialog(this, "There are no events to export.",
+                "Export Events", JOptionPane.INFORMATION_MESSAGE);
+            return;
+        }
+        JFileChooser fileChooser = new JFileChooser();
+        fileChooser.setDialogTitle("Export Events");
+        fileChooser.setSelectedFile(new File("qemu-events-" +
+            java.time.LocalDateTime.now().format(java.time.format.DateTimeFormatter.ofPattern("yyyy-MM-dd-HH-mm-ss")) + ".jsonl"));
+        if (fileChooser.showSaveDialog(this) != JFileChooser.APPROVE_OPTION) {
+            return;
+        }
+        File target = fileChooser.getSelectedFile();
+        // Export in recorded order
+        List<QemuEventJournal.Event> ordered = new ArrayList<>(events);
+        Collections.reverse(ordered);
+        try {
+            QemuEventJournal.export(ordered, target);
+            summaryLabel.setText("Exported " + ordered.size() + " events to " + target.getAbsolutePath());
+        } catch (IOException e) {
+            JOptionPane.showMessageDialog(this, "Failed to export events: " + e.getMessage(),
+                "Export Error", JOptionPane.ERROR_MESSAGE);
+        }
+    }
+
+    private static class EventTableModel extends AbstractTableModel {
+        private static final String[] COLUMNS = {"Time", "Subject", "Event", "Actor", "Duration", "Detail"};
+        private final SimpleDateFormat timeFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+        private List<QemuEventJournal.Event> events = new ArrayList<>();
+
+        void setEvents(List<QemuEventJournal.Event> events) {
+            this.events = events;
+            fireTableDataChanged();
+        }
+
+        List<QemuEventJournal.Event> getEvents() {
+            return events;
+        }
+
+        @Override
+        public int getRowCount() {
+            return events.size();
+        }
+
+        @Override
+        public int getColumnCount() {
+            return COLUMNS.length;
+        }
+
+        @Override
+        public String getColumnName(int column) {
+            return COLUMNS[column];
+        }
+
+        @Override
+        public Object getValueAt(int row, int column) {
+            QemuEventJournal.Event event = events.get(row);
+            switch (column) {
+                case 0:
+                    return timeFormat.format(new Date(event.getTimeMs()));
+                case 1:
+                    return event.getSubject();
+                case 2:
+                    return event.getType().name();
+                case 3:
+                    return event.getActor();
+                case 4:
+                    return event.getDurationMs() >= 0 ? String.format("%.1f s", event.getDurationMs() / 1000.0) : "";
+                default:
+                    return event.getDetail() != null ? event.getDetail() : "";
+            }
+        }
+    }
+}
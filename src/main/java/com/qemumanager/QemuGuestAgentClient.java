@@ -0,0 +1,245 @@
+package com.qemumanager;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * Client for the QEMU guest agent on the host side of its virtio-serial channel.
+ * The agent has no greeting and may have been restarted inside the guest, so
+ * the stream is resynchronised with guest-sync-delimited before the first
+ * command and after any timeout. Commands run one at a time.
+ */
+public class QemuGuestAgentClient implements Closeable {
+    private static final int SYNC_DELIMITER = 0xFF;
+
+    /**
+     * Network interface as reported by guest-network-get-interfaces
+     */
+    public static class GuestInterface {
+        private final String name;
+        private final String hardwareAddress;
+        private final List<String> ipAddresses;
+
+        public GuestInterface(String name, String hardwareAddress, List<String> ipAddresses) {
+            this.name = name;
+            this.hardwareAddress = hardwareAddress;
+            this.ipAddresses = Collections.unmodifiableList(ipAddresses);
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getHardwareAddress() {
+            return hardwareAddress;
+        }
+
+        public List<String> getIpAddresses() {
+            return ipAddresses;
+        }
+    }
+
+    private final Socket socket;
+    private final InputStream in;
+    private final OutputStream out;
+    private final Random random = new Random();
+    private boolean synced;
+
+    /**
+     * Creates a client over existing streams, e.g. those of a local stub agent
+     */
+    public QemuGuestAgentClient(InputStream in, OutputStream out) {
+        this(null, in, out);
+    }
+
+    private QemuGuestAgentClient(Socket socket, InputStream in, OutputStream out) {
+        this.socket = socket;
+        this.in = new BufferedInputStream(in);
+        this.out = new BufferedOutputStream(out);
+    }
+
+    public static QemuGuestAgentClient connect(String host, int port, int timeoutMs) throws IOException {
+        Socket socket = new Socket();
+        try {
+            socket.connect(new InetSocketAddress(host, port), timeoutMs);
+            return new QemuGuestAgentClient(socket, socket.getInputStream(), socket.getOutputStream());
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Returns true if the agent inside the guest answers within the timeout
+     */
+    public boolean ping(int timeoutMs) throws IOException {
+        try {
+            execute("guest-ping", null, timeoutMs);
+            return true;
+        } catch (SocketTimeoutException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Asks the guest OS to shut down cleanly. The agent sends no reply on success.
+     */
+    public synchronized void shutdown() throws IOException {
+        ensureSynced(QemuMonitorClient.DEFAULT_TIMEOUT_MS);
+        send(QemuJson.object("execute", "guest-shutdown", "arguments", QemuJson.object("mode", "powerdown")));
+        synced = false;
+    }
+
+    /**
+     * Freezes all guest file systems and returns how many were frozen
+     */
+    public int freezeFilesystems(int timeoutMs) throws IOException {
+        Object result = execute("guest-fsfreeze-freeze", null, timeoutMs);
+        return result instanceof Number ? ((Number) result).intValue() : 0;
+    }
+
+    public int thawFilesystems(int timeoutMs) throws IOException {
+        Object result = execute("guest-fsfreeze-thaw", null, timeoutMs);
+        return result instanceof Number ? ((Number) result).intValue() : 0;
+    }
+
+    @SuppressWarnings("unchecked")
+    public List<GuestInterface> getNetworkInterfaces(int timeoutMs) throws IOException {
+        Object result = execute("guest-network-get-interfaces", null, timeoutMs);
+        List<GuestInterface> interfaces = new ArrayList<>();
+        if (result instanceof List) {
+            for (Object item : (List<Object>) result) {
+                if (!(item instanceof Map)) {
+                    continue;
+                }
+                Map<String, Object> entry = (Map<String, Object>) item;
+                List<String> addresses = new ArrayList<>();
+                for (Object address : QemuJson.getList(entry, "ip-addresses")) {
+                    if (address instanceof Map) {
+                        Map<String, Object> ip = (Map<String, Object>) address;
+                        addresses.add(QemuJson.getString(ip, "ip-address") + "/" + QemuJson.getLong(ip, "prefix", 0));
+                    }
+                }
+                interfaces.add(new GuestInterface(QemuJson.getString(entry, "name"),
+                    QemuJson.getString(entry, "hardware-address"), addresses));
+            }
+        }
+        return interfaces;
+    }
+
+    /**
+     * Runs an agent command and returns the value of its "return" member
+     */
+    public synchronized Object execute(String command, Map<String, Object> arguments, int timeoutMs) throws IOException {
+        ensureSynced(timeoutMs);
+        Map<String, Object> request = QemuJson.object("execute", command);
+        if (arguments != null) {
+            request.put("arguments", arguments);
+        }
+        send(request);
+        Map<String, Object> reply = readReply(timeoutMs);
+        if (reply.containsKey("error")) {
+            Map<String, Object> error = QemuJson.getObject(reply, "error");
+            throw new QemuMonitorClient.QmpException(QemuJson.getString(error, "class"), QemuJson.getString(error, "desc"));
+        }
+        return reply.get("return");
+    }
+
+    @Override
+    public void close() {
+        try {
+            if (socket != null) {
+                socket.close();
+            } else {
+                in.close();
+                out.close();
+            }
+        } catch (IOException e) {
+            // Already closed
+        }
+    }
+
+    /**
+     * Discards stale output and waits for the echo of a fresh sync id
+     */
+    private void ensureSynced(long timeoutMs) throws IOException {
+        if (synced) {
+            return;
+        }
+        long id = random.nextInt(Integer.MAX_VALUE);
+        send(QemuJson.object("execute", "guest-sync-delimited", "arguments", QemuJson.object("id", id)));
+        setTimeout(timeoutMs);
+        while (true) {
+            int b;
+            do {
+                b = readByte();
+            } while (b != SYNC_DELIMITER);
+            Map<String, Object> reply = parseLine(readLine());
+            if (reply != null && QemuJson.getLong(reply, "return", -1) == id) {
+                synced = true;
+                return;
+            }
+        }
+    }
+
+    private Map<String, Object> readReply(long timeoutMs) throws IOException {
+        setTimeout(timeoutMs);
+        while (true) {
+            Map<String, Object> reply = parseLine(readLine());
+            if (reply != null) {
+                return reply;
+            }
+        }
+    }
+
+    private Map<String, Object> parseLine(String line) {
+        if (line.trim().isEmpty()) {
+            return null;
+        }
+        try {
+            return QemuJson.parseObject(line);
+        } catch (IllegalArgumentException e) {
+            return null; // Garbage left over from before a resync
+        }
+    }
+
+    private void send(Map<String, Object> message) throws IOException {
+        out.write(QemuJson.write(message).getBytes(StandardCharsets.UTF_8));
+        out.write('\n');
+        out.flush();
+    }
+
+    private void setTimeout(long timeoutMs) throws IOException {
+        if (socket != null) {
+            socket.setSoTimeout((int) Math.min(Integer.MAX_VALUE, timeoutMs));
+        }
+    }
+
+    private int readByte() throws IOException {
+        try {
+            int b = in.read();
+            if (b < 0) {
+                throw new EOFException("Guest agent channel closed");
+            }
+            return b;
+        } catch (SocketTimeoutException e) {
+            synced = false; // A late reply may still arrive
+            throw e;
+        }
+    }
+
+    private String readLine() throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int b;
+        while ((b = readByte()) != '\n') {
+            if (b != SYNC_DELIMITER) {
+                line.write(b);
+            }
+        }
+        return new String(line.toByteArray(), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,153 @@
+package com.qemumanager;
+
+import java.io.IOException;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps one guest agent connection per running VM and offers the operations
+ * the manager builds on: readiness, clean shutdown, file system freeze and
+ * guest network information. A connection that fails is dropped and reopened
+ * on the next call.
+ */
+public class QemuGuestAgentManager {
+    private static QemuGuestAgentManager instance;
+
+    private static final int CONNECT_TIMEOUT_MS = 2000;
+    private static final int PING_TIMEOUT_MS = 1000;
+    private static final int COMMAND_TIMEOUT_MS = 10000;
+    private static final int FREEZE_TIMEOUT_MS = 60000;
+    private static final long PROBE_INTERVAL_MS = 1000;
+    // How long a guest gets to start its agent before running CPUs count as ready
+    private static final long AGENT_GRACE_MS = 30000;
+
+    public interface FrozenAction {
+        void run() throws IOException;
+    }
+
+    private final Map<QemuVm, QemuGuestAgentClient> clients = new IdentityHashMap<>();
+
+    private QemuGuestAgentManager() {
+    }
+
+    public static synchronized QemuGuestAgentManager getInstance() {
+        if (instance == null) {
+            instance = new QemuGuestAgentManager();
+        }
+        return instance;
+    }
+
+    /**
+     * Blocks until the agent in the guest answers guest-ping or the timeout expires.
+     * VMs without an agent channel fall back to QMP and count as ready once the
+     * emulator reports the CPUs running; so do VMs whose agent has not answered
+     * within a short grace period, as the guest may not have one installed.
+     * Returns false on timeout or if the process died.
+     */
+    public boolean waitUntilReady(QemuVm vm, long timeoutMs) throws InterruptedException {
+        long start = System.currentTimeMillis();
+        long deadline = start + timeoutMs;
+        while (System.currentTimeMillis() < deadline) {
+            ProcessHandle handle = vm.getProcessHandle();
+            if (handle == null || !handle.isAlive()) {
+                return false;
+            }
+            boolean hasAgent = vm.getGuestAgentPort() > 0;
+            if (hasAgent) {
+                try {
+                    if (getClient(vm).ping(PING_TIMEOUT_MS)) {
+                        return true;
+                    }
+                } catch (IOException e) {
+                    disconnect(vm); // Channel not up yet, retry on a fresh connection
+                }
+            }
+            if (!hasAgent || System.currentTimeMillis() - start >= AGENT_GRACE_MS) {
+                try {
+                    if (isEmulatorRunning(vm)) {
+                        return true;
+                    }
+                } catch (IOException e) {
+                    // Monitor not up yet
+                }
+            }
+            Thread.sleep(PROBE_INTERVAL_MS);
+        }
+        return false;
+    }
+
+    /**
+     * Single readiness probe, used by the health supervisor
+     */
+    public boolean ping(QemuVm vm, int timeoutMs) throws IOException {
+        try {
+            return getClient(vm).ping(timeoutMs);
+        } catch (IOException e) {
+            disconnect(vm);
+            throw e;
+        }
+    }
+
+    /**
+     * Asks the guest OS to power off; the QEMU process exits once it has
+     */
+    public void shutdown(QemuVm vm) throws IOException {
+        try {
+            getClient(vm).shutdown();
+        } finally {
+            disconnect(vm);
+        }
+    }
+
+    /**
+     * Runs the action with all guest file systems frozen, e.g. while taking a
+     * disk snapshot, and always thaws them afterwards
+     */
+    public void withFrozenFilesystems(QemuVm vm, FrozenAction action) throws IOException {
+        QemuGuestAgentClient client = getClient(vm);
+        client.freezeFilesystems(FREEZE_TIMEOUT_MS);
+        try {
+            action.run();
+        } finally {
+            client.thawFilesystems(FREEZE_TIMEOUT_MS);
+        }
+    }
+
+    public List<QemuGuestAgentClient.GuestInterface> getNetworkInterfaces(QemuVm vm) throws IOException {
+        try {
+            return getClient(vm).getNetworkInterfaces(COMMAND_TIMEOUT_MS);
+        } catch (QemuMonitorClient.QmpException e) {
+            throw e;
+        } catch (IOException e) {
+            disconnect(vm);
+            throw e;
+        }
+    }
+
+    public synchronized void disconnect(QemuVm vm) {
+        QemuGuestAgentClient client = clients.remove(vm);
+        if (client != null) {
+            client.close();
+        }
+    }
+
+    private synchronized QemuGuestAgentClient getClient(QemuVm vm) throws IOException {
+        QemuGuestAgentClient client = clients.get(vm);
+        if (client != null) {
+            return client;
+        }
+        if (vm.getGuestAgentPort() <= 0) {
+            throw new IOException("VM " + vm.getName() + " has no guest agent channel");
+        }
+        client = QemuGuestAgentClient.connect("127.0.0.1", vm.getGuestAgentPort(), CONNECT_TIMEOUT_MS);
+        clients.put(vm, client);
+        return client;
+    }
+
+    private boolean isEmulatorRunning(QemuVm vm) throws IOException {
+        Map<String, Object> status = QemuMonitorManager.getInstance().getClient(vm)
+            .executeForObject("query-status", null);
+        return QemuJson.getBoolean(status, "running", false);
+    }
+}
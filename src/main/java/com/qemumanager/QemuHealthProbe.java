@@ -0,0 +1,104 @@
+package com.qemumanager;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.Map;
+
+/**
+ * A single health check of a running VM. Probes run on the supervisor's
+ * worker threads, so they may block briefly; an IOException counts as a failure.
+ */
+public interface QemuHealthProbe {
+    int PROBE_TIMEOUT_MS = 3000;
+
+    String getName();
+
+    boolean check(QemuVm vm) throws IOException;
+
+    /**
+     * The QEMU process still exists
+     */
+    static QemuHealthProbe processAlive() {
+        return new QemuHealthProbe() {
+            @Override
+            public String getName() {
+                return "process";
+            }
+
+            @Override
+            public boolean check(QemuVm vm) {
+                ProcessHandle handle = vm.getProcessHandle();
+                return handle != null && handle.isAlive();
+            }
+        };
+    }
+
+    /**
+     * The emulator answers QMP and is not stuck in an error state
+     */
+    static QemuHealthProbe monitorResponsive() {
+        return new QemuHealthProbe() {
+            @Override
+            public String getName() {
+                return "monitor";
+            }
+
+            @Override
+            public boolean check(QemuVm vm) throws IOException {
+                Object result = QemuMonitorManager.getInstance().getClient(vm)
+                    .execute("query-status", null, PROBE_TIMEOUT_MS);
+                @SuppressWarnings("unchecked")
+                String status = result instanceof Map ? QemuJson.getString((Map<String, Object>) result, "status") : null;
+                return status != null && !"internal-error".equals(status) && !"guest-panicked".equals(status);
+            }
+        };
+    }
+
+    /**
+     * The guest agent answers a ping. Only reported as failing once the agent
+     * has answered at least once, so guests without an agent are not flagged.
+     */
+    static QemuHealthProbe guestAgentPing() {
+        return new QemuHealthProbe() {
+            private volatile boolean seen;
+
+            @Override
+            public String getName() {
+                return "guest agent";
+            }
+
+            @Override
+            public boolean check(QemuVm vm) throws IOException {
+                boolean ok;
+                try {
+                    ok = QemuGuestAgentManager.getInstance().ping(vm, PROBE_TIMEOUT_MS);
+                } catch (IOException e) {
+                    ok = false;
+                }
+                seen |= ok;
+                return ok || !seen;
+            }
+        };
+    }
+
+    /**
+     * Something accepts TCP connections on host:port, e.g. a forwarded guest service
+     */
+    static QemuHealthProbe tcpPort(String host, int port) {
+        return new QemuHealthProbe() {
+            @Override
+            public String getName() {
+                return "tcp " + host + ":" + port;
+            }
+
+            @Override
+            public boolean check(QemuVm vm) throws IOException {
+                try (Socket socket = new Socket()) {
+                    socket.connect(new InetSocketAddress(host, port), PROBE_TIMEOUT_MS);
+                    return true;
+                }
+            }
+        };
+    }
+}
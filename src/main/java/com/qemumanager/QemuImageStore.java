@@ -0,0 +1,636 @@
+package com.qemumanager;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Finds duplicate and near-duplicate disk images and moves their common
+ * content into shared base images. Images are cut into chunks, either at
+ * fixed offsets (which lines up with qcow2 clusters) or where a rolling hash
+ * of the content says so (which also finds data that moved by a few bytes),
+ * and every chunk gets a 64-bit fingerprint. Files are read through memory
+ * maps in segments that are hashed in parallel on all cores.
+ * Identical images share all fingerprints; similar ones are found through a
+ * small MinHash sketch per image, so comparing hundreds of images stays cheap.
+ * Shared bases live in the "store" directory under the disk images path, named
+ * by content, and are never written once created.
+ */
+public class QemuImageStore {
+    public static final int FIXED_CHUNK_SIZE = 64 * 1024;
+    // Content-defined chunks: cut where the gear hash has 16 low zero bits, i.e. every 64 KiB on average
+    private static final int CDC_MIN_SIZE = 16 * 1024;
+    private static final int CDC_MAX_SIZE = 256 * 1024;
+    private static final long CDC_MASK = (1L << 16) - 1;
+    // Hashed by one worker each; a multiple of both chunk sizes so fixed chunks never straddle two
+    private static final long SEGMENT_SIZE = 64L * 1024 * 1024;
+    private static final int SKETCH_SIZE = 256;
+    public static final double SIMILARITY_THRESHOLD = 0.5;
+    private static final String STORE_DIRECTORY = "store";
+    // Fingerprint of all-zero chunks, which are left out of sketches and savings
+    private static final long ZERO_HASH = 0;
+
+    private static final long PRIME1 = 0x9E3779B185EBCA87L;
+    private static final long PRIME2 = 0xC2B2AE3D27D4EB4FL;
+    private static final long PRIME3 = 0x165667B19E3779F9L;
+    private static final long PRIME4 = 0x85EBCA77C2B2AE63L;
+    private static final long[] GEAR = new long[256];
+
+    static {
+        long seed = PRIME3;
+        for (int i = 0; i < GEAR.length; i++) {
+            seed = mix(seed + PRIME1);
+            GEAR[i] = seed;
+        }
+    }
+
+    public enum Chunking {
+        FIXED("Fixed 64 KiB"),
+        CONTENT_DEFINED("Content-defined, 64 KiB average");
+
+        private final String displayName;
+
+        Chunking(String displayName) {
+            this.displayName = displayName;
+        }
+
+        @Override
+        public String toString() {
+            return displayName;
+        }
+    }
+
+    public interface Listener {
+        void progress(long doneBytes, long totalBytes);
+    }
+
+    /**
+     * Chunk fingerprints of one image, in file order
+     */
+    public static class ImageDigest {
+        private final File file;
+        private final long size;
+        private final long[] hashes;
+        private final int[] lengths;
+        private final long zeroBytes;
+        private final long fingerprint;
+        private final long[] sketch;
+
+        ImageDigest(File file, long size, long[] hashes, int[] lengths, long zeroBytes) {
+            this.file = file;
+            this.size = size;
+            this.hashes = hashes;
+            this.lengths = lengths;
+            this.zeroBytes = zeroBytes;
+            long whole = size * PRIME1;
+            for (long hash : hashes) {
+                whole = Long.rotateLeft(whole ^ hash, 27) * PRIME2 + PRIME4;
+            }
+            this.fingerprint = mix(whole);
+            this.sketch = buildSketch(hashes);
+        }
+
+        public File getFile() {
+            return file;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public int getChunkCount() {
+            return hashes.length;
+        }
+
+        /**
+         * Bytes in all-zero chunks, which are left out of the comparison
+         */
+        public long getZeroBytes() {
+            return zeroBytes;
+        }
+
+        /**
+         * Hash of the whole file; equal for byte-identical images
+         */
+        public long getFingerprint() {
+            return fingerprint;
+        }
+
+        /**
+         * Estimated share of distinct chunks the two images have in common, 0 to 1
+         */
+        public double similarity(ImageDigest other) {
+            // Bottom-k of the union, then count how many of those are in both sketches
+            int i = 0;
+            int j = 0;
+            int seen = 0;
+            int shared = 0;
+            while (seen < SKETCH_SIZE && (i < sketch.length || j < other.sketch.length)) {
+                if (j >= other.sketch.length || (i < sketch.length && Long.compareUnsigned(sketch[i], other.sketch[j]) < 0)) {
+                    i++;
+                } else if (i >= sketch.length || Long.compareUnsigned(sketch[i], other.sketch[j]) > 0) {
+                    j++;
+                } else {
+                    shared++;
+                    i++;
+                    j++;
+                }
+                seen++;
+            }
+            return seen > 0 ? (double) shared / seen : 0;
+        }
+
+        private static long[] buildSketch(long[] hashes) {
+            long[] sorted = new long[hashes.length];
+            for (int i = 0; i < hashes.length; i++) {
+                // Flip the sign bit so a signed sort orders them unsigned
+                sorted[i] = hashes[i] ^ Long.MIN_VALUE;
+            }
+            Arrays.sort(sorted);
+            long[] sketch = new long[Math.min(SKETCH_SIZE, sorted.length)];
+            int count = 0;
+            for (int i = 0; i < sorted.length && count < sketch.length; i++) {
+                if (sorted[i] != (ZERO_HASH ^ Long.MIN_VALUE) && (count == 0 || (sorted[i] ^ Long.MIN_VALUE) != sketch[count - 1])) {
+                    sketch[count++] = sorted[i] ^ Long.MIN_VALUE;
+                }
+            }
+            return Arrays.copyOf(sketch, count);
+        }
+    }
+
+    /**
+     * Images that share most of their content
+     */
+    public static class Group {
+        private final List<ImageDigest> images;
+        private final boolean identical;
+        private final double similarity;
+        private final long savingsBytes;
+
+        Group(List<ImageDigest> images, boolean identical, double similarity, long savingsBytes) {
+            this.images = images;
+            this.identical = identical;
+            this.similarity = similarity;
+            this.savingsBytes = savingsBytes;
+        }
+
+        public List<ImageDigest> getImages() {
+            return images;
+        }
+
+        public boolean isIdentical() {
+            return identical;
+        }
+
+        /**
+         * Lowest estimated similarity between an image and the first one of the group
+         */
+        public double getSimilarity() {
+            return similarity;
+        }
+
+        /**
+         * Bytes saved if the group's images kept their shared chunks only once
+         */
+        public long getSavingsBytes() {
+            return savingsBytes;
+        }
+    }
+
+    public static class Report {
+        private final List<ImageDigest> images;
+        private final List<Group> groups;
+        private final long totalBytes;
+        private final long zeroBytes;
+        private final long uniqueBytes;
+        private final long durationMs;
+        private final Chunking chunking;
+
+        Report(List<ImageDigest> images, List<Group> groups, long totalBytes, long zeroBytes, long uniqueBytes,
+               long durationMs, Chunking chunking) {
+            this.images = images;
+            this.groups = groups;
+            this.totalBytes = totalBytes;
+            this.zeroBytes = zeroBytes;
+            this.uniqueBytes = uniqueBytes;
+            this.durationMs = durationMs;
+            this.chunking = chunking;
+        }
+
+        public List<ImageDigest> getImages() {
+            return images;
+        }
+
+        public List<Group> getGroups() {
+            return groups;
+        }
+
+        public long getTotalBytes() {
+            return totalBytes;
+        }
+
+        public long getZeroBytes() {
+            return zeroBytes;
+        }
+
+        /**
+         * Bytes left if every distinct non-zero chunk across all images were stored once
+         */
+        public long getUniqueBytes() {
+            return uniqueBytes;
+        }
+
+        public long getSavingsBytes() {
+            return totalBytes - zeroBytes - uniqueBytes;
+        }
+
+        public long getDurationMs() {
+            return durationMs;
+        }
+
+        public double getThroughputMBps() {
+            return durationMs > 0 ? totalBytes / (1024.0 * 1024.0) * 1000.0 / durationMs : 0;
+        }
+
+        public Chunking getChunking() {
+            return chunking;
+        }
+    }
+
+    private final Chunking chunking;
+    private final int threads;
+
+    public QemuImageStore(Chunking chunking) {
+        this(chunking, Runtime.getRuntime().availableProcessors());
+    }
+
+    public QemuImageStore(Chunking chunking, int threads) {
+        this.chunking = chunking;
+        this.threads = Math.max(1, threads);
+    }
+
+    public static File getStoreDirectory() {
+        return new File(QemuSettings.getInstance().getQemuManagerDisksPath(), STORE_DIRECTORY);
+    }
+
+    /**
+     * Hashes the images and groups those that are identical or similar
+     */
+    public Report analyze(List<File> files, Listener listener) throws IOException {
+        long startTime = System.currentTimeMillis();
+        List<ImageDigest> images = digest(files, listener);
+
+        long totalBytes = 0;
+        long zeroBytes = 0;
+        long chunkCount = 0;
+        for (ImageDigest image : images) {
+            totalBytes += image.getSize();
+            zeroBytes += image.getZeroBytes();
+            chunkCount += image.getChunkCount();
+        }
+        ChunkSet distinct = new ChunkSet(chunkCount);
+        for (ImageDigest image : images) {
+            distinct.addAll(image);
+        }
+
+        List<Group> groups = findGroups(images);
+        return new Report(images, groups, totalBytes, zeroBytes, distinct.getBytes(),
+            System.currentTimeMillis() - startTime, chunking);
+    }
+
+    /**
+     * Hashes every file, all segments of all files sharing one pool of workers
+     */
+    public List<ImageDigest> digest(List<File> files, Listener listener) throws IOException {
+        long totalBytes = 0;
+        for (File file : files) {
+            totalBytes += file.length();
+        }
+        long total = totalBytes;
+        AtomicLong done = new AtomicLong();
+
+        ExecutorService pool = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "Image hashing");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            List<List<Future<Segment>>> perFile = new ArrayList<>();
+            for (File file : files) {
+                List<Future<Segment>> segments = new ArrayList<>();
+                long size = file.length();
+                for (long offset = 0; offset < size; offset += SEGMENT_SIZE) {
+                    long start = offset;
+                    long length = Math.min(SEGMENT_SIZE, size - offset);
+                    segments.add(pool.submit(() -> {
+                        Segment segment = hashSegment(file, start, length);
+                        long now = done.addAndGet(length);
+                        if (listener != null) {
+                            listener.progress(now, total);
+                        }
+                        return segment;
+                    }));
+                }
+                perFile.add(segments);
+            }
+
+            List<ImageDigest> images = new ArrayList<>();
+            for (int i = 0; i < files.size(); i++) {
+                images.add(combine(files.get(i), perFile.get(i)));
+            }
+            return images;
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private static ImageDigest combine(File file, List<Future<Segment>> futures) throws IOException {
+        List<Segment> segments = new ArrayList<>();
+        int count = 0;
+        try {
+            for (Future<Segment> future : futures) {
+                Segment segment = future.get();
+                segments.add(segment);
+                count += segment.count;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Hashing interrupted");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("Failed to hash " + file + ": " + e.getCause(), e.getCause());
+        }
+        long[] hashes = new long[count];
+        int[] lengths = new int[count];
+        long zeroBytes = 0;
+        int position = 0;
+        for (Segment segment : segments) {
+            System.arraycopy(segment.hashes, 0, hashes, position, segment.count);
+            System.arraycopy(segment.lengths, 0, lengths, position, segment.count);
+            position += segment.count;
+            zeroBytes += segment.zeroBytes;
+        }
+        return new ImageDigest(file, file.length(), hashes, lengths, zeroBytes);
+    }
+
+    private static class Segment {
+        long[] hashes = new long[64];
+        int[] lengths = new int[64];
+        int count;
+        long zeroBytes;
+
+        void add(long hash, int length) {
+            if (count == hashes.length) {
+                hashes = Arrays.copyOf(hashes, count * 2);
+                lengths = Arrays.copyOf(lengths, count * 2);
+            }
+            hashes[count] = hash;
+            lengths[count] = length;
+            count++;
+            if (hash == ZERO_HASH) {
+                zeroBytes += length;
+            }
+        }
+    }
+
+    private Segment hashSegment(File file, long offset, long length) throws IOException {
+        Segment segment = new Segment();
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, offset, length);
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            int size = (int) length;
+            if (chunking == Chunking.FIXED) {
+                for (int start = 0; start < size; start += FIXED_CHUNK_SIZE) {
+                    int chunkLength = Math.min(FIXED_CHUNK_SIZE, size - start);
+                    segment.add(hashChunk(buffer, start, chunkLength), chunkLength);
+                }
+            } else {
+                int start = 0;
+                while (start < size) {
+                    int end = findBoundary(buffer, start, size);
+                    segment.add(hashChunk(buffer, start, end - start), end - start);
+                    start = end;
+                }
+            }
+        }
+        return segment;
+    }
+
+    /**
+     * Returns the end of the content-defined chunk starting at start. The gear hash only
+     * depends on the last 64 bytes, so a boundary survives inserts and deletes before it.
+     */
+    private static int findBoundary(MappedByteBuffer buffer, int start, int limit) {
+        int minEnd = start + CDC_MIN_SIZE;
+        int maxEnd = Math.min(start + CDC_MAX_SIZE, limit);
+        if (minEnd >= maxEnd) {
+            return maxEnd;
+        }
+        long hash = 0;
+        for (int i = minEnd - 64; i < minEnd; i++) {
+            hash = (hash << 1) + GEAR[buffer.get(i) & 0xFF];
+        }
+        for (int i = minEnd; i < maxEnd; i++) {
+            hash = (hash << 1) + GEAR[buffer.get(i) & 0xFF];
+            if ((hash & CDC_MASK) == 0) {
+                return i + 1;
+            }
+        }
+        return maxEnd;
+    }
+
+    /**
+     * 64-bit fingerprint of the bytes, ZERO_HASH if they are all zero
+     */
+    static long hashChunk(MappedByteBuffer buffer, int start, int length) {
+        long hash = PRIME4 + length * PRIME1;
+        long bits = 0;
+        int i = start;
+        int wordsEnd = start + (length & ~7);
+        for (; i < wordsEnd; i += 8) {
+            long word = buffer.getLong(i);
+            bits |= word;
+            hash ^= Long.rotateLeft(word * PRIME2, 31) * PRIME1;
+            hash = Long.rotateLeft(hash, 27) * PRIME1 + PRIME4;
+        }
+        for (int end = start + length; i < end; i++) {
+            int value = buffer.get(i) & 0xFF;
+            bits |= value;
+            hash ^= value * PRIME4;
+            hash = Long.rotateLeft(hash, 11) * PRIME1;
+        }
+        if (bits == 0) {
+            return ZERO_HASH;
+        }
+        hash = mix(hash);
+        return hash != ZERO_HASH ? hash : 1;
+    }
+
+    private static long mix(long hash) {
+        hash ^= hash >>> 33;
+        hash *= PRIME2;
+        hash ^= hash >>> 29;
+        hash *= PRIME3;
+        hash ^= hash >>> 32;
+        return hash;
+    }
+
+    /**
+     * Groups images whose sketches say they are at least SIMILARITY_THRESHOLD alike
+     */
+    private static List<Group> findGroups(List<ImageDigest> images) {
+        int[] parent = new int[images.size()];
+        for (int i = 0; i < parent.length; i++) {
+            parent[i] = i;
+        }
+        for (int i = 0; i < images.size(); i++) {
+            for (int j = i + 1; j < images.size(); j++) {
+                ImageDigest a = images.get(i);
+                ImageDigest b = images.get(j);
+                boolean identical = a.getSize() == b.getSize() && a.getFingerprint() == b.getFingerprint();
+                if (identical || a.similarity(b) >= SIMILARITY_THRESHOLD) {
+                    parent[find(parent, i)] = find(parent, j);
+                }
+            }
+        }
+
+        Map<Integer, List<ImageDigest>> members = new LinkedHashMap<>();
+        for (int i = 0; i < images.size(); i++) {
+            members.computeIfAbsent(find(parent, i), k -> new ArrayList<>()).add(images.get(i));
+        }
+        List<Group> groups = new ArrayList<>();
+        for (List<ImageDigest> group : members.values()) {
+            if (group.size() < 2) {
+                continue;
+            }
+            ImageDigest first = group.get(0);
+            boolean identical = true;
+            double similarity = 1.0;
+            long nonZeroBytes = 0;
+            long chunkCount = 0;
+            for (ImageDigest image : group) {
+                identical &= image.getSize() == first.getSize() && image.getFingerprint() == first.getFingerprint();
+                if (image != first) {
+                    similarity = Math.min(similarity, first.similarity(image));
+                }
+                nonZeroBytes += image.getSize() - image.getZeroBytes();
+                chunkCount += image.getChunkCount();
+            }
+            ChunkSet distinct = new ChunkSet(chunkCount);
+            for (ImageDigest image : group) {
+                distinct.addAll(image);
+            }
+            groups.add(new Group(group, identical, identical ? 1.0 : similarity, nonZeroBytes - distinct.getBytes()));
+        }
+        groups.sort((a, b) -> Long.compare(b.getSavingsBytes(), a.getSavingsBytes()));
+        return groups;
+    }
+
+    private static int find(int[] parent, int i) {
+        while (parent[i] != i) {
+            parent[i] = parent[parent[i]];
+            i = parent[i];
+        }
+        return i;
+    }
+
+    /**
+     * Open-addressing set of chunk fingerprints that sums the length of each distinct one
+     */
+    private static class ChunkSet {
+        private final long[] keys;
+        private final int mask;
+        private long bytes;
+
+        ChunkSet(long expected) {
+            int capacity = Integer.highestOneBit((int) Math.min(1 << 30, Math.max(16, expected * 2)) - 1) << 1;
+            keys = new long[capacity];
+            mask = capacity - 1;
+        }
+
+        void addAll(ImageDigest image) {
+            for (int i = 0; i < image.hashes.length; i++) {
+                long hash = image.hashes[i];
+                if (hash == ZERO_HASH) {
+                    continue; // Also the empty slot marker
+                }
+                int slot = (int) mix(hash) & mask;
+                while (keys[slot] != 0 && keys[slot] != hash) {
+                    slot = (slot + 1) & mask;
+                }
+                if (keys[slot] == 0) {
+                    keys[slot] = hash;
+                    bytes += image.lengths[i];
+                }
+            }
+        }
+
+        long getBytes() {
+            return bytes;
+        }
+    }
+
+    /**
+     * Copies the image into the store as a read-only shared base named by its content,
+     * or returns the existing copy
+     */
+    public static File storeBase(ImageDigest image) throws IOException {
+        File directory = getStoreDirectory();
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create " + directory);
+        }
+        File base = new File(directory, String.format("%016x-%d.qcow2", image.getFingerprint(), image.getSize()));
+        if (base.isFile()) {
+            return base;
+        }
+        File temp = new File(directory, "." + base.getName() + ".tmp");
+        try {
+            QemuImageTool.run("convert", "-O", "qcow2", image.getFile().getPath(), temp.getPath());
+            Files.move(temp.toPath(), base.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            temp.delete();
+        }
+        base.setReadOnly();
+        return base;
+    }
+
+    /**
+     * Rewrites a stopped qcow2 image as an overlay on the base that holds only the clusters
+     * that differ, and checks the guest sees the same content before replacing the file.
+     * Returns the bytes freed.
+     */
+    public static long rebase(File image, File base) throws IOException {
+        Map<String, Object> info = QemuImageTool.info(image.getPath());
+        if (!"qcow2".equals(QemuJson.getString(info, "format"))) {
+            throw new IOException(image.getName() + " is not a qcow2 image");
+        }
+        if (QemuJson.getString(info, "backing-filename") != null) {
+            throw new IOException(image.getName() + " already has a backing file");
+        }
+        File temp = new File(image.getParentFile(), "." + image.getName() + ".rebase");
+        long before = image.length();
+        try {
+            QemuImageTool.run("convert", "-O", "qcow2", "-B", base.getAbsolutePath(), "-F", "qcow2",
+                image.getPath(), temp.getPath());
+            QemuImageTool.run("compare", "-f", "qcow2", "-F", "qcow2", image.getPath(), temp.getPath());
+            Files.move(temp.toPath(), image.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            temp.delete();
+        }
+        return before - image.length();
+    }
+}
@@ -0,0 +1,150 @@
+package com.qemumanager;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Runs qemu-img for the operations the manager performs on image files
+ * outside a running QEMU (creating, converting, inspecting). The binary is
+ * looked up next to the configured QEMU executable first, so both come from
+ * the same installation, then on the PATH.
+ */
+public class QemuImageTool {
+
+    private static final String[] IONICE_PATHS = {"/usr/bin/ionice", "/bin/ionice"};
+
+    private QemuImageTool() {
+    }
+
+    public static String getPath() {
+        File qemu = new File(QemuSettings.getInstance().getQemuPath());
+        String name = qemu.getName().endsWith(".exe") ? "qemu-img.exe" : "qemu-img";
+        File sibling = new File(qemu.getAbsoluteFile().getParentFile(), name);
+        if (qemu.isAbsolute() && sibling.canExecute()) {
+            return sibling.getPath();
+        }
+        return name;
+    }
+
+    /**
+     * Exit status and output of one qemu-img run
+     */
+    public static class Result {
+        private final int exitCode;
+        private final String output;
+        private final String errors;
+
+        Result(int exitCode, String output, String errors) {
+            this.exitCode = exitCode;
+            this.output = output;
+            this.errors = errors;
+        }
+
+        public int getExitCode() {
+            return exitCode;
+        }
+
+        public String getOutput() {
+            return output;
+        }
+
+        public String getErrors() {
+            return errors;
+        }
+    }
+
+    /**
+     * Runs qemu-img with the given arguments and returns its standard output.
+     * Fails with the tool's error output if it exits with a non-zero status.
+     */
+    public static String run(String... args) throws IOException {
+        Result result = execute(false, args);
+        if (result.getExitCode() != 0) {
+            throw new IOException("qemu-img " + args[0] + " failed (exit code " + result.getExitCode() + ")"
+                + (result.getErrors().isEmpty() ? "" : ": " + result.getErrors()));
+        }
+        return result.getOutput();
+    }
+
+    /**
+     * Runs qemu-img and returns its exit status and output, for subcommands whose exit
+     * status carries a result. In the background the process gets the lowest CPU and
+     * I/O priority available: the manager's maintenance cgroup if cgroups are in use,
+     * else the idle I/O class of ionice.
+     */
+    public static Result execute(boolean background, String... args) throws IOException {
+        List<String> command = new ArrayList<>();
+        command.add(getPath());
+        command.addAll(Arrays.asList(args));
+        if (background) {
+            command = lowerPriority(command);
+        }
+        ProcessBuilder pb = new ProcessBuilder(command);
+        pb.redirectErrorStream(false);
+        Process process = pb.start();
+        process.getOutputStream().close();
+
+        // Drain stderr on its own thread so a chatty tool cannot block on a full pipe
+        ByteArrayOutputStream errors = new ByteArrayOutputStream();
+        Thread errorReader = new Thread(() -> {
+            try (InputStream in = process.getErrorStream()) {
+                in.transferTo(errors);
+            } catch (IOException e) {
+                // Process went away; the exit status tells what happened
+            }
+        }, "qemu-img stderr");
+        errorReader.setDaemon(true);
+        errorReader.start();
+
+        String output;
+        try (InputStream in = process.getInputStream()) {
+            output = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+        int exitCode;
+        try {
+            exitCode = process.waitFor();
+            errorReader.join();
+        } catch (InterruptedException e) {
+            process.destroyForcibly();
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("qemu-img " + args[0] + " interrupted");
+        }
+        return new Result(exitCode, output, new String(errors.toByteArray(), StandardCharsets.UTF_8).trim());
+    }
+
+    private static List<String> lowerPriority(List<String> command) {
+        QemuCgroupManager cgroups = QemuCgroupManager.getInstance();
+        if (QemuSettings.getInstance().isCgroupEnabled() && cgroups.isAvailable()) {
+            try {
+                return new ArrayList<>(Arrays.asList(QemuCgroupManager.wrapCommand(
+                    command.toArray(new String[0]), cgroups.prepareMaintenance())));
+            } catch (IOException e) {
+                System.err.println("Maintenance cgroup unavailable, using ionice: " + e.getMessage());
+            }
+        }
+        for (String ionice : IONICE_PATHS) {
+            if (new File(ionice).canExecute()) {
+                List<String> wrapped = new ArrayList<>(Arrays.asList(ionice, "-c", "3", "nice", "-n", "19"));
+                wrapped.addAll(command);
+                return wrapped;
+            }
+        }
+        return command;
+    }
+
+    /**
+     * Returns the output of "qemu-img info" for the image, without following its backing chain
+     */
+    public static Map<String, Object> info(String path) throws IOException {
+        String output = run("info", "--output=json", path);
+        try {
+            return QemuJson.parseObject(output);
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Unexpected qemu-img info output for " + path + ": " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,277 @@
+package com.qemumanager;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.text.SimpleDateFormat;
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Appends a byte stream to a log file in a directory without blocking the
+ * producer. Data is queued and written in batches on a shared writer thread.
+ * The active segment ("&lt;name&gt;.log") is rotated when it reaches the size
+ * limit or age limit; rotated segments are gzipped in the background and only
+ * the newest few are kept. If the writer falls behind, data is dropped (and
+ * the gap noted in the log) instead of growing the heap. An optional
+ * {@link QemuLogIndex} is fed every written byte and told about rotations.
+ */
+public class QemuLogAppender implements Closeable {
+    private static final int BATCH_BYTES = 64 * 1024;
+    private static final long MAX_QUEUED_BYTES = 4L * 1024 * 1024;
+
+    private static final ExecutorService WRITER = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "Log writer");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private static final ExecutorService COMPRESSOR = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "Log compressor");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        return thread;
+    });
+
+    private final File directory;
+    private final String name;
+    private final long rotateBytes;
+    private final long rotateMs;
+    private final int keepSegments;
+    private final QemuLogIndex index;
+
+    private final ConcurrentLinkedQueue<byte[]> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicLong queuedBytes = new AtomicLong();
+    private final AtomicLong droppedBytes = new AtomicLong();
+    private final AtomicBoolean drainScheduled = new AtomicBoolean();
+    private final ByteBuffer batch = ByteBuffer.allocate(BATCH_BYTES);
+
+    // Touched only on the writer thread
+    private FileChannel channel;
+    private long segmentStartMs;
+    private long lastRotationMs;
+    private boolean closed;
+
+    public QemuLogAppender(File directory, String name, long rotateBytes, long rotateMs, int keepSegments) {
+        this(directory, name, rotateBytes, rotateMs, keepSegments, null);
+    }
+
+    public QemuLogAppender(File directory, String name, long rotateBytes, long rotateMs, int keepSegments,
+                           QemuLogIndex index) {
+        this.directory = directory;
+        this.name = name;
+        this.rotateBytes = rotateBytes;
+        this.rotateMs = rotateMs;
+        this.keepSegments = keepSegments;
+        this.index = index;
+        // Finish compressing segments left over from a previous session
+        File[] leftovers = directory.listFiles((dir, file) -> file.startsWith(name + "-") && file.endsWith(".log"));
+        if (leftovers != null) {
+            for (File segment : leftovers) {
+                COMPRESSOR.execute(() -> compress(segment));
+            }
+        }
+    }
+
+    /**
+     * Creates an appender with the serial log limits from the settings, indexed for search
+     */
+    public static QemuLogAppender fromSettings(File directory, String name) {
+        QemuSettings settings = QemuSettings.getInstance();
+        QemuLogIndex index = null;
+        try {
+            index = QemuLogIndex.open(directory, name);
+        } catch (IOException e) {
+            System.err.println("Log " + name + " in " + directory + " will not be searchable: " + e.getMessage());
+        }
+        return new QemuLogAppender(directory, name,
+            Math.max(1, settings.getSerialLogRotateSizeMB()) * 1024L * 1024L,
+            Math.max(1, settings.getSerialLogRotateHours()) * 3600000L,
+            Math.max(0, settings.getSerialLogKeep()),
+            index);
+    }
+
+    public File getActiveFile() {
+        return new File(directory, name + ".log");
+    }
+
+    /**
+     * Queues a copy of the bytes; never blocks
+     */
+    public void append(byte[] data, int offset, int length) {
+        if (length <= 0) {
+            return;
+        }
+        if (queuedBytes.addAndGet(length) > MAX_QUEUED_BYTES) {
+            queuedBytes.addAndGet(-length);
+            droppedBytes.addAndGet(length);
+            return;
+        }
+        queue.add(Arrays.copyOfRange(data, offset, offset + length));
+        if (drainScheduled.compareAndSet(false, true)) {
+            WRITER.execute(this::drain);
+        }
+    }
+
+    /**
+     * Writes what is queued, then closes the active segment
+     */
+    @Override
+    public void close() {
+        WRITER.execute(() -> {
+            drain();
+            closed = true;
+            closeChannel();
+            if (index != null) {
+                index.flush();
+            }
+        });
+    }
+
+    private void drain() {
+        drainScheduled.set(false);
+        if (closed) {
+            queue.clear();
+            return;
+        }
+        try {
+            long dropped = droppedBytes.getAndSet(0);
+            if (dropped > 0) {
+                write(("\n[" + dropped + " bytes dropped, log writer fell behind]\n").getBytes(StandardCharsets.UTF_8));
+            }
+            byte[] chunk;
+            while ((chunk = queue.poll()) != null) {
+                queuedBytes.addAndGet(-chunk.length);
+                write(chunk);
+            }
+            flushBatch();
+        } catch (IOException e) {
+            System.err.println("Failed to write log " + getActiveFile() + ": " + e.getMessage());
+            closeChannel(); // Reopened on the next write
+        }
+    }
+
+    private void write(byte[] chunk) throws IOException {
+        int offset = 0;
+        while (offset < chunk.length) {
+            int n = Math.min(batch.remaining(), chunk.length - offset);
+            batch.put(chunk, offset, n);
+            offset += n;
+            if (!batch.hasRemaining()) {
+                flushBatch();
+            }
+        }
+    }
+
+    private void flushBatch() throws IOException {
+        if (batch.position() == 0) {
+            return;
+        }
+        FileChannel active = openChannel();
+        if (active.size() > 0 && (active.size() >= rotateBytes || System.currentTimeMillis() - segmentStartMs >= rotateMs)) {
+            rotate();
+            active = openChannel();
+        }
+        batch.flip();
+        while (batch.hasRemaining()) {
+            active.write(batch);
+        }
+        if (index != null) {
+            index.bytesWritten(batch.array(), 0, batch.limit(), System.currentTimeMillis());
+        }
+        batch.clear();
+    }
+
+    private FileChannel openChannel() throws IOException {
+        if (channel == null) {
+            Files.createDirectories(directory.toPath());
+            Path path = getActiveFile().toPath();
+            channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+            // A segment continued from an earlier session keeps its original age
+            segmentStartMs = channel.size() > 0
+                ? Files.readAttributes(path, BasicFileAttributes.class).creationTime().toMillis()
+                : System.currentTimeMillis();
+            if (index != null) {
+                index.segmentOpened(channel.size());
+            }
+        }
+        return channel;
+    }
+
+    private void closeChannel() {
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                // Nothing left to do with it
+            }
+            channel = null;
+        }
+    }
+
+    private void rotate() throws IOException {
+        closeChannel();
+        // Strictly increasing timestamps, so names sort chronologically
+        lastRotationMs = Math.max(System.currentTimeMillis(), lastRotationMs + 1);
+        String stamp = new SimpleDateFormat("yyyyMMdd-HHmmss-SSS").format(new Date(lastRotationMs));
+        File rotated = new File(directory, name + "-" + stamp + ".log");
+        Files.move(getActiveFile().toPath(), rotated.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        if (index != null) {
+            index.segmentRotated(rotated.getName());
+        }
+        File segment = rotated;
+        COMPRESSOR.execute(() -> compress(segment));
+    }
+
+    private void compress(File segment) {
+        if (!segment.exists()) {
+            return; // Already handled by an earlier appender of the same log
+        }
+        File target = new File(segment.getPath() + ".gz");
+        File partial = new File(segment.getPath() + ".gz.tmp");
+        try (InputStream in = new FileInputStream(segment);
+             OutputStream out = new GZIPOutputStream(new FileOutputStream(partial), BATCH_BYTES)) {
+            byte[] buffer = new byte[BATCH_BYTES];
+            int n;
+            while ((n = in.read(buffer)) > 0) {
+                out.write(buffer, 0, n);
+            }
+        } catch (IOException e) {
+            System.err.println("Failed to compress " + segment + ": " + e.getMessage());
+            partial.delete();
+            return;
+        }
+        if (partial.renameTo(target)) {
+            segment.delete();
+        }
+        prune();
+    }
+
+    /**
+     * Deletes the oldest compressed segments beyond the limit
+     */
+    private void prune() {
+        File[] segments = directory.listFiles((dir, file) -> file.startsWith(name + "-") && file.endsWith(".log.gz"));
+        if (segments == null || segments.length <= keepSegments) {
+            return;
+        }
+        Arrays.sort(segments, Comparator.comparing(File::getName));
+        List<String> deleted = new ArrayList<>();
+        for (int i = 0; i < segments.length - keepSegments; i++) {
+            if (segments[i].delete()) {
+                String segmentName = segments[i].getName();
+                deleted.add(segmentName.substring(0, segmentName.length() - ".gz".length()));
+            }
+        }
+        if (index != null && !deleted.isEmpty()) {
+            index.segmentsDeleted(deleted);
+        }
+    }
+}
@@ -0,0 +1,1081 @@
+package com.qemumanager;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * On-disk inverted index over the segments of one rotating log (see
+ * {@link QemuLogAppender}). Lines are tokenised as they are written; each
+ * token maps to the lines containing it. New postings collect in a bounded
+ * in-memory chunk that is written out as an immutable, memory-mapped chunk
+ * file when full or when the log closes. Lines themselves are not copied,
+ * nor is every line's position: the index keeps a sparse checkpoint (segment,
+ * offset and time) every few KB of log, and a hit is found by reading the
+ * segment from its checkpoint and counting lines. Line times are those of
+ * their checkpoint, which is renewed at least every second.
+ *
+ * Tokens are runs of ASCII letters, digits and underscores, case-insensitive.
+ * Long numbers (timestamps, counters) are not indexed since nearly every one
+ * is unique; queries for them fall back to checking the candidate lines.
+ * Queries are ANDed terms and quoted phrases, optionally limited to a time range.
+ */
+public class QemuLogIndex implements Closeable {
+    private static final int MAGIC = 0x514c4958; // "QLIX"
+    private static final int VERSION = 2;
+    private static final int HEADER_BYTES = 64;
+    private static final int CHECKPOINT_ENTRY_BYTES = 24; // first line, time, segment, offset
+    private static final int TERM_ENTRY_BYTES = 12; // term bytes offset, postings offset, postings count
+
+    private static final int MAX_TOKEN_LENGTH = 64;
+    private static final int MAX_NUMBER_LENGTH = 6;
+    private static final int MAX_LINE_BYTES = 4096; // Longer lines are indexed in pieces
+    private static final int MAX_CHUNK_LINES = 1 << 16;
+    private static final int MAX_CHUNK_POSTINGS = 1 << 20;
+    private static final int MAX_CHUNK_TERMS = 1 << 17;
+    private static final int VERIFY_BATCH = 256;
+    // Bounds how far a hit is read past its checkpoint, and how far line times may lag
+    private static final int CHECKPOINT_BYTES = 16 * 1024;
+    private static final long CHECKPOINT_MS = 1000;
+
+    private static final Map<File, QemuLogIndex> OPEN = new HashMap<>();
+
+    /**
+     * A matching log line
+     */
+    public static class Hit {
+        private final String source;
+        private final long timeMs;
+        private final String line;
+
+        public Hit(String source, long timeMs, String line) {
+            this.source = source;
+            this.timeMs = timeMs;
+            this.line = line;
+        }
+
+        /**
+         * Name of the log directory the line came from, i.e. the VM
+         */
+        public String getSource() {
+            return source;
+        }
+
+        public long getTimeMs() {
+            return timeMs;
+        }
+
+        public String getLine() {
+            return line;
+        }
+    }
+
+    /**
+     * A parsed query: every token must occur in the line, every phrase in order
+     */
+    public static class Query {
+        private final List<byte[]> tokens = new ArrayList<>();
+        private final List<List<String>> phrases = new ArrayList<>();
+
+        public static Query parse(String text) {
+            Query query = new Query();
+            Set<String> seen = new HashSet<>();
+            boolean inPhrase = false;
+            for (String part : text.split("\"", -1)) {
+                List<String> partTokens = tokenize(part);
+                for (String token : partTokens) {
+                    if (!isIndexed(token)) {
+                        query.phrases.add(Collections.singletonList(token));
+                    } else if (seen.add(token)) {
+                        query.tokens.add(token.getBytes(StandardCharsets.ISO_8859_1));
+                    }
+                }
+                if (inPhrase && partTokens.size() > 1) {
+                    query.phrases.add(partTokens);
+                }
+                inPhrase = !inPhrase;
+            }
+            return query;
+        }
+
+        public boolean isEmpty() {
+            return tokens.isEmpty();
+        }
+
+        /**
+         * Whether a line found through the index also has the phrases and unindexed words
+         */
+        boolean matches(String line) {
+            if (phrases.isEmpty()) {
+                return true;
+            }
+            List<String> lineTokens = tokenize(line);
+            for (List<String> phrase : phrases) {
+                if (Collections.indexOfSubList(lineTokens, phrase) < 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    private final File logDirectory;
+    private final String logName;
+    private final File indexDirectory;
+    private final List<Chunk> chunks = new ArrayList<>();
+    private final TreeMap<Integer, String> segments = new TreeMap<>(); // ordinal -> segment file name
+    private int nextChunkNumber;
+    private int activeSegment;
+    private MemoryChunk memory = new MemoryChunk();
+
+    // Line assembly for bytes arriving from the appender
+    private final byte[] lineBuffer = new byte[MAX_LINE_BYTES];
+    private int lineLength;
+    private long lineStartOffset;
+    // Whether the line being assembled starts where reading the previous one would end
+    private boolean lineFollows;
+    private long segmentOffset;
+    private final byte[] tokenBuffer = new byte[MAX_TOKEN_LENGTH];
+
+    private QemuLogIndex(File logDirectory, String logName) throws IOException {
+        this.logDirectory = logDirectory;
+        this.logName = logName;
+        this.indexDirectory = new File(logDirectory, logName + ".index");
+        loadSegments();
+        File[] files = indexDirectory.listFiles((dir, file) -> file.startsWith("chunk-") && file.endsWith(".idx"));
+        if (files != null) {
+            Arrays.sort(files, Comparator.comparing(File::getName));
+            for (File file : files) {
+                try {
+                    chunks.add(new Chunk(file));
+                    nextChunkNumber = Math.max(nextChunkNumber, chunkNumber(file) + 1);
+                } catch (IOException e) {
+                    System.err.println("Dropping unreadable log index chunk " + file + ": " + e.getMessage());
+                    file.delete();
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the shared index of the log with the given name in the directory
+     */
+    public static synchronized QemuLogIndex open(File logDirectory, String logName) throws IOException {
+        File key = new File(logDirectory, logName).getAbsoluteFile();
+        QemuLogIndex index = OPEN.get(key);
+        if (index == null) {
+            index = new QemuLogIndex(logDirectory, logName);
+            OPEN.put(key, index);
+        }
+        return index;
+    }
+
+    /**
+     * Searches the logs of every VM under the logs directory, newest hits first
+     */
+    public static List<Hit> searchAll(File logsRoot, String queryText, long fromMs, long toMs, int limit) {
+        Query query = Query.parse(queryText);
+        List<Hit> hits = new ArrayList<>();
+        File[] directories = logsRoot.listFiles(File::isDirectory);
+        if (query.isEmpty() || directories == null) {
+            return hits;
+        }
+        for (File directory : directories) {
+            if (!new File(directory, "serial.index").isDirectory()) {
+                continue;
+            }
+            try {
+                hits.addAll(open(directory, "serial").search(query, fromMs, toMs, limit));
+            } catch (IOException e) {
+                System.err.println("Skipping log index of " + directory.getName() + ": " + e.getMessage());
+            }
+        }
+        hits.sort(Comparator.comparingLong(Hit::getTimeMs).reversed());
+        return hits.size() > limit ? new ArrayList<>(hits.subList(0, limit)) : hits;
+    }
+
+    // --- Indexing, called on the appender's writer thread ---
+
+    /**
+     * The appender opened the active segment, which already holds size bytes.
+     * Indexes anything in it that the index has not seen, e.g. after a crash.
+     */
+    public synchronized void segmentOpened(long size) {
+        long indexedUpTo = 0;
+        Chunk last = chunks.isEmpty() ? null : chunks.get(chunks.size() - 1);
+        if (memory.lineCount > 0) {
+            indexedUpTo = memory.endSegment == activeSegment ? memory.endOffset : 0;
+        } else if (last != null && last.endSegment == activeSegment) {
+            indexedUpTo = last.endOffset;
+        }
+        if (size < indexedUpTo) {
+            // Replaced behind our back, e.g. rotated just before a crash: treat it as a new segment
+            segments.remove(activeSegment);
+            activeSegment++;
+            segments.put(activeSegment, logName + ".log");
+            saveSegments();
+            indexedUpTo = 0;
+        }
+        segmentOffset = indexedUpTo;
+        lineStartOffset = indexedUpTo;
+        lineLength = 0;
+        lineFollows = false;
+        if (size == indexedUpTo) {
+            return;
+        }
+        File active = new File(logDirectory, segments.get(activeSegment));
+        long timeMs = active.lastModified();
+        try (InputStream in = new BufferedInputStream(new FileInputStream(active))) {
+            skipFully(in, indexedUpTo);
+            byte[] buffer = new byte[65536];
+            long remaining = size - indexedUpTo;
+            int n;
+            while (remaining > 0 && (n = in.read(buffer, 0, (int) Math.min(buffer.length, remaining))) > 0) {
+                bytesWritten(buffer, 0, n, timeMs);
+                remaining -= n;
+            }
+        } catch (IOException e) {
+            System.err.println("Could not catch up log index for " + active + ": " + e.getMessage());
+            segmentOffset = size;
+            lineStartOffset = size;
+            lineLength = 0;
+            lineFollows = false;
+        }
+    }
+
+    /**
+     * Bytes were appended to the active segment at the current end
+     */
+    public synchronized void bytesWritten(byte[] data, int offset, int length, long timeMs) {
+        for (int i = offset; i < offset + length; i++) {
+            byte b = data[i];
+            if (b == '\n') {
+                endLine(timeMs, segmentOffset + (i - offset) + 1, true);
+            } else if (lineLength == MAX_LINE_BYTES) {
+                endLine(timeMs, segmentOffset + (i - offset), true);
+                lineBuffer[lineLength++] = b;
+            } else {
+                lineBuffer[lineLength++] = b;
+            }
+        }
+        segmentOffset += length;
+    }
+
+    /**
+     * The active segment was renamed to the given file name; a new one starts empty
+     */
+    public synchronized void segmentRotated(String rotatedName) {
+        if (lineLength > 0) {
+            endLine(System.currentTimeMillis(), segmentOffset, false);
+        }
+        lineFollows = false;
+        segments.put(activeSegment, rotatedName);
+        activeSegment++;
+        segments.put(activeSegment, logName + ".log");
+        segmentOffset = 0;
+        lineStartOffset = 0;
+        saveSegments();
+    }
+
+    /**
+     * Rotated segments were deleted; drops chunks that only cover deleted segments
+     */
+    public synchronized void segmentsDeleted(Collection<String> names) {
+        segments.values().removeAll(names);
+        int firstLive = segments.isEmpty() ? activeSegment : segments.firstKey();
+        Iterator<Chunk> it = chunks.iterator();
+        while (it.hasNext()) {
+            Chunk chunk = it.next();
+            if (chunk.maxSegment < firstLive) {
+                it.remove();
+                chunk.file.delete();
+            }
+        }
+        saveSegments();
+    }
+
+    /**
+     * Writes the in-memory chunk out
+     */
+    public synchronized void flush() {
+        if (lineLength > 0) {
+            endLine(System.currentTimeMillis(), segmentOffset, false);
+        }
+        writeMemoryChunk();
+    }
+
+    @Override
+    public void close() {
+        flush();
+    }
+
+    /**
+     * Indexes the assembled line; the next one starts at the given offset. Only a line
+     * ended by a newline or by its length is found again by counting lines.
+     */
+    private void endLine(long timeMs, long nextLineOffset, boolean complete) {
+        int lineId = memory.addLine(timeMs, activeSegment, lineStartOffset, lineFollows);
+        int start = -1;
+        for (int i = 0; i <= lineLength; i++) {
+            boolean tokenByte = i < lineLength && isTokenByte(lineBuffer[i]);
+            if (tokenByte && start < 0) {
+                start = i;
+            } else if (!tokenByte && start >= 0) {
+                int length = i - start;
+                if (length <= MAX_TOKEN_LENGTH && !isLongNumber(lineBuffer, start, length)) {
+                    for (int j = 0; j < length; j++) {
+                        tokenBuffer[j] = toLower(lineBuffer[start + j]);
+                    }
+                    memory.addPosting(tokenBuffer, length, lineId);
+                }
+                start = -1;
+            }
+        }
+        lineLength = 0;
+        lineStartOffset = nextLineOffset;
+        lineFollows = complete;
+        memory.endSegment = activeSegment;
+        memory.endOffset = nextLineOffset;
+        if (memory.isFull()) {
+            writeMemoryChunk();
+        }
+    }
+
+    private void writeMemoryChunk() {
+        if (memory.lineCount == 0) {
+            return;
+        }
+        try {
+            Files.createDirectories(indexDirectory.toPath());
+            File file = new File(indexDirectory, String.format("chunk-%08d.idx", nextChunkNumber++));
+            File partial = new File(file.getPath() + ".tmp");
+            memory.write(partial);
+            Files.move(partial.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            chunks.add(new Chunk(file));
+            saveSegments();
+        } catch (IOException e) {
+            System.err.println("Failed to write log index chunk in " + indexDirectory + ": " + e.getMessage());
+        }
+        memory = new MemoryChunk();
+    }
+
+    // --- Searching ---
+
+    /**
+     * Returns up to limit lines matching the query within the time range, newest first
+     */
+    public List<Hit> search(Query query, long fromMs, long toMs, int limit) {
+        if (query.isEmpty()) {
+            return new ArrayList<>();
+        }
+        // Without phrases every candidate is a hit, so collecting can stop at the limit
+        int wanted = query.phrases.isEmpty() ? limit : Integer.MAX_VALUE;
+        List<Candidate> recent = new ArrayList<>();
+        List<Chunk> written;
+        Map<Integer, String> segmentNames;
+        synchronized (this) {
+            memory.collect(query, fromMs, toMs, wanted, recent);
+            written = new ArrayList<>(chunks);
+            segmentNames = new HashMap<>(segments);
+        }
+
+        // Chunks are immutable, so the rest runs without holding up the writer
+        List<Hit> hits = new ArrayList<>();
+        verify(query, recent, segmentNames, limit, hits);
+        for (int i = written.size() - 1; i >= 0 && hits.size() < limit; i--) {
+            List<Candidate> candidates = new ArrayList<>();
+            written.get(i).collect(query, fromMs, toMs, wanted - hits.size(), candidates);
+            verify(query, candidates, segmentNames, limit, hits);
+        }
+        return hits;
+    }
+
+    private void verify(Query query, List<Candidate> candidates, Map<Integer, String> segmentNames, int limit,
+                        List<Hit> hits) {
+        for (int start = 0; start < candidates.size() && hits.size() < limit; start += VERIFY_BATCH) {
+            List<Candidate> batch = candidates.subList(start, Math.min(candidates.size(), start + VERIFY_BATCH));
+            Map<Candidate, String> lines = readLines(batch, segmentNames);
+            for (Candidate candidate : batch) {
+                String line = lines.get(candidate);
+                if (line != null && query.matches(line)) {
+                    hits.add(new Hit(logDirectory.getName(), candidate.timeMs, line));
+                    if (hits.size() >= limit) {
+                        return;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * A line to read back: the given number of lines past a checkpoint
+     */
+    private static class Candidate {
+        final long timeMs;
+        final int segment;
+        final long offset;
+        final int skip;
+
+        Candidate(long timeMs, int segment, long offset, int skip) {
+            this.timeMs = timeMs;
+            this.segment = segment;
+            this.offset = offset;
+            this.skip = skip;
+        }
+    }
+
+    /**
+     * Reads the lines back from the segments, one pass per segment
+     */
+    private Map<Candidate, String> readLines(List<Candidate> batch, Map<Integer, String> segmentNames) {
+        Map<Integer, List<Candidate>> bySegment = new TreeMap<>();
+        for (Candidate candidate : batch) {
+            bySegment.computeIfAbsent(candidate.segment, k -> new ArrayList<>()).add(candidate);
+        }
+        Map<Candidate, String> lines = new IdentityHashMap<>();
+        for (Map.Entry<Integer, List<Candidate>> entry : bySegment.entrySet()) {
+            String name = segmentNames.get(entry.getKey());
+            if (name == null) {
+                continue; // Segment already deleted
+            }
+            List<Candidate> wanted = entry.getValue();
+            wanted.sort(Comparator.<Candidate>comparingLong(c -> c.offset).thenComparingInt(c -> c.skip));
+            File plain = new File(logDirectory, name);
+            try {
+                readPlain(plain, wanted, lines);
+            } catch (IOException e) {
+                // Compressed meanwhile, or only available compressed
+                try {
+                    readCompressed(new File(logDirectory, name + ".gz"), wanted, lines);
+                } catch (IOException ignored) {
+                    // Segment is gone
+                }
+            }
+        }
+        return lines;
+    }
+
+    /**
+     * Candidates come sorted by checkpoint and line; each checkpoint is read once, from its offset
+     */
+    private static void readPlain(File file, List<Candidate> wanted, Map<Candidate, String> lines) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            LineReader reader = null;
+            for (Candidate candidate : wanted) {
+                if (reader == null || reader.checkpoint != candidate.offset) {
+                    channel.position(candidate.offset);
+                    reader = new LineReader(new BufferedInputStream(Channels.newInputStream(channel), 65536),
+                        candidate.offset);
+                }
+                reader.read(candidate, lines);
+            }
+        }
+    }
+
+    private static void readCompressed(File file, List<Candidate> wanted, Map<Candidate, String> lines) throws IOException {
+        InputStream in = null;
+        try {
+            long position = 0;
+            LineReader reader = null;
+            for (Candidate candidate : wanted) {
+                if (reader == null || reader.checkpoint != candidate.offset) {
+                    position = reader != null ? reader.getStreamPosition() : position;
+                    if (in == null || candidate.offset < position) {
+                        // A line without its newline was read into the next checkpoint; start over
+                        if (in != null) {
+                            in.close();
+                        }
+                        in = new BufferedInputStream(new GZIPInputStream(new FileInputStream(file), 65536), 65536);
+                        position = 0;
+                    }
+                    skipFully(in, candidate.offset - position);
+                    reader = new LineReader(in, candidate.offset);
+                }
+                reader.read(candidate, lines);
+            }
+        } finally {
+            if (in != null) {
+                in.close();
+            }
+        }
+    }
+
+    /**
+     * Counts lines from a checkpoint the way the indexer split them: at newlines, and
+     * after MAX_LINE_BYTES bytes without one
+     */
+    private static class LineReader {
+        final long checkpoint;
+        private final InputStream in;
+        private final byte[] line = new byte[MAX_LINE_BYTES];
+        private int index = -1; // Line last read, counted from the checkpoint
+        private int pending = -1; // Byte read past the end of that line
+        private long position; // Of the next line
+
+        LineReader(InputStream in, long checkpoint) {
+            this.in = in;
+            this.checkpoint = checkpoint;
+            this.position = checkpoint;
+        }
+
+        long getStreamPosition() {
+            return pending >= 0 ? position + 1 : position;
+        }
+
+        void read(Candidate candidate, Map<Candidate, String> lines) throws IOException {
+            int length = -1;
+            while (index < candidate.skip) {
+                length = next();
+                if (length < 0) {
+                    return; // Segment shorter than indexed, e.g. truncated
+                }
+            }
+            if (length >= 0) {
+                lines.put(candidate, decodeLine(line, 0, length));
+            }
+        }
+
+        private int next() throws IOException {
+            int length = 0;
+            int b = pending >= 0 ? pending : in.read();
+            pending = -1;
+            if (b < 0) {
+                return -1;
+            }
+            while (b >= 0) {
+                if (b == '\n') {
+                    position++;
+                    break;
+                }
+                if (length == MAX_LINE_BYTES) {
+                    pending = b;
+                    break;
+                }
+                line[length++] = (byte) b;
+                position++;
+                b = in.read();
+            }
+            index++;
+            return length;
+        }
+    }
+
+    private static String decodeLine(byte[] data, int offset, int length) {
+        int end = offset + length;
+        if (end > offset && data[end - 1] == '\r') {
+            end--;
+        }
+        return new String(data, offset, end - offset, StandardCharsets.UTF_8);
+    }
+
+    private static void skipFully(InputStream in, long count) throws IOException {
+        while (count > 0) {
+            long skipped = in.skip(count);
+            if (skipped <= 0) {
+                if (in.read() < 0) {
+                    throw new EOFException();
+                }
+                skipped = 1;
+            }
+            count -= skipped;
+        }
+    }
+
+    // --- Tokens ---
+
+    static List<String> tokenize(String text) {
+        List<String> tokens = new ArrayList<>();
+        StringBuilder token = new StringBuilder();
+        for (int i = 0; i <= text.length(); i++) {
+            char c = i < text.length() ? text.charAt(i) : ' ';
+            if (c < 128 && isTokenByte((byte) c)) {
+                token.append((char) toLower((byte) c));
+            } else if (token.length() > 0) {
+                if (token.length() <= MAX_TOKEN_LENGTH) {
+                    tokens.add(token.toString());
+                }
+                token.setLength(0);
+            }
+        }
+        return tokens;
+    }
+
+    private static boolean isIndexed(String token) {
+        byte[] bytes = token.getBytes(StandardCharsets.ISO_8859_1);
+        return !isLongNumber(bytes, 0, bytes.length);
+    }
+
+    private static boolean isLongNumber(byte[] data, int offset, int length) {
+        if (length <= MAX_NUMBER_LENGTH) {
+            return false;
+        }
+        for (int i = offset; i < offset + length; i++) {
+            if (data[i] < '0' || data[i] > '9') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isTokenByte(byte b) {
+        return (b >= 'a' && b <= 'z') || (b >= 'A' && b <= 'Z') || (b >= '0' && b <= '9') || b == '_';
+    }
+
+    private static byte toLower(byte b) {
+        return b >= 'A' && b <= 'Z' ? (byte) (b + 32) : b;
+    }
+
+    private static int compare(byte[] a, int aOffset, int aLength, ByteBuffer b, int bOffset, int bLength) {
+        int n = Math.min(aLength, bLength);
+        for (int i = 0; i < n; i++) {
+            int diff = (a[aOffset + i] & 0xFF) - (b.get(bOffset + i) & 0xFF);
+            if (diff != 0) {
+                return diff;
+            }
+        }
+        return aLength - bLength;
+    }
+
+    private static int[] intersect(List<int[]> lists) {
+        lists.sort(Comparator.comparingInt(list -> list.length));
+        int[] result = lists.get(0);
+        for (int i = 1; i < lists.size() && result.length > 0; i++) {
+            int[] other = lists.get(i);
+            int[] merged = new int[result.length];
+            int count = 0;
+            int j = 0;
+            for (int value : result) {
+                // Galloping would help for very skewed lists; linear is fine at chunk size
+                while (j < other.length && other[j] < value) {
+                    j++;
+                }
+                if (j < other.length && other[j] == value) {
+                    merged[count++] = value;
+                }
+            }
+            result = Arrays.copyOf(merged, count);
+        }
+        return result;
+    }
+
+    // --- Segments file ---
+
+    private File getSegmentsFile() {
+        return new File(indexDirectory, "segments");
+    }
+
+    private void loadSegments() throws IOException {
+        File file = getSegmentsFile();
+        if (file.exists()) {
+            Properties properties = new Properties();
+            try (InputStream in = new FileInputStream(file)) {
+                properties.load(in);
+            }
+            for (String key : properties.stringPropertyNames()) {
+                try {
+                    segments.put(Integer.parseInt(key), properties.getProperty(key));
+                } catch (NumberFormatException e) {
+                    // Ignore corrupt entry
+                }
+            }
+        }
+        String activeName = logName + ".log";
+        activeSegment = 0;
+        for (Map.Entry<Integer, String> entry : segments.entrySet()) {
+            if (entry.getValue().equals(activeName)) {
+                activeSegment = entry.getKey();
+            }
+        }
+        if (!segments.containsValue(activeName)) {
+            activeSegment = segments.isEmpty() ? 0 : segments.lastKey() + 1;
+            segments.put(activeSegment, activeName);
+        }
+    }
+
+    private void saveSegments() {
+        Properties properties = new Properties();
+        for (Map.Entry<Integer, String> entry : segments.entrySet()) {
+            properties.setProperty(String.valueOf(entry.getKey()), entry.getValue());
+        }
+        try {
+            Files.createDirectories(indexDirectory.toPath());
+            File partial = new File(getSegmentsFile().getPath() + ".tmp");
+            try (OutputStream out = new FileOutputStream(partial)) {
+                properties.store(out, "Log segments by ordinal");
+            }
+            Files.move(partial.toPath(), getSegmentsFile().toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            System.err.println("Failed to save log segments of " + indexDirectory + ": " + e.getMessage());
+        }
+    }
+
+    private static int chunkNumber(File file) {
+        String name = file.getName();
+        try {
+            return Integer.parseInt(name.substring("chunk-".length(), name.length() - ".idx".length()));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    // --- Chunks ---
+
+    /**
+     * Postings collected in memory, bounded by line, posting and term counts
+     */
+    private static class MemoryChunk {
+        // Checkpoints: first line, time, segment and offset
+        private int[] firstLines = new int[64];
+        private long[] times = new long[64];
+        private int[] lineSegments = new int[64];
+        private long[] offsets = new long[64];
+        int checkpointCount;
+        long lastTime;
+        int lineCount;
+        int postingCount;
+        int endSegment;
+        long endOffset;
+
+        // Open addressing hash table keyed by token bytes, so known tokens cost no allocation
+        private byte[][] keys = new byte[4096][];
+        private int[][] postings = new int[4096][];
+        private int[] postingSizes = new int[4096];
+        private int termCount;
+
+        /**
+         * Adds a line, starting a checkpoint unless it follows the previous line in the
+         * current checkpoint's segment, not too far from it in bytes and time
+         */
+        int addLine(long timeMs, int segment, long offset, boolean follows) {
+            int last = checkpointCount - 1;
+            if (last < 0 || !follows || segment != lineSegments[last] || offset - offsets[last] >= CHECKPOINT_BYTES
+                    || timeMs < times[last] || timeMs - times[last] >= CHECKPOINT_MS) {
+                if (checkpointCount == times.length) {
+                    firstLines = Arrays.copyOf(firstLines, checkpointCount * 2);
+                    times = Arrays.copyOf(times, checkpointCount * 2);
+                    lineSegments = Arrays.copyOf(lineSegments, checkpointCount * 2);
+                    offsets = Arrays.copyOf(offsets, checkpointCount * 2);
+                }
+                firstLines[checkpointCount] = lineCount;
+                times[checkpointCount] = timeMs;
+                lineSegments[checkpointCount] = segment;
+                offsets[checkpointCount] = offset;
+                checkpointCount++;
+            }
+            lastTime = timeMs;
+            return lineCount++;
+        }
+
+        private int checkpointOf(int line) {
+            int index = Arrays.binarySearch(firstLines, 0, checkpointCount, line);
+            return index >= 0 ? index : -index - 2;
+        }
+
+        void addPosting(byte[] token, int length, int lineId) {
+            int slot = find(token, length);
+            if (keys[slot] == null) {
+                keys[slot] = Arrays.copyOf(token, length);
+                postings[slot] = new int[4];
+                termCount++;
+                if (termCount * 2 > keys.length) {
+                    grow();
+                    slot = find(token, length);
+                }
+            }
+            int size = postingSizes[slot];
+            int[] list = postings[slot];
+            if (size > 0 && list[size - 1] == lineId) {
+                return; // Repeated in the same line
+            }
+            if (size == list.length) {
+                list = Arrays.copyOf(list, size * 2);
+                postings[slot] = list;
+            }
+            list[size] = lineId;
+            postingSizes[slot] = size + 1;
+            postingCount++;
+        }
+
+        boolean isFull() {
+            return lineCount >= MAX_CHUNK_LINES || postingCount >= MAX_CHUNK_POSTINGS || termCount >= MAX_CHUNK_TERMS;
+        }
+
+        private int find(byte[] token, int length) {
+            int mask = keys.length - 1;
+            int slot = hash(token, length) & mask;
+            while (keys[slot] != null && !equals(keys[slot], token, length)) {
+                slot = (slot + 1) & mask;
+            }
+            return slot;
+        }
+
+        private void grow() {
+            byte[][] oldKeys = keys;
+            int[][] oldPostings = postings;
+            int[] oldSizes = postingSizes;
+            keys = new byte[oldKeys.length * 2][];
+            postings = new int[oldKeys.length * 2][];
+            postingSizes = new int[oldKeys.length * 2];
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] != null) {
+                    int slot = find(oldKeys[i], oldKeys[i].length);
+                    keys[slot] = oldKeys[i];
+                    postings[slot] = oldPostings[i];
+                    postingSizes[slot] = oldSizes[i];
+                }
+            }
+        }
+
+        private static int hash(byte[] token, int length) {
+            int h = 0;
+            for (int i = 0; i < length; i++) {
+                h = 31 * h + token[i];
+            }
+            return h ^ (h >>> 16);
+        }
+
+        private static boolean equals(byte[] key, byte[] token, int length) {
+            if (key.length != length) {
+                return false;
+            }
+            for (int i = 0; i < length; i++) {
+                if (key[i] != token[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        void collect(Query query, long fromMs, long toMs, int wanted, List<Candidate> out) {
+            if (lineCount == 0) {
+                return;
+            }
+            List<int[]> lists = new ArrayList<>();
+            for (byte[] token : query.tokens) {
+                int slot = find(token, token.length);
+                if (keys[slot] == null) {
+                    return;
+                }
+                lists.add(Arrays.copyOf(postings[slot], postingSizes[slot]));
+            }
+            int[] lines = intersect(lists);
+            for (int i = lines.length - 1; i >= 0 && out.size() < wanted; i--) {
+                int checkpoint = checkpointOf(lines[i]);
+                long time = times[checkpoint];
+                if (time >= fromMs && time <= toMs) {
+                    out.add(new Candidate(time, lineSegments[checkpoint], offsets[checkpoint],
+                        lines[i] - firstLines[checkpoint]));
+                }
+            }
+        }
+
+        /**
+         * Writes the chunk file: header, checkpoint table, term table, term bytes, postings
+         */
+        void write(File file) throws IOException {
+            Integer[] order = new Integer[termCount];
+            int n = 0;
+            for (int i = 0; i < keys.length; i++) {
+                if (keys[i] != null) {
+                    order[n++] = i;
+                }
+            }
+            Arrays.sort(order, (a, b) -> {
+                byte[] x = keys[a];
+                byte[] y = keys[b];
+                return compare(x, 0, x.length, ByteBuffer.wrap(y), 0, y.length);
+            });
+
+            ByteArrayOutputStream termBytes = new ByteArrayOutputStream();
+            ByteArrayOutputStream postingBytes = new ByteArrayOutputStream();
+            int[][] termEntries = new int[termCount][3];
+            for (int t = 0; t < termCount; t++) {
+                int slot = order[t];
+                termEntries[t][0] = termBytes.size();
+                termBytes.write(keys[slot].length);
+                termBytes.write(keys[slot], 0, keys[slot].length);
+                termEntries[t][1] = postingBytes.size();
+                termEntries[t][2] = postingSizes[slot];
+                int previous = 0;
+                for (int i = 0; i < postingSizes[slot]; i++) {
+                    writeVarint(postingBytes, postings[slot][i] - previous);
+                    previous = postings[slot][i];
+                }
+            }
+
+            int minSegment = Integer.MAX_VALUE;
+            int maxSegment = 0;
+            for (int i = 0; i < checkpointCount; i++) {
+                minSegment = Math.min(minSegment, lineSegments[i]);
+                maxSegment = Math.max(maxSegment, lineSegments[i]);
+            }
+            int checkpointTablePos = HEADER_BYTES;
+            int termTablePos = checkpointTablePos + checkpointCount * CHECKPOINT_ENTRY_BYTES;
+            int termBytesPos = termTablePos + termCount * TERM_ENTRY_BYTES;
+            int postingsPos = termBytesPos + termBytes.size();
+
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 65536))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(lineCount);
+                out.writeInt(termCount);
+                out.writeLong(times[0]);
+                out.writeLong(lastTime);
+                out.writeInt(minSegment);
+                out.writeInt(maxSegment);
+                out.writeInt(endSegment);
+                out.writeLong(endOffset);
+                out.writeInt(termBytesPos);
+                out.writeInt(postingsPos);
+                out.writeInt(checkpointCount);
+                for (int i = 0; i < checkpointCount; i++) {
+                    out.writeInt(firstLines[i]);
+                    out.writeLong(times[i]);
+                    out.writeInt(lineSegments[i]);
+                    out.writeLong(offsets[i]);
+                }
+                for (int[] entry : termEntries) {
+                    out.writeInt(entry[0]);
+                    out.writeInt(entry[1]);
+                    out.writeInt(entry[2]);
+                }
+                termBytes.writeTo(out);
+                postingBytes.writeTo(out);
+            }
+        }
+
+        private static void writeVarint(ByteArrayOutputStream out, int value) {
+            while ((value & ~0x7F) != 0) {
+                out.write((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            out.write(value);
+        }
+    }
+
+    /**
+     * A written chunk, memory-mapped so searching costs no heap beyond the hits
+     */
+    private static class Chunk {
+        final File file;
+        final MappedByteBuffer buffer;
+        final int termCount;
+        final long firstTime;
+        final long lastTime;
+        final int maxSegment;
+        final int endSegment;
+        final long endOffset;
+        final int termBytesPos;
+        final int postingsPos;
+        final int checkpointCount;
+
+        Chunk(File file) throws IOException {
+            this.file = file;
+            try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+                buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            }
+            if (buffer.capacity() < HEADER_BYTES || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+                throw new IOException("Not a log index chunk");
+            }
+            termCount = buffer.getInt(12);
+            firstTime = buffer.getLong(16);
+            lastTime = buffer.getLong(24);
+            maxSegment = buffer.getInt(36);
+            endSegment = buffer.getInt(40);
+            endOffset = buffer.getLong(44);
+            termBytesPos = buffer.getInt(52);
+            postingsPos = buffer.getInt(56);
+            checkpointCount = buffer.getInt(60);
+        }
+
+        void collect(Query query, long fromMs, long toMs, int wanted, List<Candidate> out) {
+            if (lastTime < fromMs || firstTime > toMs) {
+                return;
+            }
+            List<int[]> lists = new ArrayList<>();
+            for (byte[] token : query.tokens) {
+                int term = findTerm(token);
+                if (term < 0) {
+                    return;
+                }
+                lists.add(readPostings(term));
+            }
+            int[] lines = intersect(lists);
+            for (int i = lines.length - 1; i >= 0 && out.size() < wanted; i--) {
+                int entry = HEADER_BYTES + checkpointOf(lines[i]) * CHECKPOINT_ENTRY_BYTES;
+                long time = buffer.getLong(entry + 4);
+                if (time >= fromMs && time <= toMs) {
+                    out.add(new Candidate(time, buffer.getInt(entry + 12), buffer.getLong(entry + 16),
+                        lines[i] - buffer.getInt(entry)));
+                }
+            }
+        }
+
+        /**
+         * The last checkpoint at or before the line
+         */
+        private int checkpointOf(int line) {
+            int low = 0;
+            int high = checkpointCount - 1;
+            while (low < high) {
+                int mid = (low + high + 1) >>> 1;
+                if (buffer.getInt(HEADER_BYTES + mid * CHECKPOINT_ENTRY_BYTES) <= line) {
+                    low = mid;
+                } else {
+                    high = mid - 1;
+                }
+            }
+            return low;
+        }
+
+        private int findTerm(byte[] token) {
+            int termTablePos = HEADER_BYTES + checkpointCount * CHECKPOINT_ENTRY_BYTES;
+            int low = 0;
+            int high = termCount - 1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                int termPos = termBytesPos + buffer.getInt(termTablePos + mid * TERM_ENTRY_BYTES);
+                int length = buffer.get(termPos) & 0xFF;
+                int cmp = compare(token, 0, token.length, buffer, termPos + 1, length);
+                if (cmp > 0) {
+                    low = mid + 1;
+                } else if (cmp < 0) {
+                    high = mid - 1;
+                } else {
+                    return mid;
+                }
+            }
+            return -1;
+        }
+
+        private int[] readPostings(int term) {
+            int entry = HEADER_BYTES + checkpointCount * CHECKPOINT_ENTRY_BYTES + term * TERM_ENTRY_BYTES;
+            int pos = postingsPos + buffer.getInt(entry + 4);
+            int count = buffer.getInt(entry + 8);
+            int[] lines = new int[count];
+            int value = 0;
+            for (int i = 0; i < count; i++) {
+                int delta = 0;
+                int shift = 0;
+                byte b;
+                do {
+                    b = buffer.get(pos++);
+                    delta |= (b & 0x7F) << shift;
+                    shift += 7;
+                } while ((b & 0x80) != 0);
+                value += delta;
+                lines[i] = value;
+            }
+            return lines;
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package com.qemumanager;
+
+import javax.swing.*;
+import javax.swing.table.AbstractTableModel;
+import java.awt.*;
+import java.io.File;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Searches the serial logs of all VMs through their {@link QemuLogIndex}.
+ * Words must all appear in a line; "quoted text" must appear as a phrase.
+ */
+public class QemuLogSearchDialog extends JDialog {
+    private static final int MAX_HITS = 1000;
+    private static final String[] RANGES = {"Last hour", "Last 24 hours", "Last 7 days", "All time"};
+    private static final long[] RANGE_MS = {3600000L, 86400000L, 7 * 86400000L, Long.MAX_VALUE};
+
+    private JTextField queryField;
+    private JComboBox<String> rangeCombo;
+    private JButton searchButton;
+    private JLabel statusLabel;
+    private final HitTableModel tableModel = new HitTableModel();
+
+    public QemuLogSearchDialog(JFrame parent) {
+        super(parent, "Search VM Logs", false);
+        initializeUI();
+    }
+
+    private void initializeUI() {
+        setSize(900, 550);
+        setLocationRelativeTo(getParent());
+        setDefaultCloseOperation(DISPOSE_ON_CLOSE);
+
+        JPanel mainPanel = new JPanel(new BorderLayout(5, 5));
+        mainPanel.setBorder(BorderFactory.createEmptyBorder(10, 10, 10, 10));
+
+        JPanel queryPanel = new JPanel(new BorderLayout(5, 5));
+        queryPanel.add(new JLabel("Search:"), BorderLayout.WEST);
+        queryField = new JTextField();
+        queryField.setToolTipText("All words must appear in a line; use \"quotes\" for phrases");
+        queryField.addActionListener(e -> search());
+        queryPanel.add(queryField, BorderLayout.CENTER);
+
+        JPanel optionsPanel = new JPanel(new FlowLayout(FlowLayout.RIGHT, 5, 0));
+        rangeCombo = new JComboBox<>(RANGES);
+        rangeCombo.setSelectedIndex(1);
+        searchButton = new JButton("Search");
+        searchButton.addActionListener(e -> search());
+        optionsPanel.add(rangeCombo);
+        optionsPanel.add(searchButton);
+        queryPanel.add(optionsPanel, BorderLayout.EAST);
+        mainPanel.add(queryPanel, BorderLayout.NORTH);
+
+        JTable table = new JTable(tableModel);
+        table.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 12));
+        table.setAutoResizeMode(JTable.AUTO_RESIZE_LAST_COLUMN);
+        table.getColumnModel().getColumn(0).setPreferredWidth(150);
+        table.getColumnModel().getColumn(1).setPreferredWidth(120);
+        table.getColumnModel().getColumn(2).setPreferredWidth(600);
+        mainPanel.add(new JScrollPane(table), BorderLayout.CENTER);
+
+        statusLabel = new JLabel(" ");
+        mainPanel.add(statusLabel, BorderLayout.SOUTH);
+
+        setContentPane(mainPanel);
+    }
+
+    private void search() {
+        String query = queryField.getText().trim();
+        if (QemuLogIndex.Query.parse(query).isEmpty()) {
+            statusLabel.setText("Enter at least one word or short number to search for");
+            return;
+        }
+        long range = RANGE_MS[rangeCombo.getSelectedIndex()];
+        long now = System.currentTimeMillis();
+        long from = range == Long.MAX_VALUE ? 0 : now - range;
+        File logsRoot = new File(QemuSettings.getInstance().getQemuManagerLogsPath());
+
+        searchButton.setEnabled(false);
+        statusLabel.setText("Searching...");
+        Thread thread = new Thread(() -> {
+            long start = System.nanoTime();
+            List<QemuLogIndex.Hit> hits = QemuLogIndex.searchAll(logsRoot, query, from, Long.MAX_VALUE, MAX_HITS);
+            double elapsedMs = (System.nanoTime() - start) / 1e6;
+            SwingUtilities.invokeLater(() -> {
+                tableModel.setHits(hits);
+                statusLabel.setText(String.format("%d%s hits in %.1f ms", hits.size(),
+                    hits.size() >= MAX_HITS ? "+" : "", elapsedMs));
+                searchButton.setEnabled(true);
+            });
+        }, "Log search");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private static class HitTableModel extends AbstractTableModel {
+        private static final String[] COLUMNS = {"Time", "VM", "Line"};
+        private final SimpleDateFormat timeFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+        private List<QemuLogIndex.Hit> hits = new ArrayList<>();
+
+        void setHits(List<QemuLogIndex.Hit> hits) {
+            this.hits = hits;
+            fireTableDataChanged();
+        }
+
+        @Override
+        public int getRowCount() {
+            return hits.size();
+        }
+
+        @Override
+        public int getColumnCount() {
+            return COLUMNS.length;
+        }
+
+        @Override
+        public String getColumnName(int column) {
+            return COLUMNS[column];
+        }
+
+        @Override
+        public Object getValueAt(int row, int column) {
+            QemuLogIndex.Hit hit = hits.get(row);
+            switch (column) {
+                case 0:
+                    return timeFormat.format(new Date(hit.getTimeMs()));
+                case 1:
+                    return hit.getSource();
+                default:
+                    return hit.getLine();
+            }
+        }
+    }
+}
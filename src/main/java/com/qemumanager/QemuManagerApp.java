@@ -3,6 +3,10 @@ package com.qemumanager;
 import javax.swing.*;
 import java.awt.*;
 import java.awt.image.BufferedImage;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * Main application class for QEMU Manager
@@ -10,10 +14,19 @@ import java.awt.image.BufferedImage;
 public class QemuManagerApp extends JFrame {
     private static final String APP_TITLE = "QEMU Manager";
     private static final String APP_VERSION = "1.0.0";
+    private static final int CAPACITY_REFRESH_MS = 5000;
+    // Reads procfs and the storage pools, which may sit on a slow or hung network mount
+    private static final ExecutorService CAPACITY_READER = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "Capacity status");
+        thread.setDaemon(true);
+        return thread;
+    });
     
     private QemuVmPanel vmPanel;
     private QemuDiskPanel diskPanel;
+    private QemuVncThumbnailGrid previewGrid;
     private QemuConsolePanel consolePanel;
+    private final AtomicBoolean capacityReadPending = new AtomicBoolean();
     
     public QemuManagerApp() {
         initializeUI();
@@ -53,6 +66,13 @@ public class QemuManagerApp extends JFrame {
         
         // Update disk panel when VMs change - simplified for now
         refreshDiskManagement();
+        
+        // Take over VMs still running from the previous session, then bring back
+        // VMs marked for autostart, e.g. after a host reboot
+        vmPanel.adoptRunningVirtualMachines();
+        if (QemuSettings.getInstance().isAutostartEnabled()) {
+            vmPanel.autostartVirtualMachines();
+        }
     }
     
     private void createMenuBar() {
@@ -93,12 +113,16 @@ public class QemuManagerApp extends JFrame {
         JMenu toolsMenu = new JMenu("Tools");
         JMenuItem settingsItem = new JMenuItem("Settings");
         JMenuItem qemuPathItem = new JMenuItem("Configure QEMU Path");
+        JMenuItem searchLogsItem = new JMenuItem("Search Logs...");
         
         settingsItem.addActionListener(e -> showSettingsDialog());
         qemuPathItem.addActionListener(e -> showQemuPathDialog());
+        searchLogsItem.addActionListener(e -> showLogSearchDialog());
         
         toolsMenu.add(settingsItem);
         toolsMenu.add(qemuPathItem);
+        toolsMenu.addSeparator();
+        toolsMenu.add(searchLogsItem);
         
         // Help menu
         JMenu helpMenu = new JMenu("Help");
@@ -126,6 +150,8 @@ public class QemuManagerApp extends JFrame {
         
         // VM management panel
         vmPanel = new QemuVmPanel();
+        // Pool usage follows the disks the VMs reference
+        vmPanel.getVmIndex().addDiskListener(QemuStoragePools.getInstance());
         JScrollPane vmScrollPane = new JScrollPane(vmPanel);
         tabbedPane.addTab("Virtual Machines", vmScrollPane);
         
@@ -134,6 +160,20 @@ public class QemuManagerApp extends JFrame {
         JScrollPane diskScrollPane = new JScrollPane(diskPanel);
         tabbedPane.addTab("Disk Images", diskScrollPane);
         
+        // Live previews of running VM displays
+        previewGrid = new QemuVncThumbnailGrid();
+        previewGrid.setVmIndex(vmPanel.getVmIndex());
+        tabbedPane.addTab("Live Previews", previewGrid);
+        
+        // Lifecycle event journal, reloaded whenever the tab is shown
+        QemuEventJournalPanel eventsPanel = new QemuEventJournalPanel();
+        tabbedPane.addTab("Events", eventsPanel);
+        tabbedPane.addChangeListener(e -> {
+            if (tabbedPane.getSelectedComponent() == eventsPanel) {
+                eventsPanel.refresh();
+            }
+        });
+        
         // Console panel (bottom)
         consolePanel = new QemuConsolePanel();
         JScrollPane consoleScrollPane = new JScrollPane(consolePanel);
@@ -144,12 +184,42 @@ public class QemuManagerApp extends JFrame {
         
         add(mainSplitPane, BorderLayout.CENTER);
         
-        // Status bar
+        // Status bar with the host's headroom, refreshed periodically
         JPanel statusBar = new JPanel(new FlowLayout(FlowLayout.LEFT));
         statusBar.setBorder(BorderFactory.createLoweredBevelBorder());
         JLabel statusLabel = new JLabel("Ready");
         statusBar.add(statusLabel);
         add(statusBar, BorderLayout.SOUTH);
+        Timer capacityTimer = new Timer(CAPACITY_REFRESH_MS, e -> updateCapacityStatus(statusLabel));
+        capacityTimer.setInitialDelay(0);
+        capacityTimer.start();
+    }
+    
+    /**
+     * Reads the host off the event thread and publishes the text; skipped while the last read still runs
+     */
+    private void updateCapacityStatus(JLabel statusLabel) {
+        if (!capacityReadPending.compareAndSet(false, true)) {
+            return;
+        }
+        QemuCapacityPlanner planner = QemuCapacityPlanner.fromSettings();
+        QemuCapacityPlanner.Usage usage = planner.getUsage(vmPanel.getVirtualMachines());
+        CAPACITY_READER.execute(() -> {
+            try {
+                QemuCapacityPlanner.HostProfile host = QemuCapacityPlanner.readHost();
+                String text = planner.describeHeadroom(usage, host);
+                String toolTip = host.isMemoryKnown()
+                    ? String.format("%d host CPUs, %d MB memory (%d MB available now)",
+                        host.getCpus(), host.getMemoryTotalMB(), host.getMemoryAvailableMB())
+                    : String.format("%d host CPUs, memory unknown", host.getCpus());
+                SwingUtilities.invokeLater(() -> {
+                    statusLabel.setText(text);
+                    statusLabel.setToolTipText(toolTip);
+                });
+            } finally {
+                capacityReadPending.set(false);
+            }
+        });
     }
     
     private Image createAppIcon() {
@@ -210,8 +280,15 @@ public class QemuManagerApp extends JFrame {
     }
     
     private void showSettingsDialog() {
+        Map<String, QemuDiskThrottle> throttleGroups = QemuSettings.getInstance().getThrottleGroups();
         QemuSettingsDialog dialog = new QemuSettingsDialog(this);
         dialog.setVisible(true);
+        vmPanel.applyThrottleGroups(throttleGroups);
+    }
+    
+    private void showLogSearchDialog() {
+        QemuLogSearchDialog dialog = new QemuLogSearchDialog(this);
+        dialog.setVisible(true);
     }
     
     private void showQemuPathDialog() {
@@ -322,7 +399,7 @@ public class QemuManagerApp extends JFrame {
      */
     private void refreshDiskManagement() {
         if (diskPanel != null && vmPanel != null) {
-            diskPanel.setVirtualMachines(vmPanel.getVirtualMachines());
+            diskPanel.setVmIndex(vmPanel.getVmIndex());
         }
     }
     
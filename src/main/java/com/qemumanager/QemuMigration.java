@@ -0,0 +1,394 @@
+package com.qemumanager;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Drives a live migration of a running VM over QMP. The target QEMU is
+ * started with "-incoming defer" and told where to listen by
+ * {@link #prepareIncoming}; the source then copies the guest's RAM while it
+ * keeps running, re-sending pages the guest dirties, and pauses the guest only
+ * for the final switch-over. With postcopy the target takes over early and
+ * pulls the remaining pages on demand, which bounds the total time for guests
+ * that dirty memory faster than it can be sent. Only the monitors and a URI are
+ * involved, so a migration to a second process on this host and one to a
+ * manager on another host work the same way.
+ */
+public class QemuMigration {
+    private static final long POLL_INTERVAL_MS = 500;
+    // max-bandwidth is always a cap (QEMU's default is 128 MiB/s); this stands for "no cap"
+    private static final long UNLIMITED_BANDWIDTH = 1L << 40;
+    // The first sync happens at setup, the second ends the first full pass over RAM
+    private static final long POSTCOPY_AFTER_SYNCS = 2;
+    private static final long MB = 1024L * 1024L;
+
+    /**
+     * How to migrate; the target must use the same capabilities as the source
+     */
+    public static class Options {
+        private final boolean postcopy;
+        private final boolean autoConverge;
+        private final int multifdChannels;
+        private final int maxBandwidthMBps;
+        private final int downtimeLimitMs;
+
+        public Options(boolean postcopy, boolean autoConverge, int multifdChannels, int maxBandwidthMBps,
+                       int downtimeLimitMs) {
+            this.postcopy = postcopy;
+            this.autoConverge = autoConverge;
+            this.multifdChannels = multifdChannels;
+            this.maxBandwidthMBps = maxBandwidthMBps;
+            this.downtimeLimitMs = downtimeLimitMs;
+        }
+
+        public static Options fromSettings() {
+            QemuSettings settings = QemuSettings.getInstance();
+            return new Options(settings.isMigrationPostcopy(), settings.isMigrationAutoConverge(),
+                settings.getMigrationMultifdChannels(), settings.getMigrationMaxBandwidthMBps(),
+                settings.getMigrationDowntimeLimitMs());
+        }
+
+        /**
+         * Switch to postcopy after the first pass instead of iterating until the rest fits the downtime
+         */
+        public boolean isPostcopy() {
+            return postcopy;
+        }
+
+        /**
+         * Throttle the guest's vCPUs while it dirties memory faster than it is sent
+         */
+        public boolean isAutoConverge() {
+            return autoConverge;
+        }
+
+        /**
+         * Parallel connections for RAM; 0 for a single stream
+         */
+        public int getMultifdChannels() {
+            return multifdChannels;
+        }
+
+        /**
+         * 0 for no cap
+         */
+        public int getMaxBandwidthMBps() {
+            return maxBandwidthMBps;
+        }
+
+        /**
+         * Longest pause of the guest QEMU may plan for the switch-over
+         */
+        public int getDowntimeLimitMs() {
+            return downtimeLimitMs;
+        }
+
+        /**
+         * Returns null if QEMU accepts the options, otherwise why not
+         */
+        public String validate() {
+            if (multifdChannels < 0 || multifdChannels > 255) {
+                return "multifd channels must be between 0 and 255";
+            }
+            if (postcopy && multifdChannels > 0) {
+                return "postcopy cannot be combined with multifd channels";
+            }
+            if (maxBandwidthMBps < 0) {
+                return "the bandwidth cap cannot be negative";
+            }
+            if (downtimeLimitMs < 1 || downtimeLimitMs > 2000000) {
+                return "the downtime limit must be between 1 and 2000000 ms";
+            }
+            return null;
+        }
+
+        List<Object> toCapabilities() {
+            List<Object> capabilities = new ArrayList<>();
+            capabilities.add(QemuJson.object("capability", "postcopy-ram", "state", postcopy));
+            capabilities.add(QemuJson.object("capability", "auto-converge", "state", autoConverge));
+            capabilities.add(QemuJson.object("capability", "multifd", "state", multifdChannels > 0));
+            return capabilities;
+        }
+
+        Map<String, Object> toSourceParameters() {
+            Map<String, Object> parameters = QemuJson.object(
+                "max-bandwidth", maxBandwidthMBps > 0 ? maxBandwidthMBps * MB : UNLIMITED_BANDWIDTH,
+                "downtime-limit", (long) downtimeLimitMs);
+            if (multifdChannels > 0) {
+                parameters.put("multifd-channels", (long) multifdChannels);
+            }
+            return parameters;
+        }
+
+        /**
+         * Short summary for messages and the journal
+         */
+        public String describe() {
+            StringBuilder text = new StringBuilder(postcopy ? "postcopy" : "precopy");
+            if (autoConverge) {
+                text.append(", auto-converge");
+            }
+            if (multifdChannels > 0) {
+                text.append(", ").append(multifdChannels).append(" channels");
+            }
+            text.append(", ").append(maxBandwidthMBps > 0 ? maxBandwidthMBps + " MB/s" : "no bandwidth cap");
+            text.append(", downtime ").append(downtimeLimitMs).append(" ms");
+            return text.toString();
+        }
+    }
+
+    /**
+     * One query-migrate reply
+     */
+    public static class Progress {
+        private final String status;
+        private final long totalBytes;
+        private final long transferredBytes;
+        private final long remainingBytes;
+        private final double mbps;
+        private final long dirtySyncCount;
+        private final long expectedDowntimeMs;
+        private final long downtimeMs;
+        private final long totalTimeMs;
+        private final String error;
+
+        public Progress(String status, long totalBytes, long transferredBytes, long remainingBytes, double mbps,
+                        long dirtySyncCount, long expectedDowntimeMs, long downtimeMs, long totalTimeMs,
+                        String error) {
+            this.status = status;
+            this.totalBytes = totalBytes;
+            this.transferredBytes = transferredBytes;
+            this.remainingBytes = remainingBytes;
+            this.mbps = mbps;
+            this.dirtySyncCount = dirtySyncCount;
+            this.expectedDowntimeMs = expectedDowntimeMs;
+            this.downtimeMs = downtimeMs;
+            this.totalTimeMs = totalTimeMs;
+            this.error = error;
+        }
+
+        static Progress parse(Map<String, Object> info) {
+            Map<String, Object> ram = QemuJson.getObject(info, "ram");
+            Object mbps = ram != null ? ram.get("mbps") : null;
+            String status = QemuJson.getString(info, "status");
+            return new Progress(status != null ? status : "none",
+                QemuJson.getLong(ram, "total", 0), QemuJson.getLong(ram, "transferred", 0),
+                QemuJson.getLong(ram, "remaining", 0), mbps instanceof Number ? ((Number) mbps).doubleValue() : 0,
+                QemuJson.getLong(ram, "dirty-sync-count", 0), QemuJson.getLong(info, "expected-downtime", -1),
+                QemuJson.getLong(info, "downtime", -1), QemuJson.getLong(info, "total-time", -1),
+                QemuJson.getString(info, "error-desc"));
+        }
+
+        /**
+         * QEMU's state: setup, active, postcopy-active, completed, failed, cancelled, ...
+         */
+        public String getStatus() {
+            return status;
+        }
+
+        public long getTotalBytes() {
+            return totalBytes;
+        }
+
+        public long getTransferredBytes() {
+            return transferredBytes;
+        }
+
+        public long getRemainingBytes() {
+            return remainingBytes;
+        }
+
+        /**
+         * Current transfer rate in megabits per second
+         */
+        public double getMbps() {
+            return mbps;
+        }
+
+        /**
+         * How often the dirty page log was synced; one more with every pass over RAM
+         */
+        public long getDirtySyncCount() {
+            return dirtySyncCount;
+        }
+
+        /**
+         * -1 while unknown
+         */
+        public long getExpectedDowntimeMs() {
+            return expectedDowntimeMs;
+        }
+
+        /**
+         * The actual pause of the guest, -1 until completed
+         */
+        public long getDowntimeMs() {
+            return downtimeMs;
+        }
+
+        public long getTotalTimeMs() {
+            return totalTimeMs;
+        }
+
+        public String getError() {
+            return error;
+        }
+
+        public boolean isPostcopy() {
+            return status.startsWith("postcopy");
+        }
+
+        /**
+         * Share of RAM already sent in the current pass
+         */
+        public int getPercent() {
+            if (totalBytes <= 0) {
+                return "completed".equals(status) ? 100 : 0;
+            }
+            return (int) Math.max(0, Math.min(100, (totalBytes - remainingBytes) * 100 / totalBytes));
+        }
+
+        /**
+         * One line for progress displays
+         */
+        public String describe() {
+            if ("completed".equals(status)) {
+                return String.format("Completed in %.1f s, guest paused for %d ms", totalTimeMs / 1000.0,
+                    downtimeMs);
+            }
+            StringBuilder text = new StringBuilder(status);
+            if (totalBytes > 0) {
+                // Pages dirtied meanwhile are sent again, so more than the total may have been sent
+                text.append(String.format(": %d MB sent, %d of %d MB left, %.0f Mbit/s, pass %d",
+                    transferredBytes / MB, remainingBytes / MB, totalBytes / MB, mbps, Math.max(1, dirtySyncCount)));
+            }
+            if (expectedDowntimeMs >= 0 && !isPostcopy()) {
+                text.append(", expected downtime ").append(expectedDowntimeMs).append(" ms");
+            }
+            return text.toString();
+        }
+    }
+
+    public interface Listener {
+        void progress(Progress progress);
+    }
+
+    private final QemuMonitorClient source;
+    private final Options options;
+    private volatile boolean cancelRequested;
+    private volatile boolean postcopyStarted;
+
+    public QemuMigration(QemuMonitorClient source, Options options) {
+        this.source = source;
+        this.options = options;
+    }
+
+    /**
+     * Gives the target the same capabilities as the source and has it listen on the URI,
+     * e.g. "tcp:0.0.0.0:49152". The target must have been started with "-incoming defer".
+     */
+    public static void prepareIncoming(QemuMonitorClient target, Options options, String uri) throws IOException {
+        target.execute("migrate-set-capabilities", QemuJson.object("capabilities", options.toCapabilities()));
+        if (options.getMultifdChannels() > 0) {
+            target.execute("migrate-set-parameters",
+                QemuJson.object("multifd-channels", (long) options.getMultifdChannels()));
+        }
+        target.execute("migrate-incoming", QemuJson.object("uri", uri));
+    }
+
+    /**
+     * Waits on the target until the guest has arrived. Fails if the migration failed,
+     * in which case QEMU exits and the guest stays on the source.
+     */
+    public static Progress awaitIncoming(QemuMonitorClient target, Listener listener) throws IOException {
+        while (true) {
+            Progress progress = Progress.parse(target.executeForObject("query-migrate", null));
+            if (listener != null) {
+                listener.progress(progress);
+            }
+            if ("completed".equals(progress.getStatus())) {
+                return progress;
+            }
+            if ("failed".equals(progress.getStatus())) {
+                throw new IOException("Incoming migration failed"
+                    + (progress.getError() != null ? ": " + progress.getError() : ""));
+            }
+            sleep();
+        }
+    }
+
+    /**
+     * The versioned machine type the VM runs, e.g. "pc-i440fx-8.2". The target must use the
+     * same one; an alias like "pc" may stand for a newer machine in another QEMU build.
+     */
+    public static String queryMachineType(QemuMonitorClient client) throws IOException {
+        Object type = client.execute("qom-get", QemuJson.object("path", "/machine", "property", "type"));
+        String name = type != null ? type.toString() : "";
+        return name.endsWith("-machine") ? name.substring(0, name.length() - "-machine".length()) : name;
+    }
+
+    /**
+     * Migrates to the target listening on the URI, reporting every poll to the listener, and returns
+     * once the target runs the guest. The source is then paused and can be quit. Fails if QEMU gives
+     * up or the migration is cancelled, leaving the guest running on the source; an interrupted
+     * caller should cancel, since QEMU carries on by itself.
+     */
+    public Progress run(String uri, Listener listener) throws IOException {
+        source.execute("migrate-set-capabilities", QemuJson.object("capabilities", options.toCapabilities()));
+        source.execute("migrate-set-parameters", options.toSourceParameters());
+        source.execute("migrate", QemuJson.object("uri", uri));
+        while (true) {
+            Progress progress = Progress.parse(source.executeForObject("query-migrate", null));
+            if (listener != null) {
+                listener.progress(progress);
+            }
+            switch (progress.getStatus()) {
+                case "completed":
+                    return progress;
+                case "failed":
+                    throw new IOException("Migration failed"
+                        + (progress.getError() != null ? ": " + progress.getError() : ""));
+                case "cancelled":
+                    throw new IOException("Migration cancelled");
+                case "active":
+                    if (options.isPostcopy() && !postcopyStarted && !cancelRequested
+                            && progress.getDirtySyncCount() >= POSTCOPY_AFTER_SYNCS) {
+                        source.execute("migrate-start-postcopy");
+                        postcopyStarted = true;
+                    }
+                    break;
+                default:
+                    break;
+            }
+            sleep();
+        }
+    }
+
+    /**
+     * Asks QEMU to abort; {@link #run} then fails and the guest stays on the source.
+     * Refused once postcopy started, since the target runs the guest from then on.
+     */
+    public void cancel() throws IOException {
+        if (postcopyStarted) {
+            throw new IOException("The target already runs the guest in postcopy");
+        }
+        cancelRequested = true;
+        source.execute("migrate_cancel");
+    }
+
+    public boolean isPostcopyStarted() {
+        return postcopyStarted;
+    }
+
+    private static void sleep() throws InterruptedIOException {
+        try {
+            Thread.sleep(POLL_INTERVAL_MS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Migration interrupted");
+        }
+    }
+}
@@ -0,0 +1,243 @@
+package com.qemumanager;
+
+import javax.swing.*;
+import java.awt.*;
+
+/**
+ * Asks where and how to live-migrate a running VM, or, on the receiving
+ * manager, how to wait for a VM sent from another host
+ */
+public class QemuMigrationDialog extends JDialog {
+    private final boolean incoming;
+    private boolean confirmed = false;
+
+    // Form components
+    private JRadioButton localRadio;
+    private JRadioButton remoteRadio;
+    private JTextField hostField;
+    private JSpinner portSpinner;
+    private JTextField machineTypeField;
+    private JCheckBox postcopyCheckBox;
+    private JCheckBox autoConvergeCheckBox;
+    private JSpinner channelsSpinner;
+    private JSpinner bandwidthSpinner;
+    private JSpinner downtimeSpinner;
+
+    /**
+     * For an outgoing migration, machineType is the one the source runs (shown so it can be
+     * entered on the receiving host); for an incoming one it is ignored
+     */
+    public QemuMigrationDialog(JFrame parent, QemuVm vm, boolean incoming, String machineType) {
+        super(parent, (incoming ? "Receive Migration - " : "Migrate - ") + vm.getName(), true);
+        this.incoming = incoming;
+        initializeUI(machineType);
+    }
+
+    private void initializeUI(String machineType) {
+        setSize(560, 480);
+        setLocationRelativeTo(getParent());
+        setDefaultCloseOperation(DISPOSE_ON_CLOSE);
+
+        JPanel mainPanel = new JPanel(new BorderLayout());
+        mainPanel.add(createFormPanel(machineType), BorderLayout.CENTER);
+        mainPanel.add(createButtonPanel(), BorderLayout.SOUTH);
+        setContentPane(mainPanel);
+    }
+
+    private JPanel createFormPanel(String machineType) {
+        QemuSettings settings = QemuSettings.getInstance();
+        JPanel panel = new JPanel(new GridBagLayout());
+        GridBagConstraints gbc = new GridBagConstraints();
+        gbc.insets = new Insets(5, 10, 5, 10);
+        gbc.anchor = GridBagConstraints.WEST;
+
+        int row = 0;
+
+        portSpinner = new JSpinner(new SpinnerNumberModel(settings.getMigrationPort(), 1, 65535, 1));
+        portSpinner.setEditor(new JSpinner.NumberEditor(portSpinner, "#"));
+        if (incoming) {
+            // Listen port
+            gbc.gridx = 0; gbc.gridy = row;
+            panel.add(new JLabel("Listen on:"), gbc);
+            gbc.gridx = 1; gbc.fill = GridBagConstraints.HORIZONTAL; gbc.weightx = 1.0;
+            JPanel listenPanel = new JPanel(new FlowLayout(FlowLayout.LEFT, 0, 0));
+            listenPanel.add(new JLabel(settings.getMigrationListenAddress() + " port "));
+            listenPanel.add(portSpinner);
+            panel.add(listenPanel, gbc);
+
+            row++;
+
+            // Machine type of the sender
+            gbc.gridx = 0; gbc.gridy = row; gbc.fill = GridBagConstraints.NONE; gbc.weightx = 0;
+            panel.add(new JLabel("Machine Type:"), gbc);
+            gbc.gridx = 1; gbc.fill = GridBagConstraints.HORIZONTAL; gbc.weightx = 1.0;
+            machineTypeField = new JTextField(20);
+            machineTypeField.setToolTipText("As shown by the sending manager, e.g. pc-i440fx-8.2; empty for the default");
+            panel.add(machineTypeField, gbc);
+        } else {
+            // Destination
+            gbc.gridx = 0; gbc.gridy = row;
+            panel.add(new JLabel("Destination:"), gbc);
+            gbc.gridx = 1; gbc.fill = GridBagConstraints.HORIZONTAL; gbc.weightx = 1.0;
+            localRadio = new JRadioButton("New QEMU process on this host", true);
+            panel.add(localRadio, gbc);
+
+            row++;
+
+            gbc.gridx = 1; gbc.gridy = row;
+            JPanel remotePanel = new JPanel(new FlowLayout(FlowLayout.LEFT, 0, 0));
+            remoteRadio = new JRadioButton("Manager on host ");
+            hostField = new JTextField(14);
+            remotePanel.add(remoteRadio);
+            remotePanel.add(hostField);
+            remotePanel.add(new JLabel(" port "));
+            remotePanel.add(portSpinner);
+            panel.add(remotePanel, gbc);
+            ButtonGroup destinationGroup = new ButtonGroup();
+            destinationGroup.add(localRadio);
+            destinationGroup.add(remoteRadio);
+            localRadio.addActionListener(e -> updateDestinationFields());
+            remoteRadio.addActionListener(e -> updateDestinationFields());
+            updateDestinationFields();
+
+            row++;
+
+            // Machine type, needed by the receiving manager
+            gbc.gridx = 0; gbc.gridy = row; gbc.fill = GridBagConstraints.NONE; gbc.weightx = 0;
+            panel.add(new JLabel("Machine Type:"), gbc);
+            gbc.gridx = 1; gbc.fill = GridBagConstraints.HORIZONTAL; gbc.weightx = 1.0;
+            panel.add(new JLabel(machineType != null && !machineType.isEmpty() ? machineType : "unknown"), gbc);
+        }
+
+        row++;
+
+        // Capabilities; both sides must agree on them
+        gbc.gridx = 0; gbc.gridy = row; gbc.fill = GridBagConstraints.NONE; gbc.weightx = 0;
+        panel.add(new JLabel("Mode:"), gbc);
+        gbc.gridx = 1; gbc.fill = GridBagConstraints.HORIZONTAL; gbc.weightx = 1.0;
+        JPanel modePanel = new JPanel(new FlowLayout(FlowLayout.LEFT, 0, 0));
+        postcopyCheckBox = new JCheckBox("Postcopy ", settings.isMigrationPostcopy());
+        autoConvergeCheckBox = new JCheckBox("Auto-converge", settings.isMigrationAutoConverge());
+        modePanel.add(postcopyCheckBox);
+        modePanel.add(autoConvergeCheckBox);
+        panel.add(modePanel, gbc);
+
+        row++;
+
+        // Parallel channels
+        gbc.gridx = 0; gbc.gridy = row; gbc.fill = GridBagConstraints.NONE; gbc.weightx = 0;
+        panel.add(new JLabel("Channels:"), gbc);
+        gbc.gridx = 1; gbc.fill = GridBagConstraints.HORIZONTAL; gbc.weightx = 1.0;
+        JPanel channelsPanel = new JPanel(new FlowLayout(FlowLayout.LEFT, 0, 0));
+        channelsSpinner = new JSpinner(new SpinnerNumberModel(settings.getMigrationMultifdChannels(), 0, 255, 1));
+        channelsPanel.add(channelsSpinner);
+        channelsPanel.add(new JLabel(" multifd connections (0 for a single stream)"));
+        panel.add(channelsPanel, gbc);
+
+        row++;
+
+        // Limits, only enforced by the sender
+        gbc.gridx = 0; gbc.gridy = row; gbc.fill = GridBagConstraints.NONE; gbc.weightx = 0;
+        panel.add(new JLabel("Limits:"), gbc);
+        gbc.gridx = 1; gbc.fill = GridBagConstraints.HORIZONTAL; gbc.weightx = 1.0;
+        JPanel limitsPanel = new JPanel(new FlowLayout(FlowLayout.LEFT, 0, 0));
+        bandwidthSpinner = new JSpinner(new SpinnerNumberModel(settings.getMigrationMaxBandwidthMBps(), 0, 100000, 10));
+        downtimeSpinner = new JSpinner(new SpinnerNumberModel(settings.getMigrationDowntimeLimitMs(), 1, 2000000, 50));
+        limitsPanel.add(bandwidthSpinner);
+        limitsPanel.add(new JLabel(" MB/s (0 = no cap), downtime "));
+        limitsPanel.add(downtimeSpinner);
+        limitsPanel.add(new JLabel(" ms"));
+        bandwidthSpinner.setEnabled(!incoming);
+        downtimeSpinner.setEnabled(!incoming);
+        panel.add(limitsPanel, gbc);
+
+        row++;
+
+        // Description
+        gbc.gridx = 0; gbc.gridy = row; gbc.gridwidth = 2; gbc.fill = GridBagConstraints.BOTH; gbc.weighty = 1.0;
+        JTextArea descriptionArea = new JTextArea(incoming
+            ? "The VM is started paused, waiting for the sending manager to connect. Its disk must be on " +
+              "storage both hosts share, at the same path, and its settings must describe the same hardware.\n\n" +
+              "Choose the same mode and channels as the sender. The VM runs here once the migration completes; " +
+              "stopping it cancels the wait."
+            : "The guest keeps running while its memory is copied and pauses only for the final switch-over, " +
+              "planned to take at most the downtime limit.\n\n" +
+              "A new process on this host picks up a QEMU upgrade or changed settings. For another host, start " +
+              "Receive Migration there first with the same mode, channels and this machine type.\n\n" +
+              "Auto-converge slows down a guest that dirties memory faster than it can be sent. Postcopy instead " +
+              "switches over after the first pass and fetches the rest on demand; the migration then cannot be " +
+              "cancelled, and the guest is lost if the connection breaks.");
+        descriptionArea.setEditable(false);
+        descriptionArea.setOpaque(false);
+        descriptionArea.setFont(descriptionArea.getFont().deriveFont(11f));
+        descriptionArea.setWrapStyleWord(true);
+        descriptionArea.setLineWrap(true);
+        panel.add(descriptionArea, gbc);
+
+        return panel;
+    }
+
+    private JPanel createButtonPanel() {
+        JPanel panel = new JPanel(new FlowLayout(FlowLayout.RIGHT));
+
+        JButton okButton = new JButton(incoming ? "Receive" : "Migrate");
+        JButton cancelButton = new JButton("Cancel");
+
+        okButton.addActionListener(e -> {
+            String problem = getOptions().validate();
+            if (problem == null && !incoming && remoteRadio.isSelected() && getHost().isEmpty()) {
+                problem = "enter the host of the receiving manager";
+            }
+            if (problem != null) {
+                JOptionPane.showMessageDialog(this, "Cannot migrate: " + problem + ".",
+                    "Invalid Migration Settings", JOptionPane.ERROR_MESSAGE);
+                return;
+            }
+            confirmed = true;
+            dispose();
+        });
+        cancelButton.addActionListener(e -> dispose());
+
+        panel.add(okButton);
+        panel.add(cancelButton);
+        getRootPane().setDefaultButton(okButton);
+        return panel;
+    }
+
+    private void updateDestinationFields() {
+        hostField.setEnabled(remoteRadio.isSelected());
+        portSpinner.setEnabled(remoteRadio.isSelected());
+    }
+
+    public boolean isConfirmed() {
+        return confirmed;
+    }
+
+    /**
+     * True to migrate to a new process on this host
+     */
+    public boolean isLocal() {
+        return !incoming && localRadio.isSelected();
+    }
+
+    public String getHost() {
+        return hostField != null ? hostField.getText().trim() : "";
+    }
+
+    public int getPort() {
+        return (Integer) portSpinner.getValue();
+    }
+
+    /**
+     * Machine type entered for an incoming migration; empty for the VM's default
+     */
+    public String getMachineType() {
+        return machineTypeField != null ? machineTypeField.getText().trim() : "";
+    }
+
+    public QemuMigration.Options getOptions() {
+        return new QemuMigration.Options(postcopyCheckBox.isSelected(), autoConvergeCheckBox.isSelected(),
+            (Integer) channelsSpinner.getValue(), (Integer) bandwidthSpinner.getValue(),
+            (Integer) downtimeSpinner.getValue());
+    }
+}
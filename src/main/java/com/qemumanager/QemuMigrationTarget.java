@@ -0,0 +1,140 @@
+package com.qemumanager;
+
+import java.io.IOException;
+
+/**
+ * The ports and cgroup of a second QEMU that receives a VM by live migration on
+ * this host. While the source still runs, the target holds its own leases under
+ * "-incoming" purposes and its own group next to the VM's; once it has the guest
+ * they become the VM's, and if it does not get the guest they are given back.
+ */
+public class QemuMigrationTarget {
+    private static final String[] PURPOSES = {"vnc-incoming", "qmp-incoming", "qga-incoming", "serial-incoming",
+        "migration"};
+
+    private final QemuVm vm;
+    private final QemuPortAllocator allocator;
+    private final QemuCgroupManager cgroups;
+    private int vncPort;
+    private int qmpPort;
+    private int guestAgentPort;
+    private int serialPort;
+    private String uri;
+
+    public QemuMigrationTarget(QemuVm vm) {
+        this(vm, QemuPortAllocator.getInstance(), QemuCgroupManager.getInstance());
+    }
+
+    QemuMigrationTarget(QemuVm vm, QemuPortAllocator allocator, QemuCgroupManager cgroups) {
+        this.vm = vm;
+        this.allocator = allocator;
+        this.cgroups = cgroups;
+    }
+
+    /**
+     * Leases the target's ports next to the VM's own, and the one it listens on for the migration
+     */
+    public void allocatePorts() throws IOException {
+        try {
+            if (!vm.isVncUnixSocket()) {
+                vncPort = allocator.allocateDisplayPort(vm, "vnc-incoming");
+            }
+            qmpPort = allocator.allocateControlPort(vm, "qmp-incoming");
+            if (vm.getGuestAgentPort() > 0) {
+                guestAgentPort = allocator.allocateControlPort(vm, "qga-incoming");
+            }
+            if (vm.getSerialPort() > 0) {
+                serialPort = allocator.allocateControlPort(vm, "serial-incoming");
+            }
+            uri = "tcp:127.0.0.1:" + allocator.allocateControlPort(vm, "migration");
+        } catch (IOException e) {
+            releasePorts();
+            throw e;
+        }
+    }
+
+    /**
+     * The target's command line, started in a group of its own when the VM runs in one
+     */
+    public String[] createCommand(String machineType) throws IOException {
+        String[] command = QemuNic.wrapWithDeviceFiles(vm.generateIncomingCommand(vncPort, qmpPort, guestAgentPort,
+            serialPort, machineType), vm.getNicDeviceFiles());
+        if (QemuSettings.getInstance().isCgroupEnabled() && cgroups.isAvailable()
+                && cgroups.getVmDirectory(vm).isDirectory()) {
+            command = QemuCgroupManager.wrapCommand(command, cgroups.prepareIncoming(vm));
+        }
+        return command;
+    }
+
+    public int getVncPort() {
+        return vncPort;
+    }
+
+    public int getQmpPort() {
+        return qmpPort;
+    }
+
+    public int getGuestAgentPort() {
+        return guestAgentPort;
+    }
+
+    public int getSerialPort() {
+        return serialPort;
+    }
+
+    /**
+     * Where the target listens for the migration stream
+     */
+    public String getUri() {
+        return uri;
+    }
+
+    /**
+     * Moves the target process into the VM's group once the source has exited
+     */
+    public void adoptCgroup(long pid) throws IOException {
+        cgroups.adoptIncoming(vm, pid);
+    }
+
+    /**
+     * Makes the target's ports the VM's own and gives back the migration port
+     */
+    public void takeOver() {
+        if (!vm.isVncUnixSocket()) {
+            moveLease("vnc-incoming", "vnc", vncPort);
+            vm.setVncPort(vncPort);
+        }
+        moveLease("qmp-incoming", "qmp", qmpPort);
+        moveLease("qga-incoming", "qga", guestAgentPort);
+        moveLease("serial-incoming", "serial", serialPort);
+        allocator.release(vm, "migration");
+        vm.setQmpPort(qmpPort);
+        vm.setGuestAgentPort(guestAgentPort);
+        vm.setSerialPort(serialPort);
+    }
+
+    /**
+     * Gives back the ports of a target that did not get the VM
+     */
+    public void releasePorts() {
+        for (String purpose : PURPOSES) {
+            allocator.release(vm, purpose);
+        }
+    }
+
+    /**
+     * Removes the group of a target that did not get the VM, once its process has exited
+     */
+    public void removeCgroup() {
+        cgroups.removeIncoming(vm);
+    }
+
+    private void moveLease(String fromPurpose, String toPurpose, int port) {
+        allocator.release(vm, fromPurpose);
+        if (port > 0) {
+            allocator.reserve(vm, toPurpose, port);
+        } else {
+            allocator.release(vm, toPurpose);
+        }
+    }
+}
@@ -0,0 +1,244 @@
+package com.qemumanager;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Client for the QEMU Machine Protocol (QMP) on a local TCP socket.
+ * A reader thread matches replies to commands by id, so several threads may
+ * issue commands concurrently; asynchronous events go to the registered listeners.
+ */
+public class QemuMonitorClient implements Closeable {
+    public static final long DEFAULT_TIMEOUT_MS = 10000;
+
+    public interface EventListener {
+        void eventReceived(String event, Map<String, Object> data);
+    }
+
+    /**
+     * Error reply from QEMU, carrying the QMP error class (e.g. CommandNotFound)
+     */
+    public static class QmpException extends IOException {
+        private final String errorClass;
+
+        public QmpException(String errorClass, String description) {
+            super(description);
+            this.errorClass = errorClass;
+        }
+
+        public String getErrorClass() {
+            return errorClass;
+        }
+    }
+
+    private final String name;
+    private final Socket socket;
+    private final BufferedReader reader;
+    private final Writer writer;
+    private final Map<Long, CompletableFuture<Object>> pending = new ConcurrentHashMap<>();
+    private final List<EventListener> listeners = new CopyOnWriteArrayList<>();
+    private final AtomicLong nextId = new AtomicLong(1);
+    private volatile boolean closed;
+
+    private QemuMonitorClient(String name, Socket socket) throws IOException {
+        this.name = name;
+        this.socket = socket;
+        this.reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+        this.writer = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Connects, reads the greeting and leaves capabilities negotiation mode
+     */
+    public static QemuMonitorClient connect(String name, String host, int port, int timeoutMs) throws IOException {
+        Socket socket = new Socket();
+        try {
+            socket.connect(new InetSocketAddress(host, port), timeoutMs);
+            socket.setSoTimeout(timeoutMs);
+            QemuMonitorClient client = new QemuMonitorClient(name, socket);
+            client.negotiate();
+            socket.setSoTimeout(0);
+            client.startReader();
+            return client;
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+    }
+
+    private void negotiate() throws IOException {
+        String greeting = reader.readLine();
+        if (greeting == null || !greeting.contains("\"QMP\"")) {
+            throw new IOException("Not a QMP monitor: " + greeting);
+        }
+        send(QemuJson.object("execute", "qmp_capabilities"));
+        while (true) {
+            String line = reader.readLine();
+            if (line == null) {
+                throw new EOFException("Monitor closed during negotiation");
+            }
+            Map<String, Object> message = QemuJson.parseObject(line);
+            if (message.containsKey("error")) {
+                throw toException(QemuJson.getObject(message, "error"));
+            }
+            if (message.containsKey("return")) {
+                return;
+            }
+        }
+    }
+
+    private void startReader() {
+        Thread thread = new Thread(this::readLoop, "QMP " + name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private void readLoop() {
+        String reason = "Monitor connection closed";
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.trim().isEmpty()) {
+                    continue;
+                }
+                try {
+                    dispatch(QemuJson.parseObject(line));
+                } catch (IllegalArgumentException e) {
+                    System.err.println("Ignoring malformed QMP message from " + name + ": " + e.getMessage());
+                }
+            }
+        } catch (IOException e) {
+            if (!closed) {
+                reason = e.getMessage();
+            }
+        } finally {
+            closed = true;
+            IOException failure = new EOFException(reason);
+            for (CompletableFuture<Object> future : pending.values()) {
+                future.completeExceptionally(failure);
+            }
+            pending.clear();
+            closeQuietly();
+        }
+    }
+
+    private void dispatch(Map<String, Object> message) {
+        String event = QemuJson.getString(message, "event");
+        if (event != null) {
+            Map<String, Object> data = QemuJson.getObject(message, "data");
+            for (EventListener listener : listeners) {
+                try {
+                    listener.eventReceived(event, data);
+                } catch (RuntimeException e) {
+                    System.err.println("QMP event listener failed: " + e.getMessage());
+                }
+            }
+            return;
+        }
+        Object id = message.get("id");
+        CompletableFuture<Object> future = id instanceof Number ? pending.remove(((Number) id).longValue()) : null;
+        if (future == null) {
+            return; // Reply to a command that already timed out
+        }
+        if (message.containsKey("error")) {
+            future.completeExceptionally(toException(QemuJson.getObject(message, "error")));
+        } else {
+            future.complete(message.get("return"));
+        }
+    }
+
+    public Object execute(String command) throws IOException {
+        return execute(command, null, DEFAULT_TIMEOUT_MS);
+    }
+
+    public Object execute(String command, Map<String, Object> arguments) throws IOException {
+        return execute(command, arguments, DEFAULT_TIMEOUT_MS);
+    }
+
+    /**
+     * Runs a command and returns the value of its "return" member
+     */
+    public Object execute(String command, Map<String, Object> arguments, long timeoutMs) throws IOException {
+        if (closed) {
+            throw new EOFException("Monitor connection closed");
+        }
+        long id = nextId.getAndIncrement();
+        CompletableFuture<Object> future = new CompletableFuture<>();
+        pending.put(id, future);
+
+        Map<String, Object> request = QemuJson.object("execute", command, "id", id);
+        if (arguments != null) {
+            request.put("arguments", arguments);
+        }
+        try {
+            send(request);
+            return future.get(timeoutMs, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            throw new IOException(command + " timed out after " + timeoutMs + " ms");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException(command + " interrupted");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        } finally {
+            pending.remove(id);
+        }
+    }
+
+    /**
+     * Runs a command whose reply is a JSON object
+     */
+    @SuppressWarnings("unchecked")
+    public Map<String, Object> executeForObject(String command, Map<String, Object> arguments) throws IOException {
+        Object result = execute(command, arguments);
+        if (!(result instanceof Map)) {
+            throw new IOException(command + " returned unexpected reply");
+        }
+        return (Map<String, Object>) result;
+    }
+
+    public void addEventListener(EventListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeEventListener(EventListener listener) {
+        listeners.remove(listener);
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        closeQuietly();
+    }
+
+    private synchronized void send(Map<String, Object> message) throws IOException {
+        writer.write(QemuJson.write(message));
+        writer.write("\r\n");
+        writer.flush();
+    }
+
+    private void closeQuietly() {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // Already closed
+        }
+    }
+
+    private static QmpException toException(Map<String, Object> error) {
+        return new QmpException(QemuJson.getString(error, "class"), QemuJson.getString(error, "desc"));
+    }
+}
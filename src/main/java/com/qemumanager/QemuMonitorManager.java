@@ -0,0 +1,82 @@
+package com.qemumanager;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Keeps one QMP connection per running VM, opened on first use.
+ * QEMU needs a moment to open the monitor socket after launch, so callers
+ * should treat a connection failure shortly after start as transient.
+ */
+public class QemuMonitorManager {
+    private static QemuMonitorManager instance;
+
+    private static final int CONNECT_TIMEOUT_MS = 2000;
+
+    // Guest lifecycle events worth journaling; frequent ones like RTC_CHANGE are left out
+    private static final Set<String> JOURNALED_EVENTS = new HashSet<>(Arrays.asList(
+        "SHUTDOWN", "POWERDOWN", "RESET", "STOP", "RESUME", "SUSPEND", "WAKEUP",
+        "GUEST_PANICKED", "WATCHDOG", "BLOCK_IO_ERROR"));
+
+    private final Map<QemuVm, QemuMonitorClient> clients = new IdentityHashMap<>();
+
+    private QemuMonitorManager() {
+    }
+
+    public static synchronized QemuMonitorManager getInstance() {
+        if (instance == null) {
+            instance = new QemuMonitorManager();
+        }
+        return instance;
+    }
+
+    /**
+     * Returns the open monitor connection of the VM, connecting if necessary
+     */
+    public synchronized QemuMonitorClient getClient(QemuVm vm) throws IOException {
+        QemuMonitorClient client = clients.get(vm);
+        if (client != null && !client.isClosed()) {
+            return client;
+        }
+        if (vm.getQmpPort() <= 0) {
+            throw new IOException("VM " + vm.getName() + " has no monitor socket");
+        }
+        client = QemuMonitorClient.connect(vm.getName(), "127.0.0.1", vm.getQmpPort(), CONNECT_TIMEOUT_MS);
+        String name = vm.getName();
+        client.addEventListener((event, data) -> {
+            if (JOURNALED_EVENTS.contains(event)) {
+                QemuEventJournal.getInstance().record(QemuEventJournal.Type.GUEST_EVENT, name,
+                    QemuEventJournal.ACTOR_GUEST, -1, data != null && !data.isEmpty() ? event + " " + QemuJson.write(data) : event);
+            }
+        });
+        clients.put(vm, client);
+        return client;
+    }
+
+    /**
+     * Changes the limits of the VM's disk throttle group in place. Only works if the VM
+     * was started with throttling, since the throttle filter cannot be inserted later.
+     */
+    public void setDiskThrottle(QemuVm vm, QemuDiskThrottle throttle) throws IOException {
+        // block_set_io_throttle sets the device's own legacy limits, which would stack on top
+        // of the filter; the group object's limits property is what the filter enforces
+        getClient(vm).execute("qom-set", QemuJson.object(
+            "path", "/objects/" + vm.getThrottleObjectId(),
+            "property", "limits",
+            "value", throttle.toLimits()));
+    }
+
+    /**
+     * Closes the monitor connection of the VM, e.g. once its process has exited
+     */
+    public synchronized void disconnect(QemuVm vm) {
+        QemuMonitorClient client = clients.remove(vm);
+        if (client != null) {
+            client.close();
+        }
+    }
+}
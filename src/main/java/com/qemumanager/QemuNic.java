@@ -0,0 +1,455 @@
+package com.qemumanager;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.SecureRandom;
+import java.util.*;
+
+/**
+ * One network interface of a VM and the host backend it is wired to.
+ * User-mode networking needs nothing on the host but is slow; the others
+ * go through the host kernel and can use vhost-net and several queues:
+ * a tap device created beforehand (ip tuntap add ... user <you>), a bridge
+ * joined through QEMU's setuid bridge helper, or a macvtap device whose
+ * /dev/tapN character device is opened by the launcher and passed to QEMU
+ * as a file descriptor. Stored as "backend=tap,model=virtio-net-pci,..."
+ */
+public class QemuNic {
+    public enum Backend {
+        USER("user", "User (NAT)"),
+        TAP("tap", "TAP Interface"),
+        BRIDGE("bridge", "Bridge Network"),
+        MACVTAP("macvtap", "Macvtap");
+
+        private final String id;
+        private final String description;
+
+        Backend(String id, String description) {
+            this.id = id;
+            this.description = description;
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public String getDescription() {
+            return description;
+        }
+
+        public static Backend fromId(String id) {
+            for (Backend backend : values()) {
+                if (backend.id.equalsIgnoreCase(id)) {
+                    return backend;
+                }
+            }
+            return null;
+        }
+
+        @Override
+        public String toString() {
+            return id;
+        }
+    }
+
+    public static final String[] MODELS = {"virtio-net-pci", "e1000", "rtl8139"};
+    public static final int MAX_QUEUES = 16;
+
+    // QEMU's own prefix, locally administered
+    private static final String MAC_PREFIX = "52:54:00";
+    private static final SecureRandom RANDOM = new SecureRandom();
+    private static final int IFF_MULTI_QUEUE = 0x0100;
+
+    private Backend backend;
+    private String model;
+    private String macAddress;
+    private String hostInterface; // tap or macvtap device, or bridge name
+    private int queues;
+    private boolean vhost;
+
+    public QemuNic(Backend backend) {
+        this.backend = backend;
+        this.model = "e1000";
+        this.macAddress = "";
+        this.hostInterface = "";
+        this.queues = 1;
+        this.vhost = false;
+    }
+
+    public QemuNic(QemuNic other) {
+        this.backend = other.backend;
+        this.model = other.model;
+        this.macAddress = other.macAddress;
+        this.hostInterface = other.hostInterface;
+        this.queues = other.queues;
+        this.vhost = other.vhost;
+    }
+
+    /**
+     * Parses one stored NIC; null if the backend is unknown
+     */
+    public static QemuNic parse(String spec) {
+        Map<String, String> options = new HashMap<>();
+        for (String option : spec.split(",")) {
+            int eq = option.indexOf('=');
+            if (eq > 0) {
+                options.put(option.substring(0, eq).trim(), option.substring(eq + 1).trim());
+            }
+        }
+        Backend backend = Backend.fromId(options.getOrDefault("backend", ""));
+        if (backend == null) {
+            return null;
+        }
+        QemuNic nic = new QemuNic(backend);
+        nic.model = options.getOrDefault("model", nic.model);
+        nic.macAddress = options.getOrDefault("mac", "");
+        nic.hostInterface = options.getOrDefault("interface", "");
+        try {
+            nic.queues = Math.max(1, Integer.parseInt(options.getOrDefault("queues", "1")));
+        } catch (NumberFormatException e) {
+            nic.queues = 1;
+        }
+        nic.vhost = Boolean.parseBoolean(options.getOrDefault("vhost", "false"));
+        return nic;
+    }
+
+    /**
+     * Parses the stored NICs of a VM, separated by semicolons
+     */
+    public static List<QemuNic> parseList(String specs) {
+        List<QemuNic> nics = new ArrayList<>();
+        for (String spec : specs.split(";")) {
+            if (!spec.trim().isEmpty()) {
+                QemuNic nic = parse(spec);
+                if (nic != null) {
+                    nics.add(nic);
+                }
+            }
+        }
+        return nics;
+    }
+
+    public String format() {
+        return "backend=" + backend.getId() + ",model=" + model + ",mac=" + macAddress
+            + ",interface=" + hostInterface + ",queues=" + queues + ",vhost=" + vhost;
+    }
+
+    public static String formatList(List<QemuNic> nics) {
+        StringBuilder specs = new StringBuilder();
+        for (QemuNic nic : nics) {
+            specs.append(specs.length() > 0 ? ";" : "").append(nic.format());
+        }
+        return specs.toString();
+    }
+
+    public Backend getBackend() {
+        return backend;
+    }
+
+    public void setBackend(Backend backend) {
+        this.backend = backend;
+    }
+
+    public String getModel() {
+        return model;
+    }
+
+    public void setModel(String model) {
+        this.model = model;
+    }
+
+    public String getMacAddress() {
+        return macAddress;
+    }
+
+    public void setMacAddress(String macAddress) {
+        this.macAddress = macAddress != null ? macAddress.trim().toLowerCase() : "";
+    }
+
+    /**
+     * The tap or macvtap device, or the bridge, depending on the backend
+     */
+    public String getHostInterface() {
+        return hostInterface;
+    }
+
+    public void setHostInterface(String hostInterface) {
+        this.hostInterface = hostInterface != null ? hostInterface.trim() : "";
+    }
+
+    public int getQueues() {
+        return queues;
+    }
+
+    public void setQueues(int queues) {
+        this.queues = queues;
+    }
+
+    public boolean isVhost() {
+        return vhost;
+    }
+
+    public void setVhost(boolean vhost) {
+        this.vhost = vhost;
+    }
+
+    /**
+     * Checks the settings on their own; returns null if they are usable, otherwise why not
+     */
+    public String validate() {
+        if (!Arrays.asList(MODELS).contains(model)) {
+            return "unknown model " + model;
+        }
+        if (!macAddress.isEmpty() && !macAddress.matches("([0-9a-f]{2}:){5}[0-9a-f]{2}")) {
+            return "MAC address " + macAddress + " is not of the form 52:54:00:12:34:56";
+        }
+        if (!macAddress.isEmpty() && (Integer.parseInt(macAddress.substring(0, 2), 16) & 1) != 0) {
+            return "MAC address " + macAddress + " is a multicast address";
+        }
+        if (queues < 1 || queues > MAX_QUEUES) {
+            return "queues must be between 1 and " + MAX_QUEUES;
+        }
+        if (backend == Backend.USER) {
+            if (vhost || queues > 1) {
+                return "vhost-net and multiqueue need a tap, bridge or macvtap backend";
+            }
+            return null;
+        }
+        if (!hostInterface.matches("[A-Za-z0-9_.-]{1,15}")) {
+            return backend == Backend.BRIDGE ? "enter the name of the host bridge, e.g. br0"
+                : "enter the name of the host " + backend.getId() + " device, e.g. " + backend.getId() + "0";
+        }
+        if ((vhost || queues > 1) && !model.startsWith("virtio")) {
+            return "vhost-net and multiqueue need the virtio-net-pci model";
+        }
+        return null;
+    }
+
+    /**
+     * Checks that the host side exists and is usable by this user; null if so, otherwise why not
+     */
+    public String checkHost() {
+        return checkHost(new File("/sys"), new File("/dev"));
+    }
+
+    String checkHost(File sysRoot, File devRoot) {
+        if (backend == Backend.USER) {
+            return null;
+        }
+        File netDir = new File(sysRoot, "class/net/" + hostInterface);
+        if (!netDir.exists()) {
+            return backend.getDescription() + " " + hostInterface + " does not exist on the host";
+        }
+        if (vhost && !canReadWrite(new File(devRoot, "vhost-net"))) {
+            return "/dev/vhost-net is not accessible; load vhost_net and grant access, or turn vhost off";
+        }
+        switch (backend) {
+            case TAP: {
+                if (!canReadWrite(new File(devRoot, "net/tun"))) {
+                    return "/dev/net/tun is not accessible";
+                }
+                String flags = readLine(new File(netDir, "tun_flags"));
+                if (flags == null) {
+                    return hostInterface + " is not a tap device";
+                }
+                if (queues > 1 && (parseFlags(flags) & IFF_MULTI_QUEUE) == 0) {
+                    return "tap device " + hostInterface + " was created without multi_queue";
+                }
+                return null;
+            }
+            case BRIDGE:
+                if (!new File(netDir, "bridge").isDirectory()) {
+                    return hostInterface + " is not a bridge";
+                }
+                return null;
+            case MACVTAP: {
+                File tapDevice = getMacvtapDevice(sysRoot, devRoot);
+                if (tapDevice == null) {
+                    return hostInterface + " is not a macvtap device";
+                }
+                if (!canReadWrite(tapDevice)) {
+                    return tapDevice + " is not accessible; grant this user read and write access";
+                }
+                return null;
+            }
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * The character device of a macvtap interface, /dev/tap<ifindex>; null if it has none
+     */
+    File getMacvtapDevice(File sysRoot, File devRoot) {
+        File netDir = new File(sysRoot, "class/net/" + hostInterface);
+        String ifindex = readLine(new File(netDir, "ifindex"));
+        if (ifindex == null || !new File(netDir, "macvtap/tap" + ifindex).exists()) {
+            return null;
+        }
+        return new File(devRoot, "tap" + ifindex);
+    }
+
+    /**
+     * Number of file descriptors the launcher opens for this NIC
+     */
+    int getFileDescriptorCount() {
+        return backend == Backend.MACVTAP ? queues * (vhost ? 2 : 1) : 0;
+    }
+
+    /**
+     * Files to open, in descriptor order: a macvtap queue per open, then a vhost-net per queue
+     */
+    List<String> getDeviceFiles(File sysRoot, File devRoot) throws IOException {
+        if (backend != Backend.MACVTAP) {
+            return Collections.emptyList();
+        }
+        File tapDevice = getMacvtapDevice(sysRoot, devRoot);
+        if (tapDevice == null) {
+            throw new IOException(hostInterface + " is not a macvtap device");
+        }
+        List<String> files = new ArrayList<>();
+        for (int i = 0; i < queues; i++) {
+            files.add(tapDevice.getPath());
+        }
+        if (vhost) {
+            for (int i = 0; i < queues; i++) {
+                files.add(new File(devRoot, "vhost-net").getPath());
+            }
+        }
+        return files;
+    }
+
+    /**
+     * Adds the -netdev and -device arguments; firstFd is the first descriptor of a macvtap NIC
+     */
+    void addArguments(List<String> command, int index, int firstFd, String bridgeHelper) {
+        String id = "net" + index;
+        StringBuilder netdev = new StringBuilder();
+        switch (backend) {
+            case USER:
+                netdev.append("user,id=").append(id);
+                break;
+            case TAP:
+                netdev.append("tap,id=").append(id).append(",ifname=").append(hostInterface)
+                    .append(",script=no,downscript=no");
+                break;
+            case BRIDGE:
+                // A tap created by the helper, unlike -netdev bridge this also takes vhost and queues
+                netdev.append("tap,id=").append(id).append(",br=").append(hostInterface);
+                if (bridgeHelper != null && !bridgeHelper.isEmpty()) {
+                    netdev.append(",helper=").append(QemuVm.escapeOptionValue(bridgeHelper));
+                }
+                break;
+            case MACVTAP:
+                netdev.append("tap,id=").append(id);
+                netdev.append(queues > 1 ? ",fds=" + fdList(firstFd, queues) : ",fd=" + firstFd);
+                if (vhost) {
+                    netdev.append(queues > 1 ? ",vhostfds=" + fdList(firstFd + queues, queues)
+                        : ",vhostfd=" + (firstFd + 1));
+                }
+                break;
+            default:
+                break;
+        }
+        if (backend != Backend.USER) {
+            if (vhost) {
+                netdev.append(",vhost=on");
+            }
+            if (queues > 1 && backend != Backend.MACVTAP) {
+                netdev.append(",queues=").append(queues);
+            }
+        }
+        command.add("-netdev");
+        command.add(netdev.toString());
+
+        StringBuilder device = new StringBuilder(model).append(",netdev=").append(id);
+        if (!macAddress.isEmpty()) {
+            device.append(",mac=").append(macAddress);
+        }
+        if (queues > 1) {
+            // One vector per queue pair direction, plus config and control
+            device.append(",mq=on,vectors=").append(2 * queues + 2);
+        }
+        command.add("-device");
+        command.add(device.toString());
+    }
+
+    private static String fdList(int first, int count) {
+        StringBuilder fds = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            fds.append(i > 0 ? ":" : "").append(first + i);
+        }
+        return fds.toString();
+    }
+
+    /**
+     * Wraps a command in a shell that opens the files on descriptors 3, 4, ... and then execs it
+     */
+    public static String[] wrapWithDeviceFiles(String[] command, List<String> files) {
+        if (files.isEmpty()) {
+            return command;
+        }
+        StringBuilder script = new StringBuilder("exec \"$@\"");
+        for (int i = 0; i < files.size(); i++) {
+            script.append(' ').append(3 + i).append("<>'").append(files.get(i).replace("'", "'\\''")).append('\'');
+        }
+        String[] wrapped = new String[command.length + 4];
+        wrapped[0] = "/bin/sh";
+        wrapped[1] = "-c";
+        wrapped[2] = script.toString();
+        wrapped[3] = "qemu";
+        System.arraycopy(command, 0, wrapped, 4, command.length);
+        return wrapped;
+    }
+
+    /**
+     * Returns a random MAC address with QEMU's prefix that is not in use
+     */
+    public static String generateMacAddress(Set<String> inUse) {
+        while (true) {
+            String mac = String.format("%s:%02x:%02x:%02x", MAC_PREFIX,
+                RANDOM.nextInt(256), RANDOM.nextInt(256), RANDOM.nextInt(256));
+            // QEMU's default address; a VM without an explicit MAC would clash with it
+            if (!mac.equals("52:54:00:12:34:56") && !inUse.contains(mac)) {
+                return mac;
+            }
+        }
+    }
+
+    private static boolean canReadWrite(File file) {
+        return file.exists() && file.canRead() && file.canWrite();
+    }
+
+    private static int parseFlags(String flags) {
+        try {
+            return Integer.decode(flags.trim());
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private static String readLine(File file) {
+        try {
+            List<String> lines = Files.readAllLines(file.toPath(), StandardCharsets.US_ASCII);
+            return lines.isEmpty() ? null : lines.get(0).trim();
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    public String describe() {
+        StringBuilder text = new StringBuilder(backend.getDescription());
+        if (backend != Backend.USER) {
+            text.append(' ').append(hostInterface);
+        }
+        if (vhost) {
+            text.append(", vhost");
+        }
+        if (queues > 1) {
+            text.append(", ").append(queues).append(" queues");
+        }
+        return text.toString();
+    }
+}
@@ -0,0 +1,257 @@
+package com.qemumanager;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+
+/**
+ * Hands out TCP ports for VM display and control channels.
+ * A port is only leased if no other managed VM holds it and nothing on the host
+ * is listening on it. Assignments are sticky: a VM gets its previous port back
+ * when that port is still free. Leases belong to the VM object rather than
+ * its name, so renaming a running VM keeps them; the sticky assignments
+ * follow the name.
+ */
+public class QemuPortAllocator {
+    private static QemuPortAllocator instance;
+
+    private static final String[] PROC_NET_TABLES = {"/proc/net/tcp", "/proc/net/tcp6"};
+    private static final String TCP_LISTEN_STATE = "0A";
+
+    private static class Lease {
+        final QemuVm vm;
+        final String purpose;
+
+        Lease(QemuVm vm, String purpose) {
+            this.vm = vm;
+            this.purpose = purpose;
+        }
+
+        @Override
+        public String toString() {
+            return leaseKey(vm, purpose);
+        }
+    }
+
+    // Active leases: port -> holder, and per VM: purpose -> port
+    private final Map<Integer, Lease> leasedPorts = new HashMap<>();
+    private final Map<QemuVm, Map<String, Integer>> leasesByVm = new IdentityHashMap<>();
+    private final Properties stickyAssignments = new Properties();
+    private boolean stickyLoaded = false;
+
+    private QemuPortAllocator() {
+    }
+
+    public static synchronized QemuPortAllocator getInstance() {
+        if (instance == null) {
+            instance = new QemuPortAllocator();
+        }
+        return instance;
+    }
+
+    /**
+     * Leases a VNC display port for the VM from the configured range.
+     * If the VM uses a fixed port, that exact port is checked and leased instead.
+     */
+    public int allocateDisplayPort(QemuVm vm) throws IOException {
+        QemuSettings settings = QemuSettings.getInstance();
+        if (!vm.isAutoVncPort()) {
+            return allocate(vm, "vnc", vm.getVncPort(), vm.getVncPort(), vm.getVncPort());
+        }
+        return allocate(vm, "vnc", settings.getDisplayPortRangeStart(),
+            settings.getDisplayPortRangeEnd(), vm.getVncPort());
+    }
+
+    /**
+     * Leases another display port from the range, e.g. for a migration target running next to the VM
+     */
+    public int allocateDisplayPort(QemuVm vm, String purpose) throws IOException {
+        QemuSettings settings = QemuSettings.getInstance();
+        return allocate(vm, purpose, settings.getDisplayPortRangeStart(),
+            settings.getDisplayPortRangeEnd(), settings.getDisplayPortRangeStart());
+    }
+
+    /**
+     * Leases a local control socket port (QMP, guest agent, ...) for the VM
+     */
+    public int allocateControlPort(QemuVm vm, String purpose) throws IOException {
+        QemuSettings settings = QemuSettings.getInstance();
+        int start = settings.getControlPortRangeStart();
+        return allocate(vm, purpose, start, settings.getControlPortRangeEnd(), start);
+    }
+
+    /**
+     * Leases a free port in [rangeStart, rangeEnd], preferring the sticky assignment
+     * for the VM's name and this purpose, then the given preferred port.
+     */
+    public synchronized int allocate(QemuVm vm, String purpose, int rangeStart, int rangeEnd, int preferred)
+            throws IOException {
+        Integer existing = leasesOf(vm).get(purpose);
+        if (existing != null) {
+            return existing;
+        }
+        String leaseKey = leaseKey(vm, purpose);
+
+        loadStickyAssignments();
+        Set<Integer> hostPorts = readListeningPorts();
+
+        List<Integer> candidates = new ArrayList<>();
+        String sticky = stickyAssignments.getProperty(leaseKey);
+        if (sticky != null) {
+            try {
+                candidates.add(Integer.parseInt(sticky));
+            } catch (NumberFormatException e) {
+                // Ignore corrupt entry, it will be overwritten
+            }
+        }
+        candidates.add(preferred);
+        for (int port = rangeStart; port <= rangeEnd; port++) {
+            candidates.add(port);
+        }
+
+        for (int port : candidates) {
+            if (port < rangeStart || port > rangeEnd) {
+                continue;
+            }
+            if (leasedPorts.containsKey(port) || hostPorts.contains(port) || !canBind(port)) {
+                continue;
+            }
+            lease(vm, purpose, port);
+            if (!String.valueOf(port).equals(sticky)) {
+                stickyAssignments.setProperty(leaseKey, String.valueOf(port));
+                saveStickyAssignments();
+            }
+            return port;
+        }
+
+        if (rangeStart == rangeEnd) {
+            Lease holder = leasedPorts.get(rangeStart);
+            throw new IOException("Port " + rangeStart + " is already in use" +
+                (holder != null ? " by " + holder : " on this host"));
+        }
+        throw new IOException("No free port in range " + rangeStart + "-" + rangeEnd);
+    }
+
+    /**
+     * Records a port already held by a running VM, e.g. one adopted from a previous
+     * session. Unlike allocate() it does not probe the port, since QEMU is listening on it.
+     */
+    public synchronized void reserve(QemuVm vm, String purpose, int port) {
+        release(vm, purpose);
+        lease(vm, purpose, port);
+    }
+
+    /**
+     * Releases every port leased for the given VM
+     */
+    public synchronized void releaseAll(QemuVm vm) {
+        Map<String, Integer> leases = leasesByVm.remove(vm);
+        if (leases != null) {
+            for (int port : leases.values()) {
+                leasedPorts.remove(port);
+            }
+        }
+    }
+
+    public synchronized void release(QemuVm vm, String purpose) {
+        Map<String, Integer> leases = leasesByVm.get(vm);
+        Integer port = leases != null ? leases.remove(purpose) : null;
+        if (port != null) {
+            leasedPorts.remove(port);
+        }
+        if (leases != null && leases.isEmpty()) {
+            leasesByVm.remove(vm);
+        }
+    }
+
+    /**
+     * The VM's current leases, purpose -> port
+     */
+    synchronized Map<String, Integer> getLeases(QemuVm vm) {
+        return new HashMap<>(leasesOf(vm));
+    }
+
+    private void lease(QemuVm vm, String purpose, int port) {
+        leasedPorts.put(port, new Lease(vm, purpose));
+        leasesByVm.computeIfAbsent(vm, key -> new HashMap<>()).put(purpose, port);
+    }
+
+    private Map<String, Integer> leasesOf(QemuVm vm) {
+        return leasesByVm.getOrDefault(vm, Collections.emptyMap());
+    }
+
+    private static String leaseKey(QemuVm vm, String purpose) {
+        return vm.getName() + ":" + purpose;
+    }
+
+    /**
+     * Reads the ports in LISTEN state from the host socket table (Linux only)
+     */
+    private Set<Integer> readListeningPorts() {
+        Set<Integer> ports = new HashSet<>();
+        for (String table : PROC_NET_TABLES) {
+            Path path = Paths.get(table);
+            if (!Files.isReadable(path)) {
+                continue;
+            }
+            try (BufferedReader reader = Files.newBufferedReader(path)) {
+                String line = reader.readLine(); // Header
+                while ((line = reader.readLine()) != null) {
+                    String[] fields = line.trim().split("\\s+");
+                    if (fields.length > 3 && TCP_LISTEN_STATE.equals(fields[3])) {
+                        String local = fields[1];
+                        ports.add(Integer.parseInt(local.substring(local.lastIndexOf(':') + 1), 16));
+                    }
+                }
+            } catch (IOException | NumberFormatException e) {
+                System.err.println("Failed to read " + table + ": " + e.getMessage());
+            }
+        }
+        return ports;
+    }
+
+    /**
+     * Final check that works on every platform and catches sockets opened since the table was read
+     */
+    private boolean canBind(int port) {
+        try (ServerSocket socket = new ServerSocket()) {
+            socket.setReuseAddress(false);
+            socket.bind(new InetSocketAddress(port));
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private String getStickyFile() {
+        return QemuSettings.getInstance().getQemuManagerVmsPath() + File.separator + "ports.properties";
+    }
+
+    private void loadStickyAssignments() {
+        if (stickyLoaded) {
+            return;
+        }
+        stickyLoaded = true;
+        File file = new File(getStickyFile());
+        if (file.exists()) {
+            try (FileInputStream fis = new FileInputStream(file)) {
+                stickyAssignments.load(fis);
+            } catch (IOException e) {
+                System.err.println("Failed to load port assignments: " + e.getMessage());
+            }
+        }
+    }
+
+    private void saveStickyAssignments() {
+        QemuSettings.getInstance().ensureDirectoriesExist();
+        try (FileOutputStream fos = new FileOutputStream(getStickyFile())) {
+            stickyAssignments.store(fos, "QEMU Manager sticky port assignments");
+        } catch (IOException e) {
+            System.err.println("Failed to save port assignments: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,169 @@
+package com.qemumanager;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Recognises QEMU processes left running by a previous manager session.
+ * A pid alone is not enough since pids get reused, so a saved process only
+ * matches if its kernel start time is unchanged and its command line still
+ * names the VM. Reads procfs (Linux only); the root is configurable.
+ */
+public class QemuProcessReconciler {
+
+    /**
+     * What is saved about a running VM so a later session can take it over
+     */
+    public static class Record {
+        private final long pid;
+        private final long startTicks;
+        private final int qmpPort;
+        private final int guestAgentPort;
+        private final int serialPort;
+        private final int vncPort;
+        private final String logFile;
+
+        public Record(long pid, long startTicks, int qmpPort, int guestAgentPort, int serialPort, int vncPort,
+                      String logFile) {
+            this.pid = pid;
+            this.startTicks = startTicks;
+            this.qmpPort = qmpPort;
+            this.guestAgentPort = guestAgentPort;
+            this.serialPort = serialPort;
+            this.vncPort = vncPort;
+            this.logFile = logFile;
+        }
+
+        public long getPid() {
+            return pid;
+        }
+
+        /**
+         * Start time in clock ticks since boot, field 22 of /proc/&lt;pid&gt;/stat
+         */
+        public long getStartTicks() {
+            return startTicks;
+        }
+
+        public int getQmpPort() {
+            return qmpPort;
+        }
+
+        public int getGuestAgentPort() {
+            return guestAgentPort;
+        }
+
+        public int getSerialPort() {
+            return serialPort;
+        }
+
+        public int getVncPort() {
+            return vncPort;
+        }
+
+        /**
+         * Output log of a VM started through the launch helper, or empty
+         */
+        public String getLogFile() {
+            return logFile;
+        }
+    }
+
+    private static final int STAT_START_TIME_FIELD = 22;
+
+    private final File procRoot;
+
+    public QemuProcessReconciler() {
+        this(new File("/proc"));
+    }
+
+    public QemuProcessReconciler(File procRoot) {
+        this.procRoot = procRoot;
+    }
+
+    /**
+     * Describes the VM's current process, or returns null if it has none or procfs is unavailable
+     */
+    public Record capture(QemuVm vm, String logFile) {
+        ProcessHandle handle = vm.getProcessHandle();
+        if (handle == null || !handle.isAlive()) {
+            return null;
+        }
+        try {
+            return new Record(handle.pid(), readStartTicks(handle.pid()), vm.getQmpPort(),
+                vm.getGuestAgentPort(), vm.getSerialPort(), vm.getVncPort(), logFile != null ? logFile : "");
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Returns null if the saved process is still the VM's QEMU, otherwise why not
+     */
+    public String verify(QemuVm vm, Record record) {
+        long startTicks;
+        List<String> cmdline;
+        try {
+            startTicks = readStartTicks(record.getPid());
+            cmdline = readCmdline(record.getPid());
+        } catch (IOException e) {
+            return "process " + record.getPid() + " is gone";
+        }
+        if (startTicks != record.getStartTicks()) {
+            return "pid " + record.getPid() + " now belongs to another process";
+        }
+        if (!namesVm(cmdline, vm)) {
+            return "process " + record.getPid() + " is not this VM's QEMU";
+        }
+        return null;
+    }
+
+    long readStartTicks(long pid) throws IOException {
+        String stat = new String(Files.readAllBytes(new File(procRoot, pid + "/stat").toPath()), StandardCharsets.UTF_8);
+        // The command name in parentheses may contain spaces; the fixed fields follow the last ')'
+        int end = stat.lastIndexOf(')');
+        if (end < 0) {
+            throw new IOException("Malformed stat for pid " + pid);
+        }
+        String[] fields = stat.substring(end + 1).trim().split("\\s+");
+        int index = STAT_START_TIME_FIELD - 3; // Fields 1 and 2 are pid and (comm)
+        if (fields.length <= index) {
+            throw new IOException("Malformed stat for pid " + pid);
+        }
+        try {
+            return Long.parseLong(fields[index]);
+        } catch (NumberFormatException e) {
+            throw new IOException("Malformed stat for pid " + pid);
+        }
+    }
+
+    List<String> readCmdline(long pid) throws IOException {
+        byte[] data = Files.readAllBytes(new File(procRoot, pid + "/cmdline").toPath());
+        List<String> args = new ArrayList<>();
+        int start = 0;
+        for (int i = 0; i < data.length; i++) {
+            if (data[i] == 0) {
+                args.add(new String(data, start, i - start, StandardCharsets.UTF_8));
+                start = i + 1;
+            }
+        }
+        if (start < data.length) {
+            args.add(new String(data, start, data.length - start, StandardCharsets.UTF_8));
+        }
+        return args;
+    }
+
+    private boolean namesVm(List<String> cmdline, QemuVm vm) {
+        String expected = QemuVm.escapeOptionValue(vm.getName());
+        for (int i = 0; i + 1 < cmdline.size(); i++) {
+            if (cmdline.get(i).equals("-name") && cmdline.get(i + 1).equals(expected)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,151 @@
+package com.qemumanager;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+/**
+ * Launches QEMU processes through a small long-lived shell helper instead of
+ * forking the JVM for every VM. The helper reads one command per line on its
+ * stdin and answers with the PID of the started process; each process is
+ * double-forked so it is reparented to init and never lingers as a zombie.
+ * Output of helper-spawned processes goes to a log file, not a pipe. As the
+ * JVM is not their parent, a small watcher shell waits for each one and
+ * leaves its exit status in a file next to the log.
+ */
+public class QemuProcessSpawner {
+    private static QemuProcessSpawner instance;
+
+    private static final String SHELL = "/bin/sh";
+
+    // ( watcher & ): the subshell exits at once, orphaning the watcher, and the helper reaps the subshell.
+    // The watcher starts the command, reports its PID and waits for it.
+    private static final String HELPER_SCRIPT =
+        "while IFS= read -r line; do ( eval \"$line\" & ); done";
+    private static final long STATUS_TIMEOUT_MS = 1000;
+    private static final long STATUS_POLL_MS = 20;
+
+    private Process helper;
+    private Writer toHelper;
+    private BufferedReader fromHelper;
+
+    private QemuProcessSpawner() {
+    }
+
+    public static synchronized QemuProcessSpawner getInstance() {
+        if (instance == null) {
+            instance = new QemuProcessSpawner();
+        }
+        return instance;
+    }
+
+    /**
+     * The helper needs a POSIX shell
+     */
+    public static boolean isSupported() {
+        return !System.getProperty("os.name").toLowerCase().contains("win") && new File(SHELL).canExecute();
+    }
+
+    /**
+     * Starts the command with stdin from /dev/null and stdout/stderr appended to the log file
+     */
+    public synchronized ProcessHandle spawn(String[] command, File logFile) throws IOException {
+        File executable = new File(command[0]);
+        if (executable.isAbsolute() && !executable.canExecute()) {
+            throw new IOException("Cannot run program \"" + command[0] + "\": not found or not executable");
+        }
+
+        StringBuilder line = new StringBuilder("exec");
+        for (String arg : command) {
+            line.append(' ').append(quote(arg));
+        }
+        line.append(" >>").append(quote(logFile.getAbsolutePath())).append(" 2>&1 </dev/null & pid=$!;")
+            .append(" echo $pid; exec >/dev/null 2>&1; wait $pid; echo $? >").append(quote(logFile.getAbsolutePath()))
+            .append(".$pid.exit");
+
+        ensureHelper();
+        String reply;
+        try {
+            toHelper.write(line.append('\n').toString());
+            toHelper.flush();
+            reply = fromHelper.readLine();
+        } catch (IOException e) {
+            stopHelper();
+            throw new IOException("Launch helper failed: " + e.getMessage(), e);
+        }
+        if (reply == null) {
+            stopHelper();
+            throw new IOException("Launch helper exited unexpectedly");
+        }
+
+        long pid;
+        try {
+            pid = Long.parseLong(reply.trim());
+        } catch (NumberFormatException e) {
+            throw new IOException("Unexpected reply from launch helper: " + reply);
+        }
+        return ProcessHandle.of(pid).orElseThrow(() ->
+            new IOException("Process exited immediately, see " + logFile.getAbsolutePath()));
+    }
+
+    /**
+     * The exit code of a process spawned with this log file, once it has exited; -1 if it
+     * was not started by the helper or its watcher did not record one in time
+     */
+    public static int readExitStatus(long pid, File logFile) {
+        if (logFile == null) {
+            return -1;
+        }
+        File statusFile = new File(logFile.getAbsolutePath() + "." + pid + ".exit");
+        // The watcher writes it right after the process is gone
+        long deadline = System.currentTimeMillis() + STATUS_TIMEOUT_MS;
+        while (true) {
+            try {
+                String status = new String(Files.readAllBytes(statusFile.toPath()), StandardCharsets.UTF_8).trim();
+                if (!status.isEmpty()) {
+                    Files.deleteIfExists(statusFile.toPath());
+                    return Integer.parseInt(status);
+                }
+            } catch (IOException | NumberFormatException e) {
+                // Not written (yet)
+            }
+            if (System.currentTimeMillis() >= deadline) {
+                return -1;
+            }
+            try {
+                Thread.sleep(STATUS_POLL_MS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return -1;
+            }
+        }
+    }
+
+    private void ensureHelper() throws IOException {
+        if (helper != null && helper.isAlive()) {
+            return;
+        }
+        ProcessBuilder pb = new ProcessBuilder(SHELL, "-c", HELPER_SCRIPT);
+        pb.redirectError(ProcessBuilder.Redirect.INHERIT);
+        helper = pb.start();
+        toHelper = new BufferedWriter(new OutputStreamWriter(helper.getOutputStream(), StandardCharsets.UTF_8));
+        fromHelper = new BufferedReader(new InputStreamReader(helper.getInputStream(), StandardCharsets.UTF_8));
+    }
+
+    private void stopHelper() {
+        if (helper != null) {
+            helper.destroy();
+            helper = null;
+        }
+    }
+
+    /**
+     * Single-quotes an argument for the shell; newlines would split the request line
+     */
+    private static String quote(String arg) throws IOException {
+        if (arg.indexOf('\n') >= 0 || arg.indexOf('\r') >= 0) {
+            throw new IOException("Argument contains a line break: " + arg);
+        }
+        return "'" + arg.replace("'", "'\\''") + "'";
+    }
+}
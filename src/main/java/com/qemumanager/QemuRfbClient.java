@@ -0,0 +1,716 @@
+package com.qemumanager;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Minimal RFB (VNC) client used by the embedded viewer.
+ * Supports the Raw, CopyRect, ZRLE and Tight encodings plus DesktopSize, and
+ * decodes straight into the int raster of a TYPE_INT_RGB BufferedImage.
+ * The protocol runs over plain streams so it can be driven by a stub server.
+ */
+public class QemuRfbClient implements Closeable {
+    private static final int ENCODING_RAW = 0;
+    private static final int ENCODING_COPY_RECT = 1;
+    private static final int ENCODING_TIGHT = 7;
+    private static final int ENCODING_ZRLE = 16;
+    private static final int ENCODING_DESKTOP_SIZE = -223;
+    private static final int ENCODING_COMPRESS_LEVEL_0 = -256;
+    private static final int ENCODING_QUALITY_LEVEL_0 = -32;
+
+    private static final int SECURITY_NONE = 1;
+    private static final int ZRLE_TILE_SIZE = 64;
+
+    /**
+     * Receives notifications from the reader thread
+     */
+    public interface Listener {
+        void framebufferResized(int width, int height);
+
+        void framebufferUpdated(int x, int y, int width, int height);
+
+        void connectionClosed(String reason);
+    }
+
+    private final DataInputStream in;
+    private final OutputStream out;
+    private final Socket socket;
+    private Listener listener;
+
+    private volatile BufferedImage framebuffer;
+    private int[] pixels;
+    private int width;
+    private int height;
+    private String desktopName = "";
+
+    private volatile boolean running;
+    private volatile long minUpdateIntervalMs;
+    private int qualityLevel = 7;
+
+    // Decoder state reused across rectangles to avoid per-update allocation
+    private final Inflater zrleInflater = new Inflater();
+    private final Inflater[] tightInflaters = {new Inflater(), new Inflater(), new Inflater(), new Inflater()};
+    private byte[] readBuffer = new byte[64 * 1024];
+    private byte[] inflateBuffer = new byte[64 * 1024];
+    private int inflatePos;
+    private int inflateLen;
+    private final int[] palette = new int[256];
+    private int[] rowBuffer = new int[0];
+
+    public QemuRfbClient(InputStream in, OutputStream out) {
+        this(in, out, null);
+    }
+
+    private QemuRfbClient(InputStream in, OutputStream out, Socket socket) {
+        this.in = new DataInputStream(new BufferedInputStream(in, 64 * 1024));
+        this.out = new BufferedOutputStream(out);
+        this.socket = socket;
+    }
+
+    /**
+     * Opens a TCP connection to a VNC server
+     */
+    public static QemuRfbClient connect(String host, int port) throws IOException {
+        Socket socket = new Socket();
+        socket.setTcpNoDelay(true);
+        socket.connect(new InetSocketAddress(host, port), 5000);
+        return new QemuRfbClient(socket.getInputStream(), socket.getOutputStream(), socket);
+    }
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Sets the minimum delay between incremental update requests (0 = as fast as possible)
+     */
+    public void setMinUpdateInterval(long millis) {
+        this.minUpdateIntervalMs = millis;
+    }
+
+    /**
+     * Sets the JPEG quality hint (0-9) sent to servers supporting Tight
+     */
+    public void setQualityLevel(int qualityLevel) {
+        this.qualityLevel = Math.max(0, Math.min(9, qualityLevel));
+    }
+
+    public BufferedImage getFramebuffer() {
+        return framebuffer;
+    }
+
+    public String getDesktopName() {
+        return desktopName;
+    }
+
+    /**
+     * Performs the RFB handshake and negotiates pixel format and encodings
+     */
+    public void handshake() throws IOException {
+        byte[] version = new byte[12];
+        in.readFully(version);
+        String serverVersion = new String(version, StandardCharsets.US_ASCII);
+        if (!serverVersion.startsWith("RFB ")) {
+            throw new IOException("Not an RFB server: " + serverVersion.trim());
+        }
+        int minor = Integer.parseInt(serverVersion.substring(8, 11));
+        boolean v38 = minor >= 7;
+        out.write((v38 ? "RFB 003.008\n" : "RFB 003.003\n").getBytes(StandardCharsets.US_ASCII));
+        out.flush();
+
+        if (v38) {
+            int count = in.readUnsignedByte();
+            if (count == 0) {
+                throw new IOException("Server refused connection: " + readString());
+            }
+            boolean hasNone = false;
+            for (int i = 0; i < count; i++) {
+                if (in.readUnsignedByte() == SECURITY_NONE) {
+                    hasNone = true;
+                }
+            }
+            if (!hasNone) {
+                throw new IOException("VNC server requires authentication, which the embedded viewer does not support");
+            }
+            out.write(SECURITY_NONE);
+            out.flush();
+            if (in.readInt() != 0) {
+                throw new IOException("Security handshake failed: " + readString());
+            }
+        } else {
+            int type = in.readInt();
+            if (type != SECURITY_NONE) {
+                throw new IOException("Unsupported security type " + type);
+            }
+        }
+
+        out.write(1); // Shared session, don't disconnect other viewers
+        out.flush();
+
+        int serverWidth = in.readUnsignedShort();
+        int serverHeight = in.readUnsignedShort();
+        in.skipBytes(16); // Server pixel format, replaced below
+        desktopName = readString();
+        resize(serverWidth, serverHeight);
+
+        sendPixelFormat();
+        sendEncodings();
+    }
+
+    /**
+     * Runs the message loop on the calling thread until the connection closes
+     */
+    public void run() {
+        running = true;
+        String reason = "Connection closed";
+        try {
+            requestUpdate(false);
+            while (running) {
+                int type = in.readUnsignedByte();
+                switch (type) {
+                    case 0:
+                        readFramebufferUpdate();
+                        throttle();
+                        requestUpdate(true);
+                        break;
+                    case 1:
+                        readColourMapEntries();
+                        break;
+                    case 2:
+                        break; // Bell
+                    case 3:
+                        in.skipBytes(3);
+                        readString(); // Server cut text is not used
+                        break;
+                    default:
+                        throw new IOException("Unknown server message " + type);
+                }
+            }
+        } catch (EOFException e) {
+            reason = "Server closed the connection";
+        } catch (IOException e) {
+            reason = running ? e.getMessage() : "Disconnected";
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            reason = "Disconnected";
+        } finally {
+            running = false;
+            // The inflaters are only touched by this thread, so release them here
+            zrleInflater.end();
+            for (Inflater inflater : tightInflaters) {
+                inflater.end();
+            }
+            if (listener != null) {
+                listener.connectionClosed(reason);
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        try {
+            if (socket != null) {
+                socket.close();
+            } else {
+                in.close();
+                out.close();
+            }
+        } catch (IOException e) {
+            // Already closed
+        }
+    }
+
+    // Client to server messages
+
+    public synchronized void requestUpdate(boolean incremental) throws IOException {
+        out.write(3);
+        out.write(incremental ? 1 : 0);
+        writeShort(0);
+        writeShort(0);
+        writeShort(width);
+        writeShort(height);
+        out.flush();
+    }
+
+    public synchronized void sendPointerEvent(int buttonMask, int x, int y) throws IOException {
+        out.write(5);
+        out.write(buttonMask);
+        writeShort(Math.max(0, Math.min(width - 1, x)));
+        writeShort(Math.max(0, Math.min(height - 1, y)));
+        out.flush();
+    }
+
+    public synchronized void sendKeyEvent(int keysym, boolean down) throws IOException {
+        out.write(4);
+        out.write(down ? 1 : 0);
+        writeShort(0);
+        writeInt(keysym);
+        out.flush();
+    }
+
+    private synchronized void sendPixelFormat() throws IOException {
+        // 32bpp little-endian true colour matching TYPE_INT_RGB, so raw pixels need no conversion
+        out.write(0);
+        out.write(new byte[3]);
+        out.write(32);   // bits per pixel
+        out.write(24);   // depth
+        out.write(0);    // little endian
+        out.write(1);    // true colour
+        writeShort(255);
+        writeShort(255);
+        writeShort(255);
+        out.write(16);   // red shift
+        out.write(8);    // green shift
+        out.write(0);    // blue shift
+        out.write(new byte[3]);
+        out.flush();
+    }
+
+    private synchronized void sendEncodings() throws IOException {
+        int[] encodings = {
+            ENCODING_TIGHT, ENCODING_ZRLE, ENCODING_COPY_RECT, ENCODING_RAW, ENCODING_DESKTOP_SIZE,
+            ENCODING_COMPRESS_LEVEL_0 + 6, ENCODING_QUALITY_LEVEL_0 + qualityLevel
+        };
+        out.write(2);
+        out.write(0);
+        writeShort(encodings.length);
+        for (int encoding : encodings) {
+            writeInt(encoding);
+        }
+        out.flush();
+    }
+
+    private void throttle() throws InterruptedException {
+        long interval = minUpdateIntervalMs;
+        if (interval > 0) {
+            Thread.sleep(interval);
+        }
+    }
+
+    // Server to client messages
+
+    private void readFramebufferUpdate() throws IOException {
+        in.skipBytes(1);
+        int count = in.readUnsignedShort();
+        for (int i = 0; i < count; i++) {
+            int x = in.readUnsignedShort();
+            int y = in.readUnsignedShort();
+            int w = in.readUnsignedShort();
+            int h = in.readUnsignedShort();
+            int encoding = in.readInt();
+
+            switch (encoding) {
+                case ENCODING_RAW:
+                    readRaw(x, y, w, h);
+                    break;
+                case ENCODING_COPY_RECT:
+                    readCopyRect(x, y, w, h);
+                    break;
+                case ENCODING_ZRLE:
+                    readZrle(x, y, w, h);
+                    break;
+                case ENCODING_TIGHT:
+                    readTight(x, y, w, h);
+                    break;
+                case ENCODING_DESKTOP_SIZE:
+                    resize(w, h);
+                    continue;
+                default:
+                    throw new IOException("Unsupported encoding " + encoding);
+            }
+            if (listener != null && w > 0 && h > 0) {
+                listener.framebufferUpdated(x, y, w, h);
+            }
+        }
+    }
+
+    private void readColourMapEntries() throws IOException {
+        in.skipBytes(3);
+        int count = in.readUnsignedShort();
+        in.skipBytes(count * 6); // Only true colour is used
+    }
+
+    private void readRaw(int x, int y, int w, int h) throws IOException {
+        int rowBytes = w * 4;
+        ensureReadBuffer(rowBytes);
+        for (int row = 0; row < h; row++) {
+            in.readFully(readBuffer, 0, rowBytes);
+            int dst = (y + row) * width + x;
+            for (int i = 0; i < rowBytes; i += 4) {
+                pixels[dst++] = (readBuffer[i] & 0xff)
+                    | (readBuffer[i + 1] & 0xff) << 8
+                    | (readBuffer[i + 2] & 0xff) << 16;
+            }
+        }
+    }
+
+    private void readCopyRect(int x, int y, int w, int h) throws IOException {
+        int srcX = in.readUnsignedShort();
+        int srcY = in.readUnsignedShort();
+        if (srcY < y) {
+            // Copy bottom-up so overlapping regions are not overwritten before they are read
+            for (int row = h - 1; row >= 0; row--) {
+                System.arraycopy(pixels, (srcY + row) * width + srcX, pixels, (y + row) * width + x, w);
+            }
+        } else {
+            for (int row = 0; row < h; row++) {
+                System.arraycopy(pixels, (srcY + row) * width + srcX, pixels, (y + row) * width + x, w);
+            }
+        }
+    }
+
+    // ZRLE
+
+    private void readZrle(int x, int y, int w, int h) throws IOException {
+        int length = in.readInt();
+        ensureReadBuffer(length);
+        in.readFully(readBuffer, 0, length);
+        zrleInflater.setInput(readBuffer, 0, length);
+        inflateAll(zrleInflater);
+
+        for (int ty = y; ty < y + h; ty += ZRLE_TILE_SIZE) {
+            int th = Math.min(ZRLE_TILE_SIZE, y + h - ty);
+            for (int tx = x; tx < x + w; tx += ZRLE_TILE_SIZE) {
+                int tw = Math.min(ZRLE_TILE_SIZE, x + w - tx);
+                readZrleTile(tx, ty, tw, th);
+            }
+        }
+    }
+
+    private void readZrleTile(int tx, int ty, int tw, int th) throws IOException {
+        int subencoding = nextInflated();
+        if (subencoding == 0) {
+            for (int row = 0; row < th; row++) {
+                int dst = (ty + row) * width + tx;
+                for (int col = 0; col < tw; col++) {
+                    pixels[dst++] = readCpixel();
+                }
+            }
+        } else if (subencoding == 1) {
+            fillRect(tx, ty, tw, th, readCpixel());
+        } else if (subencoding <= 16) {
+            for (int i = 0; i < subencoding; i++) {
+                palette[i] = readCpixel();
+            }
+            int bits = subencoding == 2 ? 1 : subencoding <= 4 ? 2 : 4;
+            int mask = (1 << bits) - 1;
+            for (int row = 0; row < th; row++) {
+                int dst = (ty + row) * width + tx;
+                int current = 0;
+                int remaining = 0;
+                for (int col = 0; col < tw; col++) {
+                    if (remaining == 0) {
+                        current = nextInflated();
+                        remaining = 8;
+                    }
+                    remaining -= bits;
+                    pixels[dst++] = palette[(current >> remaining) & mask];
+                }
+            }
+        } else if (subencoding == 128) {
+            int filled = 0;
+            int total = tw * th;
+            while (filled < total) {
+                int pixel = readCpixel();
+                int run = readRunLength();
+                filled = fillRun(tx, ty, tw, filled, run, pixel);
+            }
+        } else if (subencoding >= 130) {
+            int paletteSize = subencoding - 128;
+            for (int i = 0; i < paletteSize; i++) {
+                palette[i] = readCpixel();
+            }
+            int filled = 0;
+            int total = tw * th;
+            while (filled < total) {
+                int index = nextInflated();
+                int run = 1;
+                if ((index & 128) != 0) {
+                    index &= 127;
+                    run = readRunLength();
+                }
+                filled = fillRun(tx, ty, tw, filled, run, palette[index]);
+            }
+        } else {
+            throw new IOException("Invalid ZRLE subencoding " + subencoding);
+        }
+    }
+
+    private int readCpixel() throws IOException {
+        // Compressed pixel: the three significant little-endian bytes (blue, green, red)
+        return nextInflated() | nextInflated() << 8 | nextInflated() << 16;
+    }
+
+    private int readRunLength() throws IOException {
+        int run = 1;
+        int b;
+        do {
+            b = nextInflated();
+            run += b;
+        } while (b == 255);
+        return run;
+    }
+
+    private int fillRun(int tx, int ty, int tw, int filled, int run, int pixel) {
+        for (int i = 0; i < run; i++) {
+            int pos = filled + i;
+            pixels[(ty + pos / tw) * width + tx + pos % tw] = pixel;
+        }
+        return filled + run;
+    }
+
+    // Tight
+
+    private void readTight(int x, int y, int w, int h) throws IOException {
+        int control = in.readUnsignedByte();
+        for (int i = 0; i < 4; i++) {
+            if ((control & (1 << i)) != 0) {
+                tightInflaters[i].reset();
+            }
+        }
+        int type = control >> 4;
+
+        if (type == 8) {
+            ensureReadBuffer(3);
+            in.readFully(readBuffer, 0, 3);
+            fillRect(x, y, w, h, tpixel(readBuffer, 0));
+            return;
+        }
+        if (type == 9) {
+            readTightJpeg(x, y, w, h);
+            return;
+        }
+        if (type > 9) {
+            throw new IOException("Invalid Tight compression type " + type);
+        }
+
+        int filter = (type & 4) != 0 ? in.readUnsignedByte() : 0;
+        int streamId = type & 3;
+        int paletteSize = 0;
+        int dataSize;
+
+        if (filter == 1) {
+            paletteSize = in.readUnsignedByte() + 1;
+            ensureReadBuffer(paletteSize * 3);
+            in.readFully(readBuffer, 0, paletteSize * 3);
+            for (int i = 0; i < paletteSize; i++) {
+                palette[i] = tpixel(readBuffer, i * 3);
+            }
+            dataSize = paletteSize == 2 ? ((w + 7) / 8) * h : w * h;
+        } else if (filter == 0 || filter == 2) {
+            dataSize = w * h * 3;
+        } else {
+            throw new IOException("Invalid Tight filter " + filter);
+        }
+
+        byte[] data = readTightData(streamId, dataSize);
+
+        if (filter == 1) {
+            if (paletteSize == 2) {
+                int rowBytes = (w + 7) / 8;
+                for (int row = 0; row < h; row++) {
+                    int dst = (y + row) * width + x;
+                    for (int col = 0; col < w; col++) {
+                        int bit = (data[row * rowBytes + col / 8] >> (7 - col % 8)) & 1;
+                        pixels[dst++] = palette[bit];
+                    }
+                }
+            } else {
+                for (int row = 0; row < h; row++) {
+                    int dst = (y + row) * width + x;
+                    int src = row * w;
+                    for (int col = 0; col < w; col++) {
+                        pixels[dst++] = palette[data[src++] & 0xff];
+                    }
+                }
+            }
+        } else if (filter == 2) {
+            decodeGradient(data, x, y, w, h);
+        } else {
+            for (int row = 0; row < h; row++) {
+                int dst = (y + row) * width + x;
+                int src = row * w * 3;
+                for (int col = 0; col < w; col++, src += 3) {
+                    pixels[dst++] = tpixel(data, src);
+                }
+            }
+        }
+    }
+
+    private byte[] readTightData(int streamId, int dataSize) throws IOException {
+        if (dataSize < 12) {
+            ensureInflateBuffer(dataSize);
+            in.readFully(inflateBuffer, 0, dataSize);
+            return inflateBuffer;
+        }
+        int length = readCompactLength();
+        ensureReadBuffer(length);
+        in.readFully(readBuffer, 0, length);
+        Inflater inflater = tightInflaters[streamId];
+        inflater.setInput(readBuffer, 0, length);
+        ensureInflateBuffer(dataSize);
+        try {
+            int read = 0;
+            while (read < dataSize) {
+                int n = inflater.inflate(inflateBuffer, read, dataSize - read);
+                if (n == 0 && (inflater.needsInput() || inflater.finished())) {
+                    throw new IOException("Truncated Tight data");
+                }
+                read += n;
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt Tight data: " + e.getMessage());
+        }
+        return inflateBuffer;
+    }
+
+    private void decodeGradient(byte[] data, int x, int y, int w, int h) {
+        if (rowBuffer.length < w * 3 * 2) {
+            rowBuffer = new int[w * 3 * 2];
+        }
+        // Two rows of component values: previous and current
+        int prev = 0;
+        int curr = w * 3;
+        java.util.Arrays.fill(rowBuffer, 0, w * 3, 0);
+        for (int row = 0; row < h; row++) {
+            int dst = (y + row) * width + x;
+            for (int col = 0; col < w; col++) {
+                for (int c = 0; c < 3; c++) {
+                    int left = col > 0 ? rowBuffer[curr + (col - 1) * 3 + c] : 0;
+                    int up = rowBuffer[prev + col * 3 + c];
+                    int upLeft = col > 0 ? rowBuffer[prev + (col - 1) * 3 + c] : 0;
+                    int predicted = Math.max(0, Math.min(255, left + up - upLeft));
+                    rowBuffer[curr + col * 3 + c] = (data[(row * w + col) * 3 + c] + predicted) & 0xff;
+                }
+                int base = curr + col * 3;
+                pixels[dst++] = rowBuffer[base] << 16 | rowBuffer[base + 1] << 8 | rowBuffer[base + 2];
+            }
+            int swap = prev;
+            prev = curr;
+            curr = swap;
+        }
+    }
+
+    private void readTightJpeg(int x, int y, int w, int h) throws IOException {
+        int length = readCompactLength();
+        ensureReadBuffer(length);
+        in.readFully(readBuffer, 0, length);
+        BufferedImage jpeg = ImageIO.read(new ByteArrayInputStream(readBuffer, 0, length));
+        if (jpeg == null) {
+            throw new IOException("Undecodable JPEG rectangle");
+        }
+        if (rowBuffer.length < w) {
+            rowBuffer = new int[w];
+        }
+        int rows = Math.min(h, jpeg.getHeight());
+        int cols = Math.min(w, jpeg.getWidth());
+        for (int row = 0; row < rows; row++) {
+            jpeg.getRGB(0, row, cols, 1, rowBuffer, 0, cols);
+            for (int col = 0; col < cols; col++) {
+                pixels[(y + row) * width + x + col] = rowBuffer[col] & 0xffffff;
+            }
+        }
+    }
+
+    private int readCompactLength() throws IOException {
+        int b = in.readUnsignedByte();
+        int length = b & 0x7f;
+        if ((b & 0x80) != 0) {
+            b = in.readUnsignedByte();
+            length |= (b & 0x7f) << 7;
+            if ((b & 0x80) != 0) {
+                length |= in.readUnsignedByte() << 14;
+            }
+        }
+        return length;
+    }
+
+    private static int tpixel(byte[] data, int offset) {
+        return (data[offset] & 0xff) << 16 | (data[offset + 1] & 0xff) << 8 | (data[offset + 2] & 0xff);
+    }
+
+    // Helpers
+
+    private void resize(int newWidth, int newHeight) {
+        width = newWidth;
+        height = newHeight;
+        BufferedImage image = new BufferedImage(Math.max(1, newWidth), Math.max(1, newHeight), BufferedImage.TYPE_INT_RGB);
+        pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+        framebuffer = image;
+        if (listener != null) {
+            listener.framebufferResized(newWidth, newHeight);
+        }
+    }
+
+    private void fillRect(int x, int y, int w, int h, int pixel) {
+        for (int row = 0; row < h; row++) {
+            int start = (y + row) * width + x;
+            java.util.Arrays.fill(pixels, start, start + w, pixel);
+        }
+    }
+
+    private void inflateAll(Inflater inflater) throws IOException {
+        inflatePos = 0;
+        inflateLen = 0;
+        try {
+            while (true) {
+                if (inflateLen == inflateBuffer.length) {
+                    inflateBuffer = java.util.Arrays.copyOf(inflateBuffer, inflateBuffer.length * 2);
+                }
+                int n = inflater.inflate(inflateBuffer, inflateLen, inflateBuffer.length - inflateLen);
+                inflateLen += n;
+                if (n == 0 && (inflater.needsInput() || inflater.finished() || inflater.needsDictionary())) {
+                    break;
+                }
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt ZRLE data: " + e.getMessage());
+        }
+    }
+
+    private int nextInflated() throws IOException {
+        if (inflatePos >= inflateLen) {
+            throw new IOException("Truncated ZRLE data");
+        }
+        return inflateBuffer[inflatePos++] & 0xff;
+    }
+
+    private void ensureReadBuffer(int size) {
+        if (readBuffer.length < size) {
+            readBuffer = new byte[Math.max(size, readBuffer.length * 2)];
+        }
+    }
+
+    private void ensureInflateBuffer(int size) {
+        if (inflateBuffer.length < size) {
+            inflateBuffer = new byte[Math.max(size, inflateBuffer.length * 2)];
+        }
+    }
+
+    private String readString() throws IOException {
+        int length = in.readInt();
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.ISO_8859_1);
+    }
+
+    private void writeShort(int value) throws IOException {
+        out.write((value >> 8) & 0xff);
+        out.write(value & 0xff);
+    }
+
+    private void writeInt(int value) throws IOException {
+        out.write((value >> 24) & 0xff);
+        out.write((value >> 16) & 0xff);
+        out.write((value >> 8) & 0xff);
+        out.write(value & 0xff);
+    }
+}
@@ -0,0 +1,249 @@
+package com.qemumanager;
+
+import javax.imageio.ImageIO;
+import javax.swing.SwingUtilities;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * Captures thumbnails of running VM screens through the QMP screendump command.
+ * A single background thread works through the VMs currently visible in the
+ * table; the capture interval grows with the number of visible VMs so the total
+ * capture rate stays constant, and VMs whose screen does not change back off.
+ * Decoding and scaling happen on that thread, never on the EDT.
+ */
+public class QemuScreenCaptureScheduler {
+    private static QemuScreenCaptureScheduler instance;
+
+    public static final int THUMBNAIL_WIDTH = 64;
+    public static final int THUMBNAIL_HEIGHT = 40;
+
+    private static final int CAPTURES_PER_SECOND = 4;
+    private static final long MIN_INTERVAL_MS = 2000;
+    private static final long MAX_INTERVAL_MS = 60000;
+    private static final long CACHE_BYTES = 8L * 1024 * 1024;
+    private static final long SCREENDUMP_TIMEOUT_MS = 5000;
+
+    public interface Listener {
+        void thumbnailUpdated(QemuVm vm);
+    }
+
+    /**
+     * Per VM capture bookkeeping, only touched on the capture thread
+     */
+    private static class CaptureState {
+        long nextCaptureAt;
+        long backoffMs;
+        long lastChecksum = -1;
+        boolean ppmOnly; // QEMU before 7.1 has no format argument
+    }
+
+    private final QemuThumbnailCache cache = new QemuThumbnailCache(CACHE_BYTES);
+    private final Map<QemuVm, CaptureState> states = new IdentityHashMap<>();
+    private volatile List<QemuVm> visibleVms = Collections.emptyList();
+    private volatile Listener listener;
+    private ScheduledExecutorService executor;
+    private ScheduledFuture<?> task;
+
+    private QemuScreenCaptureScheduler() {
+    }
+
+    public static synchronized QemuScreenCaptureScheduler getInstance() {
+        if (instance == null) {
+            instance = new QemuScreenCaptureScheduler();
+        }
+        return instance;
+    }
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Replaces the set of VMs whose thumbnails are on screen. Capturing stops
+     * entirely while the list is empty.
+     */
+    public synchronized void setVisibleVms(Collection<QemuVm> vms) {
+        visibleVms = new ArrayList<>(vms);
+        if (visibleVms.isEmpty()) {
+            if (task != null) {
+                task.cancel(false);
+                task = null;
+            }
+        } else if (task == null) {
+            if (executor == null) {
+                executor = Executors.newSingleThreadScheduledExecutor(r -> {
+                    Thread thread = new Thread(r, "Screen capture");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+            }
+            task = executor.scheduleWithFixedDelay(this::captureNext, 0, 1000 / CAPTURES_PER_SECOND, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    public BufferedImage getThumbnail(QemuVm vm) {
+        return cache.get(vm);
+    }
+
+    /**
+     * Drops the thumbnail of a VM that is no longer running
+     */
+    public void forget(QemuVm vm) {
+        cache.remove(vm);
+        if (executor != null) {
+            executor.execute(() -> states.remove(vm));
+        }
+    }
+
+    private void captureNext() {
+        List<QemuVm> candidates = visibleVms;
+        long now = System.currentTimeMillis();
+        long baseInterval = Math.max(MIN_INTERVAL_MS, candidates.size() * 1000L / CAPTURES_PER_SECOND);
+
+        // Pick the most overdue running VM
+        QemuVm next = null;
+        CaptureState nextState = null;
+        for (QemuVm vm : candidates) {
+            if (!vm.getStatus().isActive() || vm.getQmpPort() <= 0) {
+                continue;
+            }
+            CaptureState state = states.computeIfAbsent(vm, v -> new CaptureState());
+            if (state.nextCaptureAt <= now && (nextState == null || state.nextCaptureAt < nextState.nextCaptureAt)) {
+                next = vm;
+                nextState = state;
+            }
+        }
+        if (next == null) {
+            return;
+        }
+
+        try {
+            boolean changed = capture(next, nextState);
+            // Unchanged screens (boot prompts, idle desktops) are polled less and less often
+            nextState.backoffMs = changed ? 0 : Math.min(MAX_INTERVAL_MS, Math.max(baseInterval, nextState.backoffMs * 2));
+        } catch (IOException e) {
+            nextState.backoffMs = Math.min(MAX_INTERVAL_MS, Math.max(baseInterval, nextState.backoffMs * 2));
+        } catch (RuntimeException e) {
+            System.err.println("Screen capture failed for " + next.getName() + ": " + e.getMessage());
+            nextState.backoffMs = MAX_INTERVAL_MS;
+        }
+        nextState.nextCaptureAt = System.currentTimeMillis() + Math.max(baseInterval, nextState.backoffMs);
+    }
+
+    /**
+     * Dumps, decodes and scales one frame. Returns false if the screen did not change.
+     */
+    private boolean capture(QemuVm vm, CaptureState state) throws IOException {
+        QemuMonitorClient client = QemuMonitorManager.getInstance().getClient(vm);
+        File dumpFile = new File(QemuSettings.getInstance().getQemuManagerRunPath(),
+            vm.getFileSafeName() + (state.ppmOnly ? ".screen.ppm" : ".screen.png"));
+        try {
+            if (!state.ppmOnly) {
+                try {
+                    client.execute("screendump", QemuJson.object("filename", dumpFile.getAbsolutePath(), "format", "png"),
+                        SCREENDUMP_TIMEOUT_MS);
+                } catch (QemuMonitorClient.QmpException e) {
+                    if (e.getMessage() == null || !e.getMessage().contains("format")) {
+                        throw e;
+                    }
+                    state.ppmOnly = true;
+                    return capture(vm, state);
+                }
+            } else {
+                client.execute("screendump", QemuJson.object("filename", dumpFile.getAbsolutePath()), SCREENDUMP_TIMEOUT_MS);
+            }
+
+            byte[] data = Files.readAllBytes(dumpFile.toPath());
+            CRC32 crc = new CRC32();
+            crc.update(data);
+            if (crc.getValue() == state.lastChecksum && cache.get(vm) != null) {
+                return false; // Identical frame: skip decoding, scaling and repainting
+            }
+            state.lastChecksum = crc.getValue();
+
+            BufferedImage frame = state.ppmOnly ? decodePpm(data) : ImageIO.read(new ByteArrayInputStream(data));
+            if (frame == null) {
+                throw new IOException("Unreadable screendump");
+            }
+            cache.put(vm, scale(frame));
+        } finally {
+            dumpFile.delete();
+        }
+
+        Listener current = listener;
+        if (current != null) {
+            SwingUtilities.invokeLater(() -> current.thumbnailUpdated(vm));
+        }
+        return true;
+    }
+
+    private static BufferedImage scale(BufferedImage frame) {
+        double factor = Math.min((double) THUMBNAIL_WIDTH / frame.getWidth(), (double) THUMBNAIL_HEIGHT / frame.getHeight());
+        int width = Math.max(1, (int) Math.round(frame.getWidth() * factor));
+        int height = Math.max(1, (int) Math.round(frame.getHeight() * factor));
+        BufferedImage thumbnail = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g2d = thumbnail.createGraphics();
+        g2d.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        g2d.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+        g2d.drawImage(frame, 0, 0, width, height, null);
+        g2d.dispose();
+        return thumbnail;
+    }
+
+    /**
+     * Decodes the binary PPM (P6) format that older QEMU versions dump
+     */
+    private static BufferedImage decodePpm(byte[] data) throws IOException {
+        int[] pos = {0};
+        if (!"P6".equals(readPpmToken(data, pos))) {
+            throw new IOException("Not a binary PPM file");
+        }
+        int width;
+        int height;
+        int maxValue;
+        try {
+            width = Integer.parseInt(readPpmToken(data, pos));
+            height = Integer.parseInt(readPpmToken(data, pos));
+            maxValue = Integer.parseInt(readPpmToken(data, pos));
+        } catch (NumberFormatException e) {
+            throw new IOException("Corrupt PPM header");
+        }
+        int offset = pos[0] + 1; // Single whitespace byte after the header
+        if (maxValue != 255 || width <= 0 || height <= 0 || offset + (long) width * height * 3 > data.length) {
+            throw new IOException("Unsupported PPM image");
+        }
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        int[] pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+        for (int i = 0; i < pixels.length; i++, offset += 3) {
+            pixels[i] = (data[offset] & 0xff) << 16 | (data[offset + 1] & 0xff) << 8 | (data[offset + 2] & 0xff);
+        }
+        return image;
+    }
+
+    private static String readPpmToken(byte[] data, int[] pos) {
+        int i = pos[0];
+        while (i < data.length && Character.isWhitespace(data[i])) {
+            i++;
+        }
+        int start = i;
+        while (i < data.length && !Character.isWhitespace(data[i])) {
+            i++;
+        }
+        pos[0] = i;
+        return new String(data, start, i - start, StandardCharsets.US_ASCII);
+    }
+}
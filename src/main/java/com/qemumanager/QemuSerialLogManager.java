@@ -0,0 +1,125 @@
+package com.qemumanager;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Captures the serial console of each running VM into its own rotating log
+ * under the logs directory. QEMU exposes the serial port as a local socket;
+ * one thread per VM drains it into a {@link QemuLogAppender}. Because QEMU
+ * keeps the socket listening, a later manager session picks the log up again
+ * after adopting the VM.
+ */
+public class QemuSerialLogManager {
+    private static QemuSerialLogManager instance;
+
+    private static final int CONNECT_TIMEOUT_MS = 2000;
+    private static final long RECONNECT_DELAY_MS = 1000;
+
+    private static class Capture {
+        final QemuLogAppender appender;
+        volatile Socket socket;
+        volatile boolean stopped;
+
+        Capture(QemuLogAppender appender) {
+            this.appender = appender;
+        }
+    }
+
+    private final Map<QemuVm, Capture> captures = new IdentityHashMap<>();
+
+    private QemuSerialLogManager() {
+    }
+
+    public static synchronized QemuSerialLogManager getInstance() {
+        if (instance == null) {
+            instance = new QemuSerialLogManager();
+        }
+        return instance;
+    }
+
+    public File getLogDirectory(QemuVm vm) {
+        return new File(QemuSettings.getInstance().getQemuManagerLogsPath(), vm.getFileSafeName());
+    }
+
+    /**
+     * The segment currently being written for the VM
+     */
+    public File getActiveLogFile(QemuVm vm) {
+        return new File(getLogDirectory(vm), "serial.log");
+    }
+
+    /**
+     * Starts draining the VM's serial socket until the process exits or {@link #detach} is called
+     */
+    public synchronized void attach(QemuVm vm, ProcessHandle handle) {
+        int port = vm.getSerialPort();
+        if (port <= 0 || captures.containsKey(vm)) {
+            return;
+        }
+        Capture capture = new Capture(QemuLogAppender.fromSettings(getLogDirectory(vm), "serial"));
+        captures.put(vm, capture);
+        Thread thread = new Thread(() -> drain(vm, handle, port, capture), "Serial " + vm.getName());
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public synchronized void detach(QemuVm vm) {
+        Capture capture = captures.remove(vm);
+        if (capture != null) {
+            capture.stopped = true;
+            closeSocket(capture);
+        }
+    }
+
+    private void drain(QemuVm vm, ProcessHandle handle, int port, Capture capture) {
+        byte[] buffer = new byte[8192];
+        try {
+            while (!capture.stopped && handle.isAlive()) {
+                // QEMU may not be listening yet, or dropped us; keep trying while it runs
+                try (Socket socket = new Socket()) {
+                    socket.connect(new InetSocketAddress("127.0.0.1", port), CONNECT_TIMEOUT_MS);
+                    capture.socket = socket;
+                    if (capture.stopped) {
+                        break;
+                    }
+                    InputStream in = socket.getInputStream();
+                    int n;
+                    while ((n = in.read(buffer)) > 0) {
+                        capture.appender.append(buffer, 0, n);
+                    }
+                } catch (IOException e) {
+                    // Retry below
+                }
+                try {
+                    Thread.sleep(RECONNECT_DELAY_MS);
+                } catch (InterruptedException e) {
+                    break;
+                }
+            }
+        } finally {
+            capture.appender.close();
+            synchronized (this) {
+                if (captures.get(vm) == capture) {
+                    captures.remove(vm);
+                }
+            }
+        }
+    }
+
+    private void closeSocket(Capture capture) {
+        Socket socket = capture.socket;
+        if (socket != null) {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // Already closed
+            }
+        }
+    }
+}
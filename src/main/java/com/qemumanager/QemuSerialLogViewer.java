@@ -0,0 +1,145 @@
+package com.qemumanager;
+
+import javax.swing.*;
+import java.awt.*;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Objects;
+
+/**
+ * Window that follows the active serial log segment of a VM, like tail -f.
+ * Reads only new bytes through a FileChannel, reopens the file after a
+ * rotation, and keeps a bounded amount of text so long sessions do not
+ * grow the heap. Older output stays in the rotated segments on disk.
+ */
+public class QemuSerialLogViewer extends JPanel {
+    private static final int INITIAL_TAIL_BYTES = 64 * 1024;
+    private static final int MAX_READ_BYTES = 256 * 1024;
+    private static final int MAX_DISPLAY_CHARS = 512 * 1024;
+    private static final long POLL_INTERVAL_MS = 500;
+
+    private final File logFile;
+    private final JTextArea textArea;
+    private volatile boolean stopped;
+
+    public QemuSerialLogViewer(File logFile) {
+        super(new BorderLayout());
+        this.logFile = logFile;
+        textArea = new JTextArea();
+        textArea.setEditable(false);
+        textArea.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 12));
+        textArea.setBackground(Color.BLACK);
+        textArea.setForeground(Color.LIGHT_GRAY);
+        add(new JScrollPane(textArea), BorderLayout.CENTER);
+
+        JLabel pathLabel = new JLabel(logFile.getPath());
+        pathLabel.setFont(pathLabel.getFont().deriveFont(Font.ITALIC, 11f));
+        add(pathLabel, BorderLayout.SOUTH);
+    }
+
+    public static void showForVm(Component parent, QemuVm vm) {
+        QemuSerialLogViewer viewer = new QemuSerialLogViewer(QemuSerialLogManager.getInstance().getActiveLogFile(vm));
+        JFrame frame = new JFrame("Serial Log - " + vm.getName());
+        frame.setDefaultCloseOperation(WindowConstants.DISPOSE_ON_CLOSE);
+        frame.add(viewer);
+        frame.addWindowListener(new WindowAdapter() {
+            @Override
+            public void windowClosed(WindowEvent e) {
+                viewer.stop();
+            }
+        });
+        frame.setSize(900, 600);
+        frame.setLocationRelativeTo(parent);
+        frame.setVisible(true);
+        viewer.start();
+    }
+
+    public void start() {
+        Thread thread = new Thread(this::follow, "Serial log viewer");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public void stop() {
+        stopped = true;
+    }
+
+    private void follow() {
+        FileChannel channel = null;
+        Object fileKey = null;
+        long position = 0;
+        ByteBuffer buffer = ByteBuffer.allocate(MAX_READ_BYTES);
+        CharBuffer chars = CharBuffer.allocate(MAX_READ_BYTES);
+        CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        try {
+            while (!stopped) {
+                try {
+                    // A rotation replaces the file: start over on the new segment
+                    Object currentKey = Files.readAttributes(logFile.toPath(), BasicFileAttributes.class).fileKey();
+                    if (channel != null && (!Objects.equals(currentKey, fileKey) || channel.size() < position)) {
+                        channel.close();
+                        channel = null;
+                    }
+                    if (channel == null) {
+                        channel = FileChannel.open(logFile.toPath(), StandardOpenOption.READ);
+                        boolean first = fileKey == null;
+                        fileKey = currentKey;
+                        position = first ? Math.max(0, channel.size() - INITIAL_TAIL_BYTES) : 0;
+                        decoder.reset();
+                    }
+                    buffer.clear();
+                    int n = channel.read(buffer, position);
+                    if (n > 0) {
+                        position += n;
+                        buffer.flip();
+                        chars.clear();
+                        decoder.decode(buffer, chars, false); // A split character waits for the next read
+                        chars.flip();
+                        String text = chars.toString().replace("\r", "");
+                        position -= buffer.remaining();
+                        SwingUtilities.invokeLater(() -> appendText(text));
+                        continue; // More may be waiting
+                    }
+                } catch (NoSuchFileException e) {
+                    // Not created yet, or between rotation steps
+                }
+                Thread.sleep(POLL_INTERVAL_MS);
+            }
+        } catch (IOException e) {
+            SwingUtilities.invokeLater(() -> appendText("\n[Cannot read " + logFile + ": " + e.getMessage() + "]\n"));
+        } catch (InterruptedException e) {
+            // Window closed
+        } finally {
+            if (channel != null) {
+                try {
+                    channel.close();
+                } catch (IOException e) {
+                    // Nothing left to do with it
+                }
+            }
+        }
+    }
+
+    private void appendText(String text) {
+        textArea.append(text);
+        int excess = textArea.getDocument().getLength() - MAX_DISPLAY_CHARS;
+        if (excess > 0) {
+            textArea.replaceRange("", 0, excess);
+        }
+        textArea.setCaretPosition(textArea.getDocument().getLength());
+    }
+}
@@ -1,13 +1,21 @@
 package com.qemumanager;
 
 import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
 import java.util.Properties;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Manages application settings and configuration
  */
 public class QemuSettings {
     private static QemuSettings instance;
+    // Bumped by every setter of a setting that feeds QEMU command lines, see QemuVm.generateQemuCommand
+    private static final AtomicInteger commandRevision = new AtomicInteger();
     private Properties properties;
     private final String CONFIG_FILE = System.getProperty("user.home") + "/.qemumanager.properties";
     
@@ -16,13 +24,20 @@ public class QemuSettings {
         loadSettings();
     }
     
-    public static QemuSettings getInstance() {
+    public static synchronized QemuSettings getInstance() {
         if (instance == null) {
             instance = new QemuSettings();
         }
         return instance;
     }
     
+    /**
+     * Changes whenever a setting used to build QEMU command lines does
+     */
+    public static int getCommandRevision() {
+        return commandRevision.get();
+    }
+    
     private void loadSettings() {
         try {
             File configFile = new File(CONFIG_FILE);
@@ -54,13 +69,75 @@ public class QemuSettings {
         properties.setProperty("vm.default.cores", "1");
         properties.setProperty("vm.default.architecture", "x86_64");
         properties.setProperty("vnc.viewer.path", "");
+        properties.setProperty("vnc.viewer.embedded", "true");
+        properties.setProperty("network.bridge.helper", ""); // Empty for QEMU's built-in default
+        properties.setProperty("sharing.virtiofsd.path", "/usr/libexec/virtiofsd"); // Empty to share over 9p only
         properties.setProperty("auto.save.settings", "true");
+        properties.setProperty("launch.helper.enabled", "false");
         
         // Set default QemuManager paths
         String userHome = System.getProperty("user.home");
         properties.setProperty("qemumanager.base.path", userHome + File.separator + ".QemuManager");
         properties.setProperty("qemumanager.disks.path", userHome + File.separator + ".QemuManager" + File.separator + "disks");
         properties.setProperty("qemumanager.vms.path", userHome + File.separator + ".QemuManager" + File.separator + "vms");
+        properties.setProperty("qemumanager.run.path", userHome + File.separator + ".QemuManager" + File.separator + "run");
+        properties.setProperty("qemumanager.logs.path", userHome + File.separator + ".QemuManager" + File.separator + "logs");
+        properties.setProperty("qemumanager.backups.path", userHome + File.separator + ".QemuManager" + File.separator + "backups");
+        
+        // Display ports handed out automatically at VM start
+        properties.setProperty("display.port.range.start", "5901");
+        properties.setProperty("display.port.range.end", "5999");
+        
+        // Local control sockets (QMP and similar) handed out at VM start
+        properties.setProperty("control.port.range.start", "6100");
+        properties.setProperty("control.port.range.end", "6499");
+        
+        // Boot of autostart VMs when the manager launches; 0 budgets mean "size of this host"
+        properties.setProperty("autostart.enabled", "true");
+        properties.setProperty("autostart.cpu.budget", "0");
+        properties.setProperty("autostart.memory.budget.mb", "0");
+        
+        // Per-VM serial console capture; segments rotate by size or age and are gzipped
+        properties.setProperty("serial.log.enabled", "true");
+        properties.setProperty("serial.log.rotate.size.mb", "10");
+        properties.setProperty("serial.log.rotate.hours", "24");
+        properties.setProperty("serial.log.keep", "10");
+        
+        // Host capacity checked at VM start; overcommit in percent of the host's CPUs and usable memory
+        properties.setProperty("capacity.enforce", "true");
+        properties.setProperty("capacity.cpu.overcommit.percent", "400");
+        properties.setProperty("capacity.memory.overcommit.percent", "100");
+        properties.setProperty("capacity.host.reserve.mb", "1024");
+        properties.setProperty("capacity.disk.min.free.mb", "1024");
+        
+        // Per-VM cgroup v2 groups for resource limits; an empty parent means next to the manager's own cgroup
+        properties.setProperty("cgroup.enabled", "true");
+        properties.setProperty("cgroup.root", "/sys/fs/cgroup");
+        properties.setProperty("cgroup.parent", "");
+        
+        // Live migration defaults; 0 channels is a single stream, 0 MB/s no bandwidth cap
+        properties.setProperty("migration.postcopy", "false");
+        properties.setProperty("migration.autoconverge", "true");
+        properties.setProperty("migration.multifd.channels", "4");
+        properties.setProperty("migration.max.bandwidth.mbps", "0");
+        properties.setProperty("migration.downtime.limit.ms", "300");
+        properties.setProperty("migration.listen.address", "0.0.0.0");
+        properties.setProperty("migration.port", "49152");
+        
+        // Disk backups: a new full backup after this many files in a chain, number of chains kept
+        properties.setProperty("backup.full.every", "7");
+        properties.setProperty("backup.retention.chains", "2");
+        
+        // Disk integrity checks: parallel checks, hours between scheduled runs (0 = off), leak repair
+        properties.setProperty("disk.check.workers", "2");
+        properties.setProperty("disk.check.interval.hours", "24");
+        properties.setProperty("disk.check.repair.leaks", "true");
+        
+        // Live disk moves: mirror speed cap in MB/s (0 = none)
+        properties.setProperty("disk.move.speed.mbps", "0");
+        
+        // Storage pools: new disks go to the pool with the most free space, or the fastest that fits ("tier")
+        properties.setProperty("storage.placement", "free");
     }
     
     public void saveSettings() {
@@ -79,6 +156,7 @@ public class QemuSettings {
     
     public void setQemuPath(String path) {
         properties.setProperty("qemu.path", path);
+        commandRevision.incrementAndGet();
         if (isAutoSaveEnabled()) {
             saveSettings();
         }
@@ -128,6 +206,97 @@ public class QemuSettings {
         }
     }
     
+    /**
+     * qemu-bridge-helper used by bridged NICs; empty for the path QEMU was built with
+     */
+    public String getBridgeHelperPath() {
+        return properties.getProperty("network.bridge.helper", "");
+    }
+    
+    public void setBridgeHelperPath(String path) {
+        properties.setProperty("network.bridge.helper", path);
+        commandRevision.incrementAndGet();
+        if (isAutoSaveEnabled()) {
+            saveSettings();
+        }
+    }
+    
+    /**
+     * virtiofsd serving virtiofs shared folders; without it they are shared over 9p
+     */
+    public String getVirtiofsdPath() {
+        return properties.getProperty("sharing.virtiofsd.path", "/usr/libexec/virtiofsd");
+    }
+    
+    public void setVirtiofsdPath(String path) {
+        properties.setProperty("sharing.virtiofsd.path", path);
+        commandRevision.incrementAndGet();
+        if (isAutoSaveEnabled()) {
+            saveSettings();
+        }
+    }
+    
+    public boolean isEmbeddedVncViewerEnabled() {
+        return Boolean.parseBoolean(properties.getProperty("vnc.viewer.embedded", "true"));
+    }
+    
+    public void setEmbeddedVncViewerEnabled(boolean enabled) {
+        properties.setProperty("vnc.viewer.embedded", String.valueOf(enabled));
+        if (isAutoSaveEnabled()) {
+            saveSettings();
+        }
+    }
+    
+    public boolean isLaunchHelperEnabled() {
+        return Boolean.parseBoolean(properties.getProperty("launch.helper.enabled", "false"));
+    }
+    
+    public void setLaunchHelperEnabled(boolean enabled) {
+        properties.setProperty("launch.helper.enabled", String.valueOf(enabled));
+        if (isAutoSaveEnabled()) {
+            saveSettings();
+        }
+    }
+    
+    public boolean isAutostartEnabled() {
+        return Boolean.parseBoolean(properties.getProperty("autostart.enabled", "true"));
+    }
+    
+    public void setAutostartEnabled(boolean enabled) {
+        properties.setProperty("autostart.enabled", String.valueOf(enabled));
+        if (isAutoSaveEnabled()) {
+            saveSettings();
+        }
+    }
+    
+    /**
+     * vCPUs that may be booting at the same time during autostart, 0 for the host's CPU count
+     */
+    public int getAutostartCpuBudget() {
+        return Integer.parseInt(properties.getProperty("autostart.cpu.budget", "0"));
+    }
+    
+    public void setAutostartCpuBudget(int cpus) {
+        properties.setProperty("autostart.cpu.budget", String.valueOf(cpus));
+        if (isAutoSaveEnabled()) {
+            saveSettings();
+        }
+    }
+    
+    /**
+     * Guest memory autostart may commit in total, 0 for the host's available memory
+     */
+    public int getAutostartMemoryBudgetMB() {
+        return Integer.parseInt(properties.getProperty("autostart.memory.budget.mb", "0"));
+    }
+    
+    public void setAutostartMemoryBudgetMB(int memoryMB) {
+        properties.setProperty("autostart.memory.budget.mb", String.valueOf(memoryMB));
+        if (isAutoSaveEnabled()) {
+            saveSettings();
+        }
+    }
+    
     public boolean isAutoSaveEnabled() {
         return Boolean.parseBoolean(properties.getProperty("auto.save.settings", "true"));
     }
@@ -143,6 +312,7 @@ public class QemuSettings {
     
     public void setProperty(String key, String value) {
         properties.setProperty(key, value);
+        commandRevision.incrementAndGet();
         if (isAutoSaveEnabled()) {
             saveSettings();
         }
@@ -156,6 +326,7 @@ public class QemuSettings {
     
     public void setQemuManagerBasePath(String path) {
         properties.setProperty("qemumanager.base.path", path);
+        commandRevision.incrementAndGet();
         if (isAutoSaveEnabled()) {
             saveSettings();
         }
@@ -185,11 +356,504 @@ public class QemuSettings {
         }
     }
     
+    public String getQemuManagerRunPath() {
+        String basePath = getQemuManagerBasePath();
+        return properties.getProperty("qemumanager.run.path", basePath + File.separator + "run");
+    }
+    
+    public void setQemuManagerRunPath(String path) {
+        properties.setProperty("qemumanager.run.path", path);
+        commandRevision.incrementAndGet();
+        if (isAutoSaveEnabled()) {
+            saveSettings();
+        }
+    }
+    
+    public String getQemuManagerLogsPath() {
+        String basePath = getQemuManagerBasePath();
+        return properties.getProperty("qemumanager.logs.path", basePath + File.separator + "logs");
+    }
+    
+    public void setQemuManagerLogsPath(String path) {
+        properties.setProperty("qemumanager.logs.path", path);
+        if (isAutoSaveEnabled()) {
+            saveSettings();
+        }
+    }
+    
+    public String getBackupPath() {
+        String basePath = getQemuManagerBasePath();
+        return properties.getProperty("qemumanager.backups.path", basePath + File.separator + "backups");
+    }
+    
+    public void setBackupPath(String path) {
+        properties.setProperty("qemumanager.backups.path", path);
+        if (isAutoSaveEnabled()) {
+            saveSettings();
+        }
+    }
+    
+    // Serial console logs
+    public boolean isSerialLogEnabled() {
+        return Boolean.parseBoolean(properties.getProperty("serial.log.enabled", "true"));
+    }
+    
+    public void setSerialLogEnabled(boolean enabled) {
+        properties.setProperty("serial.log.enabled", String.valueOf(enabled));
+        if (isAutoSaveEnabled()) {
+            saveSettings();
+        }
+    }
+    
+    public int getSerialLogRotateSizeMB() {
+        return Integer.parseInt(properties.getProperty("serial.log.rotate.size.mb", "10"));
+    }
+    
+    public void setSerialLogRotateSizeMB(int sizeMB) {
+        properties.setProperty("serial.log.rotate.size.mb", String.valueOf(sizeMB));
+        if (isAutoSaveEnabled()) {
+            saveSettings();
+        }
+    }
+    
+    public int getSerialLogRotateHours() {
+        return Integer.parseInt(properties.getProperty("serial.log.rotate.hours", "24"));
+    }
+    
+    public void setSerialLogRotateHours(int hours) {
+        properties.setProperty("serial.log.rotate.hours", String.valueOf(hours));
+        if (isAutoSaveEnabled()) {
+            saveSettings();
+        }
+    }
+    
+    /**
+     * Compressed segments kept per VM besides the active one
+     */
+    public int getSerialLogKeep() {
+        return Integer.parseInt(properties.getProperty("serial.log.keep", "10"));
+    }
+    
+    public void setSerialLogKeep(int segments) {
+        properties.setProperty("serial.log.keep", String.valueOf(segments));
+        if (isAutoSaveEnabled()) {
+            saveSettings();
+        }
+    }
+    
+    // Host capacity planning
+    public boolean isCapacityEnforced() {
+        return Boolean.parseBoolean(properties.getProperty("capacity.enforce", "true"));
+    }
+    
+    public void setCapacityEnforced(boolean enforced) {
+        properties.setProperty("capacity.enforce", String.valueOf(enforced));
+        if (isAutoSaveEnabled()) {
+            saveSettings();
+        }
+    }
+    
+    /**
+     * vCPUs that may be committed, in percent of the host's logical CPUs
+     */
+    public int getCpuOvercommitPercent() {
+        return Integer.parseInt(properties.getProperty("capacity.cpu.overcommit.percent", "400"));
+    }
+    
+    public void setCpuOvercommitPercent(int percent) {
+        properties.setProperty("capacity.cpu.overcommit.percent", String.valueOf(percent));
+        if (isAutoSaveEnabled()) {
+            saveSettings();
+        }
+    }
+    
+    /**
+     * Guest memory that may be committed, in percent of the host memory left for VMs
+     */
+    public int getMemoryOvercommitPercent() {
+        return Integer.parseInt(properties.getProperty("capacity.memory.overcommit.percent", "100"));
+    }
+    
+    public void setMemoryOvercommitPercent(int percent) {
+        properties.setProperty("capacity.memory.overcommit.percent", String.valueOf(percent));
+        if (isAutoSaveEnabled()) {
+            saveSettings();
+        }
+    }
+    
+    /**
+     * Host memory kept back for the host itself and QEMU overhead
+     */
+    public int getHostReserveMB() {
+        return Integer.parseInt(properties.getProperty("capacity.host.reserve.mb", "1024"));
+    }
+    
+    public void setHostReserveMB(int reserveMB) {
+        properties.setProperty("capacity.host.reserve.mb", String.valueOf(reserveMB));
+        if (isAutoSaveEnabled()) {
+            saveSettings();
+        }
+    }
+    
+    /**
+     * Free space required on the disks volume before a VM may start
+     */
+    public int getDiskMinFreeMB() {
+        return Integer.parseInt(properties.getProperty("capacity.disk.min.free.mb", "1024"));
+    }
+    
+    public void setDiskMinFreeMB(int freeMB) {
+        properties.setProperty("capacity.disk.min.free.mb", String.valueOf(freeMB));
+        if (isAutoSaveEnabled()) {
+            saveSettings();
+        }
+    }
+    
+    // cgroup resource isolation
+    public boolean isCgroupEnabled() {
+        return Boolean.parseBoolean(properties.getProperty("cgroup.enabled", "true"));
+    }
+    
+    public void setCgroupEnabled(boolean enabled) {
+        properties.setProperty("cgroup.enabled", String.valueOf(enabled));
+        if (isAutoSaveEnabled()) {
+            saveSettings();
+        }
+    }
+    
+    public String getCgroupRoot() {
+        return properties.getProperty("cgroup.root", "/sys/fs/cgroup");
+    }
+    
+    /**
+     * Group under the cgroup root to create the VM groups in; empty to use the manager's own parent
+     */
+    public String getCgroupParent() {
+        return properties.getProperty("cgroup.parent", "");
+    }
+    
+    public void setCgroupParent(String parent) {
+        properties.setProperty("cgroup.parent", parent);
+        if (isAutoSaveEnabled()) {
+            saveSettings();
+        }
+    }
+    
+    // Live migration
+    public boolean isMigrationPostcopy() {
+        return Boolean.parseBoolean(properties.getProperty("migration.postcopy", "false"));
+    }
+    
+    public void setMigrationPostcopy(boolean postcopy) {
+        properties.setProperty("migration.postcopy", String.valueOf(postcopy));
+        if (isAutoSaveEnabled()) {
+            saveSettings();
+        }
+    }
+    
+    public boolean isMigrationAutoConverge() {
+        return Boolean.parseBoolean(properties.getProperty("migration.autoconverge", "true"));
+    }
+    
+    public void setMigrationAutoConverge(boolean autoConverge) {
+        properties.setProperty("migration.autoconverge", String.valueOf(autoConverge));
+        if (isAutoSaveEnabled()) {
+            saveSettings();
+        }
+    }
+    
+    public int getMigrationMultifdChannels() {
+        return Integer.parseInt(properties.getProperty("migration.multifd.channels", "4"));
+    }
+    
+    public void setMigrationMultifdChannels(int channels) {
+        properties.setProperty("migration.multifd.channels", String.valueOf(channels));
+        if (isAutoSaveEnabled()) {
+            saveSettings();
+        }
+    }
+    
+    public int getMigrationMaxBandwidthMBps() {
+        return Integer.parseInt(properties.getProperty("migration.max.bandwidth.mbps", "0"));
+    }
+    
+    public void setMigrationMaxBandwidthMBps(int mbps) {
+        properties.setProperty("migration.max.bandwidth.mbps", String.valueOf(mbps));
+        if (isAutoSaveEnabled()) {
+            saveSettings();
+        }
+    }
+    
+    public int getMigrationDowntimeLimitMs() {
+        return Integer.parseInt(properties.getProperty("migration.downtime.limit.ms", "300"));
+    }
+    
+    public void setMigrationDowntimeLimitMs(int downtimeMs) {
+        properties.setProperty("migration.downtime.limit.ms", String.valueOf(downtimeMs));
+        if (isAutoSaveEnabled()) {
+            saveSettings();
+        }
+    }
+    
+    /**
+     * Address a VM received from another host listens on
+     */
+    public String getMigrationListenAddress() {
+        return properties.getProperty("migration.listen.address", "0.0.0.0");
+    }
+    
+    public int getMigrationPort() {
+        return Integer.parseInt(properties.getProperty("migration.port", "49152"));
+    }
+    
+    public void setMigrationPort(int port) {
+        properties.setProperty("migration.port", String.valueOf(port));
+        if (isAutoSaveEnabled()) {
+            saveSettings();
+        }
+    }
+    
+    // Disk backups
+    /**
+     * Length of a backup chain (the full backup plus incrementals) after which the next backup is full again
+     */
+    public int getBackupFullEvery() {
+        return Integer.parseInt(properties.getProperty("backup.full.every", "7"));
+    }
+    
+    public void setBackupFullEvery(int count) {
+        properties.setProperty("backup.full.every", String.valueOf(count));
+        if (isAutoSaveEnabled()) {
+            saveSettings();
+        }
+    }
+    
+    /**
+     * Number of backup chains kept per VM; older ones are deleted after each backup
+     */
+    public int getBackupRetentionChains() {
+        return Integer.parseInt(properties.getProperty("backup.retention.chains", "2"));
+    }
+    
+    public void setBackupRetentionChains(int chains) {
+        properties.setProperty("backup.retention.chains", String.valueOf(chains));
+        if (isAutoSaveEnabled()) {
+            saveSettings();
+        }
+    }
+    
+    // Disk integrity checks
+    /**
+     * Number of images checked at the same time
+     */
+    public int getDiskCheckWorkers() {
+        return Integer.parseInt(properties.getProperty("disk.check.workers", "2"));
+    }
+    
+    public void setDiskCheckWorkers(int workers) {
+        properties.setProperty("disk.check.workers", String.valueOf(workers));
+        if (isAutoSaveEnabled()) {
+            saveSettings();
+        }
+    }
+    
+    /**
+     * Hours between scheduled checks of changed images, 0 to check only on request
+     */
+    public int getDiskCheckIntervalHours() {
+        return Integer.parseInt(properties.getProperty("disk.check.interval.hours", "24"));
+    }
+    
+    public void setDiskCheckIntervalHours(int hours) {
+        properties.setProperty("disk.check.interval.hours", String.valueOf(hours));
+        if (isAutoSaveEnabled()) {
+            saveSettings();
+        }
+    }
+    
+    public boolean isDiskCheckRepairLeaks() {
+        return Boolean.parseBoolean(properties.getProperty("disk.check.repair.leaks", "true"));
+    }
+    
+    public void setDiskCheckRepairLeaks(boolean repair) {
+        properties.setProperty("disk.check.repair.leaks", String.valueOf(repair));
+        if (isAutoSaveEnabled()) {
+            saveSettings();
+        }
+    }
+    
+    // Disk moves
+    /**
+     * Speed cap of a running VM's disk mirror in MB/s, 0 for none; remembered from the last move
+     */
+    public int getDiskMoveSpeedMBps() {
+        return Integer.parseInt(properties.getProperty("disk.move.speed.mbps", "0"));
+    }
+    
+    public void setDiskMoveSpeedMBps(int speed) {
+        properties.setProperty("disk.move.speed.mbps", String.valueOf(speed));
+        if (isAutoSaveEnabled()) {
+            saveSettings();
+        }
+    }
+    
+    // Named disk throttle groups, stored as throttle.group.<name>=<limits>
+    private static final String THROTTLE_GROUP_PREFIX = "throttle.group.";
+    
+    public Map<String, QemuDiskThrottle> getThrottleGroups() {
+        Map<String, QemuDiskThrottle> groups = new TreeMap<>();
+        for (String key : properties.stringPropertyNames()) {
+            if (key.startsWith(THROTTLE_GROUP_PREFIX)) {
+                groups.put(key.substring(THROTTLE_GROUP_PREFIX.length()), QemuDiskThrottle.parse(properties.getProperty(key)));
+            }
+        }
+        return groups;
+    }
+    
+    /**
+     * Returns the limits of the named group, or null if there is no such group
+     */
+    public QemuDiskThrottle getThrottleGroup(String name) {
+        String spec = properties.getProperty(THROTTLE_GROUP_PREFIX + name);
+        return spec != null ? QemuDiskThrottle.parse(spec) : null;
+    }
+    
+    /**
+     * Replaces all throttle groups
+     */
+    public void setThrottleGroups(Map<String, QemuDiskThrottle> groups) {
+        for (String key : properties.stringPropertyNames()) {
+            if (key.startsWith(THROTTLE_GROUP_PREFIX)) {
+                properties.remove(key);
+            }
+        }
+        for (Map.Entry<String, QemuDiskThrottle> group : groups.entrySet()) {
+            properties.setProperty(THROTTLE_GROUP_PREFIX + group.getKey(), group.getValue().format());
+        }
+        commandRevision.incrementAndGet();
+        if (isAutoSaveEnabled()) {
+            saveSettings();
+        }
+    }
+    
+    // Storage pools besides the disks directory, stored as storage.pool.<name>=<tier>,<directory>
+    private static final String STORAGE_POOL_PREFIX = "storage.pool.";
+    
+    /**
+     * Returns the default pool, the disks directory, followed by the configured pools by name
+     */
+    public List<QemuStoragePool> getStoragePools() {
+        List<QemuStoragePool> pools = new ArrayList<>();
+        pools.add(new QemuStoragePool(QemuStoragePool.DEFAULT_NAME, getQemuManagerDisksPath(),
+            QemuStoragePool.Tier.STANDARD));
+        for (String key : new TreeSet<>(properties.stringPropertyNames())) {
+            if (key.startsWith(STORAGE_POOL_PREFIX)) {
+                pools.add(QemuStoragePool.parse(key.substring(STORAGE_POOL_PREFIX.length()), properties.getProperty(key)));
+            }
+        }
+        return pools;
+    }
+    
+    /**
+     * Replaces all configured pools; the default pool is not stored
+     */
+    public void setStoragePools(List<QemuStoragePool> pools) {
+        for (String key : properties.stringPropertyNames()) {
+            if (key.startsWith(STORAGE_POOL_PREFIX)) {
+                properties.remove(key);
+            }
+        }
+        for (QemuStoragePool pool : pools) {
+            if (!QemuStoragePool.DEFAULT_NAME.equals(pool.getName())) {
+                properties.setProperty(STORAGE_POOL_PREFIX + pool.getName(), pool.format());
+            }
+        }
+        if (isAutoSaveEnabled()) {
+            saveSettings();
+        }
+    }
+    
+    /**
+     * How new disks are placed, QemuStoragePools.PLACEMENT_FREE or PLACEMENT_TIER
+     */
+    public String getStoragePlacement() {
+        return properties.getProperty("storage.placement", QemuStoragePools.PLACEMENT_FREE);
+    }
+    
+    public void setStoragePlacement(String placement) {
+        properties.setProperty("storage.placement", placement);
+        if (isAutoSaveEnabled()) {
+            saveSettings();
+        }
+    }
+    
+    /**
+     * Pool names end up in property keys
+     */
+    public static boolean isValidStoragePoolName(String name) {
+        return name.matches("[A-Za-z0-9_.-]{1,32}");
+    }
+    
+    /**
+     * Group names end up in property keys and QEMU object ids
+     */
+    public static boolean isValidThrottleGroupName(String name) {
+        return name.matches("[A-Za-z0-9_.-]{1,32}");
+    }
+    
+    // Display port allocation range
+    public int getDisplayPortRangeStart() {
+        return Integer.parseInt(properties.getProperty("display.port.range.start", "5901"));
+    }
+    
+    public void setDisplayPortRangeStart(int port) {
+        properties.setProperty("display.port.range.start", String.valueOf(port));
+        if (isAutoSaveEnabled()) {
+            saveSettings();
+        }
+    }
+    
+    public int getDisplayPortRangeEnd() {
+        return Integer.parseInt(properties.getProperty("display.port.range.end", "5999"));
+    }
+    
+    public void setDisplayPortRangeEnd(int port) {
+        properties.setProperty("display.port.range.end", String.valueOf(port));
+        if (isAutoSaveEnabled()) {
+            saveSettings();
+        }
+    }
+    
+    // Control socket allocation range
+    public int getControlPortRangeStart() {
+        return Integer.parseInt(properties.getProperty("control.port.range.start", "6100"));
+    }
+    
+    public void setControlPortRangeStart(int port) {
+        properties.setProperty("control.port.range.start", String.valueOf(port));
+        if (isAutoSaveEnabled()) {
+            saveSettings();
+        }
+    }
+    
+    public int getControlPortRangeEnd() {
+        return Integer.parseInt(properties.getProperty("control.port.range.end", "6499"));
+    }
+    
+    public void setControlPortRangeEnd(int port) {
+        properties.setProperty("control.port.range.end", String.valueOf(port));
+        if (isAutoSaveEnabled()) {
+            saveSettings();
+        }
+    }
+    
     // Utility method to ensure directories exist
     public void ensureDirectoriesExist() {
         createDirectoryIfNotExists(getQemuManagerBasePath());
         createDirectoryIfNotExists(getQemuManagerDisksPath());
         createDirectoryIfNotExists(getQemuManagerVmsPath());
+        createDirectoryIfNotExists(getQemuManagerRunPath());
+        createDirectoryIfNotExists(getQemuManagerLogsPath());
     }
     
     private void createDirectoryIfNotExists(String path) {
@@ -1,7 +1,14 @@
 package com.qemumanager;
 
 import javax.swing.*;
+import javax.swing.table.DefaultTableModel;
 import java.awt.*;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
 
 /**
  * Settings dialog for QEMU Manager
@@ -12,12 +19,51 @@ public class QemuSettingsDialog extends JDialog {
     // Form components
     private JTextField qemuPathField;
     private JTextField vncViewerPathField;
+    private JCheckBox embeddedViewerCheckBox;
+    private JTextField bridgeHelperPathField;
+    private JTextField virtiofsdPathField;
+    private JCheckBox launchHelperCheckBox;
+    private JCheckBox autostartCheckBox;
+    private JSpinner autostartCpuBudgetSpinner;
+    private JSpinner autostartMemoryBudgetSpinner;
+    private JCheckBox serialLogCheckBox;
+    private JSpinner serialLogSizeSpinner;
+    private JSpinner serialLogHoursSpinner;
+    private JSpinner serialLogKeepSpinner;
+    private JCheckBox capacityCheckBox;
+    private JSpinner cpuOvercommitSpinner;
+    private JSpinner memoryOvercommitSpinner;
+    private JSpinner hostReserveSpinner;
+    private JSpinner diskMinFreeSpinner;
+    private JCheckBox cgroupCheckBox;
+    private JTextField cgroupParentField;
+    private JCheckBox migrationPostcopyCheckBox;
+    private JCheckBox migrationAutoConvergeCheckBox;
+    private JSpinner migrationChannelsSpinner;
+    private JSpinner migrationBandwidthSpinner;
+    private JSpinner migrationDowntimeSpinner;
+    private JSpinner migrationPortSpinner;
+    private JSpinner backupFullEverySpinner;
+    private JSpinner backupRetentionSpinner;
+    private JSpinner diskCheckWorkersSpinner;
+    private JSpinner diskCheckIntervalSpinner;
+    private JCheckBox diskCheckRepairCheckBox;
+    private DefaultTableModel throttleGroupsModel;
+    private JTable throttleGroupsTable;
+    private DefaultTableModel storagePoolsModel;
+    private JTable storagePoolsTable;
+    private JComboBox<String> storagePlacementCombo;
     private JTextField basePathField;
     private JTextField disksPathField;
     private JTextField vmsPathField;
+    private JTextField backupPathField;
     private JSpinner defaultMemorySpinner;
     private JSpinner defaultCoresSpinner;
     private JComboBox<String> defaultArchCombo;
+    private JSpinner portRangeStartSpinner;
+    private JSpinner portRangeEndSpinner;
+    private JSpinner controlPortStartSpinner;
+    private JSpinner controlPortEndSpinner;
     private JCheckBox autoSaveCheckBox;
     
     public QemuSettingsDialog(JFrame parent) {
@@ -28,7 +74,7 @@ public class QemuSettingsDialog extends JDialog {
     }
     
     private void initializeUI() {
-        setSize(500, 400);
+        setSize(620, 480);
         setLocationRelativeTo(getParent());
         setDefaultCloseOperation(DISPOSE_ON_CLOSE);
         
@@ -39,7 +85,9 @@ public class QemuSettingsDialog extends JDialog {
         JTabbedPane tabbedPane = new JTabbedPane();
         tabbedPane.addTab("Paths", createPathsPanel());
         tabbedPane.addTab("Defaults", createDefaultsPanel());
-        tabbedPane.addTab("General", createGeneralPanel());
+        tabbedPane.addTab("General", new JScrollPane(createGeneralPanel()));
+        tabbedPane.addTab("Disk I/O", createThrottleGroupsPanel());
+        tabbedPane.addTab("Storage", createStoragePoolsPanel());
         
         mainPanel.add(tabbedPane, BorderLayout.CENTER);
         
@@ -88,6 +136,33 @@ public class QemuSettingsDialog extends JDialog {
         
         row++;
         
+        // Embedded viewer
+        gbc.gridx = 1; gbc.gridy = row; gbc.fill = GridBagConstraints.HORIZONTAL; gbc.weightx = 1.0;
+        embeddedViewerCheckBox = new JCheckBox("Use the built-in VNC viewer");
+        panel.add(embeddedViewerCheckBox, gbc);
+        
+        row++;
+        
+        // Bridge helper
+        gbc.gridx = 0; gbc.gridy = row; gbc.fill = GridBagConstraints.NONE; gbc.weightx = 0;
+        panel.add(new JLabel("Bridge Helper:"), gbc);
+        gbc.gridx = 1; gbc.fill = GridBagConstraints.HORIZONTAL; gbc.weightx = 1.0;
+        bridgeHelperPathField = new JTextField();
+        bridgeHelperPathField.setToolTipText("qemu-bridge-helper for bridged networks; empty for QEMU's default");
+        panel.add(bridgeHelperPathField, gbc);
+        
+        row++;
+        
+        // virtiofsd
+        gbc.gridx = 0; gbc.gridy = row; gbc.fill = GridBagConstraints.NONE; gbc.weightx = 0;
+        panel.add(new JLabel("virtiofsd:"), gbc);
+        gbc.gridx = 1; gbc.fill = GridBagConstraints.HORIZONTAL; gbc.weightx = 1.0;
+        virtiofsdPathField = new JTextField();
+        virtiofsdPathField.setToolTipText("Daemon serving virtiofs shared folders; empty to share them over 9p");
+        panel.add(virtiofsdPathField, gbc);
+        
+        row++;
+        
         // Separator
         gbc.gridx = 0; gbc.gridy = row; gbc.gridwidth = 2; gbc.fill = GridBagConstraints.HORIZONTAL;
         panel.add(new JSeparator(), gbc);
@@ -139,6 +214,21 @@ public class QemuSettingsDialog extends JDialog {
         
         row++;
         
+        // Backups Path
+        gbc.gridx = 0; gbc.gridy = row; gbc.fill = GridBagConstraints.NONE; gbc.weightx = 0;
+        panel.add(new JLabel("Backups Path:"), gbc);
+        gbc.gridx = 1; gbc.fill = GridBagConstraints.HORIZONTAL; gbc.weightx = 1.0;
+        
+        JPanel backupPathPanel = new JPanel(new BorderLayout());
+        backupPathField = new JTextField();
+        JButton backupPathBrowseButton = new JButton("Browse");
+        backupPathBrowseButton.addActionListener(e -> browseBackupPath());
+        backupPathPanel.add(backupPathField, BorderLayout.CENTER);
+        backupPathPanel.add(backupPathBrowseButton, BorderLayout.EAST);
+        panel.add(backupPathPanel, gbc);
+        
+        row++;
+        
         // Help text
         gbc.gridx = 0; gbc.gridy = row; gbc.gridwidth = 2; gbc.fill = GridBagConstraints.HORIZONTAL;
         JTextArea pathHelpText = new JTextArea(
@@ -148,12 +238,19 @@ public class QemuSettingsDialog extends JDialog {
             "• Linux: /usr/bin/qemu-system-x86_64\n" +
             "• macOS: /usr/local/bin/qemu-system-x86_64\n" +
             "• Windows: C:\\Program Files\\qemu\\qemu-system-x86_64.exe\n\n" +
-            "VNC Viewer: Optional VNC client for connecting to VM displays.\n" +
+            "VNC Viewer: Optional VNC client for connecting to VM displays. " +
+            "Only used when the built-in viewer is disabled or the VM uses a UNIX socket.\n" +
             "Examples: vncviewer, gvncviewer, or TightVNC viewer.\n\n" +
+            "Bridge Helper: setuid qemu-bridge-helper that attaches bridged NICs, allowed bridges " +
+            "are listed in /etc/qemu/bridge.conf. Leave empty for QEMU's default location.\n\n" +
+            "virtiofsd: Serves virtiofs shared folders, one daemon per folder. When it is missing or " +
+            "left empty, those folders are shared over the slower 9p instead.\n\n" +
             "QemuManager Paths: Configure where QemuManager stores its data.\n" +
             "• Base Path: Main directory for QemuManager data (default: ~/.QemuManager)\n" +
             "• Disk Images Path: Directory for disk image files\n" +
-            "• VMs Data Path: Directory for VM configuration and state files"
+            "• VMs Data Path: Directory for VM configuration and state files\n" +
+            "• Backups Path: Directory for disk backup chains, one subdirectory per VM. " +
+            "Preferably on another disk than the images"
         );
         pathHelpText.setEditable(false);
         pathHelpText.setOpaque(false);
@@ -165,6 +262,187 @@ public class QemuSettingsDialog extends JDialog {
         return panel;
     }
     
+    private JPanel createThrottleGroupsPanel() {
+        JPanel panel = new JPanel(new BorderLayout(5, 5));
+        panel.setBorder(BorderFactory.createEmptyBorder(10, 10, 10, 10));
+        
+        throttleGroupsModel = new DefaultTableModel(
+            new Object[]{"Group", "IOPS", "Burst IOPS", "MB/s", "Burst MB/s", "Burst (s)"}, 0) {
+            @Override
+            public Class<?> getColumnClass(int column) {
+                return column == 0 ? String.class : Integer.class;
+            }
+        };
+        throttleGroupsTable = new JTable(throttleGroupsModel);
+        throttleGroupsTable.getColumnModel().getColumn(0).setPreferredWidth(140);
+        panel.add(new JScrollPane(throttleGroupsTable), BorderLayout.CENTER);
+        
+        JPanel southPanel = new JPanel(new BorderLayout());
+        JPanel buttonPanel = new JPanel(new FlowLayout(FlowLayout.LEFT, 5, 0));
+        JButton addButton = new JButton("Add");
+        JButton removeButton = new JButton("Remove");
+        addButton.addActionListener(e -> {
+            throttleGroupsModel.addRow(new Object[]{"group" + (throttleGroupsModel.getRowCount() + 1), 0, 0, 0, 0, 0});
+            int row = throttleGroupsModel.getRowCount() - 1;
+            throttleGroupsTable.setRowSelectionInterval(row, row);
+            throttleGroupsTable.editCellAt(row, 0);
+        });
+        removeButton.addActionListener(e -> {
+            if (throttleGroupsTable.isEditing()) {
+                throttleGroupsTable.getCellEditor().cancelCellEditing();
+            }
+            int[] rows = throttleGroupsTable.getSelectedRows();
+            for (int i = rows.length - 1; i >= 0; i--) {
+                throttleGroupsModel.removeRow(rows[i]);
+            }
+        });
+        buttonPanel.add(addButton);
+        buttonPanel.add(removeButton);
+        southPanel.add(buttonPanel, BorderLayout.NORTH);
+        
+        JTextArea throttleHelpText = new JTextArea(
+            "Throttle groups are named disk limits shared by the VMs that select them. QEMU enforces them " +
+            "per VM process: every VM in a group gets the same limits, which all disks of the VM share. " +
+            "The burst rate may be used for the given time after the disk stayed below the sustained rate. " +
+            "0 means unlimited. Changed limits are applied to running VMs in the group right away."
+        );
+        throttleHelpText.setEditable(false);
+        throttleHelpText.setOpaque(false);
+        throttleHelpText.setFont(throttleHelpText.getFont().deriveFont(11f));
+        throttleHelpText.setWrapStyleWord(true);
+        throttleHelpText.setLineWrap(true);
+        throttleHelpText.setBorder(BorderFactory.createEmptyBorder(10, 0, 0, 0));
+        southPanel.add(throttleHelpText, BorderLayout.CENTER);
+        panel.add(southPanel, BorderLayout.SOUTH);
+        
+        return panel;
+    }
+    
+    /**
+     * Reads the throttle groups from the table, or returns null after telling the user what is wrong
+     */
+    private Map<String, QemuDiskThrottle> readThrottleGroups() {
+        if (throttleGroupsTable.isEditing()) {
+            throttleGroupsTable.getCellEditor().stopCellEditing();
+        }
+        Map<String, QemuDiskThrottle> groups = new TreeMap<>();
+        for (int row = 0; row < throttleGroupsModel.getRowCount(); row++) {
+            String name = String.valueOf(throttleGroupsModel.getValueAt(row, 0)).trim();
+            QemuDiskThrottle throttle = new QemuDiskThrottle(tableInt(row, 1), tableInt(row, 2),
+                tableInt(row, 3), tableInt(row, 4), tableInt(row, 5));
+            String problem = !QemuSettings.isValidThrottleGroupName(name)
+                ? "names may only contain letters, digits, '.', '-' and '_'"
+                : groups.containsKey(name) ? "the name is used twice" : throttle.validate();
+            if (problem != null) {
+                JOptionPane.showMessageDialog(this, "Throttle group '" + name + "': " + problem + ".",
+                    "Invalid Throttle Group", JOptionPane.ERROR_MESSAGE);
+                return null;
+            }
+            groups.put(name, throttle);
+        }
+        return groups;
+    }
+    
+    private JPanel createStoragePoolsPanel() {
+        JPanel panel = new JPanel(new BorderLayout(5, 5));
+        panel.setBorder(BorderFactory.createEmptyBorder(10, 10, 10, 10));
+        
+        JPanel placementPanel = new JPanel(new FlowLayout(FlowLayout.LEFT, 0, 0));
+        storagePlacementCombo = new JComboBox<>(new String[]{"Most free space", "Fastest tier with room"});
+        placementPanel.add(new JLabel("Place new disks in: "));
+        placementPanel.add(storagePlacementCombo);
+        panel.add(placementPanel, BorderLayout.NORTH);
+        
+        storagePoolsModel = new DefaultTableModel(new Object[]{"Pool", "Tier", "Directory"}, 0);
+        storagePoolsTable = new JTable(storagePoolsModel);
+        storagePoolsTable.getColumnModel().getColumn(0).setPreferredWidth(100);
+        storagePoolsTable.getColumnModel().getColumn(1).setPreferredWidth(80);
+        storagePoolsTable.getColumnModel().getColumn(2).setPreferredWidth(320);
+        storagePoolsTable.getColumnModel().getColumn(1).setCellEditor(
+            new DefaultCellEditor(new JComboBox<>(QemuStoragePool.Tier.values())));
+        panel.add(new JScrollPane(storagePoolsTable), BorderLayout.CENTER);
+        
+        JPanel southPanel = new JPanel(new BorderLayout());
+        JPanel buttonPanel = new JPanel(new FlowLayout(FlowLayout.LEFT, 5, 0));
+        JButton addButton = new JButton("Add...");
+        JButton removeButton = new JButton("Remove");
+        addButton.addActionListener(e -> {
+            JFileChooser fileChooser = new JFileChooser();
+            fileChooser.setDialogTitle("Select Storage Pool Directory");
+            fileChooser.setFileSelectionMode(JFileChooser.DIRECTORIES_ONLY);
+            if (fileChooser.showOpenDialog(this) != JFileChooser.APPROVE_OPTION) {
+                return;
+            }
+            storagePoolsModel.addRow(new Object[]{"pool" + (storagePoolsModel.getRowCount() + 1),
+                QemuStoragePool.Tier.STANDARD, fileChooser.getSelectedFile().getAbsolutePath()});
+            int row = storagePoolsModel.getRowCount() - 1;
+            storagePoolsTable.setRowSelectionInterval(row, row);
+            storagePoolsTable.editCellAt(row, 0);
+        });
+        removeButton.addActionListener(e -> {
+            if (storagePoolsTable.isEditing()) {
+                storagePoolsTable.getCellEditor().cancelCellEditing();
+            }
+            int[] rows = storagePoolsTable.getSelectedRows();
+            for (int i = rows.length - 1; i >= 0; i--) {
+                storagePoolsModel.removeRow(rows[i]);
+            }
+        });
+        buttonPanel.add(addButton);
+        buttonPanel.add(removeButton);
+        southPanel.add(buttonPanel, BorderLayout.NORTH);
+        
+        JTextArea storageHelpText = new JTextArea(
+            "Storage pools are directories for disk images, usually one per file system. The disks directory " +
+            "from the Paths tab is always the pool 'default'. New disks go to the pool with the most free space, " +
+            "or to the fastest tier that still has room for the disk at its full size plus the minimum free " +
+            "space from the General tab. Removing a pool leaves its files in place."
+        );
+        storageHelpText.setEditable(false);
+        storageHelpText.setOpaque(false);
+        storageHelpText.setFont(storageHelpText.getFont().deriveFont(11f));
+        storageHelpText.setWrapStyleWord(true);
+        storageHelpText.setLineWrap(true);
+        storageHelpText.setBorder(BorderFactory.createEmptyBorder(10, 0, 0, 0));
+        southPanel.add(storageHelpText, BorderLayout.CENTER);
+        panel.add(southPanel, BorderLayout.SOUTH);
+        
+        return panel;
+    }
+    
+    /**
+     * Reads the storage pools from the table, or returns null after telling the user what is wrong
+     */
+    private List<QemuStoragePool> readStoragePools() {
+        if (storagePoolsTable.isEditing()) {
+            storagePoolsTable.getCellEditor().stopCellEditing();
+        }
+        List<QemuStoragePool> pools = new ArrayList<>();
+        Set<String> names = new HashSet<>();
+        for (int row = 0; row < storagePoolsModel.getRowCount(); row++) {
+            String name = String.valueOf(storagePoolsModel.getValueAt(row, 0)).trim();
+            Object tier = storagePoolsModel.getValueAt(row, 1);
+            QemuStoragePool pool = new QemuStoragePool(name, String.valueOf(storagePoolsModel.getValueAt(row, 2)).trim(),
+                tier instanceof QemuStoragePool.Tier ? (QemuStoragePool.Tier) tier : QemuStoragePool.Tier.STANDARD);
+            String problem = !QemuSettings.isValidStoragePoolName(name)
+                ? "names may only contain letters, digits, '.', '-' and '_'"
+                : QemuStoragePool.DEFAULT_NAME.equals(name) || !names.add(name) ? "the name is already used"
+                : pool.validate();
+            if (problem != null) {
+                JOptionPane.showMessageDialog(this, "Storage pool '" + name + "': " + problem + ".",
+                    "Invalid Storage Pool", JOptionPane.ERROR_MESSAGE);
+                return null;
+            }
+            pools.add(pool);
+        }
+        return pools;
+    }
+    
+    private int tableInt(int row, int column) {
+        Object value = throttleGroupsModel.getValueAt(row, column);
+        return value instanceof Integer ? (Integer) value : 0;
+    }
+    
     private JPanel createDefaultsPanel() {
         JPanel panel = new JPanel(new GridBagLayout());
         GridBagConstraints gbc = new GridBagConstraints();
@@ -200,6 +478,34 @@ public class QemuSettingsDialog extends JDialog {
         
         row++;
         
+        // Display port range
+        gbc.gridx = 0; gbc.gridy = row; gbc.fill = GridBagConstraints.NONE; gbc.weightx = 0;
+        panel.add(new JLabel("VNC Port Range:"), gbc);
+        gbc.gridx = 1; gbc.fill = GridBagConstraints.HORIZONTAL; gbc.weightx = 1.0;
+        JPanel portRangePanel = new JPanel(new FlowLayout(FlowLayout.LEFT, 0, 0));
+        portRangeStartSpinner = new JSpinner(new SpinnerNumberModel(5901, 5900, 65535, 1));
+        portRangeEndSpinner = new JSpinner(new SpinnerNumberModel(5999, 5900, 65535, 1));
+        portRangePanel.add(portRangeStartSpinner);
+        portRangePanel.add(new JLabel(" to "));
+        portRangePanel.add(portRangeEndSpinner);
+        panel.add(portRangePanel, gbc);
+        
+        row++;
+        
+        // Control socket port range
+        gbc.gridx = 0; gbc.gridy = row; gbc.fill = GridBagConstraints.NONE; gbc.weightx = 0;
+        panel.add(new JLabel("Control Port Range:"), gbc);
+        gbc.gridx = 1; gbc.fill = GridBagConstraints.HORIZONTAL; gbc.weightx = 1.0;
+        JPanel controlPortPanel = new JPanel(new FlowLayout(FlowLayout.LEFT, 0, 0));
+        controlPortStartSpinner = new JSpinner(new SpinnerNumberModel(6100, 1024, 65535, 1));
+        controlPortEndSpinner = new JSpinner(new SpinnerNumberModel(6499, 1024, 65535, 1));
+        controlPortPanel.add(controlPortStartSpinner);
+        controlPortPanel.add(new JLabel(" to "));
+        controlPortPanel.add(controlPortEndSpinner);
+        panel.add(controlPortPanel, gbc);
+        
+        row++;
+        
         // Help text
         gbc.gridx = 0; gbc.gridy = row; gbc.gridwidth = 2; gbc.fill = GridBagConstraints.HORIZONTAL;
         JTextArea defaultsHelpText = new JTextArea(
@@ -208,7 +514,9 @@ public class QemuSettingsDialog extends JDialog {
             "You can always override these settings for individual VMs.\n\n" +
             "Memory: Amount of RAM allocated to new VMs (in megabytes).\n" +
             "CPU Cores: Number of virtual CPU cores for new VMs.\n" +
-            "Architecture: Default target architecture for new VMs."
+            "Architecture: Default target architecture for new VMs.\n" +
+            "VNC Port Range: Ports handed out to VMs that pick a free VNC port at start.\n" +
+            "Control Port Range: Local ports for the QEMU monitor sockets used by the manager."
         );
         defaultsHelpText.setEditable(false);
         defaultsHelpText.setOpaque(false);
@@ -237,6 +545,190 @@ public class QemuSettingsDialog extends JDialog {
         
         row++;
         
+        // Launch helper
+        gbc.gridx = 0; gbc.gridy = row; gbc.fill = GridBagConstraints.NONE; gbc.weightx = 0;
+        panel.add(new JLabel("VM launch:"), gbc);
+        gbc.gridx = 1; gbc.fill = GridBagConstraints.HORIZONTAL; gbc.weightx = 1.0;
+        launchHelperCheckBox = new JCheckBox("Start VMs through a lightweight helper process");
+        launchHelperCheckBox.setEnabled(QemuProcessSpawner.isSupported());
+        panel.add(launchHelperCheckBox, gbc);
+        
+        row++;
+        
+        // Autostart
+        gbc.gridx = 0; gbc.gridy = row; gbc.fill = GridBagConstraints.NONE; gbc.weightx = 0;
+        panel.add(new JLabel("Autostart:"), gbc);
+        gbc.gridx = 1; gbc.fill = GridBagConstraints.HORIZONTAL; gbc.weightx = 1.0;
+        autostartCheckBox = new JCheckBox("Boot VMs marked for autostart when the manager launches");
+        panel.add(autostartCheckBox, gbc);
+        
+        row++;
+        
+        // Autostart budgets
+        gbc.gridx = 0; gbc.gridy = row; gbc.fill = GridBagConstraints.NONE; gbc.weightx = 0;
+        panel.add(new JLabel("Autostart budget:"), gbc);
+        gbc.gridx = 1; gbc.fill = GridBagConstraints.HORIZONTAL; gbc.weightx = 1.0;
+        JPanel budgetPanel = new JPanel(new FlowLayout(FlowLayout.LEFT, 0, 0));
+        autostartCpuBudgetSpinner = new JSpinner(new SpinnerNumberModel(0, 0, 1024, 1));
+        autostartMemoryBudgetSpinner = new JSpinner(new SpinnerNumberModel(0, 0, 16777216, 1024));
+        budgetPanel.add(autostartCpuBudgetSpinner);
+        budgetPanel.add(new JLabel(" vCPUs booting at once, "));
+        budgetPanel.add(autostartMemoryBudgetSpinner);
+        budgetPanel.add(new JLabel(" MB memory (0 = this host)"));
+        panel.add(budgetPanel, gbc);
+        
+        row++;
+        
+        // Serial logs
+        gbc.gridx = 0; gbc.gridy = row; gbc.fill = GridBagConstraints.NONE; gbc.weightx = 0;
+        panel.add(new JLabel("Serial logs:"), gbc);
+        gbc.gridx = 1; gbc.fill = GridBagConstraints.HORIZONTAL; gbc.weightx = 1.0;
+        serialLogCheckBox = new JCheckBox("Capture each VM's serial console to a log file");
+        panel.add(serialLogCheckBox, gbc);
+        
+        row++;
+        
+        // Serial log rotation
+        gbc.gridx = 0; gbc.gridy = row; gbc.fill = GridBagConstraints.NONE; gbc.weightx = 0;
+        panel.add(new JLabel("Log rotation:"), gbc);
+        gbc.gridx = 1; gbc.fill = GridBagConstraints.HORIZONTAL; gbc.weightx = 1.0;
+        JPanel rotationPanel = new JPanel(new FlowLayout(FlowLayout.LEFT, 0, 0));
+        serialLogSizeSpinner = new JSpinner(new SpinnerNumberModel(10, 1, 10240, 1));
+        serialLogHoursSpinner = new JSpinner(new SpinnerNumberModel(24, 1, 8760, 1));
+        serialLogKeepSpinner = new JSpinner(new SpinnerNumberModel(10, 0, 1000, 1));
+        rotationPanel.add(new JLabel("Every "));
+        rotationPanel.add(serialLogSizeSpinner);
+        rotationPanel.add(new JLabel(" MB or "));
+        rotationPanel.add(serialLogHoursSpinner);
+        rotationPanel.add(new JLabel(" hours, keep "));
+        rotationPanel.add(serialLogKeepSpinner);
+        rotationPanel.add(new JLabel(" compressed"));
+        panel.add(rotationPanel, gbc);
+        
+        row++;
+        
+        // Host capacity
+        gbc.gridx = 0; gbc.gridy = row; gbc.fill = GridBagConstraints.NONE; gbc.weightx = 0;
+        panel.add(new JLabel("Host capacity:"), gbc);
+        gbc.gridx = 1; gbc.fill = GridBagConstraints.HORIZONTAL; gbc.weightx = 1.0;
+        capacityCheckBox = new JCheckBox("Refuse to start VMs beyond the host's capacity");
+        panel.add(capacityCheckBox, gbc);
+        
+        row++;
+        
+        // Overcommit ratios
+        gbc.gridx = 0; gbc.gridy = row; gbc.fill = GridBagConstraints.NONE; gbc.weightx = 0;
+        panel.add(new JLabel("Overcommit:"), gbc);
+        gbc.gridx = 1; gbc.fill = GridBagConstraints.HORIZONTAL; gbc.weightx = 1.0;
+        JPanel overcommitPanel = new JPanel(new FlowLayout(FlowLayout.LEFT, 0, 0));
+        cpuOvercommitSpinner = new JSpinner(new SpinnerNumberModel(400, 10, 10000, 10));
+        memoryOvercommitSpinner = new JSpinner(new SpinnerNumberModel(100, 10, 1000, 10));
+        overcommitPanel.add(new JLabel("CPU "));
+        overcommitPanel.add(cpuOvercommitSpinner);
+        overcommitPanel.add(new JLabel(" %, memory "));
+        overcommitPanel.add(memoryOvercommitSpinner);
+        overcommitPanel.add(new JLabel(" %"));
+        panel.add(overcommitPanel, gbc);
+        
+        row++;
+        
+        // Host reserves
+        gbc.gridx = 0; gbc.gridy = row; gbc.fill = GridBagConstraints.NONE; gbc.weightx = 0;
+        panel.add(new JLabel("Keep free:"), gbc);
+        gbc.gridx = 1; gbc.fill = GridBagConstraints.HORIZONTAL; gbc.weightx = 1.0;
+        JPanel reservePanel = new JPanel(new FlowLayout(FlowLayout.LEFT, 0, 0));
+        hostReserveSpinner = new JSpinner(new SpinnerNumberModel(1024, 0, 1048576, 256));
+        diskMinFreeSpinner = new JSpinner(new SpinnerNumberModel(1024, 0, 16777216, 1024));
+        reservePanel.add(hostReserveSpinner);
+        reservePanel.add(new JLabel(" MB memory for the host, "));
+        reservePanel.add(diskMinFreeSpinner);
+        reservePanel.add(new JLabel(" MB on the storage pool of each VM disk"));
+        panel.add(reservePanel, gbc);
+        
+        row++;
+        
+        // cgroup resource isolation
+        gbc.gridx = 0; gbc.gridy = row; gbc.fill = GridBagConstraints.NONE; gbc.weightx = 0;
+        panel.add(new JLabel("Resource limits:"), gbc);
+        gbc.gridx = 1; gbc.fill = GridBagConstraints.HORIZONTAL; gbc.weightx = 1.0;
+        JPanel cgroupPanel = new JPanel(new FlowLayout(FlowLayout.LEFT, 0, 0));
+        cgroupCheckBox = new JCheckBox("Run each VM in its own cgroup, parent ");
+        cgroupParentField = new JTextField(14);
+        cgroupParentField.setToolTipText("Delegated cgroup to create the VM groups in; empty for next to the manager's own");
+        cgroupPanel.add(cgroupCheckBox);
+        cgroupPanel.add(cgroupParentField);
+        panel.add(cgroupPanel, gbc);
+        
+        row++;
+        
+        // Live migration defaults
+        gbc.gridx = 0; gbc.gridy = row; gbc.fill = GridBagConstraints.NONE; gbc.weightx = 0;
+        panel.add(new JLabel("Migration:"), gbc);
+        gbc.gridx = 1; gbc.fill = GridBagConstraints.HORIZONTAL; gbc.weightx = 1.0;
+        JPanel migrationPanel = new JPanel(new FlowLayout(FlowLayout.LEFT, 0, 0));
+        migrationPostcopyCheckBox = new JCheckBox("Postcopy ");
+        migrationAutoConvergeCheckBox = new JCheckBox("Auto-converge, ");
+        migrationChannelsSpinner = new JSpinner(new SpinnerNumberModel(4, 0, 255, 1));
+        migrationPortSpinner = new JSpinner(new SpinnerNumberModel(49152, 1, 65535, 1));
+        migrationPortSpinner.setEditor(new JSpinner.NumberEditor(migrationPortSpinner, "#"));
+        migrationPanel.add(migrationPostcopyCheckBox);
+        migrationPanel.add(migrationAutoConvergeCheckBox);
+        migrationPanel.add(migrationChannelsSpinner);
+        migrationPanel.add(new JLabel(" channels, receive on port "));
+        migrationPanel.add(migrationPortSpinner);
+        panel.add(migrationPanel, gbc);
+        
+        row++;
+        
+        // Live migration limits
+        gbc.gridx = 0; gbc.gridy = row; gbc.fill = GridBagConstraints.NONE; gbc.weightx = 0;
+        panel.add(new JLabel("Migration Limits:"), gbc);
+        gbc.gridx = 1; gbc.fill = GridBagConstraints.HORIZONTAL; gbc.weightx = 1.0;
+        JPanel migrationLimitsPanel = new JPanel(new FlowLayout(FlowLayout.LEFT, 0, 0));
+        migrationBandwidthSpinner = new JSpinner(new SpinnerNumberModel(0, 0, 100000, 10));
+        migrationDowntimeSpinner = new JSpinner(new SpinnerNumberModel(300, 1, 2000000, 50));
+        migrationLimitsPanel.add(migrationBandwidthSpinner);
+        migrationLimitsPanel.add(new JLabel(" MB/s (0 = no cap), downtime "));
+        migrationLimitsPanel.add(migrationDowntimeSpinner);
+        migrationLimitsPanel.add(new JLabel(" ms"));
+        panel.add(migrationLimitsPanel, gbc);
+        
+        row++;
+        
+        // Disk backup chains
+        gbc.gridx = 0; gbc.gridy = row; gbc.fill = GridBagConstraints.NONE; gbc.weightx = 0;
+        panel.add(new JLabel("Backups:"), gbc);
+        gbc.gridx = 1; gbc.fill = GridBagConstraints.HORIZONTAL; gbc.weightx = 1.0;
+        JPanel backupPanel = new JPanel(new FlowLayout(FlowLayout.LEFT, 0, 0));
+        backupFullEverySpinner = new JSpinner(new SpinnerNumberModel(7, 1, 1000, 1));
+        backupRetentionSpinner = new JSpinner(new SpinnerNumberModel(2, 1, 1000, 1));
+        backupPanel.add(new JLabel("Full backup every "));
+        backupPanel.add(backupFullEverySpinner);
+        backupPanel.add(new JLabel(" backups, keep "));
+        backupPanel.add(backupRetentionSpinner);
+        backupPanel.add(new JLabel(" chains"));
+        panel.add(backupPanel, gbc);
+        
+        row++;
+        
+        // Disk integrity checks
+        gbc.gridx = 0; gbc.gridy = row; gbc.fill = GridBagConstraints.NONE; gbc.weightx = 0;
+        panel.add(new JLabel("Disk Checks:"), gbc);
+        gbc.gridx = 1; gbc.fill = GridBagConstraints.HORIZONTAL; gbc.weightx = 1.0;
+        JPanel diskCheckPanel = new JPanel(new FlowLayout(FlowLayout.LEFT, 0, 0));
+        diskCheckIntervalSpinner = new JSpinner(new SpinnerNumberModel(24, 0, 8760, 1));
+        diskCheckWorkersSpinner = new JSpinner(new SpinnerNumberModel(2, 1, 64, 1));
+        diskCheckRepairCheckBox = new JCheckBox("Repair leaks");
+        diskCheckPanel.add(new JLabel("Every "));
+        diskCheckPanel.add(diskCheckIntervalSpinner);
+        diskCheckPanel.add(new JLabel(" hours (0 = off), "));
+        diskCheckPanel.add(diskCheckWorkersSpinner);
+        diskCheckPanel.add(new JLabel(" at a time  "));
+        diskCheckPanel.add(diskCheckRepairCheckBox);
+        panel.add(diskCheckPanel, gbc);
+        
+        row++;
+        
         // Settings file location
         gbc.gridx = 0; gbc.gridy = row; gbc.gridwidth = 2; gbc.fill = GridBagConstraints.HORIZONTAL;
         String configPath = System.getProperty("user.home") + "/.qemumanager.properties";
@@ -254,7 +746,9 @@ public class QemuSettingsDialog extends JDialog {
         JButton resetButton = new JButton("Reset to Defaults");
         
         saveNowButton.addActionListener(e -> {
-            applySettings();
+            if (!applySettings()) {
+                return;
+            }
             settings.saveSettings();
             JOptionPane.showMessageDialog(this, "Settings saved successfully.", 
                 "Settings Saved", JOptionPane.INFORMATION_MESSAGE);
@@ -281,6 +775,19 @@ public class QemuSettingsDialog extends JDialog {
             "General Settings:\n\n" +
             "Auto-save: When enabled, settings are automatically saved whenever you make changes. " +
             "When disabled, you must manually save settings using the 'Save Settings Now' button.\n\n" +
+            "VM launch: The helper starts QEMU without forking the manager itself, which keeps " +
+            "starting many VMs cheap. VM output then goes to a log file in the run directory.\n\n" +
+            "Resource limits: Each VM runs in its own cgroup v2 group, which enforces its CPU, memory and " +
+            "disk I/O limits. The parent must be writable by you, e.g. a user slice with delegation.\n\n" +
+            "Migration: Defaults for moving a running VM to a new QEMU process or another host. Postcopy " +
+            "switches over after one pass and cannot be combined with channels; the downtime limit bounds " +
+            "the final pause of the guest.\n\n" +
+            "Backups: A running VM's disk tracks the clusters written since its last backup, so only those " +
+            "are copied; a stopped VM's disk is copied whole. A chain is a full backup with the incremental " +
+            "ones on top of it, and only the newest chains are kept.\n\n" +
+            "Disk checks: Images that changed since their last check are checked with qemu-img at the lowest " +
+            "I/O priority. Leaked clusters only waste space and are repaired while no VM uses the image; " +
+            "corruption is reported in the Disks tab.\n\n" +
             "The settings file is stored in your home directory and contains all configuration options."
         );
         generalHelpText.setEditable(false);
@@ -301,14 +808,17 @@ public class QemuSettingsDialog extends JDialog {
         JButton applyButton = new JButton("Apply");
         
         okButton.addActionListener(e -> {
-            applySettings();
-            dispose();
+            if (applySettings()) {
+                dispose();
+            }
         });
         
         cancelButton.addActionListener(e -> dispose());
         
         applyButton.addActionListener(e -> {
-            applySettings();
+            if (!applySettings()) {
+                return;
+            }
             JOptionPane.showMessageDialog(this, "Settings applied successfully.", 
                 "Settings Applied", JOptionPane.INFORMATION_MESSAGE);
         });
@@ -323,40 +833,182 @@ public class QemuSettingsDialog extends JDialog {
     private void loadCurrentSettings() {
         qemuPathField.setText(settings.getQemuPath());
         vncViewerPathField.setText(settings.getVncViewerPath());
+        embeddedViewerCheckBox.setSelected(settings.isEmbeddedVncViewerEnabled());
+        bridgeHelperPathField.setText(settings.getBridgeHelperPath());
+        virtiofsdPathField.setText(settings.getVirtiofsdPath());
+        launchHelperCheckBox.setSelected(settings.isLaunchHelperEnabled());
+        autostartCheckBox.setSelected(settings.isAutostartEnabled());
+        autostartCpuBudgetSpinner.setValue(settings.getAutostartCpuBudget());
+        autostartMemoryBudgetSpinner.setValue(settings.getAutostartMemoryBudgetMB());
+        serialLogCheckBox.setSelected(settings.isSerialLogEnabled());
+        serialLogSizeSpinner.setValue(settings.getSerialLogRotateSizeMB());
+        serialLogHoursSpinner.setValue(settings.getSerialLogRotateHours());
+        serialLogKeepSpinner.setValue(settings.getSerialLogKeep());
+        capacityCheckBox.setSelected(settings.isCapacityEnforced());
+        cpuOvercommitSpinner.setValue(settings.getCpuOvercommitPercent());
+        memoryOvercommitSpinner.setValue(settings.getMemoryOvercommitPercent());
+        hostReserveSpinner.setValue(settings.getHostReserveMB());
+        diskMinFreeSpinner.setValue(settings.getDiskMinFreeMB());
+        cgroupCheckBox.setSelected(settings.isCgroupEnabled());
+        cgroupParentField.setText(settings.getCgroupParent());
+        migrationPostcopyCheckBox.setSelected(settings.isMigrationPostcopy());
+        migrationAutoConvergeCheckBox.setSelected(settings.isMigrationAutoConverge());
+        migrationChannelsSpinner.setValue(settings.getMigrationMultifdChannels());
+        migrationBandwidthSpinner.setValue(settings.getMigrationMaxBandwidthMBps());
+        migrationDowntimeSpinner.setValue(settings.getMigrationDowntimeLimitMs());
+        migrationPortSpinner.setValue(settings.getMigrationPort());
+        backupFullEverySpinner.setValue(settings.getBackupFullEvery());
+        backupRetentionSpinner.setValue(settings.getBackupRetentionChains());
+        diskCheckWorkersSpinner.setValue(settings.getDiskCheckWorkers());
+        diskCheckIntervalSpinner.setValue(settings.getDiskCheckIntervalHours());
+        diskCheckRepairCheckBox.setSelected(settings.isDiskCheckRepairLeaks());
+        storagePlacementCombo.setSelectedIndex(
+            QemuStoragePools.PLACEMENT_TIER.equals(settings.getStoragePlacement()) ? 1 : 0);
+        storagePoolsModel.setRowCount(0);
+        for (QemuStoragePool pool : settings.getStoragePools()) {
+            if (!QemuStoragePool.DEFAULT_NAME.equals(pool.getName())) {
+                storagePoolsModel.addRow(new Object[]{pool.getName(), pool.getTier(), pool.getPath()});
+            }
+        }
+        throttleGroupsModel.setRowCount(0);
+        for (Map.Entry<String, QemuDiskThrottle> group : settings.getThrottleGroups().entrySet()) {
+            QemuDiskThrottle throttle = group.getValue();
+            throttleGroupsModel.addRow(new Object[]{group.getKey(), throttle.getIopsTotal(), throttle.getIopsTotalMax(),
+                throttle.getMbpsTotal(), throttle.getMbpsTotalMax(), throttle.getBurstSeconds()});
+        }
         basePathField.setText(settings.getQemuManagerBasePath());
         disksPathField.setText(settings.getQemuManagerDisksPath());
         vmsPathField.setText(settings.getQemuManagerVmsPath());
+        backupPathField.setText(settings.getBackupPath());
         defaultMemorySpinner.setValue(settings.getDefaultMemory());
         defaultCoresSpinner.setValue(settings.getDefaultCores());
         defaultArchCombo.setSelectedItem(settings.getDefaultArchitecture());
+        portRangeStartSpinner.setValue(settings.getDisplayPortRangeStart());
+        portRangeEndSpinner.setValue(settings.getDisplayPortRangeEnd());
+        controlPortStartSpinner.setValue(settings.getControlPortRangeStart());
+        controlPortEndSpinner.setValue(settings.getControlPortRangeEnd());
         autoSaveCheckBox.setSelected(settings.isAutoSaveEnabled());
     }
     
-    private void applySettings() {
+    /**
+     * Stores the entered settings; returns false, storing nothing, if some are invalid
+     */
+    private boolean applySettings() {
+        Map<String, QemuDiskThrottle> throttleGroups = readThrottleGroups();
+        if (throttleGroups == null) {
+            return false;
+        }
+        List<QemuStoragePool> storagePools = readStoragePools();
+        if (storagePools == null) {
+            return false;
+        }
+        String migrationProblem = new QemuMigration.Options(migrationPostcopyCheckBox.isSelected(),
+            migrationAutoConvergeCheckBox.isSelected(), (Integer) migrationChannelsSpinner.getValue(),
+            (Integer) migrationBandwidthSpinner.getValue(), (Integer) migrationDowntimeSpinner.getValue()).validate();
+        if (migrationProblem != null) {
+            JOptionPane.showMessageDialog(this, "Invalid migration defaults: " + migrationProblem + ".",
+                "Invalid Settings", JOptionPane.ERROR_MESSAGE);
+            return false;
+        }
         settings.setQemuPath(qemuPathField.getText().trim());
         settings.setVncViewerPath(vncViewerPathField.getText().trim());
+        settings.setEmbeddedVncViewerEnabled(embeddedViewerCheckBox.isSelected());
+        settings.setBridgeHelperPath(bridgeHelperPathField.getText().trim());
+        settings.setVirtiofsdPath(virtiofsdPathField.getText().trim());
+        settings.setLaunchHelperEnabled(launchHelperCheckBox.isSelected());
+        settings.setAutostartEnabled(autostartCheckBox.isSelected());
+        settings.setAutostartCpuBudget((Integer) autostartCpuBudgetSpinner.getValue());
+        settings.setAutostartMemoryBudgetMB((Integer) autostartMemoryBudgetSpinner.getValue());
+        settings.setSerialLogEnabled(serialLogCheckBox.isSelected());
+        settings.setSerialLogRotateSizeMB((Integer) serialLogSizeSpinner.getValue());
+        settings.setSerialLogRotateHours((Integer) serialLogHoursSpinner.getValue());
+        settings.setSerialLogKeep((Integer) serialLogKeepSpinner.getValue());
+        settings.setCapacityEnforced(capacityCheckBox.isSelected());
+        settings.setCpuOvercommitPercent((Integer) cpuOvercommitSpinner.getValue());
+        settings.setMemoryOvercommitPercent((Integer) memoryOvercommitSpinner.getValue());
+        settings.setHostReserveMB((Integer) hostReserveSpinner.getValue());
+        settings.setDiskMinFreeMB((Integer) diskMinFreeSpinner.getValue());
+        settings.setCgroupEnabled(cgroupCheckBox.isSelected());
+        settings.setCgroupParent(cgroupParentField.getText().trim());
+        settings.setMigrationPostcopy(migrationPostcopyCheckBox.isSelected());
+        settings.setMigrationAutoConverge(migrationAutoConvergeCheckBox.isSelected());
+        settings.setMigrationMultifdChannels((Integer) migrationChannelsSpinner.getValue());
+        settings.setMigrationMaxBandwidthMBps((Integer) migrationBandwidthSpinner.getValue());
+        settings.setMigrationDowntimeLimitMs((Integer) migrationDowntimeSpinner.getValue());
+        settings.setMigrationPort((Integer) migrationPortSpinner.getValue());
+        settings.setBackupFullEvery((Integer) backupFullEverySpinner.getValue());
+        settings.setBackupRetentionChains((Integer) backupRetentionSpinner.getValue());
+        settings.setDiskCheckWorkers((Integer) diskCheckWorkersSpinner.getValue());
+        settings.setDiskCheckIntervalHours((Integer) diskCheckIntervalSpinner.getValue());
+        settings.setDiskCheckRepairLeaks(diskCheckRepairCheckBox.isSelected());
+        settings.setThrottleGroups(throttleGroups);
+        settings.setStoragePools(storagePools);
+        settings.setStoragePlacement(storagePlacementCombo.getSelectedIndex() == 1
+            ? QemuStoragePools.PLACEMENT_TIER : QemuStoragePools.PLACEMENT_FREE);
         settings.setQemuManagerBasePath(basePathField.getText().trim());
         settings.setQemuManagerDisksPath(disksPathField.getText().trim());
         settings.setQemuManagerVmsPath(vmsPathField.getText().trim());
+        settings.setBackupPath(backupPathField.getText().trim());
         settings.setDefaultMemory((Integer) defaultMemorySpinner.getValue());
         settings.setDefaultCores((Integer) defaultCoresSpinner.getValue());
         settings.setDefaultArchitecture((String) defaultArchCombo.getSelectedItem());
+        settings.setDisplayPortRangeStart((Integer) portRangeStartSpinner.getValue());
+        settings.setDisplayPortRangeEnd((Integer) portRangeEndSpinner.getValue());
+        settings.setControlPortRangeStart((Integer) controlPortStartSpinner.getValue());
+        settings.setControlPortRangeEnd((Integer) controlPortEndSpinner.getValue());
         settings.setAutoSaveEnabled(autoSaveCheckBox.isSelected());
         
         // Ensure the new directories exist
         settings.ensureDirectoriesExist();
+        QemuStoragePools.getInstance().reload();
+        return true;
     }
     
     private void resetToDefaults() {
         qemuPathField.setText("/usr/bin/qemu-system-x86_64");
         vncViewerPathField.setText("");
+        embeddedViewerCheckBox.setSelected(true);
+        bridgeHelperPathField.setText("");
+        virtiofsdPathField.setText("/usr/libexec/virtiofsd");
+        launchHelperCheckBox.setSelected(false);
+        autostartCheckBox.setSelected(true);
+        autostartCpuBudgetSpinner.setValue(0);
+        autostartMemoryBudgetSpinner.setValue(0);
+        serialLogCheckBox.setSelected(true);
+        serialLogSizeSpinner.setValue(10);
+        serialLogHoursSpinner.setValue(24);
+        serialLogKeepSpinner.setValue(10);
+        capacityCheckBox.setSelected(true);
+        cpuOvercommitSpinner.setValue(400);
+        memoryOvercommitSpinner.setValue(100);
+        hostReserveSpinner.setValue(1024);
+        diskMinFreeSpinner.setValue(1024);
+        cgroupCheckBox.setSelected(true);
+        cgroupParentField.setText("");
+        migrationPostcopyCheckBox.setSelected(false);
+        migrationAutoConvergeCheckBox.setSelected(true);
+        migrationChannelsSpinner.setValue(4);
+        migrationBandwidthSpinner.setValue(0);
+        migrationDowntimeSpinner.setValue(300);
+        migrationPortSpinner.setValue(49152);
+        backupFullEverySpinner.setValue(7);
+        backupRetentionSpinner.setValue(2);
+        diskCheckWorkersSpinner.setValue(2);
+        diskCheckIntervalSpinner.setValue(24);
+        diskCheckRepairCheckBox.setSelected(true);
+        storagePlacementCombo.setSelectedIndex(0);
         String userHome = System.getProperty("user.home");
         basePathField.setText(userHome + "/.QemuManager");
         disksPathField.setText(userHome + "/.QemuManager/disks");
         vmsPathField.setText(userHome + "/.QemuManager/vms");
+        backupPathField.setText(userHome + "/.QemuManager/backups");
         defaultMemorySpinner.setValue(1024);
         defaultCoresSpinner.setValue(1);
         defaultArchCombo.setSelectedItem("x86_64");
+        portRangeStartSpinner.setValue(5901);
+        portRangeEndSpinner.setValue(5999);
+        controlPortStartSpinner.setValue(6100);
+        controlPortEndSpinner.setValue(6499);
         autoSaveCheckBox.setSelected(true);
     }
     
@@ -409,4 +1061,14 @@ public class QemuSettingsDialog extends JDialog {
             vmsPathField.setText(fileChooser.getSelectedFile().getAbsolutePath());
         }
     }
+    
+    private void browseBackupPath() {
+        JFileChooser fileChooser = new JFileChooser();
+        fileChooser.setDialogTitle("Select Backups Directory");
+        fileChooser.setFileSelectionMode(JFileChooser.DIRECTORIES_ONLY);
+        
+        if (fileChooser.showOpenDialog(this) == JFileChooser.APPROVE_OPTION) {
+            backupPathField.setText(fileChooser.getSelectedFile().getAbsolutePath());
+        }
+    }
 }
\ No newline at end of file
@@ -0,0 +1,301 @@
+package com.qemumanager;
+
+import java.io.File;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.util.*;
+
+/**
+ * A host directory the guest mounts by its tag. virtiofs is served by one
+ * virtiofsd per folder that QEMU talks to over a UNIX socket; it is much
+ * faster than 9p and behaves like a local file system, but needs the guest
+ * memory in a shared memory backend. 9p is built into QEMU and used when
+ * virtiofsd is not installed. Guests mount them with
+ * "mount -t virtiofs <tag> /mnt" or "mount -t 9p -o trans=virtio <tag> /mnt".
+ * Stored as "tag=src,mode=virtiofs,...,path=<url-encoded directory>"
+ */
+public class QemuSharedFolder {
+    public enum Mode {
+        VIRTIOFS("virtiofs"),
+        NINEP("9p");
+
+        private final String id;
+
+        Mode(String id) {
+            this.id = id;
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public static Mode fromId(String id) {
+            for (Mode mode : values()) {
+                if (mode.id.equalsIgnoreCase(id)) {
+                    return mode;
+                }
+            }
+            return null;
+        }
+
+        @Override
+        public String toString() {
+            return id;
+        }
+    }
+
+    /**
+     * virtiofsd cache policies: how long the guest may trust what it has cached. Always is
+     * fastest but misses changes made on the host; never sees them at once.
+     */
+    public static final String[] CACHE_MODES = {"auto", "always", "never"};
+    // 9p mount tags are limited to 31 characters, virtiofs tags to 36
+    public static final int MAX_TAG_LENGTH = 31;
+    public static final int MAX_THREADS = 64;
+
+    private String tag;
+    private String hostPath;
+    private Mode mode;
+    private boolean readOnly;
+    private String cacheMode;
+    private int threadPoolSize; // virtiofsd worker threads, 0 for its default
+
+    public QemuSharedFolder(String tag, String hostPath) {
+        this.tag = tag;
+        this.hostPath = hostPath;
+        this.mode = Mode.VIRTIOFS;
+        this.readOnly = false;
+        this.cacheMode = "auto";
+        this.threadPoolSize = 0;
+    }
+
+    public QemuSharedFolder(QemuSharedFolder other) {
+        this.tag = other.tag;
+        this.hostPath = other.hostPath;
+        this.mode = other.mode;
+        this.readOnly = other.readOnly;
+        this.cacheMode = other.cacheMode;
+        this.threadPoolSize = other.threadPoolSize;
+    }
+
+    /**
+     * Parses one stored folder; null if it has no tag or directory
+     */
+    public static QemuSharedFolder parse(String spec) {
+        Map<String, String> options = new HashMap<>();
+        for (String option : spec.split(",")) {
+            int eq = option.indexOf('=');
+            if (eq > 0) {
+                options.put(option.substring(0, eq).trim(), option.substring(eq + 1).trim());
+            }
+        }
+        String tag = options.getOrDefault("tag", "");
+        String path = decode(options.getOrDefault("path", ""));
+        if (tag.isEmpty() || path.isEmpty()) {
+            return null;
+        }
+        QemuSharedFolder folder = new QemuSharedFolder(tag, path);
+        Mode mode = Mode.fromId(options.getOrDefault("mode", ""));
+        folder.mode = mode != null ? mode : Mode.VIRTIOFS;
+        folder.readOnly = Boolean.parseBoolean(options.getOrDefault("readonly", "false"));
+        String cache = options.getOrDefault("cache", "auto");
+        folder.cacheMode = Arrays.asList(CACHE_MODES).contains(cache) ? cache : "auto";
+        try {
+            folder.threadPoolSize = Math.max(0, Integer.parseInt(options.getOrDefault("threads", "0")));
+        } catch (NumberFormatException e) {
+            folder.threadPoolSize = 0;
+        }
+        return folder;
+    }
+
+    /**
+     * Parses the stored folders of a VM, separated by semicolons
+     */
+    public static List<QemuSharedFolder> parseList(String specs) {
+        List<QemuSharedFolder> folders = new ArrayList<>();
+        for (String spec : specs.split(";")) {
+            if (!spec.trim().isEmpty()) {
+                QemuSharedFolder folder = parse(spec);
+                if (folder != null) {
+                    folders.add(folder);
+                }
+            }
+        }
+        return folders;
+    }
+
+    public String format() {
+        return "tag=" + tag + ",mode=" + mode.getId() + ",readonly=" + readOnly + ",cache=" + cacheMode
+            + ",threads=" + threadPoolSize + ",path=" + encode(hostPath);
+    }
+
+    public static String formatList(List<QemuSharedFolder> folders) {
+        StringBuilder specs = new StringBuilder();
+        for (QemuSharedFolder folder : folders) {
+            specs.append(specs.length() > 0 ? ";" : "").append(folder.format());
+        }
+        return specs.toString();
+    }
+
+    // Directory names may contain the separators of the stored form
+    private static String encode(String value) {
+        try {
+            return URLEncoder.encode(value, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String decode(String value) {
+        try {
+            return URLDecoder.decode(value, "UTF-8");
+        } catch (UnsupportedEncodingException | IllegalArgumentException e) {
+            return "";
+        }
+    }
+
+    public String getTag() {
+        return tag;
+    }
+
+    public void setTag(String tag) {
+        this.tag = tag != null ? tag.trim() : "";
+    }
+
+    public String getHostPath() {
+        return hostPath;
+    }
+
+    public void setHostPath(String hostPath) {
+        this.hostPath = hostPath != null ? hostPath.trim() : "";
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    public void setMode(Mode mode) {
+        this.mode = mode;
+    }
+
+    /**
+     * The mode actually used: virtiofs falls back to 9p when virtiofsd is not available
+     */
+    public Mode getEffectiveMode(boolean virtiofsAvailable) {
+        return mode == Mode.VIRTIOFS && !virtiofsAvailable ? Mode.NINEP : mode;
+    }
+
+    public boolean isReadOnly() {
+        return readOnly;
+    }
+
+    public void setReadOnly(boolean readOnly) {
+        this.readOnly = readOnly;
+    }
+
+    public String getCacheMode() {
+        return cacheMode;
+    }
+
+    public void setCacheMode(String cacheMode) {
+        this.cacheMode = cacheMode;
+    }
+
+    public int getThreadPoolSize() {
+        return threadPoolSize;
+    }
+
+    public void setThreadPoolSize(int threadPoolSize) {
+        this.threadPoolSize = threadPoolSize;
+    }
+
+    /**
+     * Checks the settings on their own; returns null if they are usable, otherwise why not
+     */
+    public String validate() {
+        if (!tag.matches("[A-Za-z0-9_.-]{1," + MAX_TAG_LENGTH + "}")) {
+            return "the tag must be 1 to " + MAX_TAG_LENGTH + " letters, digits, '.', '_' or '-'";
+        }
+        if (hostPath.isEmpty() || !new File(hostPath).isAbsolute()) {
+            return "the host directory must be an absolute path";
+        }
+        if (!Arrays.asList(CACHE_MODES).contains(cacheMode)) {
+            return "unknown cache mode " + cacheMode;
+        }
+        if (threadPoolSize < 0 || threadPoolSize > MAX_THREADS) {
+            return "threads must be between 0 (default) and " + MAX_THREADS;
+        }
+        return null;
+    }
+
+    /**
+     * Checks that the directory exists on the host; null if so, otherwise why not
+     */
+    public String checkHost() {
+        File directory = new File(hostPath);
+        if (!directory.isDirectory()) {
+            return hostPath + " is not a directory";
+        }
+        if (!directory.canRead() || !readOnly && !directory.canWrite()) {
+            return hostPath + " is not " + (readOnly ? "readable" : "writable") + " by this user";
+        }
+        return null;
+    }
+
+    /**
+     * The virtiofsd command line serving this folder on the socket. Sandboxing needs root;
+     * an unprivileged daemon can only give the guest this user's own access anyway.
+     */
+    String[] buildVirtiofsdCommand(String virtiofsdPath, String socketPath, boolean sandbox) {
+        List<String> command = new ArrayList<>();
+        command.add(virtiofsdPath);
+        command.add("--socket-path=" + socketPath);
+        command.add("--shared-dir=" + hostPath);
+        command.add("--cache=" + cacheMode);
+        if (threadPoolSize > 0) {
+            command.add("--thread-pool-size=" + threadPoolSize);
+        }
+        if (readOnly) {
+            command.add("--readonly");
+        }
+        if (!sandbox) {
+            command.add("--sandbox=none");
+        }
+        return command.toArray(new String[0]);
+    }
+
+    /**
+     * Adds the QEMU arguments for the folder; the socket is only used by virtiofs
+     */
+    void addArguments(List<String> command, int index, Mode effectiveMode, String socketPath) {
+        if (effectiveMode == Mode.VIRTIOFS) {
+            String id = "fs" + index;
+            command.add("-chardev");
+            command.add("socket,id=" + id + ",path=" + QemuVm.escapeOptionValue(socketPath));
+            command.add("-device");
+            command.add("vhost-user-fs-pci,chardev=" + id + ",tag=" + tag);
+        } else {
+            String id = "fsdev" + index;
+            // Guest ownership and modes are kept in extended attributes, the host files stay ours
+            StringBuilder fsdev = new StringBuilder("local,id=").append(id)
+                .append(",path=").append(QemuVm.escapeOptionValue(hostPath))
+                .append(",security_model=mapped-xattr");
+            if (readOnly) {
+                fsdev.append(",readonly=on");
+            }
+            command.add("-fsdev");
+            command.add(fsdev.toString());
+            command.add("-device");
+            command.add("virtio-9p-pci,fsdev=" + id + ",mount_tag=" + tag);
+        }
+    }
+
+    public String describe() {
+        StringBuilder text = new StringBuilder(tag).append(": ").append(hostPath).append(" (").append(mode);
+        if (readOnly) {
+            text.append(", read-only");
+        }
+        return text.append(')').toString();
+    }
+}
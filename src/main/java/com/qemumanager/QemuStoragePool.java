@@ -0,0 +1,142 @@
+package com.qemumanager;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileStore;
+import java.nio.file.Files;
+
+/**
+ * A named directory that holds disk images, typically one per file system
+ * or device class. The tier says how fast the storage is and steers where
+ * new disks go. Stored in the settings as "fast,/mnt/nvme/disks"; the
+ * default pool is the configured disks directory.
+ */
+public class QemuStoragePool {
+    public static final String DEFAULT_NAME = "default";
+
+    public enum Tier {
+        FAST("Fast"),
+        STANDARD("Standard"),
+        ARCHIVE("Archive");
+
+        private final String displayName;
+
+        Tier(String displayName) {
+            this.displayName = displayName;
+        }
+
+        @Override
+        public String toString() {
+            return displayName;
+        }
+    }
+
+    private final String name;
+    private final String path;
+    private final Tier tier;
+
+    public QemuStoragePool(String name, String path, Tier tier) {
+        this.name = name;
+        this.path = path;
+        this.tier = tier;
+    }
+
+    /**
+     * Parses the stored form; an unknown tier reads as standard
+     */
+    public static QemuStoragePool parse(String name, String spec) {
+        int comma = spec.indexOf(',');
+        Tier tier = Tier.STANDARD;
+        if (comma >= 0) {
+            try {
+                tier = Tier.valueOf(spec.substring(0, comma).trim().toUpperCase());
+            } catch (IllegalArgumentException e) {
+                // Keep standard
+            }
+        }
+        return new QemuStoragePool(name, spec.substring(comma + 1).trim(), tier);
+    }
+
+    public String format() {
+        return tier.name().toLowerCase() + "," + path;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    public File getDirectory() {
+        return new File(path).getAbsoluteFile();
+    }
+
+    public Tier getTier() {
+        return tier;
+    }
+
+    /**
+     * Whether the file lies in this pool's directory or below it
+     */
+    public boolean contains(String file) {
+        String directory = getDirectory().getPath();
+        String absolute = new File(file).getAbsolutePath();
+        return absolute.startsWith(directory.endsWith(File.separator) ? directory : directory + File.separator);
+    }
+
+    /**
+     * Size of the file system holding the pool, or -1 if it cannot be read
+     */
+    public long getTotalBytes() {
+        FileStore store = getFileStore();
+        try {
+            return store != null ? store.getTotalSpace() : -1;
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Space the manager may still use on the pool's file system, or -1 if it cannot be read
+     */
+    public long getFreeBytes() {
+        FileStore store = getFileStore();
+        try {
+            return store != null ? store.getUsableSpace() : -1;
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+
+    private FileStore getFileStore() {
+        try {
+            return Files.getFileStore(getDirectory().toPath());
+        } catch (IOException e) {
+            return null; // Missing directory or unmounted file system
+        }
+    }
+
+    /**
+     * Returns what is wrong with the pool, or null if it is usable
+     */
+    public String validate() {
+        if (path.isEmpty()) {
+            return "no directory given";
+        }
+        if (!new File(path).isAbsolute()) {
+            return "the directory must be an absolute path";
+        }
+        File directory = getDirectory();
+        if (directory.exists() && !directory.isDirectory()) {
+            return directory + " is not a directory";
+        }
+        return null;
+    }
+
+    @Override
+    public String toString() {
+        return name + " (" + tier + ")";
+    }
+}
@@ -0,0 +1,187 @@
+package com.qemumanager;
+
+import java.io.File;
+import java.util.*;
+
+/**
+ * The configured storage pools, how much of each the VMs' disks use and
+ * where a new disk should go. Usage is kept as running totals: the VM index
+ * reports each disk path when the first VM references it and again when the
+ * last one drops it, and only that file is looked at. Image files grow while
+ * their VMs run, so refreshSizes() applies the growth since the last look
+ * the same way instead of summing everything up again.
+ */
+public class QemuStoragePools implements QemuVmIndex.DiskListener {
+    private static QemuStoragePools instance;
+
+    private static final long MB = 1024L * 1024L;
+
+    public static final String PLACEMENT_FREE = "free";
+    public static final String PLACEMENT_TIER = "tier";
+
+    /**
+     * Disks of the VMs in one pool
+     */
+    public static class Usage {
+        private final int disks;
+        private final long bytes;
+
+        public Usage(int disks, long bytes) {
+            this.disks = disks;
+            this.bytes = bytes;
+        }
+
+        public int getDisks() {
+            return disks;
+        }
+
+        /**
+         * Bytes the image files take up
+         */
+        public long getBytes() {
+            return bytes;
+        }
+    }
+
+    private List<QemuStoragePool> pools;
+    // Counted size and pool (null if outside all pools) of each disk path the index reported
+    private final Map<String, Long> diskSizes = new HashMap<>();
+    private final Map<String, String> diskPools = new HashMap<>();
+    // Per pool name: {disks, bytes}
+    private final Map<String, long[]> usage = new HashMap<>();
+
+    private QemuStoragePools() {
+    }
+
+    public static synchronized QemuStoragePools getInstance() {
+        if (instance == null) {
+            instance = new QemuStoragePools();
+        }
+        return instance;
+    }
+
+    /**
+     * Returns the pools, the default one first
+     */
+    public synchronized List<QemuStoragePool> getPools() {
+        if (pools == null) {
+            pools = QemuSettings.getInstance().getStoragePools();
+        }
+        return new ArrayList<>(pools);
+    }
+
+    /**
+     * Picks up changed pool settings; disks are reassigned without reading their sizes again
+     */
+    public synchronized void reload() {
+        pools = QemuSettings.getInstance().getStoragePools();
+        usage.clear();
+        diskPools.clear();
+        for (Map.Entry<String, Long> disk : diskSizes.entrySet()) {
+            count(disk.getKey(), disk.getValue());
+        }
+    }
+
+    /**
+     * Returns the pool holding the file, the most specific one if pools are nested, or null
+     */
+    public synchronized QemuStoragePool getPool(String file) {
+        QemuStoragePool best = null;
+        for (QemuStoragePool pool : getPools()) {
+            if (pool.contains(file)
+                    && (best == null || pool.getDirectory().getPath().length() > best.getDirectory().getPath().length())) {
+                best = pool;
+            }
+        }
+        return best;
+    }
+
+    public synchronized Usage getUsage(QemuStoragePool pool) {
+        long[] counts = usage.get(pool.getName());
+        return counts != null ? new Usage((int) counts[0], counts[1]) : new Usage(0, 0);
+    }
+
+    @Override
+    public synchronized void diskAdded(String path) {
+        if (!diskSizes.containsKey(path)) {
+            long size = new File(path).length();
+            diskSizes.put(path, size);
+            count(path, size);
+        }
+    }
+
+    @Override
+    public synchronized void diskRemoved(String path) {
+        Long size = diskSizes.remove(path);
+        if (size != null) {
+            String pool = diskPools.remove(path);
+            if (pool != null) {
+                add(pool, -1, -size);
+            }
+        }
+    }
+
+    /**
+     * Applies the growth or shrinkage of each disk since it was last looked at
+     */
+    public synchronized void refreshSizes() {
+        for (Map.Entry<String, Long> disk : diskSizes.entrySet()) {
+            long size = new File(disk.getKey()).length();
+            long delta = size - disk.getValue();
+            if (delta != 0) {
+                disk.setValue(size);
+                String pool = diskPools.get(disk.getKey());
+                if (pool != null) {
+                    add(pool, 0, delta);
+                }
+            }
+        }
+    }
+
+    private void count(String path, long size) {
+        QemuStoragePool pool = getPool(path);
+        if (pool != null) {
+            diskPools.put(path, pool.getName());
+            add(pool.getName(), 1, size);
+        }
+    }
+
+    private void add(String pool, long disks, long bytes) {
+        long[] counts = usage.computeIfAbsent(pool, name -> new long[2]);
+        counts[0] += disks;
+        counts[1] += bytes;
+    }
+
+    /**
+     * Chooses the pool for a new disk of the given size: among the pools whose file system keeps
+     * the configured minimum free after the disk has grown to its full size, the one with the
+     * most free space or, if placement is by tier, the fastest one. Returns null if none fits.
+     */
+    public QemuStoragePool choosePool(long sizeBytes) {
+        QemuSettings settings = QemuSettings.getInstance();
+        long reserve = settings.getDiskMinFreeMB() * MB;
+        boolean byTier = PLACEMENT_TIER.equals(settings.getStoragePlacement());
+        QemuStoragePool best = null;
+        long bestFree = 0;
+        for (QemuStoragePool pool : getPools()) {
+            File directory = pool.getDirectory();
+            // A missing directory is created on the first disk, if its parent exists
+            if (!directory.isDirectory() && (directory.getParentFile() == null || !directory.getParentFile().isDirectory())) {
+                continue;
+            }
+            long free = (directory.isDirectory() ? pool : new QemuStoragePool(pool.getName(),
+                directory.getParent(), pool.getTier())).getFreeBytes();
+            if (free < sizeBytes + reserve) {
+                continue;
+            }
+            boolean better = best == null
+                || byTier && pool.getTier().ordinal() < best.getTier().ordinal()
+                || (!byTier || pool.getTier() == best.getTier()) && free > bestFree;
+            if (better) {
+                best = pool;
+                bestFree = free;
+            }
+        }
+        return best;
+    }
+}
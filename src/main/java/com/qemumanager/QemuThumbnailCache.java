@@ -0,0 +1,57 @@
+package com.qemumanager;
+
+import java.awt.image.BufferedImage;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Least recently used cache of VM screen thumbnails, bounded by pixel memory
+ * rather than entry count so a few large frames cannot crowd out the rest.
+ */
+public class QemuThumbnailCache {
+    private final long maxBytes;
+    private final LinkedHashMap<QemuVm, BufferedImage> images = new LinkedHashMap<>(16, 0.75f, true);
+    private long currentBytes;
+
+    public QemuThumbnailCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    public synchronized BufferedImage get(QemuVm vm) {
+        return images.get(vm);
+    }
+
+    public synchronized void put(QemuVm vm, BufferedImage image) {
+        BufferedImage previous = images.put(vm, image);
+        if (previous != null) {
+            currentBytes -= sizeOf(previous);
+        }
+        currentBytes += sizeOf(image);
+
+        Iterator<Map.Entry<QemuVm, BufferedImage>> it = images.entrySet().iterator();
+        while (currentBytes > maxBytes && it.hasNext()) {
+            Map.Entry<QemuVm, BufferedImage> eldest = it.next();
+            if (eldest.getKey() == vm) {
+                continue; // Always keep the frame just stored
+            }
+            currentBytes -= sizeOf(eldest.getValue());
+            it.remove();
+        }
+    }
+
+    public synchronized void remove(QemuVm vm) {
+        BufferedImage previous = images.remove(vm);
+        if (previous != null) {
+            currentBytes -= sizeOf(previous);
+        }
+    }
+
+    public synchronized long getSizeInBytes() {
+        return currentBytes;
+    }
+
+    private static long sizeOf(BufferedImage image) {
+        return (long) image.getWidth() * image.getHeight() * 4;
+    }
+}
@@ -0,0 +1,130 @@
+package com.qemumanager;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Hashed timer wheel shared by all periodic per-VM work (health probes,
+ * restart backoff, ...). Scheduling and cancelling are O(1) and lock free, so
+ * thousands of timers cost one thread and a few objects each. Tasks run on the
+ * wheel thread and must hand anything slow to an executor.
+ */
+public class QemuTimerWheel {
+    private static QemuTimerWheel instance;
+
+    private static final long TICK_MS = 100;
+    private static final int WHEEL_SIZE = 512; // Power of two, one rotation is 51.2 s
+
+    /**
+     * Handle of a scheduled task
+     */
+    public static class Timeout {
+        private final Runnable task;
+        private final long deadlineTick;
+        private volatile boolean cancelled;
+
+        private Timeout(Runnable task, long deadlineTick) {
+            this.task = task;
+            this.deadlineTick = deadlineTick;
+        }
+
+        public void cancel() {
+            cancelled = true; // Dropped lazily when its bucket comes round
+        }
+
+        public boolean isCancelled() {
+            return cancelled;
+        }
+    }
+
+    private final List<List<Timeout>> buckets = new ArrayList<>(WHEEL_SIZE);
+    private final ConcurrentLinkedQueue<Timeout> incoming = new ConcurrentLinkedQueue<>();
+    private final long startNanos = System.nanoTime();
+    private long currentTick;
+
+    private QemuTimerWheel() {
+        for (int i = 0; i < WHEEL_SIZE; i++) {
+            buckets.add(new ArrayList<>());
+        }
+        Thread thread = new Thread(this::run, "Timer wheel");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public static synchronized QemuTimerWheel getInstance() {
+        if (instance == null) {
+            instance = new QemuTimerWheel();
+        }
+        return instance;
+    }
+
+    /**
+     * Runs the task once after roughly the given delay (rounded up to the tick)
+     */
+    public Timeout schedule(long delayMs, Runnable task) {
+        long elapsedTicks = (System.nanoTime() - startNanos) / (TICK_MS * 1000000L);
+        long delayTicks = Math.max(1, (delayMs + TICK_MS - 1) / TICK_MS);
+        Timeout timeout = new Timeout(task, elapsedTicks + delayTicks);
+        incoming.add(timeout);
+        return timeout;
+    }
+
+    private void run() {
+        while (true) {
+            long nextTickNanos = startNanos + (currentTick + 1) * TICK_MS * 1000000L;
+            long sleepMs = (nextTickNanos - System.nanoTime()) / 1000000L;
+            if (sleepMs > 0) {
+                try {
+                    Thread.sleep(sleepMs);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+            currentTick++;
+            transferIncoming();
+            expire(buckets.get((int) (currentTick & (WHEEL_SIZE - 1))));
+        }
+    }
+
+    private void transferIncoming() {
+        Timeout timeout;
+        while ((timeout = incoming.poll()) != null) {
+            if (timeout.cancelled) {
+                continue;
+            }
+            // Already due (scheduled late in a tick): fire in the current bucket
+            long tick = Math.max(timeout.deadlineTick, currentTick);
+            buckets.get((int) (tick & (WHEEL_SIZE - 1))).add(timeout);
+        }
+    }
+
+    private void expire(List<Timeout> bucket) {
+        List<Timeout> due = null;
+        Iterator<Timeout> it = bucket.iterator();
+        while (it.hasNext()) {
+            Timeout timeout = it.next();
+            if (timeout.cancelled) {
+                it.remove();
+            } else if (timeout.deadlineTick <= currentTick) {
+                it.remove();
+                if (due == null) {
+                    due = new ArrayList<>();
+                }
+                due.add(timeout);
+            }
+            // Otherwise it is due in a later rotation
+        }
+        if (due == null) {
+            return;
+        }
+        for (Timeout timeout : due) {
+            try {
+                timeout.task.run();
+            } catch (RuntimeException e) {
+                System.err.println("Timer task failed: " + e.getMessage());
+            }
+        }
+    }
+}
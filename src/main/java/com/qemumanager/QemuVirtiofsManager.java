@@ -0,0 +1,233 @@
+package com.qemumanager;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Runs the virtiofsd daemons behind the virtiofs shared folders of each VM.
+ * QEMU connects to their sockets while it starts, so the launcher starts them
+ * first, all folders at once and alongside its own preparations, and waits
+ * until every socket is listening. A daemon serves exactly one QEMU process
+ * and quits when it disconnects; stop() makes sure of it and removes the
+ * sockets. Daemons of a VM adopted by a later session are not tracked but
+ * still quit with their QEMU.
+ */
+public class QemuVirtiofsManager {
+    private static QemuVirtiofsManager instance;
+
+    private static final long START_TIMEOUT_MS = 10000;
+    private static final long POLL_INTERVAL_MS = 50;
+    private static final long STOP_TIMEOUT_MS = 3000;
+    // sun_path holds 108 bytes including the terminator
+    private static final int MAX_SOCKET_PATH = 107;
+
+    private static class Daemon {
+        final QemuSharedFolder folder;
+        final File socket;
+        final Process process;
+
+        Daemon(QemuSharedFolder folder, File socket, Process process) {
+            this.folder = folder;
+            this.socket = socket;
+            this.process = process;
+        }
+    }
+
+    private final Map<QemuVm, List<Daemon>> daemons = new IdentityHashMap<>();
+    private final ExecutorService executor = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "virtiofsd starter");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private QemuVirtiofsManager() {
+    }
+
+    public static synchronized QemuVirtiofsManager getInstance() {
+        if (instance == null) {
+            instance = new QemuVirtiofsManager();
+        }
+        return instance;
+    }
+
+    /**
+     * Whether the configured virtiofsd can be run; if not, virtiofs folders are shared over 9p
+     */
+    public boolean isAvailable() {
+        String path = QemuSettings.getInstance().getVirtiofsdPath();
+        return !path.isEmpty() && new File(path).canExecute();
+    }
+
+    public synchronized boolean isRunning(QemuVm vm) {
+        return daemons.containsKey(vm);
+    }
+
+    /**
+     * Starts a daemon for each of the VM's virtiofs folders in parallel and returns at once.
+     * The future completes once all of them listen, or fails with the first IOException;
+     * see await().
+     */
+    public CompletableFuture<Void> start(QemuVm vm) {
+        if (!vm.usesVirtiofs(isAvailable())) {
+            return CompletableFuture.completedFuture(null);
+        }
+        String virtiofsdPath = QemuSettings.getInstance().getVirtiofsdPath();
+        // Without root the namespace sandbox cannot be set up, and it adds nothing to our own access
+        boolean sandbox = "root".equals(System.getProperty("user.name"));
+        // Leftovers of a launch that failed before QEMU ran go first, they hold the sockets
+        return CompletableFuture.runAsync(() -> {
+            stop(vm);
+            QemuSettings.getInstance().ensureDirectoriesExist();
+        }, executor).thenCompose(ignored -> {
+            List<CompletableFuture<Void>> started = new ArrayList<>();
+            for (QemuSharedFolder folder : vm.getSharedFolders()) {
+                if (folder.getEffectiveMode(true) == QemuSharedFolder.Mode.VIRTIOFS) {
+                    started.add(CompletableFuture.runAsync(() -> {
+                        try {
+                            startDaemon(vm, folder, virtiofsdPath, sandbox);
+                        } catch (IOException e) {
+                            throw new CompletionException(e);
+                        }
+                    }, executor));
+                }
+            }
+            return CompletableFuture.allOf(started.toArray(CompletableFuture<?>[]::new));
+        });
+    }
+
+    /**
+     * Waits for start() to finish; on failure the VM's daemons are stopped again
+     */
+    public void await(QemuVm vm, CompletableFuture<Void> startup) throws IOException {
+        try {
+            startup.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            stop(vm);
+            throw new IOException("Interrupted while starting virtiofsd", e);
+        } catch (ExecutionException e) {
+            stop(vm);
+            Throwable cause = e.getCause() instanceof CompletionException ? e.getCause().getCause() : e.getCause();
+            throw cause instanceof IOException ? (IOException) cause : new IOException(cause);
+        }
+    }
+
+    private void startDaemon(QemuVm vm, QemuSharedFolder folder, String virtiofsdPath, boolean sandbox)
+            throws IOException {
+        String name = "Shared folder " + folder.getTag();
+        File socket = new File(vm.getVirtiofsSocketPath(folder));
+        if (socket.getPath().getBytes(StandardCharsets.UTF_8).length > MAX_SOCKET_PATH) {
+            throw new IOException(name + ": socket path " + socket + " is too long, use a shorter run path");
+        }
+        Files.deleteIfExists(socket.toPath());
+        File logFile = new File(socket.getPath() + ".log");
+        ProcessBuilder pb = new ProcessBuilder(folder.buildVirtiofsdCommand(virtiofsdPath, socket.getPath(), sandbox));
+        pb.redirectErrorStream(true);
+        pb.redirectOutput(logFile);
+        Process process = pb.start();
+        Daemon daemon = new Daemon(folder, socket, process);
+        synchronized (this) {
+            daemons.computeIfAbsent(vm, key -> new ArrayList<>()).add(daemon);
+        }
+        process.onExit().thenAccept(exited -> daemonExited(vm, daemon));
+
+        long deadline = System.currentTimeMillis() + START_TIMEOUT_MS;
+        while (!socket.exists()) {
+            if (!process.isAlive()) {
+                throw new IOException(name + ": virtiofsd exited with code " + process.exitValue()
+                    + describeLog(logFile));
+            }
+            if (System.currentTimeMillis() > deadline) {
+                throw new IOException(name + ": virtiofsd did not open its socket within "
+                    + START_TIMEOUT_MS / 1000 + " s" + describeLog(logFile));
+            }
+            try {
+                Thread.sleep(POLL_INTERVAL_MS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while starting virtiofsd", e);
+            }
+        }
+    }
+
+    private static String describeLog(File logFile) {
+        try {
+            List<String> lines = Files.readAllLines(logFile.toPath(), StandardCharsets.UTF_8);
+            return lines.isEmpty() ? "" : ": " + lines.get(lines.size() - 1).trim();
+        } catch (IOException e) {
+            return "";
+        }
+    }
+
+    /**
+     * A daemon that quits on its own while its VM runs leaves the guest's mount hanging; QEMU
+     * cannot reconnect to a new one, so this is only reported
+     */
+    private void daemonExited(QemuVm vm, Daemon daemon) {
+        synchronized (this) {
+            List<Daemon> running = daemons.get(vm);
+            if (running == null || !running.contains(daemon)) {
+                return; // Stopped by us
+            }
+            running.remove(daemon);
+            if (running.isEmpty()) {
+                daemons.remove(vm);
+            }
+        }
+        daemon.socket.delete();
+        // Daemons also quit when their QEMU goes away, which may be noticed here first; only
+        // a QEMU still running a while later has really lost the folder
+        ProcessHandle qemu = vm.getProcessHandle();
+        if (qemu != null) {
+            qemu.onExit().orTimeout(STOP_TIMEOUT_MS, TimeUnit.MILLISECONDS).whenComplete((exited, error) -> {
+                if (error instanceof TimeoutException) {
+                    QemuEventJournal.getInstance().record(QemuEventJournal.Type.VM_SUPERVISION, vm,
+                        QemuEventJournal.ACTOR_SYSTEM, "virtiofsd of shared folder " + daemon.folder.getTag()
+                            + " exited with code " + daemon.process.exitValue()
+                            + "; the folder is unavailable until the VM restarts");
+                }
+            });
+        }
+    }
+
+    /**
+     * Stops the VM's daemons, if any, and removes their sockets. Called once QEMU has exited
+     * or did not start.
+     */
+    public void stop(QemuVm vm) {
+        List<Daemon> stopped;
+        synchronized (this) {
+            stopped = daemons.remove(vm);
+        }
+        if (stopped == null) {
+            return;
+        }
+        for (Daemon daemon : stopped) {
+            daemon.process.destroy();
+        }
+        for (Daemon daemon : stopped) {
+            try {
+                if (!daemon.process.waitFor(STOP_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                    daemon.process.destroyForcibly();
+                }
+            } catch (InterruptedException e) {
+                daemon.process.destroyForcibly();
+                Thread.currentThread().interrupt();
+            }
+            daemon.socket.delete();
+        }
+    }
+}
@@ -1,5 +1,13 @@
 package com.qemumanager;
 
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
 /**
  * Represents a QEMU virtual machine configuration
  */
@@ -9,13 +17,46 @@ public class QemuVm {
     private int memoryMB;
     private int cpuCores;
     private String architecture;
-    private String networkType;
+    private final List<QemuNic> nics = new ArrayList<>();
+    private final List<QemuSharedFolder> sharedFolders = new ArrayList<>();
     private boolean enableKvm;
     private String cdromPath;
     private String bootOrder;
     private int vncPort;
+    private boolean autoVncPort;
+    private boolean vncUnixSocket;
+    private int qmpPort; // Leased at start, not persisted
+    private boolean guestAgent;
+    private int guestAgentPort; // Leased at start, not persisted
+    private int serialPort; // Leased at start, not persisted
+    private RestartPolicy restartPolicy;
+    private String watchdog;
+    private String healthCheckAddress;
+    private boolean autostart;
+    private int autostartPriority;
+    private final Set<String> dependsOn = new LinkedHashSet<>(); // Names of VMs that must be ready first
+    // cgroup v2 limits applied by QemuCgroupManager; 0 means unlimited (or the kernel default weight)
+    private int cpuWeight;
+    private int cpuLimitPercent;
+    private int memoryLimitMB;
+    private int memoryHighMB;
+    private int ioReadMBps;
+    private int ioWriteMBps;
+    private int ioReadIops;
+    private int ioWriteIops;
+    private QemuDiskThrottle diskThrottle = QemuDiskThrottle.NONE; // Enforced by QEMU on the disk itself
+    private String throttleGroup = ""; // Named group from the settings, replaces diskThrottle when set
+    private String health; // Maintained by QemuVmSupervisor, not persisted
+    private int restartCount;
     private VmStatus status;
     private Process qemuProcess;
+    private ProcessHandle processHandle;
+    private int run; // Number of the current launch or adoption, not persisted
+    private String[] launchPlan; // Cached command line without the per-start ports, cleared by every setter that affects it
+    private int launchPlanRevision; // QemuSettings.getCommandRevision() the cached plan was built with
+    private boolean launchPlanVirtiofs; // Whether the cached plan shares folders over virtiofs
+    private String group;
+    private final Set<String> tags = new LinkedHashSet<>();
     
     public enum VmStatus {
         STOPPED("Stopped"),
@@ -30,6 +71,30 @@ public class QemuVm {
             this.displayName = displayName;
         }
         
+        /**
+         * True while the QEMU process is up and not being stopped
+         */
+        public boolean isActive() {
+            return this == RUNNING || this == STARTING || this == PAUSED;
+        }
+        
+        @Override
+        public String toString() {
+            return displayName;
+        }
+    }
+    
+    public enum RestartPolicy {
+        NEVER("Never"),
+        ON_FAILURE("On failure"),
+        ALWAYS("Always");
+        
+        private final String displayName;
+        
+        RestartPolicy(String displayName) {
+            this.displayName = displayName;
+        }
+        
         @Override
         public String toString() {
             return displayName;
@@ -41,10 +106,15 @@ public class QemuVm {
         this.memoryMB = 1024;
         this.cpuCores = 1;
         this.architecture = "x86_64";
-        this.networkType = "user";
+        this.nics.add(new QemuNic(QemuNic.Backend.USER));
         this.enableKvm = true;
         this.bootOrder = "dc";
         this.vncPort = 5901; // Default VNC port (5900 + 1)
+        this.autoVncPort = true; // Pick a free port at start time
+        this.guestAgent = true; // Harmless if the guest does not run the agent
+        this.restartPolicy = RestartPolicy.NEVER;
+        this.watchdog = "none";
+        this.healthCheckAddress = "";
         this.status = VmStatus.STOPPED;
     }
     
@@ -55,6 +125,7 @@ public class QemuVm {
     
     public void setName(String name) {
         this.name = name;
+        invalidateLaunchPlan();
     }
     
     public String getDiskPath() {
@@ -63,6 +134,7 @@ public class QemuVm {
     
     public void setDiskPath(String diskPath) {
         this.diskPath = diskPath;
+        invalidateLaunchPlan();
     }
     
     public int getMemoryMB() {
@@ -71,6 +143,7 @@ public class QemuVm {
     
     public void setMemoryMB(int memoryMB) {
         this.memoryMB = memoryMB;
+        invalidateLaunchPlan();
     }
     
     public int getCpuCores() {
@@ -79,6 +152,7 @@ public class QemuVm {
     
     public void setCpuCores(int cpuCores) {
         this.cpuCores = cpuCores;
+        invalidateLaunchPlan();
     }
     
     public String getArchitecture() {
@@ -87,34 +161,79 @@ public class QemuVm {
     
     public void setArchitecture(String architecture) {
         this.architecture = architecture;
+        invalidateLaunchPlan();
     }
     
-    public String getNetworkType() {
-        return networkType;
+    /**
+     * Network interfaces in guest order; edit through setNics so the launch plan is rebuilt
+     */
+    public List<QemuNic> getNics() {
+        return Collections.unmodifiableList(nics);
     }
     
-    public void setNetworkType(String networkType) {
-        this.networkType = networkType;
+    public void setNics(List<QemuNic> nics) {
+        this.nics.clear();
+        for (QemuNic nic : nics) {
+            this.nics.add(new QemuNic(nic));
+        }
+        invalidateLaunchPlan();
     }
     
     /**
      * Returns a user-friendly network description
      */
     public String getNetworkDescription() {
-        switch (networkType.toLowerCase()) {
-            case "user":
-                return "User (NAT)";
-            case "tap":
-                return "TAP Interface";
-            case "bridge":
-                return "Bridge Network";
-            case "none":
-                return "Disabled";
-            case "netdev":
-                return "Network Device";
-            default:
-                return networkType.substring(0, 1).toUpperCase() + networkType.substring(1);
+        if (nics.isEmpty()) {
+            return "Disabled";
+        }
+        String first = nics.get(0).getBackend().getDescription();
+        return nics.size() > 1 ? first + " (+" + (nics.size() - 1) + ")" : first;
+    }
+    
+    /**
+     * Host directories shared with the guest; edit through setSharedFolders so the launch plan is rebuilt
+     */
+    public List<QemuSharedFolder> getSharedFolders() {
+        return Collections.unmodifiableList(sharedFolders);
+    }
+    
+    public void setSharedFolders(List<QemuSharedFolder> folders) {
+        this.sharedFolders.clear();
+        for (QemuSharedFolder folder : folders) {
+            this.sharedFolders.add(new QemuSharedFolder(folder));
+        }
+        invalidateLaunchPlan();
+    }
+    
+    /**
+     * Whether any folder is served by virtiofsd, given whether virtiofsd is installed
+     */
+    public boolean usesVirtiofs(boolean virtiofsAvailable) {
+        for (QemuSharedFolder folder : sharedFolders) {
+            if (folder.getEffectiveMode(virtiofsAvailable) == QemuSharedFolder.Mode.VIRTIOFS) {
+                return true;
+            }
         }
+        return false;
+    }
+    
+    /**
+     * Returns the path of the socket virtiofsd serves the folder on
+     */
+    public String getVirtiofsSocketPath(QemuSharedFolder folder) {
+        return QemuSettings.getInstance().getQemuManagerRunPath() + java.io.File.separator + getFileSafeName()
+            + "-" + folder.getTag() + ".virtiofs";
+    }
+    
+    /**
+     * Device files the launcher opens for macvtap NICs, in file descriptor order from 3
+     */
+    public List<String> getNicDeviceFiles() throws IOException {
+        List<String> files = new ArrayList<>();
+        for (QemuNic nic : nics) {
+            files.addAll(nic.getDeviceFiles(new java.io.File("/sys"), new java.io.File("/dev")));
+        }
+        return files;
     }
     
     public boolean isEnableKvm() {
@@ -123,6 +242,7 @@ public class QemuVm {
     
     public void setEnableKvm(boolean enableKvm) {
         this.enableKvm = enableKvm;
+        invalidateLaunchPlan();
     }
     
     public String getCdromPath() {
@@ -131,6 +251,7 @@ public class QemuVm {
     
     public void setCdromPath(String cdromPath) {
         this.cdromPath = cdromPath;
+        invalidateLaunchPlan();
     }
     
     public String getBootOrder() {
@@ -139,6 +260,7 @@ public class QemuVm {
     
     public void setBootOrder(String bootOrder) {
         this.bootOrder = bootOrder;
+        invalidateLaunchPlan();
     }
     
     public int getVncPort() {
@@ -149,6 +271,282 @@ public class QemuVm {
         this.vncPort = vncPort;
     }
     
+    public boolean isAutoVncPort() {
+        return autoVncPort;
+    }
+    
+    public void setAutoVncPort(boolean autoVncPort) {
+        this.autoVncPort = autoVncPort;
+    }
+    
+    public boolean isVncUnixSocket() {
+        return vncUnixSocket;
+    }
+    
+    public void setVncUnixSocket(boolean vncUnixSocket) {
+        this.vncUnixSocket = vncUnixSocket;
+        invalidateLaunchPlan();
+    }
+    
+    public int getQmpPort() {
+        return qmpPort;
+    }
+    
+    public void setQmpPort(int qmpPort) {
+        this.qmpPort = qmpPort;
+    }
+    
+    public boolean isGuestAgent() {
+        return guestAgent;
+    }
+    
+    public void setGuestAgent(boolean guestAgent) {
+        this.guestAgent = guestAgent;
+    }
+    
+    public int getGuestAgentPort() {
+        return guestAgentPort;
+    }
+    
+    public void setGuestAgentPort(int guestAgentPort) {
+        this.guestAgentPort = guestAgentPort;
+    }
+    
+    /**
+     * Local port of the serial console socket drained by QemuSerialLogManager, 0 if none
+     */
+    public int getSerialPort() {
+        return serialPort;
+    }
+    
+    public void setSerialPort(int serialPort) {
+        this.serialPort = serialPort;
+    }
+    
+    public RestartPolicy getRestartPolicy() {
+        return restartPolicy;
+    }
+    
+    public void setRestartPolicy(RestartPolicy restartPolicy) {
+        this.restartPolicy = restartPolicy;
+    }
+    
+    /**
+     * Emulated watchdog device model ("none", "i6300esb" or "ib700")
+     */
+    public String getWatchdog() {
+        return watchdog;
+    }
+    
+    public void setWatchdog(String watchdog) {
+        this.watchdog = watchdog;
+        invalidateLaunchPlan();
+    }
+    
+    /**
+     * Optional "host:port" that must accept TCP connections while the VM is healthy
+     */
+    public String getHealthCheckAddress() {
+        return healthCheckAddress;
+    }
+    
+    public void setHealthCheckAddress(String healthCheckAddress) {
+        this.healthCheckAddress = healthCheckAddress;
+    }
+    
+    public boolean isAutostart() {
+        return autostart;
+    }
+    
+    public void setAutostart(boolean autostart) {
+        this.autostart = autostart;
+    }
+    
+    /**
+     * Higher priorities boot first among VMs whose dependencies are ready
+     */
+    public int getAutostartPriority() {
+        return autostartPriority;
+    }
+    
+    public void setAutostartPriority(int autostartPriority) {
+        this.autostartPriority = autostartPriority;
+    }
+    
+    public Set<String> getDependsOn() {
+        return Collections.unmodifiableSet(dependsOn);
+    }
+    
+    public void setDependsOn(Collection<String> names) {
+        dependsOn.clear();
+        for (String dependency : names) {
+            String trimmed = dependency.trim();
+            if (!trimmed.isEmpty() && !trimmed.equals(name)) {
+                dependsOn.add(trimmed);
+            }
+        }
+    }
+    
+    /**
+     * Relative CPU share against other VMs, 1-10000 (kernel default 100)
+     */
+    public int getCpuWeight() {
+        return cpuWeight;
+    }
+    
+    public void setCpuWeight(int cpuWeight) {
+        this.cpuWeight = cpuWeight;
+    }
+    
+    /**
+     * Hard CPU cap in percent of one host CPU, e.g. 200 for two CPUs
+     */
+    public int getCpuLimitPercent() {
+        return cpuLimitPercent;
+    }
+    
+    public void setCpuLimitPercent(int cpuLimitPercent) {
+        this.cpuLimitPercent = cpuLimitPercent;
+    }
+    
+    /**
+     * Memory of the QEMU process beyond which the kernel OOM-kills it
+     */
+    public int getMemoryLimitMB() {
+        return memoryLimitMB;
+    }
+    
+    public void setMemoryLimitMB(int memoryLimitMB) {
+        this.memoryLimitMB = memoryLimitMB;
+    }
+    
+    /**
+     * Memory of the QEMU process beyond which the kernel reclaims and throttles it
+     */
+    public int getMemoryHighMB() {
+        return memoryHighMB;
+    }
+    
+    public void setMemoryHighMB(int memoryHighMB) {
+        this.memoryHighMB = memoryHighMB;
+    }
+    
+    public int getIoReadMBps() {
+        return ioReadMBps;
+    }
+    
+    public void setIoReadMBps(int ioReadMBps) {
+        this.ioReadMBps = ioReadMBps;
+    }
+    
+    public int getIoWriteMBps() {
+        return ioWriteMBps;
+    }
+    
+    public void setIoWriteMBps(int ioWriteMBps) {
+        this.ioWriteMBps = ioWriteMBps;
+    }
+    
+    public int getIoReadIops() {
+        return ioReadIops;
+    }
+    
+    public void setIoReadIops(int ioReadIops) {
+        this.ioReadIops = ioReadIops;
+    }
+    
+    public int getIoWriteIops() {
+        return ioWriteIops;
+    }
+    
+    public void setIoWriteIops(int ioWriteIops) {
+        this.ioWriteIops = ioWriteIops;
+    }
+    
+    /**
+     * Limits of the VM's own disk, used when it is not in a throttle group
+     */
+    public QemuDiskThrottle getDiskThrottle() {
+        return diskThrottle;
+    }
+    
+    public void setDiskThrottle(QemuDiskThrottle diskThrottle) {
+        this.diskThrottle = diskThrottle != null ? diskThrottle : QemuDiskThrottle.NONE;
+        invalidateLaunchPlan();
+    }
+    
+    public String getThrottleGroup() {
+        return throttleGroup;
+    }
+    
+    public void setThrottleGroup(String throttleGroup) {
+        this.throttleGroup = throttleGroup != null ? throttleGroup.trim() : "";
+        invalidateLaunchPlan();
+    }
+    
+    /**
+     * Limits the disk runs with: those of its throttle group if it is in one, else its own.
+     * Null if the group is not defined.
+     */
+    public QemuDiskThrottle getEffectiveDiskThrottle() {
+        if (throttleGroup.isEmpty()) {
+            return diskThrottle;
+        }
+        return QemuSettings.getInstance().getThrottleGroup(throttleGroup);
+    }
+    
+    /**
+     * Id of the throttle-group object in the QEMU process, also used to change its limits live
+     */
+    public String getThrottleObjectId() {
+        return throttleGroup.isEmpty() ? "throttle-disk0" : "throttle-group-" + throttleGroup;
+    }
+    
+    /**
+     * Whether any cgroup limit is set, so the VM must not run without its group
+     */
+    public boolean hasResourceLimits() {
+        return cpuWeight > 0 || cpuLimitPercent > 0 || memoryLimitMB > 0 || memoryHighMB > 0
+            || ioReadMBps > 0 || ioWriteMBps > 0 || ioReadIops > 0 || ioWriteIops > 0;
+    }
+    
+    public String getHealth() {
+        return health;
+    }
+    
+    public void setHealth(String health) {
+        this.health = health;
+    }
+    
+    public int getRestartCount() {
+        return restartCount;
+    }
+    
+    public void setRestartCount(int restartCount) {
+        this.restartCount = restartCount;
+    }
+    
+    /**
+     * Returns the VM name reduced to characters that are safe in file names
+     */
+    public String getFileSafeName() {
+        return name.replaceAll("[^A-Za-z0-9._-]", "_");
+    }
+    
+    /**
+     * Returns the path of the VNC UNIX socket used when TCP VNC is disabled
+     */
+    public String getVncSocketPath() {
+        return QemuSettings.getInstance().getQemuManagerRunPath() + java.io.File.separator + getFileSafeName() + ".vnc";
+    }
+    
+    /**
+     * Returns the path of the output log written by VMs started through the launch helper
+     */
+    public String getLogFilePath() {
+        return QemuSettings.getInstance().getQemuManagerRunPath() + java.io.File.separator + getFileSafeName() + ".log";
+    }
+    
     public VmStatus getStatus() {
         return status;
     }
@@ -157,6 +555,32 @@ public class QemuVm {
         this.status = status;
     }
     
+    public String getGroup() {
+        return group;
+    }
+    
+    public void setGroup(String group) {
+        this.group = group;
+    }
+    
+    public Set<String> getTags() {
+        return Collections.unmodifiableSet(tags);
+    }
+    
+    public void setTags(Collection<String> newTags) {
+        tags.clear();
+        for (String tag : newTags) {
+            String trimmed = tag.trim();
+            if (!trimmed.isEmpty()) {
+                tags.add(trimmed);
+            }
+        }
+    }
+    
+    public boolean hasTag(String tag) {
+        return tags.contains(tag);
+    }
+    
     public Process getQemuProcess() {
         return qemuProcess;
     }
@@ -166,13 +590,95 @@ public class QemuVm {
     }
     
     /**
-     * Generates the QEMU command line arguments for this VM
+     * Returns the handle of the running QEMU process, whether or not it is a child of this JVM
+     */
+    public ProcessHandle getProcessHandle() {
+        return processHandle;
+    }
+    
+    public void setProcessHandle(ProcessHandle processHandle) {
+        this.processHandle = processHandle;
+    }
+    
+    /**
+     * Starts a new run of the VM and returns its number. Cleanup after a process exit
+     * only applies while the process's run is still the current one, so a late exit
+     * handler cannot take the ports or the cgroup of the next run.
+     */
+    public int beginRun() {
+        return ++run;
+    }
+    
+    public int getRun() {
+        return run;
+    }
+    
+    /**
+     * Drops the cached launch plan; call after changing anything that feeds the command line
+     */
+    public void invalidateLaunchPlan() {
+        launchPlan = null;
+    }
+    
+    /**
+     * Returns the QEMU command line arguments for this VM.
+     * Everything but the display and control ports, which change with every
+     * start, is built once and reused until the configuration or one of the
+     * settings it depends on (QEMU and run paths, throttle groups) changes.
      */
     public String[] generateQemuCommand() {
+        // Installing or removing virtiofsd switches the folders between virtiofs and 9p
+        boolean virtiofsAvailable = !sharedFolders.isEmpty() && QemuVirtiofsManager.getInstance().isAvailable();
+        int revision = QemuSettings.getCommandRevision();
+        String[] plan = launchPlan;
+        if (plan == null || revision != launchPlanRevision || virtiofsAvailable != launchPlanVirtiofs) {
+            plan = buildLaunchPlan(virtiofsAvailable).toArray(new String[0]);
+            launchPlan = plan;
+            launchPlanRevision = revision;
+            launchPlanVirtiofs = virtiofsAvailable;
+        }
+        java.util.List<String> command = new java.util.ArrayList<>(plan.length + 16);
+        java.util.Collections.addAll(command, plan);
+        addPortArguments(command, vncPort, qmpPort, guestAgentPort, serialPort);
+        return command.toArray(new String[0]);
+    }
+    
+    /**
+     * Returns the command line of a second QEMU process that receives this VM by live migration:
+     * the same guest hardware on its own display and control ports, waiting for migrate-incoming.
+     * The machine type should be the versioned one the source runs, or null for the default.
+     */
+    public String[] generateIncomingCommand(int vncPort, int qmpPort, int guestAgentPort, int serialPort,
+                                            String machineType) {
+        java.util.List<String> command = buildLaunchPlan(
+            !sharedFolders.isEmpty() && QemuVirtiofsManager.getInstance().isAvailable());
+        addPortArguments(command, vncPort, qmpPort, guestAgentPort, serialPort);
+        if (machineType != null && !machineType.isEmpty()) {
+            int machine = command.indexOf("-machine");
+            if (machine >= 0) {
+                command.set(machine + 1, machineType);
+            } else {
+                command.add(1, "-machine");
+                command.add(2, machineType);
+            }
+        }
+        command.add("-incoming");
+        command.add("defer");
+        return command.toArray(new String[0]);
+    }
+    
+    /**
+     * Builds the part of the command line that stays the same from one start to the next
+     */
+    private java.util.List<String> buildLaunchPlan(boolean virtiofsAvailable) {
         java.util.List<String> command = new java.util.ArrayList<>();
         
         command.add(QemuSettings.getInstance().getQemuPath());
         
+        // Name, also how a later manager session recognises the process
+        command.add("-name");
+        command.add(escapeOptionValue(name));
+        
         // Architecture
         if (!architecture.equals("x86_64")) {
             command.add("-machine");
@@ -182,6 +688,13 @@ public class QemuVm {
         // Memory
         command.add("-m");
         command.add(String.valueOf(memoryMB));
+        if (usesVirtiofs(virtiofsAvailable)) {
+            // virtiofsd maps the guest memory to serve requests without copying
+            command.add("-object");
+            command.add("memory-backend-memfd,id=mem,size=" + memoryMB + "M,share=on");
+            command.add("-numa");
+            command.add("node,memdev=mem");
+        }
         
         // CPU cores
         command.add("-smp");
@@ -194,8 +707,25 @@ public class QemuVm {
         
         // Disk
         if (diskPath != null && !diskPath.isEmpty()) {
-            command.add("-drive");
-            command.add("file=" + diskPath + ",format=qcow2");
+            QemuDiskThrottle throttle = getEffectiveDiskThrottle();
+            if (throttle == null || throttle.isUnlimited()) {
+                command.add("-drive");
+                // Named like the throttled disk below, so QemuDiskNodes finds it
+                command.add("file=" + escapeOptionValue(diskPath) + ",format=qcow2,id=disk0,node-name=disk0-format");
+            } else {
+                // file <- qcow2 <- throttle filter, attached where -drive would have put the disk
+                String throttleId = getThrottleObjectId();
+                command.add("-object");
+                command.add(throttle.toObjectOptions(throttleId));
+                command.add("-blockdev");
+                command.add("driver=file,node-name=disk0-file,filename=" + escapeOptionValue(diskPath));
+                command.add("-blockdev");
+                command.add("driver=qcow2,node-name=disk0-format,file=disk0-file");
+                command.add("-blockdev");
+                command.add("driver=throttle,node-name=disk0,throttle-group=" + throttleId + ",file=disk0-format");
+                command.add("-device");
+                command.add(getDiskDevice() + ",drive=disk0,id=disk0-device");
+            }
         }
         
         // CD-ROM
@@ -208,21 +738,95 @@ public class QemuVm {
         command.add("-boot");
         command.add(bootOrder);
         
-        // Network
-        command.add("-netdev");
-        command.add(networkType + ",id=net0");
-        command.add("-device");
-        command.add("e1000,netdev=net0");
+        // Network; without any NIC QEMU would add a default one
+        if (nics.isEmpty()) {
+            command.add("-nic");
+            command.add("none");
+        }
+        int nextFd = 3; // Descriptors opened by the launcher, see getNicDeviceFiles
+        for (int i = 0; i < nics.size(); i++) {
+            nics.get(i).addArguments(command, i, nextFd, QemuSettings.getInstance().getBridgeHelperPath());
+            nextFd += nics.get(i).getFileDescriptorCount();
+        }
         
-        // VNC display
-        command.add("-vnc");
-        command.add(":" + (vncPort - 5900)); // VNC display number (port - 5900)
+        // Shared folders, see QemuVirtiofsManager for the daemons behind virtiofs ones
+        for (int i = 0; i < sharedFolders.size(); i++) {
+            QemuSharedFolder folder = sharedFolders.get(i);
+            folder.addArguments(command, i, folder.getEffectiveMode(virtiofsAvailable), getVirtiofsSocketPath(folder));
+        }
+        
+        // Watchdog: the guest must keep petting it or QEMU resets the machine
+        if (watchdog != null && !watchdog.isEmpty() && !watchdog.equals("none")) {
+            command.add("-device");
+            command.add(watchdog);
+            command.add("-watchdog-action");
+            command.add("reset");
+        }
         
         // Monitor
         command.add("-monitor");
         command.add("stdio");
         
-        return command.toArray(new String[0]);
+        return command;
+    }
+    
+    /**
+     * Adds the display, QMP, guest agent and serial console endpoints, which are leased anew at every start
+     */
+    private void addPortArguments(java.util.List<String> command, int vncPort, int qmpPort, int guestAgentPort,
+                                  int serialPort) {
+        // VNC display
+        command.add("-vnc");
+        if (vncUnixSocket) {
+            command.add("unix:" + getVncSocketPath()); // Local-only, avoids the TCP stack
+        } else {
+            command.add(":" + (vncPort - 5900)); // VNC display number (port - 5900)
+        }
+        
+        // Machine protocol socket for QemuMonitorClient
+        if (qmpPort > 0) {
+            command.add("-qmp");
+            command.add("tcp:127.0.0.1:" + qmpPort + ",server=on,wait=off");
+        }
+        
+        // Guest agent channel for QemuGuestAgentClient
+        if (guestAgentPort > 0) {
+            command.add("-chardev");
+            command.add("socket,id=qga0,host=127.0.0.1,port=" + guestAgentPort + ",server=on,wait=off");
+            command.add("-device");
+            command.add("virtio-serial");
+            command.add("-device");
+            command.add("virtserialport,chardev=qga0,name=org.qemu.guest_agent.0");
+        }
+        
+        // Serial console, captured to a rotating log by QemuSerialLogManager
+        if (serialPort > 0) {
+            command.add("-chardev");
+            command.add("socket,id=serial0,host=127.0.0.1,port=" + serialPort + ",server=on,wait=off");
+            command.add("-serial");
+            command.add("chardev:serial0");
+        }
+    }
+    
+    /**
+     * Escapes a value for QEMU's option parser, which treats a doubled comma as a literal one
+     */
+    static String escapeOptionValue(String value) {
+        return value.replace(",", ",,");
+    }
+    
+    /**
+     * The disk device -drive creates by default on the machine, so throttling does not change the guest's view
+     */
+    private String getDiskDevice() {
+        switch (getArchitectureMachine()) {
+            case "virt":
+                return "virtio-blk-pci";
+            case "versatilepb":
+                return "scsi-hd,bus=scsi.0,scsi-id=0";
+            default:
+                return "ide-hd,bus=ide.0,unit=0";
+        }
     }
     
     private String getArchitectureMachine() {
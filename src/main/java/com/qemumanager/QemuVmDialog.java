@@ -1,15 +1,20 @@
 package com.qemumanager;
 
 import javax.swing.*;
+import javax.swing.table.DefaultTableModel;
 import java.awt.*;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * Dialog for creating and editing virtual machines
  */
 public class QemuVmDialog extends JDialog {
+    private static final String OWN_THROTTLE = "Own limits";
+    
     private QemuVm virtualMachine;
     private boolean confirmed = false;
     
@@ -19,11 +24,39 @@ public class QemuVmDialog extends JDialog {
     private JSpinner memorySpinner;
     private JSpinner cpuSpinner;
     private JComboBox<String> architectureCombo;
-    private JComboBox<String> networkCombo;
+    private DefaultTableModel nicTableModel;
+    private JTable nicTable;
+    private DefaultTableModel folderTableModel;
+    private JTable folderTable;
     private JCheckBox kvmCheckBox;
     private JTextField cdromPathField;
     private JTextField bootOrderField;
     private JSpinner vncPortSpinner;
+    private JCheckBox autoVncPortCheckBox;
+    private JCheckBox vncUnixSocketCheckBox;
+    private JCheckBox guestAgentCheckBox;
+    private JComboBox<QemuVm.RestartPolicy> restartPolicyCombo;
+    private JComboBox<String> watchdogCombo;
+    private JTextField healthCheckField;
+    private JCheckBox autostartCheckBox;
+    private JSpinner autostartPrioritySpinner;
+    private JTextField dependsOnField;
+    private JSpinner cpuWeightSpinner;
+    private JSpinner cpuLimitSpinner;
+    private JSpinner memoryLimitSpinner;
+    private JSpinner memoryHighSpinner;
+    private JSpinner ioReadMBpsSpinner;
+    private JSpinner ioWriteMBpsSpinner;
+    private JSpinner ioReadIopsSpinner;
+    private JSpinner ioWriteIopsSpinner;
+    private JComboBox<String> throttleGroupCombo;
+    private JSpinner throttleIopsSpinner;
+    private JSpinner throttleIopsMaxSpinner;
+    private JSpinner throttleMbpsSpinner;
+    private JSpinner throttleMbpsMaxSpinner;
+    private JSpinner throttleBurstSpinner;
+    private JTextField groupField;
+    private JTextField tagsField;
     
     public QemuVmDialog(JFrame parent, String title, boolean modal) {
         super(parent, title, modal);
@@ -110,12 +143,19 @@ public class QemuVmDialog extends JDialog {
         
         row++;
         
-        // Network
+        // Network interfaces
         gbc.gridx = 0; gbc.gridy = row; gbc.fill = GridBagConstraints.NONE; gbc.weightx = 0;
         panel.add(new JLabel("Network:"), gbc);
         gbc.gridx = 1; gbc.fill = GridBagConstraints.HORIZONTAL; gbc.weightx = 1.0;
-        networkCombo = new JComboBox<>(new String[]{"user", "tap", "bridge", "none"});
-        panel.add(networkCombo, gbc);
+        panel.add(createNicPanel(), gbc);
+        
+        row++;
+        
+        // Shared folders
+        gbc.gridx = 0; gbc.gridy = row; gbc.fill = GridBagConstraints.NONE; gbc.weightx = 0;
+        panel.add(new JLabel("Shared Folders:"), gbc);
+        gbc.gridx = 1; gbc.fill = GridBagConstraints.HORIZONTAL; gbc.weightx = 1.0;
+        panel.add(createFolderPanel(), gbc);
         
         row++;
         
@@ -129,6 +169,165 @@ public class QemuVmDialog extends JDialog {
         
         row++;
         
+        // Guest agent
+        gbc.gridx = 0; gbc.gridy = row; gbc.fill = GridBagConstraints.NONE; gbc.weightx = 0;
+        panel.add(new JLabel("Guest Agent:"), gbc);
+        gbc.gridx = 1; gbc.fill = GridBagConstraints.HORIZONTAL; gbc.weightx = 1.0;
+        guestAgentCheckBox = new JCheckBox("Add a qemu-guest-agent channel");
+        guestAgentCheckBox.setSelected(true);
+        panel.add(guestAgentCheckBox, gbc);
+        
+        row++;
+        
+        // Restart policy
+        gbc.gridx = 0; gbc.gridy = row; gbc.fill = GridBagConstraints.NONE; gbc.weightx = 0;
+        panel.add(new JLabel("Restart Policy:"), gbc);
+        gbc.gridx = 1; gbc.fill = GridBagConstraints.HORIZONTAL; gbc.weightx = 1.0;
+        restartPolicyCombo = new JComboBox<>(QemuVm.RestartPolicy.values());
+        panel.add(restartPolicyCombo, gbc);
+        
+        row++;
+        
+        // Watchdog
+        gbc.gridx = 0; gbc.gridy = row; gbc.fill = GridBagConstraints.NONE; gbc.weightx = 0;
+        panel.add(new JLabel("Watchdog:"), gbc);
+        gbc.gridx = 1; gbc.fill = GridBagConstraints.HORIZONTAL; gbc.weightx = 1.0;
+        watchdogCombo = new JComboBox<>(new String[]{"none", "i6300esb", "ib700"});
+        panel.add(watchdogCombo, gbc);
+        
+        row++;
+        
+        // Health check
+        gbc.gridx = 0; gbc.gridy = row; gbc.fill = GridBagConstraints.NONE; gbc.weightx = 0;
+        panel.add(new JLabel("Health Check:"), gbc);
+        gbc.gridx = 1; gbc.fill = GridBagConstraints.HORIZONTAL; gbc.weightx = 1.0;
+        healthCheckField = new JTextField(20);
+        healthCheckField.setToolTipText("Optional host:port that must accept TCP connections, e.g. localhost:2222");
+        panel.add(healthCheckField, gbc);
+        
+        row++;
+        
+        // Autostart
+        gbc.gridx = 0; gbc.gridy = row; gbc.fill = GridBagConstraints.NONE; gbc.weightx = 0;
+        panel.add(new JLabel("Autostart:"), gbc);
+        gbc.gridx = 1; gbc.fill = GridBagConstraints.HORIZONTAL; gbc.weightx = 1.0;
+        JPanel autostartPanel = new JPanel(new FlowLayout(FlowLayout.LEFT, 0, 0));
+        autostartCheckBox = new JCheckBox("Start when the manager launches");
+        autostartPrioritySpinner = new JSpinner(new SpinnerNumberModel(0, -100, 100, 1));
+        autostartPanel.add(autostartCheckBox);
+        autostartPanel.add(new JLabel("  Priority: "));
+        autostartPanel.add(autostartPrioritySpinner);
+        panel.add(autostartPanel, gbc);
+        
+        row++;
+        
+        // Dependencies
+        gbc.gridx = 0; gbc.gridy = row; gbc.fill = GridBagConstraints.NONE; gbc.weightx = 0;
+        panel.add(new JLabel("Depends On:"), gbc);
+        gbc.gridx = 1; gbc.fill = GridBagConstraints.HORIZONTAL; gbc.weightx = 1.0;
+        dependsOnField = new JTextField();
+        dependsOnField.setToolTipText("Names of VMs that must be ready before this one starts, separated by commas");
+        panel.add(dependsOnField, gbc);
+        
+        row++;
+        
+        // CPU limits
+        gbc.gridx = 0; gbc.gridy = row; gbc.fill = GridBagConstraints.NONE; gbc.weightx = 0;
+        panel.add(new JLabel("CPU Limits:"), gbc);
+        gbc.gridx = 1; gbc.fill = GridBagConstraints.HORIZONTAL; gbc.weightx = 1.0;
+        JPanel cpuLimitPanel = new JPanel(new FlowLayout(FlowLayout.LEFT, 0, 0));
+        cpuWeightSpinner = new JSpinner(new SpinnerNumberModel(0, 0, 10000, 10));
+        cpuLimitSpinner = new JSpinner(new SpinnerNumberModel(0, 0, 25600, 10));
+        cpuLimitPanel.add(new JLabel("Weight "));
+        cpuLimitPanel.add(cpuWeightSpinner);
+        cpuLimitPanel.add(new JLabel("  Max "));
+        cpuLimitPanel.add(cpuLimitSpinner);
+        cpuLimitPanel.add(new JLabel(" %"));
+        panel.add(cpuLimitPanel, gbc);
+        
+        row++;
+        
+        // Memory limits
+        gbc.gridx = 0; gbc.gridy = row; gbc.fill = GridBagConstraints.NONE; gbc.weightx = 0;
+        panel.add(new JLabel("Memory Limits:"), gbc);
+        gbc.gridx = 1; gbc.fill = GridBagConstraints.HORIZONTAL; gbc.weightx = 1.0;
+        JPanel memoryLimitPanel = new JPanel(new FlowLayout(FlowLayout.LEFT, 0, 0));
+        memoryLimitSpinner = new JSpinner(new SpinnerNumberModel(0, 0, 1048576, 256));
+        memoryHighSpinner = new JSpinner(new SpinnerNumberModel(0, 0, 1048576, 256));
+        memoryLimitPanel.add(new JLabel("Max "));
+        memoryLimitPanel.add(memoryLimitSpinner);
+        memoryLimitPanel.add(new JLabel(" MB  Throttle above "));
+        memoryLimitPanel.add(memoryHighSpinner);
+        memoryLimitPanel.add(new JLabel(" MB"));
+        panel.add(memoryLimitPanel, gbc);
+        
+        row++;
+        
+        // Disk I/O limits
+        gbc.gridx = 0; gbc.gridy = row; gbc.fill = GridBagConstraints.NONE; gbc.weightx = 0;
+        panel.add(new JLabel("Disk I/O Limits:"), gbc);
+        gbc.gridx = 1; gbc.fill = GridBagConstraints.HORIZONTAL; gbc.weightx = 1.0;
+        JPanel ioLimitPanel = new JPanel(new GridLayout(2, 1));
+        JPanel ioBandwidthPanel = new JPanel(new FlowLayout(FlowLayout.LEFT, 0, 0));
+        ioReadMBpsSpinner = new JSpinner(new SpinnerNumberModel(0, 0, 100000, 10));
+        ioWriteMBpsSpinner = new JSpinner(new SpinnerNumberModel(0, 0, 100000, 10));
+        ioBandwidthPanel.add(new JLabel("Read "));
+        ioBandwidthPanel.add(ioReadMBpsSpinner);
+        ioBandwidthPanel.add(new JLabel(" MB/s  Write "));
+        ioBandwidthPanel.add(ioWriteMBpsSpinner);
+        ioBandwidthPanel.add(new JLabel(" MB/s"));
+        JPanel ioOpsPanel = new JPanel(new FlowLayout(FlowLayout.LEFT, 0, 0));
+        ioReadIopsSpinner = new JSpinner(new SpinnerNumberModel(0, 0, 10000000, 100));
+        ioWriteIopsSpinner = new JSpinner(new SpinnerNumberModel(0, 0, 10000000, 100));
+        ioOpsPanel.add(new JLabel("Read "));
+        ioOpsPanel.add(ioReadIopsSpinner);
+        ioOpsPanel.add(new JLabel(" IOPS  Write "));
+        ioOpsPanel.add(ioWriteIopsSpinner);
+        ioOpsPanel.add(new JLabel(" IOPS"));
+        ioLimitPanel.add(ioBandwidthPanel);
+        ioLimitPanel.add(ioOpsPanel);
+        panel.add(ioLimitPanel, gbc);
+        
+        row++;
+        
+        // Disk throttling in QEMU
+        gbc.gridx = 0; gbc.gridy = row; gbc.fill = GridBagConstraints.NONE; gbc.weightx = 0;
+        panel.add(new JLabel("Disk Throttle:"), gbc);
+        gbc.gridx = 1; gbc.fill = GridBagConstraints.HORIZONTAL; gbc.weightx = 1.0;
+        JPanel throttlePanel = new JPanel(new GridLayout(3, 1));
+        JPanel throttleGroupPanel = new JPanel(new FlowLayout(FlowLayout.LEFT, 0, 0));
+        throttleGroupCombo = new JComboBox<>();
+        throttleGroupCombo.addItem(OWN_THROTTLE);
+        for (String group : QemuSettings.getInstance().getThrottleGroups().keySet()) {
+            throttleGroupCombo.addItem(group);
+        }
+        throttleGroupCombo.addActionListener(e -> updateThrottleControls());
+        throttleGroupPanel.add(throttleGroupCombo);
+        JPanel throttleRatePanel = new JPanel(new FlowLayout(FlowLayout.LEFT, 0, 0));
+        throttleIopsSpinner = new JSpinner(new SpinnerNumberModel(0, 0, 10000000, 100));
+        throttleMbpsSpinner = new JSpinner(new SpinnerNumberModel(0, 0, 100000, 10));
+        throttleRatePanel.add(throttleIopsSpinner);
+        throttleRatePanel.add(new JLabel(" IOPS  "));
+        throttleRatePanel.add(throttleMbpsSpinner);
+        throttleRatePanel.add(new JLabel(" MB/s"));
+        JPanel throttleBurstPanel = new JPanel(new FlowLayout(FlowLayout.LEFT, 0, 0));
+        throttleIopsMaxSpinner = new JSpinner(new SpinnerNumberModel(0, 0, 10000000, 100));
+        throttleMbpsMaxSpinner = new JSpinner(new SpinnerNumberModel(0, 0, 100000, 10));
+        throttleBurstSpinner = new JSpinner(new SpinnerNumberModel(0, 0, 3600, 1));
+        throttleBurstPanel.add(new JLabel("Burst "));
+        throttleBurstPanel.add(throttleIopsMaxSpinner);
+        throttleBurstPanel.add(new JLabel(" IOPS  "));
+        throttleBurstPanel.add(throttleMbpsMaxSpinner);
+        throttleBurstPanel.add(new JLabel(" MB/s for "));
+        throttleBurstPanel.add(throttleBurstSpinner);
+        throttleBurstPanel.add(new JLabel(" s"));
+        throttlePanel.add(throttleGroupPanel);
+        throttlePanel.add(throttleRatePanel);
+        throttlePanel.add(throttleBurstPanel);
+        panel.add(throttlePanel, gbc);
+        
+        row++;
+        
         // CD-ROM
         gbc.gridx = 0; gbc.gridy = row; gbc.fill = GridBagConstraints.NONE; gbc.weightx = 0;
         panel.add(new JLabel("CD-ROM Image:"), gbc);
@@ -162,12 +361,75 @@ public class QemuVmDialog extends JDialog {
         
         row++;
         
+        // VNC port allocation
+        gbc.gridx = 0; gbc.gridy = row; gbc.fill = GridBagConstraints.NONE; gbc.weightx = 0;
+        panel.add(new JLabel("VNC Options:"), gbc);
+        gbc.gridx = 1; gbc.fill = GridBagConstraints.HORIZONTAL; gbc.weightx = 1.0;
+        JPanel vncOptionsPanel = new JPanel(new FlowLayout(FlowLayout.LEFT, 0, 0));
+        autoVncPortCheckBox = new JCheckBox("Pick free port at start");
+        autoVncPortCheckBox.setSelected(true);
+        vncUnixSocketCheckBox = new JCheckBox("Local UNIX socket");
+        autoVncPortCheckBox.addActionListener(e -> updateVncControls());
+        vncUnixSocketCheckBox.addActionListener(e -> updateVncControls());
+        vncOptionsPanel.add(autoVncPortCheckBox);
+        vncOptionsPanel.add(vncUnixSocketCheckBox);
+        panel.add(vncOptionsPanel, gbc);
+        
+        row++;
+        
+        // Group
+        gbc.gridx = 0; gbc.gridy = row; gbc.fill = GridBagConstraints.NONE; gbc.weightx = 0;
+        panel.add(new JLabel("Group:"), gbc);
+        gbc.gridx = 1; gbc.fill = GridBagConstraints.HORIZONTAL; gbc.weightx = 1.0;
+        groupField = new JTextField();
+        panel.add(groupField, gbc);
+        
+        row++;
+        
+        // Tags
+        gbc.gridx = 0; gbc.gridy = row; gbc.fill = GridBagConstraints.NONE; gbc.weightx = 0;
+        panel.add(new JLabel("Tags:"), gbc);
+        gbc.gridx = 1; gbc.fill = GridBagConstraints.HORIZONTAL; gbc.weightx = 1.0;
+        tagsField = new JTextField();
+        panel.add(tagsField, gbc);
+        
+        row++;
+        
         // Help text
         gbc.gridx = 0; gbc.gridy = row; gbc.gridwidth = 2; gbc.fill = GridBagConstraints.HORIZONTAL;
         JTextArea helpText = new JTextArea(
+            "Network: User mode needs no setup but is slow. TAP uses an existing tap device owned by you " +
+            "(created with multi_queue for several queues), Bridge attaches to a host bridge through " +
+            "qemu-bridge-helper, Macvtap uses an existing macvtap device whose /dev/tapN you can open. " +
+            "vhost moves packet processing into the host kernel and needs the virtio-net-pci model. " +
+            "Empty MAC addresses are assigned when the VM is saved.\n\n" +
+            "Shared Folders: Host directories the guest mounts by tag, e.g. " +
+            "'mount -t virtiofs <tag> /mnt'. virtiofs is fast but needs virtiofsd on the host, otherwise " +
+            "the folder is shared over 9p ('mount -t 9p -o trans=virtio <tag> /mnt'). Cache 'always' is " +
+            "fastest when only the guest changes the files, 'never' shows host changes at once. " +
+            "Threads 0 uses virtiofsd's default. Shared folders prevent live migration.\n\n" +
             "Boot Order: 'a' or 'b' for floppy, 'c' for hard disk, 'd' for CD-ROM, 'n' for network.\n" +
             "Example: 'dc' means try CD-ROM first, then hard disk.\n\n" +
-            "VNC Port: Port number for VNC remote display access (5901-5999)."
+            "VNC Port: Port number for VNC remote display access (5901-5999). " +
+            "When 'Pick free port at start' is checked, the port is only a preference and a free one " +
+            "from the configured range is used. A local UNIX socket skips TCP entirely.\n\n" +
+            "Guest Agent: Lets the manager detect when the guest has booted and shut it down cleanly. " +
+            "Requires qemu-guest-agent inside the guest.\n\n" +
+            "Restart Policy: Restart the VM when it exits (Always) or when it crashes or fails its " +
+            "health checks (On failure). Watchdog: Emulated watchdog that resets a hung guest. " +
+            "Health Check: Optional host:port probed in addition to the process, monitor and agent.\n\n" +
+            "Autostart: Boot the VM when the manager launches, higher priorities first. " +
+            "Depends On: VMs (comma separated) that are started first and must be ready before this one.\n\n" +
+            "Limits: Enforced on the whole QEMU process through its cgroup; 0 means unlimited. " +
+            "Weight shares CPU with other VMs (default 100), Max caps it in percent of one host CPU. " +
+            "Memory above the throttle mark is reclaimed, above Max the VM is killed, so leave room " +
+            "for QEMU itself. Disk limits apply to the devices holding the disk and CD-ROM images. " +
+            "Changes take effect immediately on a running VM.\n\n" +
+            "Disk Throttle: Limits QEMU applies to the disk, with an optional burst above the sustained " +
+            "rate. A throttle group from the settings gives several VMs the same limits and can be " +
+            "changed for all of them at once. Changed limits apply to a running VM that was started " +
+            "with throttling; others pick them up at their next start.\n\n" +
+            "Group and Tags: Used to organize and search VMs. Separate tags with commas."
         );
         helpText.setEditable(false);
         helpText.setOpaque(false);
@@ -179,6 +441,204 @@ public class QemuVmDialog extends JDialog {
         return panel;
     }
     
+    private JPanel createNicPanel() {
+        JPanel nicPanel = new JPanel(new BorderLayout(0, 2));
+        nicTableModel = new DefaultTableModel(
+            new Object[]{"Backend", "Model", "Host Interface", "Queues", "vhost", "MAC Address"}, 0) {
+            @Override
+            public Class<?> getColumnClass(int column) {
+                switch (column) {
+                    case 0:
+                        return QemuNic.Backend.class;
+                    case 3:
+                        return Integer.class;
+                    case 4:
+                        return Boolean.class;
+                    default:
+                        return String.class;
+                }
+            }
+        };
+        nicTable = new JTable(nicTableModel);
+        nicTable.getColumnModel().getColumn(0).setCellEditor(new DefaultCellEditor(new JComboBox<>(QemuNic.Backend.values())));
+        nicTable.getColumnModel().getColumn(1).setCellEditor(new DefaultCellEditor(new JComboBox<>(QemuNic.MODELS)));
+        nicTable.getColumnModel().getColumn(3).setPreferredWidth(50);
+        nicTable.getColumnModel().getColumn(4).setPreferredWidth(40);
+        nicTable.getColumnModel().getColumn(5).setPreferredWidth(120);
+        nicTable.setToolTipText("Host Interface: the tap or macvtap device, or the bridge. Leave the MAC empty to assign one.");
+        JScrollPane nicScrollPane = new JScrollPane(nicTable);
+        nicScrollPane.setPreferredSize(new Dimension(300, nicTable.getRowHeight() * 3 + 28));
+        nicPanel.add(nicScrollPane, BorderLayout.CENTER);
+        
+        JPanel nicButtonPanel = new JPanel(new FlowLayout(FlowLayout.LEFT, 0, 0));
+        JButton addNicButton = new JButton("Add");
+        JButton removeNicButton = new JButton("Remove");
+        addNicButton.addActionListener(e -> addNicRow(new QemuNic(QemuNic.Backend.USER)));
+        removeNicButton.addActionListener(e -> {
+            stopNicEditing();
+            int[] rows = nicTable.getSelectedRows();
+            for (int i = rows.length - 1; i >= 0; i--) {
+                nicTableModel.removeRow(rows[i]);
+            }
+        });
+        nicButtonPanel.add(addNicButton);
+        nicButtonPanel.add(removeNicButton);
+        nicPanel.add(nicButtonPanel, BorderLayout.SOUTH);
+        
+        addNicRow(new QemuNic(QemuNic.Backend.USER));
+        return nicPanel;
+    }
+    
+    private JPanel createFolderPanel() {
+        JPanel folderPanel = new JPanel(new BorderLayout(0, 2));
+        folderTableModel = new DefaultTableModel(
+            new Object[]{"Tag", "Host Directory", "Type", "Read-only", "Cache", "Threads"}, 0) {
+            @Override
+            public Class<?> getColumnClass(int column) {
+                switch (column) {
+                    case 2:
+                        return QemuSharedFolder.Mode.class;
+                    case 3:
+                        return Boolean.class;
+                    case 5:
+                        return Integer.class;
+                    default:
+                        return String.class;
+                }
+            }
+        };
+        folderTable = new JTable(folderTableModel);
+        folderTable.getColumnModel().getColumn(2).setCellEditor(new DefaultCellEditor(new JComboBox<>(QemuSharedFolder.Mode.values())));
+        folderTable.getColumnModel().getColumn(4).setCellEditor(new DefaultCellEditor(new JComboBox<>(QemuSharedFolder.CACHE_MODES)));
+        folderTable.getColumnModel().getColumn(1).setPreferredWidth(160);
+        folderTable.getColumnModel().getColumn(3).setPreferredWidth(60);
+        folderTable.getColumnModel().getColumn(5).setPreferredWidth(50);
+        folderTable.setToolTipText("The guest mounts each folder by its tag. Cache and Threads apply to virtiofs only.");
+        JScrollPane folderScrollPane = new JScrollPane(folderTable);
+        folderScrollPane.setPreferredSize(new Dimension(300, folderTable.getRowHeight() * 3 + 28));
+        folderPanel.add(folderScrollPane, BorderLayout.CENTER);
+        
+        JPanel folderButtonPanel = new JPanel(new FlowLayout(FlowLayout.LEFT, 0, 0));
+        JButton addFolderButton = new JButton("Add");
+        JButton removeFolderButton = new JButton("Remove");
+        addFolderButton.addActionListener(e -> browseSharedFolder());
+        removeFolderButton.addActionListener(e -> {
+            stopFolderEditing();
+            int[] rows = folderTable.getSelectedRows();
+            for (int i = rows.length - 1; i >= 0; i--) {
+                folderTableModel.removeRow(rows[i]);
+            }
+        });
+        folderButtonPanel.add(addFolderButton);
+        folderButtonPanel.add(removeFolderButton);
+        folderPanel.add(folderButtonPanel, BorderLayout.SOUTH);
+        return folderPanel;
+    }
+    
+    private void browseSharedFolder() {
+        JFileChooser fileChooser = new JFileChooser();
+        fileChooser.setFileSelectionMode(JFileChooser.DIRECTORIES_ONLY);
+        fileChooser.setDialogTitle("Select Directory to Share");
+        if (fileChooser.showOpenDialog(this) == JFileChooser.APPROVE_OPTION) {
+            File directory = fileChooser.getSelectedFile();
+            // A tag from the directory name, unique among the folders already listed
+            String base = directory.getName().replaceAll("[^A-Za-z0-9_.-]", "_");
+            if (base.isEmpty()) {
+                base = "share";
+            }
+            base = base.substring(0, Math.min(base.length(), QemuSharedFolder.MAX_TAG_LENGTH - 3));
+            String tag = base;
+            for (int n = 2; hasFolderTag(tag); n++) {
+                tag = base + n;
+            }
+            addFolderRow(new QemuSharedFolder(tag, directory.getAbsolutePath()));
+        }
+    }
+    
+    private boolean hasFolderTag(String tag) {
+        for (int row = 0; row < folderTableModel.getRowCount(); row++) {
+            if (tag.equals(folderTableModel.getValueAt(row, 0))) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    private void addFolderRow(QemuSharedFolder folder) {
+        folderTableModel.addRow(new Object[]{folder.getTag(), folder.getHostPath(), folder.getMode(),
+            folder.isReadOnly(), folder.getCacheMode(), folder.getThreadPoolSize()});
+    }
+    
+    private void stopFolderEditing() {
+        if (folderTable.isEditing()) {
+            folderTable.getCellEditor().stopCellEditing();
+        }
+    }
+    
+    private List<QemuSharedFolder> getSharedFoldersInput() {
+        stopFolderEditing();
+        List<QemuSharedFolder> folders = new ArrayList<>();
+        for (int row = 0; row < folderTableModel.getRowCount(); row++) {
+            QemuSharedFolder folder = new QemuSharedFolder("", "");
+            folder.setTag((String) folderTableModel.getValueAt(row, 0));
+            folder.setHostPath((String) folderTableModel.getValueAt(row, 1));
+            folder.setMode((QemuSharedFolder.Mode) folderTableModel.getValueAt(row, 2));
+            folder.setReadOnly(Boolean.TRUE.equals(folderTableModel.getValueAt(row, 3)));
+            folder.setCacheMode((String) folderTableModel.getValueAt(row, 4));
+            Object threads = folderTableModel.getValueAt(row, 5);
+            folder.setThreadPoolSize(threads instanceof Integer ? (Integer) threads : 0);
+            folders.add(folder);
+        }
+        return folders;
+    }
+    
+    private void addNicRow(QemuNic nic) {
+        nicTableModel.addRow(new Object[]{nic.getBackend(), nic.getModel(), nic.getHostInterface(),
+            nic.getQueues(), nic.isVhost(), nic.getMacAddress()});
+    }
+    
+    private void stopNicEditing() {
+        if (nicTable.isEditing()) {
+            nicTable.getCellEditor().stopCellEditing();
+        }
+    }
+    
+    private List<QemuNic> getNicsInput() {
+        stopNicEditing();
+        List<QemuNic> nics = new ArrayList<>();
+        for (int row = 0; row < nicTableModel.getRowCount(); row++) {
+            QemuNic nic = new QemuNic((QemuNic.Backend) nicTableModel.getValueAt(row, 0));
+            nic.setModel((String) nicTableModel.getValueAt(row, 1));
+            nic.setHostInterface((String) nicTableModel.getValueAt(row, 2));
+            Object queues = nicTableModel.getValueAt(row, 3);
+            nic.setQueues(queues instanceof Integer ? (Integer) queues : 1);
+            nic.setVhost(Boolean.TRUE.equals(nicTableModel.getValueAt(row, 4)));
+            nic.setMacAddress((String) nicTableModel.getValueAt(row, 5));
+            nics.add(nic);
+        }
+        return nics;
+    }
+    
+    private void updateThrottleControls() {
+        boolean own = OWN_THROTTLE.equals(throttleGroupCombo.getSelectedItem());
+        throttleIopsSpinner.setEnabled(own);
+        throttleIopsMaxSpinner.setEnabled(own);
+        throttleMbpsSpinner.setEnabled(own);
+        throttleMbpsMaxSpinner.setEnabled(own);
+        throttleBurstSpinner.setEnabled(own);
+    }
+    
+    private QemuDiskThrottle getDiskThrottleInput() {
+        return new QemuDiskThrottle((Integer) throttleIopsSpinner.getValue(), (Integer) throttleIopsMaxSpinner.getValue(),
+            (Integer) throttleMbpsSpinner.getValue(), (Integer) throttleMbpsMaxSpinner.getValue(),
+            (Integer) throttleBurstSpinner.getValue());
+    }
+    
+    private void updateVncControls() {
+        autoVncPortCheckBox.setEnabled(!vncUnixSocketCheckBox.isSelected());
+        vncPortSpinner.setEnabled(!vncUnixSocketCheckBox.isSelected());
+    }
+    
     private JPanel createButtonPanel() {
         JPanel panel = new JPanel(new FlowLayout(FlowLayout.RIGHT));
         
@@ -275,6 +735,50 @@ public class QemuVmDialog extends JDialog {
             }
         }
         
+        List<QemuNic> nics = getNicsInput();
+        for (int i = 0; i < nics.size(); i++) {
+            String problem = nics.get(i).validate();
+            if (problem != null) {
+                JOptionPane.showMessageDialog(this, "Network interface " + (i + 1) + ": " + problem + ".", 
+                    "Validation Error", JOptionPane.ERROR_MESSAGE);
+                nicTable.setRowSelectionInterval(i, i);
+                return false;
+            }
+        }
+        
+        List<QemuSharedFolder> folders = getSharedFoldersInput();
+        java.util.Set<String> tags = new java.util.HashSet<>();
+        for (int i = 0; i < folders.size(); i++) {
+            String problem = folders.get(i).validate();
+            if (problem == null && !tags.add(folders.get(i).getTag())) {
+                problem = "tag " + folders.get(i).getTag() + " is used twice";
+            }
+            if (problem != null) {
+                JOptionPane.showMessageDialog(this, "Shared folder " + (i + 1) + ": " + problem + ".", 
+                    "Validation Error", JOptionPane.ERROR_MESSAGE);
+                folderTable.setRowSelectionInterval(i, i);
+                return false;
+            }
+        }
+        
+        String throttleProblem = getDiskThrottleInput().validate();
+        if (OWN_THROTTLE.equals(throttleGroupCombo.getSelectedItem()) && throttleProblem != null) {
+            JOptionPane.showMessageDialog(this, "Invalid disk throttle: " + throttleProblem + ".", 
+                "Validation Error", JOptionPane.ERROR_MESSAGE);
+            return false;
+        }
+        
+        // QEMU needs memory beyond the guest's own, so a limit at the guest size kills the VM
+        int memoryLimit = (Integer) memoryLimitSpinner.getValue();
+        if (memoryLimit > 0 && memoryLimit <= (Integer) memorySpinner.getValue()) {
+            int result = JOptionPane.showConfirmDialog(this, 
+                "The memory limit leaves no room for QEMU beyond the guest memory and the VM may be killed. Continue anyway?",
+                "Memory Limit", JOptionPane.YES_NO_OPTION);
+            if (result != JOptionPane.YES_OPTION) {
+                return false;
+            }
+        }
+        
         return true;
     }
     
@@ -289,11 +793,34 @@ public class QemuVmDialog extends JDialog {
         virtualMachine.setMemoryMB((Integer) memorySpinner.getValue());
         virtualMachine.setCpuCores((Integer) cpuSpinner.getValue());
         virtualMachine.setArchitecture((String) architectureCombo.getSelectedItem());
-        virtualMachine.setNetworkType((String) networkCombo.getSelectedItem());
+        virtualMachine.setNics(getNicsInput());
+        virtualMachine.setSharedFolders(getSharedFoldersInput());
         virtualMachine.setEnableKvm(kvmCheckBox.isSelected());
+        virtualMachine.setGuestAgent(guestAgentCheckBox.isSelected());
+        virtualMachine.setRestartPolicy((QemuVm.RestartPolicy) restartPolicyCombo.getSelectedItem());
+        virtualMachine.setWatchdog((String) watchdogCombo.getSelectedItem());
+        virtualMachine.setHealthCheckAddress(healthCheckField.getText().trim());
+        virtualMachine.setAutostart(autostartCheckBox.isSelected());
+        virtualMachine.setAutostartPriority((Integer) autostartPrioritySpinner.getValue());
+        virtualMachine.setDependsOn(java.util.Arrays.asList(dependsOnField.getText().split(",")));
+        virtualMachine.setCpuWeight((Integer) cpuWeightSpinner.getValue());
+        virtualMachine.setCpuLimitPercent((Integer) cpuLimitSpinner.getValue());
+        virtualMachine.setMemoryLimitMB((Integer) memoryLimitSpinner.getValue());
+        virtualMachine.setMemoryHighMB((Integer) memoryHighSpinner.getValue());
+        virtualMachine.setIoReadMBps((Integer) ioReadMBpsSpinner.getValue());
+        virtualMachine.setIoWriteMBps((Integer) ioWriteMBpsSpinner.getValue());
+        virtualMachine.setIoReadIops((Integer) ioReadIopsSpinner.getValue());
+        virtualMachine.setIoWriteIops((Integer) ioWriteIopsSpinner.getValue());
+        virtualMachine.setDiskThrottle(getDiskThrottleInput());
+        String throttleGroup = (String) throttleGroupCombo.getSelectedItem();
+        virtualMachine.setThrottleGroup(OWN_THROTTLE.equals(throttleGroup) ? "" : throttleGroup);
         virtualMachine.setCdromPath(cdromPathField.getText().trim());
         virtualMachine.setBootOrder(bootOrderField.getText().trim());
         virtualMachine.setVncPort((Integer) vncPortSpinner.getValue());
+        virtualMachine.setAutoVncPort(autoVncPortCheckBox.isSelected());
+        virtualMachine.setVncUnixSocket(vncUnixSocketCheckBox.isSelected());
+        virtualMachine.setGroup(groupField.getText().trim());
+        virtualMachine.setTags(java.util.Arrays.asList(tagsField.getText().split(",")));
     }
     
     public void setVirtualMachine(QemuVm vm) {
@@ -308,11 +835,54 @@ public class QemuVmDialog extends JDialog {
             memorySpinner.setValue(virtualMachine.getMemoryMB());
             cpuSpinner.setValue(virtualMachine.getCpuCores());
             architectureCombo.setSelectedItem(virtualMachine.getArchitecture());
-            networkCombo.setSelectedItem(virtualMachine.getNetworkType());
+            nicTableModel.setRowCount(0);
+            for (QemuNic nic : virtualMachine.getNics()) {
+                addNicRow(nic);
+            }
+            folderTableModel.setRowCount(0);
+            for (QemuSharedFolder folder : virtualMachine.getSharedFolders()) {
+                addFolderRow(folder);
+            }
             kvmCheckBox.setSelected(virtualMachine.isEnableKvm());
+            guestAgentCheckBox.setSelected(virtualMachine.isGuestAgent());
+            restartPolicyCombo.setSelectedItem(virtualMachine.getRestartPolicy());
+            watchdogCombo.setSelectedItem(virtualMachine.getWatchdog());
+            healthCheckField.setText(virtualMachine.getHealthCheckAddress());
+            autostartCheckBox.setSelected(virtualMachine.isAutostart());
+            autostartPrioritySpinner.setValue(virtualMachine.getAutostartPriority());
+            dependsOnField.setText(String.join(", ", virtualMachine.getDependsOn()));
+            cpuWeightSpinner.setValue(virtualMachine.getCpuWeight());
+            cpuLimitSpinner.setValue(virtualMachine.getCpuLimitPercent());
+            memoryLimitSpinner.setValue(virtualMachine.getMemoryLimitMB());
+            memoryHighSpinner.setValue(virtualMachine.getMemoryHighMB());
+            ioReadMBpsSpinner.setValue(virtualMachine.getIoReadMBps());
+            ioWriteMBpsSpinner.setValue(virtualMachine.getIoWriteMBps());
+            ioReadIopsSpinner.setValue(virtualMachine.getIoReadIops());
+            ioWriteIopsSpinner.setValue(virtualMachine.getIoWriteIops());
+            QemuDiskThrottle throttle = virtualMachine.getDiskThrottle();
+            throttleIopsSpinner.setValue(throttle.getIopsTotal());
+            throttleIopsMaxSpinner.setValue(throttle.getIopsTotalMax());
+            throttleMbpsSpinner.setValue(throttle.getMbpsTotal());
+            throttleMbpsMaxSpinner.setValue(throttle.getMbpsTotalMax());
+            throttleBurstSpinner.setValue(throttle.getBurstSeconds());
+            if (virtualMachine.getThrottleGroup().isEmpty()) {
+                throttleGroupCombo.setSelectedItem(OWN_THROTTLE);
+            } else {
+                // Keep a group that has since been removed from the settings visible
+                if (((DefaultComboBoxModel<String>) throttleGroupCombo.getModel()).getIndexOf(virtualMachine.getThrottleGroup()) < 0) {
+                    throttleGroupCombo.addItem(virtualMachine.getThrottleGroup());
+                }
+                throttleGroupCombo.setSelectedItem(virtualMachine.getThrottleGroup());
+            }
+            updateThrottleControls();
             cdromPathField.setText(virtualMachine.getCdromPath() != null ? virtualMachine.getCdromPath() : "");
             bootOrderField.setText(virtualMachine.getBootOrder());
             vncPortSpinner.setValue(virtualMachine.getVncPort());
+            autoVncPortCheckBox.setSelected(virtualMachine.isAutoVncPort());
+            vncUnixSocketCheckBox.setSelected(virtualMachine.isVncUnixSocket());
+            updateVncControls();
+            groupField.setText(virtualMachine.getGroup() != null ? virtualMachine.getGroup() : "");
+            tagsField.setText(String.join(", ", virtualMachine.getTags()));
         }
     }
     
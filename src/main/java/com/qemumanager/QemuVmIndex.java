@@ -0,0 +1,282 @@
+package com.qemumanager;
+
+import java.util.*;
+
+/**
+ * In-memory lookup indexes over the managed virtual machines.
+ * Every VM mutation must be followed by {@link #update(QemuVm)} so the indexes
+ * stay consistent; QemuVmTableModel does this for all changes it publishes.
+ */
+public class QemuVmIndex {
+    private final Map<QemuVm, IndexedKeys> indexedKeys = new IdentityHashMap<>();
+    private final NavigableMap<String, Set<QemuVm>> byName = new TreeMap<>();
+    private final Map<String, Set<QemuVm>> byTag = new HashMap<>();
+    private final Map<String, Set<QemuVm>> byGroup = new HashMap<>();
+    private final Map<String, Set<QemuVm>> byDiskPath = new HashMap<>();
+    private final Map<Integer, Set<QemuVm>> byVncPort = new HashMap<>();
+    private final Map<QemuVm.VmStatus, Set<QemuVm>> byStatus = new EnumMap<>(QemuVm.VmStatus.class);
+    private final List<DiskListener> diskListeners = new ArrayList<>();
+
+    /**
+     * Told when a disk path gets its first VM and when it loses its last one; called with the
+     * index locked, so it must not call back into the index
+     */
+    public interface DiskListener {
+        void diskAdded(String path);
+
+        void diskRemoved(String path);
+    }
+
+    /**
+     * Snapshot of the keys a VM was indexed under, so stale entries can be removed
+     */
+    private static class IndexedKeys {
+        String name;
+        List<String> tags;
+        String group;
+        String diskPath;
+        int vncPort;
+        QemuVm.VmStatus status;
+    }
+
+    public synchronized void add(QemuVm vm) {
+        update(vm);
+    }
+
+    /**
+     * Registers the listener and reports the disk paths indexed so far to it
+     */
+    public synchronized void addDiskListener(DiskListener listener) {
+        diskListeners.add(listener);
+        for (String path : byDiskPath.keySet()) {
+            listener.diskAdded(path);
+        }
+    }
+
+    /**
+     * Re-indexes a VM after any of its indexed properties changed
+     */
+    public synchronized void update(QemuVm vm) {
+        IndexedKeys old = indexedKeys.remove(vm);
+        if (old != null) {
+            unindex(vm, old);
+        }
+
+        IndexedKeys keys = new IndexedKeys();
+        keys.name = vm.getName().toLowerCase();
+        keys.tags = new ArrayList<>();
+        for (String tag : vm.getTags()) {
+            keys.tags.add(tag.toLowerCase());
+        }
+        keys.group = vm.getGroup() != null && !vm.getGroup().isEmpty() ? vm.getGroup().toLowerCase() : null;
+        keys.diskPath = vm.getDiskPath() != null && !vm.getDiskPath().trim().isEmpty() ? vm.getDiskPath().trim() : null;
+        keys.vncPort = vm.getVncPort();
+        keys.status = vm.getStatus();
+
+        put(byName, keys.name, vm);
+        for (String tag : keys.tags) {
+            put(byTag, tag, vm);
+        }
+        if (keys.group != null) {
+            put(byGroup, keys.group, vm);
+        }
+        if (keys.diskPath != null) {
+            put(byDiskPath, keys.diskPath, vm);
+        }
+        put(byVncPort, keys.vncPort, vm);
+        put(byStatus, keys.status, vm);
+        indexedKeys.put(vm, keys);
+        notifyDiskChange(old != null ? old.diskPath : null, keys.diskPath);
+    }
+
+    public synchronized void remove(QemuVm vm) {
+        IndexedKeys old = indexedKeys.remove(vm);
+        if (old != null) {
+            unindex(vm, old);
+            notifyDiskChange(old.diskPath, null);
+        }
+    }
+
+    public synchronized void clear() {
+        for (String path : byDiskPath.keySet()) {
+            for (DiskListener listener : diskListeners) {
+                listener.diskRemoved(path);
+            }
+        }
+        indexedKeys.clear();
+        byName.clear();
+        byTag.clear();
+        byGroup.clear();
+        byDiskPath.clear();
+        byVncPort.clear();
+        byStatus.clear();
+    }
+
+    public synchronized Set<QemuVm> findByName(String name) {
+        return copy(byName.get(name.toLowerCase()));
+    }
+
+    /**
+     * Returns VMs whose name starts with the given prefix (case-insensitive)
+     */
+    public synchronized Set<QemuVm> findByNamePrefix(String prefix) {
+        String lower = prefix.toLowerCase();
+        Set<QemuVm> result = new LinkedHashSet<>();
+        for (Set<QemuVm> vms : byName.subMap(lower, true, lower + Character.MAX_VALUE, false).values()) {
+            result.addAll(vms);
+        }
+        return result;
+    }
+
+    public synchronized Set<QemuVm> findByTag(String tag) {
+        return copy(byTag.get(tag.toLowerCase()));
+    }
+
+    public synchronized Set<QemuVm> findByGroup(String group) {
+        return copy(byGroup.get(group.toLowerCase()));
+    }
+
+    public synchronized Set<QemuVm> findByDiskPath(String diskPath) {
+        return copy(byDiskPath.get(diskPath.trim()));
+    }
+
+    public synchronized Set<QemuVm> findByVncPort(int vncPort) {
+        return copy(byVncPort.get(vncPort));
+    }
+
+    public synchronized Set<QemuVm> findByStatus(QemuVm.VmStatus status) {
+        return copy(byStatus.get(status));
+    }
+
+    public synchronized int countByStatus(QemuVm.VmStatus status) {
+        Set<QemuVm> vms = byStatus.get(status);
+        return vms != null ? vms.size() : 0;
+    }
+
+    /**
+     * Returns every disk path referenced by at least one VM
+     */
+    public synchronized Set<String> getDiskPaths() {
+        return new LinkedHashSet<>(byDiskPath.keySet());
+    }
+
+    public synchronized Set<String> getGroups() {
+        return new TreeSet<>(byGroup.keySet());
+    }
+
+    public synchronized Set<String> getTags() {
+        return new TreeSet<>(byTag.keySet());
+    }
+
+    /**
+     * Evaluates a search query against the indexes.
+     * Terms are ANDed together; supported forms are tag:, group:, status:, port:,
+     * disk: and plain words, which match a name prefix, a tag or a group.
+     */
+    public synchronized Set<QemuVm> search(String query) {
+        Set<QemuVm> result = null;
+        for (String term : query.trim().split("\\s+")) {
+            if (term.isEmpty()) {
+                continue;
+            }
+            Set<QemuVm> matches = searchTerm(term);
+            if (result == null) {
+                result = matches;
+            } else {
+                result.retainAll(matches);
+            }
+            if (result.isEmpty()) {
+                break;
+            }
+        }
+        return result != null ? result : new LinkedHashSet<>(indexedKeys.keySet());
+    }
+
+    private Set<QemuVm> searchTerm(String term) {
+        int colon = term.indexOf(':');
+        if (colon > 0) {
+            String field = term.substring(0, colon).toLowerCase();
+            String value = term.substring(colon + 1);
+            switch (field) {
+                case "tag":
+                    return findByTag(value);
+                case "group":
+                    return findByGroup(value);
+                case "disk":
+                    return findByDiskPath(value);
+                case "name":
+                    return findByNamePrefix(value);
+                case "port":
+                    try {
+                        return findByVncPort(Integer.parseInt(value));
+                    } catch (NumberFormatException e) {
+                        return new LinkedHashSet<>();
+                    }
+                case "status":
+                    for (QemuVm.VmStatus status : QemuVm.VmStatus.values()) {
+                        if (status.name().equalsIgnoreCase(value)) {
+                            return findByStatus(status);
+                        }
+                    }
+                    return new LinkedHashSet<>();
+                default:
+                    break;
+            }
+        }
+        Set<QemuVm> matches = findByNamePrefix(term);
+        matches.addAll(findByTag(term));
+        matches.addAll(findByGroup(term));
+        return matches;
+    }
+
+    private void unindex(QemuVm vm, IndexedKeys keys) {
+        remove(byName, keys.name, vm);
+        for (String tag : keys.tags) {
+            remove(byTag, tag, vm);
+        }
+        if (keys.group != null) {
+            remove(byGroup, keys.group, vm);
+        }
+        if (keys.diskPath != null) {
+            remove(byDiskPath, keys.diskPath, vm);
+        }
+        remove(byVncPort, keys.vncPort, vm);
+        remove(byStatus, keys.status, vm);
+    }
+
+    /**
+     * Reports a VM's disk path change once it is fully re-indexed; a VM that keeps its
+     * path causes no calls
+     */
+    private void notifyDiskChange(String oldPath, String newPath) {
+        if (Objects.equals(oldPath, newPath)) {
+            return;
+        }
+        for (DiskListener listener : diskListeners) {
+            if (oldPath != null && !byDiskPath.containsKey(oldPath)) {
+                listener.diskRemoved(oldPath);
+            }
+            if (newPath != null && byDiskPath.get(newPath).size() == 1) {
+                listener.diskAdded(newPath);
+            }
+        }
+    }
+
+    private static <K> void put(Map<K, Set<QemuVm>> index, K key, QemuVm vm) {
+        index.computeIfAbsent(key, k -> new LinkedHashSet<>()).add(vm);
+    }
+
+    private static <K> void remove(Map<K, Set<QemuVm>> index, K key, QemuVm vm) {
+        Set<QemuVm> vms = index.get(key);
+        if (vms != null) {
+            vms.remove(vm);
+            if (vms.isEmpty()) {
+                index.remove(key);
+            }
+        }
+    }
+
+    private static Set<QemuVm> copy(Set<QemuVm> vms) {
+        return vms != null ? new LinkedHashSet<>(vms) : new LinkedHashSet<>();
+    }
+}
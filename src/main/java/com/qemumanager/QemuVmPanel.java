@@ -1,26 +1,91 @@
 package com.qemumanager;
 
 import javax.swing.*;
-import javax.swing.table.DefaultTableModel;
-import javax.swing.table.TableCellRenderer;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import javax.swing.table.DefaultTableCellRenderer;
+import javax.swing.table.TableRowSorter;
 import java.awt.*;
+import java.awt.event.ActionEvent;
+import java.awt.event.HierarchyEvent;
+import java.awt.event.InputEvent;
+import java.awt.event.KeyEvent;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
+import java.awt.image.BufferedImage;
+import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * Panel for managing QEMU virtual machines
  */
 public class QemuVmPanel extends JPanel {
-    private List<QemuVm> virtualMachines;
     private JTable vmTable;
-    private DefaultTableModel tableModel;
+    private QemuVmTableModel tableModel;
+    private TableRowSorter<QemuVmTableModel> rowSorter;
+    private JTextField searchField;
+    private Timer searchRefreshTimer;
     private QemuConsolePanel consolePanel;
+    private String detectedVncViewer;
+    
+    private static final int ACTION_START = 0;
+    private static final int ACTION_STOP = 1;
+    private static final int ACTION_CONNECT = 2;
+    
+    private static final long GUEST_READY_TIMEOUT_MS = 300000;
+    private static final long GUEST_SHUTDOWN_TIMEOUT_SECONDS = 60;
+    private static final int GUEST_PING_TIMEOUT_MS = 2000;
+    private static final long MONITOR_STARTUP_TIMEOUT_MS = 10000;
+    private static final long EXIT_CLEANUP_TIMEOUT_SECONDS = 30;
+    
+    // QEMU processes that handed their VM to a migration target; their exit is not the VM's
+    private final Set<ProcessHandle> replacedProcesses = ConcurrentHashMap.newKeySet();
+    // Completed once the exit handler of the process has cleaned up after it; Stop waits for it
+    private final Map<ProcessHandle, CompletableFuture<Void>> exitCleanups = new ConcurrentHashMap<>();
+    // VMs with an outgoing migration in progress (EDT only)
+    private final Set<QemuVm> migratingVms = new HashSet<>();
+    
+    /**
+     * A spawned QEMU; process is null when started through the launch helper
+     */
+    private static class SpawnedProcess {
+        final Process process;
+        final ProcessHandle handle;
+        final File logFile;
+        final long logOffset;
+        
+        SpawnedProcess(Process process, ProcessHandle handle, File logFile, long logOffset) {
+            this.process = process;
+            this.handle = handle;
+            this.logFile = logFile;
+            this.logOffset = logOffset;
+        }
+    }
+    
+    /**
+     * Second QEMU process on this host waiting to receive a VM, with the ports leased for it
+     */
+    private static class MigrationTarget {
+        final QemuMigrationTarget lease;
+        SpawnedProcess spawned;
+        
+        MigrationTarget(QemuVm vm) {
+            this.lease = new QemuMigrationTarget(vm);
+        }
+    }
     
     public QemuVmPanel() {
-        virtualMachines = new ArrayList<>();
         initializeUI();
         loadVmState(); // Load saved VMs on startup
     }
@@ -28,49 +93,134 @@ public class QemuVmPanel extends JPanel {
     private void initializeUI() {
         setLayout(new BorderLayout());
         
-        // Create table model
-        String[] columnNames = {"Name", "Status", "Memory (MB)", "CPU Cores", "Architecture", "Network", "Actions"};
-        tableModel = new DefaultTableModel(columnNames, 0) {
-            @Override
-            public boolean isCellEditable(int row, int column) {
-                return column == 6; // Only actions column is editable
-            }
-        };
+        // Create table model backed by the VM list
+        tableModel = new QemuVmTableModel();
         
         vmTable = new JTable(tableModel);
-        vmTable.setRowHeight(60); // Increased row height for larger buttons
         vmTable.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
         
-        // Set up actions column with buttons
-        vmTable.getColumn("Actions").setCellRenderer(new ButtonRenderer());
-        vmTable.getColumn("Actions").setCellEditor(new ButtonEditor(new JCheckBox()));
+        // Sorting and filtering operate on view rows; always convert before touching the model
+        rowSorter = new TableRowSorter<>(tableModel);
+        rowSorter.setSortable(QemuVmTableModel.COLUMN_ACTIONS, false);
+        rowSorter.setSortable(QemuVmTableModel.COLUMN_PREVIEW, false);
+        vmTable.setRowSorter(rowSorter);
+        
+        // Set up actions column with painted icons (also sets the row height)
+        QemuActionsCellRenderer actionsRenderer = new QemuActionsCellRenderer(
+            new QemuActionsCellRenderer.Glyph[] {
+                QemuActionsCellRenderer.Glyph.START,
+                QemuActionsCellRenderer.Glyph.STOP,
+                QemuActionsCellRenderer.Glyph.CONNECT
+            },
+            new Color[] {
+                new Color(34, 139, 34),   // Forest Green
+                new Color(220, 20, 60),   // Crimson
+                new Color(30, 144, 255)   // Dodger Blue
+            },
+            new String[] {
+                "Start this virtual machine",
+                "Stop this virtual machine",
+                "Connect to VM via VNC viewer"
+            },
+            new QemuActionsCellRenderer.ActionHandler() {
+                @Override
+                public boolean isEnabled(int modelRow, int action) {
+                    return isActionEnabled(tableModel.getVmAt(modelRow), action);
+                }
+                
+                @Override
+                public void perform(int modelRow, int action) {
+                    performAction(tableModel.getVmAt(modelRow), action);
+                }
+            });
+        actionsRenderer.install(vmTable, QemuVmTableModel.COLUMN_ACTIONS);
+        
+        // Screen thumbnails captured in the background
+        vmTable.getColumnModel().getColumn(QemuVmTableModel.COLUMN_PREVIEW).setCellRenderer(new ThumbnailRenderer());
+        vmTable.setRowHeight(Math.max(vmTable.getRowHeight(), QemuScreenCaptureScheduler.THUMBNAIL_HEIGHT + 4));
         
         // Configure column widths
-        vmTable.getColumnModel().getColumn(0).setPreferredWidth(120); // Name
-        vmTable.getColumnModel().getColumn(1).setPreferredWidth(80);  // Status
-        vmTable.getColumnModel().getColumn(2).setPreferredWidth(90);  // Memory
-        vmTable.getColumnModel().getColumn(3).setPreferredWidth(80);  // CPU
-        vmTable.getColumnModel().getColumn(4).setPreferredWidth(90);  // Architecture
-        vmTable.getColumnModel().getColumn(5).setPreferredWidth(100); // Network (wider for descriptive text)
-        vmTable.getColumnModel().getColumn(6).setPreferredWidth(320); // Actions (wider for larger Connect button)
-        vmTable.getColumnModel().getColumn(6).setMinWidth(260);       // Minimum width for actions
-        
-        // Add double-click listener to edit VM
+        vmTable.getColumnModel().getColumn(QemuVmTableModel.COLUMN_PREVIEW).setPreferredWidth(QemuScreenCaptureScheduler.THUMBNAIL_WIDTH + 8);
+        vmTable.getColumnModel().getColumn(QemuVmTableModel.COLUMN_NAME).setPreferredWidth(120);
+        vmTable.getColumnModel().getColumn(QemuVmTableModel.COLUMN_GROUP).setPreferredWidth(90);
+        vmTable.getColumnModel().getColumn(QemuVmTableModel.COLUMN_STATUS).setPreferredWidth(80);
+        vmTable.getColumnModel().getColumn(QemuVmTableModel.COLUMN_HEALTH).setPreferredWidth(110);
+        vmTable.getColumnModel().getColumn(QemuVmTableModel.COLUMN_MEMORY).setPreferredWidth(90);
+        vmTable.getColumnModel().getColumn(QemuVmTableModel.COLUMN_CPU).setPreferredWidth(80);
+        vmTable.getColumnModel().getColumn(QemuVmTableModel.COLUMN_ARCHITECTURE).setPreferredWidth(90);
+        vmTable.getColumnModel().getColumn(QemuVmTableModel.COLUMN_NETWORK).setPreferredWidth(100); // Wider for descriptive text
+        vmTable.getColumnModel().getColumn(QemuVmTableModel.COLUMN_TAGS).setPreferredWidth(120);
+        vmTable.getColumnModel().getColumn(QemuVmTableModel.COLUMN_ACTIONS).setPreferredWidth(actionsRenderer.getPreferredWidth());
+        
+        // Add double-click listener to edit VM and right-click context menu
         vmTable.addMouseListener(new MouseAdapter() {
             @Override
             public void mouseClicked(MouseEvent e) {
-                if (e.getClickCount() == 2) {
-                    int row = vmTable.getSelectedRow();
-                    if (row >= 0) {
-                        editVirtualMachine(row);
+                if (e.getClickCount() == 2 && SwingUtilities.isLeftMouseButton(e)) {
+                    QemuVm vm = getSelectedVm();
+                    if (vm != null) {
+                        editVirtualMachine(vm);
                     }
                 }
             }
+            
+            @Override
+            public void mousePressed(MouseEvent e) {
+                showContextMenu(e);
+            }
+            
+            @Override
+            public void mouseReleased(MouseEvent e) {
+                showContextMenu(e);
+            }
         });
         
+        installKeyboardShortcuts();
+        
         JScrollPane scrollPane = new JScrollPane(vmTable);
         add(scrollPane, BorderLayout.CENTER);
         
+        // Only the rows on screen are captured; keep the scheduler's view current
+        QemuVmSupervisor.getInstance().setListener(new QemuVmSupervisor.Listener() {
+            @Override
+            public void supervisionChanged(QemuVm vm, String message) {
+                tableModel.fireVmCellUpdated(vm, QemuVmTableModel.COLUMN_HEALTH);
+                if (message != null) {
+                    QemuEventJournal.getInstance().record(QemuEventJournal.Type.VM_SUPERVISION, vm,
+                        QemuEventJournal.ACTOR_SUPERVISOR, message);
+                    if (consolePanel != null) {
+                        consolePanel.appendMessage(message);
+                    }
+                }
+            }
+            
+            @Override
+            public void restartRequested(QemuVm vm) {
+                if (vm.getStatus() != QemuVm.VmStatus.STOPPED) {
+                    return;
+                }
+                launchVirtualMachine(vm, QemuEventJournal.ACTOR_SUPERVISOR).whenComplete((result, error) -> {
+                    if (error != null) {
+                        QemuVmSupervisor.getInstance().restartFailed(vm, error.getMessage());
+                    }
+                });
+            }
+        });
+        QemuScreenCaptureScheduler.getInstance().setListener(
+            vm -> tableModel.fireVmCellUpdated(vm, QemuVmTableModel.COLUMN_PREVIEW));
+        scrollPane.getViewport().addChangeListener(e -> updateVisibleThumbnails());
+        rowSorter.addRowSorterListener(e -> updateVisibleThumbnails());
+        tableModel.addTableModelListener(e -> {
+            if (e.getColumn() != QemuVmTableModel.COLUMN_PREVIEW) {
+                SwingUtilities.invokeLater(this::updateVisibleThumbnails); // After the sorter has caught up
+            }
+        });
+        addHierarchyListener(e -> {
+            if ((e.getChangeFlags() & HierarchyEvent.SHOWING_CHANGED) != 0) {
+                updateVisibleThumbnails();
+            }
+        });
+        
         // Toolbar
         JPanel toolbar = new JPanel(new FlowLayout(FlowLayout.LEFT));
         
@@ -89,17 +239,292 @@ public class QemuVmPanel extends JPanel {
         toolbar.add(deleteVmButton);
         toolbar.add(new JSeparator(SwingConstants.VERTICAL));
         toolbar.add(refreshButton);
+        toolbar.add(new JSeparator(SwingConstants.VERTICAL));
+        
+        searchField = new JTextField(20);
+        searchField.setToolTipText("<html>Search by name prefix, tag or group.<br>" +
+            "Qualifiers: tag:, group:, status:, port:, disk:, name: (terms are combined)</html>");
+        searchField.getDocument().addDocumentListener(new DocumentListener() {
+            @Override
+            public void insertUpdate(DocumentEvent e) {
+                applyFilter();
+            }
+            
+            @Override
+            public void removeUpdate(DocumentEvent e) {
+                applyFilter();
+            }
+            
+            @Override
+            public void changedUpdate(DocumentEvent e) {
+                applyFilter();
+            }
+        });
+        toolbar.add(new JLabel("Search:"));
+        toolbar.add(searchField);
+        
+        // Re-run an active search when VMs change, coalescing bursts of row updates
+        searchRefreshTimer = new Timer(250, e -> applyFilter());
+        searchRefreshTimer.setRepeats(false);
+        tableModel.addTableModelListener(e -> {
+            if (e.getColumn() != QemuVmTableModel.COLUMN_PREVIEW && !searchField.getText().trim().isEmpty()) {
+                searchRefreshTimer.restart();
+            }
+        });
         
         add(toolbar, BorderLayout.NORTH);
     }
     
+    private boolean isActionEnabled(QemuVm vm, int action) {
+        switch (action) {
+            case ACTION_START:
+                return vm.getStatus() == QemuVm.VmStatus.STOPPED && !QemuDiskMover.getInstance().isRunning(vm);
+            case ACTION_STOP:
+                // While restarting, Stop cancels the pending restart
+                return isLive(vm) || "Restarting".equals(vm.getHealth());
+            case ACTION_CONNECT:
+                return isLive(vm);
+            default:
+                return false;
+        }
+    }
+    
+    /**
+     * Running or booting, so a VM stuck before readiness can be inspected and stopped
+     */
+    private static boolean isLive(QemuVm vm) {
+        return vm.getStatus() == QemuVm.VmStatus.RUNNING || vm.getStatus() == QemuVm.VmStatus.STARTING;
+    }
+    
+    private void performAction(QemuVm vm, int action) {
+        switch (action) {
+            case ACTION_START:
+                startVirtualMachine(vm);
+                break;
+            case ACTION_STOP:
+                stopVirtualMachine(vm);
+                break;
+            case ACTION_CONNECT:
+                connectToVm(vm);
+                break;
+            default:
+                break;
+        }
+    }
+    
+    private void performActionOnSelection(int action) {
+        QemuVm vm = getSelectedVm();
+        if (vm != null && isActionEnabled(vm, action)) {
+            performAction(vm, action);
+        }
+    }
+    
+    private void showContextMenu(MouseEvent e) {
+        if (!e.isPopupTrigger()) {
+            return;
+        }
+        int viewRow = vmTable.rowAtPoint(e.getPoint());
+        if (viewRow < 0) {
+            return;
+        }
+        vmTable.setRowSelectionInterval(viewRow, viewRow);
+        QemuVm vm = getVmAtViewRow(viewRow);
+        
+        JPopupMenu menu = new JPopupMenu();
+        JMenuItem startItem = new JMenuItem("Start");
+        JMenuItem stopItem = new JMenuItem("Stop");
+        JMenuItem connectItem = new JMenuItem("Connect");
+        JMenuItem guestNetworkItem = new JMenuItem("Guest Network Info...");
+        JMenuItem serialLogItem = new JMenuItem("Serial Log...");
+        JMenuItem resourceUsageItem = new JMenuItem("Resource Usage...");
+        JMenuItem migrateItem = new JMenuItem("Migrate...");
+        JMenuItem receiveItem = new JMenuItem("Receive Migration...");
+        JMenuItem backupNowItem = new JMenuItem("Back Up Now");
+        JMenuItem backupsItem = new JMenuItem("Backups...");
+        JMenuItem moveDiskItem = new JMenuItem("Move Disk...");
+        JMenuItem editItem = new JMenuItem("Edit");
+        JMenuItem deleteItem = new JMenuItem("Delete");
+        
+        startItem.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_S, InputEvent.CTRL_DOWN_MASK | InputEvent.SHIFT_DOWN_MASK));
+        stopItem.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_X, InputEvent.CTRL_DOWN_MASK | InputEvent.SHIFT_DOWN_MASK));
+        connectItem.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_C, InputEvent.CTRL_DOWN_MASK | InputEvent.SHIFT_DOWN_MASK));
+        editItem.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_ENTER, 0));
+        deleteItem.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_DELETE, 0));
+        
+        startItem.setEnabled(isActionEnabled(vm, ACTION_START));
+        stopItem.setEnabled(isActionEnabled(vm, ACTION_STOP));
+        connectItem.setEnabled(isActionEnabled(vm, ACTION_CONNECT));
+        guestNetworkItem.setEnabled(vm.getStatus() == QemuVm.VmStatus.RUNNING && vm.getGuestAgentPort() > 0);
+        resourceUsageItem.setEnabled(vm.getStatus().isActive());
+        boolean diskBusy = QemuBackupManager.getInstance().isRunning(vm) || QemuDiskMover.getInstance().isRunning(vm);
+        migrateItem.setEnabled((vm.getStatus() == QemuVm.VmStatus.RUNNING || vm.getStatus() == QemuVm.VmStatus.PAUSED)
+            && !migratingVms.contains(vm) && !diskBusy);
+        receiveItem.setEnabled(vm.getStatus() == QemuVm.VmStatus.STOPPED);
+        boolean hasDisk = vm.getDiskPath() != null && !vm.getDiskPath().isEmpty();
+        boolean diskIdle = hasDisk && !migratingVms.contains(vm) && !diskBusy
+            && (vm.getStatus() == QemuVm.VmStatus.STOPPED || vm.getStatus() == QemuVm.VmStatus.RUNNING
+                || vm.getStatus() == QemuVm.VmStatus.PAUSED);
+        backupNowItem.setEnabled(diskIdle);
+        backupsItem.setEnabled(hasDisk);
+        moveDiskItem.setEnabled(diskIdle);
+        
+        startItem.addActionListener(ev -> performAction(vm, ACTION_START));
+        stopItem.addActionListener(ev -> performAction(vm, ACTION_STOP));
+        connectItem.addActionListener(ev -> performAction(vm, ACTION_CONNECT));
+        guestNetworkItem.addActionListener(ev -> showGuestNetworkInfo(vm));
+        serialLogItem.addActionListener(ev -> QemuSerialLogViewer.showForVm(this, vm));
+        resourceUsageItem.addActionListener(ev -> showResourceUsage(vm));
+        migrateItem.addActionListener(ev -> migrateVirtualMachine(vm));
+        receiveItem.addActionListener(ev -> receiveMigration(vm));
+        backupNowItem.addActionListener(ev -> showBackups(vm, true));
+        backupsItem.addActionListener(ev -> showBackups(vm, false));
+        moveDiskItem.addActionListener(ev -> moveVmDisk(vm));
+        editItem.addActionListener(ev -> editVirtualMachine(vm));
+        deleteItem.addActionListener(ev -> deleteSelectedVm());
+        
+        menu.add(startItem);
+        menu.add(stopItem);
+        menu.add(connectItem);
+        menu.add(guestNetworkItem);
+        menu.add(serialLogItem);
+        menu.add(resourceUsageItem);
+        menu.addSeparator();
+        menu.add(migrateItem);
+        menu.add(receiveItem);
+        menu.addSeparator();
+        menu.add(backupNowItem);
+        menu.add(backupsItem);
+        menu.add(moveDiskItem);
+        menu.addSeparator();
+        menu.add(editItem);
+        menu.add(deleteItem);
+        menu.show(vmTable, e.getX(), e.getY());
+    }
+    
+    private void installKeyboardShortcuts() {
+        InputMap inputMap = vmTable.getInputMap(JComponent.WHEN_ANCESTOR_OF_FOCUSED_COMPONENT);
+        ActionMap actionMap = vmTable.getActionMap();
+        
+        inputMap.put(KeyStroke.getKeyStroke(KeyEvent.VK_S, InputEvent.CTRL_DOWN_MASK | InputEvent.SHIFT_DOWN_MASK), "startVm");
+        inputMap.put(KeyStroke.getKeyStroke(KeyEvent.VK_X, InputEvent.CTRL_DOWN_MASK | InputEvent.SHIFT_DOWN_MASK), "stopVm");
+        inputMap.put(KeyStroke.getKeyStroke(KeyEvent.VK_C, InputEvent.CTRL_DOWN_MASK | InputEvent.SHIFT_DOWN_MASK), "connectVm");
+        inputMap.put(KeyStroke.getKeyStroke(KeyEvent.VK_DELETE, 0), "deleteVm");
+        inputMap.put(KeyStroke.getKeyStroke(KeyEvent.VK_F5, 0), "refreshVms");
+        vmTable.getInputMap(JComponent.WHEN_FOCUSED).put(KeyStroke.getKeyStroke(KeyEvent.VK_ENTER, 0), "editVm");
+        
+        actionMap.put("startVm", new AbstractAction() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                performActionOnSelection(ACTION_START);
+            }
+        });
+        actionMap.put("stopVm", new AbstractAction() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                performActionOnSelection(ACTION_STOP);
+            }
+        });
+        actionMap.put("connectVm", new AbstractAction() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                performActionOnSelection(ACTION_CONNECT);
+            }
+        });
+        actionMap.put("editVm", new AbstractAction() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                editSelectedVm();
+            }
+        });
+        actionMap.put("deleteVm", new AbstractAction() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                deleteSelectedVm();
+            }
+        });
+        actionMap.put("refreshVms", new AbstractAction() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                refreshVmList();
+            }
+        });
+    }
+    
+    /**
+     * Tells the capture scheduler which running VMs are currently on screen
+     */
+    private void updateVisibleThumbnails() {
+        List<QemuVm> visible = new ArrayList<>();
+        if (isShowing() && vmTable.getRowCount() > 0) {
+            Rectangle view = vmTable.getVisibleRect();
+            int first = vmTable.rowAtPoint(view.getLocation());
+            int last = vmTable.rowAtPoint(new Point(view.x, view.y + view.height - 1));
+            if (first >= 0) {
+                if (last < 0) {
+                    last = vmTable.getRowCount() - 1;
+                }
+                for (int row = first; row <= last; row++) {
+                    QemuVm vm = getVmAtViewRow(row);
+                    if (vm != null && vm.getStatus().isActive()) {
+                        visible.add(vm);
+                    }
+                }
+            }
+        }
+        QemuScreenCaptureScheduler.getInstance().setVisibleVms(visible);
+    }
+    
+    private void applyFilter() {
+        String query = searchField.getText().trim();
+        if (query.isEmpty()) {
+            rowSorter.setRowFilter(null);
+            return;
+        }
+        // Resolve the query against the indexes once, then filter rows by set membership
+        Set<QemuVm> matches = tableModel.getVmIndex().search(query);
+        rowSorter.setRowFilter(new RowFilter<QemuVmTableModel, Integer>() {
+            @Override
+            public boolean include(Entry<? extends QemuVmTableModel, ? extends Integer> entry) {
+                return matches.contains(entry.getModel().getVmAt(entry.getIdentifier()));
+            }
+        });
+    }
+    
+    /**
+     * Returns the VM in the selected view row, or null if nothing is selected
+     */
+    private QemuVm getSelectedVm() {
+        return getVmAtViewRow(vmTable.getSelectedRow());
+    }
+    
+    private QemuVm getVmAtViewRow(int viewRow) {
+        if (viewRow < 0 || viewRow >= vmTable.getRowCount()) {
+            return null;
+        }
+        return tableModel.getVmAt(vmTable.convertRowIndexToModel(viewRow));
+    }
+    
+    /**
+     * Updates the status of a VM and repaints only its row
+     */
+    private void setVmStatus(QemuVm vm, QemuVm.VmStatus status) {
+        vm.setStatus(status);
+        tableModel.fireVmUpdated(vm);
+    }
+    
     public void setConsolePanel(QemuConsolePanel consolePanel) {
         this.consolePanel = consolePanel;
     }
     
     public void addVirtualMachine(QemuVm vm) {
-        virtualMachines.add(vm);
-        refreshTable();
+        try {
+            assignMacAddresses(vm);
+        } catch (IOException e) {
+            if (consolePanel != null) {
+                consolePanel.appendMessage("VM " + vm.getName() + ": " + e.getMessage());
+            }
+        }
+        tableModel.addVirtualMachine(vm);
         saveVmState(); // Save state when VM is added
     }
     
@@ -109,9 +534,7 @@ public class QemuVmPanel extends JPanel {
     public void loadVmState() {
         try {
             List<QemuVm> savedVms = QemuVmStateManager.getInstance().loadVmState();
-            virtualMachines.clear();
-            virtualMachines.addAll(savedVms);
-            refreshTable();
+            tableModel.setVirtualMachines(savedVms);
             
             if (consolePanel != null) {
                 consolePanel.appendMessage("Loaded " + savedVms.size() + " virtual machines from saved state");
@@ -124,12 +547,126 @@ public class QemuVmPanel extends JPanel {
         }
     }
     
+    /**
+     * Takes over QEMU processes that were running when the previous session saved
+     * its state, so restarting the manager neither stops nor orphans them
+     */
+    public void adoptRunningVirtualMachines() {
+        QemuVmStateManager stateManager = QemuVmStateManager.getInstance();
+        int adopted = 0;
+        for (QemuVm vm : tableModel.getVirtualMachines()) {
+            QemuProcessReconciler.Record process = stateManager.getSavedProcess(vm);
+            if (process == null || vm.getStatus() != QemuVm.VmStatus.STOPPED) {
+                continue;
+            }
+            String mismatch = stateManager.verifySavedProcess(vm, process);
+            ProcessHandle handle = mismatch == null ? ProcessHandle.of(process.getPid()).orElse(null) : null;
+            if (handle == null) {
+                if (consolePanel != null) {
+                    consolePanel.appendMessage("Not adopting VM " + vm.getName() + ": "
+                        + (mismatch != null ? mismatch : "process " + process.getPid() + " is gone"));
+                }
+                continue;
+            }
+            
+            // Same ports as before; QEMU still listens on them
+            vm.beginRun();
+            QemuPortAllocator allocator = QemuPortAllocator.getInstance();
+            if (!vm.isVncUnixSocket() && process.getVncPort() > 0) {
+                allocator.reserve(vm, "vnc", process.getVncPort());
+                vm.setVncPort(process.getVncPort());
+            }
+            if (process.getQmpPort() > 0) {
+                allocator.reserve(vm, "qmp", process.getQmpPort());
+            }
+            if (process.getGuestAgentPort() > 0) {
+                allocator.reserve(vm, "qga", process.getGuestAgentPort());
+            }
+            if (process.getSerialPort() > 0) {
+                allocator.reserve(vm, "serial", process.getSerialPort());
+            }
+            vm.setQmpPort(process.getQmpPort());
+            vm.setGuestAgentPort(process.getGuestAgentPort());
+            vm.setSerialPort(process.getSerialPort());
+            
+            // Its stdout pipe died with the old session; only a launch helper log can be followed
+            File logFile = process.getLogFile().isEmpty() ? null : new File(process.getLogFile());
+            setVmStatus(vm, QemuVm.VmStatus.STARTING);
+            QemuEventJournal.getInstance().record(QemuEventJournal.Type.VM_ADOPTED, vm, QemuEventJournal.ACTOR_SYSTEM,
+                "PID " + handle.pid());
+            if (consolePanel != null) {
+                consolePanel.appendMessage("Adopted running VM: " + vm.getName() + " (PID " + handle.pid() + ")");
+            }
+            attachProcess(vm, null, handle, logFile, logFile != null ? logFile.length() : 0, true);
+            adopted++;
+        }
+        if (adopted > 0) {
+            saveVmState();
+        }
+    }
+    
+    /**
+     * Boots the VMs marked for autostart in dependency order, in the background
+     */
+    public void autostartVirtualMachines() {
+        List<QemuVm> vms = new ArrayList<>(tableModel.getVirtualMachines());
+        if (vms.stream().noneMatch(QemuVm::isAutostart)) {
+            return;
+        }
+        QemuBootScheduler.Launcher launcher = new QemuBootScheduler.Launcher() {
+            @Override
+            public void start(QemuVm vm) throws IOException {
+                AtomicReference<CompletableFuture<Void>> launch = new AtomicReference<>();
+                try {
+                    SwingUtilities.invokeAndWait(() -> launch.set(launchVirtualMachine(vm, QemuEventJournal.ACTOR_AUTOSTART)));
+                    launch.get().get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted", e);
+                } catch (java.lang.reflect.InvocationTargetException e) {
+                    throw new IOException(e.getCause());
+                } catch (ExecutionException e) {
+                    throw e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+                }
+            }
+            
+            @Override
+            public boolean awaitReady(QemuVm vm) throws InterruptedException {
+                // waitForGuestReady moves the VM on from STARTING, also on timeout or exit
+                while (vm.getStatus() == QemuVm.VmStatus.STARTING) {
+                    Thread.sleep(250);
+                }
+                return vm.getStatus() == QemuVm.VmStatus.RUNNING;
+            }
+        };
+        
+        Thread thread = new Thread(() -> {
+            try {
+                // Sizing the memory budget to the host reads /proc, so not on the EDT either
+                QemuBootScheduler.Result result = QemuBootScheduler.fromSettings(launcher).bootAutostartVms(vms);
+                SwingUtilities.invokeLater(() -> {
+                    if (consolePanel == null) {
+                        return;
+                    }
+                    for (Map.Entry<String, String> skipped : result.getSkipped().entrySet()) {
+                        consolePanel.appendMessage("Autostart skipped " + skipped.getKey() + ": " + skipped.getValue());
+                    }
+                    consolePanel.appendMessage(String.format("Autostart booted %d VMs in %.1f seconds",
+                        result.getStarted().size(), result.getElapsedMs() / 1000.0));
+                });
+            } catch (InterruptedException e) {
+                // Application is shutting down
+            }
+        }, "Autostart");
+        thread.setDaemon(true);
+        thread.start();
+    }
+    
     /**
      * Clears all VMs from memory (does not delete state file)
      */
     public void clearVMs() {
-        virtualMachines.clear();
-        refreshTable();
+        tableModel.setVirtualMachines(new ArrayList<>());
     }
     
     /**
@@ -137,7 +674,7 @@ public class QemuVmPanel extends JPanel {
      */
     public void saveVmState() {
         try {
-            QemuVmStateManager.getInstance().saveVmState(virtualMachines);
+            QemuVmStateManager.getInstance().saveVmState(tableModel.getVirtualMachines());
         } catch (Exception e) {
             if (consolePanel != null) {
                 consolePanel.appendMessage("Failed to save VM state: " + e.getMessage());
@@ -146,24 +683,15 @@ public class QemuVmPanel extends JPanel {
         }
     }
     
+    /**
+     * Returns the live lookup indexes over the managed VMs
+     */
+    public QemuVmIndex getVmIndex() {
+        return tableModel.getVmIndex();
+    }
+    
     public List<QemuVm> getVirtualMachines() {
-        return new ArrayList<>(virtualMachines); // Return a copy for safety
-    }
-    
-    private void refreshTable() {
-        tableModel.setRowCount(0);
-        for (QemuVm vm : virtualMachines) {
-            Object[] rowData = {
-                vm.getName(),
-                vm.getStatus(),
-                vm.getMemoryMB(),
-                vm.getCpuCores(),
-                vm.getArchitecture(),
-                vm.getNetworkDescription(), // Use descriptive network info
-                "Actions"
-            };
-            tableModel.addRow(rowData);
-        }
+        return new ArrayList<>(tableModel.getVirtualMachines()); // Return a copy for safety
     }
     
     private void createNewVm() {
@@ -178,47 +706,60 @@ public class QemuVmPanel extends JPanel {
     }
     
     private void editSelectedVm() {
-        int selectedRow = vmTable.getSelectedRow();
-        if (selectedRow >= 0) {
-            editVirtualMachine(selectedRow);
+        QemuVm vm = getSelectedVm();
+        if (vm != null) {
+            editVirtualMachine(vm);
         } else {
             JOptionPane.showMessageDialog(this, "Please select a virtual machine to edit.", 
                 "No Selection", JOptionPane.WARNING_MESSAGE);
         }
     }
     
-    private void editVirtualMachine(int index) {
-        if (index >= 0 && index < virtualMachines.size()) {
-            QemuVm vm = virtualMachines.get(index);
-            QemuVmDialog dialog = new QemuVmDialog((JFrame) SwingUtilities.getWindowAncestor(this), 
-                "Edit Virtual Machine", true);
-            dialog.setVirtualMachine(vm);
-            dialog.setVisible(true);
-            
-            if (dialog.isConfirmed()) {
-                QemuVm updatedVm = dialog.getVirtualMachine();
-                virtualMachines.set(index, updatedVm);
-                refreshTable();
-                saveVmState(); // Save state when VM is edited
+    private void editVirtualMachine(QemuVm vm) {
+        QemuVmDialog dialog = new QemuVmDialog((JFrame) SwingUtilities.getWindowAncestor(this), 
+            "Edit Virtual Machine", true);
+        dialog.setVirtualMachine(vm);
+        dialog.setVisible(true);
+        
+        if (dialog.isConfirmed()) {
+            // The dialog edits the VM in place
+            try {
+                assignMacAddresses(vm);
+            } catch (IOException e) {
+                JOptionPane.showMessageDialog(this, e.getMessage(), "Network", JOptionPane.WARNING_MESSAGE);
+            }
+            tableModel.fireVmUpdated(vm);
+            QemuCgroupManager cgroups = QemuCgroupManager.getInstance();
+            if (vm.getStatus().isActive() && cgroups.isAvailable() && cgroups.getVmDirectory(vm).isDirectory()) {
+                try {
+                    cgroups.applyLimits(vm);
+                } catch (IOException e) {
+                    if (consolePanel != null) {
+                        consolePanel.appendMessage("Failed to update limits of VM " + vm.getName() + ": " + e.getMessage());
+                    }
+                }
             }
+            if (vm.getStatus().isActive()) {
+                updateDiskThrottle(vm);
+            }
+            saveVmState(); // Save state when VM is edited
         }
     }
     
     private void deleteSelectedVm() {
-        int selectedRow = vmTable.getSelectedRow();
-        if (selectedRow >= 0) {
-            QemuVm vm = virtualMachines.get(selectedRow);
+        QemuVm vm = getSelectedVm();
+        if (vm != null) {
             int result = JOptionPane.showConfirmDialog(this, 
                 "Are you sure you want to delete the virtual machine '" + vm.getName() + "'?",
                 "Confirm Deletion", JOptionPane.YES_NO_OPTION);
             
             if (result == JOptionPane.YES_OPTION) {
                 // Stop VM if running
-                if (vm.getStatus() == QemuVm.VmStatus.RUNNING) {
+                if (vm.getStatus().isActive()) {
                     stopVirtualMachine(vm);
                 }
-                virtualMachines.remove(selectedRow);
-                refreshTable();
+                QemuVmSupervisor.getInstance().unwatch(vm); // Drops a pending restart of a stopped VM
+                tableModel.removeVirtualMachine(vm);
                 saveVmState(); // Save state when VM is deleted
             }
         } else {
@@ -228,21 +769,27 @@ public class QemuVmPanel extends JPanel {
     }
     
     private void refreshVmList() {
-        // Update status of all VMs
-        for (QemuVm vm : virtualMachines) {
+        // Update status of all VMs, repainting only rows that changed
+        for (QemuVm vm : tableModel.getVirtualMachines()) {
             updateVmStatus(vm);
         }
-        refreshTable();
     }
     
     private void updateVmStatus(QemuVm vm) {
-        Process process = vm.getQemuProcess();
-        if (process != null) {
-            if (process.isAlive()) {
-                vm.setStatus(QemuVm.VmStatus.RUNNING);
+        ProcessHandle handle = vm.getProcessHandle();
+        if (handle != null) {
+            QemuVm.VmStatus previous = vm.getStatus();
+            if (handle.isAlive()) {
+                if (vm.getStatus() == QemuVm.VmStatus.STOPPED) {
+                    vm.setStatus(QemuVm.VmStatus.RUNNING);
+                }
             } else {
                 vm.setStatus(QemuVm.VmStatus.STOPPED);
                 vm.setQemuProcess(null);
+                vm.setProcessHandle(null);
+            }
+            if (vm.getStatus() != previous) {
+                tableModel.fireVmUpdated(vm);
             }
         }
     }
@@ -254,76 +801,1154 @@ public class QemuVmPanel extends JPanel {
             return;
         }
         
+        launchVirtualMachine(vm, QemuEventJournal.ACTOR_USER).whenComplete((result, error) -> {
+            if (error != null) {
+                JOptionPane.showMessageDialog(this, 
+                    "Failed to start virtual machine: " + error.getMessage(),
+                    "Start Error", JOptionPane.ERROR_MESSAGE);
+                
+                if (consolePanel != null) {
+                    consolePanel.appendMessage("Failed to start VM " + vm.getName() + ": " + error.getMessage());
+                }
+            }
+        });
+    }
+    
+    /**
+     * Leases ports, spawns QEMU and hands the VM to the supervisor.
+     * Shared by user starts, autostart and supervised restarts; the actor is journaled.
+     * The future completes on the event thread once QEMU runs, or with the IOException
+     * that stopped the start.
+     */
+    private CompletableFuture<Void> launchVirtualMachine(QemuVm vm, String actor) {
+        return launchVirtualMachine(vm, actor, false, null);
+    }
+    
+    /**
+     * Launches the VM; if incoming, it waits for a live migration instead of booting the guest
+     * and is only supervised once the migration has completed (see receiveMigration).
+     * Leases happen right here; the capacity check, which reads /proc and the free space of the
+     * storage pools, waiting for virtiofsd and spawning QEMU, which can take seconds, happen on
+     * a launch thread.
+     */
+    private CompletableFuture<Void> launchVirtualMachine(QemuVm vm, String actor, boolean incoming, String machineType) {
+        QemuEventJournal journal = QemuEventJournal.getInstance();
+        QemuVirtiofsManager virtiofs = QemuVirtiofsManager.getInstance();
+        CompletableFuture<Void> launched = new CompletableFuture<>();
+        CompletableFuture<Void> sharing = null;
+        String[] command;
+        QemuCapacityPlanner planner = null;
+        List<QemuVm> others = null;
         try {
-            vm.setStatus(QemuVm.VmStatus.STARTING);
-            refreshTable();
+            vm.beginRun();
+            setVmStatus(vm, QemuVm.VmStatus.STARTING);
+            journal.record(QemuEventJournal.Type.VM_STARTING, vm, actor, null);
             
-            String[] command = vm.generateQemuCommand();
-            ProcessBuilder pb = new ProcessBuilder(command);
-            pb.redirectErrorStream(true);
+            // The copy of a stopped VM's disk would miss everything the guest writes
+            if (QemuDiskMover.getInstance().isRunning(vm)) {
+                throw new IOException("Its disk is being moved");
+            }
             
-            Process process = pb.start();
-            vm.setQemuProcess(process);
-            vm.setStatus(QemuVm.VmStatus.RUNNING);
+            // QEMU connects to virtiofsd as it starts; bring the daemons up while the rest is prepared
+            checkSharedFolders(vm);
+            sharing = virtiofs.start(vm);
             
-            if (consolePanel != null) {
-                consolePanel.appendMessage("Started VM: " + vm.getName());
-                consolePanel.monitorProcess(process, vm.getName());
+            // Checked on the launch thread against the VMs as they are now, this one already STARTING
+            if (QemuSettings.getInstance().isCapacityEnforced()) {
+                planner = QemuCapacityPlanner.fromSettings();
+                others = new ArrayList<>(tableModel.getVirtualMachines());
             }
             
-            refreshTable();
+            // Lease a free display port up front so collisions fail here, not inside QEMU
+            if (!vm.isVncUnixSocket()) {
+                int vncPort = QemuPortAllocator.getInstance().allocateDisplayPort(vm);
+                vm.setVncPort(vncPort);
+            }
+            vm.setQmpPort(QemuPortAllocator.getInstance().allocateControlPort(vm, "qmp"));
+            vm.setGuestAgentPort(vm.isGuestAgent() ? QemuPortAllocator.getInstance().allocateControlPort(vm, "qga") : 0);
+            vm.setSerialPort(QemuSettings.getInstance().isSerialLogEnabled()
+                ? QemuPortAllocator.getInstance().allocateControlPort(vm, "serial") : 0);
             
+            if (vm.getEffectiveDiskThrottle() == null) {
+                throw new IOException("Throttle group " + vm.getThrottleGroup() + " is not defined");
+            }
+            checkNetwork(vm);
+            command = incoming
+                ? vm.generateIncomingCommand(vm.getVncPort(), vm.getQmpPort(), vm.getGuestAgentPort(),
+                    vm.getSerialPort(), machineType)
+                : vm.generateQemuCommand();
+            command = QemuNic.wrapWithDeviceFiles(command, vm.getNicDeviceFiles());
+            File cgroupProcs = prepareCgroup(vm, false);
+            if (cgroupProcs != null) {
+                command = QemuCgroupManager.wrapCommand(command, cgroupProcs);
+            }
         } catch (IOException e) {
-            vm.setStatus(QemuVm.VmStatus.STOPPED);
-            refreshTable();
-            
-            JOptionPane.showMessageDialog(this, 
-                "Failed to start virtual machine: " + e.getMessage(),
-                "Start Error", JOptionPane.ERROR_MESSAGE);
-            
-            if (consolePanel != null) {
-                consolePanel.appendMessage("Failed to start VM " + vm.getName() + ": " + e.getMessage());
+            if (sharing != null) {
+                // Daemons still coming up are stopped once they are
+                sharing.whenComplete((result, error) -> virtiofs.stop(vm));
             }
+            launchFailed(vm, actor, e);
+            launched.completeExceptionally(e);
+            return launched;
         }
-    }
-    
-    private void stopVirtualMachine(QemuVm vm) {
-        Process process = vm.getQemuProcess();
-        if (process != null && process.isAlive()) {
-            vm.setStatus(QemuVm.VmStatus.STOPPING);
-            refreshTable();
-            
-            process.destroy();
-            
-            // Wait for graceful shutdown, then force kill if needed
-            new Thread(() -> {
-                try {
-                    boolean exited = process.waitFor(10, java.util.concurrent.TimeUnit.SECONDS);
-                    if (!exited) {
-                        process.destroyForcibly();
+        
+        CompletableFuture<Void> startup = sharing;
+        String[] launchCommand = command;
+        QemuCapacityPlanner capacity = planner;
+        List<QemuVm> vms = others;
+        new Thread(() -> {
+            SpawnedProcess spawned = null;
+            IOException failure = null;
+            try {
+                // Refuse here rather than let the OOM killer pick a victim later
+                if (capacity != null) {
+                    String shortfall = capacity.check(vm, vms, QemuCapacityPlanner.readHost());
+                    if (shortfall != null) {
+                        throw new IOException("Not enough host capacity: " + shortfall);
                     }
-                } catch (InterruptedException e) {
-                    process.destroyForcibly();
                 }
-                
-                SwingUtilities.invokeLater(() -> {
-                    vm.setStatus(QemuVm.VmStatus.STOPPED);
-                    vm.setQemuProcess(null);
-                    refreshTable();
-                    
-                    if (consolePanel != null) {
-                        consolePanel.appendMessage("Stopped VM: " + vm.getName());
-                    }
-                });
-            }).start();
+                virtiofs.await(vm, startup);
+                spawned = spawnQemu(vm, launchCommand);
+            } catch (IOException e) {
+                virtiofs.stop(vm);
+                failure = e;
+            }
+            SpawnedProcess started = spawned;
+            IOException error = failure;
+            SwingUtilities.invokeLater(() -> {
+                if (error != null) {
+                    launchFailed(vm, actor, error);
+                    launched.completeExceptionally(error);
+                    return;
+                }
+                ProcessHandle handle = started.handle;
+                journal.record(QemuEventJournal.Type.VM_STARTED, vm, actor,
+                    "PID " + handle.pid() + (incoming ? ", waiting for a migration" : ""));
+                if (consolePanel != null) {
+                    consolePanel.appendMessage("Started VM: " + vm.getName() + " (PID " + handle.pid() + "), waiting for "
+                        + (incoming ? "the migration" : "the guest"));
+                }
+                attachProcess(vm, started.process, handle, started.logFile, started.logOffset, !incoming);
+                saveVmState(); // Records the process so a later session can adopt it
+                launched.complete(null);
+            });
+        }, "Launch " + vm.getName()).start();
+        return launched;
+    }
+    
+    /**
+     * Gives back what a launch that did not get QEMU running had taken
+     */
+    private void launchFailed(QemuVm vm, String actor, IOException e) {
+        QemuPortAllocator.getInstance().releaseAll(vm);
+        QemuCgroupManager.getInstance().remove(vm); // No-op when it was never created
+        setVmStatus(vm, QemuVm.VmStatus.STOPPED);
+        QemuEventJournal.getInstance().record(QemuEventJournal.Type.VM_START_FAILED, vm, actor, e.getMessage());
+    }
+    
+    /**
+     * Applies throttle group limits that differ from the previous ones to the running VMs in those groups
+     */
+    public void applyThrottleGroups(Map<String, QemuDiskThrottle> previous) {
+        for (QemuVm vm : tableModel.getVirtualMachines()) {
+            QemuDiskThrottle current = vm.getEffectiveDiskThrottle();
+            QemuDiskThrottle before = previous.get(vm.getThrottleGroup());
+            if (vm.getStatus().isActive() && !vm.getThrottleGroup().isEmpty() && current != null
+                    && (before == null || !before.format().equals(current.format()))) {
+                updateDiskThrottle(vm);
+            }
+        }
+    }
+    
+    /**
+     * Pushes the VM's disk limits to its running QEMU over the monitor
+     */
+    private void updateDiskThrottle(QemuVm vm) {
+        QemuDiskThrottle throttle = vm.getEffectiveDiskThrottle();
+        if (throttle == null) {
+            return;
+        }
+        new Thread(() -> {
+            String message;
+            try {
+                QemuMonitorManager.getInstance().setDiskThrottle(vm, throttle);
+                message = "Disk limits of VM " + vm.getName() + " set to " + throttle.describe();
+            } catch (QemuMonitorClient.QmpException e) {
+                if ("DeviceNotFound".equals(e.getErrorClass())) {
+                    // Started without throttling, or in another group
+                    message = "Disk limits of VM " + vm.getName() + " take effect at its next start";
+                } else {
+                    message = "QEMU rejected the disk limits of VM " + vm.getName() + ": " + e.getMessage();
+                }
+            } catch (IOException e) {
+                message = "Failed to update disk limits of VM " + vm.getName() + ": " + e.getMessage();
+            }
+            String text = message;
+            SwingUtilities.invokeLater(() -> {
+                if (consolePanel != null) {
+                    consolePanel.appendMessage(text);
+                }
+            });
+        }, "Throttle " + vm.getName()).start();
+    }
+    
+    /**
+     * Gives NICs without a MAC address a unique one; fails if an entered address is already taken
+     */
+    private void assignMacAddresses(QemuVm vm) throws IOException {
+        Map<String, String> owners = new HashMap<>();
+        for (QemuVm other : tableModel.getVirtualMachines()) {
+            if (other != vm) {
+                for (QemuNic nic : other.getNics()) {
+                    if (!nic.getMacAddress().isEmpty()) {
+                        owners.put(nic.getMacAddress(), other.getName());
+                    }
+                }
+            }
+        }
+        List<QemuNic> nics = new ArrayList<>();
+        boolean assigned = false;
+        for (QemuNic nic : vm.getNics()) {
+            QemuNic copy = new QemuNic(nic);
+            if (copy.getMacAddress().isEmpty()) {
+                copy.setMacAddress(QemuNic.generateMacAddress(owners.keySet()));
+                assigned = true;
+            } else if (owners.containsKey(copy.getMacAddress())) {
+                throw new IOException("MAC address " + copy.getMacAddress() + " is already used by VM "
+                    + owners.get(copy.getMacAddress()));
+            }
+            owners.put(copy.getMacAddress(), vm.getName());
+            nics.add(copy);
+        }
+        if (assigned) {
+            vm.setNics(nics);
+        }
+    }
+    
+    /**
+     * Checks the VM's NICs and their host side so a broken backend fails here with a clear reason
+     */
+    private void checkNetwork(QemuVm vm) throws IOException {
+        assignMacAddresses(vm);
+        List<QemuNic> nics = vm.getNics();
+        for (int i = 0; i < nics.size(); i++) {
+            String problem = nics.get(i).validate();
+            if (problem == null) {
+                problem = nics.get(i).checkHost();
+            }
+            if (problem != null) {
+                throw new IOException("Network interface " + (i + 1) + ": " + problem);
+            }
+        }
+    }
+    
+    /**
+     * Checks the VM's shared folders and their host directories; says so when virtiofs falls back to 9p
+     */
+    private void checkSharedFolders(QemuVm vm) throws IOException {
+        List<QemuSharedFolder> folders = vm.getSharedFolders();
+        for (int i = 0; i < folders.size(); i++) {
+            String problem = folders.get(i).validate();
+            if (problem == null) {
+                problem = folders.get(i).checkHost();
+            }
+            if (problem != null) {
+                throw new IOException("Shared folder " + (i + 1) + ": " + problem);
+            }
+        }
+        if (vm.usesVirtiofs(true) && !QemuVirtiofsManager.getInstance().isAvailable() && consolePanel != null) {
+            String path = QemuSettings.getInstance().getVirtiofsdPath();
+            consolePanel.appendMessage("Sharing the folders of " + vm.getName() + " over 9p: "
+                + (path.isEmpty() ? "no virtiofsd configured" : path + " is not executable"));
+        }
+    }
+    
+    /**
+     * Starts QEMU through the launch helper or as a child process
+     */
+    private static SpawnedProcess spawnQemu(QemuVm vm, String[] command) throws IOException {
+        if (QemuSettings.getInstance().isLaunchHelperEnabled() && QemuProcessSpawner.isSupported()) {
+            // No JVM fork; output goes to a log file the console follows
+            QemuSettings.getInstance().ensureDirectoriesExist();
+            File logFile = new File(vm.getLogFilePath());
+            long logOffset = logFile.length();
+            return new SpawnedProcess(null, QemuProcessSpawner.getInstance().spawn(command, logFile), logFile, logOffset);
+        }
+        ProcessBuilder pb = new ProcessBuilder(command);
+        pb.redirectErrorStream(true);
+        Process process = pb.start();
+        return new SpawnedProcess(process, process.toHandle(), null, 0);
+    }
+    
+    /**
+     * Creates the VM's cgroup (or, for a migration target, the one next to it) and returns its
+     * procs file, or null to run without one. Only a VM with limits fails when the group cannot be created.
+     */
+    private File prepareCgroup(QemuVm vm, boolean incoming) throws IOException {
+        QemuCgroupManager cgroups = QemuCgroupManager.getInstance();
+        if (!QemuSettings.getInstance().isCgroupEnabled() || !cgroups.isAvailable()) {
+            if (vm.hasResourceLimits()) {
+                throw new IOException("Resource limits are set but cgroup v2 isolation is "
+                    + (QemuSettings.getInstance().isCgroupEnabled() ? "not available" : "disabled"));
+            }
+            return null;
+        }
+        try {
+            return incoming ? cgroups.prepareIncoming(vm) : cgroups.prepare(vm);
+        } catch (IOException e) {
+            if (vm.hasResourceLimits()) {
+                throw e;
+            }
+            if (consolePanel != null) {
+                consolePanel.appendMessage("Starting " + vm.getName() + " without a cgroup: " + e.getMessage());
+            }
+            return null;
+        }
+    }
+    
+    /**
+     * Tracks a QEMU process for the VM: cleanup on exit, supervision, readiness
+     * and output capture. Used for freshly launched, adopted and migrated processes;
+     * a process waiting for an incoming migration is supervised only once it runs the guest.
+     */
+    private void attachProcess(QemuVm vm, Process process, ProcessHandle handle, File logFile, long logOffset,
+                               boolean supervise) {
+        // Exit codes of processes that are not our children come from the launch helper, if it started them
+        CompletableFuture<Integer> exit = process != null
+            ? process.onExit().thenApply(Process::exitValue)
+            : handle.onExit().thenApply(h -> QemuProcessSpawner.readExitStatus(h.pid(), logFile));
+        int run = vm.getRun();
+        CompletableFuture<Void> cleanedUp = new CompletableFuture<>();
+        exitCleanups.put(handle, cleanedUp);
+        exit.thenAccept(exitCode -> {
+            try {
+                if (replacedProcesses.remove(handle) || !endRun(vm, handle, run)) {
+                    return; // Handed to a migration target, or the exit is late and a later run owns everything
+                }
+                QemuMonitorManager.getInstance().disconnect(vm);
+                QemuGuestAgentManager.getInstance().disconnect(vm);
+                QemuScreenCaptureScheduler.getInstance().forget(vm);
+                QemuSerialLogManager.getInstance().detach(vm);
+                QemuVirtiofsManager.getInstance().stop(vm);
+                QemuCgroupManager.getInstance().remove(vm);
+                QemuVmSupervisor.getInstance().processExited(vm, handle, exitCode);
+            } finally {
+                exitCleanups.remove(handle);
+                cleanedUp.complete(null);
+            }
+            SwingUtilities.invokeLater(() -> {
+                // Process died on its own (crash, guest power-off) rather than through Stop
+                if (vm.getProcessHandle() == handle && vm.getStatus() != QemuVm.VmStatus.STOPPING) {
+                    boolean wasStarting = vm.getStatus() == QemuVm.VmStatus.STARTING;
+                    vm.setQemuProcess(null);
+                    vm.setProcessHandle(null);
+                    setVmStatus(vm, QemuVm.VmStatus.STOPPED);
+                    // A clean exit is a guest power-off; anything else, or dying during boot, is a crash
+                    if (exitCode == 0 && !wasStarting) {
+                        QemuEventJournal.getInstance().record(QemuEventJournal.Type.VM_STOPPED, vm,
+                            QemuEventJournal.ACTOR_GUEST, "Guest powered off");
+                    } else {
+                        QemuEventJournal.getInstance().record(QemuEventJournal.Type.VM_CRASHED, vm,
+                            QemuEventJournal.ACTOR_SYSTEM, exitCode >= 0 ? "Exit code " + exitCode : "Process exited");
+                    }
+                }
+            });
+        });
+        vm.setQemuProcess(process);
+        vm.setProcessHandle(handle);
+        QemuSerialLogManager.getInstance().attach(vm, handle);
+        if (supervise) {
+            QemuVmSupervisor.getInstance().watch(vm, handle);
+            // Stays STARTING until the guest reports ready
+            waitForGuestReady(vm, handle);
+        }
+        
+        if (consolePanel != null) {
+            if (process != null) {
+                consolePanel.monitorProcess(process, vm.getName());
+            } else if (logFile != null) {
+                consolePanel.monitorLogFile(logFile, logOffset, handle, vm.getName());
+            }
+        }
+    }
+    
+    /**
+     * Gives back the ports of a run whose process exited, unless a later run has begun meanwhile.
+     * Decided on the EDT, where runs begin, and returns whether the rest of the cleanup applies.
+     */
+    private static boolean endRun(QemuVm vm, ProcessHandle handle, int run) {
+        boolean[] current = new boolean[1];
+        try {
+            SwingUtilities.invokeAndWait(() -> {
+                current[0] = vm.getRun() == run && (vm.getProcessHandle() == handle || vm.getProcessHandle() == null);
+                if (current[0]) {
+                    QemuPortAllocator.getInstance().releaseAll(vm);
+                    vm.setQmpPort(0);
+                    vm.setGuestAgentPort(0);
+                    vm.setSerialPort(0);
+                }
+            });
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (java.lang.reflect.InvocationTargetException e) {
+            System.err.println("Cleanup after " + vm.getName() + " failed: " + e.getCause());
+        }
+        return current[0];
+    }
+    
+    /**
+     * Promotes the VM from STARTING to RUNNING once the guest answers its agent
+     * (or, without an agent, once the emulator reports the CPUs running)
+     */
+    private void waitForGuestReady(QemuVm vm, ProcessHandle handle) {
+        Thread probeThread = new Thread(() -> {
+            boolean ready;
+            try {
+                ready = QemuGuestAgentManager.getInstance().waitUntilReady(vm, GUEST_READY_TIMEOUT_MS);
+            } catch (InterruptedException e) {
+                return;
+            }
+            SwingUtilities.invokeLater(() -> {
+                if (vm.getProcessHandle() != handle || vm.getStatus() != QemuVm.VmStatus.STARTING || !handle.isAlive()) {
+                    return;
+                }
+                setVmStatus(vm, QemuVm.VmStatus.RUNNING);
+                QemuEventJournal.getInstance().record(QemuEventJournal.Type.VM_READY, vm, QemuEventJournal.ACTOR_GUEST,
+                    ready ? null : "No readiness report within " + GUEST_READY_TIMEOUT_MS / 1000 + " seconds");
+                if (consolePanel != null) {
+                    consolePanel.appendMessage(ready ? "VM " + vm.getName() + " is ready"
+                        : "VM " + vm.getName() + " did not report readiness within "
+                            + GUEST_READY_TIMEOUT_MS / 1000 + " seconds");
+                }
+            });
+        }, "Readiness " + vm.getName());
+        probeThread.setDaemon(true);
+        probeThread.start();
+    }
+    
+    private void stopVirtualMachine(QemuVm vm) {
+        QemuVmSupervisor.getInstance().unwatch(vm); // Also cancels a pending restart
+        ProcessHandle handle = vm.getProcessHandle();
+        if (handle != null && handle.isAlive()) {
+            // A guest running its agent can shut down cleanly instead of being terminated
+            boolean viaGuestAgent = vm.getStatus() == QemuVm.VmStatus.RUNNING && vm.getGuestAgentPort() > 0;
+            setVmStatus(vm, QemuVm.VmStatus.STOPPING);
+            QemuEventJournal.getInstance().record(QemuEventJournal.Type.VM_STOPPING, vm, QemuEventJournal.ACTOR_USER,
+                viaGuestAgent ? "Guest shutdown" : "Terminate");
+            
+            new Thread(() -> {
+                boolean exited = false;
+                if (viaGuestAgent) {
+                    try {
+                        // Ready may also mean the agent never answered, e.g. the guest has none installed
+                        if (QemuGuestAgentManager.getInstance().ping(vm, GUEST_PING_TIMEOUT_MS)) {
+                            QemuGuestAgentManager.getInstance().shutdown(vm);
+                            exited = waitForExit(handle, GUEST_SHUTDOWN_TIMEOUT_SECONDS);
+                        }
+                    } catch (IOException e) {
+                        if (consolePanel != null) {
+                            consolePanel.appendMessage("Guest shutdown of " + vm.getName() + " failed: " + e.getMessage());
+                        }
+                    }
+                }
+                
+                // Terminate QEMU, then force kill if needed
+                String how = "Guest shutdown";
+                if (!exited) {
+                    how = "Terminated";
+                    handle.destroy();
+                    if (!waitForExit(handle, 10)) {
+                        how = "Killed";
+                        handle.destroyForcibly();
+                    }
+                }
+                awaitExitCleanup(vm, handle);
+                
+                String stopDetail = how;
+                SwingUtilities.invokeLater(() -> {
+                    vm.setQemuProcess(null);
+                    vm.setProcessHandle(null);
+                    setVmStatus(vm, QemuVm.VmStatus.STOPPED);
+                    QemuEventJournal.getInstance().record(QemuEventJournal.Type.VM_STOPPED, vm,
+                        QemuEventJournal.ACTOR_USER, stopDetail);
+                    
+                    if (consolePanel != null) {
+                        consolePanel.appendMessage("Stopped VM: " + vm.getName());
+                    }
+                });
+            }).start();
+        }
+    }
+    
+    /**
+     * Waits until the exit handler of the process has cleaned up, so STOPPED is only
+     * reported once the ports and the cgroup are free for the next start
+     */
+    private void awaitExitCleanup(QemuVm vm, ProcessHandle handle) {
+        CompletableFuture<Void> cleanup = exitCleanups.get(handle);
+        if (cleanup == null) {
+            return; // Done already
+        }
+        try {
+            cleanup.get(EXIT_CLEANUP_TIMEOUT_SECONDS, java.util.concurrent.TimeUnit.SECONDS);
+        } catch (java.util.concurrent.TimeoutException | ExecutionException e) {
+            System.err.println("Cleanup after " + vm.getName() + " did not finish: " + e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+    
+    private static boolean waitForExit(ProcessHandle handle, long seconds) {
+        try {
+            handle.onExit().get(seconds, java.util.concurrent.TimeUnit.SECONDS);
+            return true;
+        } catch (java.util.concurrent.TimeoutException | java.util.concurrent.ExecutionException e) {
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+    
+    /**
+     * Asks where to migrate the running VM, showing the machine type a receiving manager needs
+     */
+    private void migrateVirtualMachine(QemuVm vm) {
+        new Thread(() -> {
+            String machineType = null;
+            try {
+                machineType = QemuMigration.queryMachineType(QemuMonitorManager.getInstance().getClient(vm));
+            } catch (IOException e) {
+                // Shown as unknown; a local target then uses the default machine
+            }
+            String sourceMachineType = machineType;
+            // Read here rather than on the EDT, in case a local target is chosen
+            QemuCapacityPlanner.HostProfile hostProfile = QemuSettings.getInstance().isCapacityEnforced()
+                ? QemuCapacityPlanner.readHost() : null;
+            SwingUtilities.invokeLater(() -> {
+                if (!vm.getStatus().isActive() || migratingVms.contains(vm)) {
+                    return;
+                }
+                // QEMU refuses to migrate a guest with vhost-user-fs or a mounted 9p share
+                if (!vm.getSharedFolders().isEmpty()) {
+                    JOptionPane.showMessageDialog(this, "Cannot migrate " + vm.getName()
+                        + ": its shared folders do not support live migration.",
+                        "Migration Error", JOptionPane.ERROR_MESSAGE);
+                    return;
+                }
+                QemuMigrationDialog dialog = new QemuMigrationDialog((JFrame) SwingUtilities.getWindowAncestor(this),
+                    vm, false, sourceMachineType);
+                dialog.setVisible(true);
+                if (!dialog.isConfirmed()) {
+                    return;
+                }
+                String problem = dialog.isLocal() ? checkLocalMigration(vm, hostProfile) : null;
+                if (problem != null) {
+                    JOptionPane.showMessageDialog(this, "Cannot migrate " + vm.getName() + " on this host: " + problem + ".",
+                        "Migration Error", JOptionPane.ERROR_MESSAGE);
+                    return;
+                }
+                String host = dialog.getHost();
+                String destination = dialog.isLocal() ? null
+                    : "tcp:" + (host.contains(":") && !host.startsWith("[") ? "[" + host + "]" : host) + ":" + dialog.getPort();
+                runMigration(vm, dialog.getOptions(), destination, sourceMachineType);
+            });
+        }, "Migrate " + vm.getName()).start();
+    }
+    
+    /**
+     * Returns why the VM cannot move to a second process on this host, or null. The host's
+     * memory is only checked if a host profile is given.
+     */
+    private String checkLocalMigration(QemuVm vm, QemuCapacityPlanner.HostProfile host) {
+        if (!vm.isVncUnixSocket() && !vm.isAutoVncPort()) {
+            return "its fixed VNC port cannot be held by two processes";
+        }
+        for (QemuNic nic : vm.getNics()) {
+            if (nic.getBackend() == QemuNic.Backend.TAP && nic.getQueues() <= 1) {
+                return "TAP interface " + nic.getHostInterface() + " can only be attached to one process "
+                    + "(use several queues or a bridge)";
+            }
+        }
+        // Both processes hold the guest's memory until the switch-over
+        if (host != null && host.isMemoryKnown()) {
+            long available = host.getMemoryAvailableMB() - QemuSettings.getInstance().getHostReserveMB();
+            if (vm.getMemoryMB() > available) {
+                return "a second copy of its " + vm.getMemoryMB() + " MB needs more than the "
+                    + Math.max(0, available) + " MB available";
+            }
+        }
+        return null;
+    }
+    
+    /**
+     * Migrates the VM in the background with a progress window. A null destination URI means a
+     * new process on this host, which then takes over the VM; otherwise the VM stops here once
+     * the manager at the destination runs it.
+     */
+    private void runMigration(QemuVm vm, QemuMigration.Options options, String destination, String machineType) {
+        boolean local = destination == null;
+        ProcessHandle sourceHandle = vm.getProcessHandle();
+        String target = local ? "a new process" : destination;
+        migratingVms.add(vm);
+        QemuEventJournal.getInstance().record(QemuEventJournal.Type.MIGRATION_STARTED, vm, QemuEventJournal.ACTOR_USER,
+            "To " + target + ", " + options.describe());
+        if (consolePanel != null) {
+            consolePanel.appendMessage("Migrating VM " + vm.getName() + " to " + target + " (" + options.describe() + ")");
+        }
+        
+        JProgressBar progressBar = new JProgressBar(0, 100);
+        progressBar.setStringPainted(true);
+        JLabel statusLabel = new JLabel(local ? "Starting the target process..." : "Connecting to " + destination + "...");
+        JButton cancelButton = new JButton("Cancel Migration");
+        cancelButton.setEnabled(false);
+        JDialog progressDialog = new JDialog((JFrame) SwingUtilities.getWindowAncestor(this),
+            "Migrating " + vm.getName(), false);
+        progressDialog.setDefaultCloseOperation(JDialog.DO_NOTHING_ON_CLOSE);
+        JPanel progressPanel = new JPanel(new BorderLayout(5, 5));
+        progressPanel.setBorder(BorderFactory.createEmptyBorder(10, 10, 10, 10));
+        progressPanel.add(statusLabel, BorderLayout.NORTH);
+        progressPanel.add(progressBar, BorderLayout.CENTER);
+        JPanel cancelPanel = new JPanel(new FlowLayout(FlowLayout.RIGHT, 0, 0));
+        cancelPanel.add(cancelButton);
+        progressPanel.add(cancelPanel, BorderLayout.SOUTH);
+        progressDialog.setContentPane(progressPanel);
+        progressDialog.setSize(520, 140);
+        progressDialog.setLocationRelativeTo(this);
+        
+        AtomicReference<QemuMigration> migration = new AtomicReference<>();
+        AtomicReference<MigrationTarget> localTarget = new AtomicReference<>();
+        cancelButton.addActionListener(e -> {
+            cancelButton.setEnabled(false);
+            new Thread(() -> {
+                try {
+                    migration.get().cancel();
+                } catch (IOException ex) {
+                    SwingUtilities.invokeLater(() -> statusLabel.setText("Cannot cancel: " + ex.getMessage()));
+                }
+            }, "Cancel migration " + vm.getName()).start();
+        });
+        
+        SwingWorker<QemuMigration.Progress, QemuMigration.Progress> worker =
+            new SwingWorker<QemuMigration.Progress, QemuMigration.Progress>() {
+                @Override
+                protected QemuMigration.Progress doInBackground() throws Exception {
+                    String uri = destination;
+                    if (local) {
+                        localTarget.set(startMigrationTarget(vm, options, machineType));
+                        uri = localTarget.get().lease.getUri();
+                    }
+                    migration.set(new QemuMigration(QemuMonitorManager.getInstance().getClient(vm), options));
+                    QemuMigration.Progress result = migration.get().run(uri, progress -> publish(progress));
+                    
+                    // The guest runs at the destination now; retire the paused source
+                    QemuVmSupervisor.getInstance().unwatch(vm);
+                    if (local) {
+                        replacedProcesses.add(sourceHandle);
+                        quitMigratedSource(vm, sourceHandle);
+                        try {
+                            localTarget.get().lease.adoptCgroup(localTarget.get().spawned.handle.pid());
+                        } catch (IOException e) {
+                            String message = "Migrated VM " + vm.getName() + " stays in its migration cgroup: "
+                                + e.getMessage();
+                            SwingUtilities.invokeLater(() -> {
+                                if (consolePanel != null) {
+                                    consolePanel.appendMessage(message);
+                                }
+                            });
+                        }
+                    }
+                    return result;
+                }
+                
+                @Override
+                protected void process(List<QemuMigration.Progress> chunks) {
+                    QemuMigration.Progress progress = chunks.get(chunks.size() - 1);
+                    progressBar.setValue(progress.getPercent());
+                    statusLabel.setText(progress.describe());
+                    cancelButton.setEnabled(!progress.isPostcopy() && !migration.get().isPostcopyStarted());
+                }
+                
+                @Override
+                protected void done() {
+                    progressDialog.dispose();
+                    migratingVms.remove(vm);
+                    try {
+                        QemuMigration.Progress result = get();
+                        String detail = "To " + target + " in " + result.getTotalTimeMs() + " ms, guest paused for "
+                            + result.getDowntimeMs() + " ms";
+                        QemuEventJournal.getInstance().record(QemuEventJournal.Type.MIGRATION_COMPLETED, vm,
+                            QemuEventJournal.ACTOR_USER, detail);
+                        if (consolePanel != null) {
+                            consolePanel.appendMessage("Migrated VM " + vm.getName() + ": " + result.describe());
+                        }
+                        if (local) {
+                            takeOverMigrationTarget(vm, localTarget.get());
+                        } else {
+                            stopMigratedVm(vm, sourceHandle, destination);
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    } catch (ExecutionException e) {
+                        String message = e.getCause() != null ? e.getCause().getMessage() : e.getMessage();
+                        discardMigrationTarget(vm, localTarget.get());
+                        QemuEventJournal.getInstance().record(QemuEventJournal.Type.MIGRATION_FAILED, vm,
+                            QemuEventJournal.ACTOR_USER, message);
+                        if (consolePanel != null) {
+                            consolePanel.appendMessage("Migration of VM " + vm.getName() + " failed: " + message);
+                        }
+                        JOptionPane.showMessageDialog(QemuVmPanel.this,
+                            "Migration of " + vm.getName() + " failed: " + message + "\nThe VM keeps running here.",
+                            "Migration Error", JOptionPane.ERROR_MESSAGE);
+                    }
+                }
+            };
+        worker.execute();
+        progressDialog.setVisible(true);
+    }
+    
+    /**
+     * Starts a second QEMU for the VM on its own ports, in its own cgroup, listening for the migration
+     */
+    private static MigrationTarget startMigrationTarget(QemuVm vm, QemuMigration.Options options, String machineType)
+            throws IOException {
+        MigrationTarget target = new MigrationTarget(vm);
+        try {
+            target.lease.allocatePorts();
+            target.spawned = spawnQemu(vm, target.lease.createCommand(machineType));
+            try (QemuMonitorClient monitor = connectToNewMonitor(vm.getName() + " (target)",
+                    target.lease.getQmpPort(), target.spawned.handle)) {
+                QemuMigration.prepareIncoming(monitor, options, target.lease.getUri());
+            }
+            return target;
+        } catch (IOException e) {
+            discardMigrationTarget(vm, target);
+            throw e;
+        }
+    }
+    
+    /**
+     * Stops a migration target that did not get the VM and gives back its ports and cgroup
+     */
+    private static void discardMigrationTarget(QemuVm vm, MigrationTarget target) {
+        if (target == null) {
+            return;
+        }
+        target.lease.releasePorts();
+        ProcessHandle handle = target.spawned != null ? target.spawned.handle : null;
+        new Thread(() -> {
+            if (handle != null) {
+                handle.destroy();
+                if (!waitForExit(handle, 10)) {
+                    handle.destroyForcibly();
+                    waitForExit(handle, 10);
+                }
+            }
+            target.lease.removeCgroup();
+        }, "Discard migration target " + vm.getName()).start();
+    }
+    
+    /**
+     * Makes the migration target the VM's process, on the ports it was started with
+     */
+    private void takeOverMigrationTarget(QemuVm vm, MigrationTarget target) {
+        QemuMonitorManager.getInstance().disconnect(vm);
+        QemuGuestAgentManager.getInstance().disconnect(vm);
+        QemuScreenCaptureScheduler.getInstance().forget(vm);
+        QemuSerialLogManager.getInstance().detach(vm);
+        
+        target.lease.takeOver();
+        
+        SpawnedProcess spawned = target.spawned;
+        attachProcess(vm, spawned.process, spawned.handle, spawned.logFile, spawned.logOffset, true);
+        tableModel.fireVmUpdated(vm);
+        saveVmState(); // A later session adopts the new process
+        if (consolePanel != null) {
+            consolePanel.appendMessage("VM " + vm.getName() + " now runs as PID " + spawned.handle.pid());
+        }
+    }
+    
+    /**
+     * Quits the paused source of a completed migration, killing it if it does not exit
+     */
+    private static void quitMigratedSource(QemuVm vm, ProcessHandle handle) {
+        try {
+            QemuMonitorManager.getInstance().getClient(vm).execute("quit");
+        } catch (IOException e) {
+            // QEMU may close the connection before replying
+        }
+        if (!waitForExit(handle, 10)) {
+            handle.destroyForcibly();
+        }
+    }
+    
+    /**
+     * Stops the VM here after it migrated to another host
+     */
+    private void stopMigratedVm(QemuVm vm, ProcessHandle handle, String destination) {
+        setVmStatus(vm, QemuVm.VmStatus.STOPPING);
+        new Thread(() -> {
+            quitMigratedSource(vm, handle);
+            awaitExitCleanup(vm, handle);
+            SwingUtilities.invokeLater(() -> {
+                vm.setQemuProcess(null);
+                vm.setProcessHandle(null);
+                setVmStatus(vm, QemuVm.VmStatus.STOPPED);
+                QemuEventJournal.getInstance().record(QemuEventJournal.Type.VM_STOPPED, vm,
+                    QemuEventJournal.ACTOR_SYSTEM, "Migrated to " + destination);
+                if (consolePanel != null) {
+                    consolePanel.appendMessage("Stopped VM: " + vm.getName() + ", it now runs at " + destination);
+                }
+            });
+        }, "Stop migrated " + vm.getName()).start();
+    }
+    
+    /**
+     * Starts the stopped VM waiting for a migration from a manager on another host.
+     * It is supervised and becomes ready once the guest has arrived.
+     */
+    private void receiveMigration(QemuVm vm) {
+        QemuMigrationDialog dialog = new QemuMigrationDialog((JFrame) SwingUtilities.getWindowAncestor(this),
+            vm, true, null);
+        dialog.setVisible(true);
+        if (!dialog.isConfirmed()) {
+            return;
+        }
+        QemuMigration.Options options = dialog.getOptions();
+        String uri = "tcp:" + QemuSettings.getInstance().getMigrationListenAddress() + ":" + dialog.getPort();
+        launchVirtualMachine(vm, QemuEventJournal.ACTOR_USER, true, dialog.getMachineType()).whenComplete((started, e) -> {
+            if (e != null) {
+                JOptionPane.showMessageDialog(this,
+                    "Failed to start virtual machine: " + e.getMessage(),
+                    "Start Error", JOptionPane.ERROR_MESSAGE);
+                if (consolePanel != null) {
+                    consolePanel.appendMessage("Failed to start VM " + vm.getName() + ": " + e.getMessage());
+                }
+                return;
+            }
+            awaitIncomingMigration(vm, options, uri);
+        });
+    }
+    
+    /**
+     * Hands the migration to the QEMU receiveMigration started and supervises the VM once it has arrived
+     */
+    private void awaitIncomingMigration(QemuVm vm, QemuMigration.Options options, String uri) {
+        ProcessHandle handle = vm.getProcessHandle();
+        int qmpPort = vm.getQmpPort();
+        QemuEventJournal.getInstance().record(QemuEventJournal.Type.MIGRATION_STARTED, vm, QemuEventJournal.ACTOR_USER,
+            "From " + uri + ", " + options.describe());
+        if (consolePanel != null) {
+            consolePanel.appendMessage("VM " + vm.getName() + " waits for a migration on " + uri);
+        }
+        
+        Thread receiveThread = new Thread(() -> {
+            String failure = null;
+            QemuMigration.Progress result = null;
+            try (QemuMonitorClient monitor = connectToNewMonitor(vm.getName() + " (incoming)", qmpPort, handle)) {
+                QemuMigration.prepareIncoming(monitor, options, uri);
+                result = QemuMigration.awaitIncoming(monitor, null);
+            } catch (IOException e) {
+                failure = e.getMessage();
+            }
+            String error = failure;
+            QemuMigration.Progress completed = result;
+            SwingUtilities.invokeLater(() -> {
+                if (vm.getProcessHandle() != handle || vm.getStatus() == QemuVm.VmStatus.STOPPING) {
+                    return; // Stopped while waiting
+                }
+                if (error != null) {
+                    QemuEventJournal.getInstance().record(QemuEventJournal.Type.MIGRATION_FAILED, vm,
+                        QemuEventJournal.ACTOR_USER, error);
+                    if (consolePanel != null) {
+                        consolePanel.appendMessage("Receiving VM " + vm.getName() + " failed: " + error);
+                    }
+                    stopVirtualMachine(vm);
+                    return;
+                }
+                QemuEventJournal.getInstance().record(QemuEventJournal.Type.MIGRATION_COMPLETED, vm,
+                    QemuEventJournal.ACTOR_USER, "From " + uri + " in " + completed.getTotalTimeMs() + " ms");
+                if (consolePanel != null) {
+                    consolePanel.appendMessage("Received VM " + vm.getName() + ", waiting for the guest");
+                }
+                QemuVmSupervisor.getInstance().watch(vm, handle);
+                waitForGuestReady(vm, handle);
+            });
+        }, "Receive " + vm.getName());
+        receiveThread.setDaemon(true);
+        receiveThread.start();
+    }
+    
+    /**
+     * Connects to the monitor of a QEMU just spawned, which needs a moment to open its socket
+     */
+    private static QemuMonitorClient connectToNewMonitor(String name, int port, ProcessHandle handle) throws IOException {
+        long deadline = System.currentTimeMillis() + MONITOR_STARTUP_TIMEOUT_MS;
+        while (true) {
+            try {
+                return QemuMonitorClient.connect(name, "127.0.0.1", port, 2000);
+            } catch (IOException e) {
+                if (!handle.isAlive()) {
+                    throw new IOException("QEMU exited during startup, see its output");
+                }
+                if (System.currentTimeMillis() > deadline) {
+                    throw e;
+                }
+            }
+            try {
+                Thread.sleep(200);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new java.io.InterruptedIOException("Interrupted while connecting to " + name);
+            }
+        }
+    }
+    
+    /**
+     * Queries the guest agent for interfaces and addresses off the EDT
+     */
+    private void showGuestNetworkInfo(QemuVm vm) {
+        new Thread(() -> {
+            try {
+                List<QemuGuestAgentClient.GuestInterface> interfaces =
+                    QemuGuestAgentManager.getInstance().getNetworkInterfaces(vm);
+                StringBuilder text = new StringBuilder();
+                for (QemuGuestAgentClient.GuestInterface networkInterface : interfaces) {
+                    text.append(networkInterface.getName());
+                    if (networkInterface.getHardwareAddress() != null) {
+                        text.append(" (").append(networkInterface.getHardwareAddress()).append(")");
+                    }
+                    text.append("\n");
+                    for (String address : networkInterface.getIpAddresses()) {
+                        text.append("    ").append(address).append("\n");
+                    }
+                }
+                SwingUtilities.invokeLater(() -> {
+                    JTextArea area = new JTextArea(text.length() > 0 ? text.toString() : "No interfaces reported");
+                    area.setEditable(false);
+                    area.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 12));
+                    JOptionPane.showMessageDialog(this, new JScrollPane(area),
+                        "Guest Network - " + vm.getName(), JOptionPane.INFORMATION_MESSAGE);
+                });
+            } catch (IOException e) {
+                SwingUtilities.invokeLater(() -> JOptionPane.showMessageDialog(this,
+                    "Could not query the guest agent: " + e.getMessage(),
+                    "Guest Agent Error", JOptionPane.ERROR_MESSAGE));
+            }
+        }).start();
+    }
+    
+    /**
+     * Shows the VM's cgroup counters, with CPU use and I/O rates sampled over one second
+     */
+    private void showResourceUsage(QemuVm vm) {
+        new Thread(() -> {
+            QemuCgroupManager cgroups = QemuCgroupManager.getInstance();
+            QemuCgroupManager.Stats before = cgroups.readStats(vm);
+            if (before == null) {
+                SwingUtilities.invokeLater(() -> JOptionPane.showMessageDialog(this,
+                    "VM " + vm.getName() + " does not run in its own cgroup.",
+                    "Resource Usage", JOptionPane.INFORMATION_MESSAGE));
+                return;
+            }
+            try {
+                Thread.sleep(1000);
+            } catch (InterruptedException e) {
+                return;
+            }
+            QemuCgroupManager.Stats after = cgroups.readStats(vm);
+            if (after == null) {
+                return; // Stopped meanwhile
+            }
+            String text = String.format(
+                "CPU:        %.0f%% now, %.1f s total, %.1f s throttled%n"
+                    + "Memory:     %d MB%s%n"
+                    + "Disk read:  %.1f MB/s, %d IOPS, %d MB total%n"
+                    + "Disk write: %.1f MB/s, %d IOPS, %d MB total",
+                (after.getCpuUsageUs() - before.getCpuUsageUs()) / 10000.0,
+                after.getCpuUsageUs() / 1e6, after.getCpuThrottledUs() / 1e6,
+                after.getMemoryCurrentBytes() / (1024 * 1024),
+                vm.getMemoryLimitMB() > 0 ? " of " + vm.getMemoryLimitMB() + " MB" : "",
+                (after.getIoReadBytes() - before.getIoReadBytes()) / (1024.0 * 1024.0),
+                after.getIoReads() - before.getIoReads(), after.getIoReadBytes() / (1024 * 1024),
+                (after.getIoWriteBytes() - before.getIoWriteBytes()) / (1024.0 * 1024.0),
+                after.getIoWrites() - before.getIoWrites(), after.getIoWriteBytes() / (1024 * 1024));
+            SwingUtilities.invokeLater(() -> {
+                JTextArea area = new JTextArea(text);
+                area.setEditable(false);
+                area.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 12));
+                JOptionPane.showMessageDialog(this, area,
+                    "Resource Usage - " + vm.getName(), JOptionPane.INFORMATION_MESSAGE);
+            });
+        }).start();
+    }
+    
+    /**
+     * Opens the VM's backup list, optionally starting a backup right away
+     */
+    private void showBackups(QemuVm vm, boolean backupNow) {
+        QemuBackupDialog dialog = new QemuBackupDialog((JFrame) SwingUtilities.getWindowAncestor(this), vm, consolePanel);
+        dialog.setVisible(true);
+        if (backupNow) {
+            dialog.startBackup();
+        }
+    }
+    
+    /**
+     * Asks for a new location of the VM's disk and moves it there with a progress window. A
+     * running VM keeps running and switches to the new image when the copy has caught up.
+     */
+    private void moveVmDisk(QemuVm vm) {
+        File source = new File(vm.getDiskPath());
+        JFileChooser fileChooser = new JFileChooser(source.getParentFile());
+        fileChooser.setDialogTitle("Move Disk of " + vm.getName());
+        fileChooser.setSelectedFile(new File(source.getName()));
+        if (fileChooser.showSaveDialog(this) != JFileChooser.APPROVE_OPTION) {
+            return;
+        }
+        File target = fileChooser.getSelectedFile();
+        
+        boolean live = vm.getStatus().isActive();
+        long speedMBps = 0;
+        if (live) {
+            QemuSettings settings = QemuSettings.getInstance();
+            JSpinner speedSpinner = new JSpinner(new SpinnerNumberModel(settings.getDiskMoveSpeedMBps(), 0, 100000, 10));
+            JPanel speedPanel = new JPanel(new FlowLayout(FlowLayout.LEFT, 0, 0));
+            speedPanel.add(new JLabel("Copy at most "));
+            speedPanel.add(speedSpinner);
+            speedPanel.add(new JLabel(" MB/s (0 = no cap)"));
+            JPanel promptPanel = new JPanel(new BorderLayout(5, 5));
+            promptPanel.add(new JLabel("<html>Mirror the running disk of " + vm.getName() + " to<br>" + target
+                + "<br>and switch the VM over to it when the copy has caught up?</html>"), BorderLayout.NORTH);
+            promptPanel.add(speedPanel, BorderLayout.CENTER);
+            if (JOptionPane.showConfirmDialog(this, promptPanel, "Move Disk", JOptionPane.OK_CANCEL_OPTION)
+                    != JOptionPane.OK_OPTION) {
+                return;
+            }
+            speedMBps = (Integer) speedSpinner.getValue();
+            settings.setDiskMoveSpeedMBps((int) speedMBps);
+        }
+        long speedCap = speedMBps;
+        
+        JProgressBar progressBar = new JProgressBar(0, 100);
+        progressBar.setStringPainted(true);
+        progressBar.setIndeterminate(!live);
+        JLabel statusLabel = new JLabel(live ? "Starting the mirror job..." : "Copying the disk of the stopped VM...");
+        JButton cancelButton = new JButton("Cancel Move");
+        // A stopped VM's copy runs to the end; it does not touch the original
+        cancelButton.setEnabled(live);
+        JDialog progressDialog = new JDialog((JFrame) SwingUtilities.getWindowAncestor(this),
+            "Moving Disk of " + vm.getName(), false);
+        progressDialog.setDefaultCloseOperation(JDialog.DO_NOTHING_ON_CLOSE);
+        JPanel progressPanel = new JPanel(new BorderLayout(5, 5));
+        progressPanel.setBorder(BorderFactory.createEmptyBorder(10, 10, 10, 10));
+        progressPanel.add(statusLabel, BorderLayout.NORTH);
+        progressPanel.add(progressBar, BorderLayout.CENTER);
+        JPanel cancelPanel = new JPanel(new FlowLayout(FlowLayout.RIGHT, 0, 0));
+        cancelPanel.add(cancelButton);
+        progressPanel.add(cancelPanel, BorderLayout.SOUTH);
+        progressDialog.setContentPane(progressPanel);
+        progressDialog.setSize(520, 140);
+        progressDialog.setLocationRelativeTo(this);
+        if (consolePanel != null) {
+            consolePanel.appendMessage("Moving disk of VM " + vm.getName() + " to " + target);
+        }
+        
+        SwingWorker<QemuDiskMover.Result, long[]> worker = new SwingWorker<QemuDiskMover.Result, long[]>() {
+            @Override
+            protected QemuDiskMover.Result doInBackground() throws Exception {
+                return QemuDiskMover.getInstance().move(vm, target, speedCap,
+                    (done, total, ready) -> publish(new long[]{done, total, ready ? 1 : 0}));
+            }
+            
+            @Override
+            protected void process(List<long[]> chunks) {
+                long[] progress = chunks.get(chunks.size() - 1);
+                if (progress[1] > 0) {
+                    progressBar.setValue((int) (progress[0] * 100 / progress[1]));
+                }
+                if (progress[2] != 0) {
+                    cancelButton.setEnabled(false);
+                    statusLabel.setText("Copy caught up, switching over...");
+                } else {
+                    statusLabel.setText("Copied " + progress[0] / (1024 * 1024) + " of " + progress[1] / (1024 * 1024) + " MB");
+                }
+            }
+            
+            @Override
+            protected void done() {
+                progressDialog.dispose();
+                try {
+                    QemuDiskMover.Result result = get();
+                    tableModel.fireVmUpdated(vm);
+                    saveVmState(); // The next start uses the new image
+                    QemuEventJournal.getInstance().record(QemuEventJournal.Type.DISK_MOVED, vm,
+                        QemuEventJournal.ACTOR_USER, result.describe());
+                    if (consolePanel != null) {
+                        consolePanel.appendMessage("Moved disk of VM " + vm.getName() + ": " + result.describe());
+                    }
+                    offerOldDiskDeletion(vm, new File(result.getSource()));
+                } catch (InterruptedException | CancellationException e) {
+                    if (consolePanel != null) {
+                        consolePanel.appendMessage("Disk move of VM " + vm.getName() + " cancelled");
+                    }
+                } catch (ExecutionException e) {
+                    String message = e.getCause() != null ? e.getCause().getMessage() : e.getMessage();
+                    if (consolePanel != null) {
+                        consolePanel.appendMessage("Disk move of VM " + vm.getName() + " failed: " + message);
+                    }
+                    JOptionPane.showMessageDialog(QemuVmPanel.this,
+                        "Moving the disk of " + vm.getName() + " failed: " + message + "\nThe VM keeps its old disk.",
+                        "Move Disk Error", JOptionPane.ERROR_MESSAGE);
+                }
+            }
+        };
+        cancelButton.addActionListener(e -> {
+            cancelButton.setEnabled(false);
+            worker.cancel(true);
+        });
+        worker.execute();
+        progressDialog.setVisible(true);
+    }
+    
+    /**
+     * Offers to delete the image a VM has just moved away from, unless another VM still uses it
+     */
+    private void offerOldDiskDeletion(QemuVm vm, File oldDisk) {
+        if (!getVmIndex().findByDiskPath(oldDisk.getAbsolutePath()).isEmpty() || !oldDisk.exists()) {
+            return;
+        }
+        int result = JOptionPane.showConfirmDialog(this,
+            "The disk of " + vm.getName() + " now is\n" + vm.getDiskPath() + "\n\nDelete the old image " + oldDisk + "?",
+            "Disk Moved", JOptionPane.YES_NO_OPTION);
+        if (result == JOptionPane.YES_OPTION) {
+            if (oldDisk.delete()) {
+                QemuEventJournal.getInstance().record(QemuEventJournal.Type.DISK_DELETED, oldDisk.getAbsolutePath(),
+                    QemuEventJournal.ACTOR_USER, -1, "Moved to " + vm.getDiskPath());
+            } else {
+                JOptionPane.showMessageDialog(this, "Failed to delete " + oldDisk + ".",
+                    "Delete Failed", JOptionPane.ERROR_MESSAGE);
+            }
         }
     }
     
     private void connectToVm(QemuVm vm) {
+        // The built-in viewer speaks TCP only; UNIX socket displays need an external client
+        if (QemuSettings.getInstance().isEmbeddedVncViewerEnabled() && !vm.isVncUnixSocket()) {
+            QemuVncViewerPanel.showInWindow(this, "VNC - " + vm.getName(), "localhost", vm.getVncPort());
+            if (consolePanel != null) {
+                consolePanel.appendMessage("Opening display of VM: " + vm.getName() + " on port " + vm.getVncPort());
+            }
+            return;
+        }
+        
         String vncViewer = QemuSettings.getInstance().getVncViewerPath();
         if (vncViewer.isEmpty()) {
             // Try to find a common VNC viewer automatically
-            vncViewer = findVncViewer();
+            if (detectedVncViewer == null) {
+                detectedVncViewer = findVncViewer();
+            }
+            vncViewer = detectedVncViewer;
             if (vncViewer == null) {
                 JOptionPane.showMessageDialog(this, 
                     "VNC viewer not configured and none found automatically.\n" +
@@ -335,13 +1960,12 @@ public class QemuVmPanel extends JPanel {
         }
         
         try {
-            String vncAddress = "localhost:" + vm.getVncPort();
+            String vncAddress = vm.isVncUnixSocket() ? vm.getVncSocketPath() : "localhost:" + vm.getVncPort();
             ProcessBuilder pb = new ProcessBuilder(vncViewer, vncAddress);
             pb.start();
             
             if (consolePanel != null) {
-                consolePanel.appendMessage("Connecting to VM: " + vm.getName() + 
-                    " via VNC on port " + vm.getVncPort());
+                consolePanel.appendMessage("Connecting to VM: " + vm.getName() + " via VNC at " + vncAddress);
             }
         } catch (IOException e) {
             JOptionPane.showMessageDialog(this, 
@@ -376,141 +2000,20 @@ public class QemuVmPanel extends JPanel {
         return null; // No VNC viewer found
     }
     
-    // Button renderer for actions column
-    class ButtonRenderer extends JPanel implements TableCellRenderer {
-        private JButton startButton, stopButton, connectButton;
-        
-        public ButtonRenderer() {
-            setLayout(new FlowLayout(FlowLayout.CENTER, 3, 3));
-            startButton = new JButton("Start");
-            stopButton = new JButton("Stop");
-            connectButton = new JButton("Connect");
-            
-            // Larger button sizes for better visibility
-            startButton.setPreferredSize(new Dimension(90, 50));
-            stopButton.setPreferredSize(new Dimension(90, 50));
-            connectButton.setPreferredSize(new Dimension(110, 50)); // Wider for "Connect" text
-            
-            // Make buttons more visually appealing with larger font
-            Font buttonFont = new Font(Font.DIALOG, Font.BOLD, 14);
-            startButton.setFont(buttonFont);
-            stopButton.setFont(buttonFont);
-            connectButton.setFont(buttonFont);
-            
-            startButton.setBackground(new Color(34, 139, 34));  // Forest Green
-            startButton.setForeground(Color.WHITE);
-            startButton.setToolTipText("Start this virtual machine");
-            
-            stopButton.setBackground(new Color(220, 20, 60));   // Crimson
-            stopButton.setForeground(Color.WHITE);
-            stopButton.setToolTipText("Stop this virtual machine");
-            
-            connectButton.setBackground(new Color(30, 144, 255)); // Dodger Blue
-            connectButton.setForeground(Color.WHITE);
-            connectButton.setToolTipText("Connect to VM via VNC viewer");
-            
-            add(startButton);
-            add(stopButton);
-            add(connectButton);
-        }
-        
+    /**
+     * Paints the cached screen thumbnail of the VM in the row
+     */
+    private class ThumbnailRenderer extends DefaultTableCellRenderer {
         @Override
-        public Component getTableCellRendererComponent(JTable table, Object value, 
-                boolean isSelected, boolean hasFocus, int row, int column) {
-            
-            if (row < virtualMachines.size()) {
-                QemuVm vm = virtualMachines.get(row);
-                startButton.setEnabled(vm.getStatus() == QemuVm.VmStatus.STOPPED);
-                stopButton.setEnabled(vm.getStatus() == QemuVm.VmStatus.RUNNING);
-                connectButton.setEnabled(vm.getStatus() == QemuVm.VmStatus.RUNNING);
-            }
-            
+        public Component getTableCellRendererComponent(JTable table, Object value, boolean isSelected,
+                                                       boolean hasFocus, int row, int column) {
+            super.getTableCellRendererComponent(table, null, isSelected, hasFocus, row, column);
+            QemuVm vm = getVmAtViewRow(row);
+            BufferedImage thumbnail = QemuScreenCaptureScheduler.getInstance().getThumbnail(vm);
+            setHorizontalAlignment(SwingConstants.CENTER);
+            setIcon(thumbnail != null ? new ImageIcon(thumbnail) : null);
+            setText(thumbnail == null && vm.getStatus().isActive() ? "..." : "");
             return this;
         }
     }
-    
-    // Button editor for actions column
-    class ButtonEditor extends DefaultCellEditor {
-        private JPanel panel;
-        private JButton startButton, stopButton, connectButton;
-        private int currentRow;
-        
-        public ButtonEditor(JCheckBox checkBox) {
-            super(checkBox);
-            panel = new JPanel(new FlowLayout(FlowLayout.CENTER, 3, 3));
-            
-            startButton = new JButton("Start");
-            stopButton = new JButton("Stop");
-            connectButton = new JButton("Connect");
-            
-            // Match the renderer button sizes and fonts
-            startButton.setPreferredSize(new Dimension(90, 50));
-            stopButton.setPreferredSize(new Dimension(90, 50));
-            connectButton.setPreferredSize(new Dimension(110, 50)); // Wider for "Connect" text
-            
-            // Apply larger font for better readability
-            Font buttonFont = new Font(Font.DIALOG, Font.BOLD, 14);
-            startButton.setFont(buttonFont);
-            stopButton.setFont(buttonFont);
-            connectButton.setFont(buttonFont);
-            
-            // Apply the same colors as renderer
-            startButton.setBackground(new Color(34, 139, 34));  // Forest Green
-            startButton.setForeground(Color.WHITE);
-            startButton.setToolTipText("Start this virtual machine");
-            
-            stopButton.setBackground(new Color(220, 20, 60));   // Crimson
-            stopButton.setForeground(Color.WHITE);
-            stopButton.setToolTipText("Stop this virtual machine");
-            
-            connectButton.setBackground(new Color(30, 144, 255)); // Dodger Blue
-            connectButton.setForeground(Color.WHITE);
-            connectButton.setToolTipText("Connect to VM via VNC viewer");
-            
-            startButton.addActionListener(e -> {
-                if (currentRow < virtualMachines.size()) {
-                    startVirtualMachine(virtualMachines.get(currentRow));
-                }
-                fireEditingStopped();
-            });
-            
-            stopButton.addActionListener(e -> {
-                if (currentRow < virtualMachines.size()) {
-                    stopVirtualMachine(virtualMachines.get(currentRow));
-                }
-                fireEditingStopped();
-            });
-            
-            connectButton.addActionListener(e -> {
-                if (currentRow < virtualMachines.size()) {
-                    connectToVm(virtualMachines.get(currentRow));
-                }
-                fireEditingStopped();
-            });
-            
-            panel.add(startButton);
-            panel.add(stopButton);
-            panel.add(connectButton);
-        }
-        
-        @Override
-        public Component getTableCellEditorComponent(JTable table, Object value, 
-                boolean isSelected, int row, int column) {
-            currentRow = row;
-            
-            if (row < virtualMachines.size()) {
-                QemuVm vm = virtualMachines.get(row);
-                startButton.setEnabled(vm.getStatus() == QemuVm.VmStatus.STOPPED);
-                stopButton.setEnabled(vm.getStatus() == QemuVm.VmStatus.RUNNING);
-                connectButton.setEnabled(vm.getStatus() == QemuVm.VmStatus.RUNNING);
-            }
-            
-            return panel;
-        }
-        
-        @Override
-        public Object getCellEditorValue() {
-            return "Actions";
-        }
-    }
-}
\ No newline at end of file
+}
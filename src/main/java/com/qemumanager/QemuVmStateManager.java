@@ -10,6 +10,10 @@ import java.util.List;
 public class QemuVmStateManager {
     private static QemuVmStateManager instance;
     
+    private final QemuProcessReconciler reconciler = new QemuProcessReconciler();
+    // Processes that were running when the state was last saved, from the last load
+    private final Map<QemuVm, QemuProcessReconciler.Record> savedProcesses = new IdentityHashMap<>();
+    
     private QemuVmStateManager() {
     }
     
@@ -32,6 +36,7 @@ public class QemuVmStateManager {
         QemuSettings settings = QemuSettings.getInstance();
         settings.ensureDirectoriesExist(); // Make sure directories exist
         String vmStateFile = getVmStateFile();
+        long started = System.nanoTime();
         
         try (BufferedWriter writer = new BufferedWriter(new FileWriter(vmStateFile))) {
             writer.write("# QEMU Manager VM State File");
@@ -48,6 +53,8 @@ public class QemuVmStateManager {
             }
             
             System.out.println("VM state saved to: " + vmStateFile);
+            QemuEventJournal.getInstance().record(QemuEventJournal.Type.STATE_SAVED, vmStateFile,
+                QemuEventJournal.ACTOR_SYSTEM, (System.nanoTime() - started) / 1000000, virtualMachines.size() + " VMs");
         } catch (IOException e) {
             System.err.println("Failed to save VM state: " + e.getMessage());
             e.printStackTrace();
@@ -59,6 +66,7 @@ public class QemuVmStateManager {
      */
     public List<QemuVm> loadVmState() {
         List<QemuVm> virtualMachines = new ArrayList<>();
+        savedProcesses.clear();
         
         String vmStateFile = getVmStateFile();
         File stateFile = new File(vmStateFile);
@@ -67,6 +75,7 @@ public class QemuVmStateManager {
             return virtualMachines;
         }
         
+        long started = System.nanoTime();
         try (BufferedReader reader = new BufferedReader(new FileReader(vmStateFile))) {
             String line;
             StringBuilder vmData = new StringBuilder();
@@ -88,6 +97,10 @@ public class QemuVmStateManager {
                         QemuVm vm = parseVmFromData(vmData.toString());
                         if (vm != null) {
                             virtualMachines.add(vm);
+                            QemuProcessReconciler.Record process = parseProcessFromData(vmData.toString());
+                            if (process != null) {
+                                savedProcesses.put(vm, process);
+                            }
                         }
                     }
                     inVmBlock = false;
@@ -97,6 +110,8 @@ public class QemuVmStateManager {
             }
             
             System.out.println("Loaded " + virtualMachines.size() + " VMs from state file.");
+            QemuEventJournal.getInstance().record(QemuEventJournal.Type.STATE_LOADED, vmStateFile,
+                QemuEventJournal.ACTOR_SYSTEM, (System.nanoTime() - started) / 1000000, virtualMachines.size() + " VMs");
             
         } catch (IOException e) {
             System.err.println("Failed to load VM state: " + e.getMessage());
@@ -128,7 +143,10 @@ public class QemuVmStateManager {
         writer.write("architecture=" + escapeValue(vm.getArchitecture()));
         writer.newLine();
         
-        writer.write("networkType=" + escapeValue(vm.getNetworkType()));
+        writer.write("nics=" + escapeValue(QemuNic.formatList(vm.getNics())));
+        writer.newLine();
+        
+        writer.write("sharedFolders=" + escapeValue(QemuSharedFolder.formatList(vm.getSharedFolders())));
         writer.newLine();
         
         writer.write("enableKvm=" + vm.isEnableKvm());
@@ -143,9 +161,93 @@ public class QemuVmStateManager {
         writer.write("vncPort=" + vm.getVncPort());
         writer.newLine();
         
+        writer.write("autoVncPort=" + vm.isAutoVncPort());
+        writer.newLine();
+        
+        writer.write("vncUnixSocket=" + vm.isVncUnixSocket());
+        writer.newLine();
+        
+        writer.write("guestAgent=" + vm.isGuestAgent());
+        writer.newLine();
+        
+        writer.write("restartPolicy=" + vm.getRestartPolicy().name());
+        writer.newLine();
+        
+        writer.write("watchdog=" + escapeValue(vm.getWatchdog()));
+        writer.newLine();
+        
+        writer.write("healthCheckAddress=" + escapeValue(vm.getHealthCheckAddress()));
+        writer.newLine();
+        
+        writer.write("autostart=" + vm.isAutostart());
+        writer.newLine();
+        
+        writer.write("autostartPriority=" + vm.getAutostartPriority());
+        writer.newLine();
+        
+        writer.write("dependsOn=" + escapeValue(String.join(",", vm.getDependsOn())));
+        writer.newLine();
+        
+        writer.write("cpuWeight=" + vm.getCpuWeight());
+        writer.newLine();
+        
+        writer.write("cpuLimitPercent=" + vm.getCpuLimitPercent());
+        writer.newLine();
+        
+        writer.write("memoryLimitMB=" + vm.getMemoryLimitMB());
+        writer.newLine();
+        
+        writer.write("memoryHighMB=" + vm.getMemoryHighMB());
+        writer.newLine();
+        
+        writer.write("ioReadMBps=" + vm.getIoReadMBps());
+        writer.newLine();
+        
+        writer.write("ioWriteMBps=" + vm.getIoWriteMBps());
+        writer.newLine();
+        
+        writer.write("ioReadIops=" + vm.getIoReadIops());
+        writer.newLine();
+        
+        writer.write("ioWriteIops=" + vm.getIoWriteIops());
+        writer.newLine();
+        writer.write("diskThrottle=" + vm.getDiskThrottle().format());
+        writer.newLine();
+        writer.write("throttleGroup=" + escapeValue(vm.getThrottleGroup()));
+        writer.newLine();
+        
+        writer.write("group=" + escapeValue(vm.getGroup() != null ? vm.getGroup() : ""));
+        writer.newLine();
+        
+        writer.write("tags=" + escapeValue(String.join(",", vm.getTags())));
+        writer.newLine();
+        
         writer.write("status=" + vm.getStatus().name());
         writer.newLine();
         
+        // Lets the next session adopt the VM if it is still running then
+        QemuProcessReconciler.Record process = vm.getStatus().isActive()
+            ? reconciler.capture(vm, vm.getQemuProcess() == null ? vm.getLogFilePath() : null) : null;
+        if (process != null) {
+            writer.write("pid=" + process.getPid());
+            writer.newLine();
+            
+            writer.write("processStartTicks=" + process.getStartTicks());
+            writer.newLine();
+            
+            writer.write("qmpPort=" + process.getQmpPort());
+            writer.newLine();
+            
+            writer.write("guestAgentPort=" + process.getGuestAgentPort());
+            writer.newLine();
+            
+            writer.write("serialPort=" + process.getSerialPort());
+            writer.newLine();
+            
+            writer.write("logFile=" + escapeValue(process.getLogFile()));
+            writer.newLine();
+        }
+        
         writer.write("[VM_END]");
         writer.newLine();
     }
@@ -174,7 +276,12 @@ public class QemuVmStateManager {
             vm.setMemoryMB(Integer.parseInt(props.getProperty("memoryMB", "1024")));
             vm.setCpuCores(Integer.parseInt(props.getProperty("cpuCores", "1")));
             vm.setArchitecture(unescapeValue(props.getProperty("architecture", "x86_64")));
-            vm.setNetworkType(unescapeValue(props.getProperty("networkType", "user")));
+            if (props.containsKey("nics")) {
+                vm.setNics(QemuNic.parseList(unescapeValue(props.getProperty("nics"))));
+            } else {
+                vm.setNics(parseLegacyNetworkType(unescapeValue(props.getProperty("networkType", "user"))));
+            }
+            vm.setSharedFolders(QemuSharedFolder.parseList(unescapeValue(props.getProperty("sharedFolders", ""))));
             vm.setEnableKvm(Boolean.parseBoolean(props.getProperty("enableKvm", "true")));
             
             String cdromPath = unescapeValue(props.getProperty("cdromPath", ""));
@@ -190,8 +297,48 @@ public class QemuVmStateManager {
             } catch (NumberFormatException e) {
                 vm.setVncPort(5901); // Default fallback
             }
+            vm.setAutoVncPort(Boolean.parseBoolean(props.getProperty("autoVncPort", "true")));
+            vm.setVncUnixSocket(Boolean.parseBoolean(props.getProperty("vncUnixSocket", "false")));
+            vm.setGuestAgent(Boolean.parseBoolean(props.getProperty("guestAgent", "false")));
+            try {
+                vm.setRestartPolicy(QemuVm.RestartPolicy.valueOf(props.getProperty("restartPolicy", "NEVER")));
+            } catch (IllegalArgumentException e) {
+                vm.setRestartPolicy(QemuVm.RestartPolicy.NEVER);
+            }
+            vm.setWatchdog(unescapeValue(props.getProperty("watchdog", "none")));
+            vm.setHealthCheckAddress(unescapeValue(props.getProperty("healthCheckAddress", "")));
+            vm.setAutostart(Boolean.parseBoolean(props.getProperty("autostart", "false")));
+            try {
+                vm.setAutostartPriority(Integer.parseInt(props.getProperty("autostartPriority", "0")));
+            } catch (NumberFormatException e) {
+                vm.setAutostartPriority(0);
+            }
+            String dependsOn = unescapeValue(props.getProperty("dependsOn", ""));
+            if (!dependsOn.isEmpty()) {
+                vm.setDependsOn(Arrays.asList(dependsOn.split(",")));
+            }
+            vm.setCpuWeight(parseLimit(props, "cpuWeight"));
+            vm.setCpuLimitPercent(parseLimit(props, "cpuLimitPercent"));
+            vm.setMemoryLimitMB(parseLimit(props, "memoryLimitMB"));
+            vm.setMemoryHighMB(parseLimit(props, "memoryHighMB"));
+            vm.setIoReadMBps(parseLimit(props, "ioReadMBps"));
+            vm.setIoWriteMBps(parseLimit(props, "ioWriteMBps"));
+            vm.setIoReadIops(parseLimit(props, "ioReadIops"));
+            vm.setIoWriteIops(parseLimit(props, "ioWriteIops"));
+            vm.setDiskThrottle(QemuDiskThrottle.parse(props.getProperty("diskThrottle")));
+            vm.setThrottleGroup(unescapeValue(props.getProperty("throttleGroup", "")));
+            
+            String group = unescapeValue(props.getProperty("group", ""));
+            if (!group.isEmpty()) {
+                vm.setGroup(group);
+            }
+            
+            String tags = unescapeValue(props.getProperty("tags", ""));
+            if (!tags.isEmpty()) {
+                vm.setTags(Arrays.asList(tags.split(",")));
+            }
             
-            // Always start with STOPPED status regardless of saved status
+            // Always start with STOPPED status regardless of saved status; autostart brings VMs back up
             vm.setStatus(QemuVm.VmStatus.STOPPED);
             
             return vm;
@@ -203,6 +350,66 @@ public class QemuVmStateManager {
         }
     }
     
+    /**
+     * Older state files had a single e1000 NIC described by its backend name only
+     */
+    private static List<QemuNic> parseLegacyNetworkType(String networkType) {
+        QemuNic.Backend backend = QemuNic.Backend.fromId(networkType);
+        if (backend == null) {
+            return new ArrayList<>(); // "none"
+        }
+        return new ArrayList<>(Collections.singletonList(new QemuNic(backend)));
+    }
+    
+    /**
+     * Reads a resource limit; missing or invalid means unlimited
+     */
+    private static int parseLimit(Properties props, String key) {
+        try {
+            return Math.max(0, Integer.parseInt(props.getProperty(key, "0")));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+    
+    /**
+     * Parses the process a VM was running when the state was saved, if any
+     */
+    private QemuProcessReconciler.Record parseProcessFromData(String vmData) {
+        try {
+            Properties props = new Properties();
+            props.load(new StringReader(vmData));
+            if (props.getProperty("pid") == null) {
+                return null;
+            }
+            return new QemuProcessReconciler.Record(
+                Long.parseLong(props.getProperty("pid")),
+                Long.parseLong(props.getProperty("processStartTicks", "0")),
+                Integer.parseInt(props.getProperty("qmpPort", "0")),
+                Integer.parseInt(props.getProperty("guestAgentPort", "0")),
+                Integer.parseInt(props.getProperty("serialPort", "0")),
+                Integer.parseInt(props.getProperty("vncPort", "0")),
+                unescapeValue(props.getProperty("logFile", "")));
+        } catch (IOException | NumberFormatException e) {
+            System.err.println("Ignoring invalid process record: " + e.getMessage());
+            return null;
+        }
+    }
+    
+    /**
+     * Returns the process the VM was running when the state was saved, as of the last load
+     */
+    public QemuProcessReconciler.Record getSavedProcess(QemuVm vm) {
+        return savedProcesses.get(vm);
+    }
+    
+    /**
+     * Returns null if the saved process is still the VM's QEMU, otherwise why not
+     */
+    public String verifySavedProcess(QemuVm vm, QemuProcessReconciler.Record process) {
+        return reconciler.verify(vm, process);
+    }
+    
     /**
      * Escapes special characters in values
      */
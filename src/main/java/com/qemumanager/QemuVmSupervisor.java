@@ -0,0 +1,270 @@
+package com.qemumanager;
+
+import javax.swing.SwingUtilities;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Supervises started VMs: periodic health probes on the shared timer wheel,
+ * and restarts according to each VM's restart policy with exponential backoff.
+ * A VM that needs too many restarts in a short window is marked as flapping
+ * and left stopped. Supervision ends when the user stops or deletes the VM.
+ */
+public class QemuVmSupervisor {
+    private static QemuVmSupervisor instance;
+
+    private static final long PROBE_INTERVAL_MS = 10000;
+    private static final int FAILURE_THRESHOLD = 3;
+    private static final long RESTART_BACKOFF_BASE_MS = 2000;
+    private static final long RESTART_BACKOFF_MAX_MS = 300000;
+    private static final long FLAP_WINDOW_MS = 600000;
+    private static final int FLAP_RESTART_LIMIT = 5;
+    private static final int PROBE_THREADS = 4;
+
+    /**
+     * Hooks into the UI; all calls arrive on the EDT
+     */
+    public interface Listener {
+        /**
+         * Health or restart count of the VM changed; message is null or a line for the console
+         */
+        void supervisionChanged(QemuVm vm, String message);
+
+        /**
+         * The VM should be started again; report failure through {@link #restartFailed}
+         */
+        void restartRequested(QemuVm vm);
+    }
+
+    private static class Supervision {
+        ProcessHandle handle;
+        List<QemuHealthProbe> probes;
+        QemuTimerWheel.Timeout timeout;
+        int consecutiveFailures;
+        boolean killedForHealth;
+        boolean probeRunning;
+        int restartCount;
+        final Deque<Long> recentRestarts = new ArrayDeque<>();
+    }
+
+    private final Map<QemuVm, Supervision> supervised = new IdentityHashMap<>();
+    private final ExecutorService probeExecutor;
+    private volatile Listener listener;
+
+    private QemuVmSupervisor() {
+        AtomicInteger threadCount = new AtomicInteger();
+        probeExecutor = Executors.newFixedThreadPool(PROBE_THREADS, r -> {
+            Thread thread = new Thread(r, "Health probe " + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public static synchronized QemuVmSupervisor getInstance() {
+        if (instance == null) {
+            instance = new QemuVmSupervisor();
+        }
+        return instance;
+    }
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Starts (or, after a restart, resumes) supervision of a freshly launched VM
+     */
+    public synchronized void watch(QemuVm vm, ProcessHandle handle) {
+        Supervision supervision = supervised.computeIfAbsent(vm, v -> new Supervision());
+        supervision.handle = handle;
+        supervision.probes = createProbes(vm);
+        supervision.consecutiveFailures = 0;
+        supervision.killedForHealth = false;
+        publish(vm, "Starting", supervision.restartCount, null);
+        scheduleProbe(vm, supervision, PROBE_INTERVAL_MS);
+    }
+
+    /**
+     * Ends supervision, e.g. because the user stopped the VM; no restart follows
+     */
+    public synchronized void unwatch(QemuVm vm) {
+        Supervision supervision = supervised.remove(vm);
+        if (supervision != null && supervision.timeout != null) {
+            supervision.timeout.cancel();
+        }
+        publish(vm, null, 0, null);
+    }
+
+    /**
+     * Called when the QEMU process of a supervised VM has exited.
+     * The exit code is -1 when unknown (process not started by this JVM).
+     */
+    public synchronized void processExited(QemuVm vm, ProcessHandle handle, int exitCode) {
+        Supervision supervision = supervised.get(vm);
+        if (supervision == null || supervision.handle != handle) {
+            return; // Stopped by the user, or a stale notification
+        }
+        if (supervision.timeout != null) {
+            supervision.timeout.cancel();
+        }
+
+        boolean failed = exitCode != 0 || supervision.killedForHealth;
+        boolean restart;
+        switch (vm.getRestartPolicy()) {
+            case ALWAYS:
+                restart = true;
+                break;
+            case ON_FAILURE:
+                restart = failed;
+                break;
+            default:
+                restart = false;
+        }
+        String reason = supervision.killedForHealth ? "failed health checks"
+            : exitCode < 0 ? "exited" : "exited with code " + exitCode;
+        if (!restart) {
+            supervised.remove(vm);
+            publish(vm, failed ? "Failed" : null, supervision.restartCount, "VM " + vm.getName() + " " + reason);
+            return;
+        }
+        scheduleRestart(vm, supervision, reason);
+    }
+
+    /**
+     * Called when a requested restart could not launch the VM
+     */
+    public synchronized void restartFailed(QemuVm vm, String error) {
+        Supervision supervision = supervised.get(vm);
+        if (supervision != null) {
+            scheduleRestart(vm, supervision, "could not be restarted (" + error + ")");
+        }
+    }
+
+    private void scheduleRestart(QemuVm vm, Supervision supervision, String reason) {
+        long now = System.currentTimeMillis();
+        while (!supervision.recentRestarts.isEmpty() && now - supervision.recentRestarts.peekFirst() > FLAP_WINDOW_MS) {
+            supervision.recentRestarts.removeFirst();
+        }
+        if (supervision.recentRestarts.size() >= FLAP_RESTART_LIMIT) {
+            supervised.remove(vm);
+            publish(vm, "Flapping", supervision.restartCount, "VM " + vm.getName() + " " + reason + " and is flapping ("
+                + FLAP_RESTART_LIMIT + " restarts in " + FLAP_WINDOW_MS / 60000 + " minutes), giving up");
+            return;
+        }
+
+        // Backoff doubles with every restart still inside the flap window
+        long delay = Math.min(RESTART_BACKOFF_MAX_MS, RESTART_BACKOFF_BASE_MS << supervision.recentRestarts.size());
+        supervision.recentRestarts.addLast(now);
+        supervision.restartCount++;
+        publish(vm, "Restarting", supervision.restartCount,
+            "VM " + vm.getName() + " " + reason + ", restarting in " + delay / 1000 + " s");
+        supervision.timeout = QemuTimerWheel.getInstance().schedule(delay, () -> {
+            synchronized (this) {
+                if (supervised.get(vm) != supervision) {
+                    return;
+                }
+            }
+            Listener current = listener;
+            if (current != null) {
+                SwingUtilities.invokeLater(() -> current.restartRequested(vm));
+            }
+        });
+    }
+
+    private void scheduleProbe(QemuVm vm, Supervision supervision, long delayMs) {
+        if (supervision.timeout != null) {
+            supervision.timeout.cancel();
+        }
+        supervision.timeout = QemuTimerWheel.getInstance().schedule(delayMs, () -> {
+            synchronized (this) {
+                if (supervised.get(vm) != supervision || supervision.probeRunning) {
+                    return;
+                }
+                supervision.probeRunning = true;
+            }
+            probeExecutor.execute(() -> runProbes(vm, supervision));
+        });
+    }
+
+    private void runProbes(QemuVm vm, Supervision supervision) {
+        String failedProbe = null;
+        // Guests are only held to their probes once booted; while starting only the process counts
+        List<QemuHealthProbe> probes = vm.getStatus() == QemuVm.VmStatus.RUNNING
+            ? supervision.probes : supervision.probes.subList(0, 1);
+        for (QemuHealthProbe probe : probes) {
+            boolean healthy;
+            try {
+                healthy = probe.check(vm);
+            } catch (IOException | RuntimeException e) {
+                healthy = false;
+            }
+            if (!healthy) {
+                failedProbe = probe.getName();
+                break;
+            }
+        }
+
+        synchronized (this) {
+            supervision.probeRunning = false;
+            if (supervised.get(vm) != supervision) {
+                return;
+            }
+            if (failedProbe == null) {
+                if (supervision.consecutiveFailures > 0 || vm.getHealth() == null || !vm.getHealth().equals("Healthy")) {
+                    publish(vm, vm.getStatus() == QemuVm.VmStatus.RUNNING ? "Healthy" : "Starting",
+                        supervision.restartCount, null);
+                }
+                supervision.consecutiveFailures = 0;
+            } else {
+                supervision.consecutiveFailures++;
+                boolean giveUp = supervision.consecutiveFailures >= FAILURE_THRESHOLD;
+                if (giveUp && vm.getRestartPolicy() != QemuVm.RestartPolicy.NEVER && !supervision.killedForHealth) {
+                    // Kill it; processExited() then restarts it under the policy
+                    supervision.killedForHealth = true;
+                    publish(vm, "Unhealthy: " + failedProbe, supervision.restartCount,
+                        "VM " + vm.getName() + " failed its " + failedProbe + " check " + FAILURE_THRESHOLD + " times");
+                    supervision.handle.destroyForcibly();
+                    return;
+                }
+                publish(vm, (giveUp ? "Unhealthy: " : "Failing: ") + failedProbe, supervision.restartCount, null);
+            }
+            scheduleProbe(vm, supervision, PROBE_INTERVAL_MS);
+        }
+    }
+
+    private List<QemuHealthProbe> createProbes(QemuVm vm) {
+        List<QemuHealthProbe> probes = new ArrayList<>();
+        probes.add(QemuHealthProbe.processAlive()); // Must stay first, see runProbes
+        if (vm.getQmpPort() > 0) {
+            probes.add(QemuHealthProbe.monitorResponsive());
+        }
+        if (vm.getGuestAgentPort() > 0) {
+            probes.add(QemuHealthProbe.guestAgentPing());
+        }
+        String address = vm.getHealthCheckAddress();
+        if (address != null && address.contains(":")) {
+            try {
+                int colon = address.lastIndexOf(':');
+                probes.add(QemuHealthProbe.tcpPort(address.substring(0, colon).trim(),
+                    Integer.parseInt(address.substring(colon + 1).trim())));
+            } catch (NumberFormatException e) {
+                System.err.println("Ignoring invalid health check address of " + vm.getName() + ": " + address);
+            }
+        }
+        return probes;
+    }
+
+    private void publish(QemuVm vm, String health, int restartCount, String message) {
+        Listener current = listener;
+        SwingUtilities.invokeLater(() -> {
+            vm.setHealth(health);
+            vm.setRestartCount(restartCount);
+            if (current != null) {
+                current.supervisionChanged(vm, message);
+            }
+        });
+    }
+}
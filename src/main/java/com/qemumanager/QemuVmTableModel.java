@@ -0,0 +1,182 @@
+package com.qemumanager;
+
+import javax.swing.table.AbstractTableModel;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Table model backed directly by the list of virtual machines.
+ * Status changes are published per row instead of rebuilding the whole table.
+ */
+public class QemuVmTableModel extends AbstractTableModel {
+    public static final int COLUMN_PREVIEW = 0;
+    public static final int COLUMN_NAME = 1;
+    public static final int COLUMN_GROUP = 2;
+    public static final int COLUMN_STATUS = 3;
+    public static final int COLUMN_HEALTH = 4;
+    public static final int COLUMN_MEMORY = 5;
+    public static final int COLUMN_CPU = 6;
+    public static final int COLUMN_ARCHITECTURE = 7;
+    public static final int COLUMN_NETWORK = 8;
+    public static final int COLUMN_TAGS = 9;
+    public static final int COLUMN_ACTIONS = 10;
+
+    private static final String[] COLUMN_NAMES = {
+        "Screen", "Name", "Group", "Status", "Health", "Memory (MB)", "CPU Cores", "Architecture", "Network", "Tags", "Actions"
+    };
+
+    private final List<QemuVm> virtualMachines = new ArrayList<>();
+    private final Map<QemuVm, Integer> rowIndex = new IdentityHashMap<>();
+    private final QemuVmIndex vmIndex = new QemuVmIndex();
+
+    @Override
+    public int getRowCount() {
+        return virtualMachines.size();
+    }
+
+    @Override
+    public int getColumnCount() {
+        return COLUMN_NAMES.length;
+    }
+
+    @Override
+    public String getColumnName(int column) {
+        return COLUMN_NAMES[column];
+    }
+
+    @Override
+    public Class<?> getColumnClass(int column) {
+        switch (column) {
+            case COLUMN_MEMORY:
+            case COLUMN_CPU:
+                return Integer.class;
+            case COLUMN_STATUS:
+                return QemuVm.VmStatus.class;
+            default:
+                return String.class;
+        }
+    }
+
+    @Override
+    public Object getValueAt(int row, int column) {
+        QemuVm vm = virtualMachines.get(row);
+        switch (column) {
+            case COLUMN_NAME:
+                return vm.getName();
+            case COLUMN_GROUP:
+                return vm.getGroup() != null ? vm.getGroup() : "";
+            case COLUMN_STATUS:
+                return vm.getStatus();
+            case COLUMN_HEALTH:
+                return describeHealth(vm);
+            case COLUMN_MEMORY:
+                return vm.getMemoryMB();
+            case COLUMN_CPU:
+                return vm.getCpuCores();
+            case COLUMN_ARCHITECTURE:
+                return vm.getArchitecture();
+            case COLUMN_NETWORK:
+                return vm.getNetworkDescription(); // Use descriptive network info
+            case COLUMN_TAGS:
+                return String.join(", ", vm.getTags());
+            case COLUMN_PREVIEW:
+                return ""; // Painted from the thumbnail cache
+            default:
+                return "Actions";
+        }
+    }
+
+    /**
+     * Returns the VM shown in the given model row
+     */
+    public QemuVm getVmAt(int row) {
+        return virtualMachines.get(row);
+    }
+
+    /**
+     * Returns the model row of the VM, or -1 if it is not in the table
+     */
+    public int indexOf(QemuVm vm) {
+        Integer index = rowIndex.get(vm);
+        return index != null ? index : -1;
+    }
+
+    public List<QemuVm> getVirtualMachines() {
+        return virtualMachines;
+    }
+
+    /**
+     * Returns the lookup indexes, kept in sync with every change published by this model
+     */
+    public QemuVmIndex getVmIndex() {
+        return vmIndex;
+    }
+
+    public void addVirtualMachine(QemuVm vm) {
+        int row = virtualMachines.size();
+        virtualMachines.add(vm);
+        rowIndex.put(vm, row);
+        vmIndex.add(vm);
+        fireTableRowsInserted(row, row);
+    }
+
+    public void removeVirtualMachine(QemuVm vm) {
+        int row = indexOf(vm);
+        if (row >= 0) {
+            virtualMachines.remove(row);
+            vmIndex.remove(vm);
+            rebuildIndex();
+            fireTableRowsDeleted(row, row);
+        }
+    }
+
+    public void setVirtualMachines(List<QemuVm> vms) {
+        virtualMachines.clear();
+        virtualMachines.addAll(vms);
+        vmIndex.clear();
+        for (QemuVm vm : virtualMachines) {
+            vmIndex.add(vm);
+        }
+        rebuildIndex();
+        fireTableDataChanged();
+    }
+
+    /**
+     * Re-indexes the given VM and repaints only its row
+     */
+    public void fireVmUpdated(QemuVm vm) {
+        int row = indexOf(vm);
+        if (row >= 0) {
+            vmIndex.update(vm);
+            fireTableRowsUpdated(row, row);
+        }
+    }
+
+    /**
+     * Repaints a single cell of the VM without re-indexing it
+     */
+    public void fireVmCellUpdated(QemuVm vm, int column) {
+        int row = indexOf(vm);
+        if (row >= 0) {
+            fireTableCellUpdated(row, column);
+        }
+    }
+
+    private static String describeHealth(QemuVm vm) {
+        String health = vm.getHealth() != null ? vm.getHealth() : "";
+        if (vm.getRestartCount() == 0) {
+            return health;
+        }
+        String restarts = vm.getRestartCount() + (vm.getRestartCount() == 1 ? " restart" : " restarts");
+        return health.isEmpty() ? restarts : health + " (" + restarts + ")";
+    }
+
+    private void rebuildIndex() {
+        rowIndex.clear();
+        for (int i = 0; i < virtualMachines.size(); i++) {
+            rowIndex.put(virtualMachines.get(i), i);
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package com.qemumanager;
+
+import javax.swing.*;
+import javax.swing.Timer;
+import java.awt.*;
+import java.awt.event.HierarchyEvent;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.util.*;
+import java.util.List;
+
+/**
+ * Grid of live, low frame rate previews of every running VM.
+ * Connections are only held while the grid is showing.
+ */
+public class QemuVncThumbnailGrid extends JPanel {
+    private static final int REFRESH_INTERVAL_MS = 5000;
+
+    private final JPanel grid;
+    private final JLabel emptyLabel;
+    private final Map<QemuVm, QemuVncViewerPanel> thumbnails = new IdentityHashMap<>();
+    private final Timer refreshTimer;
+    private QemuVmIndex vmIndex;
+
+    public QemuVncThumbnailGrid() {
+        setLayout(new BorderLayout());
+        grid = new JPanel(new GridLayout(0, 4, 8, 8));
+        grid.setBorder(BorderFactory.createEmptyBorder(8, 8, 8, 8));
+        emptyLabel = new JLabel("No running virtual machines with a TCP VNC display", SwingConstants.CENTER);
+        add(new JScrollPane(grid), BorderLayout.CENTER);
+
+        refreshTimer = new Timer(REFRESH_INTERVAL_MS, e -> refreshThumbnails());
+        addHierarchyListener(e -> {
+            if ((e.getChangeFlags() & HierarchyEvent.SHOWING_CHANGED) != 0) {
+                if (isShowing()) {
+                    refreshThumbnails();
+                    refreshTimer.start();
+                } else {
+                    refreshTimer.stop();
+                    disconnectAll();
+                }
+            }
+        });
+    }
+
+    public void setVmIndex(QemuVmIndex vmIndex) {
+        this.vmIndex = vmIndex;
+        if (isShowing()) {
+            refreshThumbnails();
+        }
+    }
+
+    /**
+     * Connects previews for newly running VMs and drops previews of stopped ones
+     */
+    private void refreshThumbnails() {
+        if (vmIndex == null) {
+            return;
+        }
+        Set<QemuVm> running = vmIndex.findByStatus(QemuVm.VmStatus.RUNNING);
+        running.addAll(vmIndex.findByStatus(QemuVm.VmStatus.STARTING)); // Booting guests are worth watching
+        running.removeIf(QemuVm::isVncUnixSocket); // Only TCP displays can be reached from Java
+
+        Iterator<Map.Entry<QemuVm, QemuVncViewerPanel>> it = thumbnails.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<QemuVm, QemuVncViewerPanel> entry = it.next();
+            if (!running.contains(entry.getKey())) {
+                entry.getValue().disconnect();
+                it.remove();
+            } else if (!entry.getValue().isConnected()) {
+                entry.getValue().connect("localhost", entry.getKey().getVncPort());
+            }
+        }
+        for (QemuVm vm : running) {
+            if (!thumbnails.containsKey(vm)) {
+                QemuVncViewerPanel thumbnail = new QemuVncViewerPanel(true);
+                thumbnails.put(vm, thumbnail);
+                thumbnail.connect("localhost", vm.getVncPort());
+            }
+        }
+        rebuildGrid();
+    }
+
+    private void rebuildGrid() {
+        grid.removeAll();
+        if (thumbnails.isEmpty()) {
+            grid.add(emptyLabel);
+        }
+        List<QemuVm> vms = new ArrayList<>(thumbnails.keySet());
+        vms.sort(Comparator.comparing(QemuVm::getName, String.CASE_INSENSITIVE_ORDER));
+        for (QemuVm vm : vms) {
+            grid.add(createCell(vm, thumbnails.get(vm)));
+        }
+        grid.revalidate();
+        grid.repaint();
+    }
+
+    private JComponent createCell(QemuVm vm, QemuVncViewerPanel thumbnail) {
+        JPanel cell = new JPanel(new BorderLayout());
+        cell.setBorder(BorderFactory.createLineBorder(Color.GRAY));
+        JLabel label = new JLabel(vm.getName() + " (port " + vm.getVncPort() + ")", SwingConstants.CENTER);
+        cell.add(thumbnail, BorderLayout.CENTER);
+        cell.add(label, BorderLayout.SOUTH);
+        cell.setToolTipText("Double-click to open the display of " + vm.getName());
+        thumbnail.addMouseListener(new MouseAdapter() {
+            @Override
+            public void mouseClicked(MouseEvent e) {
+                if (e.getClickCount() == 2) {
+                    QemuVncViewerPanel.showInWindow(QemuVncThumbnailGrid.this,
+                        "VNC - " + vm.getName(), "localhost", vm.getVncPort());
+                }
+            }
+        });
+        return cell;
+    }
+
+    private void disconnectAll() {
+        for (QemuVncViewerPanel thumbnail : thumbnails.values()) {
+            thumbnail.disconnect();
+        }
+        thumbnails.clear();
+        rebuildGrid();
+    }
+}
@@ -0,0 +1,303 @@
+package com.qemumanager;
+
+import javax.swing.*;
+import java.awt.*;
+import java.awt.event.*;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+
+/**
+ * Embedded VNC display for a single VM.
+ * Repaints only the rectangles reported dirty by the RFB client. In thumbnail
+ * mode the display is scaled, input is ignored and updates are throttled.
+ */
+public class QemuVncViewerPanel extends JPanel implements QemuRfbClient.Listener {
+    private static final long THUMBNAIL_UPDATE_INTERVAL_MS = 1000;
+
+    private final boolean thumbnailMode;
+    private volatile QemuRfbClient client;
+    private Thread readerThread;
+    private String statusText = "Not connected";
+    private int buttonMask;
+
+    public QemuVncViewerPanel(boolean thumbnailMode) {
+        this.thumbnailMode = thumbnailMode;
+        setBackground(Color.BLACK);
+        setFocusable(!thumbnailMode);
+        setFocusTraversalKeysEnabled(false); // Let Tab reach the guest
+        if (!thumbnailMode) {
+            installInputHandlers();
+        }
+    }
+
+    /**
+     * Connects in the background; progress and errors are shown in the panel
+     */
+    public void connect(String host, int port) {
+        disconnect();
+        statusText = "Connecting to " + host + ":" + port + "...";
+        repaint();
+        readerThread = new Thread(() -> {
+            QemuRfbClient newClient = null;
+            try {
+                newClient = QemuRfbClient.connect(host, port);
+                newClient.setListener(this);
+                if (thumbnailMode) {
+                    newClient.setMinUpdateInterval(THUMBNAIL_UPDATE_INTERVAL_MS);
+                    newClient.setQualityLevel(3);
+                }
+                newClient.handshake();
+                client = newClient;
+                SwingUtilities.invokeLater(() -> {
+                    statusText = null;
+                    revalidate();
+                    repaint();
+                });
+                newClient.run();
+            } catch (IOException e) {
+                if (newClient != null) {
+                    newClient.close();
+                }
+                String message = e.getMessage();
+                SwingUtilities.invokeLater(() -> {
+                    statusText = "Connection failed: " + message;
+                    repaint();
+                });
+            }
+        }, "VNC " + host + ":" + port);
+        readerThread.setDaemon(true);
+        readerThread.start();
+    }
+
+    public void disconnect() {
+        QemuRfbClient current = client;
+        client = null;
+        if (current != null) {
+            current.close();
+        }
+        if (readerThread != null) {
+            readerThread.interrupt();
+            readerThread = null;
+        }
+    }
+
+    public boolean isConnected() {
+        return client != null;
+    }
+
+    @Override
+    public Dimension getPreferredSize() {
+        QemuRfbClient current = client;
+        BufferedImage image = current != null ? current.getFramebuffer() : null;
+        if (thumbnailMode || image == null) {
+            return thumbnailMode ? new Dimension(240, 180) : new Dimension(800, 600);
+        }
+        return new Dimension(image.getWidth(), image.getHeight());
+    }
+
+    @Override
+    protected void paintComponent(Graphics g) {
+        super.paintComponent(g);
+        QemuRfbClient current = client;
+        BufferedImage image = current != null ? current.getFramebuffer() : null;
+        if (image == null) {
+            g.setColor(Color.LIGHT_GRAY);
+            g.drawString(statusText != null ? statusText : "Waiting for display...", 10, 20);
+            return;
+        }
+        if (thumbnailMode) {
+            Rectangle target = getScaledBounds(image);
+            Graphics2D g2d = (Graphics2D) g;
+            g2d.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            g2d.drawImage(image, target.x, target.y, target.width, target.height, null);
+        } else {
+            g.drawImage(image, 0, 0, null);
+        }
+    }
+
+    private Rectangle getScaledBounds(BufferedImage image) {
+        double scale = Math.min((double) getWidth() / image.getWidth(), (double) getHeight() / image.getHeight());
+        int w = (int) (image.getWidth() * scale);
+        int h = (int) (image.getHeight() * scale);
+        return new Rectangle((getWidth() - w) / 2, (getHeight() - h) / 2, w, h);
+    }
+
+    // QemuRfbClient.Listener, called on the reader thread
+
+    @Override
+    public void framebufferResized(int width, int height) {
+        SwingUtilities.invokeLater(() -> {
+            revalidate();
+            repaint();
+        });
+    }
+
+    @Override
+    public void framebufferUpdated(int x, int y, int width, int height) {
+        if (thumbnailMode) {
+            repaint(); // Scaled: a full repaint of a small panel is cheaper than mapping rectangles
+        } else {
+            repaint(x, y, width, height); // RepaintManager coalesces these on the EDT
+        }
+    }
+
+    @Override
+    public void connectionClosed(String reason) {
+        SwingUtilities.invokeLater(() -> {
+            client = null;
+            statusText = reason;
+            repaint();
+        });
+    }
+
+    // Input forwarding
+
+    private void installInputHandlers() {
+        MouseAdapter mouseHandler = new MouseAdapter() {
+            @Override
+            public void mousePressed(MouseEvent e) {
+                requestFocusInWindow();
+                buttonMask |= buttonBit(e);
+                sendPointer(e.getX(), e.getY(), buttonMask);
+            }
+
+            @Override
+            public void mouseReleased(MouseEvent e) {
+                buttonMask &= ~buttonBit(e);
+                sendPointer(e.getX(), e.getY(), buttonMask);
+            }
+
+            @Override
+            public void mouseMoved(MouseEvent e) {
+                sendPointer(e.getX(), e.getY(), buttonMask);
+            }
+
+            @Override
+            public void mouseDragged(MouseEvent e) {
+                sendPointer(e.getX(), e.getY(), buttonMask);
+            }
+
+            @Override
+            public void mouseWheelMoved(MouseWheelEvent e) {
+                int wheelBit = e.getWheelRotation() < 0 ? 8 : 16;
+                sendPointer(e.getX(), e.getY(), buttonMask | wheelBit);
+                sendPointer(e.getX(), e.getY(), buttonMask);
+            }
+        };
+        addMouseListener(mouseHandler);
+        addMouseMotionListener(mouseHandler);
+        addMouseWheelListener(mouseHandler);
+
+        addKeyListener(new KeyAdapter() {
+            @Override
+            public void keyPressed(KeyEvent e) {
+                sendKey(e, true);
+                e.consume();
+            }
+
+            @Override
+            public void keyReleased(KeyEvent e) {
+                sendKey(e, false);
+                e.consume();
+            }
+        });
+    }
+
+    private static int buttonBit(MouseEvent e) {
+        switch (e.getButton()) {
+            case MouseEvent.BUTTON1:
+                return 1;
+            case MouseEvent.BUTTON2:
+                return 2;
+            case MouseEvent.BUTTON3:
+                return 4;
+            default:
+                return 0;
+        }
+    }
+
+    private void sendPointer(int x, int y, int mask) {
+        QemuRfbClient current = client;
+        if (current != null) {
+            try {
+                current.sendPointerEvent(mask, x, y);
+            } catch (IOException e) {
+                connectionClosed(e.getMessage());
+            }
+        }
+    }
+
+    private void sendKey(KeyEvent e, boolean down) {
+        QemuRfbClient current = client;
+        int keysym = toKeysym(e);
+        if (current != null && keysym != 0) {
+            try {
+                current.sendKeyEvent(keysym, down);
+            } catch (IOException ex) {
+                connectionClosed(ex.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Maps a Java key event to an X11 keysym as used by RFB
+     */
+    private static int toKeysym(KeyEvent e) {
+        switch (e.getKeyCode()) {
+            case KeyEvent.VK_BACK_SPACE: return 0xff08;
+            case KeyEvent.VK_TAB: return 0xff09;
+            case KeyEvent.VK_ENTER: return 0xff0d;
+            case KeyEvent.VK_ESCAPE: return 0xff1b;
+            case KeyEvent.VK_INSERT: return 0xff63;
+            case KeyEvent.VK_DELETE: return 0xffff;
+            case KeyEvent.VK_HOME: return 0xff50;
+            case KeyEvent.VK_END: return 0xff57;
+            case KeyEvent.VK_PAGE_UP: return 0xff55;
+            case KeyEvent.VK_PAGE_DOWN: return 0xff56;
+            case KeyEvent.VK_LEFT: return 0xff51;
+            case KeyEvent.VK_UP: return 0xff52;
+            case KeyEvent.VK_RIGHT: return 0xff53;
+            case KeyEvent.VK_DOWN: return 0xff54;
+            case KeyEvent.VK_SHIFT: return 0xffe1;
+            case KeyEvent.VK_CONTROL: return 0xffe3;
+            case KeyEvent.VK_ALT: return 0xffe9;
+            case KeyEvent.VK_META: return 0xffe7;
+            case KeyEvent.VK_WINDOWS: return 0xffeb;
+            case KeyEvent.VK_CAPS_LOCK: return 0xffe5;
+            default:
+                break;
+        }
+        if (e.getKeyCode() >= KeyEvent.VK_F1 && e.getKeyCode() <= KeyEvent.VK_F12) {
+            return 0xffbe + (e.getKeyCode() - KeyEvent.VK_F1);
+        }
+        char c = e.getKeyChar();
+        if (c == KeyEvent.CHAR_UNDEFINED) {
+            return 0;
+        }
+        if (c < 0x20 && e.isControlDown()) {
+            c = (char) (c + 0x60); // Ctrl+letter arrives as a control character
+        }
+        return c < 0x100 ? c : 0x01000000 | c;
+    }
+
+    /**
+     * Opens a window showing the display of the given VM
+     */
+    public static void showInWindow(Component parent, String title, String host, int port) {
+        QemuVncViewerPanel viewer = new QemuVncViewerPanel(false);
+        JFrame frame = new JFrame(title);
+        frame.setDefaultCloseOperation(WindowConstants.DISPOSE_ON_CLOSE);
+        frame.add(new JScrollPane(viewer));
+        frame.addWindowListener(new WindowAdapter() {
+            @Override
+            public void windowClosed(WindowEvent e) {
+                viewer.disconnect();
+            }
+        });
+        frame.setSize(1040, 820);
+        frame.setLocationRelativeTo(parent);
+        frame.setVisible(true);
+        viewer.connect(host, port);
+        viewer.requestFocusInWindow();
+    }
+}
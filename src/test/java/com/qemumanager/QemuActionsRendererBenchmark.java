@@ -0,0 +1,123 @@
+package com.qemumanager;
+
+import static org.junit.Assert.assertTrue;
+
+import java.awt.Color;
+import java.awt.Component;
+import java.awt.Dimension;
+import java.awt.FlowLayout;
+import java.awt.Font;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import javax.swing.CellRendererPane;
+import javax.swing.JButton;
+import javax.swing.JPanel;
+import javax.swing.JTable;
+import javax.swing.SwingUtilities;
+import javax.swing.table.DefaultTableModel;
+import javax.swing.table.TableCellRenderer;
+import org.junit.Test;
+
+/**
+ * Paint time per row of the Actions column while scrolling through a large
+ * table: the former panel of three JButtons at 60 px rows against
+ * QemuActionsCellRenderer, painted through a CellRendererPane as JTable does.
+ */
+public class QemuActionsRendererBenchmark {
+    private static final int ROWS = 5000;
+    private static final int VIEWPORT_HEIGHT = 1000;
+    private static final int FRAMES = 2000;
+
+    @Test
+    public void paintCostPerRow() throws Exception {
+        double[] perRow = new double[2];
+        SwingUtilities.invokeAndWait(() -> {
+            try {
+                perRow[0] = measure("JButton panel", new ButtonPanelRenderer(), 60, 330);
+                QemuActionsCellRenderer renderer = new QemuActionsCellRenderer(
+                    new QemuActionsCellRenderer.Glyph[]{QemuActionsCellRenderer.Glyph.START,
+                        QemuActionsCellRenderer.Glyph.STOP, QemuActionsCellRenderer.Glyph.CONNECT},
+                    new Color[]{new Color(34, 139, 34), new Color(220, 20, 60), new Color(30, 144, 255)},
+                    new String[]{"Start", "Stop", "Connect"},
+                    new QemuActionsCellRenderer.ActionHandler() {
+                        @Override
+                        public boolean isEnabled(int modelRow, int action) {
+                            return (modelRow + action) % 2 == 0;
+                        }
+
+                        @Override
+                        public void perform(int modelRow, int action) {
+                        }
+                    });
+                perRow[1] = measure("icon renderer", renderer, QemuActionsCellRenderer.ROW_HEIGHT,
+                    renderer.getPreferredWidth());
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        QemuBenchmark.report(String.format("icon renderer is %.1fx cheaper per row", perRow[0] / perRow[1]));
+        assertTrue("the icon renderer must be cheaper than the button panel", perRow[1] < perRow[0]);
+    }
+
+    /**
+     * Paints one viewport of the column per frame, scrolling a page each frame; returns ns per row
+     */
+    private static double measure(String name, TableCellRenderer renderer, int rowHeight, int width) throws Exception {
+        JTable table = new JTable(new DefaultTableModel(QemuBenchmark.scaled(ROWS), 1));
+        table.setRowHeight(rowHeight);
+        CellRendererPane pane = new CellRendererPane();
+        table.add(pane);
+        int visibleRows = VIEWPORT_HEIGHT / rowHeight;
+        BufferedImage image = new BufferedImage(width, visibleRows * rowHeight, BufferedImage.TYPE_INT_RGB);
+        int[] first = {0};
+        QemuBenchmark.Result result = QemuBenchmark.measure(name + ", " + visibleRows + " rows per frame", FRAMES, FRAMES,
+            () -> {
+                Graphics2D g = image.createGraphics();
+                for (int i = 0; i < visibleRows; i++) {
+                    int row = (first[0] + i) % table.getRowCount();
+                    Component component = renderer.getTableCellRendererComponent(table, null, false, false, row, 0);
+                    pane.paintComponent(g, component, table, 0, i * rowHeight, width, rowHeight, true);
+                }
+                g.dispose();
+                first[0] += visibleRows;
+            }).print();
+        double nanosPerRow = (double) result.p50() / visibleRows;
+        QemuBenchmark.report(String.format("%s: %.2f us per row", name, nanosPerRow / 1000));
+        return nanosPerRow;
+    }
+
+    /**
+     * The Actions renderer the panel used before: three real buttons laid out for every cell
+     */
+    private static class ButtonPanelRenderer extends JPanel implements TableCellRenderer {
+        private final JButton startButton = new JButton("Start");
+        private final JButton stopButton = new JButton("Stop");
+        private final JButton connectButton = new JButton("Connect");
+
+        ButtonPanelRenderer() {
+            setLayout(new FlowLayout(FlowLayout.CENTER, 3, 3));
+            Font buttonFont = new Font(Font.DIALOG, Font.BOLD, 14);
+            JButton[] buttons = {startButton, stopButton, connectButton};
+            Color[] colors = {new Color(34, 139, 34), new Color(220, 20, 60), new Color(30, 144, 255)};
+            for (int i = 0; i < buttons.length; i++) {
+                buttons[i].setPreferredSize(new Dimension(i == 2 ? 110 : 90, 50));
+                buttons[i].setFont(buttonFont);
+                buttons[i].setBackground(colors[i]);
+                buttons[i].setForeground(Color.WHITE);
+                add(buttons[i]);
+            }
+            // Laid out once, as in a showing table; without a peer validate() would leave the buttons unsized
+            setSize(330, 60);
+            doLayout();
+        }
+
+        @Override
+        public Component getTableCellRendererComponent(JTable table, Object value, boolean isSelected,
+                                                       boolean hasFocus, int row, int column) {
+            startButton.setEnabled(row % 2 == 0);
+            stopButton.setEnabled(row % 2 == 1);
+            connectButton.setEnabled(row % 2 == 0);
+            return this;
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package com.qemumanager;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Live backups of QemuBackupManager against a QemuQmpStub monitor whose block graph is
+ * the one a live move leaves behind, with a qemu-img stand-in that creates empty files
+ */
+public class QemuBackupManagerTest {
+    private static final String DISK = "/srv/ssd/web.qcow2"; // Where the move put the image
+    private static final String MOVED_NODE = "#block412"; // QEMU's name for the mirror target
+    private static final long VIRTUAL_SIZE = 20L << 30;
+
+    @Rule
+    public final TemporaryFolder temp = new TemporaryFolder();
+
+    @Test
+    public void backupAfterAMoveUnderTheThrottleFilter() throws Exception {
+        // The filter keeps its name, the image below it is the mirror target
+        Map<String, Object> format = qcow2Image();
+        Map<String, Object> inserted = QemuJson.object("node-name", "disk0", "drv", "throttle", "file", DISK,
+            "image", QemuJson.object("filename", DISK, "format", "throttle", "backing-image", format));
+
+        Map<String, Object> transaction = backUp("backup-throttled",
+            QemuJson.object("device", "", "qdev", "disk0-device", "inserted", inserted),
+            QemuJson.object("node-name", "disk0", "drv", "throttle", "file", DISK, "image", format));
+
+        assertEquals(expectedTransaction(), transaction);
+    }
+
+    @Test
+    public void backupAfterAMoveOfAPlainDrive() throws Exception {
+        Map<String, Object> inserted = QemuJson.object("node-name", MOVED_NODE, "drv", "qcow2", "file", DISK,
+            "image", qcow2Image());
+
+        Map<String, Object> transaction = backUp("backup-plain",
+            QemuJson.object("device", "disk0", "qdev", "/machine/unattached/device[24]", "inserted", inserted),
+            null);
+
+        assertEquals(expectedTransaction(), transaction);
+    }
+
+    /**
+     * Runs a backup of a running VM whose disk is the given query-block entry, next to a
+     * CD-ROM drive, and returns the arguments of the transaction that started it
+     */
+    private Map<String, Object> backUp(String name, Map<String, Object> disk, Map<String, Object> filter)
+            throws Exception {
+        File qemuImg = temp.newFile("qemu-img");
+        // create [-b base -F fmt] -f qcow2 file size: the file is the last but one argument
+        Files.write(qemuImg.toPath(), ("#!/bin/sh\nfor arg; do file=$size; size=$arg; done\n: > \"$file\"\n")
+            .getBytes(StandardCharsets.US_ASCII));
+        assertTrue(qemuImg.setExecutable(true));
+        QemuSettings settings = QemuSettings.getInstance();
+        String qemuPath = settings.getQemuPath();
+        String backupPath = settings.getBackupPath();
+        boolean autoSave = settings.isAutoSaveEnabled();
+        settings.setAutoSaveEnabled(false);
+        QemuVm vm = new QemuVm(name);
+        try (QemuQmpStub qemu = QemuQmpStub.monitor()) {
+            settings.setQemuPath(new File(temp.getRoot(), "qemu-system-x86_64").getPath());
+            settings.setBackupPath(temp.newFolder("backups").getPath());
+            // The protocol node comes first and has the same file, so only the driver tells them apart
+            List<Object> nodes = new ArrayList<>(Arrays.asList(
+                QemuJson.object("node-name", "#block318", "drv", "file", "file", DISK),
+                QemuJson.object("node-name", MOVED_NODE, "drv", "qcow2", "file", DISK, "image", qcow2Image())));
+            if (filter != null) {
+                nodes.add(filter);
+            }
+            qemu.reply("query-block", Arrays.asList(
+                    QemuJson.object("device", "ide1-cd0", "qdev", "/machine/unattached/device[25]"), disk))
+                .reply("query-named-block-nodes", nodes)
+                .reply("blockdev-add", Collections.emptyMap())
+                .reply("transaction", Collections.emptyMap())
+                .reply("query-jobs", Collections.singletonList(QemuJson.object("id", "backup-disk0",
+                    "status", "concluded", "current-progress", 4096L, "total-progress", 4096L)))
+                .reply("job-dismiss", Collections.emptyMap())
+                .reply("blockdev-del", Collections.emptyMap());
+            vm.setDiskPath(DISK);
+            vm.setGuestAgentPort(0); // Crash-consistent, no freeze
+            vm.setQmpPort(qemu.getPort());
+            vm.setStatus(QemuVm.VmStatus.RUNNING);
+
+            QemuBackupManager.Entry entry = QemuBackupManager.getInstance().backup(vm, null);
+
+            assertTrue(entry.isFull());
+            assertEquals(VIRTUAL_SIZE, entry.getVirtualSize());
+            assertEquals(4096, entry.getChangedBytes());
+            assertEquals(DISK, entry.getDiskPath());
+            assertEquals(Arrays.asList("query-block", "query-named-block-nodes", "blockdev-add", "transaction",
+                "query-jobs", "job-dismiss", "blockdev-del"), qemu.getCommands());
+            return qemu.getArguments("transaction");
+        } finally {
+            QemuMonitorManager.getInstance().disconnect(vm);
+            settings.setQemuPath(qemuPath);
+            settings.setBackupPath(backupPath);
+            settings.setAutoSaveEnabled(autoSave);
+        }
+    }
+
+    /**
+     * A full backup: the bitmap starts on the mirror target's node and the job copies from it
+     */
+    private static Map<String, Object> expectedTransaction() {
+        return QemuJson.object("actions", Arrays.asList(
+            QemuJson.object("type", "block-dirty-bitmap-add", "data",
+                QemuJson.object("node", MOVED_NODE, "name", QemuBackupManager.BITMAP_NAME, "persistent", true)),
+            QemuJson.object("type", "blockdev-backup", "data", QemuJson.object("job-id", "backup-disk0",
+                "device", MOVED_NODE, "target", "backup-target", "sync", "full", "auto-dismiss", false))));
+    }
+
+    private static Map<String, Object> qcow2Image() {
+        return QemuJson.object("filename", DISK, "format", "qcow2", "virtual-size", VIRTUAL_SIZE);
+    }
+}
@@ -0,0 +1,109 @@
+package com.qemumanager;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Minimal timing harness for the benchmarks under src/test. Benchmarks are
+ * JUnit classes named *Benchmark, which surefire does not pick up on its own;
+ * run one with "mvn test -Dtest=QemuVmTableBenchmark". -Dbenchmark.scale=0.1
+ * shrinks every workload, e.g. for a quick check that they still run.
+ */
+final class QemuBenchmark {
+    interface Body {
+        void run() throws Exception;
+    }
+
+    /**
+     * Timings of one measured operation, in nanoseconds per run
+     */
+    static final class Result {
+        private final String name;
+        private final long[] samples;
+
+        Result(String name, long[] samples) {
+            this.name = name;
+            this.samples = samples.clone();
+            Arrays.sort(this.samples);
+        }
+
+        long percentile(double p) {
+            int index = (int) Math.ceil(p / 100.0 * samples.length) - 1;
+            return samples[Math.max(0, Math.min(samples.length - 1, index))];
+        }
+
+        long p50() {
+            return percentile(50);
+        }
+
+        long p99() {
+            return percentile(99);
+        }
+
+        long mean() {
+            long total = 0;
+            for (long sample : samples) {
+                total += sample;
+            }
+            return total / samples.length;
+        }
+
+        Result print() {
+            report(String.format(Locale.ROOT, "%s: p50 %s, p99 %s, mean %s (%d runs)", name, format(p50()),
+                format(p99()), format(mean()), samples.length));
+            return this;
+        }
+    }
+
+    private QemuBenchmark() {
+    }
+
+    static double scale() {
+        return Double.parseDouble(System.getProperty("benchmark.scale", "1"));
+    }
+
+    static int scaled(int count) {
+        return (int) Math.max(1, Math.round(count * scale()));
+    }
+
+    static long scaled(long count) {
+        return Math.max(1, Math.round(count * scale()));
+    }
+
+    /**
+     * Runs the body warmups times untimed, then iterations times timed
+     */
+    static Result measure(String name, int warmups, int iterations, Body body) throws Exception {
+        for (int i = 0; i < warmups; i++) {
+            body.run();
+        }
+        long[] samples = new long[iterations];
+        for (int i = 0; i < iterations; i++) {
+            long start = System.nanoTime();
+            body.run();
+            samples[i] = System.nanoTime() - start;
+        }
+        return new Result(name, samples);
+    }
+
+    /**
+     * Bytes per second as e.g. "512.0 MB/s"
+     */
+    static String throughput(long bytes, long nanos) {
+        return String.format(Locale.ROOT, "%.1f MB/s", bytes / (1024.0 * 1024.0) / (nanos / 1e9));
+    }
+
+    static String format(long nanos) {
+        if (nanos >= 1_000_000_000L) {
+            return String.format(Locale.ROOT, "%.2f s", nanos / 1e9);
+        }
+        if (nanos >= 1_000_000L) {
+            return String.format(Locale.ROOT, "%.2f ms", nanos / 1e6);
+        }
+        return String.format(Locale.ROOT, "%.2f us", nanos / 1e3);
+    }
+
+    static void report(String line) {
+        System.out.println("[benchmark] " + line);
+    }
+}
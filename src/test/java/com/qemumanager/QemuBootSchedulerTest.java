@@ -0,0 +1,227 @@
+package com.qemumanager;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.junit.Test;
+
+/**
+ * QemuBootScheduler with a stub launcher whose VMs take a moment to boot
+ */
+public class QemuBootSchedulerTest {
+    private static final long NO_MEMORY_LIMIT = Long.MAX_VALUE;
+
+    @Test
+    public void dependenciesBootFirst() throws Exception {
+        Map<String, QemuVm> vms = new LinkedHashMap<>();
+        add(vms, "web", 2, 1024, true, "app");
+        add(vms, "app", 2, 1024, true, "db");
+        add(vms, "db", 2, 1024, false); // Not autostart itself, but required
+        StubLauncher launcher = new StubLauncher();
+
+        QemuBootScheduler.Result result = new QemuBootScheduler(launcher, 16, NO_MEMORY_LIMIT)
+            .bootAutostartVms(vms.values());
+
+        assertEquals(Arrays.asList("db", "app", "web"), launcher.startOrder);
+        assertEquals(Arrays.asList("db", "app", "web"), result.getStarted());
+        assertTrue(result.getSkipped().isEmpty());
+    }
+
+    @Test
+    public void higherPrioritiesStartFirst() throws Exception {
+        Map<String, QemuVm> vms = new LinkedHashMap<>();
+        add(vms, "low", 4, 1024, true).setAutostartPriority(1);
+        add(vms, "high", 4, 1024, true).setAutostartPriority(5);
+        add(vms, "middle", 4, 1024, true).setAutostartPriority(3);
+        add(vms, "alpha", 4, 1024, true).setAutostartPriority(3); // Ties go by name
+        StubLauncher launcher = new StubLauncher();
+
+        new QemuBootScheduler(launcher, 4, NO_MEMORY_LIMIT).bootAutostartVms(vms.values());
+
+        assertEquals(Arrays.asList("high", "alpha", "middle", "low"), launcher.startOrder);
+    }
+
+    @Test
+    public void cyclesAreSkippedWithTheirDependants() throws Exception {
+        Map<String, QemuVm> vms = new LinkedHashMap<>();
+        add(vms, "a", 1, 512, true, "b");
+        add(vms, "b", 1, 512, true, "a");
+        add(vms, "c", 1, 512, true, "a");
+        add(vms, "d", 1, 512, true);
+        add(vms, "e", 1, 512, true, "missing");
+        StubLauncher launcher = new StubLauncher();
+
+        QemuBootScheduler.Result result = new QemuBootScheduler(launcher, 16, NO_MEMORY_LIMIT)
+            .bootAutostartVms(vms.values());
+
+        assertEquals(Collections.singletonList("d"), result.getStarted());
+        assertEquals("is part of a dependency cycle", result.getSkipped().get("a"));
+        assertEquals("is part of a dependency cycle", result.getSkipped().get("b"));
+        assertTrue(result.getSkipped().get("c"), result.getSkipped().get("c").startsWith("depends on a"));
+        assertEquals("depends on unknown VM missing", result.getSkipped().get("e"));
+        assertEquals(Collections.singletonList("d"), launcher.startOrder);
+    }
+
+    @Test
+    public void failuresSkipTheirDependants() throws Exception {
+        Map<String, QemuVm> vms = new LinkedHashMap<>();
+        add(vms, "db", 1, 512, true);
+        add(vms, "app", 1, 512, true, "db");
+        add(vms, "cache", 1, 512, true);
+        add(vms, "worker", 1, 512, true, "cache");
+        add(vms, "mail", 1, 512, true);
+        StubLauncher launcher = new StubLauncher();
+        launcher.failStart.add("db");
+        launcher.neverReady.add("cache");
+
+        QemuBootScheduler.Result result = new QemuBootScheduler(launcher, 16, NO_MEMORY_LIMIT)
+            .bootAutostartVms(vms.values());
+
+        assertEquals(Collections.singletonList("mail"), result.getStarted());
+        assertEquals("failed to start: qemu-system-x86_64: could not open disk image",
+            result.getSkipped().get("db"));
+        assertEquals("depends on db, which was not started", result.getSkipped().get("app"));
+        assertEquals("did not become ready", result.getSkipped().get("cache"));
+        assertEquals("depends on cache, which was not started", result.getSkipped().get("worker"));
+        assertTrue(!launcher.startOrder.contains("app") && !launcher.startOrder.contains("worker"));
+    }
+
+    @Test
+    public void parallelBootsStayWithinTheCpuBudget() throws Exception {
+        Map<String, QemuVm> vms = new LinkedHashMap<>();
+        for (int i = 0; i < 8; i++) {
+            add(vms, "vm" + i, 2, 512, true);
+        }
+        add(vms, "huge", 12, 512, true).setAutostartPriority(-1);
+        StubLauncher launcher = new StubLauncher();
+
+        QemuBootScheduler.Result result = new QemuBootScheduler(launcher, 4, NO_MEMORY_LIMIT)
+            .bootAutostartVms(vms.values());
+
+        assertEquals(9, result.getStarted().size());
+        assertEquals("two 2-CPU VMs boot at a time", 2, launcher.maxBootingVms);
+        assertEquals("a VM over the budget boots on its own", 12, launcher.maxBootingCpus);
+        assertTrue("the 2-CPU boots overlap", launcher.maxBootingCpusBelow(12) <= 4);
+    }
+
+    @Test
+    public void memoryBudgetSkipsWhatDoesNotFit() throws Exception {
+        Map<String, QemuVm> vms = new LinkedHashMap<>();
+        add(vms, "a", 1, 2048, true);
+        add(vms, "b", 1, 2048, true);
+        add(vms, "c", 1, 2048, true);
+        StubLauncher launcher = new StubLauncher();
+
+        QemuBootScheduler.Result result = new QemuBootScheduler(launcher, 16, 4096).bootAutostartVms(vms.values());
+
+        assertEquals(new HashSet<>(Arrays.asList("a", "b")), new HashSet<>(result.getStarted()));
+        assertEquals("exceeds the memory budget of 4096 MB", result.getSkipped().get("c"));
+    }
+
+    @Test
+    public void failedBootsGiveTheirMemoryBack() throws Exception {
+        Map<String, QemuVm> vms = new LinkedHashMap<>();
+        add(vms, "broken", 1, 4096, true).setAutostartPriority(1);
+        add(vms, "next", 1, 4096, true);
+        StubLauncher launcher = new StubLauncher();
+        launcher.failStart.add("broken");
+
+        QemuBootScheduler.Result result = new QemuBootScheduler(launcher, 1, 4096).bootAutostartVms(vms.values());
+
+        assertEquals(Collections.singletonList("next"), result.getStarted());
+        assertTrue(result.getSkipped().containsKey("broken"));
+    }
+
+    @Test
+    public void runningVmsCountAsReady() throws Exception {
+        Map<String, QemuVm> vms = new LinkedHashMap<>();
+        add(vms, "db", 1, 512, false).setStatus(QemuVm.VmStatus.RUNNING);
+        add(vms, "app", 1, 512, true, "db");
+        StubLauncher launcher = new StubLauncher();
+
+        QemuBootScheduler.Result result = new QemuBootScheduler(launcher, 16, NO_MEMORY_LIMIT)
+            .bootAutostartVms(vms.values());
+
+        assertEquals(Collections.singletonList("app"), launcher.startOrder);
+        assertEquals(Collections.singletonList("app"), result.getStarted());
+    }
+
+    private static QemuVm add(Map<String, QemuVm> vms, String name, int cpus, int memoryMB, boolean autostart,
+                              String... dependsOn) {
+        QemuVm vm = new QemuVm(name);
+        vm.setCpuCores(cpus);
+        vm.setMemoryMB(memoryMB);
+        vm.setAutostart(autostart);
+        vm.setDependsOn(Arrays.asList(dependsOn));
+        vm.setStatus(QemuVm.VmStatus.STOPPED);
+        vms.put(name, vm);
+        return vm;
+    }
+
+    /**
+     * Boots each VM in BOOT_MS and records the order and the peak concurrency
+     */
+    private static final class StubLauncher implements QemuBootScheduler.Launcher {
+        private static final long BOOT_MS = 50;
+
+        final List<String> startOrder = Collections.synchronizedList(new ArrayList<>());
+        final Set<String> failStart = new HashSet<>();
+        final Set<String> neverReady = new HashSet<>();
+        private final List<Integer> cpuPeaks = new ArrayList<>();
+        private int bootingCpus;
+        private int bootingVms;
+        int maxBootingCpus;
+        int maxBootingVms;
+
+        @Override
+        public void start(QemuVm vm) throws IOException {
+            if (failStart.contains(vm.getName())) {
+                throw new IOException("qemu-system-x86_64: could not open disk image");
+            }
+            startOrder.add(vm.getName());
+            synchronized (this) {
+                bootingCpus += vm.getCpuCores();
+                bootingVms++;
+                maxBootingCpus = Math.max(maxBootingCpus, bootingCpus);
+                maxBootingVms = Math.max(maxBootingVms, bootingVms);
+                cpuPeaks.add(bootingCpus);
+            }
+        }
+
+        @Override
+        public boolean awaitReady(QemuVm vm) throws InterruptedException {
+            Thread.sleep(BOOT_MS);
+            synchronized (this) {
+                bootingCpus -= vm.getCpuCores();
+                bootingVms--;
+            }
+            if (neverReady.contains(vm.getName())) {
+                return false;
+            }
+            vm.setStatus(QemuVm.VmStatus.RUNNING);
+            return true;
+        }
+
+        /**
+         * Largest number of CPUs booting at once, ignoring moments of at least the given size
+         */
+        synchronized int maxBootingCpusBelow(int limit) {
+            int max = 0;
+            for (int cpus : cpuPeaks) {
+                if (cpus < limit) {
+                    max = Math.max(max, cpus);
+                }
+            }
+            return max;
+        }
+    }
+}
@@ -0,0 +1,200 @@
+package com.qemumanager;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * QemuCapacityPlanner on synthetic host profiles, and HostProfile.read on a fake /proc/meminfo
+ */
+public class QemuCapacityPlannerTest {
+    private static final long DISK_FREE_MB = 100 * 1024;
+
+    @Rule
+    public final TemporaryFolder temp = new TemporaryFolder();
+
+    @Test
+    public void readsMeminfo() throws Exception {
+        File proc = temp.newFolder("proc");
+        Files.write(new File(proc, "meminfo").toPath(), String.join("\n",
+            "MemTotal:       32768000 kB",
+            "MemFree:         1024000 kB",
+            "MemAvailable:   20480000 kB",
+            "Active(anon):      12 kB",
+            "HugePages_Total:     512",
+            "HugePages_Free:      256",
+            "Hugepagesize:       2048 kB",
+            "").getBytes(StandardCharsets.UTF_8));
+
+        QemuCapacityPlanner.HostProfile host = QemuCapacityPlanner.HostProfile.read(proc, temp.getRoot());
+
+        assertTrue(host.isMemoryKnown());
+        assertEquals(32000, host.getMemoryTotalMB());
+        assertEquals(20000, host.getMemoryAvailableMB());
+        assertEquals(512, host.getHugePagesTotal());
+        assertEquals(256, host.getHugePagesFree());
+        assertEquals(1024, host.getHugePagePoolMB());
+        assertEquals(Runtime.getRuntime().availableProcessors(), host.getCpus());
+        assertTrue(host.getDiskFreeMB() > 0);
+    }
+
+    @Test
+    public void missingMeminfoLeavesMemoryUnplanned() throws Exception {
+        QemuCapacityPlanner.HostProfile host = QemuCapacityPlanner.HostProfile.read(temp.newFolder("proc"),
+            temp.getRoot());
+        QemuCapacityPlanner planner = new QemuCapacityPlanner(100, 100, 1024, 0);
+
+        assertFalse(host.isMemoryKnown());
+        assertEquals(Long.MAX_VALUE, planner.getMemoryCapacityMB(host));
+        assertNull(planner.check(vm("big", 1, 64 * 1024, false, QemuVm.VmStatus.STOPPED), new ArrayList<>(), host));
+    }
+
+    @Test
+    public void overcommitScalesCapacity() {
+        QemuCapacityPlanner.HostProfile host = host(8, 16384, 16384, 0);
+
+        assertEquals(8, new QemuCapacityPlanner(100, 100, 0, 0).getCpuCapacity(host));
+        assertEquals(32, new QemuCapacityPlanner(400, 100, 0, 0).getCpuCapacity(host));
+        assertEquals(4, new QemuCapacityPlanner(50, 100, 0, 0).getCpuCapacity(host));
+        assertEquals(16384, new QemuCapacityPlanner(100, 100, 0, 0).getMemoryCapacityMB(host));
+        assertEquals(24576, new QemuCapacityPlanner(100, 150, 0, 0).getMemoryCapacityMB(host));
+    }
+
+    @Test
+    public void hostReserveAndHugepagesAreNotCommittable() {
+        // 16 GB with 4 GB of it in hugepages and 2 GB reserved leaves 10 GB, doubled by 200% overcommit
+        QemuCapacityPlanner.HostProfile host = host(8, 16384, 16384, 2048);
+        QemuCapacityPlanner planner = new QemuCapacityPlanner(100, 200, 2048, 0);
+
+        assertEquals(20480, planner.getMemoryCapacityMB(host));
+        assertEquals(0, new QemuCapacityPlanner(100, 100, 20000, 0).getMemoryCapacityMB(host));
+    }
+
+    @Test
+    public void cpuOvercommitLimitsStarts() {
+        QemuCapacityPlanner planner = new QemuCapacityPlanner(200, 100, 0, 0);
+        QemuCapacityPlanner.HostProfile host = host(4, 65536, 65536, 0);
+        List<QemuVm> vms = new ArrayList<>(Arrays.asList(
+            vm("a", 4, 1024, false, QemuVm.VmStatus.RUNNING),
+            vm("b", 2, 1024, false, QemuVm.VmStatus.STARTING)));
+        QemuVm fits = vm("fits", 2, 1024, false, QemuVm.VmStatus.STOPPED);
+        QemuVm tooBig = vm("too-big", 3, 1024, false, QemuVm.VmStatus.STOPPED);
+        vms.add(fits);
+        vms.add(tooBig);
+
+        assertNull(planner.check(fits, vms, host));
+        assertEquals("too-big needs 3 vCPUs but only 2 of 8 are uncommitted (4 host CPUs at 200%)",
+            planner.check(tooBig, vms, host));
+    }
+
+    @Test
+    public void memoryCapacityLimitsStarts() {
+        QemuCapacityPlanner planner = new QemuCapacityPlanner(400, 100, 1024, 0);
+        QemuCapacityPlanner.HostProfile host = host(16, 9216, 9216, 0);
+        QemuVm running = vm("running", 1, 6144, false, QemuVm.VmStatus.RUNNING);
+        QemuVm paused = vm("paused", 1, 1024, false, QemuVm.VmStatus.PAUSED);
+        QemuVm stopped = vm("stopped", 1, 8192, false, QemuVm.VmStatus.STOPPED); // Commits nothing
+        QemuVm candidate = vm("candidate", 1, 2048, false, QemuVm.VmStatus.STOPPED);
+        List<QemuVm> vms = Arrays.asList(running, paused, stopped, candidate);
+
+        assertEquals("candidate needs 2048 MB but only 1024 of 8192 MB are uncommitted",
+            planner.check(candidate, vms, host));
+        candidate.setMemoryMB(1024);
+        assertNull(planner.check(candidate, vms, host));
+    }
+
+    @Test
+    public void availableMemoryCountsWithoutOvercommit() {
+        // Nothing committed by VMs, but other processes leave only 3 GB, 1 GB of it the reserve
+        QemuCapacityPlanner.HostProfile host = host(8, 16384, 3072, 0);
+        QemuVm candidate = vm("candidate", 1, 4096, false, QemuVm.VmStatus.STOPPED);
+        List<QemuVm> vms = Arrays.asList(candidate);
+
+        assertEquals("candidate needs 4096 MB but the host has only 2048 MB available beyond its 1024 MB reserve",
+            new QemuCapacityPlanner(100, 100, 1024, 0).check(candidate, vms, host));
+        assertNull("overcommit trusts the ratio instead", new QemuCapacityPlanner(100, 150, 1024, 0)
+            .check(candidate, vms, host));
+    }
+
+    @Test
+    public void autostartReservationsHoldCapacity() {
+        QemuCapacityPlanner planner = new QemuCapacityPlanner(100, 100, 0, 0);
+        QemuCapacityPlanner.HostProfile host = host(8, 16384, 16384, 0);
+        QemuVm running = vm("running", 2, 4096, false, QemuVm.VmStatus.RUNNING);
+        QemuVm reservedA = vm("reserved-a", 2, 4096, true, QemuVm.VmStatus.STOPPED);
+        QemuVm reservedB = vm("reserved-b", 2, 4096, true, QemuVm.VmStatus.STOPPED);
+        QemuVm manual = vm("manual", 3, 2048, false, QemuVm.VmStatus.STOPPED);
+        List<QemuVm> vms = Arrays.asList(running, reservedA, reservedB, manual);
+
+        // 2 running + 4 reserved leave 2 of the 8 CPUs for a VM without autostart
+        assertEquals("manual needs 3 vCPUs but only 2 of 8 are uncommitted (8 host CPUs at 100%), "
+            + "4 vCPUs being reserved for stopped autostart VMs", planner.check(manual, vms, host));
+        manual.setCpuCores(2);
+        assertNull(planner.check(manual, vms, host));
+        manual.setMemoryMB(8192);
+        assertEquals("manual needs 8192 MB but only 4096 of 16384 MB are uncommitted, "
+            + "8192 MB being reserved for stopped autostart VMs", planner.check(manual, vms, host));
+
+        // An autostart VM starts into its own share rather than competing with the other reservations
+        reservedA.setCpuCores(6);
+        assertNull(planner.check(reservedA, vms, host));
+
+        QemuCapacityPlanner.Usage usage = planner.getUsage(vms);
+        assertEquals(1, usage.getRunningVms());
+        assertEquals(2, usage.getCommittedCpus());
+        assertEquals(4096, usage.getCommittedMemoryMB());
+        assertEquals(8, usage.getReservedCpus());
+        assertEquals(8192, usage.getReservedMemoryMB());
+        assertTrue(planner.describeHeadroom(usage, host).endsWith("Autostart reserves 8 vCPUs, 8.0 GB (overbooked)"));
+    }
+
+    @Test
+    public void diskMinimumIsEnforced() {
+        QemuVm candidate = vm("candidate", 1, 512, false, QemuVm.VmStatus.STOPPED);
+        List<QemuVm> vms = Arrays.asList(candidate);
+        QemuCapacityPlanner.HostProfile host = host(8, 16384, 16384, 0);
+
+        assertNull(new QemuCapacityPlanner(100, 100, 0, DISK_FREE_MB).check(candidate, vms, host));
+        assertEquals("only 102400 MB free on the volume of its disk, 102401 MB required",
+            new QemuCapacityPlanner(100, 100, 0, DISK_FREE_MB + 1).check(candidate, vms, host));
+    }
+
+    @Test
+    public void headroomDescribesTheHost() {
+        QemuCapacityPlanner planner = new QemuCapacityPlanner(200, 100, 1024, 0);
+        QemuCapacityPlanner.HostProfile host = new QemuCapacityPlanner.HostProfile(4, 9216, 8192, 1024, 512, 2048,
+            DISK_FREE_MB);
+        List<QemuVm> vms = Arrays.asList(vm("web", 2, 2048, false, QemuVm.VmStatus.RUNNING));
+
+        assertEquals("1 running | vCPUs 2/8 | Memory 2.0/6.0 GB | Hugepages 512/1024 free | Disk 100.0 GB free",
+            planner.describeHeadroom(planner.getUsage(vms), host));
+    }
+
+    /**
+     * A host with the given CPUs and memory, hugepages of 2 MB and DISK_FREE_MB of disk
+     */
+    private static QemuCapacityPlanner.HostProfile host(int cpus, long totalMB, long availableMB, long hugePages) {
+        return new QemuCapacityPlanner.HostProfile(cpus, totalMB, availableMB, hugePages, hugePages, 2048,
+            DISK_FREE_MB);
+    }
+
+    private static QemuVm vm(String name, int cpus, int memoryMB, boolean autostart, QemuVm.VmStatus status) {
+        QemuVm vm = new QemuVm(name);
+        vm.setCpuCores(cpus);
+        vm.setMemoryMB(memoryMB);
+        vm.setAutostart(autostart);
+        vm.setStatus(status);
+        return vm;
+    }
+}
@@ -0,0 +1,226 @@
+package com.qemumanager;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collections;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * QemuCgroupManager against a fake cgroupfs and /sys in a temporary directory. Unlike
+ * the kernel, the fake does not create interface files in new groups, so the tests
+ * create the ones they expect to be written.
+ */
+public class QemuCgroupManagerTest {
+    private static final String PARENT = "user.slice/user-1000.slice";
+
+    @Rule
+    public final TemporaryFolder temp = new TemporaryFolder();
+
+    @Test
+    public void unavailableWithoutCgroupV2() throws Exception {
+        assertFalse(new QemuCgroupManager(temp.newFolder("cgroup-v1"), temp.getRoot(), PARENT).isAvailable());
+        File root = cgroupRoot();
+        assertFalse("without a parent", new QemuCgroupManager(root, temp.getRoot(), null).isAvailable());
+        assertTrue(new QemuCgroupManager(root, temp.getRoot(), PARENT).isAvailable());
+    }
+
+    @Test
+    public void prepareEnablesControllersOnEveryLevel() throws Exception {
+        File root = cgroupRoot();
+        File parent = new File(root, PARENT);
+        assertTrue(parent.mkdirs());
+        write(new File(parent, "cgroup.controllers"), "cpuset cpu io memory pids");
+        File group = new File(parent, "qemu-manager");
+        assertTrue(group.mkdir());
+        write(new File(group, "cgroup.controllers"), "cpu memory pids"); // No io delegated further down
+        QemuCgroupManager manager = new QemuCgroupManager(root, temp.newFolder("sys"), PARENT);
+        QemuVm vm = new QemuVm("web server");
+
+        File procs = manager.prepare(vm);
+
+        assertEquals("+cpu +memory +io", read(new File(parent, "cgroup.subtree_control")));
+        assertEquals("+cpu +memory", read(new File(group, "cgroup.subtree_control")));
+        assertEquals(new File(manager.getVmDirectory(vm), "cgroup.procs"), procs);
+        assertTrue(manager.getVmDirectory(vm).isDirectory());
+        assertEquals(group, manager.getGroupDirectory());
+    }
+
+    @Test
+    public void limitsAreWritten() throws Exception {
+        QemuCgroupManager manager = new QemuCgroupManager(cgroupRoot(), temp.newFolder("sys"), PARENT);
+        QemuVm vm = new QemuVm("db");
+        File directory = vmGroup(manager, vm, "cpu.weight", "cpu.max", "memory.max", "memory.high");
+        vm.setCpuWeight(500);
+        vm.setCpuLimitPercent(150);
+        vm.setMemoryLimitMB(2048);
+        vm.setMemoryHighMB(1536);
+
+        manager.applyLimits(vm);
+
+        assertEquals("500", read(new File(directory, "cpu.weight")));
+        assertEquals("150000 100000", read(new File(directory, "cpu.max")));
+        assertEquals(String.valueOf(2048L << 20), read(new File(directory, "memory.max")));
+        assertEquals(String.valueOf(1536L << 20), read(new File(directory, "memory.high")));
+    }
+
+    @Test
+    public void unsetLimitsAreLifted() throws Exception {
+        QemuCgroupManager manager = new QemuCgroupManager(cgroupRoot(), temp.newFolder("sys"), PARENT);
+        QemuVm vm = new QemuVm("db");
+        File directory = vmGroup(manager, vm, "cpu.weight", "cpu.max", "memory.max", "memory.high");
+
+        manager.applyLimits(vm);
+
+        assertEquals("100", read(new File(directory, "cpu.weight")));
+        assertEquals("max 100000", read(new File(directory, "cpu.max")));
+        assertEquals("max", read(new File(directory, "memory.max")));
+        assertEquals("max", read(new File(directory, "memory.high")));
+    }
+
+    @Test
+    public void ioLimitsGoToTheWholeDiskOfAPartition() throws Exception {
+        File disk = temp.newFile("disk.qcow2");
+        String device = deviceOf(disk);
+        File sys = temp.newFolder("sys");
+        // /sys/dev/block/<partition> links to .../block/vdz/vdz1, whose parent holds the disk's numbers
+        File wholeDisk = new File(sys, "devices/virtual/block/vdz");
+        File partition = new File(wholeDisk, "vdz1");
+        assertTrue(partition.mkdirs());
+        write(new File(partition, "partition"), "1");
+        write(new File(wholeDisk, "dev"), "252:0");
+        File links = new File(sys, "dev/block");
+        assertTrue(links.mkdirs());
+        Files.createSymbolicLink(new File(links, device).toPath(), partition.toPath());
+
+        QemuCgroupManager manager = new QemuCgroupManager(cgroupRoot(), sys, PARENT);
+        QemuVm vm = new QemuVm("db");
+        vm.setDiskPath(disk.getPath());
+        vm.setCdromPath(disk.getPath()); // Same disk, one io.max line
+        File directory = vmGroup(manager, vm, "io.max");
+        vm.setIoReadMBps(100);
+        vm.setIoWriteIops(500);
+
+        assertEquals(Collections.singleton("252:0"), manager.getDiskDevices(vm));
+        manager.applyLimits(vm);
+
+        assertEquals("252:0 rbps=" + (100L << 20) + " wbps=max riops=max wiops=500",
+            read(new File(directory, "io.max")));
+    }
+
+    @Test
+    public void wholeDisksAndNonBlockDevices() throws Exception {
+        File sys = temp.newFolder("sys");
+        File disk = new File(sys, "devices/pci0000:00/block/nvme0n1");
+        assertTrue(disk.mkdirs());
+        File links = new File(sys, "dev/block");
+        assertTrue(links.mkdirs());
+        Files.createSymbolicLink(new File(links, "259:0").toPath(), disk.toPath());
+        QemuCgroupManager manager = new QemuCgroupManager(cgroupRoot(), sys, PARENT);
+
+        assertEquals("259:0", manager.toWholeDisk("259:0"));
+        assertNull("tmpfs and NFS have no block device", manager.toWholeDisk("0:52"));
+    }
+
+    @Test
+    public void statsAreParsed() throws Exception {
+        QemuCgroupManager manager = new QemuCgroupManager(cgroupRoot(), temp.newFolder("sys"), PARENT);
+        QemuVm vm = new QemuVm("db");
+        assertNull("no group yet", manager.readStats(vm));
+        File directory = vmGroup(manager, vm);
+        write(new File(directory, "cpu.stat"), String.join("\n",
+            "usage_usec 12345678",
+            "user_usec 10000000",
+            "system_usec 2345678",
+            "nr_periods 50",
+            "nr_throttled 7",
+            "throttled_usec 65432"));
+        write(new File(directory, "io.stat"), String.join("\n",
+            "252:0 rbytes=1048576 wbytes=2097152 rios=10 wios=20 dbytes=0 dios=0",
+            "259:0 rbytes=4096 wbytes=0 rios=1 wios=0 dbytes=0 dios=0"));
+        write(new File(directory, "memory.current"), "536870912");
+
+        QemuCgroupManager.Stats stats = manager.readStats(vm);
+
+        assertEquals(12345678, stats.getCpuUsageUs());
+        assertEquals(65432, stats.getCpuThrottledUs());
+        assertEquals(536870912, stats.getMemoryCurrentBytes());
+        assertEquals(1048576 + 4096, stats.getIoReadBytes());
+        assertEquals(2097152, stats.getIoWriteBytes());
+        assertEquals(11, stats.getIoReads());
+        assertEquals(20, stats.getIoWrites());
+    }
+
+    @Test
+    public void missingStatFilesReadAsZero() throws Exception {
+        QemuCgroupManager manager = new QemuCgroupManager(cgroupRoot(), temp.newFolder("sys"), PARENT);
+        QemuVm vm = new QemuVm("db");
+        vmGroup(manager, vm);
+
+        QemuCgroupManager.Stats stats = manager.readStats(vm);
+
+        assertEquals(0, stats.getCpuUsageUs());
+        assertEquals(0, stats.getMemoryCurrentBytes());
+        assertEquals(0, stats.getIoReadBytes());
+    }
+
+    @Test
+    public void ownCgroupParent() throws Exception {
+        File self = temp.newFile("cgroup");
+        write(self, "0::/user.slice/user-1000.slice/session-2.scope");
+        assertEquals("/" + PARENT, QemuCgroupManager.getParentOfOwnCgroup(self));
+        write(self, "12:memory:/user.slice\n1:name=systemd:/user.slice");
+        assertNull("cgroup v1 only", QemuCgroupManager.getParentOfOwnCgroup(self));
+    }
+
+    private File cgroupRoot() throws IOException {
+        File root = temp.newFolder("cgroup");
+        write(new File(root, "cgroup.controllers"), "cpuset cpu io memory hugetlb pids");
+        return root;
+    }
+
+    /**
+     * Creates the VM's group with the given interface files, as the kernel would on mkdir
+     */
+    private static File vmGroup(QemuCgroupManager manager, QemuVm vm, String... files) throws IOException {
+        File directory = manager.getVmDirectory(vm);
+        assertTrue(directory.mkdirs());
+        for (String file : files) {
+            assertTrue(new File(directory, file).createNewFile());
+        }
+        return directory;
+    }
+
+    /**
+     * MAJ:MIN of the device holding the file, decoded the way QemuCgroupManager does
+     */
+    private static String deviceOf(File file) throws IOException {
+        long dev;
+        try {
+            dev = ((Number) Files.getAttribute(file.toPath(), "unix:dev")).longValue();
+        } catch (UnsupportedOperationException e) {
+            assumeTrue("needs the unix file attribute view", false);
+            return null;
+        }
+        long major = ((dev >>> 8) & 0xfff) | ((dev >>> 32) & ~0xfffL);
+        long minor = (dev & 0xff) | ((dev >>> 12) & ~0xffL);
+        return major + ":" + minor;
+    }
+
+    private static void write(File file, String content) throws IOException {
+        Files.write(file.toPath(), (content + "\n").getBytes(StandardCharsets.US_ASCII));
+    }
+
+    private static String read(File file) throws IOException {
+        return new String(Files.readAllBytes(file.toPath()), StandardCharsets.US_ASCII).trim();
+    }
+}
@@ -0,0 +1,89 @@
+package com.qemumanager;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import org.junit.Test;
+
+/**
+ * QemuDiskThrottle limits, and changing them on a running VM through a QemuQmpStub monitor
+ */
+public class QemuDiskThrottleTest {
+
+    @Test
+    public void storedFormRoundTrips() {
+        QemuDiskThrottle throttle = new QemuDiskThrottle(500, 2000, 100, 200, 10);
+
+        assertEquals("iops=500,iops-max=2000,mbps=100,mbps-max=200,burst=10", throttle.format());
+        assertEquals(throttle.format(), QemuDiskThrottle.parse(throttle.format()).format());
+        assertEquals("iops=300,iops-max=0,mbps=0,mbps-max=0,burst=0",
+            QemuDiskThrottle.parse("iops=300,mbps=fast,colour=red,burst").format());
+        assertTrue(QemuDiskThrottle.parse(null).isUnlimited());
+    }
+
+    @Test
+    public void limitsQemuRejectsAreCaught() {
+        assertNull(new QemuDiskThrottle(500, 2000, 100, 200, 10).validate());
+        assertNull(QemuDiskThrottle.NONE.validate());
+        assertEquals("limits cannot be negative", new QemuDiskThrottle(-1, 0, 0, 0, 0).validate());
+        assertEquals("burst IOPS need a sustained IOPS limit no higher than the burst",
+            new QemuDiskThrottle(500, 100, 0, 0, 0).validate());
+        assertEquals("burst MB/s need a sustained MB/s limit no higher than the burst",
+            new QemuDiskThrottle(0, 0, 0, 200, 0).validate());
+        assertEquals("a burst length needs a burst rate", new QemuDiskThrottle(500, 0, 0, 0, 10).validate());
+    }
+
+    @Test
+    public void limitsGoToTheThrottleGroupObject() throws Exception {
+        QemuVm vm = new QemuVm("web");
+        vm.setDiskThrottle(new QemuDiskThrottle(100, 0, 10, 0, 0));
+        try (QemuQmpStub qemu = QemuQmpStub.monitor().reply("qom-set", Collections.emptyMap())) {
+            vm.setQmpPort(qemu.getPort());
+            try {
+                QemuMonitorManager.getInstance().setDiskThrottle(vm, new QemuDiskThrottle(500, 2000, 100, 200, 10));
+            } finally {
+                QemuMonitorManager.getInstance().disconnect(vm);
+            }
+
+            // qom-set rather than block_set_io_throttle, whose legacy limits would stack on the filter
+            assertEquals(List.of("qom-set"), qemu.getCommands());
+            Map<String, Object> arguments = qemu.getArguments("qom-set");
+            assertEquals("/objects/throttle-disk0", arguments.get("path"));
+            assertEquals("limits", arguments.get("property"));
+            assertEquals(QemuJson.object(
+                "iops-total", 500L,
+                "iops-total-max", 2000L,
+                "iops-total-max-length", 10L,
+                "bps-total", 104857600L,
+                "bps-total-max", 209715200L,
+                "bps-total-max-length", 10L), arguments.get("value"));
+        }
+    }
+
+    @Test
+    public void liftedLimitsAreSentAsZero() throws Exception {
+        QemuVm vm = new QemuVm("web");
+        vm.setDiskThrottle(new QemuDiskThrottle(100, 0, 0, 0, 0));
+        try (QemuQmpStub qemu = QemuQmpStub.monitor().reply("qom-set", Collections.emptyMap())) {
+            vm.setQmpPort(qemu.getPort());
+            try {
+                QemuMonitorManager.getInstance().setDiskThrottle(vm, QemuDiskThrottle.NONE);
+            } finally {
+                QemuMonitorManager.getInstance().disconnect(vm);
+            }
+
+            // QEMU keeps any limit left out, so zero is spelled out; a burst length of 0 is invalid
+            assertEquals(QemuJson.object(
+                "iops-total", 0L,
+                "iops-total-max", 0L,
+                "iops-total-max-length", 1L,
+                "bps-total", 0L,
+                "bps-total-max", 0L,
+                "bps-total-max-length", 1L), qemu.getArguments("qom-set").get("value"));
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package com.qemumanager;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+/**
+ * Parsing of event journal lines, including the damaged ones query() has to skip
+ */
+public class QemuEventJournalTest {
+
+    @Test
+    public void eventsRoundTrip() {
+        QemuEventJournal.Event event = new QemuEventJournal.Event(1700000000000L, 7, 1700000001234L, 1234000,
+            QemuEventJournal.Type.VM_STARTED, "web", "alice", 850, "pid 4242");
+
+        QemuEventJournal.Event parsed = QemuEventJournal.Event.fromJson(event.toJson());
+
+        assertEquals(1700000000000L, parsed.getSession());
+        assertEquals(7, parsed.getSequence());
+        assertEquals(1700000001234L, parsed.getTimeMs());
+        assertEquals(1234000, parsed.getMonotonicUs());
+        assertEquals(QemuEventJournal.Type.VM_STARTED, parsed.getType());
+        assertEquals("web", parsed.getSubject());
+        assertEquals("alice", parsed.getActor());
+        assertEquals(850, parsed.getDurationMs());
+        assertEquals("pid 4242", parsed.getDetail());
+    }
+
+    @Test
+    public void damagedLinesAreRejectedAsIllegalArguments() {
+        String[] lines = {
+            "{\"session\":1,\"seq\":2,\"subject\":\"web\"}", // No type
+            "{\"session\":1,\"seq\":2,\"type\":\"VM_TELEPORTED\"}", // Type from a newer version
+            "{\"session\":1,\"seq\":2,\"type\":\"VM_STA", // Torn by a crash
+            "[\"VM_STARTED\"]",
+            ""
+        };
+        for (String line : lines) {
+            try {
+                QemuEventJournal.Event.fromJson(line);
+                fail("parsed " + line);
+            } catch (IllegalArgumentException e) {
+                // What query() skips
+            }
+        }
+    }
+}
@@ -0,0 +1,203 @@
+package com.qemumanager;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+/**
+ * QemuGuestAgentClient and QemuGuestAgentManager against a QemuQmpStub agent
+ */
+public class QemuGuestAgentClientTest {
+    private static final int TIMEOUT_MS = 5000;
+
+    @Test
+    public void pingSyncsFirst() throws Exception {
+        try (QemuQmpStub agent = QemuQmpStub.agent().reply("guest-ping", null);
+             QemuGuestAgentClient client = connect(agent)) {
+            assertTrue(client.ping(TIMEOUT_MS));
+            assertTrue(client.ping(TIMEOUT_MS));
+            assertEquals(List.of("guest-ping", "guest-ping"), agent.getCommands());
+        }
+    }
+
+    @Test
+    public void silentAgentDoesNotAnswerPing() throws Exception {
+        try (ServerSocket server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            CountDownLatch done = new CountDownLatch(1);
+            Thread thread = new Thread(() -> {
+                try {
+                    Socket socket = server.accept();
+                    try {
+                        done.await(); // No agent in the guest: the channel is open but nobody answers
+                    } finally {
+                        socket.close();
+                    }
+                } catch (IOException | InterruptedException e) {
+                    // Done
+                }
+            });
+            thread.setDaemon(true);
+            thread.start();
+            try (QemuGuestAgentClient client = QemuGuestAgentClient.connect(
+                    server.getInetAddress().getHostAddress(), server.getLocalPort(), TIMEOUT_MS)) {
+                long start = System.nanoTime();
+                assertFalse(client.ping(300));
+                assertTrue("ping must give up after its timeout",
+                    System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(TIMEOUT_MS));
+            } finally {
+                done.countDown();
+            }
+        }
+    }
+
+    @Test
+    public void lateRepliesAreDiscardedByTheNextSync() throws Exception {
+        try (QemuQmpStub agent = QemuQmpStub.agent()
+                .on("guest-fsfreeze-freeze", arguments -> {
+                    Thread.sleep(500); // Longer than the client waits
+                    return 2L;
+                })
+                .reply("guest-fsfreeze-thaw", 3L);
+             QemuGuestAgentClient client = connect(agent)) {
+            try {
+                client.freezeFilesystems(100);
+                fail("the freeze must time out");
+            } catch (SocketTimeoutException expected) {
+                // The reply arrives later
+            }
+            Thread.sleep(700);
+            assertEquals("the late freeze reply must not be taken for the thaw reply", 3,
+                client.thawFilesystems(TIMEOUT_MS));
+        }
+    }
+
+    @Test
+    public void shutdownExpectsNoReply() throws Exception {
+        try (QemuQmpStub agent = QemuQmpStub.agent()
+                .on("guest-shutdown", arguments -> QemuQmpStub.NO_REPLY)
+                .reply("guest-ping", null);
+             QemuGuestAgentClient client = connect(agent)) {
+            client.shutdown();
+            assertTrue(client.ping(TIMEOUT_MS));
+            assertEquals(List.of("guest-shutdown", "guest-ping"), agent.getCommands());
+            assertEquals("powerdown", QemuJson.getString(agent.getArguments("guest-shutdown"), "mode"));
+        }
+    }
+
+    @Test
+    public void errorsCarryTheirClass() throws Exception {
+        try (QemuQmpStub agent = QemuQmpStub.agent()
+                .fail("guest-fsfreeze-freeze", "GenericError", "failed to freeze /: Device or resource busy");
+             QemuGuestAgentClient client = connect(agent)) {
+            try {
+                client.freezeFilesystems(TIMEOUT_MS);
+                fail("the freeze must fail");
+            } catch (QemuMonitorClient.QmpException e) {
+                assertEquals("GenericError", e.getErrorClass());
+                assertTrue(e.getMessage().contains("Device or resource busy"));
+            }
+        }
+    }
+
+    @Test
+    public void parsesNetworkInterfaces() throws Exception {
+        try (QemuQmpStub agent = QemuQmpStub.agent().reply("guest-network-get-interfaces", List.of(
+                QemuJson.object("name", "lo", "ip-addresses", List.of(
+                    QemuJson.object("ip-address-type", "ipv4", "ip-address", "127.0.0.1", "prefix", 8L))),
+                QemuJson.object("name", "eth0", "hardware-address", "52:54:00:12:34:56", "ip-addresses", List.of(
+                    QemuJson.object("ip-address-type", "ipv4", "ip-address", "10.0.2.15", "prefix", 24L),
+                    QemuJson.object("ip-address-type", "ipv6", "ip-address", "fe80::1", "prefix", 64L)))));
+             QemuGuestAgentClient client = connect(agent)) {
+            List<QemuGuestAgentClient.GuestInterface> interfaces = client.getNetworkInterfaces(TIMEOUT_MS);
+            assertEquals(2, interfaces.size());
+            assertEquals("eth0", interfaces.get(1).getName());
+            assertEquals("52:54:00:12:34:56", interfaces.get(1).getHardwareAddress());
+            assertEquals(List.of("10.0.2.15/24", "fe80::1/64"), interfaces.get(1).getIpAddresses());
+        }
+    }
+
+    @Test
+    public void closedChannelFails() throws Exception {
+        try (QemuQmpStub agent = QemuQmpStub.agent().reply("guest-ping", null);
+             QemuGuestAgentClient client = connect(agent)) {
+            assertTrue(client.ping(TIMEOUT_MS));
+            agent.disconnect();
+            try {
+                client.ping(TIMEOUT_MS);
+                fail("the channel is closed");
+            } catch (IOException expected) {
+                // EOF, or a reset if the close raced with the request
+            }
+        }
+    }
+
+    @Test
+    public void readyOnceTheAgentAnswers() throws Exception {
+        QemuVm vm = new QemuVm("agent-ready");
+        try (QemuQmpStub agent = QemuQmpStub.agent().reply("guest-ping", null)) {
+            vm.setGuestAgentPort(agent.getPort());
+            vm.setProcessHandle(ProcessHandle.current());
+            assertTrue(QemuGuestAgentManager.getInstance().waitUntilReady(vm, TIMEOUT_MS));
+        } finally {
+            QemuGuestAgentManager.getInstance().disconnect(vm);
+        }
+    }
+
+    @Test
+    public void withoutAnAgentReadyMeansRunning() throws Exception {
+        QemuVm vm = new QemuVm("agent-none");
+        try (QemuQmpStub qemu = QemuQmpStub.monitor()
+                .reply("query-status", QemuJson.object("running", true, "status", "running"))) {
+            vm.setGuestAgentPort(0);
+            vm.setQmpPort(qemu.getPort());
+            vm.setProcessHandle(ProcessHandle.current());
+            assertTrue(QemuGuestAgentManager.getInstance().waitUntilReady(vm, TIMEOUT_MS));
+            assertEquals(List.of("query-status"), qemu.getCommands());
+        } finally {
+            QemuMonitorManager.getInstance().disconnect(vm);
+        }
+    }
+
+    @Test
+    public void deadProcessIsNeverReady() throws Exception {
+        QemuVm vm = new QemuVm("agent-dead");
+        vm.setProcessHandle(null);
+        assertFalse(QemuGuestAgentManager.getInstance().waitUntilReady(vm, TIMEOUT_MS));
+    }
+
+    @Test
+    public void filesystemsAreThawedWhenTheActionFails() throws Exception {
+        QemuVm vm = new QemuVm("agent-freeze");
+        try (QemuQmpStub agent = QemuQmpStub.agent()
+                .reply("guest-fsfreeze-freeze", 2L)
+                .reply("guest-fsfreeze-thaw", 2L)) {
+            vm.setGuestAgentPort(agent.getPort());
+            try {
+                QemuGuestAgentManager.getInstance().withFrozenFilesystems(vm, () -> {
+                    throw new IOException("snapshot failed");
+                });
+                fail("the action's failure must come through");
+            } catch (IOException e) {
+                assertEquals("snapshot failed", e.getMessage());
+            }
+            assertEquals(List.of("guest-fsfreeze-freeze", "guest-fsfreeze-thaw"), agent.getCommands());
+        } finally {
+            QemuGuestAgentManager.getInstance().disconnect(vm);
+        }
+    }
+
+    private static QemuGuestAgentClient connect(QemuQmpStub agent) throws IOException {
+        return QemuGuestAgentClient.connect(agent.getHost(), agent.getPort(), TIMEOUT_MS);
+    }
+}
@@ -0,0 +1,150 @@
+package com.qemumanager;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.stream.Stream;
+import org.junit.Test;
+
+/**
+ * Hashing throughput of QemuImageStore over five sparse 2 GB images, an eighth of
+ * each written, with both chunkings on all cores and on one. The images are a base,
+ * a byte-identical clone, a copy with every tenth chunk rewritten, a copy whose data
+ * moved by a few bytes and an unrelated one, so the report must group the first four
+ * (the shifted one only with content-defined chunks) and leave the last alone.
+ */
+public class QemuImageStoreBenchmark {
+    private static final long IMAGE_BYTES = 2L << 30;
+    private static final int REGIONS = 8; // Written regions per image, one at the start of each eighth
+    private static final int DATA_SHARE = 8; // An eighth of every region is written
+    private static final int PATCH_EVERY = 10; // Chunks between two rewritten ones in the patched copy
+    private static final int SHIFT = 512;
+    private static final int CHUNK = QemuImageStore.FIXED_CHUNK_SIZE;
+
+    @Test
+    public void hashingThroughput() throws Exception {
+        Path dir = Files.createTempDirectory("image-store-benchmark");
+        try {
+            long regionBytes = Math.max(16L * CHUNK, QemuBenchmark.scaled(IMAGE_BYTES) / REGIONS / CHUNK * CHUNK);
+            int dataBytes = (int) Math.max(CHUNK, regionBytes / DATA_SHARE / CHUNK * CHUNK);
+            long imageBytes = regionBytes * REGIONS;
+            File base = image(dir, "base.img", imageBytes, regionBytes, dataBytes, 1, 0, false);
+            File clone = image(dir, "clone.img", imageBytes, regionBytes, dataBytes, 1, 0, false);
+            File patched = image(dir, "patched.img", imageBytes, regionBytes, dataBytes, 1, 0, true);
+            File shifted = image(dir, "shifted.img", imageBytes, regionBytes, dataBytes, 1, SHIFT, false);
+            File other = image(dir, "other.img", imageBytes, regionBytes, dataBytes, 2, 0, false);
+            List<File> files = List.of(base, clone, patched, shifted, other);
+            long totalBytes = imageBytes * files.size();
+            long writtenBytes = (long) dataBytes * REGIONS * files.size();
+            QemuBenchmark.report(String.format(Locale.ROOT, "%d images of %d MB, %d MB written",
+                files.size(), imageBytes >> 20, writtenBytes >> 20));
+
+            QemuImageStore.Report[] result = new QemuImageStore.Report[1];
+            for (QemuImageStore.Chunking chunking : QemuImageStore.Chunking.values()) {
+                QemuImageStore store = new QemuImageStore(chunking);
+                QemuBenchmark.Result parallel = QemuBenchmark.measure(chunking + ", all cores", 1, 3,
+                    () -> result[0] = store.analyze(files, null)).print();
+                QemuBenchmark.report(chunking + ": " + QemuBenchmark.throughput(totalBytes, parallel.p50()));
+                QemuImageStore store1 = new QemuImageStore(chunking, 1);
+                QemuBenchmark.Result single = QemuBenchmark.measure(chunking + ", 1 thread", 0, 1,
+                    () -> store1.analyze(files, null)).print();
+                QemuBenchmark.report(String.format(Locale.ROOT, "%s: %s on one thread, %.1fx on all",
+                    chunking, QemuBenchmark.throughput(totalBytes, single.p50()),
+                    (double) single.p50() / parallel.p50()));
+
+                QemuImageStore.Report report = result[0];
+                assertEquals(totalBytes, report.getTotalBytes());
+                QemuImageStore.Group group = groupOf(report, base);
+                assertNotNull(chunking + " groups the base", group);
+                assertTrue(chunking + " groups the clone", contains(group, clone));
+                assertTrue(chunking + " groups the patched copy", contains(group, patched));
+                assertNull(chunking + " leaves the unrelated image alone", groupOf(report, other));
+                if (chunking == QemuImageStore.Chunking.FIXED) {
+                    assertNull("shifted data shares no fixed chunks", groupOf(report, shifted));
+                    // Random data never hashes as zero, and chunks line up with the regions
+                    assertEquals(totalBytes - writtenBytes, report.getZeroBytes());
+                    long patchedBytes = (long) patchedChunks(dataBytes) * CHUNK * REGIONS;
+                    assertEquals(3L * dataBytes * REGIONS + patchedBytes, report.getUniqueBytes());
+                } else {
+                    assertTrue("content-defined chunks find the shifted data", contains(group, shifted));
+                }
+            }
+        } finally {
+            try (Stream<Path> paths = Files.walk(dir)) {
+                paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+            }
+        }
+    }
+
+    /**
+     * A sparse image with random data at the start of every region, the same for the same
+     * seed. shift moves the data back by that many other bytes, patch rewrites every
+     * PATCH_EVERY-th chunk of it.
+     */
+    private static File image(Path dir, String name, long imageBytes, long regionBytes, int dataBytes, long seed,
+                              int shift, boolean patch) throws Exception {
+        File file = dir.resolve(name).toFile();
+        byte[] data = new byte[dataBytes];
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(imageBytes);
+            FileChannel channel = raf.getChannel();
+            for (int region = 0; region < REGIONS; region++) {
+                new Random(seed * 1_000_003L + region).nextBytes(data);
+                if (shift > 0) {
+                    System.arraycopy(data, 0, data, shift, dataBytes - shift);
+                    byte[] prefix = new byte[shift];
+                    new Random(-seed - region).nextBytes(prefix);
+                    System.arraycopy(prefix, 0, data, 0, shift);
+                }
+                if (patch) {
+                    Random patches = new Random(-1_000_003L * seed - region);
+                    byte[] chunk = new byte[CHUNK];
+                    for (int i = 0; i < dataBytes / CHUNK; i += PATCH_EVERY) {
+                        patches.nextBytes(chunk);
+                        System.arraycopy(chunk, 0, data, i * CHUNK, CHUNK);
+                    }
+                }
+                ByteBuffer buffer = ByteBuffer.wrap(data);
+                long position = region * regionBytes;
+                while (buffer.hasRemaining()) {
+                    position += channel.write(buffer, position);
+                }
+            }
+        }
+        return file;
+    }
+
+    private static int patchedChunks(int dataBytes) {
+        return (dataBytes / CHUNK + PATCH_EVERY - 1) / PATCH_EVERY;
+    }
+
+    private static QemuImageStore.Group groupOf(QemuImageStore.Report report, File file) {
+        for (QemuImageStore.Group group : report.getGroups()) {
+            if (contains(group, file)) {
+                return group;
+            }
+        }
+        return null;
+    }
+
+    private static boolean contains(QemuImageStore.Group group, File file) {
+        List<File> files = new ArrayList<>();
+        for (QemuImageStore.ImageDigest image : group.getImages()) {
+            files.add(image.getFile());
+        }
+        return files.contains(file);
+    }
+}
@@ -0,0 +1,204 @@
+package com.qemumanager;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.stream.Stream;
+import org.junit.Test;
+
+/**
+ * Indexing throughput of QemuLogIndex over 1 GB of synthetic serial console
+ * output in 100 MB segments, fed the way QemuLogAppender feeds it, then the
+ * latency of term, phrase and time-range queries against the result.
+ */
+public class QemuLogIndexBenchmark {
+    private static final long LOG_BYTES = 1L << 30;
+    private static final long SEGMENT_BYTES = 100L << 20;
+    private static final int BATCH_BYTES = 64 * 1024; // The appender's write batch
+    private static final long BATCH_MS = 100; // Log time that passes per batch
+    private static final long START_MS = 1_700_000_000_000L;
+    private static final int RARE_EVERY = 50_000; // Lines between two occurrences of the rare marker
+    private static final int LIMIT = 100;
+    private static final long QUERY_BUDGET_NS = 250_000_000L;
+
+    private static final String[] WORDS = {
+        "kernel", "systemd", "eth0", "link", "up", "down", "mounted", "filesystem", "ext4", "started", "stopped",
+        "service", "network", "dhcp", "lease", "acquired", "renewed", "cpu", "memory", "usb", "device", "attached",
+        "detached", "virtio", "blk", "net", "console", "login", "session", "opened", "closed", "user", "root",
+        "cron", "job", "completed", "warning", "error", "timeout", "retrying", "audit", "apparmor", "denied",
+        "clocksource", "tsc", "watchdog", "rcu", "stall", "oom", "killer", "invoked", "journal", "rotated"
+    };
+
+    @Test
+    public void indexingThroughputAndQueryLatency() throws Exception {
+        Path dir = Files.createTempDirectory("log-index-benchmark");
+        try {
+            long logBytes = QemuBenchmark.scaled(LOG_BYTES);
+            File logDirectory = dir.toFile();
+            QemuLogIndex index = QemuLogIndex.open(logDirectory, "serial");
+            long[] written = write(index, logDirectory, logBytes);
+            long lines = written[0];
+            long indexNanos = written[1];
+            long rareLines = written[2];
+            long endMs = written[3];
+            QemuBenchmark.report(String.format(Locale.ROOT, "indexed %d MB (%d lines) in %s: %s",
+                logBytes >> 20, lines, QemuBenchmark.format(indexNanos),
+                QemuBenchmark.throughput(logBytes, indexNanos)));
+            long indexBytes = sizeOf(new File(logDirectory, "serial.index"));
+            QemuBenchmark.report(String.format(Locale.ROOT, "index on disk: %d MB (%.0f%% of the log)",
+                indexBytes >> 20, 100.0 * indexBytes / logBytes));
+
+            QemuLogIndex.Query common = QemuLogIndex.Query.parse("link up");
+            QemuLogIndex.Query rare = QemuLogIndex.Query.parse("panic_marker");
+            QemuLogIndex.Query phrase = QemuLogIndex.Query.parse("\"oom killer invoked\"");
+            int[] found = new int[1];
+            QemuBenchmark.Result term = QemuBenchmark.measure("term query, " + LIMIT + " hits", 5, 50,
+                () -> found[0] = index.search(common, 0, Long.MAX_VALUE, LIMIT).size()).print();
+            assertEquals(LIMIT, found[0]);
+            QemuBenchmark.measure("rare term query, all hits", 5, 50,
+                () -> found[0] = index.search(rare, 0, Long.MAX_VALUE, Integer.MAX_VALUE).size()).print();
+            assertEquals(rareLines, found[0]);
+            QemuBenchmark.Result phrases = QemuBenchmark.measure("phrase query, " + LIMIT + " hits", 5, 50,
+                () -> found[0] = index.search(phrase, 0, Long.MAX_VALUE, LIMIT).size()).print();
+            assertEquals(LIMIT, found[0]);
+            // A minute in the middle of the log
+            long middle = START_MS + (endMs - START_MS) / 2;
+            List<QemuLogIndex.Hit> inRange = index.search(common, middle, middle + 60_000, LIMIT);
+            QemuBenchmark.Result range = QemuBenchmark.measure("time-range query, " + LIMIT + " hits", 5, 50,
+                () -> found[0] = index.search(common, middle, middle + 60_000, LIMIT).size()).print();
+            assertTrue(found[0] > 0);
+            for (QemuLogIndex.Hit hit : inRange) {
+                assertTrue("hits must fall in the range", hit.getTimeMs() >= middle && hit.getTimeMs() <= middle + 60_000);
+            }
+            assertTrue("term queries must stay interactive", term.p50() < QUERY_BUDGET_NS);
+            assertTrue("phrase queries must stay interactive", phrases.p50() < QUERY_BUDGET_NS);
+            assertTrue("time-range queries must stay interactive", range.p50() < QUERY_BUDGET_NS);
+        } finally {
+            try (Stream<Path> files = Files.walk(dir)) {
+                files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+            }
+        }
+    }
+
+    /**
+     * Writes the log in batches, rotating every SEGMENT_BYTES, and hands each batch to the
+     * index as the appender does. Returns lines, nanoseconds spent in the index, lines with
+     * the rare marker and the log time of the last batch.
+     */
+    private static long[] write(QemuLogIndex index, File logDirectory, long logBytes) throws Exception {
+        Random random = new Random(42);
+        ByteBuffer batch = ByteBuffer.allocate(BATCH_BYTES);
+        byte[] pending = null;
+        int pendingOffset = 0;
+        long lines = 0;
+        long rareLines = 0;
+        long indexNanos = 0;
+        long timeMs = START_MS;
+        long total = 0;
+        int rotations = 0;
+        File active = new File(logDirectory, "serial.log");
+        FileChannel channel = FileChannel.open(active.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        long start = System.nanoTime();
+        index.segmentOpened(0);
+        indexNanos += System.nanoTime() - start;
+        long segmentBytes = 0;
+        try {
+            while (total < logBytes) {
+                // Fill the batch with whole lines and the start of the next, as a stream would arrive
+                while (batch.hasRemaining()) {
+                    if (pending == null) {
+                        boolean isRare = ++lines % RARE_EVERY == 0;
+                        rareLines += isRare ? 1 : 0;
+                        pending = line(random, timeMs, isRare);
+                        pendingOffset = 0;
+                    }
+                    int n = Math.min(batch.remaining(), pending.length - pendingOffset);
+                    batch.put(pending, pendingOffset, n);
+                    pendingOffset += n;
+                    if (pendingOffset == pending.length) {
+                        pending = null;
+                    }
+                }
+                batch.flip();
+                while (batch.hasRemaining()) {
+                    channel.write(batch);
+                }
+                start = System.nanoTime();
+                index.bytesWritten(batch.array(), 0, batch.limit(), timeMs);
+                indexNanos += System.nanoTime() - start;
+                total += batch.limit();
+                segmentBytes += batch.limit();
+                timeMs += BATCH_MS;
+                batch.clear();
+                if (segmentBytes >= SEGMENT_BYTES && total < logBytes) {
+                    channel.close();
+                    String rotated = String.format(Locale.ROOT, "serial-%04d.log", rotations++);
+                    Files.move(active.toPath(), new File(logDirectory, rotated).toPath());
+                    channel = FileChannel.open(active.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+                    start = System.nanoTime();
+                    index.segmentRotated(rotated);
+                    index.segmentOpened(0);
+                    indexNanos += System.nanoTime() - start;
+                    segmentBytes = 0;
+                }
+            }
+            start = System.nanoTime();
+            index.flush();
+            indexNanos += System.nanoTime() - start;
+        } finally {
+            channel.close();
+        }
+        if (pending != null) {
+            lines--; // Cut off by the end of the log
+        }
+        return new long[] {lines, indexNanos, rareLines, timeMs - BATCH_MS};
+    }
+
+    /**
+     * A console line: a kernel-style timestamp, a few words and now and then a counter
+     */
+    private static byte[] line(Random random, long timeMs, boolean rare) {
+        StringBuilder line = new StringBuilder(96);
+        line.append(String.format(Locale.ROOT, "[%12.6f] ", (timeMs - START_MS) / 1000.0 + random.nextInt(1000) / 1e6));
+        int words = 4 + random.nextInt(8);
+        for (int i = 0; i < words; i++) {
+            if (i > 0) {
+                line.append(' ');
+            }
+            if (random.nextInt(10) == 0) {
+                line.append(random.nextInt(100000));
+            } else {
+                line.append(WORDS[random.nextInt(WORDS.length)]);
+            }
+        }
+        if (random.nextInt(200) == 0) {
+            line.append(" oom killer invoked");
+        }
+        if (rare) {
+            line.append(" panic_marker");
+        }
+        return line.append('\n').toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static long sizeOf(File directory) {
+        long size = 0;
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                size += file.isDirectory() ? sizeOf(file) : file.length();
+            }
+        }
+        return size;
+    }
+}
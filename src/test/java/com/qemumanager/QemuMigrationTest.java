@@ -0,0 +1,252 @@
+package com.qemumanager;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * QemuMigration against QemuQmpStub monitors replaying query-migrate states, and the
+ * ports and cgroup of a local QemuMigrationTarget on a fake cgroupfs around it. VM names
+ * are unique per test, since the port allocator is a singleton shared by the whole run.
+ */
+public class QemuMigrationTest {
+    private static final String PARENT = "user.slice/user-1000.slice";
+    private static final long MB = 1024L * 1024L;
+    private static final int TIMEOUT_MS = 5000;
+
+    @Rule
+    public final TemporaryFolder temp = new TemporaryFolder();
+
+    @Test
+    public void targetListensWithTheSourcesCapabilities() throws Exception {
+        QemuMigration.Options options = new QemuMigration.Options(false, true, 4, 0, 300);
+        try (QemuQmpStub target = QemuQmpStub.monitor()
+                .reply("migrate-set-capabilities", Collections.emptyMap())
+                .reply("migrate-set-parameters", Collections.emptyMap())
+                .reply("migrate-incoming", Collections.emptyMap());
+             QemuMonitorClient monitor = connect(target)) {
+            QemuMigration.prepareIncoming(monitor, options, "tcp:0.0.0.0:49152");
+
+            assertEquals(Arrays.asList("migrate-set-capabilities", "migrate-set-parameters", "migrate-incoming"),
+                target.getCommands());
+            assertEquals(QemuJson.object("capabilities", Arrays.asList(
+                QemuJson.object("capability", "postcopy-ram", "state", false),
+                QemuJson.object("capability", "auto-converge", "state", true),
+                QemuJson.object("capability", "multifd", "state", true))),
+                target.getArguments("migrate-set-capabilities"));
+            assertEquals(QemuJson.object("multifd-channels", 4L), target.getArguments("migrate-set-parameters"));
+            assertEquals(QemuJson.object("uri", "tcp:0.0.0.0:49152"), target.getArguments("migrate-incoming"));
+        }
+    }
+
+    @Test
+    public void completedMigrationHandsTheTargetTheVm() throws Exception {
+        QemuCgroupManager cgroups = cgroups();
+        QemuVm vm = vm("migrate-completed");
+        cgroups.prepare(vm); // The source runs in the VM's group
+        QemuMigrationTarget target = new QemuMigrationTarget(vm, QemuPortAllocator.getInstance(), cgroups);
+        target.allocatePorts();
+        String[] command = target.createCommand("pc-i440fx-8.2");
+        File incomingProcs = new File(cgroups.getIncomingDirectory(vm), "cgroup.procs");
+        assertEquals(Arrays.asList("/bin/sh", "-c"), Arrays.asList(command).subList(0, 2));
+        assertEquals(incomingProcs.getAbsolutePath(), command[3]);
+        assertTrue(Arrays.asList(command).contains("defer"));
+
+        List<String> states = new ArrayList<>();
+        QemuMigration.Progress result;
+        try (QemuQmpStub source = source(
+                status("setup"),
+                active(1, 4096, 4096),
+                active(2, 4096, 512),
+                completed(2300, 45));
+             QemuMonitorClient monitor = connect(source)) {
+            QemuMigration migration = new QemuMigration(monitor, new QemuMigration.Options(false, false, 0, 0, 300));
+            result = migration.run(target.getUri(), progress -> states.add(progress.getStatus()));
+
+            assertEquals(Arrays.asList("migrate-set-capabilities", "migrate-set-parameters", "migrate",
+                "query-migrate", "query-migrate", "query-migrate", "query-migrate"), source.getCommands());
+            assertEquals(QemuJson.object("uri", target.getUri()), source.getArguments("migrate"));
+            assertEquals(QemuJson.object("max-bandwidth", 1L << 40, "downtime-limit", 300L),
+                source.getArguments("migrate-set-parameters"));
+        }
+        assertEquals(Arrays.asList("setup", "active", "active", "completed"), states);
+        assertEquals(45, result.getDowntimeMs());
+        assertEquals("Completed in 2.3 s, guest paused for 45 ms", result.describe());
+
+        // What the panel does once the source has quit
+        target.adoptCgroup(4242);
+        target.takeOver();
+
+        assertEquals("4242", read(new File(cgroups.getVmDirectory(vm), "cgroup.procs")));
+        assertFalse("incoming group removed", cgroups.getIncomingDirectory(vm).exists());
+        assertEquals(QemuJson.object(
+            "vnc", target.getVncPort(),
+            "qmp", target.getQmpPort(),
+            "qga", target.getGuestAgentPort(),
+            "serial", target.getSerialPort()), QemuPortAllocator.getInstance().getLeases(vm));
+        assertEquals(target.getVncPort(), vm.getVncPort());
+        assertEquals(target.getQmpPort(), vm.getQmpPort());
+        assertEquals(target.getGuestAgentPort(), vm.getGuestAgentPort());
+        assertEquals(target.getSerialPort(), vm.getSerialPort());
+        QemuPortAllocator.getInstance().releaseAll(vm);
+    }
+
+    @Test
+    public void failedMigrationGivesBackTheTarget() throws Exception {
+        QemuCgroupManager cgroups = cgroups();
+        QemuVm vm = vm("migrate-failed");
+        cgroups.prepare(vm);
+        QemuPortAllocator allocator = QemuPortAllocator.getInstance();
+        int ownQmpPort = allocator.allocateControlPort(vm, "qmp");
+        QemuMigrationTarget target = new QemuMigrationTarget(vm, allocator, cgroups);
+        target.allocatePorts();
+        target.createCommand(null);
+        assertTrue(cgroups.getIncomingDirectory(vm).isDirectory());
+        assertEquals(6, allocator.getLeases(vm).size());
+
+        List<String> states = new ArrayList<>();
+        try (QemuQmpStub source = source(
+                status("setup"),
+                active(1, 4096, 2048),
+                failed("Unable to write to socket: Connection reset by peer"));
+             QemuMonitorClient monitor = connect(source)) {
+            QemuMigration migration = new QemuMigration(monitor, new QemuMigration.Options(false, false, 0, 0, 300));
+            try {
+                migration.run(target.getUri(), progress -> states.add(progress.getStatus()));
+                fail("migration completed");
+            } catch (IOException e) {
+                assertEquals("Migration failed: Unable to write to socket: Connection reset by peer", e.getMessage());
+            }
+        }
+        assertEquals(Arrays.asList("setup", "active", "failed"), states);
+
+        // What the panel does with a target that did not get the VM
+        target.releasePorts();
+        target.removeCgroup();
+
+        assertEquals(Collections.singletonMap("qmp", ownQmpPort), allocator.getLeases(vm));
+        assertFalse("incoming group removed", cgroups.getIncomingDirectory(vm).exists());
+        assertTrue("the VM keeps its own group", cgroups.getVmDirectory(vm).isDirectory());
+        allocator.releaseAll(vm);
+    }
+
+    @Test
+    public void postcopyStartsAfterTheFirstPass() throws Exception {
+        List<String> states = new ArrayList<>();
+        try (QemuQmpStub source = source(
+                status("setup"),
+                active(1, 4096, 1024),
+                active(2, 4096, 3072), // First pass done, the guest dirtied most of it again
+                status("postcopy-active"),
+                completed(1800, 20))
+                .reply("migrate-start-postcopy", Collections.emptyMap());
+             QemuMonitorClient monitor = connect(source)) {
+            QemuMigration migration = new QemuMigration(monitor, new QemuMigration.Options(true, false, 0, 100, 300));
+            migration.run("tcp:127.0.0.1:49152", progress -> states.add(progress.getStatus()));
+
+            assertTrue(migration.isPostcopyStarted());
+            assertEquals(Arrays.asList("migrate-set-capabilities", "migrate-set-parameters", "migrate",
+                "query-migrate", "query-migrate", "query-migrate", "migrate-start-postcopy",
+                "query-migrate", "query-migrate"), source.getCommands());
+            assertEquals(QemuJson.object("max-bandwidth", 100 * MB, "downtime-limit", 300L),
+                source.getArguments("migrate-set-parameters"));
+            try {
+                migration.cancel();
+                fail("cancelled in postcopy");
+            } catch (IOException e) {
+                assertEquals("The target already runs the guest in postcopy", e.getMessage());
+            }
+        }
+        assertEquals(Arrays.asList("setup", "active", "active", "postcopy-active", "completed"), states);
+    }
+
+    @Test
+    public void failedIncomingMigrationIsReported() throws Exception {
+        try (QemuQmpStub target = source(status("active"), failed("load of migration failed: Invalid argument"));
+             QemuMonitorClient monitor = connect(target)) {
+            QemuMigration.awaitIncoming(monitor, null);
+            fail("incoming migration completed");
+        } catch (IOException e) {
+            assertEquals("Incoming migration failed: load of migration failed: Invalid argument", e.getMessage());
+        }
+    }
+
+    /**
+     * A monitor accepting the migration setup and answering query-migrate with the states
+     * in turn, the last one for good
+     */
+    @SafeVarargs
+    private static QemuQmpStub source(Map<String, Object>... states) throws IOException {
+        int[] next = new int[1];
+        return QemuQmpStub.monitor()
+            .reply("migrate-set-capabilities", Collections.emptyMap())
+            .reply("migrate-set-parameters", Collections.emptyMap())
+            .reply("migrate", Collections.emptyMap())
+            .on("query-migrate", arguments -> {
+                synchronized (next) {
+                    return states[Math.min(next[0]++, states.length - 1)];
+                }
+            });
+    }
+
+    private static Map<String, Object> status(String status) {
+        return QemuJson.object("status", status);
+    }
+
+    private static Map<String, Object> active(long passes, long totalMB, long remainingMB) {
+        return QemuJson.object("status", "active", "expected-downtime", 120L, "ram", QemuJson.object(
+            "total", totalMB * MB,
+            "transferred", (totalMB - remainingMB) * MB,
+            "remaining", remainingMB * MB,
+            "mbps", 940.5,
+            "dirty-sync-count", passes));
+    }
+
+    private static Map<String, Object> completed(long totalTimeMs, long downtimeMs) {
+        return QemuJson.object("status", "completed", "total-time", totalTimeMs, "downtime", downtimeMs);
+    }
+
+    private static Map<String, Object> failed(String error) {
+        return QemuJson.object("status", "failed", "error-desc", error);
+    }
+
+    private static QemuVm vm(String name) {
+        QemuVm vm = new QemuVm(name);
+        vm.setGuestAgentPort(1); // Enabled; the target gets one of its own
+        vm.setSerialPort(1);
+        return vm;
+    }
+
+    /**
+     * A manager on a fake cgroupfs; mkdir there creates no interface files, so no limits are written
+     */
+    private QemuCgroupManager cgroups() throws IOException {
+        File root = temp.newFolder("cgroup");
+        Files.write(new File(root, "cgroup.controllers").toPath(),
+            "cpu io memory pids\n".getBytes(StandardCharsets.US_ASCII));
+        assertTrue(new File(root, PARENT).mkdirs());
+        return new QemuCgroupManager(root, temp.newFolder("sys"), PARENT);
+    }
+
+    private static QemuMonitorClient connect(QemuQmpStub qemu) throws IOException {
+        return QemuMonitorClient.connect("test", qemu.getHost(), qemu.getPort(), TIMEOUT_MS);
+    }
+
+    private static String read(File file) throws IOException {
+        return new String(Files.readAllBytes(file.toPath()), StandardCharsets.US_ASCII).trim();
+    }
+}
@@ -0,0 +1,190 @@
+package com.qemumanager;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+/**
+ * QemuMonitorClient against a QemuQmpStub monitor on a loopback socket
+ */
+public class QemuMonitorClientTest {
+    private static final int TIMEOUT_MS = 5000;
+
+    @Test
+    public void negotiatesAndRunsCommands() throws Exception {
+        try (QemuQmpStub qemu = QemuQmpStub.monitor()
+                .reply("query-status", QemuJson.object("running", true, "status", "running"));
+             QemuMonitorClient client = connect(qemu)) {
+            Map<String, Object> status = client.executeForObject("query-status", null);
+            assertEquals("running", QemuJson.getString(status, "status"));
+            assertEquals(List.of("query-status"), qemu.getCommands());
+        }
+    }
+
+    @Test
+    public void repliesAreMatchedById() throws Exception {
+        CountDownLatch fastDone = new CountDownLatch(1);
+        try (QemuQmpStub qemu = QemuQmpStub.monitor()
+                .on("slow", arguments -> {
+                    fastDone.await(TIMEOUT_MS, TimeUnit.MILLISECONDS); // Replies only after the later command
+                    return "slow";
+                })
+                .on("echo", arguments -> arguments.get("n"));
+             QemuMonitorClient client = connect(qemu)) {
+            ExecutorService executor = Executors.newFixedThreadPool(16);
+            try {
+                Future<Object> slow = executor.submit(() -> client.execute("slow"));
+                List<Future<Object>> echoes = new ArrayList<>();
+                for (long n = 0; n < 64; n++) {
+                    Map<String, Object> arguments = QemuJson.object("n", n);
+                    echoes.add(executor.submit(() -> client.execute("echo", arguments)));
+                }
+                for (long n = 0; n < 64; n++) {
+                    assertEquals(n, echoes.get((int) n).get());
+                }
+                assertFalse("the slow command cannot have its reply yet", slow.isDone());
+                fastDone.countDown();
+                assertEquals("slow", slow.get());
+            } finally {
+                executor.shutdownNow();
+            }
+        }
+    }
+
+    @Test
+    public void errorRepliesCarryTheirClass() throws Exception {
+        try (QemuQmpStub qemu = QemuQmpStub.monitor()
+                .fail("device_del", "DeviceNotFound", "Device 'net9' not found");
+             QemuMonitorClient client = connect(qemu)) {
+            try {
+                client.execute("device_del", QemuJson.object("id", "net9"));
+                fail("device_del must fail");
+            } catch (QemuMonitorClient.QmpException e) {
+                assertEquals("DeviceNotFound", e.getErrorClass());
+                assertEquals("Device 'net9' not found", e.getMessage());
+            }
+            try {
+                client.execute("no-such-command");
+                fail("unknown commands must fail");
+            } catch (QemuMonitorClient.QmpException e) {
+                assertEquals("CommandNotFound", e.getErrorClass());
+            }
+            assertFalse("errors leave the connection usable", client.isClosed());
+        }
+    }
+
+    @Test
+    public void lateRepliesAfterATimeoutAreDropped() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        try (QemuQmpStub qemu = QemuQmpStub.monitor()
+                .on("stuck", arguments -> {
+                    release.await(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+                    return "late";
+                })
+                .reply("query-name", QemuJson.object("name", "vm1"));
+             QemuMonitorClient client = connect(qemu)) {
+            try {
+                client.execute("stuck", null, 200);
+                fail("the command must time out");
+            } catch (IOException e) {
+                assertEquals("stuck timed out after 200 ms", e.getMessage());
+            }
+            release.countDown();
+            assertEquals("vm1", QemuJson.getString(client.executeForObject("query-name", null), "name"));
+        }
+    }
+
+    @Test
+    public void eventsReachTheListeners() throws Exception {
+        BlockingQueue<String> events = new LinkedBlockingQueue<>();
+        try (QemuQmpStub qemu = QemuQmpStub.monitor().reply("query-status", QemuJson.object());
+             QemuMonitorClient client = connect(qemu)) {
+            client.addEventListener((event, data) -> events.add(event + " " + QemuJson.getBoolean(data, "guest", false)));
+            client.execute("query-status"); // The reader is running
+            qemu.sendEvent("SHUTDOWN", QemuJson.object("guest", true, "reason", "guest-shutdown"));
+            assertEquals("SHUTDOWN true", events.poll(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+        }
+    }
+
+    @Test
+    public void pendingCommandsFailWhenQemuHangsUp() throws Exception {
+        CountDownLatch received = new CountDownLatch(1);
+        try (QemuQmpStub qemu = QemuQmpStub.monitor().on("quit", arguments -> {
+                received.countDown();
+                return QemuQmpStub.NO_REPLY;
+            });
+             QemuMonitorClient client = connect(qemu)) {
+            ExecutorService executor = Executors.newSingleThreadExecutor();
+            try {
+                Future<Object> quit = executor.submit(() -> client.execute("quit"));
+                assertTrue(received.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+                qemu.disconnect();
+                try {
+                    quit.get(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+                    fail("the command cannot complete");
+                } catch (ExecutionException e) {
+                    assertTrue(e.getCause().toString(), e.getCause() instanceof EOFException);
+                }
+            } finally {
+                executor.shutdownNow();
+            }
+            assertTrue(client.isClosed());
+            try {
+                client.execute("query-status");
+                fail("the connection is closed");
+            } catch (EOFException expected) {
+                // Closed
+            }
+        }
+    }
+
+    @Test
+    public void rejectsSocketsThatAreNotQmp() throws Exception {
+        try (ServerSocket server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            Thread thread = new Thread(() -> {
+                try (Socket socket = server.accept()) {
+                    OutputStream out = socket.getOutputStream();
+                    out.write("SSH-2.0-OpenSSH_9.6\r\n".getBytes(StandardCharsets.US_ASCII));
+                    out.flush();
+                    socket.getInputStream().read();
+                } catch (IOException e) {
+                    // Hung up
+                }
+            });
+            thread.setDaemon(true);
+            thread.start();
+            try {
+                QemuMonitorClient.connect("test", server.getInetAddress().getHostAddress(), server.getLocalPort(),
+                    TIMEOUT_MS).close();
+                fail("the socket is not a monitor");
+            } catch (IOException e) {
+                assertTrue(e.getMessage(), e.getMessage().startsWith("Not a QMP monitor"));
+            }
+        }
+    }
+
+    static QemuMonitorClient connect(QemuQmpStub qemu) throws IOException {
+        return QemuMonitorClient.connect("test", qemu.getHost(), qemu.getPort(), TIMEOUT_MS);
+    }
+}
@@ -0,0 +1,160 @@
+package com.qemumanager;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.junit.Test;
+
+/**
+ * Each test uses its own VM names and port range, since the allocator is a
+ * singleton shared by the whole run.
+ */
+public class QemuPortAllocatorTest {
+    private static final String[] PURPOSES = {"vnc", "qmp", "qga", "spice"};
+
+    private final QemuPortAllocator allocator = QemuPortAllocator.getInstance();
+
+    @Test
+    public void concurrentAllocationsNeverShareAPort() throws Exception {
+        int threads = 16;
+        int rangeStart = 47000;
+        int rangeEnd = rangeStart + threads * PURPOSES.length + 20;
+        List<QemuVm> vms = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            vms.add(new QemuVm("concurrent-" + i));
+        }
+        CountDownLatch go = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<List<Integer>>> results = new ArrayList<>();
+            for (QemuVm vm : vms) {
+                Callable<List<Integer>> task = () -> {
+                    go.await();
+                    List<Integer> ports = new ArrayList<>();
+                    for (String purpose : PURPOSES) {
+                        ports.add(allocator.allocate(vm, purpose, rangeStart, rangeEnd, rangeStart));
+                    }
+                    return ports;
+                };
+                results.add(executor.submit(task));
+            }
+            go.countDown();
+            Set<Integer> seen = new HashSet<>();
+            for (Future<List<Integer>> result : results) {
+                for (int port : result.get()) {
+                    assertTrue("port " + port + " is outside the range", port >= rangeStart && port <= rangeEnd);
+                    assertTrue("port " + port + " was handed out twice", seen.add(port));
+                }
+            }
+            assertEquals(threads * PURPOSES.length, seen.size());
+        } finally {
+            executor.shutdownNow();
+            vms.forEach(allocator::releaseAll);
+        }
+    }
+
+    @Test
+    public void releaseAllFreesThePortsForOtherVms() throws Exception {
+        QemuVm first = new QemuVm("release-first");
+        QemuVm second = new QemuVm("release-second");
+        try {
+            int port = allocator.allocate(first, "vnc", 47300, 47300, 47300);
+            try {
+                allocator.allocate(second, "vnc", 47300, 47300, 47300);
+                fail("the port is leased to " + first.getName());
+            } catch (IOException expected) {
+                assertTrue(expected.getMessage(), expected.getMessage().contains("release-first:vnc"));
+            }
+            allocator.releaseAll(first);
+            assertEquals(port, allocator.allocate(second, "vnc", 47300, 47300, 47300));
+        } finally {
+            allocator.releaseAll(first);
+            allocator.releaseAll(second);
+        }
+    }
+
+    @Test
+    public void repeatedAllocationReturnsTheLease() throws Exception {
+        QemuVm vm = new QemuVm("repeat");
+        try {
+            int port = allocator.allocate(vm, "qmp", 47400, 47410, 47400);
+            assertEquals(port, allocator.allocate(vm, "qmp", 47400, 47410, 47400));
+            assertNotEquals(port, allocator.allocate(vm, "qga", 47400, 47410, 47400));
+        } finally {
+            allocator.releaseAll(vm);
+        }
+    }
+
+    @Test
+    public void renamingKeepsTheLease() throws Exception {
+        QemuVm vm = new QemuVm("rename-before");
+        QemuVm other = new QemuVm("rename-other");
+        try {
+            int port = allocator.allocate(vm, "vnc", 47500, 47500, 47500);
+            vm.setName("rename-after");
+            assertEquals(port, allocator.allocate(vm, "vnc", 47500, 47500, 47500));
+            try {
+                allocator.allocate(other, "vnc", 47500, 47500, 47500);
+                fail("the renamed VM still holds the port");
+            } catch (IOException expected) {
+                // Leased
+            }
+        } finally {
+            allocator.releaseAll(vm);
+            allocator.releaseAll(other);
+        }
+    }
+
+    @Test
+    public void stickyAssignmentIsPreferredAfterRelease() throws Exception {
+        QemuVm vm = new QemuVm("sticky");
+        try {
+            int port = allocator.allocate(vm, "vnc", 47600, 47620, 47610);
+            assertEquals(47610, port);
+            allocator.releaseAll(vm);
+            assertEquals(port, allocator.allocate(vm, "vnc", 47600, 47620, 47600));
+        } finally {
+            allocator.releaseAll(vm);
+        }
+    }
+
+    @Test
+    public void portsInUseOnTheHostAreSkipped() throws Exception {
+        QemuVm vm = new QemuVm("host-listener");
+        try (ServerSocket listener = new ServerSocket()) {
+            listener.bind(new InetSocketAddress(47700));
+            assertEquals(47701, allocator.allocate(vm, "vnc", 47700, 47710, 47700));
+        } finally {
+            allocator.releaseAll(vm);
+        }
+    }
+
+    @Test
+    public void reservedPortsAreNotHandedOut() throws Exception {
+        QemuVm adopted = new QemuVm("reserve-adopted");
+        QemuVm vm = new QemuVm("reserve-new");
+        try {
+            allocator.reserve(adopted, "vnc", 47800);
+            assertEquals(47801, allocator.allocate(vm, "vnc", 47800, 47810, 47800));
+            allocator.release(adopted, "vnc");
+            assertEquals(47800, allocator.allocate(vm, "qmp", 47800, 47810, 47800));
+        } finally {
+            allocator.releaseAll(adopted);
+            allocator.releaseAll(vm);
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package com.qemumanager;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * QemuProcessReconciler against a fake procfs in a temporary directory
+ */
+public class QemuProcessReconcilerTest {
+    private static final long PID = 4242;
+    private static final long START_TICKS = 987654;
+
+    @Rule
+    public final TemporaryFolder proc = new TemporaryFolder();
+
+    @Test
+    public void matchingQemuIsAdopted() throws Exception {
+        QemuVm vm = new QemuVm("web, frontend"); // The comma is doubled on the command line
+        writeProcess(PID, "qemu-system-x86", START_TICKS,
+            "/usr/bin/qemu-system-x86_64", "-name", "web,, frontend", "-m", "1024", "-vnc", ":1");
+
+        assertNull(reconciler().verify(vm, record(PID, START_TICKS)));
+    }
+
+    @Test
+    public void capturedProcessVerifies() throws Exception {
+        ProcessHandle self = ProcessHandle.current();
+        QemuVm vm = new QemuVm("db");
+        vm.setProcessHandle(self);
+        vm.setQmpPort(6100);
+        vm.setSerialPort(6102);
+        vm.setVncPort(5901);
+        writeProcess(self.pid(), "qemu-system-x86", START_TICKS, "qemu-system-x86_64", "-name", "db");
+
+        QemuProcessReconciler.Record record = reconciler().capture(vm, null);
+
+        assertNotNull(record);
+        assertEquals(self.pid(), record.getPid());
+        assertEquals(START_TICKS, record.getStartTicks());
+        assertEquals(6100, record.getQmpPort());
+        assertEquals(6102, record.getSerialPort());
+        assertEquals(5901, record.getVncPort());
+        assertEquals("", record.getLogFile());
+        assertNull(reconciler().verify(vm, record));
+    }
+
+    @Test
+    public void reusedPidIsRejected() throws Exception {
+        QemuVm vm = new QemuVm("web");
+        // Same start time by coincidence, but an unrelated program now holds the pid
+        writeProcess(PID, "bash", START_TICKS, "/bin/bash", "-l");
+
+        assertEquals("process 4242 is not this VM's QEMU", reconciler().verify(vm, record(PID, START_TICKS)));
+    }
+
+    @Test
+    public void anotherVmIsRejected() throws Exception {
+        QemuVm vm = new QemuVm("web");
+        writeProcess(PID, "qemu-system-x86", START_TICKS, "qemu-system-x86_64", "-name", "web2");
+
+        assertEquals("process 4242 is not this VM's QEMU", reconciler().verify(vm, record(PID, START_TICKS)));
+    }
+
+    @Test
+    public void startTicksMismatchIsRejected() throws Exception {
+        QemuVm vm = new QemuVm("web");
+        // A new QEMU for the same VM under the old pid is still not the process that was saved
+        writeProcess(PID, "qemu-system-x86", START_TICKS + 1, "qemu-system-x86_64", "-name", "web");
+
+        assertEquals("pid 4242 now belongs to another process", reconciler().verify(vm, record(PID, START_TICKS)));
+    }
+
+    @Test
+    public void goneProcessIsRejected() {
+        assertEquals("process 4242 is gone", reconciler().verify(new QemuVm("web"), record(PID, START_TICKS)));
+    }
+
+    @Test
+    public void commandNamesWithSpacesAndParenthesesParse() throws Exception {
+        writeProcess(PID, "qemu (x86) :)", START_TICKS, "qemu-system-x86_64");
+
+        assertEquals(START_TICKS, reconciler().readStartTicks(PID));
+    }
+
+    @Test(expected = IOException.class)
+    public void malformedStatFails() throws Exception {
+        File dir = proc.newFolder(String.valueOf(PID));
+        Files.write(new File(dir, "stat").toPath(), "4242 (qemu) S 1 2".getBytes(StandardCharsets.UTF_8));
+
+        reconciler().readStartTicks(PID);
+    }
+
+    @Test
+    public void cmdlineWithoutTrailingNulKeepsItsLastArgument() throws Exception {
+        File dir = proc.newFolder(String.valueOf(PID));
+        Files.write(new File(dir, "cmdline").toPath(), "qemu\0-name\0web".getBytes(StandardCharsets.UTF_8));
+
+        assertEquals(Arrays.asList("qemu", "-name", "web"), reconciler().readCmdline(PID));
+    }
+
+    private QemuProcessReconciler reconciler() {
+        return new QemuProcessReconciler(proc.getRoot());
+    }
+
+    private static QemuProcessReconciler.Record record(long pid, long startTicks) {
+        return new QemuProcessReconciler.Record(pid, startTicks, 6100, 0, 0, 5901, "");
+    }
+
+    /**
+     * Writes /proc/&lt;pid&gt;/stat with the start time in field 22, and the NUL-separated cmdline
+     */
+    private void writeProcess(long pid, String comm, long startTicks, String... cmdline) throws IOException {
+        File dir = proc.newFolder(String.valueOf(pid));
+        StringBuilder stat = new StringBuilder(pid + " (" + comm + ") S");
+        for (int field = 4; field <= 52; field++) {
+            stat.append(' ').append(field == 22 ? startTicks : field);
+        }
+        Files.write(new File(dir, "stat").toPath(), (stat + "\n").getBytes(StandardCharsets.UTF_8));
+        List<String> args = Arrays.asList(cmdline);
+        Files.write(new File(dir, "cmdline").toPath(),
+            (String.join("\0", args) + "\0").getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,272 @@
+package com.qemumanager;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Loopback stand-in for the QMP monitor or the qemu-ga channel of a VM, for
+ * the tests. It speaks line-delimited JSON: as a monitor it greets with the
+ * QMP banner and insists on qmp_capabilities first, and answers each command
+ * on its own thread, so slow handlers reply out of order as QEMU's jobs do.
+ * As an agent it answers one command at a time and guest-sync-delimited the
+ * way qemu-ga does. Unknown commands fail with CommandNotFound.
+ */
+final class QemuQmpStub implements Closeable {
+    /**
+     * Returned by a handler to send nothing back, like guest-shutdown
+     */
+    static final Object NO_REPLY = new Object();
+
+    interface Handler {
+        Object handle(Map<String, Object> arguments) throws Exception;
+    }
+
+    /**
+     * Thrown by a handler to send an error reply
+     */
+    static final class QmpError extends Exception {
+        final String errorClass;
+
+        QmpError(String errorClass, String description) {
+            super(description);
+            this.errorClass = errorClass;
+        }
+    }
+
+    private final boolean agent;
+    private final ServerSocket serverSocket;
+    private final Map<String, Handler> handlers = new ConcurrentHashMap<>();
+    private final List<Map<String, Object>> executed = new CopyOnWriteArrayList<>();
+    private final List<Connection> connections = new CopyOnWriteArrayList<>();
+    private final ExecutorService executor = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "QMP stub");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private QemuQmpStub(boolean agent) throws IOException {
+        this.agent = agent;
+        serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        executor.execute(this::acceptLoop);
+    }
+
+    static QemuQmpStub monitor() throws IOException {
+        return new QemuQmpStub(false);
+    }
+
+    static QemuQmpStub agent() throws IOException {
+        return new QemuQmpStub(true);
+    }
+
+    String getHost() {
+        return serverSocket.getInetAddress().getHostAddress();
+    }
+
+    int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    QemuQmpStub on(String command, Handler handler) {
+        handlers.put(command, handler);
+        return this;
+    }
+
+    QemuQmpStub reply(String command, Object value) {
+        return on(command, arguments -> value);
+    }
+
+    QemuQmpStub fail(String command, String errorClass, String description) {
+        return on(command, arguments -> {
+            throw new QmpError(errorClass, description);
+        });
+    }
+
+    /**
+     * Names of the commands received so far, in arrival order, without the handshake
+     */
+    List<String> getCommands() {
+        List<String> commands = new ArrayList<>();
+        for (Map<String, Object> request : executed) {
+            commands.add(QemuJson.getString(request, "execute"));
+        }
+        return commands;
+    }
+
+    /**
+     * Arguments of the last call of the command, or null if it was not called
+     */
+    Map<String, Object> getArguments(String command) {
+        for (int i = executed.size() - 1; i >= 0; i--) {
+            if (command.equals(QemuJson.getString(executed.get(i), "execute"))) {
+                return QemuJson.getObject(executed.get(i), "arguments");
+            }
+        }
+        return null;
+    }
+
+    void sendEvent(String event, Map<String, Object> data) throws IOException {
+        long now = System.currentTimeMillis();
+        Map<String, Object> message = QemuJson.object("event", event, "data", data,
+            "timestamp", QemuJson.object("seconds", now / 1000, "microseconds", now % 1000 * 1000));
+        for (Connection connection : connections) {
+            connection.send(message, false);
+        }
+    }
+
+    /**
+     * Hangs up on every client, as a QEMU that exits does
+     */
+    void disconnect() {
+        for (Connection connection : connections) {
+            connection.close();
+        }
+    }
+
+    @Override
+    public void close() {
+        try {
+            serverSocket.close();
+        } catch (IOException e) {
+            // Already closed
+        }
+        disconnect();
+        executor.shutdownNow();
+    }
+
+    private void acceptLoop() {
+        while (!serverSocket.isClosed()) {
+            try {
+                Connection connection = new Connection(serverSocket.accept());
+                connections.add(connection);
+                executor.execute(connection::readLoop);
+            } catch (IOException e) {
+                return; // Closed
+            }
+        }
+    }
+
+    private final class Connection {
+        private final Socket socket;
+        private final OutputStream out;
+        private boolean negotiated;
+
+        Connection(Socket socket) throws IOException {
+            this.socket = socket;
+            this.out = socket.getOutputStream();
+        }
+
+        void readLoop() {
+            try (BufferedReader reader = new BufferedReader(
+                    new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8))) {
+                if (!agent) {
+                    send(QemuJson.object("QMP", QemuJson.object(
+                        "version", QemuJson.object("qemu", QemuJson.object("major", 8, "minor", 2, "micro", 0)),
+                        "capabilities", new ArrayList<>())), false);
+                }
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (!line.trim().isEmpty()) {
+                        received(QemuJson.parseObject(line));
+                    }
+                }
+            } catch (IOException e) {
+                // Hung up
+            } finally {
+                connections.remove(this);
+                close();
+            }
+        }
+
+        private void received(Map<String, Object> request) throws IOException {
+            String command = QemuJson.getString(request, "execute");
+            Object id = request.get("id");
+            if (agent && "guest-sync-delimited".equals(command)) {
+                Object syncId = QemuJson.getObject(request, "arguments").get("id");
+                send(QemuJson.object("return", syncId), true);
+                return;
+            }
+            if (!agent && !negotiated) {
+                if ("qmp_capabilities".equals(command)) {
+                    negotiated = true;
+                    send(QemuJson.object("return", QemuJson.object()), false);
+                } else {
+                    send(error(id, "CommandNotFound",
+                        "Expecting capabilities negotiation with 'qmp_capabilities'"), false);
+                }
+                return;
+            }
+            executed.add(request);
+            if (agent) {
+                answer(command, id, QemuJson.getObject(request, "arguments"));
+            } else {
+                executor.execute(() -> answer(command, id, QemuJson.getObject(request, "arguments")));
+            }
+        }
+
+        private void answer(String command, Object id, Map<String, Object> arguments) {
+            Map<String, Object> reply;
+            Handler handler = handlers.get(command);
+            try {
+                if (handler == null) {
+                    throw new QmpError("CommandNotFound", "The command " + command + " has not been found");
+                }
+                Object result = handler.handle(arguments);
+                if (result == NO_REPLY) {
+                    return;
+                }
+                reply = QemuJson.object("return", result != null ? result : QemuJson.object());
+                if (id != null) {
+                    reply.put("id", id);
+                }
+            } catch (QmpError e) {
+                reply = error(id, e.errorClass, e.getMessage());
+            } catch (Exception e) {
+                reply = error(id, "GenericError", String.valueOf(e.getMessage()));
+            }
+            try {
+                send(reply, false);
+            } catch (IOException e) {
+                // The client left before the reply
+            }
+        }
+
+        private Map<String, Object> error(Object id, String errorClass, String description) {
+            Map<String, Object> reply = QemuJson.object("error",
+                QemuJson.object("class", errorClass, "desc", description));
+            if (id != null) {
+                reply.put("id", id);
+            }
+            return reply;
+        }
+
+        synchronized void send(Map<String, Object> message, boolean delimited) throws IOException {
+            if (delimited) {
+                out.write(0xff);
+            }
+            out.write((QemuJson.write(message) + "\r\n").getBytes(StandardCharsets.UTF_8));
+            out.flush();
+        }
+
+        void close() {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // Already closed
+            }
+        }
+    }
+}
@@ -0,0 +1,664 @@
+package com.qemumanager;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.awt.image.BufferedImage;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.Deflater;
+import javax.imageio.ImageIO;
+import org.junit.Test;
+
+/**
+ * Runs QemuRfbClient against a stub server on a loopback socket. The stub
+ * encodes rectangles of a known picture with each supported encoding; the
+ * decoded framebuffer must match it pixel for pixel.
+ */
+public class QemuRfbClientTest {
+    private static final int WIDTH = 192;
+    private static final int HEIGHT = 64;
+    private static final int ENCODING_RAW = 0;
+    private static final int ENCODING_COPY_RECT = 1;
+    private static final int ENCODING_TIGHT = 7;
+    private static final int ENCODING_ZRLE = 16;
+    private static final int JPEG_TOLERANCE = 8;
+
+    private enum Tile {RAW, SOLID, PLAIN_RLE, PACKED_PALETTE, PALETTE_RLE}
+
+    @Test
+    public void decodesRawTightAndZrle() throws Exception {
+        Random random = new Random(7);
+        int[] picture = new int[WIDTH * HEIGHT];
+        Update update = new Update();
+
+        noise(picture, random, 0, 0, 16, 8);
+        update.raw(picture, 0, 0, 16, 8);
+        copy(picture, 0, 0, 0, 8, 16, 8);
+        update.copyRect(0, 8, 16, 8, 0, 0);
+
+        fill(picture, 0x336699, 16, 0, 8, 16);
+        update.tightFill(picture, 16, 0, 8, 16);
+        noise(picture, random, 24, 0, 16, 8);
+        update.tightBasic(picture, 24, 0, 16, 8, 0, false);
+        noise(picture, random, 24, 8, 16, 8);
+        update.tightBasic(picture, 24, 8, 16, 8, 0, false); // Continues the zlib stream of the one above
+        pick(picture, random, new int[]{0x000000, 0xffffff}, 40, 0, 13, 16);
+        update.tightPalette(picture, 40, 0, 13, 16, 1, new int[]{0x000000, 0xffffff}); // Rows end mid-byte
+        pick(picture, random, new int[]{0xff0000, 0x00ff00, 0x0000ff, 0x808080}, 56, 0, 8, 16);
+        update.tightPalette(picture, 56, 0, 8, 16, 2, new int[]{0xff0000, 0x00ff00, 0x0000ff, 0x808080});
+        noise(picture, random, 64, 0, 16, 16);
+        update.tightGradient(picture, 64, 0, 16, 16, 3);
+        noise(picture, random, 80, 0, 2, 1);
+        update.tightBasic(picture, 80, 0, 2, 1, 0, false); // Under 12 bytes, sent uncompressed
+        noise(picture, random, 88, 0, 16, 16);
+        update.tightBasic(picture, 88, 0, 16, 16, 0, true);
+        fill(picture, 0xc08040, 104, 0, 16, 16);
+        update.tightJpeg(picture, 104, 0, 16, 16);
+
+        Tile[] upper = {Tile.RAW, Tile.SOLID, Tile.PLAIN_RLE};
+        noise(picture, random, 0, 16, 64, 24);
+        fill(picture, 0x123456, 64, 16, 64, 24);
+        runs(picture, random, null, 128, 16, 64, 24);
+        update.zrle(picture, 0, 16, WIDTH, 24, upper);
+        Tile[] lower = {Tile.PACKED_PALETTE, Tile.PACKED_PALETTE, Tile.PALETTE_RLE};
+        pick(picture, random, new int[]{0x101010, 0xe0e0e0}, 0, 40, 64, 24);
+        pick(picture, random, new int[]{1, 2, 3, 4, 5}, 64, 40, 64, 24);
+        runs(picture, random, new int[]{0xaa0000, 0x00aa00, 0x0000aa}, 128, 40, 64, 24);
+        update.zrle(picture, 0, 40, WIDTH, 24, lower);
+
+        byte[] message = update.message();
+        Session session;
+        try (StubServer server = new StubServer((in, out) -> {
+            serverHandshake(in, out, "RFB 003.008\n", "stub");
+            readClientSetup(in);
+            readUpdateRequest(in);
+            out.write(message);
+            out.flush();
+            readUpdateRequest(in); // The next incremental request, then close
+        })) {
+            session = runClient(server);
+        }
+        assertEquals("Server closed the connection", session.reason);
+        assertEquals(update.rects, session.updates);
+        assertPicture(picture, session.framebuffer, 104, 0, 16, 16);
+    }
+
+    @Test
+    public void negotiatesRfb33AndItsFormat() throws Exception {
+        List<Integer> encodings = new ArrayList<>();
+        byte[][] pixelFormat = new byte[1][];
+        try (StubServer server = new StubServer((in, out) -> {
+            serverHandshake(in, out, "RFB 003.003\n", "old server");
+            pixelFormat[0] = readClientSetup(in, encodings);
+        }); QemuRfbClient client = connect(server)) {
+            client.handshake();
+            assertEquals("old server", client.getDesktopName());
+            assertEquals(WIDTH, client.getFramebuffer().getWidth());
+            assertEquals(HEIGHT, client.getFramebuffer().getHeight());
+        }
+        assertEquals(32, pixelFormat[0][0]); // Bits per pixel
+        assertEquals(0, pixelFormat[0][2]); // Little endian
+        assertEquals(16, pixelFormat[0][10]); // Red shift
+        assertTrue(encodings.contains(ENCODING_TIGHT));
+        assertTrue(encodings.contains(ENCODING_ZRLE));
+        assertTrue(encodings.indexOf(ENCODING_TIGHT) < encodings.indexOf(ENCODING_RAW));
+    }
+
+    @Test
+    public void refusesServersRequiringAuthentication() throws Exception {
+        try (StubServer server = new StubServer((in, out) -> {
+            out.write("RFB 003.008\n".getBytes(StandardCharsets.US_ASCII));
+            out.flush();
+            in.readFully(new byte[12]);
+            out.write(1);
+            out.write(2); // VNC authentication only
+            out.flush();
+        }); QemuRfbClient client = connect(server)) {
+            client.handshake();
+            fail("the client cannot authenticate");
+        } catch (IOException expected) {
+            assertTrue(expected.getMessage(), expected.getMessage().contains("requires authentication"));
+        }
+    }
+
+    @Test
+    public void unsupportedEncodingClosesWithReason() throws Exception {
+        try (StubServer server = new StubServer((in, out) -> {
+            serverHandshake(in, out, "RFB 003.008\n", "stub");
+            readClientSetup(in);
+            readUpdateRequest(in);
+            out.write(new byte[]{0, 0, 0, 1});
+            out.write(new byte[8]);
+            out.writeInt(5); // Hextile, which the client did not ask for
+            out.flush();
+            in.read(); // Until the client hangs up
+        })) {
+            assertEquals("Unsupported encoding 5", runClient(server).reason);
+        }
+    }
+
+    // Client side
+
+    private static QemuRfbClient connect(StubServer server) throws IOException {
+        return QemuRfbClient.connect(InetAddress.getLoopbackAddress().getHostAddress(), server.getPort());
+    }
+
+    /**
+     * What the client saw until the connection closed
+     */
+    private static final class Session {
+        String reason;
+        int updates;
+        BufferedImage framebuffer;
+    }
+
+    /**
+     * Runs the client's message loop until the connection closes
+     */
+    private static Session runClient(StubServer server) throws Exception {
+        CountDownLatch closed = new CountDownLatch(1);
+        AtomicInteger updates = new AtomicInteger();
+        AtomicReference<String> reason = new AtomicReference<>();
+        Session session = new Session();
+        try (QemuRfbClient client = connect(server)) {
+            client.setListener(new QemuRfbClient.Listener() {
+                @Override
+                public void framebufferResized(int width, int height) {
+                }
+
+                @Override
+                public void framebufferUpdated(int x, int y, int width, int height) {
+                    updates.incrementAndGet();
+                }
+
+                @Override
+                public void connectionClosed(String why) {
+                    reason.set(why);
+                    closed.countDown();
+                }
+            });
+            client.handshake();
+            Thread reader = new Thread(client::run, "RFB reader");
+            reader.setDaemon(true);
+            reader.start();
+            assertTrue("the connection did not close", closed.await(10, TimeUnit.SECONDS));
+            session.framebuffer = client.getFramebuffer();
+        }
+        session.reason = reason.get();
+        session.updates = updates.get();
+        return session;
+    }
+
+    private static void assertPicture(int[] picture, BufferedImage framebuffer, int jpegX, int jpegY, int jpegW,
+                                      int jpegH) {
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                int want = picture[y * WIDTH + x];
+                int got = framebuffer.getRGB(x, y) & 0xffffff;
+                boolean jpeg = x >= jpegX && x < jpegX + jpegW && y >= jpegY && y < jpegY + jpegH;
+                if (jpeg) {
+                    for (int shift = 0; shift <= 16; shift += 8) {
+                        int delta = Math.abs((want >> shift & 0xff) - (got >> shift & 0xff));
+                        assertTrue("JPEG pixel " + x + "," + y + " is off by " + delta, delta <= JPEG_TOLERANCE);
+                    }
+                } else if (want != got) {
+                    fail(String.format("pixel %d,%d: expected %06x, decoded %06x", x, y, want, got));
+                }
+            }
+        }
+    }
+
+    // Stub server side
+
+    private static void serverHandshake(DataInputStream in, DataOutputStream out, String version, String name)
+            throws IOException {
+        out.write(version.getBytes(StandardCharsets.US_ASCII));
+        out.flush();
+        byte[] reply = new byte[12];
+        in.readFully(reply);
+        assertEquals(version, new String(reply, StandardCharsets.US_ASCII));
+        if (version.equals("RFB 003.003\n")) {
+            out.writeInt(1); // No security, chosen by the server
+            out.flush();
+        } else {
+            out.write(new byte[]{2, 2, 1}); // VNC authentication or none
+            out.flush();
+            assertEquals(1, in.readUnsignedByte());
+            out.writeInt(0);
+            out.flush();
+        }
+        assertEquals("the client must share the session", 1, in.readUnsignedByte());
+        out.writeShort(WIDTH);
+        out.writeShort(HEIGHT);
+        out.write(new byte[16]);
+        byte[] bytes = name.getBytes(StandardCharsets.ISO_8859_1);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+        out.flush();
+    }
+
+    private static void readClientSetup(DataInputStream in) throws IOException {
+        readClientSetup(in, new ArrayList<>());
+    }
+
+    /**
+     * Reads SetPixelFormat and SetEncodings; returns the 16 byte pixel format
+     */
+    private static byte[] readClientSetup(DataInputStream in, List<Integer> encodings) throws IOException {
+        assertEquals(0, in.readUnsignedByte());
+        in.readFully(new byte[3]);
+        byte[] format = new byte[16];
+        in.readFully(format);
+        assertEquals(2, in.readUnsignedByte());
+        in.readUnsignedByte();
+        int count = in.readUnsignedShort();
+        for (int i = 0; i < count; i++) {
+            encodings.add(in.readInt());
+        }
+        return format;
+    }
+
+    private static void readUpdateRequest(DataInputStream in) throws IOException {
+        assertEquals(3, in.readUnsignedByte());
+        in.readFully(new byte[9]);
+    }
+
+    /**
+     * Accepts one connection on a loopback port and plays the script on it
+     */
+    private static final class StubServer implements Closeable {
+        interface Script {
+            void run(DataInputStream in, DataOutputStream out) throws Exception;
+        }
+
+        private final ServerSocket serverSocket;
+        private final Thread thread;
+        private volatile Throwable failure;
+
+        StubServer(Script script) throws IOException {
+            serverSocket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+            thread = new Thread(() -> {
+                try (Socket socket = serverSocket.accept()) {
+                    script.run(new DataInputStream(new BufferedInputStream(socket.getInputStream())),
+                        new DataOutputStream(new BufferedOutputStream(socket.getOutputStream())));
+                } catch (Throwable t) {
+                    failure = t;
+                }
+            }, "RFB stub server");
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        int getPort() {
+            return serverSocket.getLocalPort();
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                thread.join(10000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            serverSocket.close();
+            if (failure != null) {
+                throw new AssertionError("stub server failed", failure);
+            }
+        }
+    }
+
+    /**
+     * Builds one FramebufferUpdate message, keeping the zlib streams a server keeps per connection
+     */
+    private static final class Update {
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        private final DataOutputStream out = new DataOutputStream(bytes);
+        private final Deflater[] tightStreams = {new Deflater(), new Deflater(), new Deflater(), new Deflater()};
+        private final Deflater zrleStream = new Deflater();
+        int rects;
+
+        byte[] message() throws IOException {
+            ByteArrayOutputStream message = new ByteArrayOutputStream();
+            DataOutputStream header = new DataOutputStream(message);
+            header.write(0);
+            header.write(0);
+            header.writeShort(rects);
+            bytes.writeTo(message);
+            return message.toByteArray();
+        }
+
+        private void header(int x, int y, int w, int h, int encoding) throws IOException {
+            out.writeShort(x);
+            out.writeShort(y);
+            out.writeShort(w);
+            out.writeShort(h);
+            out.writeInt(encoding);
+            rects++;
+        }
+
+        void raw(int[] picture, int x, int y, int w, int h) throws IOException {
+            header(x, y, w, h, ENCODING_RAW);
+            for (int row = y; row < y + h; row++) {
+                for (int col = x; col < x + w; col++) {
+                    int pixel = picture[row * WIDTH + col];
+                    out.write(pixel & 0xff);
+                    out.write(pixel >> 8 & 0xff);
+                    out.write(pixel >> 16 & 0xff);
+                    out.write(0);
+                }
+            }
+        }
+
+        void copyRect(int x, int y, int w, int h, int srcX, int srcY) throws IOException {
+            header(x, y, w, h, ENCODING_COPY_RECT);
+            out.writeShort(srcX);
+            out.writeShort(srcY);
+        }
+
+        void tightFill(int[] picture, int x, int y, int w, int h) throws IOException {
+            header(x, y, w, h, ENCODING_TIGHT);
+            out.write(0x80);
+            writeRgb(out, picture[y * WIDTH + x]);
+        }
+
+        void tightBasic(int[] picture, int x, int y, int w, int h, int stream, boolean reset) throws IOException {
+            header(x, y, w, h, ENCODING_TIGHT);
+            if (reset) {
+                tightStreams[stream] = new Deflater();
+            }
+            out.write(stream << 4 | (reset ? 1 << stream : 0));
+            ByteArrayOutputStream data = new ByteArrayOutputStream();
+            for (int row = y; row < y + h; row++) {
+                for (int col = x; col < x + w; col++) {
+                    writeRgb(data, picture[row * WIDTH + col]);
+                }
+            }
+            tightData(stream, data.toByteArray());
+        }
+
+        void tightPalette(int[] picture, int x, int y, int w, int h, int stream, int[] palette) throws IOException {
+            header(x, y, w, h, ENCODING_TIGHT);
+            out.write((4 | stream) << 4);
+            out.write(1);
+            out.write(palette.length - 1);
+            for (int colour : palette) {
+                writeRgb(out, colour);
+            }
+            int rowBytes = (w + 7) / 8;
+            byte[] data = new byte[palette.length == 2 ? rowBytes * h : w * h];
+            for (int row = 0; row < h; row++) {
+                for (int col = 0; col < w; col++) {
+                    int index = indexOf(palette, picture[(y + row) * WIDTH + x + col]);
+                    if (palette.length == 2) {
+                        data[row * rowBytes + col / 8] |= index << (7 - col % 8);
+                    } else {
+                        data[row * w + col] = (byte) index;
+                    }
+                }
+            }
+            tightData(stream, data);
+        }
+
+        void tightGradient(int[] picture, int x, int y, int w, int h, int stream) throws IOException {
+            header(x, y, w, h, ENCODING_TIGHT);
+            out.write((4 | stream) << 4);
+            out.write(2);
+            byte[] data = new byte[w * h * 3];
+            for (int row = 0; row < h; row++) {
+                for (int col = 0; col < w; col++) {
+                    for (int c = 0; c < 3; c++) {
+                        int shift = 16 - c * 8;
+                        int left = col > 0 ? picture[(y + row) * WIDTH + x + col - 1] >> shift & 0xff : 0;
+                        int up = row > 0 ? picture[(y + row - 1) * WIDTH + x + col] >> shift & 0xff : 0;
+                        int upLeft = col > 0 && row > 0
+                            ? picture[(y + row - 1) * WIDTH + x + col - 1] >> shift & 0xff : 0;
+                        int predicted = Math.max(0, Math.min(255, left + up - upLeft));
+                        int actual = picture[(y + row) * WIDTH + x + col] >> shift & 0xff;
+                        data[(row * w + col) * 3 + c] = (byte) (actual - predicted);
+                    }
+                }
+            }
+            tightData(stream, data);
+        }
+
+        void tightJpeg(int[] picture, int x, int y, int w, int h) throws IOException {
+            header(x, y, w, h, ENCODING_TIGHT);
+            out.write(0x90);
+            BufferedImage image = new BufferedImage(w, h, BufferedImage.TYPE_INT_RGB);
+            image.setRGB(0, 0, w, h, picture, y * WIDTH + x, WIDTH);
+            ByteArrayOutputStream jpeg = new ByteArrayOutputStream();
+            assertTrue(ImageIO.write(image, "jpg", jpeg));
+            writeCompactLength(jpeg.size());
+            jpeg.writeTo(out);
+        }
+
+        private void tightData(int stream, byte[] data) throws IOException {
+            if (data.length < 12) {
+                out.write(data);
+                return;
+            }
+            byte[] compressed = deflate(tightStreams[stream], data);
+            writeCompactLength(compressed.length);
+            out.write(compressed);
+        }
+
+        private void writeCompactLength(int length) throws IOException {
+            out.write(length & 0x7f | (length > 0x7f ? 0x80 : 0));
+            if (length > 0x7f) {
+                out.write(length >> 7 & 0x7f | (length > 0x3fff ? 0x80 : 0));
+                if (length > 0x3fff) {
+                    out.write(length >> 14 & 0xff);
+                }
+            }
+        }
+
+        /**
+         * Encodes the 64x64 tiles of the rectangle, row by row, with the given subencodings
+         */
+        void zrle(int[] picture, int x, int y, int w, int h, Tile[] tiles) throws IOException {
+            header(x, y, w, h, ENCODING_ZRLE);
+            ByteArrayOutputStream data = new ByteArrayOutputStream();
+            int tile = 0;
+            for (int ty = y; ty < y + h; ty += 64) {
+                for (int tx = x; tx < x + w; tx += 64) {
+                    int[] pixels = new int[Math.min(64, x + w - tx) * Math.min(64, y + h - ty)];
+                    int tw = Math.min(64, x + w - tx);
+                    for (int i = 0; i < pixels.length; i++) {
+                        pixels[i] = picture[(ty + i / tw) * WIDTH + tx + i % tw];
+                    }
+                    zrleTile(data, tiles[tile++], pixels, tw);
+                }
+            }
+            byte[] compressed = deflate(zrleStream, data.toByteArray());
+            out.writeInt(compressed.length);
+            out.write(compressed);
+        }
+
+        private static void zrleTile(ByteArrayOutputStream data, Tile tile, int[] pixels, int tw) {
+            Map<Integer, Integer> indexes = new LinkedHashMap<>();
+            for (int pixel : pixels) {
+                indexes.putIfAbsent(pixel, indexes.size());
+            }
+            switch (tile) {
+                case RAW:
+                    data.write(0);
+                    for (int pixel : pixels) {
+                        writeCpixel(data, pixel);
+                    }
+                    break;
+                case SOLID:
+                    assertEquals(1, indexes.size());
+                    data.write(1);
+                    writeCpixel(data, pixels[0]);
+                    break;
+                case PLAIN_RLE:
+                    data.write(128);
+                    for (int i = 0; i < pixels.length; ) {
+                        int run = runAt(pixels, i);
+                        writeCpixel(data, pixels[i]);
+                        writeRunLength(data, run);
+                        i += run;
+                    }
+                    break;
+                case PACKED_PALETTE:
+                    assertTrue(indexes.size() >= 2 && indexes.size() <= 16);
+                    data.write(indexes.size());
+                    indexes.keySet().forEach(colour -> writeCpixel(data, colour));
+                    int bits = indexes.size() == 2 ? 1 : indexes.size() <= 4 ? 2 : 4;
+                    for (int row = 0; row < pixels.length / tw; row++) {
+                        int current = 0;
+                        int used = 0;
+                        for (int col = 0; col < tw; col++) {
+                            current = current << bits | indexes.get(pixels[row * tw + col]);
+                            used += bits;
+                            if (used == 8) {
+                                data.write(current);
+                                current = 0;
+                                used = 0;
+                            }
+                        }
+                        if (used > 0) {
+                            data.write(current << (8 - used));
+                        }
+                    }
+                    break;
+                case PALETTE_RLE:
+                    assertTrue(indexes.size() >= 2 && indexes.size() <= 127);
+                    data.write(128 + indexes.size());
+                    indexes.keySet().forEach(colour -> writeCpixel(data, colour));
+                    for (int i = 0; i < pixels.length; ) {
+                        int run = runAt(pixels, i);
+                        int index = indexes.get(pixels[i]);
+                        if (run == 1) {
+                            data.write(index);
+                        } else {
+                            data.write(index | 128);
+                            writeRunLength(data, run);
+                        }
+                        i += run;
+                    }
+                    break;
+                default:
+                    throw new IllegalArgumentException(tile.toString());
+            }
+        }
+
+        private static int runAt(int[] pixels, int start) {
+            int end = start + 1;
+            while (end < pixels.length && pixels[end] == pixels[start]) {
+                end++;
+            }
+            return end - start;
+        }
+
+        private static void writeRunLength(ByteArrayOutputStream data, int run) {
+            int remaining = run - 1;
+            while (remaining >= 255) {
+                data.write(255);
+                remaining -= 255;
+            }
+            data.write(remaining);
+        }
+
+        private static void writeCpixel(ByteArrayOutputStream data, int pixel) {
+            data.write(pixel & 0xff);
+            data.write(pixel >> 8 & 0xff);
+            data.write(pixel >> 16 & 0xff);
+        }
+
+        private static void writeRgb(OutputStream out, int pixel) throws IOException {
+            out.write(pixel >> 16 & 0xff);
+            out.write(pixel >> 8 & 0xff);
+            out.write(pixel & 0xff);
+        }
+
+        private static int indexOf(int[] palette, int colour) {
+            for (int i = 0; i < palette.length; i++) {
+                if (palette[i] == colour) {
+                    return i;
+                }
+            }
+            throw new IllegalArgumentException(Integer.toHexString(colour));
+        }
+
+        private static byte[] deflate(Deflater deflater, byte[] data) {
+            deflater.setInput(data);
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int n;
+            do {
+                n = deflater.deflate(buffer, 0, buffer.length, Deflater.SYNC_FLUSH);
+                compressed.write(buffer, 0, n);
+            } while (n == buffer.length);
+            return compressed.toByteArray();
+        }
+    }
+
+    // Picture helpers
+
+    private static void noise(int[] picture, Random random, int x, int y, int w, int h) {
+        for (int row = y; row < y + h; row++) {
+            for (int col = x; col < x + w; col++) {
+                picture[row * WIDTH + col] = random.nextInt(0x1000000);
+            }
+        }
+    }
+
+    private static void fill(int[] picture, int colour, int x, int y, int w, int h) {
+        for (int row = y; row < y + h; row++) {
+            Arrays.fill(picture, row * WIDTH + x, row * WIDTH + x + w, colour);
+        }
+    }
+
+    private static void pick(int[] picture, Random random, int[] palette, int x, int y, int w, int h) {
+        for (int row = y; row < y + h; row++) {
+            for (int col = x; col < x + w; col++) {
+                picture[row * WIDTH + col] = palette[random.nextInt(palette.length)];
+            }
+        }
+    }
+
+    /**
+     * Runs of up to 300 pixels in tile order, from the palette or of any colour if it is null
+     */
+    private static void runs(int[] picture, Random random, int[] palette, int x, int y, int w, int h) {
+        int colour = 0;
+        int left = 0;
+        for (int i = 0; i < w * h; i++) {
+            if (left == 0) {
+                colour = palette == null ? random.nextInt(0x1000000) : palette[i / 300 % palette.length];
+                left = 1 + random.nextInt(300);
+            }
+            picture[(y + i / w) * WIDTH + x + i % w] = colour;
+            left--;
+        }
+    }
+
+    private static void copy(int[] picture, int srcX, int srcY, int x, int y, int w, int h) {
+        for (int row = 0; row < h; row++) {
+            System.arraycopy(picture, (srcY + row) * WIDTH + srcX, picture, (y + row) * WIDTH + x, w);
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package com.qemumanager;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import org.junit.Test;
+
+/**
+ * Start latency of 100 VMs against a stub qemu that only sleeps: a fork of
+ * the JVM through ProcessBuilder, as QemuVmPanel does without the launch
+ * helper, against QemuProcessSpawner. Also times generateQemuCommand across
+ * stop/start cycles, which lease new ports each time, with the cached launch
+ * plan against rebuilding it for every start.
+ */
+public class QemuSpawnBenchmark {
+    private static final int LAUNCHES = 100;
+    private static final int WARMUPS = 10;
+    private static final long LAUNCH_BUDGET_NS = TimeUnit.SECONDS.toNanos(1);
+
+    @Test
+    public void spawnLatency() throws Exception {
+        assumeTrue("the launch helper needs a POSIX shell", QemuProcessSpawner.isSupported());
+        Path dir = Files.createTempDirectory("spawn-benchmark");
+        List<ProcessHandle> started = new ArrayList<>();
+        try {
+            File qemu = dir.resolve("qemu-system-x86_64").toFile();
+            Files.write(qemu.toPath(), "#!/bin/sh\nexec sleep 600\n".getBytes(StandardCharsets.UTF_8));
+            assertTrue(qemu.setExecutable(true));
+            String[] command = {qemu.getPath(), "-name", "bench", "-m", "1024", "-display", "none"};
+            int launches = QemuBenchmark.scaled(LAUNCHES);
+
+            QemuBenchmark.Result forked = QemuBenchmark.measure("ProcessBuilder.start", WARMUPS, launches, () -> {
+                ProcessBuilder pb = new ProcessBuilder(command);
+                pb.redirectErrorStream(true);
+                started.add(pb.start().toHandle());
+            }).print();
+            File logFile = dir.resolve("bench.log").toFile();
+            QemuProcessSpawner spawner = QemuProcessSpawner.getInstance();
+            QemuBenchmark.Result helper = QemuBenchmark.measure("launch helper", WARMUPS, launches,
+                () -> started.add(spawner.spawn(command, logFile))).print();
+            QemuBenchmark.report(String.format("launch helper p50 is %.1fx that of ProcessBuilder, p99 %.1fx",
+                (double) helper.p50() / forked.p50(), (double) helper.p99() / forked.p99()));
+
+            for (ProcessHandle handle : started) {
+                assertTrue("every launch must leave a running qemu", handle.isAlive());
+            }
+            assertTrue("a launch must not take a second", helper.p99() < LAUNCH_BUDGET_NS);
+        } finally {
+            for (ProcessHandle handle : started) {
+                handle.destroy();
+            }
+            for (ProcessHandle handle : started) {
+                handle.onExit().get(5, TimeUnit.SECONDS);
+            }
+            Thread.sleep(200); // The watchers write their exit files
+            try (Stream<Path> files = Files.walk(dir)) {
+                files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+            }
+        }
+    }
+
+    @Test
+    public void launchPlanCache() throws Exception {
+        List<QemuVm> vms = new ArrayList<>();
+        for (int i = 0; i < QemuBenchmark.scaled(LAUNCHES); i++) {
+            QemuVm vm = new QemuVm("plan-" + i);
+            vm.setDiskPath("/var/lib/qemu/disks/plan-" + i + ".qcow2");
+            vms.add(vm);
+        }
+        int[] cycle = new int[1];
+        QemuBenchmark.Result rebuilt = QemuBenchmark.measure("rebuild " + vms.size() + " plans", 200, 1000, () -> {
+            cycle[0]++;
+            for (QemuVm vm : vms) {
+                restart(vm, cycle[0]);
+                vm.invalidateLaunchPlan();
+                vm.generateQemuCommand();
+            }
+        }).print();
+        QemuBenchmark.Result cached = QemuBenchmark.measure("cached " + vms.size() + " plans", 200, 1000, () -> {
+            cycle[0]++;
+            for (QemuVm vm : vms) {
+                restart(vm, cycle[0]);
+                vm.generateQemuCommand();
+            }
+        }).print();
+        QemuBenchmark.report(String.format("cached plans are %.1fx cheaper", (double) rebuilt.p50() / cached.p50()));
+
+        QemuVm vm = vms.get(0);
+        restart(vm, cycle[0] + 1);
+        String[] fromCache = vm.generateQemuCommand();
+        vm.invalidateLaunchPlan();
+        assertArrayEquals("the cached plan must carry the new ports", vm.generateQemuCommand(), fromCache);
+        assertTrue("the cached plan must be cheaper than a rebuild", cached.p50() < rebuilt.p50());
+    }
+
+    /**
+     * What a stop and start does to the ports: the exit handler clears the control ports, the next
+     * launch leases new display and control ports (here rotated through the default ranges, as
+     * QemuPortAllocator's probes of the host would swamp the timing)
+     */
+    private static void restart(QemuVm vm, int cycle) {
+        vm.setQmpPort(0);
+        vm.setGuestAgentPort(0);
+        vm.setSerialPort(0);
+        int offset = cycle % 96;
+        vm.setVncPort(5901 + offset);
+        vm.setQmpPort(6100 + offset * 3);
+        vm.setGuestAgentPort(6101 + offset * 3);
+        vm.setSerialPort(6102 + offset * 3);
+    }
+}
@@ -0,0 +1,120 @@
+package com.qemumanager;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import org.junit.Test;
+
+/**
+ * Lookup cost of QemuVmIndex at 1,000 and 10,000 VMs, next to the linear scan
+ * the disk panel used to find the VM of each disk. Indexed lookups should cost
+ * the same at both sizes while the scan grows with the inventory.
+ */
+public class QemuVmIndexBenchmark {
+    private static final int SMALL = 1000;
+    private static final int LARGE = 10000;
+    private static final int LOOKUPS = 10000;
+    private static final int SAMPLES = 50;
+    private static final int VMS_PER_TAG = 20;
+
+    @Test
+    public void lookupsStayConstantTime() throws Exception {
+        measureLookups(QemuBenchmark.scaled(SMALL)); // Lets the JIT settle before anything counts
+        long[] small = measureLookups(QemuBenchmark.scaled(SMALL));
+        long[] large = measureLookups(QemuBenchmark.scaled(LARGE));
+        String[] names = {"name", "disk path", "VNC port", "tag", "update", "linear scan"};
+        for (int i = 0; i < names.length; i++) {
+            QemuBenchmark.report(String.format("%s: %.2fx from %d to %d VMs", names[i], (double) large[i] / small[i],
+                QemuBenchmark.scaled(SMALL), QemuBenchmark.scaled(LARGE)));
+        }
+        // Lookups only get the cache misses of a ten times larger heap (and names, being sorted, log n);
+        // the scan grows at least tenfold
+        for (int i = 0; i < 5; i++) {
+            assertTrue(names[i] + " lookups must not grow with the inventory", large[i] < small[i] * 5);
+        }
+        assertTrue("the scan is expected to grow", large[5] > small[5] * 5);
+    }
+
+    /**
+     * Returns the p50 ns per lookup for name, disk, port, tag, update and the linear disk scan
+     */
+    private static long[] measureLookups(int count) throws Exception {
+        QemuVmIndex index = new QemuVmIndex();
+        List<QemuVm> vms = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            QemuVm vm = new QemuVm("vm-" + i);
+            vm.setDiskPath("/var/lib/qemu/disks/vm-" + i + ".qcow2");
+            vm.setVncPort(5900 + i);
+            vm.setTags(Arrays.asList("team-" + i / VMS_PER_TAG, i % 2 == 0 ? "even" : "odd"));
+            vm.setStatus(QemuVm.VmStatus.STOPPED);
+            index.add(vm);
+            vms.add(vm);
+        }
+        Random random = new Random(42);
+        int[] keys = new int[LOOKUPS];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = random.nextInt(count);
+        }
+        String[] names = new String[LOOKUPS];
+        String[] disks = new String[LOOKUPS];
+        String[] tags = new String[LOOKUPS];
+        for (int i = 0; i < LOOKUPS; i++) {
+            names[i] = "vm-" + keys[i];
+            disks[i] = "/var/lib/qemu/disks/vm-" + keys[i] + ".qcow2";
+            tags[i] = "team-" + keys[i] / VMS_PER_TAG;
+        }
+        String size = " at " + count + " VMs";
+        int[] found = new int[1];
+        long[] result = new long[6];
+        result[0] = perLookup(QemuBenchmark.measure("findByName" + size, 20, SAMPLES, () -> {
+            for (String name : names) {
+                found[0] += index.findByName(name).size();
+            }
+        }).print(), LOOKUPS);
+        result[1] = perLookup(QemuBenchmark.measure("findByDiskPath" + size, 20, SAMPLES, () -> {
+            for (String disk : disks) {
+                found[0] += index.findByDiskPath(disk).size();
+            }
+        }).print(), LOOKUPS);
+        result[2] = perLookup(QemuBenchmark.measure("findByVncPort" + size, 20, SAMPLES, () -> {
+            for (int key : keys) {
+                found[0] += index.findByVncPort(5900 + key).size();
+            }
+        }).print(), LOOKUPS);
+        result[3] = perLookup(QemuBenchmark.measure("findByTag" + size, 20, SAMPLES, () -> {
+            for (String tag : tags) {
+                found[0] += index.findByTag(tag).size();
+            }
+        }).print(), LOOKUPS);
+        QemuVm.VmStatus[] statuses = QemuVm.VmStatus.values();
+        result[4] = perLookup(QemuBenchmark.measure("update (status change)" + size, 20, SAMPLES, () -> {
+            for (int i = 0; i < keys.length; i++) {
+                QemuVm vm = vms.get(keys[i]);
+                vm.setStatus(statuses[i % statuses.length]);
+                index.update(vm);
+            }
+        }).print(), LOOKUPS);
+        int scans = Math.max(1, LOOKUPS / 100); // The scan is slow enough with fewer runs
+        result[5] = perLookup(QemuBenchmark.measure("linear disk scan" + size, 1, SAMPLES, () -> {
+            for (int i = 0; i < scans; i++) {
+                for (QemuVm vm : vms) {
+                    if (disks[i].equals(vm.getDiskPath())) {
+                        found[0]++;
+                        break;
+                    }
+                }
+            }
+        }).print(), scans);
+        assertEquals(count, index.search("").size());
+        assertTrue(found[0] > 0);
+        return result;
+    }
+
+    private static long perLookup(QemuBenchmark.Result result, int lookups) {
+        return Math.max(1, result.p50() / lookups);
+    }
+}
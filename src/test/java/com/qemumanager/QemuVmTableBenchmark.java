@@ -0,0 +1,124 @@
+package com.qemumanager;
+
+import static org.junit.Assert.assertTrue;
+
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+import javax.swing.JTable;
+import javax.swing.RowSorter;
+import javax.swing.SortOrder;
+import javax.swing.SwingUtilities;
+import javax.swing.table.DefaultTableModel;
+import javax.swing.table.TableModel;
+import javax.swing.table.TableRowSorter;
+import org.junit.Test;
+
+/**
+ * Cost of a 10 Hz status tick on a sorted table of 2,000 VMs that all change
+ * status: rebuilding a DefaultTableModel and repainting the viewport, as the
+ * panel did before, against row-level events from QemuVmTableModel that
+ * only repaint the changed rows still in view.
+ */
+public class QemuVmTableBenchmark {
+    private static final int VMS = 2000;
+    private static final int TICKS = 50;
+    private static final int VISIBLE_ROWS = 40;
+    private static final long TICK_BUDGET_NS = 100_000_000L;
+    private static final QemuVm.VmStatus[] STATUSES = {
+        QemuVm.VmStatus.STOPPED, QemuVm.VmStatus.STARTING, QemuVm.VmStatus.RUNNING, QemuVm.VmStatus.STOPPING
+    };
+
+    @Test
+    public void statusTicksOnTwoThousandVms() throws Exception {
+        int vmCount = QemuBenchmark.scaled(VMS);
+        List<QemuVm> vms = new ArrayList<>();
+        for (int i = 0; i < vmCount; i++) {
+            QemuVm vm = new QemuVm(String.format("vm-%05d", i));
+            vm.setStatus(QemuVm.VmStatus.STOPPED);
+            vms.add(vm);
+        }
+        long[] result = new long[2];
+        SwingUtilities.invokeAndWait(() -> {
+            try {
+                result[0] = measureFullRebuild(vms).print().p50();
+                result[1] = measureRowUpdates(vms).print().p50();
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        QemuBenchmark.report(String.format("row-level ticks are %.1fx cheaper", (double) result[0] / result[1]));
+        assertTrue("a tick must fit in its 100 ms period", result[1] < TICK_BUDGET_NS);
+    }
+
+    private static QemuBenchmark.Result measureFullRebuild(List<QemuVm> vms) throws Exception {
+        DefaultTableModel model = new DefaultTableModel(new Object[]{"Name", "Status", "Memory (MB)", "CPU Cores"}, 0);
+        JTable table = createTable(model, 0);
+        int[] tick = {0};
+        return QemuBenchmark.measure("full rebuild, " + vms.size() + " VMs", 5, TICKS, () -> {
+            advance(vms, tick[0]++);
+            model.setRowCount(0);
+            for (QemuVm vm : vms) {
+                model.addRow(new Object[]{vm.getName(), vm.getStatus(), vm.getMemoryMB(), vm.getCpuCores()});
+            }
+            paint(table, viewport(table));
+        });
+    }
+
+    private static QemuBenchmark.Result measureRowUpdates(List<QemuVm> vms) throws Exception {
+        QemuVmTableModel model = new QemuVmTableModel();
+        model.setVirtualMachines(vms);
+        JTable table = createTable(model, QemuVmTableModel.COLUMN_NAME);
+        Rectangle visible = viewport(table);
+        int[] tick = {0};
+        return QemuBenchmark.measure("row updates, " + vms.size() + " VMs", 5, TICKS, () -> {
+            advance(vms, tick[0]++);
+            Rectangle dirty = null;
+            for (QemuVm vm : vms) {
+                model.fireVmUpdated(vm);
+                int viewRow = table.convertRowIndexToView(model.indexOf(vm));
+                Rectangle row = table.getCellRect(viewRow, 0, true).union(
+                    table.getCellRect(viewRow, table.getColumnCount() - 1, true));
+                if (row.intersects(visible)) {
+                    dirty = dirty == null ? row : dirty.union(row);
+                }
+            }
+            if (dirty != null) {
+                paint(table, dirty.intersection(visible));
+            }
+        });
+    }
+
+    private static JTable createTable(TableModel model, int nameColumn) {
+        JTable table = new JTable(model);
+        TableRowSorter<TableModel> sorter = new TableRowSorter<>(model);
+        table.setRowSorter(sorter);
+        sorter.setSortKeys(List.of(new RowSorter.SortKey(nameColumn, SortOrder.DESCENDING)));
+        table.setSize(1200, table.getRowHeight() * model.getRowCount());
+        return table;
+    }
+
+    /**
+     * Stands in for the scroll pane's viewport, scrolled to the top
+     */
+    private static Rectangle viewport(JTable table) {
+        return new Rectangle(0, 0, table.getWidth(), table.getRowHeight() * VISIBLE_ROWS);
+    }
+
+    private static void advance(List<QemuVm> vms, int tick) {
+        for (int i = 0; i < vms.size(); i++) {
+            vms.get(i).setStatus(STATUSES[(i + tick) % STATUSES.length]);
+        }
+    }
+
+    private static void paint(JTable table, Rectangle clip) {
+        BufferedImage image = new BufferedImage(table.getWidth(), table.getRowHeight() * VISIBLE_ROWS,
+            BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = image.createGraphics();
+        g.setClip(clip);
+        table.paint(g);
+        g.dispose();
+    }
+}
@@ -0,0 +1,222 @@
+package com.qemumanager;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Golden QEMU command lines generated by QemuVm
+ */
+public class QemuVmTest {
+
+    @Rule
+    public final TemporaryFolder temp = new TemporaryFolder();
+
+    @Test
+    public void unthrottledDiskIsAPlainDrive() {
+        QemuVm vm = vm("web");
+
+        assertEquals(command(
+            "-name", "web", "-m", "1024", "-smp", "1", "-enable-kvm",
+            "-drive", "file=/var/lib/qemu/web.qcow2,format=qcow2,id=disk0,node-name=disk0-format",
+            "-boot", "dc", "-nic", "none", "-monitor", "stdio",
+            "-vnc", ":1", "-qmp", "tcp:127.0.0.1:6100,server=on,wait=off"), argv(vm));
+    }
+
+    @Test
+    public void unthrottledDiskPathCommasAreEscaped() {
+        QemuVm vm = vm("web");
+        vm.setDiskPath("/var/lib/qemu/web,format=raw.qcow2");
+
+        assertEquals("file=/var/lib/qemu/web,,format=raw.qcow2,format=qcow2,id=disk0,node-name=disk0-format",
+            after(argv(vm), "-drive"));
+    }
+
+    @Test
+    public void throttledDiskGoesThroughAThrottleFilter() {
+        QemuVm vm = vm("web");
+        vm.setDiskPath("/var/lib/qemu/web,1.qcow2"); // The comma is doubled inside -blockdev
+        vm.setDiskThrottle(new QemuDiskThrottle(500, 2000, 100, 200, 10));
+
+        assertEquals(command(
+            "-name", "web", "-m", "1024", "-smp", "1", "-enable-kvm",
+            "-object", "throttle-group,id=throttle-disk0,x-iops-total=500,x-iops-total-max=2000"
+                + ",x-bps-total=104857600,x-bps-total-max=209715200"
+                + ",x-iops-total-max-length=10,x-bps-total-max-length=10",
+            "-blockdev", "driver=file,node-name=disk0-file,filename=/var/lib/qemu/web,,1.qcow2",
+            "-blockdev", "driver=qcow2,node-name=disk0-format,file=disk0-file",
+            "-blockdev", "driver=throttle,node-name=disk0,throttle-group=throttle-disk0,file=disk0-format",
+            "-device", "ide-hd,bus=ide.0,unit=0,drive=disk0,id=disk0-device",
+            "-boot", "dc", "-nic", "none", "-monitor", "stdio",
+            "-vnc", ":1", "-qmp", "tcp:127.0.0.1:6100,server=on,wait=off"), argv(vm));
+    }
+
+    @Test
+    public void throttledDiskKeepsTheMachinesDevice() {
+        QemuVm vm = vm("arm");
+        vm.setArchitecture("aarch64");
+        vm.setDiskThrottle(new QemuDiskThrottle(0, 0, 50, 0, 0)); // No burst, so no burst options
+
+        List<String> argv = argv(vm);
+
+        assertEquals("throttle-group,id=throttle-disk0,x-bps-total=52428800", after(argv, "-object"));
+        assertEquals("virtio-blk-pci,drive=disk0,id=disk0-device", after(argv, "-device"));
+        assertEquals("virt", after(argv, "-machine"));
+    }
+
+    @Test
+    public void throttleGroupReplacesTheDisksOwnLimits() {
+        QemuSettings settings = QemuSettings.getInstance();
+        Map<String, QemuDiskThrottle> groups = settings.getThrottleGroups();
+        boolean autoSave = settings.isAutoSaveEnabled();
+        settings.setAutoSaveEnabled(false);
+        try {
+            settings.setThrottleGroups(Collections.singletonMap("bulk", new QemuDiskThrottle(200, 0, 0, 0, 0)));
+            QemuVm vm = vm("batch");
+            vm.setDiskThrottle(new QemuDiskThrottle(5000, 0, 0, 0, 0)); // Ignored while in the group
+            vm.setThrottleGroup("bulk");
+
+            List<String> argv = argv(vm);
+
+            assertEquals("throttle-group,id=throttle-group-bulk,x-iops-total=200", after(argv, "-object"));
+            assertEquals(Arrays.asList(
+                "driver=file,node-name=disk0-file,filename=/var/lib/qemu/batch.qcow2",
+                "driver=qcow2,node-name=disk0-format,file=disk0-file",
+                "driver=throttle,node-name=disk0,throttle-group=throttle-group-bulk,file=disk0-format"),
+                all(argv, "-blockdev"));
+
+            // Editing the group reaches the cached plan
+            settings.setThrottleGroups(Collections.singletonMap("bulk", new QemuDiskThrottle(300, 0, 0, 0, 0)));
+            assertEquals("throttle-group,id=throttle-group-bulk,x-iops-total=300", after(argv(vm), "-object"));
+        } finally {
+            settings.setThrottleGroups(groups);
+            settings.setAutoSaveEnabled(autoSave);
+        }
+    }
+
+    @Test
+    public void portsChangeWithoutRebuildingThePlan() {
+        QemuVm vm = vm("web");
+        vm.setGuestAgentPort(6101);
+        vm.setSerialPort(6102);
+        List<String> first = argv(vm);
+
+        // What the exit handler and the next start do
+        vm.setQmpPort(0);
+        vm.setGuestAgentPort(0);
+        vm.setSerialPort(0);
+        vm.setVncPort(5907);
+        vm.setQmpPort(6200);
+        List<String> second = argv(vm);
+
+        assertEquals(Arrays.asList("socket,id=qga0,host=127.0.0.1,port=6101,server=on,wait=off",
+            "socket,id=serial0,host=127.0.0.1,port=6102,server=on,wait=off"), all(first, "-chardev"));
+        assertEquals(first.subList(0, first.indexOf("-vnc")), second.subList(0, second.indexOf("-vnc")));
+        assertEquals(Arrays.asList("-vnc", ":7", "-qmp", "tcp:127.0.0.1:6200,server=on,wait=off"),
+            second.subList(second.indexOf("-vnc"), second.size()));
+    }
+
+    @Test
+    public void sharedFoldersOverVirtiofsAnd9p() throws Exception {
+        File virtiofsd = temp.newFile("virtiofsd");
+        assertTrue(virtiofsd.setExecutable(true));
+        QemuSettings settings = QemuSettings.getInstance();
+        String virtiofsdPath = settings.getVirtiofsdPath();
+        boolean autoSave = settings.isAutoSaveEnabled();
+        settings.setAutoSaveEnabled(false);
+        try {
+            settings.setVirtiofsdPath(virtiofsd.getPath());
+            QemuVm vm = vm("web");
+            QemuSharedFolder source = new QemuSharedFolder("src", "/home/me/src");
+            QemuSharedFolder data = new QemuSharedFolder("data", "/srv/a,b"); // The comma is doubled in -fsdev
+            data.setMode(QemuSharedFolder.Mode.NINEP);
+            data.setReadOnly(true);
+            vm.setSharedFolders(Arrays.asList(source, data));
+            String socket = settings.getQemuManagerRunPath() + File.separator + "web-src.virtiofs";
+
+            assertEquals(command(
+                "-name", "web", "-m", "1024",
+                "-object", "memory-backend-memfd,id=mem,size=1024M,share=on", "-numa", "node,memdev=mem",
+                "-smp", "1", "-enable-kvm",
+                "-drive", "file=/var/lib/qemu/web.qcow2,format=qcow2,id=disk0,node-name=disk0-format",
+                "-boot", "dc", "-nic", "none",
+                "-chardev", "socket,id=fs0,path=" + socket.replace(",", ",,"),
+                "-device", "vhost-user-fs-pci,chardev=fs0,tag=src",
+                "-fsdev", "local,id=fsdev1,path=/srv/a,,b,security_model=mapped-xattr,readonly=on",
+                "-device", "virtio-9p-pci,fsdev=fsdev1,mount_tag=data",
+                "-monitor", "stdio",
+                "-vnc", ":1", "-qmp", "tcp:127.0.0.1:6100,server=on,wait=off"), argv(vm));
+
+            // Without virtiofsd the folder falls back to 9p and the guest memory need not be shared
+            settings.setVirtiofsdPath(new File(temp.getRoot(), "missing").getPath());
+            List<String> argv = argv(vm);
+
+            assertFalse(argv.contains("-numa"));
+            assertFalse(argv.contains("-chardev"));
+            assertEquals(Arrays.asList(
+                "local,id=fsdev0,path=/home/me/src,security_model=mapped-xattr",
+                "local,id=fsdev1,path=/srv/a,,b,security_model=mapped-xattr,readonly=on"), all(argv, "-fsdev"));
+            assertEquals(Arrays.asList("virtio-9p-pci,fsdev=fsdev0,mount_tag=src",
+                "virtio-9p-pci,fsdev=fsdev1,mount_tag=data"), all(argv, "-device"));
+        } finally {
+            settings.setVirtiofsdPath(virtiofsdPath);
+            settings.setAutoSaveEnabled(autoSave);
+        }
+    }
+
+    /**
+     * A VM with a disk, no NIC, VNC display 1 and QMP on 6100
+     */
+    static QemuVm vm(String name) {
+        QemuVm vm = new QemuVm(name);
+        vm.setDiskPath("/var/lib/qemu/" + name + ".qcow2");
+        vm.setNics(new ArrayList<>());
+        vm.setGuestAgentPort(0);
+        vm.setSerialPort(0);
+        vm.setVncPort(5901);
+        vm.setQmpPort(6100);
+        return vm;
+    }
+
+    static List<String> argv(QemuVm vm) {
+        return Arrays.asList(vm.generateQemuCommand());
+    }
+
+    static List<String> command(String... arguments) {
+        List<String> command = new ArrayList<>();
+        command.add(QemuSettings.getInstance().getQemuPath());
+        command.addAll(Arrays.asList(arguments));
+        return command;
+    }
+
+    /**
+     * The value following the first occurrence of the option
+     */
+    static String after(List<String> argv, String option) {
+        int index = argv.indexOf(option);
+        return index >= 0 && index + 1 < argv.size() ? argv.get(index + 1) : null;
+    }
+
+    /**
+     * The values of every occurrence of the option, in order
+     */
+    static List<String> all(List<String> argv, String option) {
+        List<String> values = new ArrayList<>();
+        for (int i = 0; i + 1 < argv.size(); i++) {
+            if (argv.get(i).equals(option)) {
+                values.add(argv.get(i + 1));
+            }
+        }
+        return values;
+    }
+}